@@ -0,0 +1,172 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazon.carbonado;
+
+/**
+ * Describes an aggregate function over a property, for use with {@link
+ * Query#aggregate Query.aggregate} and {@link Query#fetchAggregates
+ * Query.fetchAggregates}. Aggregates are immutable.
+ *
+ * <p>Except for {@link #count()}, aggregate functions ignore null property
+ * values. The result types are as follows:
+ *
+ * <ul>
+ * <li>count: {@code Long}
+ * <li>sum: {@code Long} for integral properties, {@code Double} for floating
+ * point properties, and {@code BigInteger} or {@code BigDecimal} for
+ * properties of those types
+ * <li>min and max: the boxed type of the property
+ * <li>avg: {@code Double}
+ * </ul>
+ *
+ * Other than count, the result is null if no property values are aggregated.
+ *
+ * @author Brian S O'Neill
+ * @since 1.2.4
+ */
+public final class Aggregate {
+    /**
+     * Aggregate function.
+     */
+    public enum Function {
+        COUNT, SUM, MIN, MAX, AVG;
+
+        /**
+         * Returns the function name in lowercase.
+         */
+        public String toString() {
+            return name().toLowerCase();
+        }
+    }
+
+    private static final Aggregate COUNT_ALL = new Aggregate(Function.COUNT, null);
+
+    /**
+     * Returns an aggregate which counts all results.
+     */
+    public static Aggregate count() {
+        return COUNT_ALL;
+    }
+
+    /**
+     * Returns an aggregate which counts the results whose property value is
+     * not null.
+     *
+     * @throws IllegalArgumentException if property is null
+     */
+    public static Aggregate count(String property) {
+        return new Aggregate(Function.COUNT, checkProperty(property));
+    }
+
+    /**
+     * Returns an aggregate which sums property values. The property must be
+     * numeric.
+     *
+     * @throws IllegalArgumentException if property is null
+     */
+    public static Aggregate sum(String property) {
+        return new Aggregate(Function.SUM, checkProperty(property));
+    }
+
+    /**
+     * Returns an aggregate which finds the lowest property value. The
+     * property must be primitive or Comparable.
+     *
+     * @throws IllegalArgumentException if property is null
+     */
+    public static Aggregate min(String property) {
+        return new Aggregate(Function.MIN, checkProperty(property));
+    }
+
+    /**
+     * Returns an aggregate which finds the highest property value. The
+     * property must be primitive or Comparable.
+     *
+     * @throws IllegalArgumentException if property is null
+     */
+    public static Aggregate max(String property) {
+        return new Aggregate(Function.MAX, checkProperty(property));
+    }
+
+    /**
+     * Returns an aggregate which averages property values. The property must
+     * be numeric.
+     *
+     * @throws IllegalArgumentException if property is null
+     */
+    public static Aggregate avg(String property) {
+        return new Aggregate(Function.AVG, checkProperty(property));
+    }
+
+    private static String checkProperty(String property) {
+        if (property == null) {
+            throw new IllegalArgumentException("Property name is null");
+        }
+        return property;
+    }
+
+    private final Function mFunction;
+    private final String mProperty;
+
+    private Aggregate(Function function, String property) {
+        mFunction = function;
+        mProperty = property;
+    }
+
+    public Function getFunction() {
+        return mFunction;
+    }
+
+    /**
+     * Returns the name of the aggregated property, which is null only for an
+     * aggregate which counts all results.
+     */
+    public String getPropertyName() {
+        return mProperty;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = mFunction.hashCode();
+        if (mProperty != null) {
+            hash = hash * 31 + mProperty.hashCode();
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof Aggregate) {
+            Aggregate other = (Aggregate) obj;
+            return mFunction == other.mFunction
+                && (mProperty == null ? other.mProperty == null : mProperty.equals(other.mProperty));
+        }
+        return false;
+    }
+
+    /**
+     * Returns the aggregate in the form "function(property)".
+     */
+    @Override
+    public String toString() {
+        return mFunction + "(" + (mProperty == null ? "" : mProperty) + ')';
+    }
+}
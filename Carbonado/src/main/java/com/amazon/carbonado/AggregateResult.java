@@ -0,0 +1,167 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazon.carbonado;
+
+/**
+ * Holds the results of aggregate functions for one group of query
+ * results. Groups are identified by the values of their group properties.
+ *
+ * @author Brian S O'Neill
+ * @see Query#fetchAggregates
+ * @since 1.2.4
+ */
+public class AggregateResult {
+    private final String[] mGroupProperties;
+    private final Object[] mGroupValues;
+    private final Aggregate[] mAggregates;
+    private final Object[] mValues;
+
+    /**
+     * The given arrays are not copied, and so they must not be modified
+     * afterwards.
+     *
+     * @param groupProperties names of group properties
+     * @param groupValues group property values, one for each group property
+     * @param aggregates aggregates which were computed
+     * @param values aggregate results, one for each aggregate
+     * @throws IllegalArgumentException if any array is null or if the lengths
+     * of paired arrays differ
+     */
+    public AggregateResult(String[] groupProperties, Object[] groupValues,
+                           Aggregate[] aggregates, Object[] values)
+    {
+        if (groupProperties == null || groupValues == null ||
+            aggregates == null || values == null)
+        {
+            throw new IllegalArgumentException();
+        }
+        if (groupProperties.length != groupValues.length) {
+            throw new IllegalArgumentException("Group value count mismatch");
+        }
+        if (aggregates.length != values.length) {
+            throw new IllegalArgumentException("Aggregate value count mismatch");
+        }
+        mGroupProperties = groupProperties;
+        mGroupValues = groupValues;
+        mAggregates = aggregates;
+        mValues = values;
+    }
+
+    /**
+     * Returns the amount of group properties, which is zero if results were
+     * not grouped.
+     */
+    public int getGroupPropertyCount() {
+        return mGroupProperties.length;
+    }
+
+    /**
+     * Returns the name of a group property.
+     *
+     * @throws IndexOutOfBoundsException
+     */
+    public String getGroupProperty(int index) {
+        return mGroupProperties[index];
+    }
+
+    /**
+     * Returns the value of a group property, which is shared by all results
+     * in the group.
+     *
+     * @throws IndexOutOfBoundsException
+     */
+    public Object getGroupValue(int index) {
+        return mGroupValues[index];
+    }
+
+    /**
+     * Returns the value of a group property, which is shared by all results
+     * in the group.
+     *
+     * @throws IllegalArgumentException if not a group property
+     */
+    public Object getGroupValue(String property) {
+        for (int i=0; i<mGroupProperties.length; i++) {
+            if (mGroupProperties[i].equals(property)) {
+                return mGroupValues[i];
+            }
+        }
+        throw new IllegalArgumentException("Not a group property: " + property);
+    }
+
+    /**
+     * Returns the amount of aggregates.
+     */
+    public int getAggregateCount() {
+        return mAggregates.length;
+    }
+
+    /**
+     * Returns an aggregate, in the order in which they were requested.
+     *
+     * @throws IndexOutOfBoundsException
+     */
+    public Aggregate getAggregate(int index) {
+        return mAggregates[index];
+    }
+
+    /**
+     * Returns the result of an aggregate, in the order in which they were
+     * requested.
+     *
+     * @throws IndexOutOfBoundsException
+     */
+    public Object getValue(int index) {
+        return mValues[index];
+    }
+
+    /**
+     * Returns the result of an aggregate.
+     *
+     * @throws IllegalArgumentException if aggregate wasn't computed
+     */
+    public Object getValue(Aggregate aggregate) {
+        for (int i=0; i<mAggregates.length; i++) {
+            if (mAggregates[i].equals(aggregate)) {
+                return mValues[i];
+            }
+        }
+        throw new IllegalArgumentException("Not computed: " + aggregate);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        b.append('{');
+        int count = 0;
+        for (int i=0; i<mGroupProperties.length; i++) {
+            if (count++ > 0) {
+                b.append(", ");
+            }
+            b.append(mGroupProperties[i]).append('=').append(mGroupValues[i]);
+        }
+        for (int i=0; i<mAggregates.length; i++) {
+            if (count++ > 0) {
+                b.append(", ");
+            }
+            b.append(mAggregates[i]).append('=').append(mValues[i]);
+        }
+        b.append('}');
+        return b.toString();
+    }
+}
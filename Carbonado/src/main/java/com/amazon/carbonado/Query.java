@@ -545,6 +545,53 @@ public interface Query<S extends Storable> {
      */
     boolean exists(Controller controller) throws FetchException;
 
+    /**
+     * Computes aggregate functions over all results matched by this query,
+     * without fetching them when the repository supports it. Query ordering
+     * is ignored. If no results match, counts are zero and all other
+     * aggregate results are null.
+     *
+     * <pre>
+     * AggregateResult result = orders.query("customerId = ?").with(id)
+     *     .aggregate(Aggregate.count(), Aggregate.sum("total"));
+     * long count = (Long) result.getValue(0);
+     * </pre>
+     *
+     * @param aggregates aggregate functions to compute
+     * @return aggregate results, never null
+     * @throws IllegalStateException if any blank parameters in this query
+     * @throws IllegalArgumentException if any aggregate property is unknown
+     * or unsupported
+     * @throws FetchException if storage layer throws an exception
+     * @since 1.2.4
+     */
+    AggregateResult aggregate(Aggregate... aggregates) throws FetchException;
+
+    /**
+     * Computes aggregate functions over all results matched by this query, one
+     * result per distinct combination of group property values. Results are
+     * ordered by the group properties, ascending. Query ordering is
+     * ignored. If no group properties are given, one result is produced if
+     * any results match.
+     *
+     * <pre>
+     * Cursor&lt;AggregateResult&gt; cursor = orders.query()
+     *     .fetchAggregates(new String[] {"region"}, Aggregate.sum("total"));
+     * </pre>
+     *
+     * @param groupProperties names of properties to group by, which cannot be
+     * join properties
+     * @param aggregates aggregate functions to compute for each group
+     * @return cursor over aggregate results
+     * @throws IllegalStateException if any blank parameters in this query
+     * @throws IllegalArgumentException if any group or aggregate property is
+     * unknown or unsupported
+     * @throws FetchException if storage layer throws an exception
+     * @since 1.2.4
+     */
+    Cursor<AggregateResult> fetchAggregates(String[] groupProperties, Aggregate... aggregates)
+        throws FetchException;
+
     /**
      * Print the native query to standard out, which is useful for performance
      * analysis. Not all repositories have a native query format. An example
@@ -18,6 +18,8 @@
 
 package com.amazon.carbonado;
 
+import java.util.Collection;
+
 import com.amazon.carbonado.filter.Filter;
 
 /**
@@ -117,6 +119,28 @@ public interface Storage<S extends Storable> {
      */
     Query<S> query(Filter<S> filter) throws FetchException;
 
+    /**
+     * Loads all Storable instances identified by the primary keys of the given
+     * instances. This is generally more efficient than calling {@link
+     * Storable#load load} on each one, since repositories can load many
+     * instances with fewer operations. Only the primary key properties of the
+     * given instances are examined, and the instances themselves are not
+     * modified. Keys which don't identify any stored instance are skipped, and
+     * so the returned cursor can produce fewer instances than keys given.
+     *
+     * <p>The order of the loaded instances is not defined, and a key which is
+     * given more than once might produce only one instance.
+     *
+     * @param keys instances whose primary key properties are set
+     * @return cursor over the loaded instances
+     * @throws IllegalArgumentException if keys is null
+     * @throws IllegalStateException if the primary key of any instance is not
+     * fully specified
+     * @throws FetchException if storage layer throws an exception
+     * @since 1.2.4
+     */
+    Cursor<S> loadAll(Collection<? extends S> keys) throws FetchException;
+
     /**
      * Attempts to quickly delete all Storables instances in this
      * Storage. Support for transactional truncation is not guaranteed.
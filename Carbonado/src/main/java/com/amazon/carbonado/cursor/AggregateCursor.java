@@ -0,0 +1,403 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazon.carbonado.cursor;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import java.util.Comparator;
+
+import org.cojen.classfile.TypeDesc;
+
+import com.amazon.carbonado.Aggregate;
+import com.amazon.carbonado.AggregateResult;
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.Storable;
+
+import com.amazon.carbonado.info.StorableInfo;
+import com.amazon.carbonado.info.StorableIntrospector;
+import com.amazon.carbonado.info.StorableProperty;
+
+/**
+ * Computes aggregate functions over a source cursor, in a single pass. The
+ * source cursor must be ordered in some fashion by the group properties, as
+ * required by {@link GroupedCursor}. If no group properties are given, the
+ * entire source forms one group.
+ *
+ * @author Brian S O'Neill
+ * @since 1.2.4
+ */
+public class AggregateCursor<S extends Storable> extends GroupedCursor<S, AggregateResult> {
+    /**
+     * Verifies that aggregate functions can be computed for the given type.
+     *
+     * @throws IllegalArgumentException if any property is unknown, is a join
+     * property, or is of a type not supported by its aggregate function
+     */
+    public static void checkArguments(Class<? extends Storable> type,
+                                      String[] groupProperties, Aggregate[] aggregates)
+    {
+        if (type == null || groupProperties == null || aggregates == null) {
+            throw new IllegalArgumentException();
+        }
+        for (String name : groupProperties) {
+            property(type, name);
+        }
+        for (Aggregate aggregate : aggregates) {
+            resultType(type, aggregate);
+        }
+    }
+
+    /**
+     * Returns the type of value which the given aggregate function produces.
+     *
+     * @throws IllegalArgumentException if property is unknown, is a join
+     * property, or is of a type not supported by the aggregate function
+     */
+    public static Class<?> resultType(Class<? extends Storable> type, Aggregate aggregate) {
+        if (aggregate == null) {
+            throw new IllegalArgumentException("Aggregate is null");
+        }
+
+        if (aggregate.getFunction() == Aggregate.Function.COUNT) {
+            if (aggregate.getPropertyName() != null) {
+                property(type, aggregate.getPropertyName());
+            }
+            return Long.class;
+        }
+
+        Class<?> propType = boxedType(property(type, aggregate.getPropertyName()));
+
+        switch (aggregate.getFunction()) {
+        case MIN: case MAX:
+            if (Comparable.class.isAssignableFrom(propType)) {
+                return propType;
+            }
+            break;
+
+        case SUM:
+            if (propType == Long.class || propType == Integer.class ||
+                propType == Short.class || propType == Byte.class)
+            {
+                return Long.class;
+            }
+            if (propType == Double.class || propType == Float.class) {
+                return Double.class;
+            }
+            if (propType == BigInteger.class || propType == BigDecimal.class) {
+                return propType;
+            }
+            break;
+
+        case AVG:
+            if (Number.class.isAssignableFrom(propType)) {
+                return Double.class;
+            }
+            break;
+        }
+
+        throw new IllegalArgumentException
+            ("Aggregate not supported for property type: " + aggregate +
+             ", " + propType.getName());
+    }
+
+    /**
+     * Returns a result for an empty group, in which counts are zero and all
+     * other aggregate results are null.
+     */
+    public static AggregateResult emptyResult(Aggregate[] aggregates) {
+        Object[] values = new Object[aggregates.length];
+        for (int i=0; i<aggregates.length; i++) {
+            if (aggregates[i].getFunction() == Aggregate.Function.COUNT) {
+                values[i] = 0L;
+            }
+        }
+        return new AggregateResult(new String[0], new Object[0], aggregates, values);
+    }
+
+    private static StorableProperty<?> property(Class<? extends Storable> type, String name) {
+        StorableInfo<?> info = StorableIntrospector.examine(type);
+        StorableProperty<?> prop = info.getAllProperties().get(name);
+        if (prop == null) {
+            throw new IllegalArgumentException
+                ("Property \"" + name + "\" not found for type: " + type.getName());
+        }
+        if (prop.isJoin()) {
+            throw new IllegalArgumentException("Cannot aggregate join property: " + name);
+        }
+        return prop;
+    }
+
+    private static Class<?> boxedType(StorableProperty<?> prop) {
+        return TypeDesc.forClass(prop.getType()).toObjectType().toClass();
+    }
+
+    private static final Comparator<Object> SINGLE_GROUP = new Comparator<Object>() {
+        public int compare(Object a, Object b) {
+            return 0;
+        }
+    };
+
+    private final String[] mGroupProperties;
+    private final Aggregate[] mAggregates;
+    private final Accumulator[] mAccumulators;
+
+    private Object[] mGroupValues;
+
+    /**
+     * @param cursor source of storables which must be ordered by group properties
+     * @param type type of storable to aggregate
+     * @param groupProperties names of properties to group by, which may be empty
+     * @param aggregates aggregate functions to compute for each group
+     * @throws IllegalArgumentException if any property is unknown, is a join
+     * property, or is of a type not supported by its aggregate function
+     */
+    public AggregateCursor(Cursor<S> cursor, Class<S> type,
+                           String[] groupProperties, Aggregate[] aggregates)
+    {
+        super(cursor, groupComparator(type, groupProperties));
+
+        checkArguments(type, groupProperties, aggregates);
+
+        mGroupProperties = groupProperties.clone();
+        mAggregates = aggregates.clone();
+        mAccumulators = new Accumulator[aggregates.length];
+
+        for (int i=0; i<aggregates.length; i++) {
+            Aggregate aggregate = aggregates[i];
+            Class<?> resultType = resultType(type, aggregate);
+            Accumulator acc;
+            switch (aggregate.getFunction()) {
+            default: case COUNT:
+                acc = new Count();
+                break;
+            case SUM:
+                if (resultType == Long.class) {
+                    acc = new LongSum();
+                } else if (resultType == Double.class) {
+                    acc = new DoubleSum();
+                } else if (resultType == BigInteger.class) {
+                    acc = new BigIntegerSum();
+                } else {
+                    acc = new BigDecimalSum();
+                }
+                break;
+            case MIN:
+                acc = new Extreme(-1);
+                break;
+            case MAX:
+                acc = new Extreme(1);
+                break;
+            case AVG:
+                acc = new Avg();
+                break;
+            }
+            acc.mPropertyName = aggregate.getPropertyName();
+            mAccumulators[i] = acc;
+        }
+    }
+
+    private static <S> Comparator<S> groupComparator(Class<S> type, String[] groupProperties) {
+        if (groupProperties == null || groupProperties.length == 0) {
+            return (Comparator<S>) SINGLE_GROUP;
+        }
+        return SortedCursor.createComparator(type, groupProperties);
+    }
+
+    @Override
+    protected void beginGroup(S groupLeader) throws FetchException {
+        Object[] groupValues = new Object[mGroupProperties.length];
+        for (int i=0; i<groupValues.length; i++) {
+            groupValues[i] = groupLeader.getPropertyValue(mGroupProperties[i]);
+        }
+        mGroupValues = groupValues;
+
+        for (Accumulator acc : mAccumulators) {
+            acc.reset();
+        }
+
+        addToGroup(groupLeader);
+    }
+
+    @Override
+    protected void addToGroup(S groupMember) throws FetchException {
+        for (Accumulator acc : mAccumulators) {
+            String name = acc.mPropertyName;
+            if (name == null) {
+                acc.add(Boolean.TRUE);
+            } else {
+                Object value = groupMember.getPropertyValue(name);
+                if (value != null) {
+                    acc.add(value);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected AggregateResult finishGroup() throws FetchException {
+        Object[] values = new Object[mAccumulators.length];
+        for (int i=0; i<values.length; i++) {
+            values[i] = mAccumulators[i].result();
+        }
+        return new AggregateResult(mGroupProperties, mGroupValues, mAggregates, values);
+    }
+
+    /**
+     * Accumulates non-null property values for one aggregate function.
+     */
+    private static abstract class Accumulator {
+        String mPropertyName;
+
+        abstract void reset();
+
+        abstract void add(Object value);
+
+        abstract Object result();
+    }
+
+    private static class Count extends Accumulator {
+        private long mCount;
+
+        void reset() {
+            mCount = 0;
+        }
+
+        void add(Object value) {
+            mCount++;
+        }
+
+        Object result() {
+            return mCount;
+        }
+    }
+
+    private static class LongSum extends Accumulator {
+        private long mSum;
+        private boolean mAny;
+
+        void reset() {
+            mSum = 0;
+            mAny = false;
+        }
+
+        void add(Object value) {
+            mSum += ((Number) value).longValue();
+            mAny = true;
+        }
+
+        Object result() {
+            return mAny ? mSum : null;
+        }
+    }
+
+    private static class DoubleSum extends Accumulator {
+        private double mSum;
+        private boolean mAny;
+
+        void reset() {
+            mSum = 0;
+            mAny = false;
+        }
+
+        void add(Object value) {
+            mSum += ((Number) value).doubleValue();
+            mAny = true;
+        }
+
+        Object result() {
+            return mAny ? mSum : null;
+        }
+    }
+
+    private static class BigIntegerSum extends Accumulator {
+        private BigInteger mSum;
+
+        void reset() {
+            mSum = null;
+        }
+
+        void add(Object value) {
+            mSum = mSum == null ? (BigInteger) value : mSum.add((BigInteger) value);
+        }
+
+        Object result() {
+            return mSum;
+        }
+    }
+
+    private static class BigDecimalSum extends Accumulator {
+        private BigDecimal mSum;
+
+        void reset() {
+            mSum = null;
+        }
+
+        void add(Object value) {
+            mSum = mSum == null ? (BigDecimal) value : mSum.add((BigDecimal) value);
+        }
+
+        Object result() {
+            return mSum;
+        }
+    }
+
+    private static class Extreme extends Accumulator {
+        // Is -1 for min, 1 for max.
+        private final int mSign;
+        private Comparable mValue;
+
+        Extreme(int sign) {
+            mSign = sign;
+        }
+
+        void reset() {
+            mValue = null;
+        }
+
+        void add(Object value) {
+            if (mValue == null || Integer.signum(mValue.compareTo(value)) == -mSign) {
+                mValue = (Comparable) value;
+            }
+        }
+
+        Object result() {
+            return mValue;
+        }
+    }
+
+    private static class Avg extends Accumulator {
+        private double mSum;
+        private long mCount;
+
+        void reset() {
+            mSum = 0;
+            mCount = 0;
+        }
+
+        void add(Object value) {
+            mSum += ((Number) value).doubleValue();
+            mCount++;
+        }
+
+        Object result() {
+            return mCount == 0 ? null : (mSum / mCount);
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.cursor;
+
+import java.util.NoSuchElementException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.FetchInterruptedException;
+import com.amazon.carbonado.Query;
+
+/**
+ * Cursor implementation which fetches records in advance from a background
+ * thread, allowing storage access to overlap with consumption of
+ * results. Fetched records are placed into a bounded queue, and so the
+ * background thread blocks when the consumer falls behind. Exceptions thrown
+ * by the source cursor are passed along to the consumer, and then fetching
+ * stops.
+ *
+ * <p>Because the source cursor is advanced by a different thread, it must not
+ * depend on thread-local state of the consumer, such as the current
+ * transaction scope. Some cursors can only be used by the thread which opened
+ * them, and so a {@link Source} can be provided instead, which opens the
+ * cursor in the background thread.
+ *
+ * @author Brian S O'Neill
+ * @see FetchAheadCursor
+ * @since 1.2.4
+ */
+public class AsyncFetchAheadCursor<S> extends AbstractCursor<S> {
+    private static final Object END = new Object();
+
+    private static final long POLL_MILLIS = 100;
+
+    private static volatile Executor cSharedExecutor;
+
+    /**
+     * Returns a shared executor which runs each fetch on a daemon thread.
+     * Threads are created as needed, and idle threads exit after a minute.
+     */
+    public static Executor sharedExecutor() {
+        Executor executor = cSharedExecutor;
+        if (executor == null) {
+            synchronized (AsyncFetchAheadCursor.class) {
+                executor = cSharedExecutor;
+                if (executor == null) {
+                    executor = new ThreadPoolExecutor
+                        (0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                         new SynchronousQueue<Runnable>(), new Factory());
+                    cSharedExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    private final Source<S> mSourceOpener;
+    private final Query.Controller mController;
+    private final BlockingQueue<Object> mQueue;
+    private final CountDownLatch mDone;
+
+    private volatile boolean mClosed;
+
+    // Assigned by background thread, and accessed by the consumer only after
+    // the background thread is done.
+    private Cursor<S> mSource;
+
+    // Only accessed by consumer thread.
+    private Object mNext;
+    private boolean mFinished;
+
+    /**
+     * Starts fetching using the shared executor.
+     *
+     * @param source cursor to fetch from
+     * @param fetchAhead maximum amount of records to fetch in advance
+     * @throws IllegalArgumentException if source is null or if fetchAhead is
+     * less than one
+     */
+    public AsyncFetchAheadCursor(Cursor<S> source, int fetchAhead) {
+        this(source, fetchAhead, null, null);
+    }
+
+    /**
+     * @param source cursor to fetch from
+     * @param fetchAhead maximum amount of records to fetch in advance
+     * @param executor optional executor to run fetches; shared executor is
+     * used if null
+     * @param controller optional controller which can abort query operation
+     * @throws IllegalArgumentException if source is null or if fetchAhead is
+     * less than one
+     * @throws RejectedExecutionException if executor rejects the fetch task
+     */
+    public AsyncFetchAheadCursor(Cursor<S> source, int fetchAhead,
+                                 Executor executor, Query.Controller controller)
+    {
+        this(new Opened<S>(source), fetchAhead, executor, controller);
+    }
+
+    /**
+     * Starts fetching from a cursor which is opened by the background thread.
+     *
+     * @param source opens the cursor to fetch from
+     * @param fetchAhead maximum amount of records to fetch in advance
+     * @param executor optional executor to run fetches; shared executor is
+     * used if null
+     * @param controller optional controller which can abort query operation
+     * @throws IllegalArgumentException if source is null or if fetchAhead is
+     * less than one
+     * @throws RejectedExecutionException if executor rejects the fetch task
+     */
+    public AsyncFetchAheadCursor(Source<S> source, int fetchAhead,
+                                 Executor executor, Query.Controller controller)
+    {
+        if (source == null || (source instanceof Opened && ((Opened) source).mCursor == null)) {
+            throw new IllegalArgumentException("Source is null");
+        }
+        if (fetchAhead < 1) {
+            throw new IllegalArgumentException("Fetch ahead must be positive: " + fetchAhead);
+        }
+        if (executor == null) {
+            executor = sharedExecutor();
+        }
+
+        mSourceOpener = source;
+        mController = controller;
+        mQueue = new ArrayBlockingQueue<Object>(fetchAhead);
+        mDone = new CountDownLatch(1);
+
+        if (controller != null) {
+            controller.begin();
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    fetchAll();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            mDone.countDown();
+            if (controller != null) {
+                controller.close();
+            }
+            throw e;
+        }
+    }
+
+    public boolean hasNext() throws FetchException {
+        if (mNext != null) {
+            return true;
+        }
+        if (mFinished) {
+            return false;
+        }
+
+        Object next;
+        try {
+            if (mController == null) {
+                next = mQueue.take();
+            } else {
+                while ((next = mQueue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                    mController.continueCheck();
+                }
+            }
+        } catch (InterruptedException e) {
+            closeQuietly();
+            throw new FetchInterruptedException(e);
+        } catch (FetchException e) {
+            closeQuietly();
+            throw e;
+        }
+
+        if (next == END) {
+            close();
+            return false;
+        }
+
+        if (next instanceof Failure) {
+            closeQuietly();
+            Throwable cause = ((Failure) next).mCause;
+            if (cause instanceof FetchException) {
+                throw (FetchException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new FetchException(cause);
+        }
+
+        mNext = next;
+        return true;
+    }
+
+    public S next() throws FetchException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        S next = (S) mNext;
+        mNext = null;
+        return next;
+    }
+
+    /**
+     * Stops the background fetch, waits for it to finish, and then closes the
+     * source cursor.
+     */
+    public void close() throws FetchException {
+        if (mFinished) {
+            return;
+        }
+        mFinished = true;
+        mNext = null;
+        mClosed = true;
+
+        try {
+            // Clearing the queue unblocks the background thread, if waiting for
+            // space. It exits when it sees the closed flag.
+            mQueue.clear();
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    mDone.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            mQueue.clear();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            Cursor<S> source = mSource;
+            if (source != null) {
+                mSource = null;
+                source.close();
+            }
+        } finally {
+            if (mController != null) {
+                mController.close();
+            }
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (Exception e) {
+            // Don't care.
+        }
+    }
+
+    /**
+     * Runs in the background thread.
+     */
+    void fetchAll() {
+        try {
+            Cursor<S> source = mSourceOpener.open();
+            mSource = source;
+            Query.Controller controller = mController;
+            while (!mClosed) {
+                if (controller != null) {
+                    controller.continueCheck();
+                }
+                if (!source.hasNext()) {
+                    enqueue(END);
+                    return;
+                }
+                if (!enqueue(source.next())) {
+                    return;
+                }
+            }
+        } catch (Throwable e) {
+            enqueue(new Failure(e));
+        } finally {
+            mDone.countDown();
+        }
+    }
+
+    /**
+     * @return false if closed
+     */
+    private boolean enqueue(Object obj) {
+        boolean interrupted = false;
+        try {
+            while (!mClosed) {
+                try {
+                    if (mQueue.offer(obj, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                } catch (InterruptedException e) {
+                    // Consumer is still waiting, so keep trying.
+                    interrupted = true;
+                }
+            }
+            return false;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Opens the source cursor, from within the background thread.
+     */
+    public static interface Source<S> {
+        Cursor<S> open() throws FetchException;
+    }
+
+    private static class Opened<S> implements Source<S> {
+        final Cursor<S> mCursor;
+
+        Opened(Cursor<S> cursor) {
+            mCursor = cursor;
+        }
+
+        public Cursor<S> open() {
+            return mCursor;
+        }
+    }
+
+    private static class Failure {
+        final Throwable mCause;
+
+        Failure(Throwable cause) {
+            mCause = cause;
+        }
+    }
+
+    private static class Factory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "AsyncFetchAheadCursor-" + mCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.cursor;
+
+import java.util.AbstractCollection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Sort buffer which only retains the lowest elements, up to a fixed maximum
+ * amount. Elements are kept in a bounded heap, and so memory usage is
+ * proportional to the maximum size, regardless of how many elements are
+ * added. Useful for producing the first N results of a sort, as is required
+ * by {@link com.amazon.carbonado.Query#fetchSlice Query.fetchSlice}.
+ *
+ * <p>Elements which compare as equal are kept in the order in which they were
+ * added, consistent with the stable sort performed by {@link ArraySortBuffer}.
+ *
+ * @author Brian S O'Neill
+ * @see SortedCursor
+ * @since 1.2.4
+ */
+public class BoundedSortBuffer<S> extends AbstractCollection<S> implements SortBuffer<S> {
+    private static final int MIN_CAPACITY = 16;
+
+    private final int mMaxSize;
+
+    private Comparator<S> mComparator;
+
+    // Max-heap of retained elements, unless sorted. Each element has a
+    // sequence number assigned, which is used to break ties.
+    private Object[] mElements;
+    private long[] mSequences;
+    private int mSize;
+    private long mNextSequence;
+
+    private boolean mSorted;
+
+    /**
+     * @param maxSize maximum amount of elements to retain
+     * @throws IllegalArgumentException if max size is negative
+     */
+    public BoundedSortBuffer(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Maximum size is negative: " + maxSize);
+        }
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns the maximum amount of elements retained by this buffer.
+     */
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    public void prepare(Comparator<S> comparator) {
+        if (comparator == null) {
+            throw new IllegalArgumentException();
+        }
+        clear();
+        mComparator = comparator;
+        mNextSequence = 0;
+    }
+
+    /**
+     * Adds the element to this buffer, unless the buffer is full and the
+     * element sorts after all retained elements. If full and the element sorts
+     * lower, the highest retained element is discarded.
+     *
+     * @return true always
+     * @throws IllegalStateException if prepare was never called
+     */
+    @Override
+    public boolean add(S element) {
+        if (mComparator == null) {
+            throw new IllegalStateException("Buffer was not prepared");
+        }
+
+        long seq = mNextSequence++;
+
+        if (mMaxSize == 0) {
+            return true;
+        }
+
+        if (mSorted) {
+            // Restore the heap invariant before accepting more elements.
+            mSorted = false;
+            for (int i = (mSize >> 1) - 1; i >= 0; i--) {
+                siftDown(i, mSize);
+            }
+        }
+
+        int size = mSize;
+
+        if (size < mMaxSize) {
+            if (mElements == null) {
+                int capacity = Math.min(mMaxSize, MIN_CAPACITY);
+                mElements = new Object[capacity];
+                mSequences = new long[capacity];
+            } else if (size >= mElements.length) {
+                int capacity = (int) Math.min((long) mMaxSize, size * 2L);
+                Object[] elements = new Object[capacity];
+                System.arraycopy(mElements, 0, elements, 0, size);
+                mElements = elements;
+                long[] sequences = new long[capacity];
+                System.arraycopy(mSequences, 0, sequences, 0, size);
+                mSequences = sequences;
+            }
+            mElements[size] = element;
+            mSequences[size] = seq;
+            mSize = size + 1;
+            siftUp(size);
+            return true;
+        }
+
+        // Buffer is full, so compare against the highest retained element.
+        // Because the new element has the highest sequence, ties are discarded.
+        if (mComparator.compare(element, (S) mElements[0]) >= 0) {
+            return true;
+        }
+
+        mElements[0] = element;
+        mSequences[0] = seq;
+        siftDown(0, size);
+
+        return true;
+    }
+
+    /**
+     * @throws IllegalStateException if prepare was never called
+     */
+    public void sort() {
+        if (mComparator == null) {
+            throw new IllegalStateException("Buffer was not prepared");
+        }
+        if (mSorted) {
+            return;
+        }
+        // In-place heap sort, which produces ascending order from the max-heap.
+        for (int end = mSize - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+        mSorted = true;
+    }
+
+    @Override
+    public Iterator<S> iterator() {
+        return new Iterator<S>() {
+            private final Object[] mIterElements = mElements;
+            private final int mIterSize = mSize;
+            private int mPos;
+
+            public boolean hasNext() {
+                return mPos < mIterSize;
+            }
+
+            public S next() {
+                if (mPos >= mIterSize) {
+                    throw new NoSuchElementException();
+                }
+                return (S) mIterElements[mPos++];
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public void clear() {
+        if (mElements != null) {
+            // Free up references, but keep arrays for re-use.
+            for (int i = mSize; --i >= 0; ) {
+                mElements[i] = null;
+            }
+        }
+        mSize = 0;
+        mSorted = false;
+    }
+
+    public void close() {
+        clear();
+        mElements = null;
+        mSequences = null;
+    }
+
+    private int compare(int a, int b) {
+        int result = mComparator.compare((S) mElements[a], (S) mElements[b]);
+        if (result == 0) {
+            long seqA = mSequences[a];
+            long seqB = mSequences[b];
+            result = seqA < seqB ? -1 : (seqA > seqB ? 1 : 0);
+        }
+        return result;
+    }
+
+    private void swap(int a, int b) {
+        Object e = mElements[a];
+        mElements[a] = mElements[b];
+        mElements[b] = e;
+        long s = mSequences[a];
+        mSequences[a] = mSequences[b];
+        mSequences[b] = s;
+    }
+
+    private void siftUp(int pos) {
+        while (pos > 0) {
+            int parent = (pos - 1) >> 1;
+            if (compare(pos, parent) <= 0) {
+                break;
+            }
+            swap(pos, parent);
+            pos = parent;
+        }
+    }
+
+    private void siftDown(int pos, int size) {
+        while (true) {
+            int child = (pos << 1) + 1;
+            if (child >= size) {
+                break;
+            }
+            int right = child + 1;
+            if (right < size && compare(right, child) > 0) {
+                child = right;
+            }
+            if (compare(pos, child) >= 0) {
+                break;
+            }
+            swap(pos, child);
+            pos = child;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.cursor;
+
+import com.amazon.carbonado.Cursor;
+
+import com.amazon.carbonado.filter.Filter;
+
+/**
+ * Optional interface which a {@link Cursor} can also implement, to evaluate a
+ * filter before instances are fully materialized. {@link FilteredCursor}
+ * offers its filter to such cursors, and those which accept it skip over the
+ * rejected entries themselves.
+ *
+ * @author Brian S O'Neill
+ * @since 1.2.4
+ */
+public interface FilterPushDownCursor<S> extends Cursor<S> {
+    /**
+     * Offers a filter to be evaluated by this cursor, which must not have
+     * been advanced yet. If accepted, this cursor only produces instances
+     * which the filter allows.
+     *
+     * @param filter bound filter being applied, which is neither open nor closed
+     * @param evaluator evaluates the filter against an instance; it must not
+     * be used as a cursor
+     * @return false if filter is not accepted
+     */
+    boolean pushDownFilter(Filter<?> filter, FilteredCursor<S> evaluator);
+}
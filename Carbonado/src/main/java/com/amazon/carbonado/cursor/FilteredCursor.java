@@ -60,7 +60,9 @@ public abstract class FilteredCursor<S> extends AbstractCursor<S> {
      * Returns a Cursor that is filtered by the given Filter and FilterValues.
      * The given Filter must be composed only of the same PropertyFilter
      * instances as used to construct the FilterValues. An
-     * IllegalStateException will result otherwise.
+     * IllegalStateException will result otherwise. If the given cursor is a
+     * {@link FilterPushDownCursor} which accepts the filter, it is returned
+     * as-is.
      *
      * @param filter filter to apply
      * @param filterValues values for filter, which may be null if filter has no parameters
@@ -84,7 +86,16 @@ public abstract class FilteredCursor<S> extends AbstractCursor<S> {
         filter = filter.bind();
 
         Object[] values = filterValues == null ? null : filterValues.getValuesFor(filter);
-        return FilteredCursorGenerator.getFactory(filter).newFilteredCursor(cursor, values);
+        Cursor<S> filtered =
+            FilteredCursorGenerator.getFactory(filter).newFilteredCursor(cursor, values);
+
+        if (cursor instanceof FilterPushDownCursor &&
+            ((FilterPushDownCursor<S>) cursor).pushDownFilter(filter, (FilteredCursor<S>) filtered))
+        {
+            return cursor;
+        }
+
+        return filtered;
     }
 
     private final Cursor<S> mCursor;
@@ -103,6 +114,18 @@ public abstract class FilteredCursor<S> extends AbstractCursor<S> {
      */
     protected abstract boolean isAllowed(S storable) throws FetchException;
 
+    /**
+     * Evaluates the filter of this cursor against the given instance, without
+     * affecting the cursor. It is called by cursors which accepted the filter
+     * as a {@link FilterPushDownCursor}.
+     *
+     * @return false if object should not be in results
+     * @since 1.2.4
+     */
+    public final boolean evaluate(S storable) throws FetchException {
+        return isAllowed(storable);
+    }
+
     public void close() throws FetchException {
         mCursor.close();
         mNext = null;
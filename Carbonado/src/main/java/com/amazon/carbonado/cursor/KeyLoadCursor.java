@@ -0,0 +1,100 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.cursor;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+
+/**
+ * Cursor which loads Storables one at a time, using the primary keys of the
+ * given instances. Keys which aren't found are skipped. Storage
+ * implementations which have no more efficient way of loading many instances
+ * can use this cursor to implement {@link Storage#loadAll Storage.loadAll}.
+ *
+ * @author Brian S O'Neill
+ * @since 1.2.4
+ */
+public class KeyLoadCursor<S extends Storable> extends AbstractCursor<S> {
+    private final Storage<S> mStorage;
+
+    private Iterator<? extends S> mKeys;
+    private S mNext;
+
+    /**
+     * @param storage storage to load from
+     * @param keys instances whose primary key properties are set
+     * @throws IllegalArgumentException if storage or keys is null
+     */
+    public KeyLoadCursor(Storage<S> storage, Iterable<? extends S> keys) {
+        if (storage == null || keys == null) {
+            throw new IllegalArgumentException();
+        }
+        mStorage = storage;
+        mKeys = keys.iterator();
+    }
+
+    public void close() {
+        mKeys = null;
+        mNext = null;
+    }
+
+    public boolean hasNext() throws FetchException {
+        if (mNext != null) {
+            return true;
+        }
+
+        Iterator<? extends S> keys = mKeys;
+        if (keys == null) {
+            return false;
+        }
+
+        try {
+            while (keys.hasNext()) {
+                S storable = mStorage.prepare();
+                keys.next().copyPrimaryKeyProperties(storable);
+                if (storable.tryLoad()) {
+                    mNext = storable;
+                    return true;
+                }
+            }
+        } catch (FetchException e) {
+            close();
+            throw e;
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+
+        close();
+        return false;
+    }
+
+    public S next() throws FetchException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        S next = mNext;
+        mNext = null;
+        return next;
+    }
+}
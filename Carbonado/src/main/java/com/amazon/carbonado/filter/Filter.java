@@ -23,10 +23,8 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 import org.cojen.util.WeakCanonicalSet;
-import org.cojen.util.WeakIdentityMap;
 
 import com.amazon.carbonado.MalformedFilterException;
 import com.amazon.carbonado.Storable;
@@ -35,7 +33,7 @@ import com.amazon.carbonado.info.ChainedProperty;
 import com.amazon.carbonado.info.StorableIntrospector;
 
 import com.amazon.carbonado.util.Appender;
-import com.amazon.carbonado.util.SoftValuedCache;
+import com.amazon.carbonado.util.ClockCache;
 
 /**
  * An immutable tree structure representing a query result filter. Filters can
@@ -74,8 +72,9 @@ public abstract class Filter<S extends Storable> implements Serializable, Append
     // Collection of canonical filters.
     static WeakCanonicalSet cCanonical = new WeakCanonicalSet();
 
-    // Map<(weak)Class<S>, Map<Object, (soft)Filter<S>>>
-    private static Map cCache = new WeakIdentityMap();
+    // Map<CacheKey, (soft)Filter<?>>
+    private static final ClockCache<CacheKey, Filter<?>> cCache =
+        new ClockCache<CacheKey, Filter<?>>(0);
 
     /**
      * Returns a cached filter instance that operates on the given type and
@@ -88,15 +87,21 @@ public abstract class Filter<S extends Storable> implements Serializable, Append
      * @throws MalformedFilterException if filter expression is malformed
      */
     public static <S extends Storable> Filter<S> filterFor(Class<S> type, String expression) {
-        SoftValuedCache<Object, Filter<S>> filterCache = getFilterCache(type);
-        synchronized (filterCache) {
-            Filter<S> filter = filterCache.get(expression);
-            if (filter == null) {
-                filter = new FilterParser<S>(type, expression).parseRoot();
-                filterCache.put(expression, filter);
-            }
-            return filter;
+        if (type == null) {
+            throw new IllegalArgumentException();
+        }
+        if (expression == null) {
+            throw new IllegalArgumentException("Query filter must not be null");
         }
+        CacheKey key = new CacheKey(type, expression);
+        Filter<S> filter = (Filter<S>) cCache.get(key);
+        if (filter == null) {
+            // Parsing produces a canonical instance, and so concurrent parsing
+            // of the same expression yields the same filter.
+            filter = new FilterParser<S>(type, expression).parseRoot();
+            cCache.put(key, filter);
+        }
+        return filter;
     }
 
     /**
@@ -108,15 +113,13 @@ public abstract class Filter<S extends Storable> implements Serializable, Append
      * @see OpenFilter
      */
     public static <S extends Storable> OpenFilter<S> getOpenFilter(Class<S> type) {
-        SoftValuedCache<Object, Filter<S>> filterCache = getFilterCache(type);
-        synchronized (filterCache) {
-            Filter<S> filter = filterCache.get(OPEN_KEY);
-            if (filter == null) {
-                filter = OpenFilter.getCanonical(type);
-                filterCache.put(OPEN_KEY, filter);
-            }
-            return (OpenFilter<S>) filter;
+        CacheKey key = new CacheKey(type, OPEN_KEY);
+        Filter<S> filter = (Filter<S>) cCache.get(key);
+        if (filter == null) {
+            filter = OpenFilter.getCanonical(type);
+            cCache.put(key, filter);
         }
+        return (OpenFilter<S>) filter;
     }
 
     /**
@@ -128,30 +131,35 @@ public abstract class Filter<S extends Storable> implements Serializable, Append
      * @see ClosedFilter
      */
     public static <S extends Storable> ClosedFilter<S> getClosedFilter(Class<S> type) {
-        SoftValuedCache<Object, Filter<S>> filterCache = getFilterCache(type);
-        synchronized (filterCache) {
-            Filter<S> filter = filterCache.get(CLOSED_KEY);
-            if (filter == null) {
-                filter = ClosedFilter.getCanonical(type);
-                filterCache.put(CLOSED_KEY, filter);
-            }
-            return (ClosedFilter<S>) filter;
+        CacheKey key = new CacheKey(type, CLOSED_KEY);
+        Filter<S> filter = (Filter<S>) cCache.get(key);
+        if (filter == null) {
+            filter = ClosedFilter.getCanonical(type);
+            cCache.put(key, filter);
         }
+        return (ClosedFilter<S>) filter;
     }
 
-    @SuppressWarnings("unchecked")
-    private static <S extends Storable> SoftValuedCache<Object, Filter<S>>
-        getFilterCache(Class<S> type)
-    {
-        synchronized (cCache) {
-            SoftValuedCache<Object, Filter<S>> filterCache =
-                (SoftValuedCache<Object, Filter<S>>) cCache.get(type);
-            if (filterCache == null) {
-                filterCache = SoftValuedCache.newCache(11);
-                cCache.put(type, filterCache);
-            }
-            return filterCache;
-        }
+    /**
+     * Returns the amount of times that a cached filter was found by {@link
+     * #filterFor filterFor}, {@link #getOpenFilter getOpenFilter} or {@link
+     * #getClosedFilter getClosedFilter}.
+     *
+     * @since 1.2.4
+     */
+    public static long getCacheHitCount() {
+        return cCache.getHitCount();
+    }
+
+    /**
+     * Returns the amount of times that a filter had to be created by {@link
+     * #filterFor filterFor}, {@link #getOpenFilter getOpenFilter} or {@link
+     * #getClosedFilter getClosedFilter}.
+     *
+     * @since 1.2.4
+     */
+    public static long getCacheMissCount() {
+        return cCache.getMissCount();
     }
 
     private final Class<S> mType;
@@ -871,4 +879,31 @@ public abstract class Filter<S extends Storable> implements Serializable, Append
             return "not joined: " + mNotJoined + ", remainder: " + mRemainder;
         }
     }
+
+    private static class CacheKey {
+        private final Class<?> mType;
+        private final Object mKey;
+
+        CacheKey(Class<?> type, Object key) {
+            mType = type;
+            mKey = key;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(mType) * 31 + mKey.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj instanceof CacheKey) {
+                CacheKey other = (CacheKey) obj;
+                return mType == other.mType && mKey.equals(other.mKey);
+            }
+            return false;
+        }
+    }
 }
@@ -0,0 +1,472 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.gen;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.LogFactory;
+
+import org.cojen.classfile.ClassFile;
+import org.cojen.util.ClassInjector;
+import org.cojen.util.WeakIdentityMap;
+
+import com.amazon.carbonado.Storable;
+
+import com.amazon.carbonado.info.StorableIntrospector;
+import com.amazon.carbonado.info.StorableProperty;
+import com.amazon.carbonado.info.StorablePropertyAdapter;
+import com.amazon.carbonado.info.StorablePropertyAnnotation;
+import com.amazon.carbonado.info.StorablePropertyConstraint;
+
+import com.amazon.carbonado.util.SoftValuedCache;
+
+/**
+ * Optional on-disk cache of generated classes, which reduces the time needed
+ * to start a repository. The cache is enabled by setting the
+ * "com.amazon.carbonado.gen.GeneratedClassCache.directory" system property to
+ * a writable directory.
+ *
+ * <p>Cached classes are keyed by the bytecode of the Storable type and the
+ * types it depends on, the parameters which affected generation, the name of
+ * the superclass and the version of Carbonado. When any of these change, a
+ * new key is produced and the class is generated again. Files which are no
+ * longer used can be safely deleted at any time. Storable types which were
+ * themselves generated, like index entries, are never cached.
+ *
+ * @author Brian S O'Neill
+ * @since 1.2.4
+ */
+public class GeneratedClassCache {
+    private static final int MAGIC = 0x43434301;
+
+    private static final File cDirectory;
+    private static final String cVersion;
+
+    // Maps classes to bytecode fingerprints.
+    private static final Map<Class<?>, String> cFingerprints = new WeakIdentityMap();
+
+    // Classes defined in this process, keyed by parent class loader and cache
+    // key. They must be reused because the names of cached classes cannot be
+    // reserved again.
+    private static final Map<ClassLoader, SoftValuedCache<String, Class<?>>> cDefined =
+        new WeakIdentityMap();
+
+    static {
+        String path = System.getProperty(GeneratedClassCache.class.getName() + ".directory");
+        File dir = null;
+        if (path != null) {
+            dir = new File(path);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                LogFactory.getLog(GeneratedClassCache.class)
+                    .warn("Unable to create generated class cache directory: " + dir);
+                dir = null;
+            }
+        }
+        cDirectory = dir;
+        cVersion = dir == null ? null
+            : (versionOf(GeneratedClassCache.class) + ',' + versionOf(ClassFile.class));
+    }
+
+    /**
+     * Returns true if the cache is enabled.
+     */
+    public static boolean isEnabled() {
+        return cDirectory != null;
+    }
+
+    /**
+     * Returns a key which identifies a generated class, or null if the cache
+     * is disabled or if the class cannot be cached.
+     *
+     * @param generator class which generates the class
+     * @param storableType type which the class is generated for
+     * @param superClass superclass of the generated class, or null if the
+     * storable type is an interface
+     * @param params additional parameters which affect generation; their
+     * string values must be the same in every process, and class parameters
+     * are identified by their bytecode
+     */
+    public static String keyFor(Class<?> generator, Class<? extends Storable> storableType,
+                                Class<?> superClass, Object... params)
+    {
+        if (cDirectory == null) {
+            return null;
+        }
+
+        String generatorPrint, typePrint;
+        String[] paramPrints = new String[params.length];
+        try {
+            synchronized (cFingerprints) {
+                generatorPrint = fingerprint(generator);
+                typePrint = typeFingerprint(storableType);
+                for (int i=0; i<params.length; i++) {
+                    if (params[i] instanceof Class) {
+                        Class<?> clazz = (Class<?>) params[i];
+                        if ((paramPrints[i] = fingerprint(clazz)) == null) {
+                            return null;
+                        }
+                        paramPrints[i] = clazz.getName() + ':' + paramPrints[i];
+                    } else {
+                        paramPrints[i] = String.valueOf(params[i]);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            LogFactory.getLog(GeneratedClassCache.class)
+                .debug("Unable to fingerprint " + storableType.getName(), e);
+            return null;
+        }
+
+        if (generatorPrint == null || typePrint == null) {
+            return null;
+        }
+
+        StringBuilder b = new StringBuilder();
+        b.append(cVersion).append('\n');
+        b.append(generator.getName()).append(':').append(generatorPrint).append('\n');
+        b.append(storableType.getName()).append(':').append(typePrint).append('\n');
+        if (superClass != null) {
+            b.append(superClass.getName());
+        }
+        for (String print : paramPrints) {
+            b.append('\n').append(print);
+        }
+
+        return b.toString();
+    }
+
+    /**
+     * Defines a class from the cache, returning null if not found or if it
+     * cannot be defined.
+     *
+     * @param key key from {@link #keyFor keyFor}, which may be null
+     * @param loader parent class loader, as would be passed to {@link
+     * ClassInjector#create ClassInjector.create}
+     */
+    public static Class<?> load(String key, ClassLoader loader) {
+        if (key == null) {
+            return null;
+        }
+
+        Class<?> clazz = defined(loader, key);
+        if (clazz != null) {
+            return clazz;
+        }
+
+        File file = fileFor(key);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        String className;
+        byte[] bytes;
+        try {
+            DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC || !key.equals(in.readUTF())) {
+                    return null;
+                }
+                className = in.readUTF();
+                bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LogFactory.getLog(GeneratedClassCache.class)
+                .warn("Discarding unreadable cached class: " + file, e);
+            file.delete();
+            return null;
+        }
+
+        ClassInjector ci;
+        try {
+            ci = ClassInjector.createExplicit(className, loader);
+        } catch (IllegalStateException e) {
+            // Class name is already taken, so generate a new class instead.
+            return null;
+        }
+
+        try {
+            OutputStream out = ci.openStream();
+            out.write(bytes);
+            out.close();
+            clazz = ci.getNewClass();
+            define(loader, key, clazz);
+            return clazz;
+        } catch (Exception e) {
+            LogFactory.getLog(GeneratedClassCache.class)
+                .warn("Discarding cached class: " + className, e);
+        } catch (LinkageError e) {
+            LogFactory.getLog(GeneratedClassCache.class)
+                .warn("Discarding cached class: " + className, e);
+        }
+
+        file.delete();
+        return null;
+    }
+
+    /**
+     * Stores a generated class into the cache. Failures are logged and
+     * otherwise ignored.
+     *
+     * @param key key from {@link #keyFor keyFor}, which may be null
+     * @param loader parent class loader which was passed to {@link
+     * ClassInjector#create ClassInjector.create}
+     * @param clazz class which was defined
+     * @param cf class file which was defined
+     */
+    public static void store(String key, ClassLoader loader, Class<?> clazz, ClassFile cf) {
+        if (key == null) {
+            return;
+        }
+
+        define(loader, key, clazz);
+
+        File file = fileFor(key);
+        if (file.exists()) {
+            // Another process stored an equivalent class.
+            return;
+        }
+
+        File temp = null;
+        try {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            cf.writeTo(bout);
+            byte[] bytes = bout.toByteArray();
+
+            // Write to a temporary file first, to prevent other processes from
+            // seeing a partially written file.
+            temp = File.createTempFile(file.getName(), ".tmp", cDirectory);
+            DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeUTF(key);
+                out.writeUTF(cf.getClassName());
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+
+            if (!temp.renameTo(file)) {
+                file.delete();
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Unable to rename " + temp + " to " + file);
+                }
+            }
+            temp = null;
+        } catch (IOException e) {
+            LogFactory.getLog(GeneratedClassCache.class)
+                .warn("Unable to cache generated class: " + cf.getClassName(), e);
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    private static File fileFor(String key) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return new File(cDirectory, toHex(digest) + ".class");
+    }
+
+    /**
+     * Returns a fingerprint of the type and all the types which affect the
+     * classes generated for it, or null if any of their bytecode is
+     * unavailable. Caller must be synchronized on cFingerprints.
+     */
+    private static String typeFingerprint(Class<? extends Storable> type)
+        throws IOException, NoSuchAlgorithmException
+    {
+        Set<Class<?>> types = new LinkedHashSet<Class<?>>();
+        addHierarchy(types, type);
+        for (StorableProperty<?> prop : StorableIntrospector.examine(type)
+                 .getAllProperties().values())
+        {
+            addHierarchy(types, prop.getType());
+            if (prop.isJoin()) {
+                addHierarchy(types, prop.getJoinedType());
+            }
+            // Adapters and constraints are invoked by generated code, so
+            // changes to them or to the annotations which apply them must
+            // also invalidate the cache.
+            StorablePropertyAdapter adapter = prop.getAdapter();
+            if (adapter != null) {
+                addHierarchy(types, adapter.getAdapterConstructor().getDeclaringClass());
+                addAnnotationType(types, adapter.getAnnotation());
+            }
+            StorablePropertyConstraint[] constraints = prop.getConstraints();
+            if (constraints != null) {
+                for (StorablePropertyConstraint constraint : constraints) {
+                    addHierarchy(types,
+                                 constraint.getConstraintConstructor().getDeclaringClass());
+                    addAnnotationType(types, constraint.getAnnotation());
+                }
+            }
+        }
+
+        MessageDigest md = MessageDigest.getInstance("SHA-1");
+        for (Class<?> c : types) {
+            if (c.getClassLoader() == null) {
+                // Bootstrap class, which doesn't change within a JVM version.
+                continue;
+            }
+            String print = fingerprint(c);
+            if (print == null) {
+                return null;
+            }
+            md.update(print.getBytes("UTF-8"));
+        }
+
+        return toHex(md.digest());
+    }
+
+    private static void addAnnotationType(Set<Class<?>> types,
+                                          StorablePropertyAnnotation annotation)
+    {
+        if (annotation != null) {
+            addHierarchy(types, annotation.getAnnotationType());
+        }
+    }
+
+    private static void addHierarchy(Set<Class<?>> types, Class<?> type) {
+        while (type != null && type.isArray()) {
+            type = type.getComponentType();
+        }
+        if (type == null || type.isPrimitive() || type == Object.class || !types.add(type)) {
+            return;
+        }
+        addHierarchy(types, type.getSuperclass());
+        for (Class<?> iface : type.getInterfaces()) {
+            addHierarchy(types, iface);
+        }
+    }
+
+    /**
+     * Returns a fingerprint of the bytecode of the given class, or null if
+     * unavailable. Caller must be synchronized on cFingerprints.
+     */
+    private static String fingerprint(Class<?> clazz)
+        throws IOException, NoSuchAlgorithmException
+    {
+        String print = cFingerprints.get(clazz);
+        if (print != null) {
+            return print;
+        }
+
+        ClassLoader loader = clazz.getClassLoader();
+        if (loader == null) {
+            loader = ClassLoader.getSystemClassLoader();
+        }
+        InputStream in = loader.getResourceAsStream(clazz.getName().replace('.', '/') + ".class");
+        if (in == null) {
+            return null;
+        }
+
+        MessageDigest md = MessageDigest.getInstance("SHA-1");
+        try {
+            byte[] buf = new byte[4096];
+            int amt;
+            while ((amt = in.read(buf)) > 0) {
+                md.update(buf, 0, amt);
+            }
+        } finally {
+            in.close();
+        }
+
+        print = toHex(md.digest());
+        cFingerprints.put(clazz, print);
+        return print;
+    }
+
+    /**
+     * Returns a string which changes whenever the code source of the given
+     * class changes.
+     */
+    private static String versionOf(Class<?> clazz) {
+        StringBuilder b = new StringBuilder();
+        Package p = clazz.getPackage();
+        if (p != null && p.getImplementationVersion() != null) {
+            b.append(p.getImplementationVersion());
+        }
+        try {
+            File source = new File(clazz.getProtectionDomain().getCodeSource()
+                                   .getLocation().toURI());
+            b.append(':').append(source.length()).append(':').append(source.lastModified());
+        } catch (Exception e) {
+            // Version alone will have to do.
+        }
+        return b.toString();
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder b = new StringBuilder(bytes.length * 2);
+        for (byte v : bytes) {
+            b.append(Character.forDigit((v >> 4) & 0xf, 16));
+            b.append(Character.forDigit(v & 0xf, 16));
+        }
+        return b.toString();
+    }
+
+    private static Class<?> defined(ClassLoader loader, String key) {
+        synchronized (cDefined) {
+            SoftValuedCache<String, Class<?>> classes = cDefined.get(loader);
+            return classes == null ? null : classes.get(key);
+        }
+    }
+
+    private static void define(ClassLoader loader, String key, Class<?> clazz) {
+        synchronized (cDefined) {
+            SoftValuedCache<String, Class<?>> classes = cDefined.get(loader);
+            if (classes == null) {
+                classes = SoftValuedCache.newCache(7);
+                cDefined.put(loader, classes);
+            }
+            classes.put(key, clazz);
+        }
+    }
+
+    private GeneratedClassCache() {
+    }
+}
@@ -224,8 +224,15 @@ public final class MasterStorableGenerator<S extends Storable> {
             if (abstractClass != null) {
                 return abstractClass;
             }
-            abstractClass =
-                new MasterStorableGenerator<S>(type, features).generateAndInjectClass();
+            Class<? extends S> parent = StorableGenerator.getAbstractClass(type);
+            String cacheKey = GeneratedClassCache.keyFor
+                (MasterStorableGenerator.class, type, parent, features);
+            abstractClass = (Class<? extends S>)
+                GeneratedClassCache.load(cacheKey, parent.getClassLoader());
+            if (abstractClass == null) {
+                abstractClass = new MasterStorableGenerator<S>(type, features)
+                    .generateAndInjectClass(cacheKey);
+            }
             cCache.put(key, abstractClass);
             return abstractClass;
         }
@@ -255,9 +262,11 @@ public final class MasterStorableGenerator<S extends Storable> {
         mClassFile.setTarget("1.5");
     }
 
-    private Class<? extends S> generateAndInjectClass() throws SupportException {
+    private Class<? extends S> generateAndInjectClass(String cacheKey) throws SupportException {
         generateClass();
         Class abstractClass = mClassInjector.defineClass(mClassFile);
+        GeneratedClassCache.store
+            (cacheKey, abstractClass.getSuperclass().getClassLoader(), abstractClass, mClassFile);
         return (Class<? extends S>) abstractClass;
     }
 
@@ -325,7 +325,12 @@ public final class StorableGenerator<S extends Storable> {
                     return abstractClass;
                 }
             }
-            abstractClass = new StorableGenerator<S>(type).generateAndInjectClass();
+            String cacheKey = GeneratedClassCache.keyFor(StorableGenerator.class, type, null);
+            abstractClass = (Class<? extends S>)
+                GeneratedClassCache.load(cacheKey, type.getClassLoader());
+            if (abstractClass == null) {
+                abstractClass = new StorableGenerator<S>(type).generateAndInjectClass(cacheKey);
+            }
             cAbstractCache.put(type, new SoftReference<Class<? extends Storable>>(abstractClass));
             return abstractClass;
         }
@@ -352,9 +357,11 @@ public final class StorableGenerator<S extends Storable> {
              StorableGenerator.class.getName());
     }
 
-    private Class<? extends S> generateAndInjectClass() {
+    private Class<? extends S> generateAndInjectClass(String cacheKey) {
         generateClass();
         Class abstractClass = mClassInjector.defineClass(mClassFile);
+        GeneratedClassCache.store
+            (cacheKey, mStorableType.getClassLoader(), abstractClass, mClassFile);
         return abstractClass;
     }
 
@@ -38,6 +38,17 @@ public class LayoutOptions {
      */
     static final byte COMPRESSION_TYPE = 1;
 
+    /**
+     * Data is compression dictionary, encoded as an int length followed by
+     * the bytes.
+     */
+    static final byte COMPRESSION_DICTIONARY = 2;
+
+    /**
+     * Data is key encoding name, encoded by DataOutput.writeUTF.
+     */
+    static final byte KEY_ENCODING = 3;
+
     private final Map<Byte, Object> mData;
 
     private boolean mReadOnly;
@@ -60,6 +71,39 @@ public class LayoutOptions {
         put(COMPRESSION_TYPE, type);
     }
 
+    /**
+     * @return null if no dictionary
+     * @since 1.2.4
+     */
+    public synchronized byte[] getCompressionDictionary() {
+        byte[] dictionary = (byte[]) mData.get(COMPRESSION_DICTIONARY);
+        return dictionary == null ? null : dictionary.clone();
+    }
+
+    /**
+     * @param dictionary null if no dictionary
+     * @since 1.2.4
+     */
+    public void setCompressionDictionary(byte[] dictionary) {
+        put(COMPRESSION_DICTIONARY, dictionary == null ? null : dictionary.clone());
+    }
+
+    /**
+     * @return null if standard key encoding
+     * @since 1.2.4
+     */
+    public synchronized String getKeyEncoding() {
+        return (String) mData.get(KEY_ENCODING);
+    }
+
+    /**
+     * @param encoding null if standard key encoding
+     * @since 1.2.4
+     */
+    public void setKeyEncoding(String encoding) {
+        put(KEY_ENCODING, encoding);
+    }
+
     private synchronized void put(byte op, Object value) {
         if (mReadOnly) {
             throw new IllegalStateException("Options are read only");
@@ -94,6 +138,17 @@ public class LayoutOptions {
                 case COMPRESSION_TYPE:
                     dout.write(COMPRESSION_TYPE);
                     dout.writeUTF((String) entry.getValue());
+                    break;
+                case COMPRESSION_DICTIONARY:
+                    byte[] dictionary = (byte[]) entry.getValue();
+                    dout.write(COMPRESSION_DICTIONARY);
+                    dout.writeInt(dictionary.length);
+                    dout.write(dictionary);
+                    break;
+                case KEY_ENCODING:
+                    dout.write(KEY_ENCODING);
+                    dout.writeUTF((String) entry.getValue());
+                    break;
                 }
             }
 
@@ -125,6 +180,14 @@ public class LayoutOptions {
             case COMPRESSION_TYPE:
                 mData.put(COMPRESSION_TYPE, din.readUTF());
                 break;
+            case COMPRESSION_DICTIONARY:
+                byte[] dictionary = new byte[din.readInt()];
+                din.readFully(dictionary);
+                mData.put(COMPRESSION_DICTIONARY, dictionary);
+                break;
+            case KEY_ENCODING:
+                mData.put(KEY_ENCODING, din.readUTF());
+                break;
             }
         }
     }
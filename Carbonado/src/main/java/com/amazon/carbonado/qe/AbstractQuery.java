@@ -21,6 +21,8 @@ package com.amazon.carbonado.qe;
 import java.io.IOException;
 import java.lang.reflect.UndeclaredThrowableException;
 
+import com.amazon.carbonado.Aggregate;
+import com.amazon.carbonado.AggregateResult;
 import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.FetchMultipleException;
@@ -30,6 +32,8 @@ import com.amazon.carbonado.PersistNoneException;
 import com.amazon.carbonado.Query;
 import com.amazon.carbonado.Storable;
 
+import com.amazon.carbonado.cursor.AggregateCursor;
+
 import com.amazon.carbonado.filter.Filter;
 
 import com.amazon.carbonado.util.Appender;
@@ -67,6 +71,25 @@ public abstract class AbstractQuery<S extends Storable> implements Query<S>, App
         return after(start).fetch(controller);
     }
 
+    /**
+     * Returns the single ungrouped result of fetchAggregates, or an empty
+     * result if no results match.
+     *
+     * @since 1.2.4
+     */
+    @Override
+    public AggregateResult aggregate(Aggregate... aggregates) throws FetchException {
+        Cursor<AggregateResult> cursor = fetchAggregates(new String[0], aggregates);
+        try {
+            if (cursor.hasNext()) {
+                return cursor.next();
+            }
+        } finally {
+            cursor.close();
+        }
+        return AggregateCursor.emptyResult(aggregates);
+    }
+
     @Override
     public S loadOne() throws FetchException {
         S obj = tryLoadOne();
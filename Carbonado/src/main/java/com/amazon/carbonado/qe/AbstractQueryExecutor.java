@@ -20,11 +20,14 @@ package com.amazon.carbonado.qe;
 
 import java.io.IOException;
 
+import com.amazon.carbonado.Aggregate;
+import com.amazon.carbonado.AggregateResult;
 import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.Query;
 import com.amazon.carbonado.Storable;
 
+import com.amazon.carbonado.cursor.AggregateCursor;
 import com.amazon.carbonado.cursor.LimitCursor;
 import com.amazon.carbonado.cursor.SkipCursor;
 
@@ -117,6 +120,22 @@ public abstract class AbstractQueryExecutor<S extends Storable> implements Query
         }
     }
 
+    /**
+     * Computes aggregates by fetching all results and passing them through an
+     * {@link AggregateCursor}. Subclasses are encouraged to override with a
+     * more efficient implementation.
+     *
+     * @since 1.2.4
+     */
+    public Cursor<AggregateResult> fetchAggregates(FilterValues<S> values,
+                                                   String[] groupProperties,
+                                                   Aggregate[] aggregates)
+        throws FetchException
+    {
+        return new AggregateCursor<S>(fetch(values), getStorableType(),
+                                      groupProperties, aggregates);
+    }
+
     /**
      * Does nothing and returns false.
      */
@@ -20,6 +20,8 @@ package com.amazon.carbonado.qe;
 
 import java.io.IOException;
 
+import com.amazon.carbonado.Aggregate;
+import com.amazon.carbonado.AggregateResult;
 import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.Query;
@@ -120,6 +122,14 @@ public class DelegatedQueryExecutor<S extends Storable> implements QueryExecutor
         return applyFilterValues(values).count(controller);
     }
 
+    public Cursor<AggregateResult> fetchAggregates(FilterValues<S> values,
+                                                   String[] groupProperties,
+                                                   Aggregate[] aggregates)
+        throws FetchException
+    {
+        return applyFilterValues(values).fetchAggregates(groupProperties, aggregates);
+    }
+
     public Filter<S> getFilter() {
         return mFilter;
     }
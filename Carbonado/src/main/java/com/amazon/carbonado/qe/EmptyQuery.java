@@ -20,12 +20,15 @@ package com.amazon.carbonado.qe;
 
 import java.io.IOException;
 
+import com.amazon.carbonado.Aggregate;
+import com.amazon.carbonado.AggregateResult;
 import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.PersistNoneException;
 import com.amazon.carbonado.Storable;
 import com.amazon.carbonado.Query;
 
+import com.amazon.carbonado.cursor.AggregateCursor;
 import com.amazon.carbonado.cursor.EmptyCursor;
 
 import com.amazon.carbonado.filter.Filter;
@@ -36,7 +39,9 @@ import com.amazon.carbonado.filter.FilterValues;
  *
  * @author Brian S O'Neill
  */
-public final class EmptyQuery<S extends Storable> extends AbstractQuery<S> {
+public final class EmptyQuery<S extends Storable> extends AbstractQuery<S>
+    implements HintableQuery<S>
+{
     private final QueryFactory<S> mFactory;
 
     // Properties that this query is ordered by.
@@ -224,6 +229,14 @@ public final class EmptyQuery<S extends Storable> extends AbstractQuery<S> {
         return new EmptyQuery<S>(mFactory, properties);
     }
 
+    /**
+     * Always returns this instance.
+     */
+    @Override
+    public Query<S> withHints(QueryHints hints) {
+        return this;
+    }
+
     @Override
     public <T extends S> Query<S> after(T start) {
         return this;
@@ -340,6 +353,17 @@ public final class EmptyQuery<S extends Storable> extends AbstractQuery<S> {
         return false;
     }
 
+    /**
+     * Always returns an {@link EmptyCursor}.
+     */
+    @Override
+    public Cursor<AggregateResult> fetchAggregates(String[] groupProperties,
+                                                   Aggregate... aggregates)
+    {
+        AggregateCursor.checkArguments(getStorableType(), groupProperties, aggregates);
+        return EmptyCursor.the();
+    }
+
     @Override
     public void appendTo(Appendable app) throws IOException {
         app.append("Query {type=");
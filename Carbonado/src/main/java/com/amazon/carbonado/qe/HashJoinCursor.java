@@ -0,0 +1,297 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.qe;
+
+import java.lang.reflect.Method;
+
+import java.math.BigDecimal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.cojen.util.ThrowUnchecked;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Storable;
+
+import com.amazon.carbonado.cursor.AbstractCursor;
+
+import com.amazon.carbonado.filter.FilterValues;
+
+import com.amazon.carbonado.info.StorableProperty;
+
+/**
+ * Cursor which joins <i>source</i> and <i>target</i> instances by building a
+ * hash table of source instances, keyed by join property values, and then
+ * probing it with a single scan of target instances. To bound memory use,
+ * source instances are loaded in blocks, and target instances are scanned
+ * once per block.
+ *
+ * @author Brian S O'Neill
+ * @see JoinedQueryExecutor
+ */
+class HashJoinCursor<S extends Storable, T extends Storable> extends AbstractCursor<T> {
+    private final QueryExecutor<T> mTargetExecutor;
+    private final FilterValues<T> mTargetValues;
+    private final Query.Controller mController;
+    private final StorableProperty<T> mTargetToSourceProperty;
+    private final int mBlockSize;
+
+    private Cursor<S> mSource;
+
+    private Map<Object, Object> mTable;
+    private Cursor<T> mTarget;
+
+    private T mNext;
+
+    // Additional source matches for a target, when join is not unique.
+    private T mMatchedTarget;
+    private List<S> mMatches;
+    private int mMatchIndex;
+
+    /**
+     * @param source cursor over source instances to build hash table from
+     * @param targetExecutor executor which scans target instances
+     * @param targetValues values for target executor
+     * @param controller optional controller for target scans
+     * @param targetToSourceProperty join property of <i>target</i> type
+     * @param blockSize maximum amount of source instances to hold at once
+     */
+    HashJoinCursor(Cursor<S> source,
+                   QueryExecutor<T> targetExecutor, FilterValues<T> targetValues,
+                   Query.Controller controller,
+                   StorableProperty<T> targetToSourceProperty,
+                   int blockSize)
+    {
+        mSource = source;
+        mTargetExecutor = targetExecutor;
+        mTargetValues = targetValues;
+        mController = controller;
+        mTargetToSourceProperty = targetToSourceProperty;
+        mBlockSize = blockSize;
+    }
+
+    public void close() throws FetchException {
+        mTable = null;
+        mNext = null;
+        mMatchedTarget = null;
+        mMatches = null;
+        try {
+            if (mTarget != null) {
+                mTarget.close();
+                mTarget = null;
+            }
+        } finally {
+            if (mSource != null) {
+                mSource.close();
+                mSource = null;
+            }
+        }
+    }
+
+    public boolean hasNext() throws FetchException {
+        if (mNext != null) {
+            return true;
+        }
+
+        try {
+            while (true) {
+                if (mMatches != null) {
+                    if (mMatchIndex < mMatches.size()) {
+                        T target = (T) mMatchedTarget.copy();
+                        setSource(target, mMatches.get(mMatchIndex++));
+                        mNext = target;
+                        return true;
+                    }
+                    mMatchedTarget = null;
+                    mMatches = null;
+                }
+
+                if (mTarget != null) {
+                    while (mTarget.hasNext()) {
+                        T target = mTarget.next();
+                        Object match = mTable.get(targetKey(target));
+                        if (match == null) {
+                            continue;
+                        }
+                        if (match instanceof List) {
+                            List<S> matches = (List<S>) match;
+                            mMatchedTarget = target;
+                            mMatches = matches;
+                            mMatchIndex = 1;
+                            match = matches.get(0);
+                        }
+                        setSource(target, (S) match);
+                        mNext = target;
+                        return true;
+                    }
+                    mTarget.close();
+                    mTarget = null;
+                }
+
+                if (!buildTable()) {
+                    close();
+                    return false;
+                }
+
+                mTarget = mTargetExecutor.fetch(mTargetValues, mController);
+            }
+        } catch (FetchException e) {
+            try {
+                close();
+            } catch (Exception e2) {
+                // Don't care.
+            }
+            throw e;
+        }
+    }
+
+    public T next() throws FetchException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T next = mNext;
+        mNext = null;
+        return next;
+    }
+
+    /**
+     * Loads the next block of source instances into the hash table.
+     *
+     * @return false if no more source instances
+     */
+    private boolean buildTable() throws FetchException {
+        Cursor<S> source = mSource;
+        if (source == null) {
+            return false;
+        }
+
+        Map<Object, Object> table = new HashMap<Object, Object>();
+        int count = 0;
+
+        while (count < mBlockSize && source.hasNext()) {
+            S s = source.next();
+            count++;
+            Object key = sourceKey(s);
+            Object existing = table.put(key, s);
+            if (existing != null) {
+                List<S> matches;
+                if (existing instanceof List) {
+                    matches = (List<S>) existing;
+                } else {
+                    matches = new ArrayList<S>(2);
+                    matches.add((S) existing);
+                }
+                matches.add(s);
+                table.put(key, matches);
+            }
+        }
+
+        if (count < mBlockSize) {
+            // Source is exhausted, so release it early.
+            mSource = null;
+            source.close();
+        }
+
+        mTable = table;
+        return count > 0;
+    }
+
+    private Object sourceKey(S source) {
+        StorableProperty<T> prop = mTargetToSourceProperty;
+        int count = prop.getJoinElementCount();
+        if (count == 1) {
+            return normalize(source.getPropertyValue(prop.getExternalJoinElement(0).getName()));
+        }
+        Object[] key = new Object[count];
+        for (int i=0; i<count; i++) {
+            key[i] = normalize(source.getPropertyValue(prop.getExternalJoinElement(i).getName()));
+        }
+        return Arrays.asList(key);
+    }
+
+    private Object targetKey(T target) {
+        StorableProperty<T> prop = mTargetToSourceProperty;
+        int count = prop.getJoinElementCount();
+        if (count == 1) {
+            return normalize(target.getPropertyValue(prop.getInternalJoinElement(0).getName()));
+        }
+        Object[] key = new Object[count];
+        for (int i=0; i<count; i++) {
+            key[i] = normalize(target.getPropertyValue(prop.getInternalJoinElement(i).getName()));
+        }
+        return Arrays.asList(key);
+    }
+
+    /**
+     * Stashes a reference to the joined source on the target, if possible,
+     * as is done by nested loop joins.
+     */
+    private void setSource(T target, S source) {
+        Method writeMethod = mTargetToSourceProperty.getWriteMethod();
+        if (writeMethod != null) {
+            try {
+                writeMethod.invoke(target, source);
+            } catch (Exception e) {
+                ThrowUnchecked.fireFirstDeclaredCause(e);
+            }
+        }
+    }
+
+    /**
+     * Converts the value into a form which is suitable for hash keys.
+     */
+    private static Object normalize(Object value) {
+        if (value instanceof BigDecimal) {
+            BigDecimal bd = (BigDecimal) value;
+            if (bd.signum() == 0) {
+                return BigDecimal.ZERO;
+            }
+            return bd.stripTrailingZeros();
+        }
+        if (value != null && value.getClass().isArray()) {
+            return new ArrayKey(value);
+        }
+        return value;
+    }
+
+    private static class ArrayKey {
+        private final Object[] mArray;
+
+        ArrayKey(Object array) {
+            mArray = new Object[] {array};
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.deepHashCode(mArray);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof ArrayKey && Arrays.deepEquals(mArray, ((ArrayKey) obj).mArray);
+        }
+    }
+}
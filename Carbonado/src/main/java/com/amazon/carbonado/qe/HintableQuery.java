@@ -0,0 +1,42 @@
+/*
+ * Copyright 2008-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazon.carbonado.qe;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Storable;
+
+/**
+ * Optional interface implemented by queries which accept {@link QueryHints}.
+ * Queries which don't implement it simply ignore hints.
+ *
+ * @author Brian S O'Neill
+ * @see QueryHints#applyTo
+ * @since 1.2.4
+ */
+public interface HintableQuery<S extends Storable> extends Query<S> {
+    /**
+     * Returns a copy of this query which uses the given hints, replacing any
+     * hints previously given. Hints do not affect query results, and hints
+     * not supported by the repository are ignored.
+     *
+     * @param hints query hints; if null, hints are cleared
+     * @throws FetchException if storage layer throws an exception
+     */
+    Query<S> withHints(QueryHints hints) throws FetchException;
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.qe;
+
+import java.util.List;
+
+import com.amazon.carbonado.Storable;
+
+import com.amazon.carbonado.filter.PropertyFilter;
+import com.amazon.carbonado.filter.RelOp;
+
+import com.amazon.carbonado.info.StorableIndex;
+
+/**
+ * Statistics which describe the contents of an index at the time they were
+ * gathered. Query analyzers use statistics to estimate how many index entries
+ * must be scanned, which is something a {@link CompositeScore} alone cannot
+ * determine.
+ *
+ * <p>Statistics consist of the entry count, the amount of distinct values for
+ * each prefix of the index properties, and an optional histogram of the first
+ * index property. The histogram is only consulted for filters which have
+ * constant values.
+ *
+ * @author Brian S O'Neill
+ * @see IndexStatisticsAccess
+ * @since 1.2.4
+ */
+public class IndexStatistics<S extends Storable> {
+    // Selectivity of ranges whose boundaries are not known in advance.
+    private static final double OPEN_RANGE_SELECTIVITY = 1.0 / 3;
+    private static final double CLOSED_RANGE_SELECTIVITY = 1.0 / 4;
+
+    private final StorableIndex<S> mIndex;
+    private final long mRowCount;
+    private final long[] mDistinctCounts;
+    private final Comparable[] mHistogram;
+    private final long mTimestamp;
+
+    /**
+     * @param index index which statistics describe
+     * @param rowCount amount of entries in the index
+     * @param distinctCounts amount of distinct values for each prefix of the
+     * index properties; the first element is for the first property alone,
+     * the second element is for the first two properties, and so on
+     * @param histogram optional bucket boundaries of the first index property
+     * values, in ascending order and excluding nulls; each bucket holds the
+     * same amount of entries
+     * @param timestamp milliseconds from 1970-01-01T00:00:00Z when the
+     * statistics were gathered
+     * @throws IllegalArgumentException if index is null or if there isn't one
+     * distinct count per index property
+     */
+    public IndexStatistics(StorableIndex<S> index, long rowCount, long[] distinctCounts,
+                           Comparable[] histogram, long timestamp)
+    {
+        if (index == null || distinctCounts == null) {
+            throw new IllegalArgumentException();
+        }
+        if (distinctCounts.length != index.getPropertyCount()) {
+            throw new IllegalArgumentException
+                ("Distinct count required for each index property: " +
+                 distinctCounts.length + " != " + index.getPropertyCount());
+        }
+        mIndex = index;
+        mRowCount = Math.max(0, rowCount);
+        mDistinctCounts = distinctCounts.clone();
+        mHistogram = (histogram == null || histogram.length == 0) ? null : histogram.clone();
+        mTimestamp = timestamp;
+    }
+
+    /**
+     * Returns the index which these statistics describe.
+     */
+    public StorableIndex<S> getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * Returns the amount of entries in the index.
+     */
+    public long getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * Returns the amount of distinct values for the given amount of leading
+     * index properties. The result is never less than one.
+     *
+     * @param prefixLength amount of leading index properties, which must be
+     * at least one
+     * @throws IllegalArgumentException if prefix length is out of bounds
+     */
+    public long getDistinctCount(int prefixLength) {
+        if (prefixLength < 1 || prefixLength > mDistinctCounts.length) {
+            throw new IllegalArgumentException("Prefix length: " + prefixLength);
+        }
+        return Math.max(1, mDistinctCounts[prefixLength - 1]);
+    }
+
+    /**
+     * Returns a copy of the bucket boundaries of the first index property
+     * values, or null if no histogram is available.
+     */
+    public Comparable[] getHistogram() {
+        return mHistogram == null ? null : mHistogram.clone();
+    }
+
+    /**
+     * Returns the milliseconds from 1970-01-01T00:00:00Z when the statistics
+     * were gathered.
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * Estimates the amount of index entries which are scanned for the given
+     * filtering score. The score must have been evaluated against the index
+     * which these statistics describe.
+     */
+    public double estimateScanCount(FilteringScore<?> score) {
+        double rows = mRowCount;
+        if (rows <= 0) {
+            return 0;
+        }
+
+        int identityCount = score.getIdentityCount();
+
+        if (identityCount > 0) {
+            if (score.isKeyMatch()) {
+                return 1;
+            }
+            double selectivity = 1.0 / getDistinctCount(identityCount);
+            if (identityCount == 1) {
+                PropertyFilter<?> filter = score.getIdentityFilters().get(0);
+                if (filter.isConstant()) {
+                    selectivity = equalitySelectivity(filter.constant(), selectivity);
+                }
+            }
+            rows *= selectivity;
+        }
+
+        if (score.hasRangeMatch()) {
+            double selectivity = Double.NaN;
+            if (identityCount == 0) {
+                selectivity = rangeSelectivity(score.getRangeStartFilters(),
+                                               score.getRangeEndFilters());
+            }
+            if (Double.isNaN(selectivity)) {
+                selectivity = (score.hasRangeStart() && score.hasRangeEnd())
+                    ? CLOSED_RANGE_SELECTIVITY : OPEN_RANGE_SELECTIVITY;
+            }
+            rows *= selectivity;
+        }
+
+        return rows;
+    }
+
+    /**
+     * Returns the fraction of entries whose first property equals the given
+     * value, based on the histogram. If the value isn't frequent enough to
+     * span a bucket, the default selectivity is returned.
+     */
+    private double equalitySelectivity(Object value, double defaultSelectivity) {
+        Comparable[] histogram = mHistogram;
+        if (histogram == null || histogram.length < 2 || !isComparable(value)) {
+            return defaultSelectivity;
+        }
+
+        int first = -1, last = -1;
+        for (int i=0; i<histogram.length; i++) {
+            if (histogram[i].compareTo(value) == 0) {
+                if (first < 0) {
+                    first = i;
+                }
+                last = i;
+            }
+        }
+
+        if (first < 0 || first == last) {
+            return defaultSelectivity;
+        }
+
+        return Math.max(defaultSelectivity, (double) (last - first) / (histogram.length - 1));
+    }
+
+    /**
+     * Returns the fraction of entries whose first property is within the
+     * range, or NaN if it cannot be determined.
+     */
+    private double rangeSelectivity(List<? extends PropertyFilter<?>> startFilters,
+                                    List<? extends PropertyFilter<?>> endFilters)
+    {
+        Comparable[] histogram = mHistogram;
+        if (histogram == null || histogram.length < 2) {
+            return Double.NaN;
+        }
+
+        double low = 0.0;
+        for (PropertyFilter<?> filter : startFilters) {
+            if (!filter.isConstant() || !isComparable(filter.constant())) {
+                return Double.NaN;
+            }
+            low = Math.max(low, fractionBelow(filter.constant(),
+                                              filter.getOperator() == RelOp.GT));
+        }
+
+        double high = 1.0;
+        for (PropertyFilter<?> filter : endFilters) {
+            if (!filter.isConstant() || !isComparable(filter.constant())) {
+                return Double.NaN;
+            }
+            high = Math.min(high, fractionBelow(filter.constant(),
+                                                filter.getOperator() == RelOp.LE));
+        }
+
+        // Histogram cannot discern anything smaller than half a bucket.
+        return Math.max(high - low, 0.5 / (histogram.length - 1));
+    }
+
+    /**
+     * Returns the fraction of entries whose first property is less than the
+     * given value, or less than or equal to it.
+     */
+    private double fractionBelow(Object value, boolean orEqual) {
+        Comparable[] histogram = mHistogram;
+        int count = 0;
+        for (Comparable boundary : histogram) {
+            int result = boundary.compareTo(value);
+            if (result < 0 || (orEqual && result == 0)) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return 0.0;
+        }
+        if (count == histogram.length) {
+            return 1.0;
+        }
+        // Value is somewhere within the bucket, so assume the middle.
+        return (count - 0.5) / (histogram.length - 1);
+    }
+
+    private boolean isComparable(Object value) {
+        return value != null && value.getClass() == mHistogram[0].getClass();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        b.append("IndexStatistics {index=").append(mIndex);
+        b.append(", rowCount=").append(mRowCount);
+        b.append(", distinctCounts=[");
+        for (int i=0; i<mDistinctCounts.length; i++) {
+            if (i > 0) {
+                b.append(", ");
+            }
+            b.append(mDistinctCounts[i]);
+        }
+        b.append("], histogramSize=").append(mHistogram == null ? 0 : mHistogram.length);
+        b.append('}');
+        return b.toString();
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.qe;
+
+import com.amazon.carbonado.Storable;
+
+import com.amazon.carbonado.info.StorableIndex;
+
+/**
+ * Optional interface which a {@link StorageAccess} can also implement, to
+ * provide statistics about its indexes. When available, {@link
+ * IndexedQueryAnalyzer} and {@link UnionQueryAnalyzer} use statistics to
+ * estimate the cost of candidate indexes.
+ *
+ * @author Brian S O'Neill
+ * @since 1.2.4
+ */
+public interface IndexStatisticsAccess<S extends Storable> {
+    /**
+     * Returns statistics for the given index, or null if none are available.
+     */
+    IndexStatistics<S> getIndexStatistics(StorableIndex<S> index);
+}
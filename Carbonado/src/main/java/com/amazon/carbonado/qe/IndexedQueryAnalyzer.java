@@ -50,10 +50,64 @@ import com.amazon.carbonado.info.StorableProperty;
  * particular Storable type can be cached, avoiding repeated construction
  * cost. In addition, the analyzer caches learned foreign indexes.
  *
+ * <p>If the {@link StorageAccess} for a type also implements {@link
+ * IndexStatisticsAccess}, candidate indexes of that type are compared by
+ * estimated cost. When costs are similar or unknown, indexes are compared by
+ * score alone.
+ *
  * @author Brian S O'Neill
  * @see UnionQueryAnalyzer
  */
 public class IndexedQueryAnalyzer<S extends Storable> {
+    // Estimated cost of one index must be smaller than another by this factor
+    // for it to be selected regardless of score.
+    private static final double COST_MARGIN = 2.0;
+
+    // Cost of sorting relative to reading, per record and comparison.
+    private static final double SORT_COST_FACTOR = 0.1;
+
+    /**
+     * Returns the estimated cost of using an index with the given score,
+     * which is roughly the amount of records read.
+     */
+    static double estimateCost(CompositeScore<?> score, IndexStatistics<?> stats) {
+        FilteringScore<?> filteringScore = score.getFilteringScore();
+        double rows = stats.estimateScanCount(filteringScore);
+
+        // Entries of an index which isn't clustered refer to master records,
+        // which must be read too.
+        double cost = filteringScore.isIndexClustered() ? rows : (rows * 2);
+
+        if (score.getOrderingScore().getRemainderCount() > 0 && rows > 1) {
+            cost += rows * (Math.log(rows) / Math.log(2)) * SORT_COST_FACTOR;
+        }
+
+        return cost;
+    }
+
+    /**
+     * Compares scores by estimated cost if statistics are available for
+     * both, falling back to the given comparator if costs are similar.
+     */
+    private static int compare(Comparator<CompositeScore<?>> comparator,
+                               CompositeScore<?> first, IndexStatistics<?> firstStats,
+                               CompositeScore<?> second, IndexStatistics<?> secondStats)
+    {
+        if (firstStats != null && secondStats != null &&
+            firstStats.getIndex().getStorableType() == secondStats.getIndex().getStorableType())
+        {
+            double firstCost = estimateCost(first, firstStats);
+            double secondCost = estimateCost(second, secondStats);
+            if (firstCost * COST_MARGIN < secondCost) {
+                return -1;
+            }
+            if (secondCost * COST_MARGIN < firstCost) {
+                return 1;
+            }
+        }
+        return comparator.compare(first, second);
+    }
+
     final Class<S> mType;
     final RepositoryAccess mRepoAccess;
 
@@ -94,20 +148,27 @@ public class IndexedQueryAnalyzer<S extends Storable> {
         // First find best local index.
         CompositeScore<S> bestLocalScore = null;
         StorableIndex<S> bestLocalIndex = null;
+        IndexStatistics<S> bestLocalStats = null;
 
         final Comparator<CompositeScore<?>> fullComparator = CompositeScore.fullComparator(hints);
 
+        // When consuming a slice, cost of reading all results doesn't apply.
+        final boolean useStats = hints == null || !hints.contains(QueryHint.CONSUME_SLICE);
+
         Collection<StorableIndex<S>> localIndexes = indexesFor(getStorableType());
         if (localIndexes != null) {
             for (StorableIndex<S> index : localIndexes) {
                 CompositeScore<S> candidateScore =
                     CompositeScore.evaluate(index, filter, ordering);
+                IndexStatistics<S> candidateStats = useStats ? statisticsFor(index) : null;
 
                 if (bestLocalScore == null
-                    || fullComparator.compare(candidateScore, bestLocalScore) < 0)
+                    || compare(fullComparator, candidateScore, candidateStats,
+                               bestLocalScore, bestLocalStats) < 0)
                 {
                     bestLocalScore = candidateScore;
                     bestLocalIndex = index;
+                    bestLocalStats = candidateStats;
                 }
             }
         }
@@ -122,6 +183,7 @@ public class IndexedQueryAnalyzer<S extends Storable> {
         CompositeScore<?> bestForeignScore = null;
         StorableIndex<?> bestForeignIndex = null;
         ChainedProperty<S> bestForeignProperty = null;
+        IndexStatistics<?> bestForeignStats = null;
 
         for (PropertyFilter<S> propFilter : PropertyFilterList.get(filter)) {
             ChainedProperty<S> chainedProp = propFilter.getChainedProperty();
@@ -143,13 +205,17 @@ public class IndexedQueryAnalyzer<S extends Storable> {
                      index.isClustered(),
                      filter,
                      ordering);
+                IndexStatistics<?> candidateStats =
+                    useStats ? statisticsFor((StorableIndex) index) : null;
 
                 if (bestForeignScore == null
-                    || fullComparator.compare(candidateScore, bestForeignScore) < 0)
+                    || compare(fullComparator, candidateScore, candidateStats,
+                               bestForeignScore, bestForeignStats) < 0)
                 {
                     bestForeignScore = candidateScore;
                     bestForeignIndex = index;
                     bestForeignProperty = foreignIndexes.mProperty;
+                    bestForeignStats = candidateStats;
                 }
             }
         }
@@ -284,6 +350,36 @@ public class IndexedQueryAnalyzer<S extends Storable> {
         return mRepoAccess.storageAccessFor(type).getAllIndexes();
     }
 
+    /**
+     * @return null if no statistics are available
+     */
+    private <T extends Storable> IndexStatistics<T> statisticsFor(StorableIndex<T> index)
+        throws SupportException, RepositoryException
+    {
+        StorageAccess<T> access = mRepoAccess.storageAccessFor(index.getStorableType());
+        if (access instanceof IndexStatisticsAccess) {
+            return ((IndexStatisticsAccess<T>) access).getIndexStatistics(index);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the estimated cost of a full scan, which is the amount of
+     * records, or NaN if not known.
+     */
+    double estimateFullScanCost() throws SupportException, RepositoryException {
+        Collection<StorableIndex<S>> indexes = indexesFor(getStorableType());
+        if (indexes != null) {
+            for (StorableIndex<S> index : indexes) {
+                IndexStatistics<S> stats = statisticsFor(index);
+                if (stats != null) {
+                    return stats.getRowCount();
+                }
+            }
+        }
+        return Double.NaN;
+    }
+
     public class Result {
         private final Filter<S> mFilter;
 
@@ -390,6 +486,21 @@ public class IndexedQueryAnalyzer<S extends Storable> {
                 || (mForeignIndex != null && mForeignIndex.isClustered());
         }
 
+        /**
+         * Returns the estimated cost of executing this result, which is
+         * roughly the amount of records read, or NaN if not known.
+         */
+        double estimateCost() throws SupportException, RepositoryException {
+            if (!handlesAnything()) {
+                return estimateFullScanCost();
+            }
+            if (mLocalIndex == null) {
+                return Double.NaN;
+            }
+            IndexStatistics<S> stats = statisticsFor(mLocalIndex);
+            return stats == null ? Double.NaN : IndexedQueryAnalyzer.estimateCost(mScore, stats);
+        }
+
         /**
          * Returns true if the given result uses the same index as this, and in
          * the same way. The only allowed differences are in the remainder
@@ -22,11 +22,16 @@ import java.io.IOException;
 
 import java.util.List;
 
+import com.amazon.carbonado.Aggregate;
+import com.amazon.carbonado.AggregateResult;
 import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.Query;
 import com.amazon.carbonado.Storable;
 
+import com.amazon.carbonado.cursor.EmptyCursor;
+import com.amazon.carbonado.cursor.SingletonCursor;
+
 import com.amazon.carbonado.filter.Filter;
 import com.amazon.carbonado.filter.FilterValues;
 import com.amazon.carbonado.filter.PropertyFilter;
@@ -125,6 +130,70 @@ public class IndexedQueryExecutor<S extends Storable> extends AbstractQueryExecu
 
     public Cursor<S> fetch(FilterValues<S> values, Query.Controller controller)
         throws FetchException
+    {
+        return fetch(values, controller, false);
+    }
+
+    /**
+     * Computes min and max values of the first index property following the
+     * identity properties by reading only the endpoints of the index
+     * range. Otherwise, aggregates are computed by a full scan.
+     */
+    @Override
+    public Cursor<AggregateResult> fetchAggregates(FilterValues<S> values,
+                                                   String[] groupProperties,
+                                                   Aggregate[] aggregates)
+        throws FetchException
+    {
+        if (groupProperties.length > 0 || mIdentityCount >= mIndex.getPropertyCount()) {
+            return super.fetchAggregates(values, groupProperties, aggregates);
+        }
+
+        String name = mIndex.getProperty(mIdentityCount).getName();
+
+        for (Aggregate aggregate : aggregates) {
+            switch (aggregate.getFunction()) {
+            case MIN: case MAX:
+                if (name.equals(aggregate.getPropertyName())) {
+                    continue;
+                }
+            }
+            return super.fetchAggregates(values, groupProperties, aggregates);
+        }
+
+        boolean descending = mIndex.getPropertyDirection(mIdentityCount) == Direction.DESCENDING;
+
+        Object[] results = new Object[aggregates.length];
+        for (int i=0; i<aggregates.length; i++) {
+            boolean max = aggregates[i].getFunction() == Aggregate.Function.MAX;
+            Cursor<S> cursor = fetch(values, null, max ^ descending ^ mReverseOrder);
+            try {
+                if (!cursor.hasNext()) {
+                    return EmptyCursor.the();
+                }
+                // Nulls sort high, and so they must be skipped when finding the max.
+                do {
+                    Object value = cursor.next().getPropertyValue(name);
+                    if (value != null) {
+                        results[i] = value;
+                        break;
+                    }
+                } while (cursor.hasNext());
+            } finally {
+                cursor.close();
+            }
+        }
+
+        return new SingletonCursor<AggregateResult>
+            (new AggregateResult(groupProperties, new Object[0], aggregates, results));
+    }
+
+    /**
+     * @param reverse when true, iterate in the opposite order of this executor
+     */
+    private Cursor<S> fetch(FilterValues<S> values, Query.Controller controller,
+                            boolean reverse)
+        throws FetchException
     {
         Object[] identityValues = null;
         Object rangeStartValue = null;
@@ -188,9 +257,12 @@ public class IndexedQueryExecutor<S extends Storable> extends AbstractQueryExecu
                                         rangeStartBoundary, rangeStartValue,
                                         rangeEndBoundary, rangeEndValue,
                                         mReverseRange,
-                                        mReverseOrder,
+                                        mReverseOrder ^ reverse,
                                         controller);
         } else {
+            if (reverse) {
+                indexEntryQuery = indexEntryQuery.orderBy(indexOrdering(!mReverseOrder));
+            }
             indexEntryQuery = indexEntryQuery.withValues(identityValues);
             if (rangeStartBoundary != BoundaryType.OPEN) {
                 indexEntryQuery = indexEntryQuery.with(rangeStartValue);
@@ -371,18 +443,7 @@ public class IndexedQueryExecutor<S extends Storable> extends AbstractQueryExecu
 
             // Enforce index ordering where applicable.
             if (mIdentityCount < mIndex.getPropertyCount()) {
-                String[] orderProperties = new String[mIdentityCount + 1];
-                for (i=0; i<orderProperties.length; i++) {
-                    Direction dir = mIndex.getPropertyDirection(i);
-                    if (dir == Direction.UNSPECIFIED) {
-                        dir = Direction.ASCENDING;
-                    }
-                    if (mReverseOrder) {
-                        dir = dir.reverse();
-                    }
-                    orderProperties[i] = dir.toCharacter() + mIndex.getProperty(i).getName();
-                }
-                indexEntryQuery = indexEntryQuery.orderBy(orderProperties);
+                indexEntryQuery = indexEntryQuery.orderBy(indexOrdering(mReverseOrder));
             }
 
             mIndexEntryQueryCache[key] = indexEntryQuery;
@@ -391,6 +452,25 @@ public class IndexedQueryExecutor<S extends Storable> extends AbstractQueryExecu
         return indexEntryQuery;
     }
 
+    /**
+     * Returns the ordering to apply to index entry queries, which must only
+     * be called if identity count is less than the index property count.
+     */
+    private String[] indexOrdering(boolean reverseOrder) {
+        String[] orderProperties = new String[mIdentityCount + 1];
+        for (int i=0; i<orderProperties.length; i++) {
+            Direction dir = mIndex.getPropertyDirection(i);
+            if (dir == Direction.UNSPECIFIED) {
+                dir = Direction.ASCENDING;
+            }
+            if (reverseOrder) {
+                dir = dir.reverse();
+            }
+            orderProperties[i] = dir.toCharacter() + mIndex.getProperty(i).getName();
+        }
+        return orderProperties;
+    }
+
     /**
      * Provides support for {@link IndexedQueryExecutor}.
      */
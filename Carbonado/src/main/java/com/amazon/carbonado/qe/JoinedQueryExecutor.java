@@ -45,6 +45,7 @@ import com.amazon.carbonado.filter.FilterValues;
 import com.amazon.carbonado.filter.RelOp;
 
 import com.amazon.carbonado.info.ChainedProperty;
+import com.amazon.carbonado.info.Direction;
 import com.amazon.carbonado.info.OrderedProperty;
 import com.amazon.carbonado.info.StorableIndex;
 import com.amazon.carbonado.info.StorableInfo;
@@ -62,6 +63,20 @@ import com.amazon.carbonado.gen.CodeBuilderUtil;
  * fetch (outer loop), but the target executor is called once per source result
  * (inner loop).
  *
+ * <p>If no index of the target type can be used to find the target instances
+ * for a source result, each inner loop would be a full scan. Instead, a hash
+ * join is performed: source results are collected into a hash table in blocks,
+ * and the target instances are scanned once per block, matching them to the
+ * source results by join property values.
+ *
+ * <p>If source and target instances can both be fetched in join property
+ * order for free, by using indexes, a merge join is performed instead. Each
+ * executor is then called once per fetch, and the results are merged in a
+ * single pass over each. A merge join is not performed if the source filter
+ * can be matched by an index, unless index statistics show that many source
+ * instances are fetched anyway. Inner loop lookups are cheaper than scanning
+ * all the target instances when only a few source instances match.
+ *
  * @author Brian S O'Neill
  * @param <S> source type
  * @param <T> target type
@@ -141,6 +156,12 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
         // not provide the ordering for free.
         final OrderingList outerLoopOrdering = mostOrdering(primeTarget, targetOrdering);
 
+        Class<T> targetType = primeTarget.getEnclosingType();
+        StorageAccess<T> targetAccess = repoAccess.storageAccessFor(targetType);
+
+        // Target ordering by join properties, if a merge join is possible.
+        OrderingList<T> mergeOrdering = null;
+
         QueryExecutor outerLoopExecutor;
         if (targetToSourceProperty.getChainCount() > 0) {
             ChainedProperty tailProperty = targetToSourceProperty.tail();
@@ -159,6 +180,23 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
             OrderingList expectedOrdering =
                 expectedOrdering(sourceAccess, tailFilter, outerLoopOrdering);
 
+            if (expectedOrdering.size() == 0) {
+                // Source cannot provide any target ordering for free, so
+                // nothing is lost if it's ordered by join properties instead.
+                OrderingList sourceJoinOrdering = joinOrdering(primeTarget, true);
+                OrderingList<T> targetJoinOrdering = joinOrdering(primeTarget, false);
+                if (sourceJoinOrdering != null && targetJoinOrdering != null &&
+                    !isSelective(sourceAccess, tailFilter) &&
+                    expectedOrdering(sourceAccess, tailFilter, sourceJoinOrdering).size()
+                    == sourceJoinOrdering.size() &&
+                    expectedOrdering(targetAccess, targetFilter, targetJoinOrdering).size()
+                    == targetJoinOrdering.size())
+                {
+                    expectedOrdering = sourceJoinOrdering;
+                    mergeOrdering = targetJoinOrdering;
+                }
+            }
+
             QueryExecutorFactory outerLoopExecutorFactory = sourceAccess.getQueryExecutorFactory();
 
             outerLoopExecutor = outerLoopExecutorFactory
@@ -176,9 +214,6 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
             targetOrdering = targetOrdering.subList(handledCount, targetOrdering.size());
         }
 
-        Class<T> targetType = primeTarget.getEnclosingType();
-        StorageAccess<T> targetAccess = repoAccess.storageAccessFor(targetType);
-        
         QueryExecutorFactory<T> innerLoopExecutorFactory = targetAccess.getQueryExecutorFactory();
 
         return new JoinedQueryExecutor<Storable, T>(outerLoopExecutor,
@@ -186,14 +221,24 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
                                                     primeTarget,
                                                     targetFilter,
                                                     targetOrdering,
+                                                    mergeOrdering,
                                                     targetAccess);
     }
 
+    // Minimum fraction of source entries which must be scanned, according to
+    // index statistics, before a merge join is preferred over a nested loop.
+    private static final double MERGE_JOIN_FRACTION = 0.1;
+
     private static final String INNER_LOOP_EX_FIELD_NAME = "innerLoopExecutor";
     private static final String INNER_LOOP_FV_FIELD_NAME = "innerLoopFilterValues";
     private static final String INNER_LOOP_CONTROLLER_FIELD_NAME = "innerLoopController";
     private static final String ACTIVE_SOURCE_FIELD_NAME = "active";
 
+    /**
+     * Maximum amount of source instances held in a hash join table at once.
+     */
+    static final int HASH_JOIN_BLOCK_SIZE = 10000;
+
     private static final SoftValuedCache<StorableProperty, Class> cJoinerCursorClassCache;
 
     static {
@@ -437,6 +482,125 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
         return ordering.subList(0, handledCount);
     }
 
+    /**
+     * Returns true if each part of the filter can be matched by an index, and
+     * so the executor likely fetches few enough instances that inner loop
+     * lookups are cheaper than a merge join. If index statistics are
+     * available, a part is only selective if the best matching index is
+     * estimated to scan less than {@link #MERGE_JOIN_FRACTION} of its entries.
+     */
+    private static <S extends Storable> boolean
+        isSelective(StorageAccess<S> access, Filter<S> filter)
+    {
+        if (filter == null || filter.isOpen()) {
+            return false;
+        }
+
+        IndexStatisticsAccess<S> statsAccess = null;
+        if (access instanceof IndexStatisticsAccess) {
+            statsAccess = (IndexStatisticsAccess<S>) access;
+        }
+
+        for (Filter<S> sub : filter.disjunctiveNormalFormSplit()) {
+            boolean matched = false;
+            boolean estimated = false;
+            double fraction = 1.0;
+
+            for (StorableIndex<S> index : access.getAllIndexes()) {
+                FilteringScore<S> score = FilteringScore.evaluate(index, sub);
+                if (score.getIdentityCount() == 0 && !score.hasRangeMatch()) {
+                    continue;
+                }
+                matched = true;
+                IndexStatistics<S> stats =
+                    statsAccess == null ? null : statsAccess.getIndexStatistics(index);
+                if (stats != null && stats.getRowCount() > 0) {
+                    estimated = true;
+                    fraction = Math.min
+                        (fraction, stats.estimateScanCount(score) / stats.getRowCount());
+                }
+            }
+
+            if (!matched || (estimated && fraction >= MERGE_JOIN_FRACTION)) {
+                // Source scans many entries for this part of the filter.
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns true if any index of the target type can match the first join
+     * property element by identity, and so inner loop queries don't require
+     * a full scan.
+     */
+    private static <T extends Storable> boolean
+        isJoinIndexed(StorageAccess<T> targetAccess, StorableProperty<T> targetToSourceProperty)
+    {
+        Filter<T> joinFilter = Filter
+            .filterFor(targetToSourceProperty.getEnclosingType(),
+                       targetToSourceProperty.getInternalJoinElement(0).getName() + " = ?")
+            .bind();
+
+        for (StorableIndex<T> index : targetAccess.getAllIndexes()) {
+            if (FilteringScore.evaluate(index, joinFilter).getIdentityCount() > 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns an ascending ordering of the internal or external join property
+     * elements, or null if any element cannot be compared consistently with
+     * index order. Strings are not supported, since a repository may apply a
+     * collation which differs from String.compareTo.
+     */
+    private static OrderingList joinOrdering(StorableProperty<?> targetToSourceProperty,
+                                             boolean external)
+    {
+        OrderingList ordering = OrderingList.emptyList();
+        int count = targetToSourceProperty.getJoinElementCount();
+        for (int i=0; i<count; i++) {
+            StorableProperty internal = targetToSourceProperty.getInternalJoinElement(i);
+            StorableProperty ext = targetToSourceProperty.getExternalJoinElement(i);
+            TypeDesc internalType = TypeDesc.forClass(internal.getType()).toObjectType();
+            TypeDesc externalType = TypeDesc.forClass(ext.getType()).toObjectType();
+            if (!internalType.equals(externalType) || internalType.toPrimitiveType() == null) {
+                return null;
+            }
+            ordering = ordering.concat(OrderedProperty.get(external ? ext : internal,
+                                                           Direction.ASCENDING));
+        }
+        return ordering;
+    }
+
+    /**
+     * Returns true if the given source ordering starts with the external join
+     * property elements, in ascending order.
+     */
+    private static <S extends Storable> boolean
+        isOrderedByJoin(OrderingList<S> sourceOrdering, StorableProperty<?> targetToSourceProperty)
+    {
+        int count = targetToSourceProperty.getJoinElementCount();
+        if (sourceOrdering.size() < count) {
+            return false;
+        }
+        for (int i=0; i<count; i++) {
+            OrderedProperty<S> prop = sourceOrdering.get(i);
+            if (prop.getDirection() == Direction.DESCENDING ||
+                prop.getChainedProperty().getChainCount() != 0 ||
+                !prop.getChainedProperty().getPrimeProperty()
+                .equals(targetToSourceProperty.getExternalJoinElement(i)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Returns the count of exactly matching properties from the two
      * orderings. The match must be consecutive and start at the first
@@ -465,6 +629,8 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
     private final QueryExecutor<T> mInnerLoopExecutor;
     private final FilterValues<T> mInnerLoopFilterValues;
 
+    private final Strategy mStrategy;
+
     private final Filter<T> mSourceFilterAsFromTarget;
     private final Filter<T> mCombinedFilter;
     private final OrderingList<T> mCombinedOrdering;
@@ -479,6 +645,8 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
      * @param targetFilter optional initial filter for fetching <i>target</i> instances
      * @param targetOrdering optional desired ordering to apply to
      * <i>target</i> executor
+     * @param mergeOrdering optional ordering of <i>target</i> join properties,
+     * if source and target can both be fetched in this order for free
      * @param targetAccess used with target ordering to determine actual
      * ordering which an index provides for free
      * @throws IllegalArgumentException if any parameter is null or if join
@@ -490,6 +658,7 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
                                 StorableProperty<T> targetToSourceProperty,
                                 Filter<T> targetFilter,
                                 OrderingList<T> targetOrdering,
+                                OrderingList<T> mergeOrdering,
                                 StorageAccess<T> targetAccess)
         throws RepositoryException
     {
@@ -540,12 +709,42 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
         }
         innerLoopExecutorFilter = innerLoopExecutorFilter.bind();
 
+        if (outerLoopExecutor instanceof KeyQueryExecutor) {
+            // Other strategies don't help if the outer loop matches at most
+            // one record.
+            mStrategy = Strategy.NESTED_LOOP;
+        } else if (mergeOrdering != null &&
+                   isOrderedByJoin(outerLoopExecutor.getOrdering(), targetToSourceProperty))
+        {
+            mStrategy = Strategy.MERGE;
+        } else if (!isJoinIndexed(targetAccess, targetToSourceProperty)) {
+            mStrategy = Strategy.HASH;
+        } else {
+            mStrategy = Strategy.NESTED_LOOP;
+        }
+
+        if (mStrategy != Strategy.NESTED_LOOP) {
+            // Scan target instances which match the target filter, and
+            // match join properties against the source instances instead.
+            innerLoopExecutorFilter = Filter.getOpenFilter(targetType);
+            if (targetFilter != null) {
+                innerLoopExecutorFilter = innerLoopExecutorFilter.and(targetFilter);
+            }
+            innerLoopExecutorFilter = innerLoopExecutorFilter.bind();
+            if (mStrategy == Strategy.MERGE) {
+                targetOrdering = mergeOrdering;
+            } else {
+                // Results are produced in scan order, one block at a time.
+                targetOrdering = null;
+            }
+        }
+
         mInnerLoopFilterValues = innerLoopExecutorFilter.initialFilterValues();
 
         // Only perform requested ordering if inner loop index provides it for
         // free. This optimization is only valid if outer loop matches at most
         // one record.
-        if (targetOrdering != null) {
+        if (targetOrdering != null && mStrategy == Strategy.NESTED_LOOP) {
             if (outerLoopExecutor instanceof KeyQueryExecutor) {
                 targetOrdering =
                     expectedOrdering(targetAccess, innerLoopExecutorFilter, targetOrdering);
@@ -555,7 +754,8 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
         }
 
         mInnerLoopExecutor = innerLoopExecutorFactory
-            .executor(innerLoopExecutorFilter, targetOrdering, null);
+            .executor(innerLoopExecutorFilter.isOpen() ? null : innerLoopExecutorFilter,
+                      targetOrdering, null);
 
         Filter<T> filter = outerLoopExecutor.getFilter()
             .asJoinedFrom(ChainedProperty.get(targetToSourceProperty));
@@ -569,16 +769,28 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
         mCombinedFilter = filter;
 
         // Prepare combined ordering.
-        OrderingList<T> ordering = transformOrdering
-            (targetType, targetToSourceProperty.getName(), outerLoopExecutor);
+        if (mStrategy == Strategy.HASH) {
+            // Hash join doesn't preserve source ordering.
+            mCombinedOrdering = OrderingList.emptyList();
+            mJoinerFactory = null;
+        } else if (mStrategy == Strategy.MERGE) {
+            // Merge join preserves source ordering by join properties only.
+            mCombinedOrdering = transformOrdering
+                (targetType, targetToSourceProperty.getName(), outerLoopExecutor)
+                .subList(0, targetToSourceProperty.getJoinElementCount());
+            mJoinerFactory = null;
+        } else {
+            OrderingList<T> ordering = transformOrdering
+                (targetType, targetToSourceProperty.getName(), outerLoopExecutor);
 
-        if (targetOrdering != null) {
-            ordering = ordering.concat(targetOrdering);
-        }
+            if (targetOrdering != null) {
+                ordering = ordering.concat(targetOrdering);
+            }
 
-        mCombinedOrdering = ordering;
+            mCombinedOrdering = ordering;
 
-        mJoinerFactory = getJoinerFactory(targetToSourceProperty);
+            mJoinerFactory = getJoinerFactory(targetToSourceProperty);
+        }
     }
 
     public Cursor<T> fetch(FilterValues<T> values) throws FetchException {
@@ -602,6 +814,27 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
 
         Cursor<S> outerLoopCursor = mOuterLoopExecutor.fetch(transferValues(values), controller);
 
+        if (mStrategy == Strategy.HASH) {
+            return new HashJoinCursor<S, T>
+                (outerLoopCursor, mInnerLoopExecutor, innerLoopFilterValues, controller,
+                 mTargetToSourceProperty, HASH_JOIN_BLOCK_SIZE);
+        }
+
+        if (mStrategy == Strategy.MERGE) {
+            Cursor<T> innerLoopCursor;
+            try {
+                innerLoopCursor = mInnerLoopExecutor.fetch(innerLoopFilterValues, controller);
+            } catch (FetchException e) {
+                outerLoopCursor.close();
+                throw e;
+            } catch (RuntimeException e) {
+                outerLoopCursor.close();
+                throw e;
+            }
+            return new MergeJoinCursor<S, T>
+                (outerLoopCursor, innerLoopCursor, mTargetToSourceProperty);
+        }
+
         return mJoinerFactory.newJoinedCursor
             (outerLoopCursor, mInnerLoopExecutor, innerLoopFilterValues, controller);
     }
@@ -617,17 +850,36 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
     public boolean printPlan(Appendable app, int indentLevel, FilterValues<T> values)
         throws IOException
     {
+        String join, inner, outer;
+        switch (mStrategy) {
+        case HASH:
+            join = "hash join: ";
+            inner = "...probe: ";
+            outer = "...build";
+            break;
+        case MERGE:
+            join = "merge join: ";
+            inner = "...inner scan: ";
+            outer = "...outer scan";
+            break;
+        default:
+            join = "join: ";
+            inner = "...inner loop: ";
+            outer = "...outer loop";
+            break;
+        }
+
         indent(app, indentLevel);
-        app.append("join: ");
+        app.append(join);
         app.append(mTargetToSourceProperty.getEnclosingType().getName());
         newline(app);
         indent(app, indentLevel);
-        app.append("...inner loop: ");
+        app.append(inner);
         app.append(mTargetToSourceProperty.getName());
         newline(app);
         mInnerLoopExecutor.printPlan(app, increaseIndent(indentLevel), values);
         indent(app, indentLevel);
-        app.append("...outer loop");
+        app.append(outer);
         newline(app);
         mOuterLoopExecutor.printPlan(app, increaseIndent(indentLevel), transferValues(values));
         return true;
@@ -641,6 +893,23 @@ public class JoinedQueryExecutor<S extends Storable, T extends Storable>
             .withValues(values.getSuppliedValuesFor(mSourceFilterAsFromTarget));
     }
 
+    private static enum Strategy {
+        /** Inner loop executor is fetched once per source instance. */
+        NESTED_LOOP,
+
+        /**
+         * Inner loop executor scans all target instances which match the
+         * target filter, and it is fetched once per hash join block.
+         */
+        HASH,
+
+        /**
+         * Inner loop executor scans all target instances which match the
+         * target filter, ordered by join properties, and it is fetched once.
+         */
+        MERGE
+    }
+
     @SuppressWarnings("unused")
     private static interface Joiner {
         /**
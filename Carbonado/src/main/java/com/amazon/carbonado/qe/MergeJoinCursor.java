@@ -0,0 +1,280 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.qe;
+
+import java.lang.reflect.Method;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.cojen.util.ThrowUnchecked;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.Storable;
+
+import com.amazon.carbonado.cursor.AbstractCursor;
+
+import com.amazon.carbonado.info.StorableProperty;
+
+/**
+ * Cursor which joins <i>source</i> and <i>target</i> instances by merging two
+ * cursors, each of which is ordered ascending by join property values. Only
+ * the source instances which share a join property value are held at once.
+ *
+ * @author Brian S O'Neill
+ * @see JoinedQueryExecutor
+ */
+class MergeJoinCursor<S extends Storable, T extends Storable> extends AbstractCursor<T> {
+    private final StorableProperty<T> mTargetToSourceProperty;
+
+    private Cursor<S> mSource;
+    private Cursor<T> mTarget;
+
+    // Source instances which share the same join key.
+    private final List<S> mGroup;
+    private Object mGroupKey;
+
+    // First source instance of the next group, already read.
+    private S mNextSource;
+    private Object mNextSourceKey;
+
+    private T mNext;
+
+    // Additional source matches for a target, when join is not unique.
+    private T mMatchedTarget;
+    private int mMatchIndex;
+
+    /**
+     * @param source cursor over source instances, ordered by join properties
+     * @param target cursor over target instances, ordered by join properties
+     * @param targetToSourceProperty join property of <i>target</i> type
+     */
+    MergeJoinCursor(Cursor<S> source, Cursor<T> target,
+                    StorableProperty<T> targetToSourceProperty)
+    {
+        mSource = source;
+        mTarget = target;
+        mTargetToSourceProperty = targetToSourceProperty;
+        mGroup = new ArrayList<S>(1);
+    }
+
+    public void close() throws FetchException {
+        mGroup.clear();
+        mGroupKey = null;
+        mNextSource = null;
+        mNextSourceKey = null;
+        mNext = null;
+        mMatchedTarget = null;
+        try {
+            if (mTarget != null) {
+                mTarget.close();
+                mTarget = null;
+            }
+        } finally {
+            if (mSource != null) {
+                mSource.close();
+                mSource = null;
+            }
+        }
+    }
+
+    public boolean hasNext() throws FetchException {
+        if (mNext != null) {
+            return true;
+        }
+
+        try {
+            while (true) {
+                if (mMatchedTarget != null) {
+                    if (mMatchIndex < mGroup.size()) {
+                        T target = (T) mMatchedTarget.copy();
+                        setSource(target, mGroup.get(mMatchIndex++));
+                        mNext = target;
+                        return true;
+                    }
+                    mMatchedTarget = null;
+                }
+
+                if (mTarget == null || !mTarget.hasNext()) {
+                    break;
+                }
+
+                T target = mTarget.next();
+                Object key = targetKey(target);
+
+                // Advance the source until its join key isn't less than the target's.
+                while (mGroup.isEmpty() || compareKeys(mGroupKey, key) < 0) {
+                    if (!nextGroup()) {
+                        close();
+                        return false;
+                    }
+                }
+
+                if (compareKeys(mGroupKey, key) > 0) {
+                    // No source matches this target.
+                    continue;
+                }
+
+                if (mGroup.size() > 1) {
+                    mMatchedTarget = target;
+                    mMatchIndex = 1;
+                }
+
+                setSource(target, mGroup.get(0));
+                mNext = target;
+                return true;
+            }
+        } catch (FetchException e) {
+            try {
+                close();
+            } catch (Exception e2) {
+                // Don't care.
+            }
+            throw e;
+        }
+
+        close();
+        return false;
+    }
+
+    public T next() throws FetchException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T next = mNext;
+        mNext = null;
+        return next;
+    }
+
+    /**
+     * Reads the next group of source instances which share a join key.
+     *
+     * @return false if no more source instances
+     */
+    private boolean nextGroup() throws FetchException {
+        mGroup.clear();
+
+        S first = mNextSource;
+        Object key = mNextSourceKey;
+        if (first != null) {
+            mNextSource = null;
+            mNextSourceKey = null;
+        } else {
+            if (mSource == null || !mSource.hasNext()) {
+                return false;
+            }
+            first = mSource.next();
+            key = sourceKey(first);
+        }
+
+        mGroup.add(first);
+        mGroupKey = key;
+
+        Cursor<S> source = mSource;
+        if (source != null) {
+            while (source.hasNext()) {
+                S s = source.next();
+                Object sKey = sourceKey(s);
+                if (compareKeys(key, sKey) != 0) {
+                    mNextSource = s;
+                    mNextSourceKey = sKey;
+                    return true;
+                }
+                mGroup.add(s);
+            }
+
+            // Source is exhausted, so release it early.
+            mSource = null;
+            source.close();
+        }
+
+        return true;
+    }
+
+    private Object sourceKey(S source) {
+        StorableProperty<T> prop = mTargetToSourceProperty;
+        int count = prop.getJoinElementCount();
+        if (count == 1) {
+            return source.getPropertyValue(prop.getExternalJoinElement(0).getName());
+        }
+        Object[] key = new Object[count];
+        for (int i=0; i<count; i++) {
+            key[i] = source.getPropertyValue(prop.getExternalJoinElement(i).getName());
+        }
+        return key;
+    }
+
+    private Object targetKey(T target) {
+        StorableProperty<T> prop = mTargetToSourceProperty;
+        int count = prop.getJoinElementCount();
+        if (count == 1) {
+            return target.getPropertyValue(prop.getInternalJoinElement(0).getName());
+        }
+        Object[] key = new Object[count];
+        for (int i=0; i<count; i++) {
+            key[i] = target.getPropertyValue(prop.getInternalJoinElement(i).getName());
+        }
+        return key;
+    }
+
+    private int compareKeys(Object a, Object b) {
+        if (mTargetToSourceProperty.getJoinElementCount() == 1) {
+            return compareValues(a, b);
+        }
+        Object[] aKey = (Object[]) a;
+        Object[] bKey = (Object[]) b;
+        for (int i=0; i<aKey.length; i++) {
+            int result = compareValues(aKey[i], bKey[i]);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compares join property values, sorting nulls high to match index order.
+     */
+    private static int compareValues(Object a, Object b) {
+        if (a == null) {
+            return b == null ? 0 : 1;
+        }
+        if (b == null) {
+            return -1;
+        }
+        return ((Comparable) a).compareTo(b);
+    }
+
+    /**
+     * Stashes a reference to the joined source on the target, if possible,
+     * as is done by nested loop joins.
+     */
+    private void setSource(T target, S source) {
+        Method writeMethod = mTargetToSourceProperty.getWriteMethod();
+        if (writeMethod != null) {
+            try {
+                writeMethod.invoke(target, source);
+            } catch (Exception e) {
+                ThrowUnchecked.fireFirstDeclaredCause(e);
+            }
+        }
+    }
+}
@@ -35,7 +35,7 @@ public class QueryEngine<S extends Storable> extends StandardQueryFactory<S>
     implements QueryExecutorFactory<S>
 {
     final RepositoryAccess mRepoAccess;
-    final QueryExecutorFactory<S> mExecutorFactory;
+    final QueryExecutorCache<S> mExecutorFactory;
 
     public QueryEngine(Class<S> type, RepositoryAccess access) {
         super(type);
@@ -49,6 +49,26 @@ public class QueryEngine<S extends Storable> extends StandardQueryFactory<S>
         return mExecutorFactory.executor(filter, ordering, hints);
     }
 
+    /**
+     * Discards all cached executors before resetting the executors of cached
+     * queries, and so new query plans are built.
+     */
+    @Override
+    public void resetExecutors() throws RepositoryException {
+        mExecutorFactory.clear();
+        super.resetExecutors();
+    }
+
+    /**
+     * Discards all cached executors before clearing the executors of cached
+     * queries, and so new query plans are built.
+     */
+    @Override
+    public void clearExecutors() {
+        mExecutorFactory.clear();
+        super.clearExecutors();
+    }
+
     @Override
     protected StandardQuery<S> createQuery(Filter<S> filter,
                                            FilterValues<S> values,
@@ -72,6 +92,11 @@ public class QueryEngine<S extends Storable> extends StandardQueryFactory<S>
             return mRepoAccess.getRootRepository().enterTransaction(level);
         }
 
+        @Override
+        protected IsolationLevel getTransactionIsolationLevel() {
+            return mRepoAccess.getRootRepository().getTransactionIsolationLevel();
+        }
+
         @Override
         protected QueryFactory<S> queryFactory() {
             return QueryEngine.this;
@@ -20,6 +20,8 @@ package com.amazon.carbonado.qe;
 
 import java.io.IOException;
 
+import com.amazon.carbonado.Aggregate;
+import com.amazon.carbonado.AggregateResult;
 import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.Query;
@@ -81,6 +83,21 @@ public interface QueryExecutor<S extends Storable> {
      */
     long count(FilterValues<S> values, Query.Controller controller) throws FetchException;
 
+    /**
+     * Computes aggregate functions over the query results using the given
+     * filter values, one result per distinct combination of group property
+     * values. If any group properties are given, the ordering of this
+     * executor must begin with them, in the same order.
+     *
+     * @param groupProperties names of properties to group by, which may be empty
+     * @param aggregates aggregate functions to compute for each group
+     * @since 1.2.4
+     */
+    Cursor<AggregateResult> fetchAggregates(FilterValues<S> values,
+                                            String[] groupProperties,
+                                            Aggregate[] aggregates)
+        throws FetchException;
+
     /**
      * Returns the filter used by this QueryExecutor.
      *
@@ -18,23 +18,21 @@
 
 package com.amazon.carbonado.qe;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
-
-import org.cojen.util.WeakIdentityMap;
-
 import com.amazon.carbonado.RepositoryException;
 import com.amazon.carbonado.Storable;
 
 import com.amazon.carbonado.filter.Filter;
 
-import com.amazon.carbonado.util.SoftValuedCache;
+import com.amazon.carbonado.util.ClockCache;
 
 /**
  * QueryExecutors should be cached since expensive analysis is often required to build
  * them. By default, a minimum of 100 query executors can be cached per Storable type.
  * The minimum can be changed with the
  * "com.amazon.carbonado.qe.QueryExecutorCache.minCapacity" system property.
+ * Executors beyond the minimum are softly referenced, and so they remain
+ * cached until reclaimed by the garbage collector. Cache lookups don't
+ * acquire any locks.
  *
  * @author Brian S O'Neill
  */
@@ -57,25 +55,14 @@ public class QueryExecutorCache<S extends Storable> implements QueryExecutorFact
 
     private final QueryExecutorFactory<S> mFactory;
 
-    private final Map<Key<S>, QueryExecutor<S>> mPrimaryCache;
-
-    // Maps filters to maps which map ordering lists (possibly with hints) to executors.
-    private final Map<Filter<S>, SoftValuedCache<Object, QueryExecutor<S>>> mFilterToExecutor;
+    private final ClockCache<Key<S>, QueryExecutor<S>> mCache;
 
     public QueryExecutorCache(QueryExecutorFactory<S> factory) {
         if (factory == null) {
             throw new IllegalArgumentException();
         }
         mFactory = factory;
-
-        mPrimaryCache = new LinkedHashMap<Key<S>, QueryExecutor<S>>(17, 0.75f, true) {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<Key<S>, QueryExecutor<S>> eldest) {
-                return size() > cMinCapacity;
-            }
-        };
-
-        mFilterToExecutor = new WeakIdentityMap(7);
+        mCache = new ClockCache<Key<S>, QueryExecutor<S>>(Math.max(0, cMinCapacity));
     }
 
     public Class<S> getStorableType() {
@@ -92,51 +79,49 @@ public class QueryExecutorCache<S extends Storable> implements QueryExecutorFact
     public QueryExecutor<S> executor(Filter<S> filter, OrderingList<S> ordering, QueryHints hints)
         throws RepositoryException
     {
-        final Key<S> key = new Key<S>(filter, ordering, hints);
-
-        synchronized (mPrimaryCache) {
-            QueryExecutor<S> executor = mPrimaryCache.get(key);
-            if (executor != null) {
-                return executor;
-            }
-        }
+        final Key<S> key = new Key<S>(filter, ordering,
+                                      (hints == null || hints.isEmpty()) ? null : hints);
 
-        // Fallback to second level cache, which may still have the executor because
-        // garbage collection has not reclaimed it yet. It also allows some concurrent
-        // executor creation, by using filter-specific locks.
-
-        SoftValuedCache<Object, QueryExecutor<S>> cache;
-        synchronized (mFilterToExecutor) {
-            cache = mFilterToExecutor.get(filter);
-            if (cache == null) {
-                cache = SoftValuedCache.newCache(7);
-                mFilterToExecutor.put(filter, cache);
-            }
+        QueryExecutor<S> executor = mCache.get(key);
+        if (executor != null) {
+            return executor;
         }
 
-        Object subKey;
-        if (hints == null || hints.isEmpty()) {
-            subKey = ordering;
-        } else {
-            // Don't construct key with filter. It is not needed here and it would prevent
-            // garbage collection of filters.
-            subKey = new Key(null, ordering, hints);
-        }
+        // No lock is held while the executor is created. Concurrent creation
+        // for the same key is harmless, and only the first executor is kept.
+        executor = mFactory.executor(filter, ordering, hints);
+        QueryExecutor<S> existing = mCache.putIfAbsent(key, executor);
+        return existing == null ? executor : existing;
+    }
 
-        QueryExecutor<S> executor;
-        synchronized (cache) {
-            executor = cache.get(subKey);
-            if (executor == null) {
-                executor = mFactory.executor(filter, ordering, hints);
-                cache.put(subKey, executor);
-            }
-        }
+    /**
+     * Returns the amount of executor requests which were satisfied by the
+     * cache.
+     *
+     * @since 1.2.4
+     */
+    public long getHitCount() {
+        return mCache.getHitCount();
+    }
 
-        synchronized (mPrimaryCache) {
-            mPrimaryCache.put(key, executor);
-        }
+    /**
+     * Returns the amount of executor requests which required a new executor
+     * to be created.
+     *
+     * @since 1.2.4
+     */
+    public long getMissCount() {
+        return mCache.getMissCount();
+    }
 
-        return executor;
+    /**
+     * Removes all cached executors, which is required for new executors to
+     * be built after the information they're based on has changed.
+     *
+     * @since 1.2.4
+     */
+    public void clear() {
+        mCache.clear();
     }
 
     private static class Key<S extends Storable> {
@@ -32,6 +32,18 @@ public enum QueryHint {
     /** Intention to consume a slice of matched records */
     CONSUME_SLICE,
 
+    /**
+     * Fetch records in advance from a background thread, overlapping storage
+     * access with consumption of results. Value is an Integer which specifies
+     * the maximum amount of records to fetch in advance, or else a default
+     * amount is used. The hint is ignored when fetching within a
+     * transaction, since the background thread cannot participate in it.
+     *
+     * @see com.amazon.carbonado.cursor.AsyncFetchAheadCursor
+     * @since 1.2.4
+     */
+    FETCH_AHEAD,
+
     /** Favor low latency for query results */
     //FAVOR_LATENCY,
 
@@ -20,6 +20,10 @@ package com.amazon.carbonado.qe;
 
 import java.util.EnumMap;
 
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Storable;
+
 /**
  * An immutable map of query hints.
  *
@@ -102,6 +106,20 @@ public class QueryHints implements java.io.Serializable {
         return hint == null ? null : (mMap == null ? null : mMap.get(hint));
     }
 
+    /**
+     * Returns a copy of the given query which uses these hints, or else the
+     * query itself if it doesn't support hints.
+     *
+     * @see HintableQuery
+     * @since 1.2.4
+     */
+    public <S extends Storable> Query<S> applyTo(Query<S> query) throws FetchException {
+        if (query instanceof HintableQuery) {
+            return ((HintableQuery<S>) query).withHints(this);
+        }
+        return query;
+    }
+
     public boolean isEmpty() {
         return mMap == null ? true : mMap.isEmpty();
     }
@@ -22,14 +22,19 @@ import java.io.IOException;
 
 import java.util.Comparator;
 
+import com.amazon.carbonado.Aggregate;
+import com.amazon.carbonado.AggregateResult;
 import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.Query;
 import com.amazon.carbonado.Storable;
 
 import com.amazon.carbonado.cursor.ArraySortBuffer;
+import com.amazon.carbonado.cursor.BoundedSortBuffer;
 import com.amazon.carbonado.cursor.ControllerCursor;
+import com.amazon.carbonado.cursor.LimitCursor;
 import com.amazon.carbonado.cursor.MergeSortBuffer;
+import com.amazon.carbonado.cursor.SkipCursor;
 import com.amazon.carbonado.cursor.SortBuffer;
 import com.amazon.carbonado.cursor.SortedCursor;
 
@@ -39,10 +44,25 @@ import com.amazon.carbonado.filter.FilterValues;
 /**
  * QueryExecutor which wraps another and sorts the results.
  *
+ * <p>When fetching a slice with a known end, only the records which can
+ * appear in the slice are retained while sorting, using a {@link
+ * BoundedSortBuffer}. The maximum slice end for which this applies can be
+ * changed with the system property
+ * "com.amazon.carbonado.qe.SortedQueryExecutor.maxBoundedSortSize", which
+ * defaults to 10000. Larger slices are sorted using the buffer provided by the
+ * {@link Support}.
+ *
  * @author Brian S O'Neill
  * @see SortedCursor
  */
 public class SortedQueryExecutor<S extends Storable> extends AbstractQueryExecutor<S> {
+    private static final int MAX_BOUNDED_SORT_SIZE;
+
+    static {
+        MAX_BOUNDED_SORT_SIZE = Integer.getInteger
+            (SortedQueryExecutor.class.getName() + ".maxBoundedSortSize", 10000);
+    }
+
     private final Support<S> mSupport;
     private final QueryExecutor<S> mExecutor;
 
@@ -120,6 +140,50 @@ public class SortedQueryExecutor<S extends Storable> extends AbstractQueryExecut
              controller);
     }
 
+    /**
+     * Produces a slice by retaining only the lowest records while sorting,
+     * if the slice end is small enough.
+     */
+    @Override
+    public Cursor<S> fetchSlice(FilterValues<S> values, long from, Long to)
+        throws FetchException
+    {
+        if (to == null || to > MAX_BOUNDED_SORT_SIZE) {
+            return super.fetchSlice(values, from, to);
+        }
+        Cursor<S> cursor = mExecutor.fetch(values);
+        SortBuffer<S> buffer = new BoundedSortBuffer<S>((int) (long) to);
+        cursor = new SortedCursor<S>(cursor, buffer, mHandledComparator, mFinisherComparator);
+        return applySlice(cursor, from, to);
+    }
+
+    /**
+     * Produces a slice by retaining only the lowest records while sorting,
+     * if the slice end is small enough.
+     */
+    @Override
+    public Cursor<S> fetchSlice(FilterValues<S> values, long from, Long to,
+                                Query.Controller controller)
+        throws FetchException
+    {
+        if (to == null || to > MAX_BOUNDED_SORT_SIZE) {
+            return super.fetchSlice(values, from, to, controller);
+        }
+        Cursor<S> cursor = mExecutor.fetch(values, controller);
+        SortBuffer<S> buffer = new BoundedSortBuffer<S>((int) (long) to);
+        cursor = new SortedCursor<S>(cursor, buffer, mHandledComparator, mFinisherComparator);
+        return ControllerCursor.apply(applySlice(cursor, from, to), controller);
+    }
+
+    private static <S> Cursor<S> applySlice(Cursor<S> cursor, long from, long to) {
+        // Limit is still required, because the bounded buffer only limits the
+        // size of each chunk when a handled ordering exists.
+        if (from > 0) {
+            cursor = new SkipCursor<S>(cursor, from);
+        }
+        return new LimitCursor<S>(cursor, to - from);
+    }
+
     @Override
     public long count(FilterValues<S> values) throws FetchException {
         return mExecutor.count(values);
@@ -130,6 +194,22 @@ public class SortedQueryExecutor<S extends Storable> extends AbstractQueryExecut
         return mExecutor.count(values, controller);
     }
 
+    /**
+     * Delegates to the wrapped executor without sorting, unless results must
+     * be grouped.
+     */
+    @Override
+    public Cursor<AggregateResult> fetchAggregates(FilterValues<S> values,
+                                                   String[] groupProperties,
+                                                   Aggregate[] aggregates)
+        throws FetchException
+    {
+        if (groupProperties.length == 0) {
+            return mExecutor.fetchAggregates(values, groupProperties, aggregates);
+        }
+        return super.fetchAggregates(values, groupProperties, aggregates);
+    }
+
     public Filter<S> getFilter() {
         return mExecutor.getFilter();
     }
@@ -20,6 +20,8 @@ package com.amazon.carbonado.qe;
 
 import java.io.IOException;
 
+import com.amazon.carbonado.Aggregate;
+import com.amazon.carbonado.AggregateResult;
 import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.IsolationLevel;
@@ -30,6 +32,9 @@ import com.amazon.carbonado.Storable;
 import com.amazon.carbonado.Transaction;
 import com.amazon.carbonado.Query;
 
+import com.amazon.carbonado.cursor.AggregateCursor;
+import com.amazon.carbonado.cursor.AsyncFetchAheadCursor;
+
 import com.amazon.carbonado.filter.Filter;
 import com.amazon.carbonado.filter.FilterValues;
 import com.amazon.carbonado.filter.RelOp;
@@ -45,8 +50,10 @@ import com.amazon.carbonado.util.Appender;
  * @author Brian S O'Neill
  */
 public abstract class StandardQuery<S extends Storable> extends AbstractQuery<S>
-    implements Appender
+    implements HintableQuery<S>, Appender
 {
+    private static final int DEFAULT_FETCH_AHEAD = 100;
+
     // Filter for this query, which may be null.
     private final Filter<S> mFilter;
     // Values for this query, which may be null.
@@ -228,6 +235,22 @@ public abstract class StandardQuery<S extends Storable> extends AbstractQuery<S>
                            OrderingList.get(getStorableType(), properties), mHints);
     }
 
+    @Override
+    public Query<S> withHints(QueryHints hints) throws FetchException {
+        if (hints != null && hints.isEmpty()) {
+            hints = null;
+        }
+        if (hints == null ? mHints == null : hints.equals(mHints)) {
+            return this;
+        }
+        if (mValues == null) {
+            return createQuery(mFilter, null, mOrdering, hints);
+        }
+        StandardQuery<S> query = newInstance(mValues, mOrdering, hints);
+        query.mExecutor = this.mExecutor;
+        return query;
+    }
+
     @Override
     public <T extends S> Query<S> after(T start) throws FetchException {
         OrderingList<S> orderings;
@@ -281,7 +304,7 @@ public abstract class StandardQuery<S extends Storable> extends AbstractQuery<S>
     @Override
     public Cursor<S> fetch() throws FetchException {
         try {
-            return executor().fetch(mValues);
+            return fetch(executor(), null);
         } catch (RepositoryException e) {
             throw e.toFetchException();
         }
@@ -290,7 +313,7 @@ public abstract class StandardQuery<S extends Storable> extends AbstractQuery<S>
     @Override
     public Cursor<S> fetch(Controller controller) throws FetchException {
         try {
-            return executor().fetch(mValues, controller);
+            return fetch(executor(), controller);
         } catch (RepositoryException e) {
             throw e.toFetchException();
         }
@@ -308,8 +331,14 @@ public abstract class StandardQuery<S extends Storable> extends AbstractQuery<S>
         }
         try {
             QueryHints hints = QueryHints.emptyHints().with(QueryHint.CONSUME_SLICE);
-            return executorFactory().executor(mFilter, mOrdering, hints)
-                .fetchSlice(mValues, from, to, controller);
+            QueryExecutor<S> executor = executorFactory().executor(mFilter, mOrdering, hints);
+            int fetchAhead = fetchAhead();
+            if (fetchAhead > 0) {
+                return new AsyncFetchAheadCursor<S>
+                    (new SliceSource(executor, from, to, controller),
+                     fetchAhead, null, controller);
+            }
+            return executor.fetchSlice(mValues, from, to, controller);
         } catch (RepositoryException e) {
             throw e.toFetchException();
         }
@@ -414,6 +443,61 @@ public abstract class StandardQuery<S extends Storable> extends AbstractQuery<S>
         }
     }
 
+    @Override
+    public Cursor<AggregateResult> fetchAggregates(String[] groupProperties,
+                                                   Aggregate... aggregates)
+        throws FetchException
+    {
+        AggregateCursor.checkArguments(getStorableType(), groupProperties, aggregates);
+
+        OrderingList<S> ordering;
+        if (groupProperties.length > 0) {
+            // Members of each group must be adjacent.
+            String[] orderBy = new String[groupProperties.length];
+            for (int i=0; i<orderBy.length; i++) {
+                orderBy[i] = '+' + groupProperties[i];
+            }
+            ordering = OrderingList.get(getStorableType(), orderBy);
+        } else {
+            String endpoint = endpointProperty(aggregates);
+            if (endpoint == null) {
+                ordering = OrderingList.emptyList();
+            } else {
+                // Prefer an index which can supply the values from its endpoints.
+                ordering = OrderingList.get(getStorableType(), '+' + endpoint);
+            }
+        }
+
+        try {
+            return executorFactory().executor(mFilter, ordering, null)
+                .fetchAggregates(mValues, groupProperties, aggregates);
+        } catch (RepositoryException e) {
+            throw e.toFetchException();
+        }
+    }
+
+    /**
+     * Returns the property which all aggregates find the min or max of, or
+     * null if none.
+     */
+    private static String endpointProperty(Aggregate[] aggregates) {
+        String property = null;
+        for (Aggregate aggregate : aggregates) {
+            switch (aggregate.getFunction()) {
+            case MIN: case MAX:
+                if (property == null) {
+                    property = aggregate.getPropertyName();
+                    continue;
+                }
+                if (property.equals(aggregate.getPropertyName())) {
+                    continue;
+                }
+            }
+            return null;
+        }
+        return property;
+    }
+
     @Override
     public boolean printNative(Appendable app, int indentLevel) throws IOException {
         try {
@@ -502,6 +586,65 @@ public abstract class StandardQuery<S extends Storable> extends AbstractQuery<S>
         return mOrdering;
     }
 
+    /**
+     * Returns the hints given to this query, which may be null.
+     *
+     * @since 1.2.4
+     */
+    protected QueryHints getHints() {
+        return mHints;
+    }
+
+    /**
+     * Fetches using the given executor, wrapping with an {@link
+     * AsyncFetchAheadCursor} if requested by the {@link QueryHint#FETCH_AHEAD
+     * FETCH_AHEAD} hint. The fetch-ahead cursor opens the source cursor in its
+     * own thread, since some cursors cannot be shared by threads.
+     */
+    private Cursor<S> fetch(QueryExecutor<S> executor, Controller controller)
+        throws FetchException
+    {
+        int fetchAhead = fetchAhead();
+        if (fetchAhead > 0) {
+            return new AsyncFetchAheadCursor<S>
+                (new SliceSource(executor, 0, null, controller), fetchAhead, null, controller);
+        }
+        return controller == null ? executor.fetch(mValues) : executor.fetch(mValues, controller);
+    }
+
+    /**
+     * Returns the amount of records to fetch in advance, as requested by the
+     * {@link QueryHint#FETCH_AHEAD FETCH_AHEAD} hint, or zero if none. The
+     * hint is ignored within a transaction, because the background thread
+     * would fetch outside of it, possibly blocked by the caller's own locks.
+     */
+    private int fetchAhead() {
+        QueryHints hints = mHints;
+        if (hints == null || getTransactionIsolationLevel() != null) {
+            return 0;
+        }
+        Object value = hints.get(QueryHint.FETCH_AHEAD);
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Number) {
+            return Math.max(0, ((Number) value).intValue());
+        }
+        return DEFAULT_FETCH_AHEAD;
+    }
+
+    /**
+     * Returns the isolation level of the current transaction, or null if
+     * none. Fetch-ahead is only performed when null is returned. Default
+     * implementation returns null, and so subclasses which support
+     * transactions should override it.
+     *
+     * @since 1.2.4
+     */
+    protected IsolationLevel getTransactionIsolationLevel() {
+        return null;
+    }
+
     /**
      * Returns the executor in use by this query.
      */
@@ -584,4 +727,29 @@ public abstract class StandardQuery<S extends Storable> extends AbstractQuery<S>
     {
         return queryFactory().query(filter, values, ordering, hints);
     }
+
+    /**
+     * Opens the query cursor from the fetch-ahead thread.
+     */
+    private class SliceSource implements AsyncFetchAheadCursor.Source<S> {
+        private final QueryExecutor<S> mSliceExecutor;
+        private final long mFrom;
+        private final Long mTo;
+        private final Controller mController;
+
+        SliceSource(QueryExecutor<S> executor, long from, Long to, Controller controller) {
+            mSliceExecutor = executor;
+            mFrom = from;
+            mTo = to;
+            mController = controller;
+        }
+
+        public Cursor<S> open() throws FetchException {
+            if (mFrom == 0 && mTo == null) {
+                return mController == null ? mSliceExecutor.fetch(mValues)
+                    : mSliceExecutor.fetch(mValues, mController);
+            }
+            return mSliceExecutor.fetchSlice(mValues, mFrom, mTo, mController);
+        }
+    }
 }
@@ -114,7 +114,8 @@ public abstract class StandardQueryFactory<S extends Storable> implements QueryF
     }
 
     /**
-     * Returns a new or cached query for the given query specification.
+     * Returns a new or cached query for the given query specification. Queries
+     * with hints are not cached.
      *
      * @throws IllegalArgumentException if filter is null
      */
@@ -123,6 +124,14 @@ public abstract class StandardQueryFactory<S extends Storable> implements QueryF
     {
         filter = filter.bind();
 
+        if (hints != null && !hints.isEmpty()) {
+            FilterValues<S> values = filter.initialFilterValues();
+            if (values == null && filter.isClosed()) {
+                return new EmptyQuery<S>(this, ordering);
+            }
+            return createQuery(filter, values, ordering, hints);
+        }
+
         Map<OrderingList<S>, Query<S>> map;
         synchronized (mFilterToQuery) {
             map = mFilterToQuery.get(filter);
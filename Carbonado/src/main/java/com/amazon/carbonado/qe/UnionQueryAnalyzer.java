@@ -57,6 +57,10 @@ import com.amazon.carbonado.info.StorableKey;
  * particular Storable type can be cached, avoiding repeated construction
  * cost. In addition, the analyzer caches learned foreign indexes.
  *
+ * <p>If {@link IndexStatistics index statistics} are available, and they
+ * show that the sub-queries of a union would read more records in total than
+ * a full scan, then a full scan is performed instead.
+ *
  * @author Brian S O'Neill
  */
 public class UnionQueryAnalyzer<S extends Storable> implements QueryExecutorFactory<S> {
@@ -385,6 +389,12 @@ public class UnionQueryAnalyzer<S extends Storable> implements QueryExecutorFact
         }
 
         if (full == null) {
+            if (subResults.size() > 1 && isFullScanCheaper(subResults, hints)) {
+                full = mIndexAnalyzer.analyze(null, ordering, hints)
+                    .withRemainderFilter(filter.reduce());
+                return Collections.singletonList(full);
+            }
+
             // Okay, no full scan needed.
             return subResults;
         }
@@ -434,6 +444,35 @@ public class UnionQueryAnalyzer<S extends Storable> implements QueryExecutorFact
         return mergedResults;
     }
 
+    /**
+     * Returns true if statistics are available for all sub-results, and
+     * their total estimated cost is more than a full scan.
+     */
+    private boolean isFullScanCheaper(List<IndexedQueryAnalyzer<S>.Result> subResults,
+                                      QueryHints hints)
+        throws SupportException, RepositoryException
+    {
+        if (hints != null && hints.contains(QueryHint.CONSUME_SLICE)) {
+            return false;
+        }
+
+        double fullScanCost = mIndexAnalyzer.estimateFullScanCost();
+        if (Double.isNaN(fullScanCost)) {
+            return false;
+        }
+
+        double totalCost = 0;
+        for (IndexedQueryAnalyzer<S>.Result result : subResults) {
+            double cost = result.estimateCost();
+            if (Double.isNaN(cost)) {
+                return false;
+            }
+            totalCost += cost;
+        }
+
+        return totalCost > fullScanCost;
+    }
+
     public class Result {
         private final List<IndexedQueryAnalyzer<S>.Result> mSubResults;
         private final OrderingList<S> mTotalOrdering;
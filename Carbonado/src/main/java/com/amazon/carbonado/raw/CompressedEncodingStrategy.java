@@ -18,6 +18,8 @@
 
 package com.amazon.carbonado.raw;
 
+import java.util.Arrays;
+
 import org.cojen.classfile.CodeAssembler;
 import org.cojen.classfile.Label;
 import org.cojen.classfile.LocalVariable;
@@ -38,12 +40,49 @@ import com.amazon.carbonado.info.StorableProperty;
  */
 public class CompressedEncodingStrategy<S extends Storable> extends GenericEncodingStrategy<S> {
     private final CompressionType mCompressionType;
+    private final byte[] mDictionary;
+    // Identifies registered dictionary to generated code.
+    private final String mDictionaryId;
 
     public CompressedEncodingStrategy(Class<S> type,
                                       StorableIndex<S> pkIndex,
                                       CompressionType compressionType) {
-        super(type, pkIndex);
+        this(type, pkIndex, compressionType, null);
+    }
+
+    /**
+     * @param dictionary optional dictionary, which is only supported by LZ
+     * compression
+     * @since 1.2.4
+     */
+    public CompressedEncodingStrategy(Class<S> type,
+                                      StorableIndex<S> pkIndex,
+                                      CompressionType compressionType,
+                                      byte[] dictionary) {
+        this(type, pkIndex, compressionType, dictionary, null);
+    }
+
+    /**
+     * @param dictionary optional dictionary, which is only supported by LZ
+     * compression
+     * @param keyEncodingType encoding of int and long key properties; null
+     * implies standard encoding
+     * @since 1.2.4
+     */
+    public CompressedEncodingStrategy(Class<S> type,
+                                      StorableIndex<S> pkIndex,
+                                      CompressionType compressionType,
+                                      byte[] dictionary,
+                                      KeyEncodingType keyEncodingType) {
+        super(type, pkIndex, keyEncodingType);
         mCompressionType = compressionType;
+        if (dictionary == null || dictionary.length == 0 || compressionType != CompressionType.LZ) {
+            mDictionary = null;
+            mDictionaryId = null;
+        } else {
+            mDictionary = dictionary.clone();
+            mDictionaryId = LZCompressor.registerDictionary(mDictionary);
+        }
     }
 
     @Override
@@ -59,9 +98,17 @@ public class CompressedEncodingStrategy<S extends Storable> extends GenericEncod
                            new TypeDesc[] {byteArrayType, TypeDesc.INT});
             a.storeLocal(dataVar);
             break;
+        case LZ:
+            invokeLZ(a, "compress", dataVar, prefix);
+            break;
         }
     }
 
+    @Override
+    protected boolean hasExtraDataEncoding() {
+        return mCompressionType != CompressionType.NONE;
+    }
+
     @Override
     protected void extraDataDecoding(CodeAssembler a,
                                      LocalVariable dataVar, int prefix, int suffix)
@@ -75,9 +122,27 @@ public class CompressedEncodingStrategy<S extends Storable> extends GenericEncod
                            new TypeDesc[] {byteArrayType, TypeDesc.INT});
             a.storeLocal(dataVar);
             break;
+        case LZ:
+            invokeLZ(a, "decompress", dataVar, prefix);
+            break;
         }
     }
 
+    private void invokeLZ(CodeAssembler a, String methodName, LocalVariable dataVar, int prefix) {
+        TypeDesc byteArrayType = TypeDesc.forClass(byte[].class);
+        a.loadLocal(dataVar);
+        a.loadConstant(prefix);
+        if (mDictionaryId == null) {
+            a.invokeStatic(LZCompressor.class.getName(), methodName, byteArrayType,
+                           new TypeDesc[] {byteArrayType, TypeDesc.INT});
+        } else {
+            a.loadConstant(mDictionaryId);
+            a.invokeStatic(LZCompressor.class.getName(), methodName, byteArrayType,
+                           new TypeDesc[] {byteArrayType, TypeDesc.INT, TypeDesc.STRING});
+        }
+        a.storeLocal(dataVar);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj) {
@@ -85,13 +150,21 @@ public class CompressedEncodingStrategy<S extends Storable> extends GenericEncod
         }
         if (obj != null && obj.getClass() == this.getClass()) {
             CompressedEncodingStrategy other = (CompressedEncodingStrategy) obj;
-            return super.equals(obj) && mCompressionType.equals(other.mCompressionType);
+            return super.equals(obj) && mCompressionType.equals(other.mCompressionType)
+                && Arrays.equals(mDictionary, other.mDictionary);
         }
         return false;
     }
 
     @Override 
     public int hashCode() {
-        return super.hashCode() + mCompressionType.hashCode();
+        return super.hashCode() + mCompressionType.hashCode() + Arrays.hashCode(mDictionary);
+    }
+
+    @Override
+    public String toString() {
+        String str = super.toString();
+        return str.substring(0, str.length() - 1) + ", compression=" + mCompressionType +
+            (mDictionaryId == null ? "" : (", dictionary=" + mDictionaryId)) + '}';
     }
 }
@@ -21,6 +21,7 @@ package com.amazon.carbonado.raw;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import com.amazon.carbonado.Storable;
 import com.amazon.carbonado.SupportException;
@@ -37,23 +38,83 @@ import com.amazon.carbonado.layout.LayoutOptions;
  */
 public class CompressedStorableCodecFactory extends GenericStorableCodecFactory {
     private final Map<String, CompressionType> mCompressionMap;
+    private final Map<String, byte[]> mDictionaryMap;
 
     public CompressedStorableCodecFactory(Map<String, CompressionType> compressionMap) {
+        this(compressionMap, null);
+    }
+
+    /**
+     * @param compressionMap maps storable type names to compression types
+     * @param dictionaryMap optional map of storable type names to LZ
+     * compression dictionaries
+     * @since 1.2.4
+     */
+    public CompressedStorableCodecFactory(Map<String, CompressionType> compressionMap,
+                                          Map<String, byte[]> dictionaryMap)
+    {
+        this(compressionMap, dictionaryMap, null);
+    }
+
+    /**
+     * @param compressionMap maps storable type names to compression types
+     * @param dictionaryMap optional map of storable type names to LZ
+     * compression dictionaries
+     * @param lazyDecodingTypes optional set of storable type names whose data
+     * properties are decoded lazily
+     * @since 1.2.4
+     */
+    public CompressedStorableCodecFactory(Map<String, CompressionType> compressionMap,
+                                          Map<String, byte[]> dictionaryMap,
+                                          Set<String> lazyDecodingTypes)
+    {
+        this(compressionMap, dictionaryMap, lazyDecodingTypes, null);
+    }
+
+    /**
+     * @param compressionMap maps storable type names to compression types
+     * @param dictionaryMap optional map of storable type names to LZ
+     * compression dictionaries
+     * @param lazyDecodingTypes optional set of storable type names whose data
+     * properties are decoded lazily
+     * @param compactKeyTypes optional set of storable type names whose keys
+     * use {@link KeyEncodingType#COMPACT compact} encoding
+     * @since 1.2.4
+     */
+    public CompressedStorableCodecFactory(Map<String, CompressionType> compressionMap,
+                                          Map<String, byte[]> dictionaryMap,
+                                          Set<String> lazyDecodingTypes,
+                                          Set<String> compactKeyTypes)
+    {
+        super(lazyDecodingTypes, compactKeyTypes);
         if (compressionMap == null || compressionMap.isEmpty()) {
             mCompressionMap = Collections.emptyMap();
         } else {
             mCompressionMap = new HashMap<String, CompressionType>(compressionMap);
         }
+        if (dictionaryMap == null || dictionaryMap.isEmpty()) {
+            mDictionaryMap = Collections.emptyMap();
+        } else {
+            mDictionaryMap = new HashMap<String, byte[]>(dictionaryMap);
+        }
     }
 
     @Override
     public LayoutOptions getLayoutOptions(Class<? extends Storable> type) {
+        LayoutOptions options = super.getLayoutOptions(type);
         CompressionType compType = getCompressionType(type);
         if (compType == CompressionType.NONE) {
-            return null;
+            return options;
+        }
+        if (options == null) {
+            options = new LayoutOptions();
         }
-        LayoutOptions options = new LayoutOptions();
         options.setCompressionType(compType.toString());
+        if (compType == CompressionType.LZ) {
+            // Dictionary is recorded with the layout, and so data remains
+            // readable after the dictionary is changed.
+            options.setCompressionDictionary(mDictionaryMap.get(type.getName()));
+        }
         return options;
     }
 
@@ -65,6 +126,7 @@ public class CompressedStorableCodecFactory extends GenericStorableCodecFactory
         throws SupportException
     {
         CompressionType compType;
+        byte[] dictionary = null;
         if (options == null) {
             // No options means no compression.
             compType = CompressionType.NONE;
@@ -72,9 +134,11 @@ public class CompressedStorableCodecFactory extends GenericStorableCodecFactory
             String compTypeString = options.getCompressionType();
             compType = compTypeString == null ? CompressionType.NONE
                 : CompressionType.valueOf(compTypeString);
+            dictionary = options.getCompressionDictionary();
         }
 
-        return new CompressedEncodingStrategy<S>(type, pkIndex, compType);
+        return new CompressedEncodingStrategy<S>(type, pkIndex, compType, dictionary,
+                                                 getKeyEncodingType(options));
     }
 
     /**
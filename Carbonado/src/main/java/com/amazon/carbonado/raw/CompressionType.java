@@ -31,5 +31,12 @@ public enum CompressionType {
     /**
      * Gzip compression.
      */
-    GZIP;
+    GZIP,
+    /**
+     * Fast LZ compression, which favors speed over compression ratio.
+     *
+     * @see LZCompressor
+     * @since 1.2.4
+     */
+    LZ;
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.raw;
+
+/**
+ * Reusable buffer which receives an encoded key and encoded data, as
+ * generated by {@link GenericEncodingStrategy}. Each thread has one buffer
+ * which it acquires and then releases when done. The encoded key and data
+ * occupy the start of their arrays, and the arrays are only valid until the
+ * buffer is released.
+ *
+ * @author Brian S O'Neill
+ * @see RawSliceSupport
+ * @since 1.2.4
+ */
+public final class EncodingBuffer {
+    // Arrays larger than this aren't retained when the buffer is released.
+    private static final int MAX_RETAINED_SIZE =
+        Integer.getInteger(EncodingBuffer.class.getName() + ".maxRetainedSize", 65536);
+
+    private static final ThreadLocal<EncodingBuffer[]> cLocalBuffer =
+        new ThreadLocal<EncodingBuffer[]>()
+    {
+        @Override
+        protected EncodingBuffer[] initialValue() {
+            return new EncodingBuffer[1];
+        }
+    };
+
+    /**
+     * Acquires the buffer for the current thread. If it's already acquired,
+     * as can happen when encoding is nested, a new buffer is returned
+     * instead. A buffer which is never released is simply replaced.
+     */
+    public static EncodingBuffer acquire() {
+        EncodingBuffer[] holder = cLocalBuffer.get();
+        EncodingBuffer buffer = holder[0];
+        if (buffer == null) {
+            return new EncodingBuffer(holder);
+        }
+        holder[0] = null;
+        return buffer;
+    }
+
+    private final EncodingBuffer[] mHolder;
+
+    private byte[] mKeyBuffer;
+    private byte[] mKey;
+    private int mKeyLength;
+
+    private byte[] mDataBuffer;
+    private byte[] mData;
+    private int mDataLength;
+
+    private EncodingBuffer(EncodingBuffer[] holder) {
+        mHolder = holder;
+    }
+
+    /**
+     * Returns an array with at least the given length, to receive an encoded
+     * key of exactly the given length.
+     */
+    public byte[] reserveKey(int length) {
+        byte[] buffer = mKeyBuffer;
+        if (buffer == null || buffer.length < length) {
+            mKeyBuffer = buffer = new byte[Math.max(length, 16)];
+        }
+        mKey = buffer;
+        mKeyLength = length;
+        return buffer;
+    }
+
+    /**
+     * Sets an encoded key which was not written into a reserved array.
+     */
+    public void setKey(byte[] key) {
+        mKey = key;
+        mKeyLength = key.length;
+    }
+
+    /**
+     * Returns the array which contains the encoded key, starting at offset
+     * zero.
+     */
+    public byte[] getKey() {
+        return mKey;
+    }
+
+    public int getKeyLength() {
+        return mKeyLength;
+    }
+
+    /**
+     * Returns an array with at least the given length, to receive encoded
+     * data of exactly the given length.
+     */
+    public byte[] reserveData(int length) {
+        byte[] buffer = mDataBuffer;
+        if (buffer == null || buffer.length < length) {
+            mDataBuffer = buffer = new byte[Math.max(length, 16)];
+        }
+        mData = buffer;
+        mDataLength = length;
+        return buffer;
+    }
+
+    /**
+     * Sets encoded data which was not written into a reserved array.
+     */
+    public void setData(byte[] data) {
+        mData = data;
+        mDataLength = data.length;
+    }
+
+    /**
+     * Returns the array which contains the encoded data, starting at offset
+     * zero.
+     */
+    public byte[] getData() {
+        return mData;
+    }
+
+    public int getDataLength() {
+        return mDataLength;
+    }
+
+    /**
+     * Releases this buffer for reuse by the current thread. Arrays obtained
+     * from this buffer must no longer be accessed.
+     */
+    public void release() {
+        mKey = null;
+        mData = null;
+        if (mKeyBuffer != null && mKeyBuffer.length > MAX_RETAINED_SIZE) {
+            mKeyBuffer = null;
+        }
+        if (mDataBuffer != null && mDataBuffer.length > MAX_RETAINED_SIZE) {
+            mDataBuffer = null;
+        }
+        mHolder[0] = this;
+    }
+}
@@ -79,6 +79,8 @@ public class GenericEncodingStrategy<S extends Storable> {
     private final int mDataPrefixPadding;
     private final int mDataSuffixPadding;
 
+    private final KeyEncodingType mKeyEncodingType;
+
     /**
      * @param type type of Storable to generate code for
      * @param pkIndex specifies sequence and ordering of key properties (optional)
@@ -87,6 +89,18 @@ public class GenericEncodingStrategy<S extends Storable> {
         this(type, pkIndex, 0, 0, 0, 0);
     }
 
+    /**
+     * @param type type of Storable to generate code for
+     * @param pkIndex specifies sequence and ordering of key properties (optional)
+     * @param keyEncodingType encoding of int and long key properties; null
+     * implies standard encoding
+     * @since 1.2.4
+     */
+    public GenericEncodingStrategy(Class<S> type, StorableIndex<S> pkIndex,
+                                   KeyEncodingType keyEncodingType) {
+        this(type, pkIndex, 0, 0, 0, 0, keyEncodingType);
+    }
+
     /**
      * @param type type of Storable to generate code for
      * @param pkIndex specifies sequence and ordering of key properties (optional)
@@ -95,10 +109,29 @@ public class GenericEncodingStrategy<S extends Storable> {
      * @param dataPrefixPadding amount of padding bytes at start of data values
      * @param dataSuffixPadding amount of padding bytes at end of data values
      */
-    @SuppressWarnings("unchecked")
     public GenericEncodingStrategy(Class<S> type, StorableIndex<S> pkIndex,
                                    int keyPrefixPadding, int keySuffixPadding,
                                    int dataPrefixPadding, int dataSuffixPadding) {
+        this(type, pkIndex, keyPrefixPadding, keySuffixPadding,
+             dataPrefixPadding, dataSuffixPadding, null);
+    }
+
+    /**
+     * @param type type of Storable to generate code for
+     * @param pkIndex specifies sequence and ordering of key properties (optional)
+     * @param keyPrefixPadding amount of padding bytes at start of keys
+     * @param keySuffixPadding amount of padding bytes at end of keys
+     * @param dataPrefixPadding amount of padding bytes at start of data values
+     * @param dataSuffixPadding amount of padding bytes at end of data values
+     * @param keyEncodingType encoding of int and long key properties; null
+     * implies standard encoding
+     * @since 1.2.4
+     */
+    @SuppressWarnings("unchecked")
+    public GenericEncodingStrategy(Class<S> type, StorableIndex<S> pkIndex,
+                                   int keyPrefixPadding, int keySuffixPadding,
+                                   int dataPrefixPadding, int dataSuffixPadding,
+                                   KeyEncodingType keyEncodingType) {
         mType = type;
 
         if (keyPrefixPadding < 0 || keySuffixPadding < 0 ||
@@ -109,6 +142,7 @@ public class GenericEncodingStrategy<S extends Storable> {
         mKeySuffixPadding = keySuffixPadding;
         mDataPrefixPadding = dataPrefixPadding;
         mDataSuffixPadding = dataSuffixPadding;
+        mKeyEncodingType = keyEncodingType == null ? KeyEncodingType.STANDARD : keyEncodingType;
 
         if (pkIndex == null) {
             Map<String, ? extends StorableProperty<S>> map =
@@ -179,7 +213,50 @@ public class GenericEncodingStrategy<S extends Storable> {
                              instanceVar, adapterInstanceClass,
                              useReadMethods,
                              -1, // no generation support
-                             partialStartVar, partialEndVar);
+                             partialStartVar, partialEndVar, null);
+    }
+
+    /**
+     * Generates bytecode instructions to encode properties into an {@link
+     * EncodingBuffer}. The encoding is the same as for {@link
+     * #buildKeyEncoding(CodeAssembler, OrderedProperty[], LocalVariable,
+     * Class, boolean, LocalVariable, LocalVariable) buildKeyEncoding}, except
+     * the encoded key is available from the buffer, and it might not fill the
+     * array which contains it.
+     *
+     * @param assembler code assembler to receive bytecode instructions
+     * @param properties specific properties to encode, defaults to all key
+     * properties if null
+     * @param instanceVar local variable referencing Storable instance,
+     * defaults to "this" if null
+     * @param adapterInstanceClass class containing static references to
+     * adapter instances - defaults to instanceVar
+     * @param useReadMethods when true, access properties by public read
+     * methods instead of protected fields
+     * @param bufferVar required variable, which must be an EncodingBuffer
+     *
+     * @throws SupportException if any property type is not supported
+     * @throws IllegalArgumentException if assembler is null, or if instanceVar
+     * is not the correct instance type, or if bufferVar is not an
+     * EncodingBuffer
+     * @since 1.2.4
+     */
+    public void buildKeyEncoding(CodeAssembler assembler,
+                                 OrderedProperty<S>[] properties,
+                                 LocalVariable instanceVar,
+                                 Class<?> adapterInstanceClass,
+                                 boolean useReadMethods,
+                                 LocalVariable bufferVar)
+        throws SupportException
+    {
+        checkBufferVar(bufferVar);
+        properties = ensureKeyProperties(properties);
+        buildEncoding(Mode.KEY, assembler,
+                      extractProperties(properties), extractDirections(properties),
+                      instanceVar, adapterInstanceClass,
+                      useReadMethods,
+                      -1, // no generation support
+                      null, null, bufferVar);
     }
 
     /**
@@ -260,7 +337,51 @@ public class GenericEncodingStrategy<S extends Storable> {
         return buildEncoding(Mode.DATA, assembler,
                              properties, null,
                              instanceVar, adapterInstanceClass,
-                             useReadMethods, generation, null, null);
+                             useReadMethods, generation, null, null, null);
+    }
+
+    /**
+     * Generates bytecode instructions to encode properties into an {@link
+     * EncodingBuffer}. The encoding is the same as for {@link
+     * #buildDataEncoding(CodeAssembler, StorableProperty[], LocalVariable,
+     * Class, boolean, int) buildDataEncoding}, except the encoded data is
+     * available from the buffer, and it might not fill the array which
+     * contains it.
+     *
+     * @param assembler code assembler to receive bytecode instructions
+     * @param properties specific properties to encode, defaults to all non-key
+     * properties if null
+     * @param instanceVar local variable referencing Storable instance,
+     * defaults to "this" if null
+     * @param adapterInstanceClass class containing static references to
+     * adapter instances - defaults to instanceVar
+     * @param useReadMethods when true, access properties by public read
+     * methods instead of protected fields
+     * @param generation when non-negative, write a storable layout generation
+     * value in one or four bytes
+     * @param bufferVar required variable, which must be an EncodingBuffer
+     *
+     * @throws SupportException if any property type is not supported
+     * @throws IllegalArgumentException if assembler is null, or if instanceVar
+     * is not the correct instance type, or if bufferVar is not an
+     * EncodingBuffer
+     * @since 1.2.4
+     */
+    public void buildDataEncoding(CodeAssembler assembler,
+                                  StorableProperty<S>[] properties,
+                                  LocalVariable instanceVar,
+                                  Class<?> adapterInstanceClass,
+                                  boolean useReadMethods,
+                                  int generation,
+                                  LocalVariable bufferVar)
+        throws SupportException
+    {
+        checkBufferVar(bufferVar);
+        properties = ensureDataProperties(properties);
+        buildEncoding(Mode.DATA, assembler,
+                      properties, null,
+                      instanceVar, adapterInstanceClass,
+                      useReadMethods, generation, null, null, bufferVar);
     }
 
     /**
@@ -310,6 +431,220 @@ public class GenericEncodingStrategy<S extends Storable> {
                       generation, altGenerationHandler, encodedVar);
     }
 
+    /**
+     * Generates bytecode instructions which prepare encoded data for partial
+     * decoding by {@link #buildPartialDataDecoding buildPartialDataDecoding}.
+     * The generation is checked and any second phase decoding is applied,
+     * which is why this step should be performed only once per encoded
+     * value. A CorruptEncodingException may be thrown from generated code.
+     *
+     * @param assembler code assembler to receive bytecode instructions
+     * @param generation when non-negative, decoder expects a storable layout
+     * generation value to match this value. Otherwise, it throws a
+     * CorruptEncodingException.
+     * @param altGenerationHandler if non-null and a generation is provided,
+     * this label defines an alternate generation handler. It is executed
+     * instead of throwing a CorruptEncodingException if the generation doesn't
+     * match. The actual generation is available on the top of the stack for
+     * the handler to consume.
+     * @param encodedVar required variable, which must be a byte array. At
+     * runtime, it references encoded data, and it is replaced with the result
+     * of second phase decoding.
+     * @return offset of the first encoded property
+     *
+     * @throws IllegalArgumentException if assembler is null, or if encodedVar
+     * is not a byte array
+     * @since 1.2.4
+     */
+    public int buildDataDecodingPreamble(CodeAssembler assembler,
+                                         int generation,
+                                         Label altGenerationHandler,
+                                         LocalVariable encodedVar)
+    {
+        if (assembler == null) {
+            throw new IllegalArgumentException();
+        }
+        if (encodedVar == null || encodedVar.getType() != TypeDesc.forClass(byte[].class)) {
+            throw new IllegalArgumentException();
+        }
+
+        final int prefix = mDataPrefixPadding;
+
+        decodeGeneration(assembler, encodedVar, prefix, generation, altGenerationHandler);
+
+        final int generationPrefix;
+        if (generation < 0) {
+            generationPrefix = 0;
+        } else if (generation < 128) {
+            generationPrefix = 1;
+        } else {
+            generationPrefix = 4;
+        }
+
+        extraDataDecoding(assembler, encodedVar, prefix + generationPrefix, mDataSuffixPadding);
+
+        return prefix + generationPrefix;
+    }
+
+    /**
+     * Generates bytecode instructions to decode a range of data properties,
+     * from encoded data which was prepared by {@link
+     * #buildDataDecodingPreamble buildDataDecodingPreamble}. Properties are
+     * decoded in sequence, and so decoding may be resumed where a prior
+     * partial decode left off. A CorruptEncodingException may be thrown from
+     * generated code.
+     *
+     * @param assembler code assembler to receive bytecode instructions
+     * @param properties specific properties which were encoded, defaults to
+     * all non-key properties if null
+     * @param instanceVar local variable referencing Storable instance,
+     * defaults to "this" if null. If variable type is an Object array, then
+     * property values are placed into the runtime value of this array instead
+     * of a Storable instance.
+     * @param adapterInstanceClass class containing static references to
+     * adapter instances - defaults to instanceVar
+     * @param useWriteMethods when true, set properties by public write
+     * methods instead of protected fields - should be used if class being
+     * generated doesn't have access to these fields
+     * @param encodedVar required variable, which must be a byte array. At
+     * runtime, it references prepared encoded data.
+     * @param offsetVar required int variable, whose runtime value is the
+     * offset of the property at partialStartVar. It is updated to be the
+     * offset of the property at partialEndVar.
+     * @param partialStartVar required int variable, whose runtime value must
+     * be less than the properties array length. It marks the range start of
+     * the partial property range.
+     * @param partialEndVar required int variable, whose runtime value must be
+     * less than or equal to the properties array length. It marks the range
+     * end (exclusive) of the partial property range.
+     *
+     * @throws SupportException if any property type is not supported
+     * @throws IllegalArgumentException if assembler is null, or if instanceVar
+     * is not the correct instance type, or if encodedVar is not a byte array,
+     * or if offset or partial variables are not ints
+     * @since 1.2.4
+     */
+    public void buildPartialDataDecoding(CodeAssembler assembler,
+                                         StorableProperty<S>[] properties,
+                                         LocalVariable instanceVar,
+                                         Class<?> adapterInstanceClass,
+                                         boolean useWriteMethods,
+                                         LocalVariable encodedVar,
+                                         LocalVariable offsetVar,
+                                         LocalVariable partialStartVar,
+                                         LocalVariable partialEndVar)
+        throws SupportException
+    {
+        final CodeAssembler a = assembler;
+
+        if (a == null) {
+            throw new IllegalArgumentException();
+        }
+        if (encodedVar == null || encodedVar.getType() != TypeDesc.forClass(byte[].class)) {
+            throw new IllegalArgumentException();
+        }
+        if (offsetVar == null || offsetVar.getType() != TypeDesc.INT) {
+            throw new IllegalArgumentException();
+        }
+        if (partialStartVar == null || partialStartVar.getType() != TypeDesc.INT) {
+            throw new IllegalArgumentException();
+        }
+        if (partialEndVar == null || partialEndVar.getType() != TypeDesc.INT) {
+            throw new IllegalArgumentException();
+        }
+
+        properties = ensureDataProperties(properties);
+        StorablePropertyInfo[] infos = checkSupport(properties);
+
+        if (properties.length == 0) {
+            return;
+        }
+
+        LocalVariable[] stringRefRef = new LocalVariable[1];
+        LocalVariable[] byteArrayRefRef = new LocalVariable[1];
+        LocalVariable[] bigIntegerRefRef = new LocalVariable[1];
+        LocalVariable[] bigDecimalRefRef = new LocalVariable[1];
+        LocalVariable[] valueRefRef = new LocalVariable[1];
+
+        // References need to be initialized early because decoding starts at
+        // any property.
+        initDecodingRefs(a, infos,
+                         stringRefRef, byteArrayRefRef, bigIntegerRefRef, bigDecimalRefRef);
+
+        Label[] entryPoints = jumpToPartialEntryPoints(a, partialStartVar, properties.length);
+        Label done = a.createLabel();
+
+        for (int i=0; i<properties.length; i++) {
+            StorablePropertyInfo info = infos[i];
+
+            entryPoints[i].setLocation();
+
+            // Stop if end of partial range has been reached.
+            a.loadLocal(partialEndVar);
+            a.loadConstant(i);
+            a.ifComparisonBranch(done, "<=");
+
+            // Push to stack in preparation for storing a property.
+            pushDecodingInstanceVar(a, i, instanceVar);
+
+            TypeDesc storageType = info.getStorageType();
+
+            if (info.isLob()) {
+                // Need RawSupport instance for getting Lob from locator.
+                pushRawSupport(a, instanceVar);
+
+                // Also need to pass this stuff along when getting Lob.
+                a.loadThis();
+                a.loadConstant(info.getPropertyName());
+
+                // Locator is encoded as a long.
+                storageType = TypeDesc.LONG;
+            }
+
+            a.loadLocal(encodedVar);
+            a.loadLocal(offsetVar);
+
+            int amt = decodeProperty(a, info, storageType, Mode.DATA, false,
+                                     stringRefRef, byteArrayRefRef,
+                                     bigIntegerRefRef, bigDecimalRefRef,
+                                     valueRefRef);
+
+            if (info.isLob()) {
+                getLobFromLocator(a, info);
+            }
+
+            if (amt > 0) {
+                a.loadConstant(amt);
+            } else if (amt < 0) {
+                // Offset adjust is one if returned object is null.
+                a.dup();
+                Label notNull = a.createLabel();
+                a.ifNullBranch(notNull, false);
+                a.loadConstant(1);
+                Label cont = a.createLabel();
+                a.branch(cont);
+                notNull.setLocation();
+                a.loadConstant(~amt);
+                cont.setLocation();
+            }
+
+            a.loadLocal(offsetVar);
+            a.math(Opcode.IADD);
+            a.storeLocal(offsetVar);
+
+            if (amt == 0) {
+                // Get the value out of the ref array so that it can be stored.
+                a.loadLocal(valueRefRef[0]);
+                a.loadConstant(0);
+                a.loadFromArray(valueRefRef[0].getType());
+            }
+
+            storePropertyValue(a, info, useWriteMethods, instanceVar, adapterInstanceClass);
+        }
+
+        done.setLocation();
+    }
+
     /**
      * Generates bytecode instructions to encode properties and their
      * states. This encoding is suitable for short-term serialization only.
@@ -327,7 +662,7 @@ public class GenericEncodingStrategy<S extends Storable> {
     {
         properties = ensureAllProperties(properties);
         return buildEncoding
-            (Mode.SERIAL, assembler, properties, null, null, null, false, -1, null, null);
+            (Mode.SERIAL, assembler, properties, null, null, null, false, -1, null, null, null);
     }
 
     /**
@@ -406,6 +741,16 @@ public class GenericEncodingStrategy<S extends Storable> {
         return mDataSuffixPadding;
     }
 
+    /**
+     * Returns the encoding of int and long key properties, which is never
+     * null.
+     *
+     * @since 1.2.4
+     */
+    public KeyEncodingType getKeyEncodingType() {
+        return mKeyEncodingType;
+    }
+
     /**
      * Returns amount of prefix key bytes that encoding strategy instance
      * produces which are always the same. Default implementation returns 0.
@@ -419,6 +764,19 @@ public class GenericEncodingStrategy<S extends Storable> {
         return mType.hashCode();
     }
 
+    /**
+     * Returns a string which describes all the settings that affect the
+     * encoding. Subclasses which add settings should append them.
+     */
+    @Override
+    public String toString() {
+        return getClass().getName() + " {type=" + mType.getName() +
+            ", primaryKey=" + mPkIndex +
+            ", keyPadding=" + mKeyPrefixPadding + '/' + mKeySuffixPadding +
+            ", dataPadding=" + mDataPrefixPadding + '/' + mDataSuffixPadding +
+            ", keyEncoding=" + mKeyEncodingType + '}';
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj) {
@@ -430,7 +788,8 @@ public class GenericEncodingStrategy<S extends Storable> {
                 && mKeyPrefixPadding == other.mKeyPrefixPadding
                 && mKeySuffixPadding == other.mKeySuffixPadding
                 && mDataPrefixPadding == other.mDataPrefixPadding
-                && mDataSuffixPadding == other.mDataSuffixPadding;
+                && mDataSuffixPadding == other.mDataSuffixPadding
+                && mKeyEncodingType == other.mKeyEncodingType;
         }
         return false;
     }
@@ -546,6 +905,17 @@ public class GenericEncodingStrategy<S extends Storable> {
     {
     }
 
+    /**
+     * Returns true if {@link #extraDataEncoding extraDataEncoding} generates
+     * any code. Extra encoding requires the data to exactly fill its array,
+     * and so it cannot be written into an {@link EncodingBuffer} directly.
+     *
+     * @since 1.2.4
+     */
+    protected boolean hasExtraDataEncoding() {
+        return false;
+    }
+
     /**
      * Second phase decoding, which does nothing by default.
      *
@@ -644,7 +1014,8 @@ public class GenericEncodingStrategy<S extends Storable> {
                                         boolean useReadMethods,
                                         int generation,
                                         LocalVariable partialStartVar,
-                                        LocalVariable partialEndVar)
+                                        LocalVariable partialEndVar,
+                                        LocalVariable bufferVar)
         throws SupportException
     {
         if (a == null) {
@@ -703,6 +1074,11 @@ public class GenericEncodingStrategy<S extends Storable> {
         final TypeDesc byteArrayType = TypeDesc.forClass(byte[].class);
         final LocalVariable encodedVar = a.createLocalVariable(null, byteArrayType);
 
+        // Padding is filled in by the caller, and so it must be initially
+        // zero. A reused array doesn't provide that guarantee.
+        final boolean reserve = bufferVar != null && prefix == 0 && suffix == 0
+            && (mode != Mode.DATA || !hasExtraDataEncoding());
+
         StorablePropertyInfo[] infos = checkSupport(properties);
 
         if (properties.length == 1) {
@@ -761,6 +1137,10 @@ public class GenericEncodingStrategy<S extends Storable> {
                     extraDataEncoding(a, encodedVar, prefix + generationPrefix, suffix);
                 }
 
+                if (bufferVar != null) {
+                    setBuffer(a, mode, bufferVar, encodedVar);
+                }
+
                 return encodedVar;
             }
         }
@@ -803,7 +1183,7 @@ public class GenericEncodingStrategy<S extends Storable> {
 
             for (int i=0; i<infos.length; i++) {
                 GenericPropertyInfo info = infos[i];
-                int len = staticEncodingLength(info);
+                int len = staticEncodingLength(info, mode);
                 if (len >= 0) {
                     if (!doPartial) {
                         staticLength += len;
@@ -873,7 +1253,7 @@ public class GenericEncodingStrategy<S extends Storable> {
                         a.loadLocal(partialEndVar);
                         a.ifComparisonBranch(exitPoint, ">=");
                     }
-                } else if (staticEncodingLength(info) >= 0) {
+                } else if (staticEncodingLength(info, mode) >= 0) {
                     continue;
                 }
 
@@ -910,11 +1290,22 @@ public class GenericEncodingStrategy<S extends Storable> {
 
                 TypeDesc storageType = info.getStorageType();
 
-                if (storageType.isPrimitive()) {
+                if (isCompact(info, mode)) {
+                    loadPropertyValue(stashedProperties, stashedFromInstances,
+                                      a, info, i, useReadMethods,
+                                      instanceVar, adapterInstanceClass, partialStartVar);
+                    a.invokeStatic(KeyEncoder.class.getName(), "calculateCompactEncodedLength",
+                                   TypeDesc.INT, new TypeDesc[] {storageType});
+                    if (hasStackVar) {
+                        a.math(Opcode.IADD);
+                    } else {
+                        hasStackVar = true;
+                    }
+                } else if (storageType.isPrimitive()) {
                     // This should only ever get executed if implementing
                     // partial support. Otherwise, the static encoding length
                     // would have been already calculated.
-                    a.loadConstant(staticEncodingLength(info));
+                    a.loadConstant(staticEncodingLength(info, mode));
                     if (hasStackVar) {
                         a.math(Opcode.IADD);
                     } else {
@@ -1073,7 +1464,8 @@ public class GenericEncodingStrategy<S extends Storable> {
             }
         }
 
-        // Allocate a byte array of the exact size.
+        // Allocate a byte array of the exact size, or reserve one which is at
+        // least as large.
         if (hasStackVar) {
             if (staticLength > 0) {
                 a.loadConstant(staticLength);
@@ -1082,7 +1474,15 @@ public class GenericEncodingStrategy<S extends Storable> {
         } else {
             a.loadConstant(staticLength);
         }
-        a.newObject(byteArrayType);
+        if (reserve) {
+            a.loadLocal(bufferVar);
+            a.swap();
+            a.invokeVirtual(bufferVar.getType(),
+                            mode == Mode.KEY ? "reserveKey" : "reserveData",
+                            byteArrayType, new TypeDesc[] {TypeDesc.INT});
+        } else {
+            a.newObject(byteArrayType);
+        }
         a.storeLocal(encodedVar);
 
         // Now encode into the byte array.
@@ -1238,7 +1638,7 @@ public class GenericEncodingStrategy<S extends Storable> {
             boolean descending = mode == Mode.KEY
                 && directions != null && directions[i] == Direction.DESCENDING;
 
-            int amt = encodeProperty(a, storageType, mode, descending);
+            int amt = encodeProperty(a, storageType, mode, descending, isCompact(info, mode));
 
             if (amt > 0) {
                 if (i + 1 < properties.length) {
@@ -1282,9 +1682,33 @@ public class GenericEncodingStrategy<S extends Storable> {
             extraDataEncoding(a, encodedVar, prefix + generationPrefix, suffix);
         }
 
+        if (bufferVar != null && !reserve) {
+            setBuffer(a, mode, bufferVar, encodedVar);
+        }
+
         return encodedVar;
     }
 
+    private void checkBufferVar(LocalVariable bufferVar) {
+        if (bufferVar == null ||
+            bufferVar.getType() != TypeDesc.forClass(EncodingBuffer.class))
+        {
+            throw new IllegalArgumentException("EncodingBuffer variable required");
+        }
+    }
+
+    /**
+     * Generates code to set an exactly sized array into an EncodingBuffer.
+     */
+    private void setBuffer(CodeAssembler a, Mode mode,
+                           LocalVariable bufferVar, LocalVariable encodedVar)
+    {
+        a.loadLocal(bufferVar);
+        a.loadLocal(encodedVar);
+        a.invokeVirtual(bufferVar.getType(), mode == Mode.KEY ? "setKey" : "setData",
+                        null, new TypeDesc[] {encodedVar.getType()});
+    }
+
     /**
      * Generates code to load a property value onto the operand stack.
      *
@@ -1464,13 +1888,30 @@ public class GenericEncodingStrategy<S extends Storable> {
         }
     }
 
+    /**
+     * Returns true if the property is an int or long which is encoded in
+     * compact form.
+     */
+    private boolean isCompact(GenericPropertyInfo info, Mode mode) {
+        if (mode != Mode.KEY || mKeyEncodingType != KeyEncodingType.COMPACT || info.isLob()) {
+            return false;
+        }
+        TypeDesc primType = info.getStorageType().toPrimitiveType();
+        return primType == TypeDesc.INT || primType == TypeDesc.LONG;
+    }
+
     /**
      * Returns a negative value if encoding is variable. The minimum static
      * amount is computed from the one's compliment. Of the types with variable
      * encoding lengths, only for primitives is the minimum static amount
      * returned more than zero.
      */
-    private int staticEncodingLength(GenericPropertyInfo info) {
+    private int staticEncodingLength(GenericPropertyInfo info, Mode mode) {
+        if (isCompact(info, mode)) {
+            // Entire length is computed at runtime.
+            return ~0;
+        }
+
         TypeDesc type = info.getStorageType();
         TypeDesc primType = type.toPrimitiveType();
 
@@ -1555,15 +1996,23 @@ public class GenericEncodingStrategy<S extends Storable> {
      * Generates code that calls an encoding method in DataEncoder or
      * KeyEncoder. Parameters must already be on the stack.
      *
+     * @param compact when true, encode an int or long key in compact form
      * @return 0 if an int amount is pushed onto the stack, or a positive value
      * if offset adjust amount is constant
      */
-    private int encodeProperty(CodeAssembler a, TypeDesc type, Mode mode, boolean descending) {
+    private int encodeProperty(CodeAssembler a, TypeDesc type, Mode mode, boolean descending,
+                               boolean compact)
+    {
         TypeDesc[] params = new TypeDesc[] {
             type, TypeDesc.forClass(byte[].class), TypeDesc.INT
         };
 
-        if (type.isPrimitive()) {
+        if (compact) {
+            a.invokeStatic(KeyEncoder.class.getName(),
+                           descending ? "encodeCompactDesc" : "encodeCompact",
+                           TypeDesc.INT, params);
+            return 0;
+        } else if (type.isPrimitive()) {
             if (mode == Mode.KEY && descending) {
                 a.invokeStatic(KeyEncoder.class.getName(), "encodeDesc", null, params);
             } else {
@@ -1975,44 +2424,8 @@ public class GenericEncodingStrategy<S extends Storable> {
 
             // References need to be initialized early because some properties
             // are skipped at runtime.
-
-            for (int i=0; i<properties.length; i++) {
-                TypeDesc storageType = infos[i].getStorageType();
-
-                if (storageType == TypeDesc.STRING) {
-                    if (stringRefRef[0] == null) {
-                        TypeDesc refType = TypeDesc.forClass(String[].class);
-                        stringRefRef[0] = a.createLocalVariable(null, refType);
-                        a.loadConstant(1);
-                        a.newObject(refType);
-                        a.storeLocal(stringRefRef[0]);
-                    }
-                } else if (storageType.toClass() == byte[].class) {
-                    if (byteArrayRefRef[0] == null) {
-                        TypeDesc refType = TypeDesc.forClass(byte[][].class);
-                        byteArrayRefRef[0] = a.createLocalVariable(null, refType);
-                        a.loadConstant(1);
-                        a.newObject(refType);
-                        a.storeLocal(byteArrayRefRef[0]);
-                    }
-                } else if (storageType.toClass() == BigInteger.class) {
-                    if (bigIntegerRefRef[0] == null) {
-                        TypeDesc refType = TypeDesc.forClass(BigInteger[].class);
-                        bigIntegerRefRef[0] = a.createLocalVariable(null, refType);
-                        a.loadConstant(1);
-                        a.newObject(refType);
-                        a.storeLocal(bigIntegerRefRef[0]);
-                    }
-                } else if (storageType.toClass() == BigDecimal.class) {
-                    if (bigDecimalRefRef[0] == null) {
-                        TypeDesc refType = TypeDesc.forClass(BigDecimal[].class);
-                        bigDecimalRefRef[0] = a.createLocalVariable(null, refType);
-                        a.loadConstant(1);
-                        a.newObject(refType);
-                        a.storeLocal(bigDecimalRefRef[0]);
-                    }
-                }
-            }
+            initDecodingRefs(a, infos,
+                             stringRefRef, byteArrayRefRef, bigIntegerRefRef, bigDecimalRefRef);
         }
 
         for (int i=0; i<properties.length; i++) {
@@ -2072,6 +2485,40 @@ public class GenericEncodingStrategy<S extends Storable> {
             boolean descending = mode == Mode.KEY
                 && directions != null && directions[i] == Direction.DESCENDING;
 
+            if (isCompact(info, mode)) {
+                decodeCompactProperty(a, info, storageType, descending);
+
+                if (i + 1 < properties.length) {
+                    // Only adjust offset if there are more properties. The
+                    // amount is determined by the first encoded byte.
+                    a.loadLocal(encodedVar);
+                    if (offsetVar == null) {
+                        a.loadConstant(constantOffset);
+                    } else {
+                        a.loadLocal(offsetVar);
+                    }
+                    a.invokeStatic(KeyDecoder.class.getName(), "decodeCompactLength",
+                                   TypeDesc.INT, new TypeDesc[] {encodedVar.getType(),
+                                                                 TypeDesc.INT});
+                    if (offsetVar == null) {
+                        if (constantOffset > 0) {
+                            a.loadConstant(constantOffset);
+                            a.math(Opcode.IADD);
+                        }
+                        offsetVar = a.createLocalVariable(null, TypeDesc.INT);
+                    } else {
+                        a.loadLocal(offsetVar);
+                        a.math(Opcode.IADD);
+                    }
+                    a.storeLocal(offsetVar);
+                }
+
+                storePropertyLocation.setLocation();
+                storePropertyValue(a, info, useWriteMethods, instanceVar, adapterInstanceClass);
+                nextPropertyLocation.setLocation();
+                continue;
+            }
+
             int amt = decodeProperty(a, info, storageType, mode, descending,
                                      // TODO: do something better for passing these refs
                                      stringRefRef, byteArrayRefRef,
@@ -2160,6 +2607,93 @@ public class GenericEncodingStrategy<S extends Storable> {
         }
     }
 
+    /**
+     * Generates code which allocates the reference arrays used when decoding
+     * variable length properties. Decoding normally allocates them on demand,
+     * but this is not possible if some properties are skipped at runtime.
+     */
+    private void initDecodingRefs(CodeAssembler a, StorablePropertyInfo[] infos,
+                                  LocalVariable[] stringRefRef, LocalVariable[] byteArrayRefRef,
+                                  LocalVariable[] bigIntegerRefRef,
+                                  LocalVariable[] bigDecimalRefRef)
+    {
+        for (int i=0; i<infos.length; i++) {
+            TypeDesc storageType = infos[i].getStorageType();
+
+            if (storageType == TypeDesc.STRING) {
+                if (stringRefRef[0] == null) {
+                    TypeDesc refType = TypeDesc.forClass(String[].class);
+                    stringRefRef[0] = a.createLocalVariable(null, refType);
+                    a.loadConstant(1);
+                    a.newObject(refType);
+                    a.storeLocal(stringRefRef[0]);
+                }
+            } else if (storageType.toClass() == byte[].class) {
+                if (byteArrayRefRef[0] == null) {
+                    TypeDesc refType = TypeDesc.forClass(byte[][].class);
+                    byteArrayRefRef[0] = a.createLocalVariable(null, refType);
+                    a.loadConstant(1);
+                    a.newObject(refType);
+                    a.storeLocal(byteArrayRefRef[0]);
+                }
+            } else if (storageType.toClass() == BigInteger.class) {
+                if (bigIntegerRefRef[0] == null) {
+                    TypeDesc refType = TypeDesc.forClass(BigInteger[].class);
+                    bigIntegerRefRef[0] = a.createLocalVariable(null, refType);
+                    a.loadConstant(1);
+                    a.newObject(refType);
+                    a.storeLocal(bigIntegerRefRef[0]);
+                }
+            } else if (storageType.toClass() == BigDecimal.class) {
+                if (bigDecimalRefRef[0] == null) {
+                    TypeDesc refType = TypeDesc.forClass(BigDecimal[].class);
+                    bigDecimalRefRef[0] = a.createLocalVariable(null, refType);
+                    a.loadConstant(1);
+                    a.newObject(refType);
+                    a.storeLocal(bigDecimalRefRef[0]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates code that calls a compact decoding method in KeyDecoder.
+     * Parameters must already be on the stack, and the decoded value is left
+     * on the stack.
+     */
+    private void decodeCompactProperty(CodeAssembler a,
+                                       GenericPropertyInfo info, TypeDesc storageType,
+                                       boolean descending)
+    {
+        TypeDesc primType = storageType.toPrimitiveType();
+
+        String methodName;
+        TypeDesc returnType;
+
+        if (primType != storageType && info.isNullable()) {
+            // Property type is a nullable boxed primitive.
+            returnType = storageType;
+            methodName = primType == TypeDesc.INT
+                ? "decodeCompactIntegerObj" : "decodeCompactLongObj";
+        } else {
+            // Property type is a primitive or a boxed primitive.
+            returnType = primType;
+            methodName = primType == TypeDesc.INT ? "decodeCompactInt" : "decodeCompactLong";
+        }
+
+        if (descending) {
+            methodName += "Desc";
+        }
+
+        a.invokeStatic(KeyDecoder.class.getName(), methodName, returnType,
+                       new TypeDesc[] {TypeDesc.forClass(byte[].class), TypeDesc.INT});
+
+        if (returnType != storageType) {
+            // Wrap it.
+            a.convert(returnType, storageType);
+        }
+    }
+
     /**
      * Generates code that calls a decoding method in DataDecoder or
      * KeyDecoder. Parameters must already be on the stack.
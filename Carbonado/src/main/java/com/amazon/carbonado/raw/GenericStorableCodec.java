@@ -20,8 +20,13 @@ package com.amazon.carbonado.raw;
 
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.cojen.classfile.ClassFile;
 import org.cojen.classfile.CodeBuilder;
@@ -42,6 +47,12 @@ import com.amazon.carbonado.RepositoryException;
 import com.amazon.carbonado.Storable;
 import com.amazon.carbonado.SupportException;
 
+import com.amazon.carbonado.filter.ExistsFilter;
+import com.amazon.carbonado.filter.Filter;
+import com.amazon.carbonado.filter.PropertyFilter;
+import com.amazon.carbonado.filter.Visitor;
+
+import com.amazon.carbonado.info.ChainedProperty;
 import com.amazon.carbonado.info.Direction;
 import com.amazon.carbonado.info.OrderedProperty;
 import com.amazon.carbonado.info.StorableIndex;
@@ -51,7 +62,10 @@ import com.amazon.carbonado.info.StorableProperty;
 import com.amazon.carbonado.layout.Layout;
 import com.amazon.carbonado.layout.LayoutOptions;
 
+import com.amazon.carbonado.lob.Lob;
+
 import com.amazon.carbonado.gen.CodeBuilderUtil;
+import com.amazon.carbonado.gen.GeneratedClassCache;
 import com.amazon.carbonado.gen.StorableGenerator;
 import com.amazon.carbonado.gen.TriggerSupport;
 
@@ -68,6 +82,27 @@ import com.amazon.carbonado.util.SoftValuedCache;
 public class GenericStorableCodec<S extends Storable> implements StorableCodec<S> {
     private static final String BLANK_KEY_FIELD_NAME = "blankKey$";
 
+    // Fields and method of generated storables which decode lazily.
+    private static final String LAZY_DATA_FIELD_NAME = "lazyData$";
+    private static final String LAZY_OFFSET_FIELD_NAME = "lazyOffset$";
+    private static final String LAZY_COUNT_FIELD_NAME = "lazyCount$";
+    private static final String DECODE_LAZY_METHOD_NAME = "decodeLazy$";
+
+    // Storable methods which don't access property values, and so they don't
+    // need to finish lazy decoding first.
+    private static final Set<String> cStateMethodNames;
+
+    static {
+        cStateMethodNames = new HashSet<String>(Arrays.asList(new String[] {
+            "storableType", "prepare", "hasDirtyProperties",
+            "markPropertiesClean", "markAllPropertiesClean",
+            "markPropertiesDirty", "markAllPropertiesDirty",
+            "isPropertyUninitialized", "isPropertyDirty", "isPropertyClean",
+            "isPropertySupported", "copyPrimaryKeyProperties",
+            "equalPrimaryKeys", "toStringKeyOnly",
+        }));
+    }
+
     // Maps GenericEncodingStrategy instances to Storable classes.
     private static final SoftValuedCache cCache = SoftValuedCache.newCache(11);
 
@@ -93,11 +128,13 @@ public class GenericStorableCodec<S extends Storable> implements StorableCodec<S
         throws SupportException
     {
         Object layoutKey = layout == null ? null : new LayoutKey(layout);
-        Object key = KeyFactory.createKey(new Object[] {encodingStrategy, isMaster, layoutKey});
+        boolean lazy = factory != null && factory.isLazyDecoding(encodingStrategy.getType());
+        Object key = KeyFactory.createKey
+            (new Object[] {encodingStrategy, isMaster, layoutKey, lazy});
 
         Class<? extends S> storableImpl = (Class<? extends S>) cCache.get(key);
         if (storableImpl == null) {
-            storableImpl = generateStorable(encodingStrategy, isMaster, layout);
+            storableImpl = generateStorable(encodingStrategy, isMaster, layout, lazy);
             cCache.put(key, storableImpl);
         }
 
@@ -113,7 +150,8 @@ public class GenericStorableCodec<S extends Storable> implements StorableCodec<S
 
     @SuppressWarnings("unchecked")
     private static <S extends Storable> Class<? extends S> generateStorable
-        (GenericEncodingStrategy<S> encodingStrategy, boolean isMaster, Layout layout)
+        (GenericEncodingStrategy<S> encodingStrategy, boolean isMaster, Layout layout,
+         boolean lazy)
         throws SupportException
     {
         final Class<S> storableClass = encodingStrategy.getType();
@@ -121,6 +159,26 @@ public class GenericStorableCodec<S extends Storable> implements StorableCodec<S
             RawStorableGenerator.getAbstractClass(storableClass, isMaster);
         final int generation = layout == null ? -1 : layout.getGeneration();
 
+        String cacheKey = null;
+        Class<?> strategyClass = encodingStrategy.getClass();
+        if (strategyClass == GenericEncodingStrategy.class ||
+            strategyClass == CompressedEncodingStrategy.class)
+        {
+            // Other strategies might alter generated code in ways which their
+            // string value doesn't reveal, and so they aren't cached.
+            cacheKey = GeneratedClassCache.keyFor
+                (GenericStorableCodec.class, storableClass, abstractClass,
+                 strategyClass, encodingStrategy, isMaster, generation, lazy);
+            Class<? extends S> cached = (Class<? extends S>)
+                GeneratedClassCache.load(cacheKey, abstractClass.getClassLoader());
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        final StorableProperty<S>[] lazyProperties =
+            lazy ? lazyDataProperties(encodingStrategy, abstractClass) : null;
+
         ClassInjector ci = ClassInjector.create
             (storableClass.getName(), abstractClass.getClassLoader());
 
@@ -202,6 +260,10 @@ public class GenericStorableCodec<S extends Storable> implements StorableCodec<S
                                          byteArrayType, null);
             CodeBuilder b = new CodeBuilder(mi);
 
+            if (lazyProperties != null) {
+                finishLazyDecoding(b, lazyProperties.length, true);
+            }
+
             // assembler            = b
             // properties           = null (defaults to all non-key properties)
             // instanceVar          = null (null means "this")
@@ -215,6 +277,34 @@ public class GenericStorableCodec<S extends Storable> implements StorableCodec<S
             b.returnValue(byteArrayType);
         }
 
+        final TypeDesc[] bufferParam = {TypeDesc.forClass(EncodingBuffer.class)};
+
+        // void encodeKey(EncodingBuffer)
+        {
+            MethodInfo mi = cf.addMethod(Modifiers.PROTECTED,
+                                         RawStorableGenerator.ENCODE_KEY_METHOD_NAME,
+                                         null, bufferParam);
+            CodeBuilder b = new CodeBuilder(mi);
+            encodingStrategy.buildKeyEncoding(b, null, null, null, false, b.getParameter(0));
+            b.returnVoid();
+        }
+
+        // void encodeData(EncodingBuffer)
+        {
+            MethodInfo mi = cf.addMethod(Modifiers.PROTECTED,
+                                         RawStorableGenerator.ENCODE_DATA_METHOD_NAME,
+                                         null, bufferParam);
+            CodeBuilder b = new CodeBuilder(mi);
+
+            if (lazyProperties != null) {
+                finishLazyDecoding(b, lazyProperties.length, true);
+            }
+
+            encodingStrategy.buildDataEncoding
+                (b, null, null, null, false, generation, b.getParameter(0));
+            b.returnVoid();
+        }
+
         // void decodeKey(byte[])
         {
             MethodInfo mi = cf.addMethod(Modifiers.PROTECTED,
@@ -243,16 +333,35 @@ public class GenericStorableCodec<S extends Storable> implements StorableCodec<S
 
             Label altGenerationHandler = b.createLabel();
 
-            // assembler            = b
-            // properties           = null (defaults to all non-key properties)
-            // instanceVar          = null (null means "this")
-            // adapterInstanceClass = null (null means use instanceVar, in this case is "this")
-            // useWriteMethods      = false (will set fields directly)
-            // generation           = generation
-            // altGenerationHandler = altGenerationHandler
-            // encodedVar           = references byte array with encoded data
-            encodingStrategy.buildDataDecoding
-                (b, null, null, null, false, generation, altGenerationHandler, b.getParameter(0));
+            if (lazyProperties == null) {
+                // assembler            = b
+                // properties           = null (defaults to all non-key properties)
+                // instanceVar          = null (null means "this")
+                // adapterInstanceClass = null (null means use instanceVar, in this case is "this")
+                // useWriteMethods      = false (will set fields directly)
+                // generation           = generation
+                // altGenerationHandler = altGenerationHandler
+                // encodedVar           = references byte array with encoded data
+                encodingStrategy.buildDataDecoding
+                    (b, null, null, null, false, generation, altGenerationHandler,
+                     b.getParameter(0));
+            } else {
+                // Only check the generation and decompress. Properties are
+                // decoded when accessed, directly from the retained data.
+                LocalVariable dataVar = b.getParameter(0);
+                int offset = encodingStrategy.buildDataDecodingPreamble
+                    (b, generation, altGenerationHandler, dataVar);
+
+                b.loadThis();
+                b.loadLocal(dataVar);
+                b.storeField(LAZY_DATA_FIELD_NAME, byteArrayType);
+                b.loadThis();
+                b.loadConstant(offset);
+                b.storeField(LAZY_OFFSET_FIELD_NAME, TypeDesc.INT);
+                b.loadThis();
+                b.loadConstant(0);
+                b.storeField(LAZY_COUNT_FIELD_NAME, TypeDesc.INT);
+            }
 
             b.returnVoid();
 
@@ -262,6 +371,16 @@ public class GenericStorableCodec<S extends Storable> implements StorableCodec<S
             LocalVariable actualGeneration = b.createLocalVariable(null, TypeDesc.INT);
             b.storeLocal(actualGeneration);
 
+            if (lazyProperties != null) {
+                // Alternate generations are always decoded eagerly.
+                b.loadThis();
+                b.loadNull();
+                b.storeField(LAZY_DATA_FIELD_NAME, byteArrayType);
+                b.loadThis();
+                b.loadConstant(lazyProperties.length);
+                b.storeField(LAZY_COUNT_FIELD_NAME, TypeDesc.INT);
+            }
+
             b.loadThis();
             b.loadField(StorableGenerator.SUPPORT_FIELD_NAME, triggerSupportType);
             b.checkCast(rawSupportType);
@@ -289,7 +408,305 @@ public class GenericStorableCodec<S extends Storable> implements StorableCodec<S
             b.throwObject();
         }
 
-        return ci.defineClass(cf);
+        if (lazyProperties != null) {
+            addLazyDecoding(cf, encodingStrategy, abstractClass, lazyProperties);
+        }
+
+        Class<? extends S> generated = ci.defineClass(cf);
+        GeneratedClassCache.store(cacheKey, abstractClass.getClassLoader(), generated, cf);
+        return generated;
+    }
+
+    /**
+     * Returns the data properties to decode lazily, or null if lazy decoding
+     * isn't supported or wouldn't be of any benefit.
+     */
+    private static <S extends Storable> StorableProperty<S>[] lazyDataProperties
+        (GenericEncodingStrategy<S> encodingStrategy, Class<? extends S> abstractClass)
+    {
+        StorableProperty<S>[] properties = encodingStrategy.gatherAllDataProperties();
+
+        if (properties.length < 2) {
+            // Single property has no decoding to skip.
+            return null;
+        }
+
+        for (StorableProperty<S> property : properties) {
+            Method readMethod = property.getReadMethod();
+            if (readMethod == null) {
+                // Cannot intercept access.
+                return null;
+            }
+            try {
+                readMethod = abstractClass.getMethod(readMethod.getName());
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+            if (Modifier.isFinal(readMethod.getModifiers())) {
+                return null;
+            }
+        }
+
+        return properties;
+    }
+
+    /**
+     * Adds the lazy decoding method, and overrides all methods which access
+     * property values. Read methods of data properties decode only as far as
+     * needed, and all other methods finish decoding first.
+     */
+    private static <S extends Storable> void addLazyDecoding
+        (ClassFile cf, GenericEncodingStrategy<S> encodingStrategy,
+         Class<? extends S> abstractClass, StorableProperty<S>[] lazyProperties)
+        throws SupportException
+    {
+        final TypeDesc storableType = TypeDesc.forClass(Storable.class);
+        final TypeDesc byteArrayType = TypeDesc.forClass(byte[].class);
+        final TypeDesc[] intParam = {TypeDesc.INT};
+        final int count = lazyProperties.length;
+
+        // Retained data, or null if fully decoded. Offset is of the next
+        // property to decode, and count is the amount of properties decoded.
+        cf.addField(Modifiers.PRIVATE, LAZY_DATA_FIELD_NAME, byteArrayType);
+        cf.addField(Modifiers.PRIVATE, LAZY_OFFSET_FIELD_NAME, TypeDesc.INT);
+        cf.addField(Modifiers.PRIVATE, LAZY_COUNT_FIELD_NAME, TypeDesc.INT);
+
+        // private synchronized void decodeLazy$(int end)
+        {
+            MethodInfo mi = cf.addMethod(Modifiers.PRIVATE.toSynchronized(true),
+                                         DECODE_LAZY_METHOD_NAME, null, intParam);
+            CodeBuilder b = new CodeBuilder(mi);
+
+            LocalVariable endVar = b.getParameter(0);
+
+            LocalVariable dataVar = b.createLocalVariable("data", byteArrayType);
+            b.loadThis();
+            b.loadField(LAZY_DATA_FIELD_NAME, byteArrayType);
+            b.storeLocal(dataVar);
+            b.loadLocal(dataVar);
+            Label hasData = b.createLabel();
+            b.ifNullBranch(hasData, false);
+            // Nothing was retained, so all properties are as decoded as they
+            // can ever be.
+            b.loadThis();
+            b.loadConstant(count);
+            b.storeField(LAZY_COUNT_FIELD_NAME, TypeDesc.INT);
+            b.returnVoid();
+
+            hasData.setLocation();
+            LocalVariable startVar = b.createLocalVariable("start", TypeDesc.INT);
+            b.loadThis();
+            b.loadField(LAZY_COUNT_FIELD_NAME, TypeDesc.INT);
+            b.storeLocal(startVar);
+            b.loadLocal(startVar);
+            b.loadLocal(endVar);
+            Label decode = b.createLabel();
+            b.ifComparisonBranch(decode, "<");
+            // Another thread finished first.
+            b.returnVoid();
+
+            decode.setLocation();
+            LocalVariable offsetVar = b.createLocalVariable("offset", TypeDesc.INT);
+            b.loadThis();
+            b.loadField(LAZY_OFFSET_FIELD_NAME, TypeDesc.INT);
+            b.storeLocal(offsetVar);
+
+            Label tryStartDecode = b.createLabel().setLocation();
+
+            // assembler            = b
+            // properties           = lazyProperties (all non-key properties)
+            // instanceVar          = null (null means "this")
+            // adapterInstanceClass = null (null means use instanceVar, in this case is "this")
+            // useWriteMethods      = false (will set fields directly)
+            encodingStrategy.buildPartialDataDecoding
+                (b, lazyProperties, null, null, false, dataVar, offsetVar, startVar, endVar);
+
+            Label tryEndDecode = b.createLabel().setLocation();
+
+            b.loadThis();
+            b.loadLocal(offsetVar);
+            b.storeField(LAZY_OFFSET_FIELD_NAME, TypeDesc.INT);
+            b.loadThis();
+            b.loadLocal(endVar);
+            b.storeField(LAZY_COUNT_FIELD_NAME, TypeDesc.INT);
+
+            // Release retained data when fully decoded.
+            b.loadLocal(endVar);
+            b.loadConstant(count);
+            Label notFinished = b.createLabel();
+            b.ifComparisonBranch(notFinished, "<");
+            b.loadThis();
+            b.loadNull();
+            b.storeField(LAZY_DATA_FIELD_NAME, byteArrayType);
+            notFinished.setLocation();
+            b.returnVoid();
+
+            // If unable to decode, give up on the remaining properties, to
+            // prevent recursion, and then fill out exception.
+            b.exceptionHandler(tryStartDecode, tryEndDecode,
+                               CorruptEncodingException.class.getName());
+            TypeDesc exType = TypeDesc.forClass(CorruptEncodingException.class);
+            LocalVariable exVar = b.createLocalVariable(null, TypeDesc.OBJECT);
+            b.storeLocal(exVar);
+            b.loadThis();
+            b.loadNull();
+            b.storeField(LAZY_DATA_FIELD_NAME, byteArrayType);
+            b.loadThis();
+            b.loadConstant(count);
+            b.storeField(LAZY_COUNT_FIELD_NAME, TypeDesc.INT);
+            b.loadLocal(exVar);
+            b.loadThis();
+            b.invokeVirtual(exType, "setStorableWithPrimaryKey", null,
+                            new TypeDesc[] {storableType});
+            b.loadLocal(exVar);
+            b.throwObject();
+        }
+
+        // Names of read methods which don't need to finish decoding.
+        Set<String> lazyReadMethods = new HashSet<String>();
+
+        // Read methods of data properties only decode as far as needed.
+        for (int i=0; i<count; i++) {
+            Method readMethod = lazyProperties[i].getReadMethod();
+            lazyReadMethods.add(readMethod.getName());
+
+            TypeDesc returnType = TypeDesc.forClass(readMethod.getReturnType());
+            MethodInfo mi = cf.addMethod(Modifiers.PUBLIC, readMethod.getName(), returnType, null);
+            CodeBuilder b = new CodeBuilder(mi);
+
+            b.loadThis();
+            b.loadField(LAZY_COUNT_FIELD_NAME, TypeDesc.INT);
+            b.loadConstant(i);
+            Label decoded = b.createLabel();
+            b.ifComparisonBranch(decoded, ">");
+            b.loadThis();
+            b.loadConstant(i + 1);
+            invokeDecodeLazy(b, true);
+            decoded.setLocation();
+
+            b.loadThis();
+            b.invokeSuper(abstractClass.getName(), readMethod.getName(), returnType, null);
+            b.returnValue(returnType);
+        }
+
+        // Key properties are always decoded.
+        for (StorableProperty<S> property : StorableIntrospector
+                 .examine(encodingStrategy.getType()).getPrimaryKeyProperties().values())
+        {
+            if (property.getReadMethod() != null) {
+                lazyReadMethods.add(property.getReadMethod().getName());
+            }
+        }
+
+        // All other inherited methods finish decoding first.
+        Set<List<Object>> signatures = new HashSet<List<Object>>();
+
+        for (Class<?> clazz = abstractClass;
+             clazz != null && clazz != Object.class;
+             clazz = clazz.getSuperclass())
+        {
+            for (Method method : clazz.getDeclaredMethods()) {
+                Class<?>[] paramClasses = method.getParameterTypes();
+                List<Object> signature = Arrays.<Object>asList
+                    (method.getName(), Arrays.asList(paramClasses));
+                if (!signatures.add(signature)) {
+                    // Overridden by a subclass.
+                    continue;
+                }
+
+                int modifiers = method.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers) ||
+                    !(Modifier.isPublic(modifiers) || Modifier.isProtected(modifiers)) ||
+                    method.isSynthetic())
+                {
+                    continue;
+                }
+
+                String name = method.getName();
+                if (name.indexOf('$') >= 0 || cStateMethodNames.contains(name) ||
+                    (paramClasses.length == 0 && lazyReadMethods.contains(name)))
+                {
+                    continue;
+                }
+
+                TypeDesc returnType = TypeDesc.forClass(method.getReturnType());
+                TypeDesc[] params = new TypeDesc[paramClasses.length];
+                for (int i=0; i<params.length; i++) {
+                    params[i] = TypeDesc.forClass(paramClasses[i]);
+                }
+
+                Modifiers mods = Modifier.isPublic(modifiers)
+                    ? Modifiers.PUBLIC : Modifiers.PROTECTED;
+                MethodInfo mi = cf.addMethod(mods, name, returnType, params);
+                boolean wrap = true;
+                for (Class<?> exClass : method.getExceptionTypes()) {
+                    mi.addException(TypeDesc.forClass(exClass));
+                    if (exClass.isAssignableFrom(CorruptEncodingException.class)) {
+                        wrap = false;
+                    }
+                }
+                CodeBuilder b = new CodeBuilder(mi);
+
+                finishLazyDecoding(b, count, wrap);
+
+                b.loadThis();
+                for (int i=0; i<params.length; i++) {
+                    b.loadLocal(b.getParameter(i));
+                }
+                b.invokeSuper(abstractClass.getName(), name, returnType, params);
+                b.returnValue(returnType);
+            }
+        }
+    }
+
+    /**
+     * Generates code which decodes all remaining lazy properties.
+     *
+     * @param wrap when true, a CorruptEncodingException is thrown as an
+     * UndeclaredThrowableException
+     */
+    private static void finishLazyDecoding(CodeBuilder b, int count, boolean wrap) {
+        b.loadThis();
+        b.loadField(LAZY_COUNT_FIELD_NAME, TypeDesc.INT);
+        b.loadConstant(count);
+        Label decoded = b.createLabel();
+        b.ifComparisonBranch(decoded, ">=");
+        b.loadThis();
+        b.loadConstant(count);
+        invokeDecodeLazy(b, wrap);
+        decoded.setLocation();
+    }
+
+    /**
+     * Generates code which invokes the lazy decoding method, with this and
+     * the end count on the stack.
+     *
+     * @param wrap when true, a CorruptEncodingException is thrown as an
+     * UndeclaredThrowableException, for methods which cannot declare it
+     */
+    private static void invokeDecodeLazy(CodeBuilder b, boolean wrap) {
+        if (!wrap) {
+            b.invokePrivate(DECODE_LAZY_METHOD_NAME, null, new TypeDesc[] {TypeDesc.INT});
+            return;
+        }
+
+        Label tryStart = b.createLabel().setLocation();
+        b.invokePrivate(DECODE_LAZY_METHOD_NAME, null, new TypeDesc[] {TypeDesc.INT});
+        Label tryEnd = b.createLabel().setLocation();
+        Label cont = b.createLabel();
+        b.branch(cont);
+
+        b.exceptionHandler(tryStart, tryEnd, CorruptEncodingException.class.getName());
+        TypeDesc undeclaredType = TypeDesc.forClass(UndeclaredThrowableException.class);
+        LocalVariable exVar = b.createLocalVariable(null, TypeDesc.OBJECT);
+        b.storeLocal(exVar);
+        b.newObject(undeclaredType);
+        b.dup();
+        b.loadLocal(exVar);
+        b.invokeConstructor(undeclaredType, new TypeDesc[] {TypeDesc.forClass(Throwable.class)});
+        b.throwObject();
+
+        cont.setLocation();
     }
 
     // Maps codec key and OrderedProperty[] keys to SearchKeyFactory instances.
@@ -298,6 +715,9 @@ public class GenericStorableCodec<S extends Storable> implements StorableCodec<S
     // Maps codec key and layout generations to Decoders.
     private static final SoftValuedCache cCodecDecoders = SoftValuedCache.newCache(11);
 
+    // Maps codec key and decoded property ranges to PartialDecoders.
+    private static final SoftValuedCache cCodecPartialDecoders = SoftValuedCache.newCache(11);
+
     private final Object mCodecKey;
     private final GenericStorableCodecFactory mFactory;
     private final Class<S> mType;
@@ -546,6 +966,93 @@ public class GenericStorableCodec<S extends Storable> implements StorableCodec<S
         }
     }
 
+    /**
+     * Returns a decoder which only decodes the properties examined by the
+     * given filter, into a reusable instance. This allows filters to be
+     * evaluated against encoded records without instantiating a new storable
+     * for each one. Null is returned if the filter examines properties which
+     * cannot be decoded this way, such as chained, derived and lob properties.
+     *
+     * @param filter filter which examines properties of this codec's type
+     * @return decoder, or null if not supported
+     * @since 1.2.4
+     */
+    @SuppressWarnings("unchecked")
+    public PartialDecoder<S> getPartialDecoder(Filter<S> filter) {
+        if (filter == null || filter.getStorableType() != mType) {
+            return null;
+        }
+
+        final Set<String> names = new HashSet<String>();
+        final boolean[] unsupported = new boolean[1];
+
+        filter.accept(new Visitor<S, Object, Object>() {
+            @Override
+            public Object visit(PropertyFilter<S> filter, Object param) {
+                ChainedProperty<S> chained = filter.getChainedProperty();
+                StorableProperty<S> prime = chained.getPrimeProperty();
+                if (chained.getChainCount() > 0 || prime.isDerived() || prime.isJoin()) {
+                    unsupported[0] = true;
+                } else {
+                    names.add(prime.getName());
+                }
+                return null;
+            }
+
+            @Override
+            public Object visit(ExistsFilter<S> filter, Object param) {
+                unsupported[0] = true;
+                return null;
+            }
+        }, null);
+
+        if (unsupported[0]) {
+            return null;
+        }
+
+        // Key properties are all decoded, but data properties are only
+        // decoded as far as the last one examined.
+
+        boolean decodeKey = false;
+        for (OrderedProperty<S> property : mEncodingStrategy.gatherAllKeyProperties()) {
+            if (names.remove(property.getChainedProperty().getPrimeProperty().getName())) {
+                decodeKey = true;
+            }
+        }
+
+        int dataEnd = 0;
+        StorableProperty<S>[] dataProperties = mEncodingStrategy.gatherAllDataProperties();
+        for (int i=0; i<dataProperties.length && !names.isEmpty(); i++) {
+            StorableProperty<S> property = dataProperties[i];
+            if (Lob.class.isAssignableFrom(property.getType())) {
+                return null;
+            }
+            if (names.remove(property.getName())) {
+                dataEnd = i + 1;
+            }
+        }
+
+        if (!names.isEmpty()) {
+            return null;
+        }
+
+        Object key = KeyFactory.createKey(new Object[] {mCodecKey, decodeKey, dataEnd});
+
+        synchronized (cCodecPartialDecoders) {
+            PartialDecoder<S> decoder = (PartialDecoder<S>) cCodecPartialDecoders.get(key);
+            if (decoder == null) {
+                try {
+                    decoder = generatePartialDecoder
+                        (decodeKey, Arrays.copyOf(dataProperties, dataEnd));
+                } catch (SupportException e) {
+                    return null;
+                }
+                cCodecPartialDecoders.put(key, decoder);
+            }
+            return decoder;
+        }
+    }
+
     @SuppressWarnings("unchecked")
     private SearchKeyFactory<S> generateSearchKeyFactory(OrderedProperty<S>[] properties) {
         ClassInjector ci;
@@ -867,6 +1374,94 @@ public class GenericStorableCodec<S extends Storable> implements StorableCodec<S
         }
     }
 
+    private PartialDecoder<S> generatePartialDecoder(boolean decodeKey,
+                                                     StorableProperty<S>[] dataProperties)
+        throws SupportException
+    {
+        ClassInjector ci = ClassInjector.create(mType.getName(), mStorableClass.getClassLoader());
+        ClassFile cf = new ClassFile(ci.getClassName());
+        cf.addInterface(PartialDecoder.class);
+        cf.markSynthetic();
+        cf.setSourceFile(GenericStorableCodec.class.getName());
+        cf.setTarget("1.5");
+
+        // Add public no-arg constructor.
+        cf.addDefaultConstructor();
+
+        // Declare some types.
+        final TypeDesc storableType = TypeDesc.forClass(Storable.class);
+        final TypeDesc byteArrayType = TypeDesc.forClass(byte[].class);
+
+        // Define the required decode method.
+        MethodInfo mi = cf.addMethod
+            (Modifiers.PUBLIC, "decode", TypeDesc.BOOLEAN,
+             new TypeDesc[] {storableType, byteArrayType, byteArrayType});
+        CodeBuilder b = new CodeBuilder(mi);
+
+        LocalVariable uncastDestVar = b.getParameter(0);
+        b.loadLocal(uncastDestVar);
+        LocalVariable destVar = b.createLocalVariable(null, TypeDesc.forClass(mStorableClass));
+        b.checkCast(destVar.getType());
+        b.storeLocal(destVar);
+
+        if (decodeKey) {
+            // assembler            = b
+            // properties           = null (defaults to all key properties)
+            // instanceVar          = "dest" storable
+            // adapterInstanceClass = null (null means use instanceVar, in this case is "dest")
+            // useWriteMethods      = false (will set fields directly)
+            // encodedVar           = "key" byte array
+            mEncodingStrategy.buildKeyDecoding(b, null, destVar, null, false, b.getParameter(1));
+        }
+
+        if (dataProperties.length == 0) {
+            b.loadConstant(true);
+            b.returnValue(TypeDesc.BOOLEAN);
+        } else {
+            LocalVariable dataVar = b.getParameter(2);
+            int generation = mLayout == null ? -1 : mLayout.getGeneration();
+            Label altGenerationHandler = generation < 0 ? null : b.createLabel();
+
+            int offset = mEncodingStrategy.buildDataDecodingPreamble
+                (b, generation, altGenerationHandler, dataVar);
+
+            LocalVariable offsetVar = b.createLocalVariable("offset", TypeDesc.INT);
+            b.loadConstant(offset);
+            b.storeLocal(offsetVar);
+            LocalVariable startVar = b.createLocalVariable("start", TypeDesc.INT);
+            b.loadConstant(0);
+            b.storeLocal(startVar);
+            LocalVariable endVar = b.createLocalVariable("end", TypeDesc.INT);
+            b.loadConstant(dataProperties.length);
+            b.storeLocal(endVar);
+
+            // Only the leading data properties are passed in, since the
+            // remaining ones aren't examined.
+            mEncodingStrategy.buildPartialDataDecoding
+                (b, dataProperties, destVar, null, false, dataVar, offsetVar, startVar, endVar);
+
+            b.loadConstant(true);
+            b.returnValue(TypeDesc.BOOLEAN);
+
+            if (altGenerationHandler != null) {
+                // Records of other generations are left to be instantiated.
+                altGenerationHandler.setLocation();
+                b.pop();
+                b.loadConstant(false);
+                b.returnValue(TypeDesc.BOOLEAN);
+            }
+        }
+
+        Class<? extends PartialDecoder> clazz = ci.defineClass(cf);
+        try {
+            return clazz.newInstance();
+        } catch (InstantiationException e) {
+            throw new UndeclaredThrowableException(e);
+        } catch (IllegalAccessException e) {
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+
     /**
      * Creates custom raw search keys for {@link Storable} types. It is
      * intended for supporting queries and indexes.
@@ -936,6 +1531,24 @@ public class GenericStorableCodec<S extends Storable> implements StorableCodec<S
         void decode(S dest, byte[] data) throws CorruptEncodingException;
     }
 
+    /**
+     * Decodes a subset of properties, for evaluating filters against encoded
+     * records.
+     *
+     * @since 1.2.4
+     * @see GenericStorableCodec#getPartialDecoder
+     */
+    public interface PartialDecoder<S extends Storable> {
+        /**
+         * @param dest reusable storable to receive decoded properties
+         * @param key encoded key
+         * @param data encoded data
+         * @return false if data is of a different layout generation, and so
+         * properties of the data were not decoded
+         */
+        boolean decode(S dest, byte[] key, byte[] data) throws CorruptEncodingException;
+    }
+
     /**
      * Compares layouts for equivalence with respect to class creation and
      * sharing.
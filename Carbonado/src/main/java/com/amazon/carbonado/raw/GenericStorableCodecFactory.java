@@ -18,6 +18,10 @@
 
 package com.amazon.carbonado.raw;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 import com.amazon.carbonado.Storable;
 import com.amazon.carbonado.SupportException;
 
@@ -33,7 +37,51 @@ import com.amazon.carbonado.layout.LayoutOptions;
  * @author Brian S O'Neill
  */
 public class GenericStorableCodecFactory implements StorableCodecFactory {
+    private final Set<String> mLazyDecodingTypes;
+    private final Set<String> mCompactKeyTypes;
+
     public GenericStorableCodecFactory() {
+        this(null);
+    }
+
+    /**
+     * @param lazyDecodingTypes optional set of storable type names whose data
+     * properties are decoded lazily
+     * @see #isLazyDecoding
+     * @since 1.2.4
+     */
+    public GenericStorableCodecFactory(Set<String> lazyDecodingTypes) {
+        this(lazyDecodingTypes, null);
+    }
+
+    /**
+     * @param lazyDecodingTypes optional set of storable type names whose data
+     * properties are decoded lazily
+     * @param compactKeyTypes optional set of storable type names whose keys
+     * use {@link KeyEncodingType#COMPACT compact} encoding
+     * @see #isLazyDecoding
+     * @see #getKeyEncodingType
+     * @since 1.2.4
+     */
+    public GenericStorableCodecFactory(Set<String> lazyDecodingTypes,
+                                       Set<String> compactKeyTypes)
+    {
+        if (lazyDecodingTypes == null || lazyDecodingTypes.isEmpty()) {
+            mLazyDecodingTypes = Collections.emptySet();
+        } else {
+            mLazyDecodingTypes = new HashSet<String>(lazyDecodingTypes);
+        }
+        if (compactKeyTypes == null || compactKeyTypes.isEmpty()) {
+            mCompactKeyTypes = Collections.emptySet();
+        } else {
+            mCompactKeyTypes = new HashSet<String>();
+            for (String name : compactKeyTypes) {
+                mCompactKeyTypes.add(name);
+                // Index entry types are named after the canonical name of
+                // their master type.
+                mCompactKeyTypes.add(name.replace('$', '.'));
+            }
+        }
     }
 
     /**
@@ -44,11 +92,17 @@ public class GenericStorableCodecFactory implements StorableCodecFactory {
     }
 
     /**
-     * Returns null.
+     * Returns options which specify the key encoding, or null if standard.
      */
     @Override
     public LayoutOptions getLayoutOptions(Class<? extends Storable> type) {
-        return null;
+        KeyEncodingType keyType = getKeyEncodingType(type);
+        if (keyType == KeyEncodingType.STANDARD) {
+            return null;
+        }
+        LayoutOptions options = new LayoutOptions();
+        options.setKeyEncoding(keyType.toString());
+        return options;
     }
 
     /**
@@ -90,10 +144,98 @@ public class GenericStorableCodecFactory implements StorableCodecFactory {
         throws SupportException
     {
         LayoutOptions options = layout == null ? getLayoutOptions(type) : layout.getOptions();
+        return createCodec(type, pkIndex, isMaster, layout, support, options);
+    }
+
+    /**
+     * @param type type of storable to create codec for
+     * @param pkIndex suggested index for primary key (optional)
+     * @param isMaster when true, version properties and sequences are managed
+     * @param layout when non-null, encode a storable layout generation
+     * value in one or four bytes. Generation 0..127 is encoded in one byte, and
+     * 128..max is encoded in four bytes, with the most significant bit set.
+     * @param support binds generated storable with a storage layer
+     * @param options layout options to use instead of those provided by the
+     * layout; pass options whose key encoding matches existing keys
+     * @throws SupportException if type is not supported
+     * @since 1.2.4
+     */
+    public <S extends Storable> GenericStorableCodec<S> createCodec(Class<S> type,
+                                                                    StorableIndex pkIndex,
+                                                                    boolean isMaster,
+                                                                    Layout layout,
+                                                                    RawSupport support,
+                                                                    LayoutOptions options)
+        throws SupportException
+    {
         return GenericStorableCodec.getInstance
             (this, createStrategy(type, pkIndex, options), isMaster, layout, support);
     }
 
+    /**
+     * Returns true if generated storables of the given type should decode
+     * their data properties lazily. Such storables retain a reference to the
+     * encoded data, and properties are decoded when first accessed. This
+     * reduces the cost of loading storables which are mostly discarded, as
+     * when scanned by a filter, or of which only a few properties are
+     * examined. Encoded data supplied to the codec must not be modified
+     * afterwards.
+     *
+     * <p>Decoding errors are deferred until the affected property is
+     * accessed. Property accessors and other methods which cannot throw a
+     * {@link com.amazon.carbonado.CorruptEncodingException
+     * CorruptEncodingException} throw it wrapped in an {@link
+     * java.lang.reflect.UndeclaredThrowableException
+     * UndeclaredThrowableException} instead. Methods which declare a
+     * FetchException, such as load, throw it directly.
+     *
+     * <p>Override to select lazy decoding by other criteria.
+     *
+     * @param type type of Storable to generate code for
+     * @since 1.2.4
+     */
+    protected boolean isLazyDecoding(Class<? extends Storable> type) {
+        return mLazyDecodingTypes.contains(type.getName());
+    }
+
+    /**
+     * Returns the desired key encoding for the given storable type. The key
+     * encoding is recorded in the layout options, but a repository might
+     * continue using the encoding of existing keys. Index entries use the
+     * same key encoding as their master type.
+     *
+     * <p>Override to select the key encoding by other criteria.
+     *
+     * @param type type of Storable to generate code for
+     * @return non-null key encoding type
+     * @since 1.2.4
+     */
+    protected KeyEncodingType getKeyEncodingType(Class<? extends Storable> type) {
+        if (!mCompactKeyTypes.isEmpty()) {
+            String name = type.getName();
+            if (mCompactKeyTypes.contains(name)) {
+                return KeyEncodingType.COMPACT;
+            }
+            int index = name.indexOf('~');
+            if (index > 0 && mCompactKeyTypes.contains(name.substring(0, index))) {
+                return KeyEncodingType.COMPACT;
+            }
+        }
+        return KeyEncodingType.STANDARD;
+    }
+
+    /**
+     * Returns the key encoding specified by the given layout options.
+     *
+     * @param options layout options (optional)
+     * @return non-null key encoding type
+     * @since 1.2.4
+     */
+    protected static KeyEncodingType getKeyEncodingType(LayoutOptions options) {
+        String name = options == null ? null : options.getKeyEncoding();
+        return name == null ? KeyEncodingType.STANDARD : KeyEncodingType.valueOf(name);
+    }
+
     /**
      * Override to return a different EncodingStrategy.
      *
@@ -119,6 +261,10 @@ public class GenericStorableCodecFactory implements StorableCodecFactory {
         (Class<S> type, StorableIndex<S> pkIndex, LayoutOptions options)
         throws SupportException
     {
+        KeyEncodingType keyType = getKeyEncodingType(options);
+        if (keyType != KeyEncodingType.STANDARD) {
+            return new GenericEncodingStrategy<S>(type, pkIndex, keyType);
+        }
         // Call into original method for backwards compatibility.
         return createStrategy(type, pkIndex);
     }
@@ -828,6 +828,204 @@ public class KeyDecoder {
         return srcEnd - originalOffset;
     }
 
+    /**
+     * Decodes a signed long from 1 to 9 bytes, as encoded by {@link
+     * KeyEncoder#encodeCompact(long, byte[], int)}. The amount of bytes read
+     * can be determined by calling decodeCompactLength.
+     *
+     * @param src source of encoded bytes
+     * @param srcOffset offset into source array
+     * @return signed long value
+     * @since 1.2.4
+     */
+    public static long decodeCompactLong(byte[] src, int srcOffset)
+        throws CorruptEncodingException
+    {
+        try {
+            int header = src[srcOffset] & 0xff;
+            long value;
+            int length;
+            if (header >= 0x80) {
+                value = 0;
+                length = header - 0x80;
+            } else {
+                value = -1;
+                length = 0x7f - header;
+            }
+            if (length > 8) {
+                throw new CorruptEncodingException
+                    ("Corrupt compact encoded value (source offset = " + srcOffset + ')');
+            }
+            for (int i=1; i<=length; i++) {
+                value = (value << 8) | (src[srcOffset + i] & 0xff);
+            }
+            return value;
+        } catch (IndexOutOfBoundsException e) {
+            throw new CorruptEncodingException(null, e);
+        }
+    }
+
+    /**
+     * Decodes a signed long from 1 to 9 bytes, as encoded by {@link
+     * KeyEncoder#encodeCompactDesc(long, byte[], int)}.
+     *
+     * @param src source of encoded bytes
+     * @param srcOffset offset into source array
+     * @return signed long value
+     * @since 1.2.4
+     */
+    public static long decodeCompactLongDesc(byte[] src, int srcOffset)
+        throws CorruptEncodingException
+    {
+        return ~decodeCompactLong(src, srcOffset);
+    }
+
+    /**
+     * Decodes a signed Long object from 1 to 9 bytes, as encoded by {@link
+     * KeyEncoder#encodeCompact(Long, byte[], int)}. If null is returned, then
+     * 1 byte was read.
+     *
+     * @param src source of encoded bytes
+     * @param srcOffset offset into source array
+     * @return signed Long object or null
+     * @since 1.2.4
+     */
+    public static Long decodeCompactLongObj(byte[] src, int srcOffset)
+        throws CorruptEncodingException
+    {
+        if (isCompactNull(src, srcOffset)) {
+            return null;
+        }
+        return decodeCompactLong(src, srcOffset);
+    }
+
+    /**
+     * Decodes a signed Long object from 1 to 9 bytes, as encoded by {@link
+     * KeyEncoder#encodeCompactDesc(Long, byte[], int)}. If null is returned,
+     * then 1 byte was read.
+     *
+     * @param src source of encoded bytes
+     * @param srcOffset offset into source array
+     * @return signed Long object or null
+     * @since 1.2.4
+     */
+    public static Long decodeCompactLongObjDesc(byte[] src, int srcOffset)
+        throws CorruptEncodingException
+    {
+        if (isCompactNull(src, srcOffset)) {
+            return null;
+        }
+        return ~decodeCompactLong(src, srcOffset);
+    }
+
+    /**
+     * Decodes a signed integer from 1 to 5 bytes, as encoded by {@link
+     * KeyEncoder#encodeCompact(int, byte[], int)}.
+     *
+     * @param src source of encoded bytes
+     * @param srcOffset offset into source array
+     * @return signed integer value
+     * @since 1.2.4
+     */
+    public static int decodeCompactInt(byte[] src, int srcOffset)
+        throws CorruptEncodingException
+    {
+        long value = decodeCompactLong(src, srcOffset);
+        if (value != (int) value) {
+            throw new CorruptEncodingException
+                ("Compact encoded value is out of int range (source offset = "
+                 + srcOffset + ')');
+        }
+        return (int) value;
+    }
+
+    /**
+     * Decodes a signed integer from 1 to 5 bytes, as encoded by {@link
+     * KeyEncoder#encodeCompactDesc(int, byte[], int)}.
+     *
+     * @param src source of encoded bytes
+     * @param srcOffset offset into source array
+     * @return signed integer value
+     * @since 1.2.4
+     */
+    public static int decodeCompactIntDesc(byte[] src, int srcOffset)
+        throws CorruptEncodingException
+    {
+        return ~decodeCompactInt(src, srcOffset);
+    }
+
+    /**
+     * Decodes a signed Integer object from 1 to 5 bytes, as encoded by {@link
+     * KeyEncoder#encodeCompact(Integer, byte[], int)}. If null is returned,
+     * then 1 byte was read.
+     *
+     * @param src source of encoded bytes
+     * @param srcOffset offset into source array
+     * @return signed Integer object or null
+     * @since 1.2.4
+     */
+    public static Integer decodeCompactIntegerObj(byte[] src, int srcOffset)
+        throws CorruptEncodingException
+    {
+        if (isCompactNull(src, srcOffset)) {
+            return null;
+        }
+        return decodeCompactInt(src, srcOffset);
+    }
+
+    /**
+     * Decodes a signed Integer object from 1 to 5 bytes, as encoded by {@link
+     * KeyEncoder#encodeCompactDesc(Integer, byte[], int)}. If null is
+     * returned, then 1 byte was read.
+     *
+     * @param src source of encoded bytes
+     * @param srcOffset offset into source array
+     * @return signed Integer object or null
+     * @since 1.2.4
+     */
+    public static Integer decodeCompactIntegerObjDesc(byte[] src, int srcOffset)
+        throws CorruptEncodingException
+    {
+        if (isCompactNull(src, srcOffset)) {
+            return null;
+        }
+        return ~decodeCompactInt(src, srcOffset);
+    }
+
+    /**
+     * Returns the amount of bytes used by a compact encoded integer or long,
+     * for ascending or descending order.
+     *
+     * @param src source of encoded bytes
+     * @param srcOffset offset into source array
+     * @return amount of bytes used by the encoded value
+     * @since 1.2.4
+     */
+    public static int decodeCompactLength(byte[] src, int srcOffset)
+        throws CorruptEncodingException
+    {
+        try {
+            int header = src[srcOffset] & 0xff;
+            if (header == (NULL_BYTE_HIGH & 0xff) || header == NULL_BYTE_LOW) {
+                return 1;
+            }
+            return 1 + (header >= 0x80 ? (header - 0x80) : (0x7f - header));
+        } catch (IndexOutOfBoundsException e) {
+            throw new CorruptEncodingException(null, e);
+        }
+    }
+
+    private static boolean isCompactNull(byte[] src, int srcOffset)
+        throws CorruptEncodingException
+    {
+        try {
+            byte b = src[srcOffset];
+            return b == NULL_BYTE_HIGH || b == NULL_BYTE_LOW;
+        } catch (IndexOutOfBoundsException e) {
+            throw new CorruptEncodingException(null, e);
+        }
+    }
+
     /**
      * Decodes the given byte array which was encoded by {@link
      * KeyEncoder#encodeSingleDesc}. Always returns a new byte array instance.
@@ -1040,6 +1040,212 @@ public class KeyEncoder {
         return encodedLen;
     }
 
+    /**
+     * Encodes the given signed long into 1 to 9 bytes, in a compact form
+     * which preserves order. The first byte encodes the sign and the amount of
+     * bytes which follow, and so values of small magnitude are encoded in
+     * fewer bytes. The amount written can be determined by calling
+     * calculateCompactEncodedLength.
+     *
+     * @param value signed long value to encode
+     * @param dst destination for encoded bytes
+     * @param dstOffset offset into destination array
+     * @return amount of bytes written
+     * @since 1.2.4
+     */
+    public static int encodeCompact(long value, byte[] dst, int dstOffset) {
+        /* Encoding of first byte:
+
+        0x00:       null low
+        0x77..0x7f: negative; 8..0 bytes follow
+        0x80..0x88: zero or positive; 0..8 bytes follow
+        0xff:       null high
+
+        Following bytes are the low order bytes of the value, in big-endian
+        order. Negative values are implicitly sign extended.
+        */
+
+        int length = compactLength(value);
+        dst[dstOffset] = (byte) (value < 0 ? (0x7f - length) : (0x80 + length));
+        for (int i=length; i>0; i--) {
+            dst[dstOffset + i] = (byte) value;
+            value >>= 8;
+        }
+        return 1 + length;
+    }
+
+    /**
+     * Encodes the given signed long into 1 to 9 bytes, in a compact form
+     * for descending order.
+     *
+     * @param value signed long value to encode
+     * @param dst destination for encoded bytes
+     * @param dstOffset offset into destination array
+     * @return amount of bytes written
+     * @since 1.2.4
+     */
+    public static int encodeCompactDesc(long value, byte[] dst, int dstOffset) {
+        // Complementing the value complements every encoded byte.
+        return encodeCompact(~value, dst, dstOffset);
+    }
+
+    /**
+     * Encodes the given signed Long object into 1 to 9 bytes, in a compact
+     * form which preserves order. If the Long object is null, exactly 1 byte
+     * is written.
+     *
+     * @param value optional signed Long value to encode
+     * @param dst destination for encoded bytes
+     * @param dstOffset offset into destination array
+     * @return amount of bytes written
+     * @since 1.2.4
+     */
+    public static int encodeCompact(Long value, byte[] dst, int dstOffset) {
+        if (value == null) {
+            dst[dstOffset] = NULL_BYTE_HIGH;
+            return 1;
+        }
+        return encodeCompact(value.longValue(), dst, dstOffset);
+    }
+
+    /**
+     * Encodes the given signed Long object into 1 to 9 bytes, in a compact
+     * form for descending order. If the Long object is null, exactly 1 byte
+     * is written.
+     *
+     * @param value optional signed Long value to encode
+     * @param dst destination for encoded bytes
+     * @param dstOffset offset into destination array
+     * @return amount of bytes written
+     * @since 1.2.4
+     */
+    public static int encodeCompactDesc(Long value, byte[] dst, int dstOffset) {
+        if (value == null) {
+            dst[dstOffset] = NULL_BYTE_LOW;
+            return 1;
+        }
+        return encodeCompact(~value.longValue(), dst, dstOffset);
+    }
+
+    /**
+     * Encodes the given signed integer into 1 to 5 bytes, in a compact form
+     * which preserves order. The encoding is the same as for a long of the
+     * same value.
+     *
+     * @param value signed integer value to encode
+     * @param dst destination for encoded bytes
+     * @param dstOffset offset into destination array
+     * @return amount of bytes written
+     * @since 1.2.4
+     */
+    public static int encodeCompact(int value, byte[] dst, int dstOffset) {
+        return encodeCompact((long) value, dst, dstOffset);
+    }
+
+    /**
+     * Encodes the given signed integer into 1 to 5 bytes, in a compact form
+     * for descending order.
+     *
+     * @param value signed integer value to encode
+     * @param dst destination for encoded bytes
+     * @param dstOffset offset into destination array
+     * @return amount of bytes written
+     * @since 1.2.4
+     */
+    public static int encodeCompactDesc(int value, byte[] dst, int dstOffset) {
+        return encodeCompact((long) ~value, dst, dstOffset);
+    }
+
+    /**
+     * Encodes the given signed Integer object into 1 to 5 bytes, in a compact
+     * form which preserves order. If the Integer object is null, exactly 1
+     * byte is written.
+     *
+     * @param value optional signed Integer value to encode
+     * @param dst destination for encoded bytes
+     * @param dstOffset offset into destination array
+     * @return amount of bytes written
+     * @since 1.2.4
+     */
+    public static int encodeCompact(Integer value, byte[] dst, int dstOffset) {
+        if (value == null) {
+            dst[dstOffset] = NULL_BYTE_HIGH;
+            return 1;
+        }
+        return encodeCompact((long) value.intValue(), dst, dstOffset);
+    }
+
+    /**
+     * Encodes the given signed Integer object into 1 to 5 bytes, in a compact
+     * form for descending order. If the Integer object is null, exactly 1
+     * byte is written.
+     *
+     * @param value optional signed Integer value to encode
+     * @param dst destination for encoded bytes
+     * @param dstOffset offset into destination array
+     * @return amount of bytes written
+     * @since 1.2.4
+     */
+    public static int encodeCompactDesc(Integer value, byte[] dst, int dstOffset) {
+        if (value == null) {
+            dst[dstOffset] = NULL_BYTE_LOW;
+            return 1;
+        }
+        return encodeCompact((long) ~value.intValue(), dst, dstOffset);
+    }
+
+    /**
+     * Returns the amount of bytes required to encode a long in compact form,
+     * for ascending or descending order.
+     *
+     * @since 1.2.4
+     */
+    public static int calculateCompactEncodedLength(long value) {
+        return 1 + compactLength(value);
+    }
+
+    /**
+     * Returns the amount of bytes required to encode a Long in compact form,
+     * for ascending or descending order.
+     *
+     * @param value Long value to encode, may be null
+     * @since 1.2.4
+     */
+    public static int calculateCompactEncodedLength(Long value) {
+        return value == null ? 1 : (1 + compactLength(value.longValue()));
+    }
+
+    /**
+     * Returns the amount of bytes required to encode an int in compact form,
+     * for ascending or descending order.
+     *
+     * @since 1.2.4
+     */
+    public static int calculateCompactEncodedLength(int value) {
+        return 1 + compactLength(value);
+    }
+
+    /**
+     * Returns the amount of bytes required to encode an Integer in compact
+     * form, for ascending or descending order.
+     *
+     * @param value Integer value to encode, may be null
+     * @since 1.2.4
+     */
+    public static int calculateCompactEncodedLength(Integer value) {
+        return value == null ? 1 : (1 + compactLength(value.intValue()));
+    }
+
+    /**
+     * Returns the amount of bytes which follow the compact encoding header.
+     */
+    private static int compactLength(long value) {
+        if (value < 0) {
+            value = ~value;
+        }
+        return (71 - Long.numberOfLeadingZeros(value)) >> 3;
+    }
+
     /**
      * Encodes the given byte array for use when there is only a single
      * required property, descending order, whose type is a byte array. The
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.raw;
+
+/**
+ * Available key encodings for any particular storable. The key encoding
+ * applies to the primary key of the storable, and to the keys of index
+ * entries, which are also storables.
+ *
+ * @author Brian S O'Neill
+ * @see GenericStorableCodecFactory
+ * @since 1.2.4
+ */
+public enum KeyEncodingType {
+    /**
+     * Fixed length encoding of primitive numbers, as produced by {@link
+     * KeyEncoder} and {@link DataEncoder}.
+     */
+    STANDARD,
+    /**
+     * Variable length encoding of int and long numbers, which is still order
+     * preserving. Values of small magnitude require fewer bytes, which
+     * improves B-tree fan-out when keys have such properties.
+     *
+     * @see KeyEncoder#encodeCompact(long, byte[], int)
+     */
+    COMPACT;
+}
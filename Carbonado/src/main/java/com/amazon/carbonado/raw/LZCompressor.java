@@ -0,0 +1,590 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.raw;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.amazon.carbonado.CorruptEncodingException;
+
+/**
+ * Raw-level data compression using a fast LZ77 codec, which favors speed
+ * over compression ratio. The encoding is a sequence of literal runs and back
+ * references, similar to LZ4. Compression can optionally be primed with a
+ * shared dictionary, which is effective for small records which have much in
+ * common with each other, but little redundancy within themselves.
+ *
+ * @author Brian S O'Neill
+ * @see #trainDictionary
+ * @since 1.2.4
+ */
+public class LZCompressor {
+    // NOTE: Class has to be public since it is accessed by generated code.
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xffff;
+    // Trailing bytes which are always encoded as literals.
+    private static final int LAST_LITERALS = 5;
+
+    private static final int HASH_BITS = 12;
+
+    // Header byte which follows the preserved prefix.
+    private static final byte STORED = 0, COMPRESSED = 1;
+
+    private static final ThreadLocal<Buffers> cLocalBuffers = new ThreadLocal<Buffers>();
+
+    private static final ConcurrentMap<String, Dictionary> cDictionaries =
+        new ConcurrentHashMap<String, Dictionary>();
+
+    /**
+     * Encodes into compressed form.
+     *
+     * @param value value to compress
+     * @param prefix prefix of byte array to preserve
+     * @return compressed value
+     */
+    public static byte[] compress(byte[] value, int prefix) {
+        return compress(value, prefix, (Dictionary) null);
+    }
+
+    /**
+     * Encodes into compressed form, using a registered dictionary.
+     *
+     * @param value value to compress
+     * @param prefix prefix of byte array to preserve
+     * @param dictionaryId identifier returned by {@link #registerDictionary}
+     * @return compressed value
+     * @throws IllegalStateException if dictionary isn't registered
+     */
+    public static byte[] compress(byte[] value, int prefix, String dictionaryId) {
+        return compress(value, prefix, dictionary(dictionaryId));
+    }
+
+    /**
+     * Decodes from compressed form.
+     *
+     * @param value value to decompress
+     * @param prefix prefix of byte array to preserve
+     * @return decompressed value
+     * @throws CorruptEncodingException thrown if value cannot be decompressed
+     */
+    public static byte[] decompress(byte[] value, int prefix) throws CorruptEncodingException {
+        return decompress(value, prefix, (Dictionary) null);
+    }
+
+    /**
+     * Decodes from compressed form, using a registered dictionary.
+     *
+     * @param value value to decompress
+     * @param prefix prefix of byte array to preserve
+     * @param dictionaryId identifier returned by {@link #registerDictionary}
+     * @return decompressed value
+     * @throws CorruptEncodingException thrown if value cannot be decompressed
+     * @throws IllegalStateException if dictionary isn't registered
+     */
+    public static byte[] decompress(byte[] value, int prefix, String dictionaryId)
+        throws CorruptEncodingException
+    {
+        return decompress(value, prefix, dictionary(dictionaryId));
+    }
+
+    /**
+     * Registers a dictionary for use by the compress and decompress methods,
+     * returning an identifier derived from its contents. Registering the same
+     * contents again returns the same identifier.
+     *
+     * @param dictionary dictionary contents, of which at most the last 65535
+     * bytes are used
+     * @return dictionary identifier
+     * @throws IllegalArgumentException if dictionary is null or empty
+     */
+    public static String registerDictionary(byte[] dictionary) {
+        if (dictionary == null || dictionary.length == 0) {
+            throw new IllegalArgumentException("Dictionary is empty");
+        }
+        if (dictionary.length > MAX_OFFSET) {
+            dictionary = Arrays.copyOfRange
+                (dictionary, dictionary.length - MAX_OFFSET, dictionary.length);
+        }
+
+        String baseId = dictionary.length + ":" + Integer.toHexString(Arrays.hashCode(dictionary));
+        String id = baseId;
+        for (int i=1; ; i++) {
+            Dictionary dict = cDictionaries.get(id);
+            if (dict == null) {
+                dict = new Dictionary(dictionary);
+                Dictionary existing = cDictionaries.putIfAbsent(id, dict);
+                if (existing == null) {
+                    return id;
+                }
+                dict = existing;
+            }
+            if (Arrays.equals(dict.mBytes, dictionary)) {
+                return id;
+            }
+            // Hash collision.
+            id = baseId + '.' + i;
+        }
+    }
+
+    /**
+     * Builds a dictionary from sample values, by selecting the segments which
+     * contain the most byte sequences shared among the samples. Samples
+     * should be encoded records of a single storable type, without any key
+     * prefix.
+     *
+     * @param samples sample values to train with
+     * @param maxSize maximum dictionary size, which should be at most 65535
+     * @return dictionary, which is empty if samples have nothing in common
+     * @throws IllegalArgumentException if samples is null or if max size is
+     * not positive
+     */
+    public static byte[] trainDictionary(Collection<byte[]> samples, int maxSize) {
+        if (samples == null || maxSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+
+        final int gram = 8;
+        final int segment = 32;
+
+        // Count the amount of samples which contain each gram.
+        Map<Long, Integer> counts = new HashMap<Long, Integer>();
+        Set<Long> seen = new HashSet<Long>();
+        for (byte[] sample : samples) {
+            seen.clear();
+            for (int i=0; i + gram <= sample.length; i++) {
+                Long key = readLong(sample, i);
+                if (seen.add(key)) {
+                    Integer count = counts.get(key);
+                    counts.put(key, count == null ? 1 : (count + 1));
+                }
+            }
+        }
+
+        PriorityQueue<Segment> queue = new PriorityQueue<Segment>();
+        for (byte[] sample : samples) {
+            for (int i=0; i + gram <= sample.length; i += segment / 2) {
+                Segment s = new Segment(sample, i, Math.min(sample.length, i + segment));
+                if (s.score(counts, gram) > 0) {
+                    queue.add(s);
+                }
+            }
+        }
+
+        // Greedily select the best segments. Scores only decrease as grams
+        // are covered, and so a segment whose score is still at least as
+        // good as the next best can be selected without rescoring the rest.
+        List<Segment> selected = new ArrayList<Segment>();
+        int size = 0;
+        while (size < maxSize && !queue.isEmpty()) {
+            Segment s = queue.poll();
+            long score = s.mScore;
+            if (s.score(counts, gram) <= 0) {
+                continue;
+            }
+            if (s.mScore < score && !queue.isEmpty() && s.mScore < queue.peek().mScore) {
+                queue.add(s);
+                continue;
+            }
+            for (int i=s.mStart; i + gram <= s.mEnd; i++) {
+                counts.remove(readLong(s.mSample, i));
+            }
+            selected.add(s);
+            size += s.mEnd - s.mStart;
+        }
+
+        // Place the best segments at the end, where offsets are shortest and
+        // which is kept if the dictionary is truncated.
+        byte[] dictionary = new byte[Math.min(size, maxSize)];
+        int pos = dictionary.length;
+        for (Segment s : selected) {
+            int length = Math.min(pos, s.mEnd - s.mStart);
+            pos -= length;
+            System.arraycopy(s.mSample, s.mStart, dictionary, pos, length);
+            if (pos == 0) {
+                break;
+            }
+        }
+
+        return dictionary;
+    }
+
+    private static Dictionary dictionary(String id) {
+        Dictionary dict = cDictionaries.get(id);
+        if (dict == null) {
+            throw new IllegalStateException("Compression dictionary not registered: " + id);
+        }
+        return dict;
+    }
+
+    private static byte[] compress(byte[] value, int prefix, Dictionary dict) {
+        Buffers buffers = cLocalBuffers.get();
+        if (buffers == null) {
+            cLocalBuffers.set(buffers = new Buffers());
+        }
+
+        int length = value.length - prefix;
+
+        byte[] src;
+        int start, base;
+        int[] table = buffers.mTable;
+
+        if (dict == null || length < MIN_MATCH + LAST_LITERALS) {
+            src = value;
+            start = prefix;
+            base = prefix;
+            Arrays.fill(table, -1);
+        } else {
+            // Compress as if value immediately follows the dictionary.
+            byte[] dictBytes = dict.mBytes;
+            src = buffers.work(dictBytes.length + length);
+            System.arraycopy(dictBytes, 0, src, 0, dictBytes.length);
+            System.arraycopy(value, prefix, src, dictBytes.length, length);
+            start = dictBytes.length;
+            base = 0;
+            System.arraycopy(dict.mTable, 0, table, 0, table.length);
+        }
+
+        // Worst case expansion of literals, plus room for header.
+        byte[] dst = buffers.output(prefix + 1 + 5 + length + length / 255 + 16);
+        System.arraycopy(value, 0, dst, 0, prefix);
+
+        int dstPos = prefix;
+        dst[dstPos++] = COMPRESSED;
+        dstPos = writeVarInt(dst, dstPos, length);
+
+        dstPos = encode(src, base, start, start + length, table, dst, dstPos);
+
+        if (dstPos >= value.length + 1) {
+            // Not compressible, so store as is.
+            byte[] result = new byte[value.length + 1];
+            System.arraycopy(value, 0, result, 0, prefix);
+            result[prefix] = STORED;
+            System.arraycopy(value, prefix, result, prefix + 1, length);
+            return result;
+        }
+
+        return Arrays.copyOf(dst, dstPos);
+    }
+
+    /**
+     * @return updated destination position
+     */
+    private static int encode(byte[] src, int base, int start, int end,
+                              int[] table, byte[] dst, int dstPos)
+    {
+        int anchor = start;
+        int matchLimit = end - LAST_LITERALS;
+        int i = start;
+
+        while (i + MIN_MATCH <= matchLimit) {
+            int seq = readInt(src, i);
+            int h = hash(seq);
+            int ref = table[h];
+            table[h] = i;
+
+            if (ref < base || i - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                i++;
+                continue;
+            }
+
+            // Extend match backwards over pending literals.
+            while (i > anchor && ref > base && src[i - 1] == src[ref - 1]) {
+                i--;
+                ref--;
+            }
+
+            int matchLen = MIN_MATCH;
+            while (i + matchLen < matchLimit && src[i + matchLen] == src[ref + matchLen]) {
+                matchLen++;
+            }
+
+            dstPos = writeSequence(src, anchor, i - anchor, i - ref, matchLen, dst, dstPos);
+
+            i += matchLen;
+            anchor = i;
+
+            if (i - 2 >= start && i + 2 <= end) {
+                table[hash(readInt(src, i - 2))] = i - 2;
+            }
+        }
+
+        // Remaining literals, without a match.
+        int litLen = end - anchor;
+        dst[dstPos++] = (byte) (Math.min(litLen, 15) << 4);
+        dstPos = writeLength(dst, dstPos, litLen);
+        System.arraycopy(src, anchor, dst, dstPos, litLen);
+        return dstPos + litLen;
+    }
+
+    private static int writeSequence(byte[] src, int litStart, int litLen,
+                                     int offset, int matchLen,
+                                     byte[] dst, int dstPos)
+    {
+        int extMatchLen = matchLen - MIN_MATCH;
+        dst[dstPos++] = (byte) ((Math.min(litLen, 15) << 4) | Math.min(extMatchLen, 15));
+        dstPos = writeLength(dst, dstPos, litLen);
+        System.arraycopy(src, litStart, dst, dstPos, litLen);
+        dstPos += litLen;
+        dst[dstPos++] = (byte) offset;
+        dst[dstPos++] = (byte) (offset >> 8);
+        return writeLength(dst, dstPos, extMatchLen);
+    }
+
+    /**
+     * Writes the extended portion of a length, if the token couldn't hold it.
+     */
+    private static int writeLength(byte[] dst, int dstPos, int length) {
+        if (length >= 15) {
+            length -= 15;
+            while (length >= 255) {
+                dst[dstPos++] = (byte) 255;
+                length -= 255;
+            }
+            dst[dstPos++] = (byte) length;
+        }
+        return dstPos;
+    }
+
+    private static byte[] decompress(byte[] value, int prefix, Dictionary dict)
+        throws CorruptEncodingException
+    {
+        if (value.length <= prefix) {
+            return value;
+        }
+
+        try {
+            int srcPos = prefix;
+            byte header = value[srcPos++];
+
+            if (header == STORED) {
+                byte[] result = new byte[value.length - 1];
+                System.arraycopy(value, 0, result, 0, prefix);
+                System.arraycopy(value, srcPos, result, prefix, value.length - srcPos);
+                return result;
+            }
+
+            if (header != COMPRESSED) {
+                throw new CorruptEncodingException("Unknown compression header: " + header);
+            }
+
+            int length = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = value[srcPos++];
+                length |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    break;
+                }
+                if (shift >= 28) {
+                    throw new CorruptEncodingException("Invalid length");
+                }
+            }
+
+            byte[] dst = new byte[prefix + length];
+            System.arraycopy(value, 0, dst, 0, prefix);
+
+            decode(value, srcPos, dst, prefix, dict == null ? null : dict.mBytes);
+
+            return dst;
+        } catch (IndexOutOfBoundsException e) {
+            throw new CorruptEncodingException(e);
+        } catch (NegativeArraySizeException e) {
+            throw new CorruptEncodingException(e);
+        }
+    }
+
+    private static void decode(byte[] src, int srcPos, byte[] dst, int dstStart, byte[] dict)
+        throws CorruptEncodingException
+    {
+        int dstPos = dstStart;
+        int dstEnd = dst.length;
+
+        while (true) {
+            int token = src[srcPos++] & 0xff;
+
+            int litLen = token >>> 4;
+            if (litLen == 15) {
+                int b;
+                do {
+                    b = src[srcPos++] & 0xff;
+                    litLen += b;
+                } while (b == 255);
+            }
+
+            if (litLen > dstEnd - dstPos) {
+                throw new CorruptEncodingException("Literals overrun");
+            }
+            System.arraycopy(src, srcPos, dst, dstPos, litLen);
+            srcPos += litLen;
+            dstPos += litLen;
+
+            if (dstPos >= dstEnd) {
+                return;
+            }
+
+            int offset = (src[srcPos] & 0xff) | ((src[srcPos + 1] & 0xff) << 8);
+            srcPos += 2;
+
+            int matchLen = token & 15;
+            if (matchLen == 15) {
+                int b;
+                do {
+                    b = src[srcPos++] & 0xff;
+                    matchLen += b;
+                } while (b == 255);
+            }
+            matchLen += MIN_MATCH;
+
+            if (offset == 0 || matchLen > dstEnd - dstPos) {
+                throw new CorruptEncodingException("Invalid match");
+            }
+
+            int from = dstPos - offset;
+
+            if (from < dstStart) {
+                // Match begins in the dictionary.
+                int dictPos = (dict == null ? 0 : dict.length) - (dstStart - from);
+                if (dictPos < 0) {
+                    throw new CorruptEncodingException("Invalid match offset");
+                }
+                int amt = Math.min(matchLen, dict.length - dictPos);
+                System.arraycopy(dict, dictPos, dst, dstPos, amt);
+                dstPos += amt;
+                matchLen -= amt;
+                from = dstStart;
+            }
+
+            if (matchLen <= dstPos - from) {
+                System.arraycopy(dst, from, dst, dstPos, matchLen);
+                dstPos += matchLen;
+            } else {
+                // Overlapping copy repeats a pattern.
+                while (--matchLen >= 0) {
+                    dst[dstPos++] = dst[from++];
+                }
+            }
+        }
+    }
+
+    private static int writeVarInt(byte[] dst, int dstPos, int value) {
+        while ((value & ~0x7f) != 0) {
+            dst[dstPos++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        dst[dstPos++] = (byte) value;
+        return dstPos;
+    }
+
+    private static int readInt(byte[] b, int pos) {
+        return (b[pos] & 0xff) | ((b[pos + 1] & 0xff) << 8)
+            | ((b[pos + 2] & 0xff) << 16) | (b[pos + 3] << 24);
+    }
+
+    private static long readLong(byte[] b, int pos) {
+        return (readInt(b, pos) & 0xffffffffL) | (((long) readInt(b, pos + 4)) << 32);
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_BITS);
+    }
+
+    /**
+     * Per-thread scratch space, to avoid allocations.
+     */
+    private static class Buffers {
+        final int[] mTable = new int[1 << HASH_BITS];
+        private byte[] mWork;
+        private byte[] mOutput;
+
+        byte[] work(int size) {
+            byte[] work = mWork;
+            if (work == null || work.length < size) {
+                mWork = work = new byte[size];
+            }
+            return work;
+        }
+
+        byte[] output(int size) {
+            byte[] output = mOutput;
+            if (output == null || output.length < size) {
+                mOutput = output = new byte[size];
+            }
+            return output;
+        }
+    }
+
+    private static class Dictionary {
+        final byte[] mBytes;
+        // Hash table primed with dictionary positions.
+        final int[] mTable;
+
+        Dictionary(byte[] bytes) {
+            mBytes = bytes;
+            int[] table = new int[1 << HASH_BITS];
+            Arrays.fill(table, -1);
+            for (int i=0; i + MIN_MATCH <= bytes.length; i++) {
+                table[hash(readInt(bytes, i))] = i;
+            }
+            mTable = table;
+        }
+    }
+
+    private static class Segment implements Comparable<Segment> {
+        final byte[] mSample;
+        final int mStart;
+        final int mEnd;
+        long mScore;
+
+        Segment(byte[] sample, int start, int end) {
+            mSample = sample;
+            mStart = start;
+            mEnd = end;
+        }
+
+        /**
+         * Scores the segment by the amount of samples which share each of
+         * its remaining grams.
+         */
+        long score(Map<Long, Integer> counts, int gram) {
+            long score = 0;
+            for (int i=mStart; i + gram <= mEnd; i++) {
+                Integer count = counts.get(readLong(mSample, i));
+                if (count != null && count > 1) {
+                    score += count;
+                }
+            }
+            return mScore = score;
+        }
+
+        // Highest score first.
+        public int compareTo(Segment other) {
+            return mScore > other.mScore ? -1 : (mScore < other.mScore ? 1 : 0);
+        }
+    }
+}
@@ -25,13 +25,23 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.cursor.AbstractCursor;
+import com.amazon.carbonado.cursor.FilterPushDownCursor;
+import com.amazon.carbonado.cursor.FilteredCursor;
+
+import com.amazon.carbonado.filter.Filter;
 
 /**
  * Abstract Cursor implementation for a repository that manipulates raw bytes.
+ * If a filter is pushed down and the subclass supports {@link
+ * #prepareFilterInstance decoding} the properties it examines, entries are
+ * evaluated against a reusable instance, and rejected entries are never
+ * instantiated.
  *
  * @author Brian S O'Neill
  */
-public abstract class RawCursor<S> extends AbstractCursor<S> {
+public abstract class RawCursor<S> extends AbstractCursor<S>
+    implements FilterPushDownCursor<S>
+{
     // States for mState.
     private static final byte
         UNINITIALIZED = 0,
@@ -51,6 +61,12 @@ public abstract class RawCursor<S> extends AbstractCursor<S> {
 
     private byte mState;
 
+    // Pushed down filter and the reusable instance it is evaluated against.
+    private FilteredCursor<S> mFilter;
+    private S mFilterInstance;
+    // Current entry, if it had to be instantiated to be evaluated.
+    private S mCurrent;
+
     /**
      * @param lock operations lock on this object
      * @param startBound specify the starting key for the cursor, or null if first
@@ -99,6 +115,8 @@ public abstract class RawCursor<S> extends AbstractCursor<S> {
         mLock.lock();
         try {
             if (mState != CLOSED) {
+                mFilterInstance = null;
+                mCurrent = null;
                 release();
                 // Switch state to closed before committing transaction, to
                 // prevent infinite recursion that results when transaction
@@ -116,7 +134,9 @@ public abstract class RawCursor<S> extends AbstractCursor<S> {
             try {
                 switch (mState) {
                 case UNINITIALIZED:
-                    if (mReverse ? toBoundedLast() : toBoundedFirst()) {
+                    if ((mReverse ? toBoundedLast() : toBoundedFirst()) &&
+                        (isCurrentAllowed() || toAllowedNext()))
+                    {
                         mState = HAS_NEXT;
                         return true;
                     } else {
@@ -128,7 +148,7 @@ public abstract class RawCursor<S> extends AbstractCursor<S> {
                     return false;
 
                 case TRY_NEXT:
-                    if (mReverse ? toBoundedPrevious() : toBoundedNext()) {
+                    if (toAllowedNext()) {
                         mState = HAS_NEXT;
                         return true;
                     }
@@ -164,7 +184,12 @@ public abstract class RawCursor<S> extends AbstractCursor<S> {
                 throw new NoSuchElementException();
             }
             try {
-                S obj = instantiateCurrent();
+                S obj = mCurrent;
+                if (obj == null) {
+                    obj = instantiateCurrent();
+                } else {
+                    mCurrent = null;
+                }
                 mState = TRY_NEXT;
                 return obj;
             } catch (FetchException e) {
@@ -194,6 +219,16 @@ public abstract class RawCursor<S> extends AbstractCursor<S> {
         try {
             int actual = 0;
 
+            if (mFilter != null) {
+                // Only allowed entries count, and so each must be evaluated.
+                while (actual < amount && hasNext()) {
+                    mCurrent = null;
+                    mState = TRY_NEXT;
+                    actual++;
+                }
+                return actual;
+            }
+
             if (hasNext()) {
                 try {
                     actual += mReverse ? toBoundedPrevious(amount) : toBoundedNext(amount);
@@ -225,6 +260,36 @@ public abstract class RawCursor<S> extends AbstractCursor<S> {
         }
     }
 
+    /**
+     * Accepts the filter if the cursor hasn't been advanced yet, and if the
+     * subclass supplies an instance to evaluate it against.
+     *
+     * @since 1.2.4
+     */
+    public boolean pushDownFilter(Filter<?> filter, FilteredCursor<S> evaluator) {
+        mLock.lock();
+        try {
+            if (mState != UNINITIALIZED || mFilter != null) {
+                return false;
+            }
+            S instance;
+            try {
+                instance = prepareFilterInstance(filter);
+            } catch (FetchException e) {
+                // Filter is applied by the caller instead.
+                return false;
+            }
+            if (instance == null) {
+                return false;
+            }
+            mFilter = evaluator;
+            mFilterInstance = instance;
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
     /**
      * Release any internal resources, called when closed.
      */
@@ -286,6 +351,33 @@ public abstract class RawCursor<S> extends AbstractCursor<S> {
      */
     protected abstract S instantiateCurrent() throws FetchException;
 
+    /**
+     * Called when a filter is pushed down, to prepare for decoding just the
+     * properties it examines. The default implementation returns null,
+     * which rejects the filter.
+     *
+     * @param filter bound filter being pushed down
+     * @return reusable instance to decode entries into, or null if filter
+     * cannot be evaluated by this cursor
+     * @since 1.2.4
+     */
+    protected S prepareFilterInstance(Filter<?> filter) throws FetchException {
+        return null;
+    }
+
+    /**
+     * Decodes the properties examined by the pushed down filter, from the
+     * currently referenced entry into the given instance. The default
+     * implementation returns false.
+     *
+     * @param instance instance returned by prepareFilterInstance
+     * @return false if the entry must be fully instantiated instead
+     * @since 1.2.4
+     */
+    protected boolean decodeCurrent(S instance) throws FetchException {
+        return false;
+    }
+
     /**
      * Move the cursor to the first available entry. If false is returned, the
      * cursor must be positioned before the first available entry.
@@ -495,6 +587,40 @@ public abstract class RawCursor<S> extends AbstractCursor<S> {
         return true;
     }
 
+    /**
+     * Returns true if no filter has been pushed down, or if the filter allows
+     * the currently referenced entry.
+     */
+    private boolean isCurrentAllowed() throws FetchException {
+        FilteredCursor<S> filter = mFilter;
+        if (filter == null) {
+            return true;
+        }
+        S instance = mFilterInstance;
+        if (!decodeCurrent(instance)) {
+            mCurrent = instance = instantiateCurrent();
+        }
+        if (filter.evaluate(instance)) {
+            return true;
+        }
+        mCurrent = null;
+        return false;
+    }
+
+    /**
+     * Moves to the next allowed entry, in iteration order.
+     *
+     * @return false if no more entries
+     */
+    private boolean toAllowedNext() throws FetchException {
+        while (mReverse ? toBoundedPrevious() : toBoundedNext()) {
+            if (isCurrentAllowed()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Returns {@literal <0} if key1 is less, 0 if equal (at least partially),
      * {@literal >0} if key1 is greater.
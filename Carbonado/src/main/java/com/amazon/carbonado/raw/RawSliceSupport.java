@@ -0,0 +1,97 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.raw;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Storable;
+
+/**
+ * Optional extension of {@link RawSupport} which accepts keys and values as
+ * slices of larger arrays. Storables generated by {@link
+ * GenericStorableCodec} encode into a reusable {@link EncodingBuffer} when
+ * their support implements this interface, avoiding an allocation per encode.
+ *
+ * <p>Arrays passed to these methods are reused once the method returns, and
+ * so implementations must copy anything they retain.
+ *
+ * @author Brian S O'Neill
+ * @since 1.2.4
+ */
+public interface RawSliceSupport<S extends Storable> extends RawSupport<S> {
+    /**
+     * Try to load the entry referenced by the given key, but return null
+     * if not found.
+     *
+     * @param storable user storable which will have its properties set
+     * @param key non-null array containing key to search for
+     * @param keyOffset offset of key in array
+     * @param keyLength length of key
+     * @return non-null value that was found, or null if not found
+     */
+    byte[] tryLoad(S storable, byte[] key, int keyOffset, int keyLength)
+        throws FetchException;
+
+    /**
+     * Try to insert the entry referenced by the given key with the given
+     * value.
+     *
+     * @param storable user storable that key and value were derived from
+     * @param key non-null array containing key to insert
+     * @param keyOffset offset of key in array
+     * @param keyLength length of key
+     * @param value non-null array containing value to insert
+     * @param valueOffset offset of value in array
+     * @param valueLength length of value
+     * @return false if unique constraint prevents insert
+     */
+    boolean tryInsert(S storable,
+                      byte[] key, int keyOffset, int keyLength,
+                      byte[] value, int valueOffset, int valueLength)
+        throws PersistException;
+
+    /**
+     * Try to store the entry referenced by the given key with the given
+     * value. If the entry does not exist, insert it. Otherwise, update it.
+     *
+     * @param storable user storable that key and value were derived from
+     * @param key non-null array containing key to store
+     * @param keyOffset offset of key in array
+     * @param keyLength length of key
+     * @param value non-null array containing value to store
+     * @param valueOffset offset of value in array
+     * @param valueLength length of value
+     */
+    void store(S storable,
+               byte[] key, int keyOffset, int keyLength,
+               byte[] value, int valueOffset, int valueLength)
+        throws PersistException;
+
+    /**
+     * Try to delete the entry referenced by the given key.
+     *
+     * @param storable user supplied storable object
+     * @param key non-null array containing key to delete
+     * @param keyOffset offset of key in array
+     * @param keyLength length of key
+     * @return true if entry existed and is now deleted
+     */
+    boolean tryDelete(S storable, byte[] key, int keyOffset, int keyLength)
+        throws PersistException;
+}
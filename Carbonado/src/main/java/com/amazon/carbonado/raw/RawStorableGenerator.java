@@ -43,6 +43,7 @@ import com.amazon.carbonado.SupportException;
 import com.amazon.carbonado.info.StorableIntrospector;
 import com.amazon.carbonado.info.StorableProperty;
 
+import com.amazon.carbonado.gen.GeneratedClassCache;
 import com.amazon.carbonado.gen.MasterFeature;
 import com.amazon.carbonado.gen.MasterStorableGenerator;
 import com.amazon.carbonado.gen.MasterSupport;
@@ -145,6 +146,19 @@ public class RawStorableGenerator {
      * protected abstract void decodeData(byte[]);
      * </pre>
      *
+     * <p>Subclasses may also override the following methods, which are
+     * called instead of the abstract encoding methods when the {@link
+     * RawSupport} is a {@link RawSliceSupport}:
+     *
+     * <pre>
+     * // Encode the primary key of this storable into the buffer.
+     * protected void encodeKey(EncodingBuffer);
+     *
+     * // Encode all properties of this storable excluding the primary key
+     * // into the buffer.
+     * protected void encodeData(EncodingBuffer);
+     * </pre>
+     *
      * @param isMaster when true, version properties, sequences, and triggers are managed
      * @throws IllegalArgumentException if type is null
      */
@@ -192,6 +206,14 @@ public class RawStorableGenerator {
         final Class<? extends S> abstractClass =
             MasterStorableGenerator.getAbstractClass(storableClass, features);
 
+        String cacheKey = GeneratedClassCache.keyFor
+            (RawStorableGenerator.class, storableClass, abstractClass, isMaster);
+        Class<? extends S> cached = (Class<? extends S>)
+            GeneratedClassCache.load(cacheKey, abstractClass.getClassLoader());
+        if (cached != null) {
+            return cached;
+        }
+
         ClassInjector ci = ClassInjector.create
             (storableClass.getName(), abstractClass.getClassLoader());
 
@@ -300,6 +322,32 @@ public class RawStorableGenerator {
                          DECODE_DATA_METHOD_NAME, null, new TypeDesc[]{byteArrayType});
         }
 
+        final TypeDesc rawSliceSupportType = TypeDesc.forClass(RawSliceSupport.class);
+        final TypeDesc bufferType = TypeDesc.forClass(EncodingBuffer.class);
+
+        // Add protected methods which encode into a reusable buffer. By
+        // default, they set the array returned by the abstract methods.
+        {
+            TypeDesc[] params = {bufferType};
+
+            MethodInfo mi = cf.addMethod
+                (Modifiers.PROTECTED, ENCODE_KEY_METHOD_NAME, null, params);
+            CodeBuilder b = new CodeBuilder(mi);
+            b.loadLocal(b.getParameter(0));
+            b.loadThis();
+            b.invokeVirtual(ENCODE_KEY_METHOD_NAME, byteArrayType, null);
+            b.invokeVirtual(bufferType, "setKey", null, new TypeDesc[] {byteArrayType});
+            b.returnVoid();
+
+            mi = cf.addMethod(Modifiers.PROTECTED, ENCODE_DATA_METHOD_NAME, null, params);
+            b = new CodeBuilder(mi);
+            b.loadLocal(b.getParameter(0));
+            b.loadThis();
+            b.invokeVirtual(ENCODE_DATA_METHOD_NAME, byteArrayType, null);
+            b.invokeVirtual(bufferType, "setData", null, new TypeDesc[] {byteArrayType});
+            b.returnVoid();
+        }
+
         // Add required protected doTryLoad_master method, which delegates to RawSupport.
         {
             MethodInfo mi = cf.addMethod
@@ -308,17 +356,39 @@ public class RawStorableGenerator {
             mi.addException(TypeDesc.forClass(FetchException.class));
             CodeBuilder b = new CodeBuilder(mi);
 
-            // return rawSupport.tryLoad(this, this.encodeKey$());
+            LocalVariable encodedDataVar = b.createLocalVariable(null, byteArrayType);
+            Label loaded = b.createLabel();
+
+            // if (support instanceof RawSliceSupport) {
+            //     EncodingBuffer buffer = EncodingBuffer.acquire();
+            //     this.encodeKey$(buffer);
+            //     data = support.tryLoad(this, buffer.getKey(), 0, buffer.getKeyLength());
+            //     buffer.release();
+            // }
+            Label notSlice = b.createLabel();
+            LocalVariable bufferVar = encodeIntoBuffer(b, notSlice, false);
+            b.loadThis(); // pass this to load method
+            loadKeySlice(b, bufferVar);
+            TypeDesc[] params = {storableType, byteArrayType, TypeDesc.INT, TypeDesc.INT};
+            b.invokeInterface(rawSliceSupportType, "tryLoad", byteArrayType, params);
+            b.storeLocal(encodedDataVar);
+            b.loadLocal(bufferVar);
+            b.invokeVirtual(bufferType, "release", null, null);
+            b.branch(loaded);
+
+            // data = rawSupport.tryLoad(this, this.encodeKey$());
+            notSlice.setLocation();
             b.loadThis();
             b.loadField(StorableGenerator.SUPPORT_FIELD_NAME, triggerSupportType);
             b.checkCast(rawSupportType);
             b.loadThis(); // pass this to load method
             b.loadThis();
             b.invokeVirtual(ENCODE_KEY_METHOD_NAME, byteArrayType, null);
-            TypeDesc[] params = {storableType, byteArrayType};
+            params = new TypeDesc[] {storableType, byteArrayType};
             b.invokeInterface(rawSupportType, "tryLoad", byteArrayType, params);
-            LocalVariable encodedDataVar = b.createLocalVariable(null, byteArrayType);
             b.storeLocal(encodedDataVar);
+
+            loaded.setLocation();
             b.loadLocal(encodedDataVar);
             Label notNull = b.createLabel();
             b.ifNullBranch(notNull, false);
@@ -341,7 +411,29 @@ public class RawStorableGenerator {
             mi.addException(TypeDesc.forClass(PersistException.class));
             CodeBuilder b = new CodeBuilder(mi);
 
+            // if (support instanceof RawSliceSupport) {
+            //     EncodingBuffer buffer = EncodingBuffer.acquire();
+            //     this.encodeKey$(buffer);
+            //     this.encodeData$(buffer);
+            //     boolean result = support.tryInsert(this, key slice, data slice);
+            //     buffer.release();
+            //     return result;
+            // }
+            Label notSlice = b.createLabel();
+            LocalVariable bufferVar = encodeIntoBuffer(b, notSlice, true);
+            b.loadThis(); // pass this to tryInsert method
+            loadKeySlice(b, bufferVar);
+            loadDataSlice(b, bufferVar);
+            TypeDesc[] params = {storableType,
+                                 byteArrayType, TypeDesc.INT, TypeDesc.INT,
+                                 byteArrayType, TypeDesc.INT, TypeDesc.INT};
+            b.invokeInterface(rawSliceSupportType, "tryInsert", TypeDesc.BOOLEAN, params);
+            b.loadLocal(bufferVar);
+            b.invokeVirtual(bufferType, "release", null, null);
+            b.returnValue(TypeDesc.BOOLEAN);
+
             // return rawSupport.tryInsert(this, this.encodeKey$(), this.encodeData$());
+            notSlice.setLocation();
             b.loadThis();
             b.loadField(StorableGenerator.SUPPORT_FIELD_NAME, triggerSupportType);
             b.checkCast(rawSupportType);
@@ -350,7 +442,7 @@ public class RawStorableGenerator {
             b.invokeVirtual(ENCODE_KEY_METHOD_NAME, byteArrayType, null);
             b.loadThis();
             b.invokeVirtual(ENCODE_DATA_METHOD_NAME, byteArrayType, null);
-            TypeDesc[] params = {storableType, byteArrayType, byteArrayType};
+            params = new TypeDesc[] {storableType, byteArrayType, byteArrayType};
             b.invokeInterface(rawSupportType, "tryInsert", TypeDesc.BOOLEAN, params);
             b.returnValue(TypeDesc.BOOLEAN);
         }
@@ -363,8 +455,30 @@ public class RawStorableGenerator {
             mi.addException(TypeDesc.forClass(PersistException.class));
             CodeBuilder b = new CodeBuilder(mi);
 
+            Label stored = b.createLabel();
+
+            // if (support instanceof RawSliceSupport) {
+            //     EncodingBuffer buffer = EncodingBuffer.acquire();
+            //     this.encodeKey$(buffer);
+            //     this.encodeData$(buffer);
+            //     support.store(this, key slice, data slice);
+            //     buffer.release();
+            // }
+            Label notSlice = b.createLabel();
+            LocalVariable bufferVar = encodeIntoBuffer(b, notSlice, true);
+            b.loadThis(); // pass this to store method
+            loadKeySlice(b, bufferVar);
+            loadDataSlice(b, bufferVar);
+            TypeDesc[] params = {storableType,
+                                 byteArrayType, TypeDesc.INT, TypeDesc.INT,
+                                 byteArrayType, TypeDesc.INT, TypeDesc.INT};
+            b.invokeInterface(rawSliceSupportType, "store", null, params);
+            b.loadLocal(bufferVar);
+            b.invokeVirtual(bufferType, "release", null, null);
+            b.branch(stored);
+
             // rawSupport.store(this, this.encodeKey$(), this.encodeData$());
-            // return true;
+            notSlice.setLocation();
             b.loadThis();
             b.loadField(StorableGenerator.SUPPORT_FIELD_NAME, triggerSupportType);
             b.checkCast(rawSupportType);
@@ -373,8 +487,11 @@ public class RawStorableGenerator {
             b.invokeVirtual(ENCODE_KEY_METHOD_NAME, byteArrayType, null);
             b.loadThis();
             b.invokeVirtual(ENCODE_DATA_METHOD_NAME, byteArrayType, null);
-            TypeDesc[] params = {storableType, byteArrayType, byteArrayType};
+            params = new TypeDesc[] {storableType, byteArrayType, byteArrayType};
             b.invokeInterface(rawSupportType, "store", null, params);
+
+            // return true;
+            stored.setLocation();
             b.loadConstant(true);
             b.returnValue(TypeDesc.BOOLEAN);
         }
@@ -387,7 +504,25 @@ public class RawStorableGenerator {
             mi.addException(TypeDesc.forClass(PersistException.class));
             CodeBuilder b = new CodeBuilder(mi);
 
+            // if (support instanceof RawSliceSupport) {
+            //     EncodingBuffer buffer = EncodingBuffer.acquire();
+            //     this.encodeKey$(buffer);
+            //     boolean result = support.tryDelete(this, key slice);
+            //     buffer.release();
+            //     return result;
+            // }
+            Label notSlice = b.createLabel();
+            LocalVariable bufferVar = encodeIntoBuffer(b, notSlice, false);
+            b.loadThis(); // pass this to delete method
+            loadKeySlice(b, bufferVar);
+            TypeDesc[] params = {storableType, byteArrayType, TypeDesc.INT, TypeDesc.INT};
+            b.invokeInterface(rawSliceSupportType, "tryDelete", TypeDesc.BOOLEAN, params);
+            b.loadLocal(bufferVar);
+            b.invokeVirtual(bufferType, "release", null, null);
+            b.returnValue(TypeDesc.BOOLEAN);
+
             // return rawSupport.tryDelete(this, this.encodeKey$());
+            notSlice.setLocation();
             b.loadThis();
             b.loadField(StorableGenerator.SUPPORT_FIELD_NAME, triggerSupportType);
             b.checkCast(rawSupportType);
@@ -395,11 +530,74 @@ public class RawStorableGenerator {
             b.loadThis();
             b.invokeVirtual(ENCODE_KEY_METHOD_NAME, byteArrayType, null);
 
-            TypeDesc[] params = {storableType, byteArrayType};
+            params = new TypeDesc[] {storableType, byteArrayType};
             b.invokeInterface(rawSupportType, "tryDelete", TypeDesc.BOOLEAN, params);
             b.returnValue(TypeDesc.BOOLEAN);
         }
 
-        return ci.defineClass(cf);
+        Class<? extends S> generated = ci.defineClass(cf);
+        GeneratedClassCache.store(cacheKey, abstractClass.getClassLoader(), generated, cf);
+        return generated;
+    }
+
+    /**
+     * Generates code which branches to the given label if the support doesn't
+     * accept slices. Otherwise, encodes into an acquired buffer and leaves
+     * the support on the stack.
+     *
+     * @return variable referencing the acquired EncodingBuffer
+     */
+    private static LocalVariable encodeIntoBuffer(CodeBuilder b, Label notSlice,
+                                                  boolean encodeData)
+    {
+        TypeDesc rawSliceSupportType = TypeDesc.forClass(RawSliceSupport.class);
+        TypeDesc bufferType = TypeDesc.forClass(EncodingBuffer.class);
+
+        b.loadThis();
+        b.loadField(StorableGenerator.SUPPORT_FIELD_NAME,
+                    TypeDesc.forClass(TriggerSupport.class));
+        LocalVariable supportVar = b.createLocalVariable(null, rawSliceSupportType);
+        b.dup();
+        b.instanceOf(rawSliceSupportType);
+        Label isSlice = b.createLabel();
+        b.ifZeroComparisonBranch(isSlice, "!=");
+        b.pop();
+        b.branch(notSlice);
+        isSlice.setLocation();
+        b.checkCast(rawSliceSupportType);
+        b.storeLocal(supportVar);
+
+        b.invokeStatic(bufferType, "acquire", bufferType, null);
+        LocalVariable bufferVar = b.createLocalVariable(null, bufferType);
+        b.storeLocal(bufferVar);
+
+        TypeDesc[] params = {bufferType};
+        b.loadThis();
+        b.loadLocal(bufferVar);
+        b.invokeVirtual(ENCODE_KEY_METHOD_NAME, null, params);
+        if (encodeData) {
+            b.loadThis();
+            b.loadLocal(bufferVar);
+            b.invokeVirtual(ENCODE_DATA_METHOD_NAME, null, params);
+        }
+
+        b.loadLocal(supportVar);
+        return bufferVar;
+    }
+
+    private static void loadKeySlice(CodeBuilder b, LocalVariable bufferVar) {
+        b.loadLocal(bufferVar);
+        b.invokeVirtual(bufferVar.getType(), "getKey", TypeDesc.forClass(byte[].class), null);
+        b.loadConstant(0);
+        b.loadLocal(bufferVar);
+        b.invokeVirtual(bufferVar.getType(), "getKeyLength", TypeDesc.INT, null);
+    }
+
+    private static void loadDataSlice(CodeBuilder b, LocalVariable bufferVar) {
+        b.loadLocal(bufferVar);
+        b.invokeVirtual(bufferVar.getType(), "getData", TypeDesc.forClass(byte[].class), null);
+        b.loadConstant(0);
+        b.loadLocal(bufferVar);
+        b.invokeVirtual(bufferVar.getType(), "getDataLength", TypeDesc.INT, null);
     }
 }
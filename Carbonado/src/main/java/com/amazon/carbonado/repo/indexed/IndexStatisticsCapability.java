@@ -0,0 +1,58 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazon.carbonado.repo.indexed;
+
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+
+import com.amazon.carbonado.capability.Capability;
+
+import com.amazon.carbonado.qe.IndexStatistics;
+
+/**
+ * Capability for gathering statistics about indexes, which the query planner
+ * uses to estimate the cost of candidate indexes. Statistics are persisted,
+ * and so they only need to be gathered again when the contents of the
+ * indexes have changed significantly. Until statistics are gathered, indexes
+ * are chosen by their structure alone.
+ *
+ * @author Brian S O'Neill
+ * @since 1.2.4
+ */
+public interface IndexStatisticsCapability extends Capability {
+    /**
+     * Returns the most recently gathered statistics for the queryable indexes
+     * of the given storable type. The array might be empty, but it is never
+     * null. The array is a copy, and so it may be safely modified.
+     */
+    <S extends Storable> IndexStatistics<S>[] getIndexStatistics(Class<S> storableType)
+        throws RepositoryException;
+
+    /**
+     * Scans the queryable indexes of the given storable type, persists new
+     * statistics, and returns them. Queries which are subsequently planned
+     * consult the new statistics.
+     *
+     * @param sampleInterval examine one of every given amount of index
+     * entries; pass one to examine all entries
+     * @throws IllegalArgumentException if sample interval is less than one
+     */
+    <S extends Storable> IndexStatistics<S>[] gatherIndexStatistics(Class<S> storableType,
+                                                                    int sampleInterval)
+        throws RepositoryException;
+}
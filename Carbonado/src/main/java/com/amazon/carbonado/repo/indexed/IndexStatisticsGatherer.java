@@ -0,0 +1,328 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazon.carbonado.repo.indexed;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.cojen.classfile.TypeDesc;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+
+import com.amazon.carbonado.info.Direction;
+import com.amazon.carbonado.info.StorableIndex;
+
+import com.amazon.carbonado.qe.IndexStatistics;
+
+/**
+ * Gathers statistics for an index by scanning its entries in index order, and
+ * converts statistics to and from their persistent form.
+ *
+ * @author Brian S O'Neill
+ * @see StoredIndexStatistics
+ */
+class IndexStatisticsGatherer<S extends Storable> {
+    // Amount of first property values retained for building the histogram.
+    private static final int SAMPLE_SIZE = 1000;
+
+    // Amount of histogram bucket boundaries.
+    private static final int HISTOGRAM_SIZE = 33;
+
+    // Longer strings are truncated when persisted.
+    private static final int MAX_STRING_LENGTH = 200;
+
+    /**
+     * Converts persisted statistics, returning null if they don't match the index.
+     */
+    static <S extends Storable> IndexStatistics<S> fromStored(StorableIndex<S> index,
+                                                              StoredIndexStatistics stored)
+    {
+        String[] countStrs = stored.getDistinctCounts().split(",");
+        if (countStrs.length != index.getPropertyCount()) {
+            return null;
+        }
+
+        long[] distinctCounts = new long[countStrs.length];
+        Comparable[] histogram = null;
+
+        try {
+            for (int i=0; i<countStrs.length; i++) {
+                distinctCounts[i] = Long.parseLong(countStrs[i]);
+            }
+
+            byte[] encoded = stored.getHistogram();
+            Class type = histogramType(index);
+            if (encoded != null && type != null) {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+                histogram = new Comparable[in.readInt()];
+                for (int i=0; i<histogram.length; i++) {
+                    histogram[i] = parse(type, in.readUTF());
+                }
+            }
+        } catch (IOException e) {
+            histogram = null;
+        } catch (RuntimeException e) {
+            // Malformed number.
+            return null;
+        }
+
+        return new IndexStatistics<S>(index, stored.getRowCount(), distinctCounts,
+                                      histogram, stored.getGatherTimestamp());
+    }
+
+    /**
+     * Copies statistics into the given persistent form, except for the index name.
+     */
+    static void toStored(IndexStatistics<?> stats, int sampleInterval,
+                         StoredIndexStatistics stored)
+    {
+        int propCount = stats.getIndex().getPropertyCount();
+        StringBuilder b = new StringBuilder();
+        for (int i=1; i<=propCount; i++) {
+            if (i > 1) {
+                b.append(',');
+            }
+            b.append(stats.getDistinctCount(i));
+        }
+
+        byte[] encoded = null;
+        Comparable[] histogram = stats.getHistogram();
+        if (histogram != null) {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bout);
+            try {
+                out.writeInt(histogram.length);
+                for (Comparable value : histogram) {
+                    String str = String.valueOf(value);
+                    if (str.length() > MAX_STRING_LENGTH) {
+                        str = str.substring(0, MAX_STRING_LENGTH);
+                    }
+                    out.writeUTF(str);
+                }
+                out.flush();
+                encoded = bout.toByteArray();
+            } catch (IOException e) {
+                // Not gonna happen.
+            }
+        }
+
+        stored.setRowCount(stats.getRowCount());
+        stored.setDistinctCounts(b.toString());
+        stored.setHistogram(encoded);
+        stored.setSampleInterval(sampleInterval);
+        stored.setGatherTimestamp(stats.getTimestamp());
+    }
+
+    /**
+     * Returns the boxed type of the first index property, or null if
+     * histograms aren't supported for it.
+     */
+    private static Class histogramType(StorableIndex<?> index) {
+        Class type = TypeDesc.forClass(index.getProperty(0).getType()).toObjectType().toClass();
+        if (type == Integer.class || type == Long.class || type == Short.class ||
+            type == Byte.class || type == Float.class || type == Double.class ||
+            type == BigInteger.class || type == BigDecimal.class ||
+            type == String.class || type == Character.class || type == Boolean.class)
+        {
+            return type;
+        }
+        return null;
+    }
+
+    private static Comparable parse(Class type, String str) {
+        if (type == Integer.class) {
+            return Integer.valueOf(str);
+        } else if (type == Long.class) {
+            return Long.valueOf(str);
+        } else if (type == Short.class) {
+            return Short.valueOf(str);
+        } else if (type == Byte.class) {
+            return Byte.valueOf(str);
+        } else if (type == Float.class) {
+            return Float.valueOf(str);
+        } else if (type == Double.class) {
+            return Double.valueOf(str);
+        } else if (type == BigInteger.class) {
+            return new BigInteger(str);
+        } else if (type == BigDecimal.class) {
+            return new BigDecimal(str);
+        } else if (type == Character.class) {
+            return str.charAt(0);
+        } else if (type == Boolean.class) {
+            return Boolean.valueOf(str);
+        } else {
+            return str;
+        }
+    }
+
+    private final StorableIndex<S> mIndex;
+    private final Storage<?> mStorage;
+
+    /**
+     * @param index index to gather statistics for
+     * @param storage storage whose properties match the index properties, and
+     * which can be efficiently scanned in index order
+     */
+    IndexStatisticsGatherer(StorableIndex<S> index, Storage<?> storage) {
+        mIndex = index;
+        mStorage = storage;
+    }
+
+    /**
+     * @param sampleInterval examine one of every given amount of entries
+     */
+    IndexStatistics<S> gather(int sampleInterval) throws FetchException {
+        final int propCount = mIndex.getPropertyCount();
+
+        String[] names = new String[propCount];
+        String[] orderings = new String[propCount];
+        for (int i=0; i<propCount; i++) {
+            names[i] = mIndex.getProperty(i).getName();
+            char dir = mIndex.getPropertyDirection(i) == Direction.DESCENDING ? '-' : '+';
+            orderings[i] = dir + names[i];
+        }
+
+        boolean histogramSupported = histogramType(mIndex) != null;
+        Comparable[] sample = new Comparable[SAMPLE_SIZE];
+        int sampleCount = 0;
+        Random rnd = new Random();
+
+        // Amount of times each property prefix changed between examined entries.
+        long[] changes = new long[propCount];
+        long examined = 0;
+        long skipped = 0;
+
+        Object[] prev = null;
+        Object[] values = new Object[propCount];
+
+        Cursor<? extends Storable> cursor = mStorage.query().orderBy(orderings).fetch();
+        try {
+            while (cursor.hasNext()) {
+                Storable entry = cursor.next();
+                for (int i=0; i<propCount; i++) {
+                    values[i] = entry.getPropertyValue(names[i]);
+                }
+
+                if (prev != null) {
+                    for (int i=0; i<propCount; i++) {
+                        if (!equalValues(prev[i], values[i])) {
+                            // Change in this property changes all longer prefixes too.
+                            for (int j=i; j<propCount; j++) {
+                                changes[j]++;
+                            }
+                            break;
+                        }
+                    }
+                }
+
+                if (histogramSupported && values[0] != null) {
+                    // Reservoir sampling keeps an unbiased sample of all values.
+                    if (sampleCount < SAMPLE_SIZE) {
+                        sample[sampleCount++] = (Comparable) values[0];
+                    } else {
+                        long slot = (long) (rnd.nextDouble() * (examined + 1));
+                        if (slot < SAMPLE_SIZE) {
+                            sample[(int) slot] = (Comparable) values[0];
+                        }
+                    }
+                }
+
+                examined++;
+
+                Object[] swap = prev;
+                prev = values;
+                values = swap == null ? new Object[propCount] : swap;
+
+                if (sampleInterval > 1) {
+                    skipped += cursor.skipNext(sampleInterval - 1);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        long rowCount = examined + skipped;
+
+        long[] distinctCounts = new long[propCount];
+        for (int i=0; i<propCount; i++) {
+            long distinct;
+            if (examined == 0) {
+                distinct = 0;
+            } else if (sampleInterval <= 1 || examined == 1) {
+                distinct = changes[i] + 1;
+            } else {
+                // When value boundaries are randomly distributed, the
+                // fraction of sampled gaps which contain one is
+                // 1 - e^(-distinct * interval / rowCount).
+                double fraction = (double) changes[i] / (examined - 1);
+                if (fraction >= 1.0) {
+                    distinct = rowCount;
+                } else {
+                    distinct = 1 + Math.round
+                        (-Math.log(1.0 - fraction) * (rowCount - 1) / sampleInterval);
+                }
+            }
+            if (i > 0) {
+                distinct = Math.max(distinct, distinctCounts[i - 1]);
+            }
+            distinctCounts[i] = Math.min(distinct, rowCount);
+        }
+
+        if (mIndex.isUnique() && rowCount > 0) {
+            distinctCounts[propCount - 1] = rowCount;
+        }
+
+        Comparable[] histogram = null;
+        if (sampleCount > 1) {
+            Arrays.sort(sample, 0, sampleCount);
+            histogram = new Comparable[Math.min(HISTOGRAM_SIZE, sampleCount)];
+            for (int i=0; i<histogram.length; i++) {
+                long pos = (long) i * (sampleCount - 1) / (histogram.length - 1);
+                histogram[i] = sample[(int) pos];
+            }
+        }
+
+        return new IndexStatistics<S>(mIndex, rowCount, distinctCounts,
+                                      histogram, System.currentTimeMillis());
+    }
+
+    private static boolean equalValues(Object a, Object b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        if (a.getClass().isArray()) {
+            return Arrays.deepEquals(new Object[] {a}, new Object[] {b});
+        }
+        return a.equals(b);
+    }
+}
@@ -18,6 +18,11 @@
 
 package com.amazon.carbonado.repo.indexed;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 import org.apache.commons.logging.LogFactory;
@@ -40,22 +45,34 @@ import com.amazon.carbonado.synthetic.SyntheticStorableReferenceAccess;
 
 /**
  * Wraps another cursor which contains index entries and extracts master
- * objects from them.
+ * objects from them. Index entries are read in blocks, and the masters of
+ * each block are loaded with one {@link Storage#loadAll loadAll} call, in
+ * primary key order. This turns random lookups into a mostly sequential pass
+ * over the master storage. Blocks start small and grow, to avoid loading
+ * masters which are never consumed.
  *
  * @author Brian S O'Neill
  */
 class IndexedCursor<S extends Storable> extends AbstractCursor<S> {
     private static final int FETCH_AHEAD;
+    private static final int BLOCK_SIZE;
 
     static {
         String prefix = IndexedCursor.class.getName() + '.';
         FETCH_AHEAD = Integer.getInteger(prefix + "fetchAhead", 0);
+        BLOCK_SIZE = Integer.getInteger(prefix + "blockSize", 100);
     }
 
     private final Cursor<? extends Storable> mCursor;
     private final IndexedStorage<S> mStorage;
     private final SyntheticStorableReferenceAccess<S> mAccessor;
 
+    // Block of resolved index entries, in index order.
+    private Entry<S>[] mBlock;
+    private int mBlockPos;
+    private int mBlockEnd;
+    private int mBlockSize;
+
     private S mNext;
 
     IndexedCursor(Cursor<? extends Storable> indexEntryCursor,
@@ -68,9 +85,13 @@ class IndexedCursor<S extends Storable> extends AbstractCursor<S> {
         mCursor = indexEntryCursor;
         mStorage = storage;
         mAccessor = indexAccessor;
+        mBlockSize = 1;
     }
 
     public void close() throws FetchException {
+        mBlock = null;
+        mBlockPos = 0;
+        mBlockEnd = 0;
         mCursor.close();
     }
 
@@ -79,97 +100,20 @@ class IndexedCursor<S extends Storable> extends AbstractCursor<S> {
             return true;
         }
         try {
-            while (mCursor.hasNext()) {
-                final Storable indexEntry = mCursor.next();
-
-                S master = mStorage.mMasterStorage.prepare();
-                mAccessor.copyToMasterPrimaryKey(indexEntry, master);
-
-                try {
-                    if (!master.tryLoad()) {
-                        LogFactory.getLog(getClass()).warn
-                            ("Master is missing for index entry: " + indexEntry);
-                        continue;
-                    }
-                } catch (CorruptEncodingException e) {
-                    LogFactory.getLog(getClass()).error
-                        ("Master record for index entry is corrupt: " + indexEntry, e);
-                    continue;
-                }
-
-                if (mAccessor.isConsistent(indexEntry, master)) {
-                    mNext = master;
-                    return true;
-                }
-
-                // This index entry is stale. Repair is needed.
-
-                // Insert a correct index entry, just to be sure.
-                try {
-                    final IndexedRepository repo = mStorage.mRepository;
-                    final Storage<?> indexEntryStorage =
-                        repo.getIndexEntryStorageFor(mAccessor.getReferenceClass());
-                    Storable newIndexEntry = indexEntryStorage.prepare();
-                    mAccessor.copyFromMaster(newIndexEntry, master);
-
-                    if (newIndexEntry.tryLoad()) {
-                        // Good, the correct index entry exists. We'll see
-                        // the master record eventually, so skip.
-                    } else {
-                        // We have no choice but to return the master, at
-                        // the risk of seeing it multiple times. This is
-                        // better than seeing it never.
-                        LogFactory.getLog(getClass()).warn
-                            ("Inconsistent index entry: " + indexEntry + ", " + master);
-                        mNext = master;
-                    }
-
-                    // Repair the stale index entry.
-                    RepairExecutor.execute(new Runnable() {
-                        public void run() {
-                            Transaction txn = repo.enterTransaction();
-                            try {
-                                // Reload master and verify inconsistency.
-                                S master = mStorage.mMasterStorage.prepare();
-                                mAccessor.copyToMasterPrimaryKey(indexEntry, master);
-
-                                if (master.tryLoad()) {
-                                    Storable newIndexEntry = indexEntryStorage.prepare();
-                                    mAccessor.copyFromMaster(newIndexEntry, master);
-
-                                    newIndexEntry.tryInsert();
-
-                                    indexEntry.tryDelete();
-                                    txn.commit();
-                                }
-                            } catch (FetchException fe) {
-                                LogFactory.getLog(IndexedCursor.class).warn
-                                    ("Unable to check if repair required for " +
-                                     "inconsistent index entry " +
-                                     indexEntry, fe);
-                            } catch (PersistException pe) {
-                                LogFactory.getLog(IndexedCursor.class).error
-                                    ("Unable to repair inconsistent index entry " +
-                                     indexEntry, pe);
-                            } finally {
-                                try {
-                                    txn.exit();
-                                } catch (PersistException pe) {
-                                    LogFactory.getLog(IndexedCursor.class).error
-                                        ("Unable to repair inconsistent index entry " +
-                                         indexEntry, pe);
-                                }
-                            }
+            while (true) {
+                while (mBlockPos < mBlockEnd) {
+                    Entry<S> entry = mBlock[mBlockPos];
+                    mBlock[mBlockPos++] = null;
+                    if (entry.mMaster != null) {
+                        S master = resolve(entry.mIndexEntry, entry.mMaster);
+                        if (master != null) {
+                            mNext = master;
+                            return true;
                         }
-                    });
-                } catch (Exception re) {
-                    LogFactory.getLog(getClass()).error
-                        ("Unable to inspect inconsistent index entry " +
-                         indexEntry, re);
+                    }
                 }
-
-                if (mNext != null) {
-                    return true;
+                if (!fillBlock()) {
+                    break;
                 }
             }
         } catch (NoSuchElementException e) {
@@ -204,20 +148,33 @@ class IndexedCursor<S extends Storable> extends AbstractCursor<S> {
 
     @Override
     public int skipNext(int amount) throws FetchException {
+        if (amount <= 0) {
+            if (amount < 0) {
+                throw new IllegalArgumentException("Cannot skip negative amount: " + amount);
+            }
+            return 0;
+        }
+
         try {
-            if (mNext == null) {
-                return mCursor.skipNext(amount);
+            int count = 0;
+
+            if (mNext != null) {
+                mNext = null;
+                count++;
+                amount--;
             }
 
-            if (amount <= 0) {
-                if (amount < 0) {
-                    throw new IllegalArgumentException("Cannot skip negative amount: " + amount);
-                }
-                return 0;
+            while (amount > 0 && mBlockPos < mBlockEnd) {
+                mBlock[mBlockPos++] = null;
+                count++;
+                amount--;
+            }
+
+            if (amount > 0) {
+                count += mCursor.skipNext(amount);
             }
 
-            mNext = null;
-            return 1 + mCursor.skipNext(amount - 1);
+            return count;
         } catch (FetchException e) {
             try {
                 close();
@@ -227,4 +184,221 @@ class IndexedCursor<S extends Storable> extends AbstractCursor<S> {
             throw e;
         }
     }
+
+    /**
+     * Reads the next block of index entries and loads their masters together,
+     * in primary key order. Masters which are missing or corrupt are left
+     * null.
+     *
+     * @return false if no more index entries
+     */
+    private boolean fillBlock() throws FetchException {
+        int size = mBlockSize;
+
+        Entry<S>[] block = mBlock;
+        if (block == null || block.length < size) {
+            block = mBlock = new Entry[size];
+        }
+
+        int end = 0;
+        while (end < size && mCursor.hasNext()) {
+            Storable indexEntry = mCursor.next();
+            S master = mStorage.mMasterStorage.prepare();
+            mAccessor.copyToMasterPrimaryKey(indexEntry, master);
+            block[end++] = new Entry<S>(indexEntry, master);
+        }
+
+        mBlockPos = 0;
+        mBlockEnd = end;
+
+        if (end == 0) {
+            return false;
+        }
+
+        Entry<S>[] loadOrder = block;
+        if (end > 1) {
+            loadOrder = Arrays.copyOf(block, end);
+            Arrays.sort(loadOrder, new EntryComparator<S>(mStorage.masterKeyComparator()));
+        }
+
+        if (end == 1) {
+            loadEach(loadOrder, end);
+        } else {
+            List<S> keys = new ArrayList<S>(end);
+            for (int i=0; i<end; i++) {
+                keys.add(loadOrder[i].mMaster);
+            }
+
+            List<S> loaded;
+            try {
+                loaded = mStorage.mMasterStorage.loadAll(keys).toList();
+            } catch (CorruptEncodingException e) {
+                // Load each master to find out which ones are corrupt.
+                loaded = null;
+                loadEach(loadOrder, end);
+            }
+
+            if (loaded != null) {
+                // Loaded order isn't defined, so sort to match load order.
+                Comparator<S> comparator = mStorage.masterKeyComparator();
+                Collections.sort(loaded, comparator);
+
+                int pos = 0;
+                S last = null;
+                for (int i=0; i<end; i++) {
+                    Entry<S> entry = loadOrder[i];
+                    while (pos < loaded.size()
+                           && comparator.compare(loaded.get(pos), entry.mMaster) < 0)
+                    {
+                        pos++;
+                    }
+                    if (pos < loaded.size()
+                        && comparator.compare(loaded.get(pos), entry.mMaster) == 0)
+                    {
+                        S master = loaded.get(pos);
+                        // Don't return the same instance for duplicate keys.
+                        entry.mMaster = master == last ? (S) master.copy() : master;
+                        last = master;
+                    } else {
+                        missing(entry);
+                    }
+                }
+            }
+        }
+
+        if (size < BLOCK_SIZE) {
+            mBlockSize = Math.min(BLOCK_SIZE, size << 1);
+        }
+
+        return true;
+    }
+
+    /**
+     * Loads the masters of the given entries one at a time.
+     */
+    private void loadEach(Entry<S>[] entries, int end) throws FetchException {
+        for (int i=0; i<end; i++) {
+            Entry<S> entry = entries[i];
+            try {
+                if (!entry.mMaster.tryLoad()) {
+                    missing(entry);
+                }
+            } catch (CorruptEncodingException e) {
+                LogFactory.getLog(getClass()).error
+                    ("Master record for index entry is corrupt: " + entry.mIndexEntry, e);
+                entry.mMaster = null;
+            }
+        }
+    }
+
+    private void missing(Entry<S> entry) {
+        LogFactory.getLog(getClass()).warn
+            ("Master is missing for index entry: " + entry.mIndexEntry);
+        entry.mMaster = null;
+    }
+
+    /**
+     * Verifies that the loaded master is consistent with its index entry,
+     * repairing the index entry if not.
+     *
+     * @return master to return, or null to skip it
+     */
+    private S resolve(final Storable indexEntry, S master) throws FetchException {
+        if (mAccessor.isConsistent(indexEntry, master)) {
+            return master;
+        }
+
+        // This index entry is stale. Repair is needed.
+
+        S result = null;
+
+        // Insert a correct index entry, just to be sure.
+        try {
+            final IndexedRepository repo = mStorage.mRepository;
+            final Storage<?> indexEntryStorage =
+                repo.getIndexEntryStorageFor(mAccessor.getReferenceClass());
+            Storable newIndexEntry = indexEntryStorage.prepare();
+            mAccessor.copyFromMaster(newIndexEntry, master);
+
+            if (newIndexEntry.tryLoad()) {
+                // Good, the correct index entry exists. We'll see
+                // the master record eventually, so skip.
+            } else {
+                // We have no choice but to return the master, at
+                // the risk of seeing it multiple times. This is
+                // better than seeing it never.
+                LogFactory.getLog(getClass()).warn
+                    ("Inconsistent index entry: " + indexEntry + ", " + master);
+                result = master;
+            }
+
+            // Repair the stale index entry.
+            RepairExecutor.execute(new Runnable() {
+                public void run() {
+                    Transaction txn = repo.enterTransaction();
+                    try {
+                        // Reload master and verify inconsistency.
+                        S master = mStorage.mMasterStorage.prepare();
+                        mAccessor.copyToMasterPrimaryKey(indexEntry, master);
+
+                        if (master.tryLoad()) {
+                            Storable newIndexEntry = indexEntryStorage.prepare();
+                            mAccessor.copyFromMaster(newIndexEntry, master);
+
+                            newIndexEntry.tryInsert();
+
+                            indexEntry.tryDelete();
+                            txn.commit();
+                        }
+                    } catch (FetchException fe) {
+                        LogFactory.getLog(IndexedCursor.class).warn
+                            ("Unable to check if repair required for " +
+                             "inconsistent index entry " +
+                             indexEntry, fe);
+                    } catch (PersistException pe) {
+                        LogFactory.getLog(IndexedCursor.class).error
+                            ("Unable to repair inconsistent index entry " +
+                             indexEntry, pe);
+                    } finally {
+                        try {
+                            txn.exit();
+                        } catch (PersistException pe) {
+                            LogFactory.getLog(IndexedCursor.class).error
+                                ("Unable to repair inconsistent index entry " +
+                                 indexEntry, pe);
+                        }
+                    }
+                }
+            });
+        } catch (Exception re) {
+            LogFactory.getLog(getClass()).error
+                ("Unable to inspect inconsistent index entry " +
+                 indexEntry, re);
+        }
+
+        return result;
+    }
+
+    private static class Entry<S extends Storable> {
+        final Storable mIndexEntry;
+        // Is null if master is missing or corrupt.
+        S mMaster;
+
+        Entry(Storable indexEntry, S master) {
+            mIndexEntry = indexEntry;
+            mMaster = master;
+        }
+    }
+
+    private static class EntryComparator<S extends Storable> implements Comparator<Entry<S>> {
+        private final Comparator<S> mMasterComparator;
+
+        EntryComparator(Comparator<S> masterComparator) {
+            mMasterComparator = masterComparator;
+        }
+
+        public int compare(Entry<S> a, Entry<S> b) {
+            return mMasterComparator.compare(a.mMaster, b.mMaster);
+        }
+    }
 }
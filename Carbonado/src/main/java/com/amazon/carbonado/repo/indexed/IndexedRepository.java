@@ -41,6 +41,7 @@ import com.amazon.carbonado.capability.StorableInfoCapability;
 
 import com.amazon.carbonado.info.StorableIntrospector;
 
+import com.amazon.carbonado.qe.IndexStatistics;
 import com.amazon.carbonado.qe.RepositoryAccess;
 import com.amazon.carbonado.qe.StorageAccess;
 
@@ -56,7 +57,8 @@ class IndexedRepository implements Repository,
                                    RepositoryAccess,
                                    IndexInfoCapability,
                                    StorableInfoCapability,
-                                   IndexEntryAccessCapability
+                                   IndexEntryAccessCapability,
+                                   IndexStatisticsCapability
 {
     private final AtomicReference<Repository> mRootRef;
     private final Repository mRepository;
@@ -185,6 +187,28 @@ class IndexedRepository implements Repository,
         return accessors.toArray(new IndexEntryAccessor[accessors.size()]);
     }
 
+    // Required by IndexStatisticsCapability.
+    public <S extends Storable> IndexStatistics<S>[] getIndexStatistics(Class<S> storableType)
+        throws RepositoryException
+    {
+        if (Unindexed.class.isAssignableFrom(storableType)) {
+            return new IndexStatistics[0];
+        }
+        return ((IndexedStorage<S>) storageFor(storableType)).getIndexStatistics();
+    }
+
+    // Required by IndexStatisticsCapability.
+    public <S extends Storable> IndexStatistics<S>[] gatherIndexStatistics(Class<S> storableType,
+                                                                           int sampleInterval)
+        throws RepositoryException
+    {
+        if (Unindexed.class.isAssignableFrom(storableType)) {
+            return new IndexStatistics[0];
+        }
+        return ((IndexedStorage<S>) storageFor(storableType))
+            .gatherIndexStatistics(sampleInterval);
+    }
+
     public String[] getUserStorableTypeNames() throws RepositoryException {
         StorableInfoCapability cap = mRepository.getCapability(StorableInfoCapability.class);
         if (cap == null) {
@@ -196,6 +220,7 @@ class IndexedRepository implements Repository,
         // Exclude our own metadata types as well as indexes.
 
         names.remove(StoredIndexInfo.class.getName());
+        names.remove(StoredIndexStatistics.class.getName());
 
         Cursor<StoredIndexInfo> cursor =
             mRepository.storageFor(StoredIndexInfo.class)
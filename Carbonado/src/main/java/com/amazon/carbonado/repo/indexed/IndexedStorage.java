@@ -18,7 +18,11 @@
 
 package com.amazon.carbonado.repo.indexed;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
@@ -41,15 +45,20 @@ import com.amazon.carbonado.Trigger;
 import com.amazon.carbonado.capability.IndexInfo;
 
 import com.amazon.carbonado.cursor.MergeSortBuffer;
+import com.amazon.carbonado.cursor.SortedCursor;
 
 import com.amazon.carbonado.filter.Filter;
 
 import com.amazon.carbonado.info.ChainedProperty;
+import com.amazon.carbonado.info.OrderedProperty;
 import com.amazon.carbonado.info.StorableIndex;
+import com.amazon.carbonado.info.StorableIntrospector;
 
 import com.amazon.carbonado.cursor.SortBuffer;
 
 import com.amazon.carbonado.qe.BoundaryType;
+import com.amazon.carbonado.qe.IndexStatistics;
+import com.amazon.carbonado.qe.IndexStatisticsAccess;
 import com.amazon.carbonado.qe.QueryEngine;
 import com.amazon.carbonado.qe.QueryExecutorFactory;
 import com.amazon.carbonado.qe.StorableIndexSet;
@@ -64,7 +73,9 @@ import static com.amazon.carbonado.repo.indexed.ManagedIndex.*;
  *
  * @author Brian S O'Neill
  */
-class IndexedStorage<S extends Storable> implements Storage<S>, StorageAccess<S> {
+class IndexedStorage<S extends Storable>
+    implements Storage<S>, StorageAccess<S>, IndexStatisticsAccess<S>
+{
     final IndexedRepository mRepository;
     final Storage<S> mMasterStorage;
 
@@ -75,7 +86,13 @@ class IndexedStorage<S extends Storable> implements Storage<S>, StorageAccess<S>
     private final StorableIndexSet<S> mQueryableIndexSet;
 
     private final QueryEngine<S> mQueryEngine;
-    
+
+    // Maps queryable indexes to statistics, replaced when statistics are gathered.
+    private volatile Map<StorableIndex<S>, IndexStatistics<S>> mStatistics;
+
+    // Orders masters by primary key, created when first needed.
+    private volatile Comparator<S> mMasterKeyComparator;
+
     IndexedStorage(IndexAnalysis<S> analysis) throws RepositoryException {
         mRepository = analysis.repository;
         mMasterStorage = analysis.masterStorage;
@@ -107,6 +124,8 @@ class IndexedStorage<S extends Storable> implements Storage<S>, StorageAccess<S>
             throw e;
         }
 
+        mStatistics = loadStatistics();
+
         mQueryEngine = new QueryEngine<S>(mMasterStorage.getStorableType(), mRepository);
 
         // Install triggers to manage derived properties in external Storables.
@@ -117,6 +136,20 @@ class IndexedStorage<S extends Storable> implements Storage<S>, StorageAccess<S>
         }
     }
 
+    /**
+     * Returns a comparator which orders masters by primary key, which is
+     * the natural order of the master storage.
+     */
+    Comparator<S> masterKeyComparator() {
+        Comparator<S> comparator = mMasterKeyComparator;
+        if (comparator == null) {
+            List<OrderedProperty<S>> properties = new ArrayList<OrderedProperty<S>>
+                (StorableIntrospector.examine(getStorableType()).getPrimaryKey().getProperties());
+            mMasterKeyComparator = comparator = SortedCursor.createComparator(properties);
+        }
+        return comparator;
+    }
+
     public Class<S> getStorableType() {
         return mMasterStorage.getStorableType();
     }
@@ -137,6 +170,10 @@ class IndexedStorage<S extends Storable> implements Storage<S>, StorageAccess<S>
         return mQueryEngine.query(filter);
     }
 
+    public Cursor<S> loadAll(Collection<? extends S> keys) throws FetchException {
+        return mMasterStorage.loadAll(keys);
+    }
+
     public void truncate() throws PersistException {
         hasManagedIndexes: {
             for (IndexInfo info : mAllIndexInfoMap.values()) {
@@ -195,6 +232,52 @@ class IndexedStorage<S extends Storable> implements Storage<S>, StorageAccess<S>
         return mMasterStorage;
     }
 
+    // Required by IndexStatisticsAccess.
+    public IndexStatistics<S> getIndexStatistics(StorableIndex<S> index) {
+        return mStatistics.get(index);
+    }
+
+    IndexStatistics<S>[] getIndexStatistics() {
+        Collection<IndexStatistics<S>> values = mStatistics.values();
+        return values.toArray(new IndexStatistics[values.size()]);
+    }
+
+    /**
+     * Scans all queryable indexes, persisting and installing new statistics.
+     */
+    IndexStatistics<S>[] gatherIndexStatistics(int sampleInterval) throws RepositoryException {
+        if (sampleInterval < 1) {
+            throw new IllegalArgumentException("Sample interval: " + sampleInterval);
+        }
+
+        Map<StorableIndex<S>, IndexStatistics<S>> statistics =
+            new HashMap<StorableIndex<S>, IndexStatistics<S>>();
+
+        for (StorableIndex<S> index : mQueryableIndexSet) {
+            IndexInfo info = mAllIndexInfoMap.get(index);
+            Storage<?> storage;
+            if (info instanceof ManagedIndex) {
+                storage = ((ManagedIndex) info).getIndexEntryStorage();
+            } else {
+                // Index is managed by master storage, most likely a primary key index.
+                storage = mMasterStorage;
+            }
+
+            IndexStatistics<S> stats =
+                new IndexStatisticsGatherer<S>(index, storage).gather(sampleInterval);
+            storeStatistics(stats, sampleInterval);
+            statistics.put(index, stats);
+        }
+
+        mStatistics = statistics;
+
+        // Existing query plans were chosen without these statistics.
+        mQueryEngine.clearExecutors();
+
+        Collection<IndexStatistics<S>> values = statistics.values();
+        return values.toArray(new IndexStatistics[values.size()]);
+    }
+
     public SortBuffer<S> createSortBuffer() {
         return new MergeSortBuffer<S>();
     }
@@ -389,6 +472,77 @@ class IndexedStorage<S extends Storable> implements Storage<S>, StorageAccess<S>
             .storageFor(StoredIndexInfo.class).prepare();
         info.setIndexName(indexName);
         info.tryDelete();
+
+        try {
+            StoredIndexStatistics stats = mRepository.getWrappedRepository()
+                .storageFor(StoredIndexStatistics.class).prepare();
+            stats.setIndexName(indexName);
+            stats.tryDelete();
+        } catch (RepositoryException e) {
+            // Statistics are optional, and stale ones are ignored anyhow.
+        }
+    }
+
+    private Map<StorableIndex<S>, IndexStatistics<S>> loadStatistics() {
+        Map<StorableIndex<S>, IndexStatistics<S>> statistics =
+            new HashMap<StorableIndex<S>, IndexStatistics<S>>();
+
+        try {
+            Storage<StoredIndexStatistics> storage = mRepository.getWrappedRepository()
+                .storageFor(StoredIndexStatistics.class);
+
+            Transaction txn = mRepository.getWrappedRepository()
+                .enterTopTransaction(IsolationLevel.READ_COMMITTED);
+            try {
+                for (StorableIndex<S> index : mQueryableIndexSet) {
+                    StoredIndexStatistics stored = storage.prepare();
+                    stored.setIndexName(index.getNameDescriptor());
+                    if (stored.tryLoad()) {
+                        IndexStatistics<S> stats =
+                            IndexStatisticsGatherer.fromStored(index, stored);
+                        if (stats != null) {
+                            statistics.put(index, stats);
+                        }
+                    }
+                }
+            } finally {
+                txn.exit();
+            }
+        } catch (RepositoryException e) {
+            // Statistics are optional, so queries are planned without them.
+            Log log = LogFactory.getLog(IndexedStorage.class);
+            if (log.isDebugEnabled()) {
+                log.debug("Unable to load index statistics for " +
+                          getStorableType().getName(), e);
+            }
+        }
+
+        return statistics;
+    }
+
+    private void storeStatistics(IndexStatistics<S> stats, int sampleInterval)
+        throws RepositoryException
+    {
+        StoredIndexStatistics stored = mRepository.getWrappedRepository()
+            .storageFor(StoredIndexStatistics.class).prepare();
+        stored.setIndexName(stats.getIndex().getNameDescriptor());
+
+        Transaction txn = mRepository.getWrappedRepository()
+            .enterTopTransaction(IsolationLevel.READ_COMMITTED);
+        txn.setForUpdate(true);
+        try {
+            boolean exists = stored.tryLoad();
+            IndexStatisticsGatherer.toStored(stats, sampleInterval, stored);
+            if (exists) {
+                stored.update();
+            } else {
+                stored.setVersionNumber(0);
+                stored.insert();
+            }
+            txn.commit();
+        } finally {
+            txn.exit();
+        }
     }
 
     @SuppressWarnings("unchecked")
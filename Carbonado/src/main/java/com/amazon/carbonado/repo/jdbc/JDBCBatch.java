@@ -0,0 +1,143 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.PersistNoneException;
+
+/**
+ * Collects consecutive insert, update and delete statements which have the
+ * same SQL, and executes them together with {@link PreparedStatement#executeBatch}.
+ * Statements with different SQL are executed in the order they were added.
+ * Each batched statement must affect a row, or else executing the batch
+ * throws a {@link PersistNoneException}.
+ *
+ * @author Brian S O'Neill
+ * @see JDBCBatchCapability
+ */
+class JDBCBatch {
+    private final Connection mConnection;
+    private final int mMaxSize;
+
+    private String mSql;
+    private PreparedStatement mStatement;
+    private int mSize;
+
+    JDBCBatch(Connection con, int maxSize) {
+        mConnection = con;
+        mMaxSize = maxSize;
+    }
+
+    Connection getConnection() {
+        return mConnection;
+    }
+
+    int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Returns a statement to fill in and pass to {@link #add add}. If the SQL
+     * differs from the statements currently batched, they are executed first.
+     */
+    PreparedStatement prepare(String sql) throws PersistException, SQLException {
+        if (mStatement != null) {
+            if (sql.equals(mSql)) {
+                return mStatement;
+            }
+            flush();
+        }
+        mStatement = mConnection.prepareStatement(sql);
+        mSql = sql;
+        return mStatement;
+    }
+
+    /**
+     * Adds the statement returned by prepare to the batch, executing the batch
+     * if full.
+     */
+    void add(PreparedStatement ps) throws PersistException, SQLException {
+        if (ps != mStatement) {
+            throw new IllegalStateException("Statement isn't from this batch");
+        }
+        ps.addBatch();
+        if (++mSize >= mMaxSize) {
+            boolean success = false;
+            try {
+                execute(ps);
+                success = true;
+            } finally {
+                mSize = 0;
+                if (!success) {
+                    discard();
+                }
+            }
+        }
+    }
+
+    /**
+     * Executes all batched statements.
+     */
+    void flush() throws PersistException, SQLException {
+        PreparedStatement ps = mStatement;
+        if (ps == null) {
+            return;
+        }
+        try {
+            if (mSize > 0) {
+                execute(ps);
+            }
+        } finally {
+            discard();
+        }
+    }
+
+    private void execute(PreparedStatement ps) throws PersistException, SQLException {
+        int[] counts = ps.executeBatch();
+        for (int count : counts) {
+            // Some drivers don't report the count, which is then assumed to
+            // be correct.
+            if (count == 0 || count == Statement.EXECUTE_FAILED) {
+                throw new PersistNoneException("Batched statement affected no rows: " + mSql);
+            }
+        }
+    }
+
+    /**
+     * Closes the statement without executing any batched statements.
+     */
+    void discard() {
+        PreparedStatement ps = mStatement;
+        mStatement = null;
+        mSql = null;
+        mSize = 0;
+        if (ps != null) {
+            try {
+                ps.close();
+            } catch (SQLException e) {
+                // Don't care.
+            }
+        }
+    }
+}
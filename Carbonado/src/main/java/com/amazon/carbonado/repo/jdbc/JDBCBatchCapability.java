@@ -0,0 +1,87 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.jdbc;
+
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.capability.Capability;
+
+/**
+ * Capability to batch the insert, update and delete statements issued by the
+ * current transaction, which is thread-local. Consecutive statements with the
+ * same SQL are sent to the database together, using JDBC batch updates, which
+ * greatly reduces the amount of round trips required by bulk loads.
+ *
+ * <pre>
+ * JDBCBatchCapability cap = repo.getCapability(JDBCBatchCapability.class);
+ * Transaction txn = repo.enterTransaction();
+ * try {
+ *     cap.setBatchSize(1000);
+ *     for (...) {
+ *         ...
+ *         storable.insert();
+ *     }
+ *     txn.commit();
+ * } finally {
+ *     txn.exit();
+ * }
+ * </pre>
+ *
+ * <p>Batched statements are executed when the batch is full, before any other
+ * operation uses the transaction's connection, and when the transaction
+ * commits. As a result, database errors caused by a batched statement are
+ * reported by a later operation. While batching, inserted and updated
+ * Storables are not reloaded, and so properties supplied by the database are
+ * not retrieved. Also, tryUpdate and tryDelete return true without knowing if
+ * a record matched. If a batched update or delete matches no record, the
+ * operation which executes the batch throws a {@link
+ * com.amazon.carbonado.PersistNoneException PersistNoneException}.
+ *
+ * <p>Entering a nested transaction executes the batched statements, because
+ * the nested transaction requires a savepoint. Statements issued by the nested
+ * transaction are then batched until it exits, and aborting it rolls them
+ * back. Nested transactions are therefore best avoided while batching.
+ *
+ * <p>Storables with identity properties, Lob properties or an optimistic
+ * locking version property are never batched. Triggers and sequences behave
+ * as usual.
+ *
+ * @author Brian S O'Neill
+ * @since 1.2.4
+ */
+public interface JDBCBatchCapability extends Capability {
+    /**
+     * Sets the maximum amount of statements to batch for the current
+     * transaction, which lasts until the transaction exits. A size of one or
+     * less disables batching, after executing any batched statements.
+     *
+     * @throws IllegalStateException if no transaction is in progress
+     */
+    void setBatchSize(int size) throws PersistException;
+
+    /**
+     * Returns the maximum amount of statements batched for the current
+     * transaction, which is zero if not batching.
+     */
+    int getBatchSize();
+
+    /**
+     * Executes all statements batched by the current transaction.
+     */
+    void flushBatch() throws PersistException;
+}
@@ -67,7 +67,7 @@ class JDBCCursor<S extends Storable> extends AbstractCursor<S> {
             try {
                 mScope.unregister(mStorage.getStorableType(), this);
                 mResultSet.close();
-                mStatement.close();
+                mStorage.mRepository.closeStatement(mConnection, mStatement);
                 mStorage.mRepository.yieldConnection(mConnection);
             } catch (SQLException e) {
                 throw mStorage.getJDBCRepository().toFetchException(e);
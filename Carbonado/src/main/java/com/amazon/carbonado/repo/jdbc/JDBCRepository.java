@@ -21,11 +21,13 @@ package com.amazon.carbonado.repo.jdbc;
 import java.lang.reflect.Method;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -79,6 +81,8 @@ class JDBCRepository extends AbstractRepository<JDBCTransaction>
                ShutdownCapability,
                StorableInfoCapability,
                JDBCConnectionCapability,
+               JDBCBatchCapability,
+               JDBCStatementCacheCapability,
                SequenceCapability
 {
     /**
@@ -175,8 +179,13 @@ class JDBCRepository extends AbstractRepository<JDBCTransaction>
     private final String mCatalog;
     private final String mSchema;
     private final Integer mFetchSize;
+    private final int mStatementCacheSize;
     private final boolean mPrimaryKeyCheckDisabled;
 
+    private final AtomicLong mStatementCacheHits = new AtomicLong();
+    private final AtomicLong mStatementCacheMisses = new AtomicLong();
+    private final AtomicLong mStatementCacheEvictions = new AtomicLong();
+
     // Maps Storable types which should have automatic version management.
     private Map<String, Boolean> mAutoVersioningMap;
 
@@ -217,6 +226,8 @@ class JDBCRepository extends AbstractRepository<JDBCTransaction>
      * is database independent
      * @param schema optional schema to search for tables -- actual meaning is
      * is database independent
+     * @param statementCacheSize maximum amount of statements cached by each
+     * transaction; caching is disabled if zero
      * @param forceStoredSequence tells the repository to use a stored sequence
      * even if the database supports native sequences
      */
@@ -226,7 +237,7 @@ class JDBCRepository extends AbstractRepository<JDBCTransaction>
                    Iterable<TriggerFactory> triggerFactories,
                    DataSource dataSource, boolean dataSourceClose,
                    String catalog, String schema,
-                   Integer fetchSize,
+                   Integer fetchSize, int statementCacheSize,
                    Map<String, Boolean> autoVersioningMap,
                    Map<String, Boolean> suppressReloadMap,
                    String sequenceSelectStatement, boolean forceStoredSequence, boolean primaryKeyCheckDisabled,
@@ -245,6 +256,7 @@ class JDBCRepository extends AbstractRepository<JDBCTransaction>
         mCatalog = catalog;
         mSchema = schema;
         mFetchSize = fetchSize;
+        mStatementCacheSize = statementCacheSize;
         mPrimaryKeyCheckDisabled = primaryKeyCheckDisabled;
 
         mAutoVersioningMap = autoVersioningMap;
@@ -426,9 +438,23 @@ class JDBCRepository extends AbstractRepository<JDBCTransaction>
 
     /**
      * Any connection returned by this method must be closed by calling
-     * yieldConnection on this repository.
+     * yieldConnection on this repository. Any statements batched by the
+     * current transaction are executed first.
      */
     public Connection getConnection() throws FetchException {
+        return getConnection(true);
+    }
+
+    /**
+     * Returns a connection without executing any statements batched by the
+     * current transaction. Connection must be closed by calling
+     * yieldConnection on this repository.
+     */
+    Connection getBatchConnection() throws FetchException {
+        return getConnection(false);
+    }
+
+    private Connection getConnection(boolean flushBatch) throws FetchException {
         try {
             if (mOpenConnections == null) {
                 throw new FetchException("Repository is closed");
@@ -436,6 +462,9 @@ class JDBCRepository extends AbstractRepository<JDBCTransaction>
 
             JDBCTransaction txn = localTransactionScope().getTxn();
             if (txn != null) {
+                if (flushBatch) {
+                    txn.flushBatch();
+                }
                 // Return the connection used by the current transaction.
                 return txn.getConnection();
             }
@@ -515,6 +544,152 @@ class JDBCRepository extends AbstractRepository<JDBCTransaction>
         }
     }
 
+    /**
+     * Returns the batch of the current transaction, if the given connection
+     * belongs to it.
+     *
+     * @return null if not batching
+     */
+    JDBCBatch getBatch(Connection con) throws PersistException {
+        JDBCTransaction txn;
+        try {
+            txn = localTransactionScope().getTxn();
+        } catch (Exception e) {
+            throw toPersistException(e);
+        }
+        if (txn != null) {
+            JDBCBatch batch = txn.getBatch();
+            if (batch != null && batch.getConnection() == con) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    public void setBatchSize(int size) throws PersistException {
+        try {
+            JDBCTransaction txn = localTransactionScope().getTxn();
+            if (txn == null) {
+                throw new IllegalStateException("No transaction in progress");
+            }
+            txn.setBatchSize(size);
+        } catch (IllegalStateException e) {
+            throw e;
+        } catch (Exception e) {
+            throw toPersistException(e);
+        }
+    }
+
+    public int getBatchSize() {
+        try {
+            JDBCTransaction txn = localTransactionScope().getTxn();
+            if (txn != null) {
+                JDBCBatch batch = txn.getBatch();
+                if (batch != null) {
+                    return batch.getMaxSize();
+                }
+            }
+        } catch (Exception e) {
+            // Treat as not batching.
+        }
+        return 0;
+    }
+
+    public void flushBatch() throws PersistException {
+        try {
+            JDBCTransaction txn = localTransactionScope().getTxn();
+            if (txn != null) {
+                txn.flushBatch();
+            }
+        } catch (Exception e) {
+            throw toPersistException(e);
+        }
+    }
+
+    /**
+     * Called by JDBCTransactionManager and PooledConnection.
+     *
+     * @return null if not caching statements
+     */
+    JDBCStatementCache createStatementCache(Connection con) {
+        if (mStatementCacheSize <= 0) {
+            return null;
+        }
+        return new JDBCStatementCache(con, mStatementCacheSize, mStatementCacheHits,
+                                      mStatementCacheMisses, mStatementCacheEvictions);
+    }
+
+    /**
+     * Prepares a statement using the cache of the given connection. Statement
+     * must be closed by calling closeStatement on this repository, with the
+     * same connection.
+     */
+    PreparedStatement prepareStatement(Connection con, String sql) throws SQLException {
+        JDBCStatementCache cache = statementCacheFor(con);
+        if (cache != null) {
+            return cache.prepare(sql);
+        }
+        return con.prepareStatement(sql);
+    }
+
+    /**
+     * Returns a statement to the cache of the given connection, or closes it
+     * if not cached.
+     */
+    void closeStatement(Connection con, PreparedStatement ps) throws SQLException {
+        JDBCStatementCache cache = statementCacheFor(con);
+        if (cache != null) {
+            cache.close(ps);
+        } else {
+            ps.close();
+        }
+    }
+
+    /**
+     * Returns the statement cache for the given connection. Connections from
+     * a PooledDataSource keep their cache while pooled, and so auto-commit
+     * operations use it too. Other connections only cache statements within
+     * a transaction.
+     *
+     * @return null if not caching statements
+     */
+    private JDBCStatementCache statementCacheFor(Connection con) {
+        if (mStatementCacheSize <= 0) {
+            return null;
+        }
+        if (con instanceof PooledConnection) {
+            return ((PooledConnection) con).getStatementCache(this);
+        }
+        try {
+            JDBCTransaction txn = localTransactionScope().getTxn();
+            if (txn != null) {
+                JDBCStatementCache cache = txn.getStatementCache();
+                if (cache != null && cache.getConnection() == con) {
+                    return cache;
+                }
+            }
+        } catch (Exception e) {
+            // Treat as not caching.
+        }
+        return null;
+    }
+
+    public int getStatementCacheSize() {
+        return mStatementCacheSize;
+    }
+
+    public long getStatementCacheHits() {
+        return mStatementCacheHits.get();
+    }
+
+    public long getStatementCacheMisses() {
+        return mStatementCacheMisses.get();
+    }
+
+    public long getStatementCacheEvictions() {
+        return mStatementCacheEvictions.get();
+    }
+
     void closeConnection(Connection con) throws SQLException {
         mOpenConnectionsLock.lock();
         try {
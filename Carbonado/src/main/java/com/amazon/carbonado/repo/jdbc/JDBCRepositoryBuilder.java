@@ -64,6 +64,8 @@ public class JDBCRepositoryBuilder extends AbstractRepositoryBuilder {
     private boolean mIsMaster = true;
     private DataSource mDataSource;
     private boolean mDataSourceClose;
+    // Is true if DataSource was created by this builder.
+    private boolean mDataSourceCreated;
     private boolean mDataSourceLogging;
     private String mCatalog;
     private String mSchema;
@@ -71,7 +73,12 @@ public class JDBCRepositoryBuilder extends AbstractRepositoryBuilder {
     private String mURL;
     private String mUsername;
     private String mPassword;
+    private boolean mConnectionPooling = true;
+    private int mMinConnections = 0;
+    private int mMaxConnections = 0;
+    private long mConnectionWaitTimeout = 30 * 1000;
     private Integer mFetchSize;
+    private int mStatementCacheSize = 50;
     private Map<String, Boolean> mAutoVersioningMap;
     private Map<String, Boolean> mSuppressReloadMap;
     private String mSequenceSelectStatement;
@@ -90,9 +97,9 @@ public class JDBCRepositoryBuilder extends AbstractRepositoryBuilder {
 
         JDBCRepository repo = new JDBCRepository
             (rootRef, getName(), isMaster(), getTriggerFactories(),
-             getDataSource(), getDataSourceCloseOnShutdown(),
+             getDataSource(), getDataSourceCloseOnShutdown() || mDataSourceCreated,
              mCatalog, mSchema,
-             mFetchSize,
+             mFetchSize, mStatementCacheSize,
              getAutoVersioningMap(),
              getSuppressReloadMap(),
              mSequenceSelectStatement, mForceStoredSequence, mPrimaryKeyCheckDisabled,
@@ -129,10 +136,15 @@ public class JDBCRepositoryBuilder extends AbstractRepositoryBuilder {
      * <li>{@link #setDriverURL}
      * <li>{@link #setUserName}
      * <li>{@link #setPassword}
+     * <li>{@link #setConnectionPooling}
+     * <li>{@link #setMinConnections}
+     * <li>{@link #setMaxConnections}
+     * <li>{@link #setConnectionWaitTimeout}
      * </ul>
      */
     public void setDataSource(DataSource dataSource) {
         mDataSource = dataSource;
+        mDataSourceCreated = false;
         mDriverClassName = null;
         mURL = null;
         mUsername = null;
@@ -140,9 +152,16 @@ public class JDBCRepositoryBuilder extends AbstractRepositoryBuilder {
     }
 
     /**
-     * Returns the source of JDBC connections, which defaults to a non-pooling
-     * source if driver class, driver URL, username, and password are all
-     * supplied.
+     * Returns the source of JDBC connections, which defaults to a {@link
+     * PooledDataSource pooling} source if driver class and driver URL are
+     * supplied. The pool is created by the first call to this method, using
+     * the connection pooling options of this builder, and it is closed when
+     * the repository is closed. If pooling is disabled, a non-pooling source
+     * is returned instead.
+     *
+     * <p>Before version 1.2.4, the default source was always non-pooling.
+     * The pool doesn't limit the amount of connections unless a {@link
+     * #setMaxConnections maximum} is set, matching the earlier behavior.
      *
      * @throws ConfigurationException if driver class wasn't found
      */
@@ -150,8 +169,20 @@ public class JDBCRepositoryBuilder extends AbstractRepositoryBuilder {
         if (mDataSource == null) {
             if (mDriverClassName != null && mURL != null) {
                 try {
-                    mDataSource = new SimpleDataSource
-                        (mDriverClassName, mURL, mUsername, mPassword);
+                    if (mConnectionPooling) {
+                        PooledDataSource pool = new PooledDataSource
+                            (mDriverClassName, mURL, mUsername, mPassword);
+                        pool.setMinConnections(mMinConnections);
+                        if (mMaxConnections > 0) {
+                            pool.setMaxConnections(mMaxConnections);
+                        }
+                        pool.setWaitTimeout(mConnectionWaitTimeout);
+                        mDataSource = pool;
+                    } else {
+                        mDataSource = new SimpleDataSource
+                            (mDriverClassName, mURL, mUsername, mPassword);
+                    }
+                    mDataSourceCreated = true;
                 } catch (SQLException e) {
                     Throwable cause = e.getCause();
                     if (cause == null) {
@@ -266,6 +297,90 @@ public class JDBCRepositoryBuilder extends AbstractRepositoryBuilder {
         return mURL;
     }
 
+    /**
+     * Pass false to open a new connection for every use instead of pooling
+     * connections, when a DataSource was not provided. By default, this
+     * option is true.
+     *
+     * @since 1.2.4
+     */
+    public void setConnectionPooling(boolean b) {
+        mConnectionPooling = b;
+    }
+
+    /**
+     * Returns true if connections are pooled when a DataSource was not
+     * provided.
+     *
+     * @since 1.2.4
+     */
+    public boolean getConnectionPooling() {
+        return mConnectionPooling;
+    }
+
+    /**
+     * Set the minimum amount of pooled connections to keep open, when a
+     * DataSource was not provided. By default, the minimum is zero.
+     *
+     * @since 1.2.4
+     */
+    public void setMinConnections(int min) {
+        mMinConnections = min;
+    }
+
+    /**
+     * Returns the minimum amount of pooled connections to keep open.
+     *
+     * @since 1.2.4
+     */
+    public int getMinConnections() {
+        return mMinConnections;
+    }
+
+    /**
+     * Set the maximum amount of pooled connections open at once, when a
+     * DataSource was not provided. When all are in use, obtaining a
+     * connection waits for one to be released, up to the {@link
+     * #setConnectionWaitTimeout wait timeout}. By default, the maximum is
+     * zero, which means unlimited.
+     *
+     * @since 1.2.4
+     */
+    public void setMaxConnections(int max) {
+        mMaxConnections = max;
+    }
+
+    /**
+     * Returns the maximum amount of pooled connections open at once, which
+     * is zero if unlimited.
+     *
+     * @since 1.2.4
+     */
+    public int getMaxConnections() {
+        return mMaxConnections;
+    }
+
+    /**
+     * Set the maximum time to wait for a pooled connection when the maximum
+     * amount are in use, which is 30 seconds by default. Pass negative to
+     * wait forever.
+     *
+     * @since 1.2.4
+     */
+    public void setConnectionWaitTimeout(long timeoutMillis) {
+        mConnectionWaitTimeout = timeoutMillis;
+    }
+
+    /**
+     * Returns the maximum time to wait for a pooled connection, in
+     * milliseconds.
+     *
+     * @since 1.2.4
+     */
+    public long getConnectionWaitTimeout() {
+        return mConnectionWaitTimeout;
+    }
+
     /**
      * Optionally set the username to use with DataSource.
      */
@@ -314,6 +429,30 @@ public class JDBCRepositoryBuilder extends AbstractRepositoryBuilder {
         return mFetchSize;
     }
 
+    /**
+     * Set the maximum amount of prepared statements cached by each
+     * connection, which is 50 by default. Statements are cached by SQL and
+     * reused by later operations on the same pooled connection. If the
+     * DataSource isn't a {@link PooledDataSource}, statements are only
+     * reused within the same transaction. Pass zero to disable caching.
+     *
+     * @since 1.2.4
+     * @see JDBCStatementCacheCapability
+     */
+    public void setStatementCacheSize(int size) {
+        mStatementCacheSize = size < 0 ? 0 : size;
+    }
+
+    /**
+     * Returns the maximum amount of prepared statements cached by each
+     * connection, which is zero if disabled.
+     *
+     * @since 1.2.4
+     */
+    public int getStatementCacheSize() {
+        return mStatementCacheSize;
+    }
+
     /**
      * By default, JDBCRepository assumes that {@link
      * com.amazon.carbonado.Version version numbers} are initialized and
@@ -41,7 +41,9 @@ class JDBCSequenceValueProducer extends AbstractSequenceValueProducer {
 
     public long nextLongValue() throws PersistException {
         try {
-            Connection con = mRepo.getConnection();
+            // Sequence query doesn't examine any tables, and so batched
+            // statements need not be executed first.
+            Connection con = mRepo.getBatchConnection();
             try {
                 Statement st = con.createStatement();
                 try {
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Least recently used cache of prepared statements for one connection, keyed
+ * by SQL. Statements are removed from the cache while in use, and so the same
+ * SQL can be prepared again by a nested operation. Connections obtained from
+ * a {@link PooledDataSource} keep their cache while pooled, and other
+ * connections only cache statements for the duration of a transaction.
+ *
+ * @author Brian S O'Neill
+ * @see JDBCStatementCacheCapability
+ */
+class JDBCStatementCache {
+    private final Connection mConnection;
+    private final int mMaxSize;
+
+    private final AtomicLong mHits;
+    private final AtomicLong mMisses;
+    private final AtomicLong mEvictions;
+
+    // Maps SQL to idle statements, in access order.
+    private final LinkedHashMap<String, PreparedStatement> mIdle;
+    // Maps statements in use to their SQL.
+    private final Map<PreparedStatement, String> mInUse;
+
+    /**
+     * @param hits shared counter of cache hits
+     * @param misses shared counter of cache misses
+     * @param evictions shared counter of evicted statements
+     */
+    JDBCStatementCache(Connection con, int maxSize,
+                       AtomicLong hits, AtomicLong misses, AtomicLong evictions)
+    {
+        mConnection = con;
+        mMaxSize = maxSize;
+        mHits = hits;
+        mMisses = misses;
+        mEvictions = evictions;
+        mIdle = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+        mInUse = new IdentityHashMap<PreparedStatement, String>();
+    }
+
+    Connection getConnection() {
+        return mConnection;
+    }
+
+    /**
+     * Returns a cached statement or prepares a new one. Statement must be
+     * passed to {@link #close close} when done.
+     */
+    synchronized PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement ps = mIdle.remove(sql);
+        if (ps != null) {
+            mHits.incrementAndGet();
+        } else {
+            mMisses.incrementAndGet();
+            ps = mConnection.prepareStatement(sql);
+        }
+        mInUse.put(ps, sql);
+        return ps;
+    }
+
+    /**
+     * Returns the statement to the cache, or closes it if it didn't come from
+     * this cache.
+     */
+    void close(PreparedStatement ps) throws SQLException {
+        PreparedStatement evicted = null;
+
+        synchronized (this) {
+            String sql = mInUse.remove(ps);
+            if (sql != null) {
+                try {
+                    ps.clearParameters();
+                    if (ps.getQueryTimeout() != 0) {
+                        ps.setQueryTimeout(0);
+                    }
+                } catch (SQLException e) {
+                    ps.close();
+                    throw e;
+                }
+
+                evicted = mIdle.put(sql, ps);
+
+                if (evicted == null && mIdle.size() > mMaxSize) {
+                    Iterator<PreparedStatement> it = mIdle.values().iterator();
+                    evicted = it.next();
+                    it.remove();
+                }
+
+                if (evicted == null) {
+                    return;
+                }
+
+                mEvictions.incrementAndGet();
+                ps = evicted;
+            }
+        }
+
+        ps.close();
+    }
+
+    /**
+     * Closes all statements which are in use, which should only be the case
+     * if they were leaked.
+     */
+    synchronized void closeInUse() {
+        for (PreparedStatement ps : mInUse.keySet()) {
+            closeQuietly(ps);
+        }
+        mInUse.clear();
+    }
+
+    /**
+     * Closes all statements, including those in use.
+     */
+    synchronized void closeAll() {
+        for (PreparedStatement ps : mIdle.values()) {
+            closeQuietly(ps);
+        }
+        mIdle.clear();
+        for (PreparedStatement ps : mInUse.keySet()) {
+            closeQuietly(ps);
+        }
+        mInUse.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException e) {
+            // Don't care.
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.jdbc;
+
+import com.amazon.carbonado.capability.Capability;
+
+/**
+ * Capability to examine the prepared statement caches of a JDBC
+ * repository. Each connection obtained from a {@link PooledDataSource}
+ * caches the statements it prepares, up to a maximum amount, and the cache
+ * is kept while the connection is pooled. Repeated operations, including
+ * those outside of transactions, don't prepare the same SQL again. For other
+ * DataSources, statements are only cached for the duration of each
+ * transaction. Statistics are totals over all caches.
+ *
+ * @author Brian S O'Neill
+ * @see JDBCRepositoryBuilder#setStatementCacheSize
+ * @since 1.2.4
+ */
+public interface JDBCStatementCacheCapability extends Capability {
+    /**
+     * Returns the maximum amount of statements cached by each connection or
+     * transaction, which is zero if caching is disabled.
+     */
+    int getStatementCacheSize();
+
+    /**
+     * Returns the amount of times a cached statement was used.
+     */
+    long getStatementCacheHits();
+
+    /**
+     * Returns the amount of times a statement had to be prepared because it
+     * wasn't cached.
+     */
+    long getStatementCacheMisses();
+
+    /**
+     * Returns the amount of statements closed to make room in a full cache.
+     */
+    long getStatementCacheEvictions();
+}
@@ -393,7 +393,8 @@ class JDBCStorableGenerator<S extends Storable> {
             LocalVariable psVar = b.createLocalVariable("ps", preparedStatementType);
 
             Label tryAfterPs = buildWhereClauseAndPreparedStatement
-                (b, selectBuilder, b.getParameter(1), psVar, b.getParameter(0), null);
+                (b, selectBuilder, b.getParameter(1), psVar, b.getParameter(0), null,
+                 b.getParameter(0), null);
 
             b.loadLocal(psVar);
             b.invokeInterface(preparedStatementType, "executeQuery", resultSetType, null);
@@ -422,7 +423,7 @@ class JDBCStorableGenerator<S extends Storable> {
             noResults.setLocation();
 
             closeResultSet(b, rsVar, tryAfterRs);
-            closeStatement(b, psVar, tryAfterPs);
+            closeStatement(b, b.getParameter(0), b.getParameter(1), psVar, tryAfterPs, null);
 
             b.loadLocal(resultVar);
             b.returnValue(TypeDesc.BOOLEAN);
@@ -515,8 +516,16 @@ class JDBCStorableGenerator<S extends Storable> {
             mi.addException(TypeDesc.forClass(PersistException.class));
             CodeBuilder b = new CodeBuilder(mi);
 
+            // Gather all Lob properties to track if a post-insert update is required.
+            Map<JDBCStorableProperty<S>, Integer> lobIndexMap = findLobs();
+
+            // Generated keys and large Lobs require the insert to be executed
+            // immediately, and so it cannot be batched.
+            boolean batchable =
+                mInfo.getIdentityProperties().isEmpty() && lobIndexMap.isEmpty();
+
             LocalVariable supportVar = getJDBCSupport(b);
-            LocalVariable conVar = getConnection(b, supportVar);
+            LocalVariable conVar = getConnection(b, supportVar, batchable);
             Label tryAfterCon = b.createLabel().setLocation();
 
             // Push connection in preparation for preparing a statement.
@@ -674,22 +683,25 @@ class JDBCStorableGenerator<S extends Storable> {
                 mInfo.getIdentityProperties().values();
 
             LocalVariable psVar = b.createLocalVariable("ps", preparedStatementType);
-            if (identityProperties.isEmpty()) {
-                b.invokeInterface(connectionType, "prepareStatement", preparedStatementType,
-                                  new TypeDesc[] {TypeDesc.STRING});
+            LocalVariable batchedVar = null;
+            if (batchable) {
+                batchedVar = b.createLocalVariable("batched", TypeDesc.BOOLEAN);
+                prepareBatchableStatement(b, supportVar, conVar, psVar, batchedVar);
             } else {
-                b.loadConstant(Statement.RETURN_GENERATED_KEYS);
-                b.invokeInterface(connectionType, "prepareStatement", preparedStatementType,
-                                  new TypeDesc[] {TypeDesc.STRING, TypeDesc.INT});
+                if (identityProperties.isEmpty()) {
+                    prepareStatement(b, supportVar, conVar, psVar);
+                } else {
+                    b.loadConstant(Statement.RETURN_GENERATED_KEYS);
+                    b.invokeInterface(connectionType, "prepareStatement", preparedStatementType,
+                                      new TypeDesc[] {TypeDesc.STRING, TypeDesc.INT});
+                    b.storeLocal(psVar);
+                }
             }
-            b.storeLocal(psVar);
 
             Label tryAfterPs = b.createLabel().setLocation();
 
             // Now fill in parameters with property values.
 
-            // Gather all Lob properties to track if a post-insert update is required.
-            Map<JDBCStorableProperty<S>, Integer> lobIndexMap = findLobs();
             LocalVariable lobArrayVar = null;
             if (lobIndexMap.size() != 0) {
                 // Create array to track which Lobs are too large and need extra work.
@@ -747,7 +759,13 @@ class JDBCStorableGenerator<S extends Storable> {
                 nextProperty.setLocation();
             }
 
-            // Execute the statement.
+            // Execute the statement, unless batched.
+            Label batched = null;
+            if (batchedVar != null) {
+                batched = b.createLabel();
+                addBatchIfBatched(b, supportVar, conVar, psVar, batchedVar, batched);
+            }
+
             b.loadLocal(psVar);
             b.invokeInterface(preparedStatementType, "executeUpdate", TypeDesc.INT, null);
             b.pop();
@@ -779,7 +797,7 @@ class JDBCStorableGenerator<S extends Storable> {
                 closeResultSet(b, rsVar, tryAfterRs);
             }
 
-            closeStatement(b, psVar, tryAfterPs);
+            closeStatement(b, supportVar, conVar, psVar, tryAfterPs, batchedVar);
 
             if (!mSuppressReload) {
                 // Immediately reload object, to ensure that any database supplied
@@ -828,6 +846,11 @@ class JDBCStorableGenerator<S extends Storable> {
                 reloaded.setLocation();
             }
 
+            if (batched != null) {
+                // Batched statement isn't closed, and insert isn't reloaded.
+                batched.setLocation();
+            }
+
             // Note: yieldConAndHandleException is not called, allowing any
             // SQLException to be thrown. The insert or tryInsert methods must handle it.
             yieldCon(b, supportVar, conVar, tryAfterCon);
@@ -849,9 +872,23 @@ class JDBCStorableGenerator<S extends Storable> {
             // Only update properties with state DIRTY. Therefore, update
             // statement is always dynamic.
 
+            JDBCStorableProperty<S> versionProperty = mInfo.getVersionProperty();
+            if (versionProperty != null) {
+                if (!versionProperty.isSelectable() || mVersioning == Versioning.NONE) {
+                    versionProperty = null;
+                }
+            }
+
+            // Gather all Lob properties to track if a post-update update is required.
+            Map<JDBCStorableProperty<S>, Integer> lobIndexMap = findLobs();
+
+            // Optimistic locking requires the update count, and large Lobs
+            // require an extra update. Neither can be batched.
+            boolean batchable = versionProperty == null && lobIndexMap.isEmpty();
+
             LocalVariable supportVar = getJDBCSupport(b);
             Label tryBeforeCon = b.createLabel().setLocation();
-            LocalVariable conVar = getConnection(b, supportVar);
+            LocalVariable conVar = getConnection(b, supportVar, batchable);
             Label tryAfterCon = b.createLabel().setLocation();
 
             // Load connection in preparation for creating statement.
@@ -922,17 +959,12 @@ class JDBCStorableGenerator<S extends Storable> {
             Collection<JDBCStorableProperty<S>> whereProperties =
                 mInfo.getPrimaryKeyProperties().values();
 
-            JDBCStorableProperty<S> versionProperty = mInfo.getVersionProperty();
             if (versionProperty != null) {
-                if (!versionProperty.isSelectable() || mVersioning == Versioning.NONE) {
-                    versionProperty = null;
-                } else {
-                    // Include version property in WHERE clause to support optimistic locking.
-                    List<JDBCStorableProperty<S>> list =
-                        new ArrayList<JDBCStorableProperty<S>>(whereProperties);
-                    list.add(versionProperty);
-                    whereProperties = list;
-                }
+                // Include version property in WHERE clause to support optimistic locking.
+                List<JDBCStorableProperty<S>> list =
+                    new ArrayList<JDBCStorableProperty<S>>(whereProperties);
+                list.add(versionProperty);
+                whereProperties = list;
             }
 
             // If no dirty properties, a valid update statement must still be
@@ -995,9 +1027,13 @@ class JDBCStorableGenerator<S extends Storable> {
             // statement String.
 
             LocalVariable psVar = b.createLocalVariable("ps", preparedStatementType);
-            b.invokeInterface(connectionType, "prepareStatement", preparedStatementType,
-                              new TypeDesc[] {TypeDesc.STRING});
-            b.storeLocal(psVar);
+            LocalVariable batchedVar = null;
+            if (batchable) {
+                batchedVar = b.createLocalVariable("batched", TypeDesc.BOOLEAN);
+                prepareBatchableStatement(b, supportVar, conVar, psVar, batchedVar);
+            } else {
+                prepareStatement(b, supportVar, conVar, psVar);
+            }
             Label tryAfterPs = b.createLabel().setLocation();
 
             // Walk through dirty properties again, setting values on statement.
@@ -1007,8 +1043,6 @@ class JDBCStorableGenerator<S extends Storable> {
             b.loadConstant(1);
             b.storeLocal(indexVar);
 
-            // Gather all Lob properties to track if a post-update update is required.
-            Map<JDBCStorableProperty<S>, Integer> lobIndexMap = findLobs();
             LocalVariable lobArrayVar = null;
             if (lobIndexMap.size() != 0) {
                 // Create array to track which Lobs are too large and need extra work.
@@ -1093,17 +1127,25 @@ class JDBCStorableGenerator<S extends Storable> {
                 nextProperty.setLocation();
             }
 
-            // Execute the update statement.
+            // Execute the update statement, unless batched.
 
-            b.loadLocal(psVar);
             LocalVariable updateCount = b.createLocalVariable("updateCount", TypeDesc.INT);
+            Label doReload = b.createLabel();
+            Label skipReload = b.createLabel();
+
+            if (batchedVar != null) {
+                // Batched update isn't reloaded, and the batch checks that a
+                // record was updated when it executes.
+                b.loadConstant(1);
+                b.storeLocal(updateCount);
+                addBatchIfBatched(b, supportVar, conVar, psVar, batchedVar, skipReload);
+            }
+
+            b.loadLocal(psVar);
             b.invokeInterface(preparedStatementType, "executeUpdate", TypeDesc.INT, null);
             b.storeLocal(updateCount);
 
-            closeStatement(b, psVar, tryAfterPs);
-
-            Label doReload = b.createLabel();
-            Label skipReload = b.createLabel();
+            closeStatement(b, supportVar, conVar, psVar, tryAfterPs, batchedVar);
 
             if (versionProperty == null) {
                 b.loadLocal(updateCount);
@@ -1126,7 +1168,7 @@ class JDBCStorableGenerator<S extends Storable> {
                 LocalVariable countPsVar = b.createLocalVariable("ps", preparedStatementType);
 
                 Label tryAfterCountPs = buildWhereClauseAndPreparedStatement
-                    (b, selectBuilder, conVar, countPsVar, null, null);
+                    (b, selectBuilder, conVar, countPsVar, null, null, supportVar, null);
 
                 b.loadLocal(countPsVar);
                 b.invokeInterface(preparedStatementType, "executeQuery", resultSetType, null);
@@ -1147,7 +1189,7 @@ class JDBCStorableGenerator<S extends Storable> {
                 b.storeLocal(actualVersion);
 
                 closeResultSet(b, rsVar, tryAfterRs);
-                closeStatement(b, countPsVar, tryAfterCountPs);
+                closeStatement(b, supportVar, conVar, countPsVar, tryAfterCountPs, null);
 
                 // Throw exception.
                 {
@@ -1211,24 +1253,31 @@ class JDBCStorableGenerator<S extends Storable> {
 
             LocalVariable supportVar = getJDBCSupport(b);
             Label tryBeforeCon = b.createLabel().setLocation();
-            LocalVariable conVar = getConnection(b, supportVar);
+            LocalVariable conVar = getConnection(b, supportVar, true);
             Label tryAfterCon = b.createLabel().setLocation();
 
             LocalVariable psVar = b.createLocalVariable("ps", preparedStatementType);
+            LocalVariable batchedVar = b.createLocalVariable("batched", TypeDesc.BOOLEAN);
 
             Label tryAfterPs = buildWhereClauseAndPreparedStatement
-                (b, deleteBuilder, conVar, psVar, null, null);
-
-            b.loadLocal(psVar);
-            b.invokeInterface(preparedStatementType, "executeUpdate", TypeDesc.INT, null);
+                (b, deleteBuilder, conVar, psVar, null, null, supportVar, batchedVar);
 
             // Return false if count is zero, true otherwise. Just return the
-            // int as if it were boolean.
+            // int as if it were boolean. Batched delete returns true, and the
+            // batch checks that a record was deleted when it executes.
 
             LocalVariable resultVar = b.createLocalVariable("result", TypeDesc.INT);
+            b.loadConstant(1);
             b.storeLocal(resultVar);
+            Label batched = b.createLabel();
+            addBatchIfBatched(b, supportVar, conVar, psVar, batchedVar, batched);
 
-            closeStatement(b, psVar, tryAfterPs);
+            b.loadLocal(psVar);
+            b.invokeInterface(preparedStatementType, "executeUpdate", TypeDesc.INT, null);
+            b.storeLocal(resultVar);
+
+            closeStatement(b, supportVar, conVar, psVar, tryAfterPs, batchedVar);
+            batched.setLocation();
             yieldConAndHandleException(b, supportVar, tryBeforeCon, conVar, tryAfterCon, true);
 
             b.loadLocal(resultVar);
@@ -1308,14 +1357,154 @@ class JDBCStorableGenerator<S extends Storable> {
      * @param capVar reference to JDBCConnectionCapability
      */
     private LocalVariable getConnection(CodeBuilder b, LocalVariable capVar) {
+        return getConnection(b, capVar, false);
+    }
+
+    /**
+     * Generates code to get connection from JDBCConnectionCapability and store
+     * it in a local variable.
+     *
+     * @param capVar reference to JDBCConnectionCapability, which must be a
+     * JDBCSupport if forBatch is true
+     * @param forBatch when true, get connection without executing batched
+     * statements, because statements prepared with it can be batched
+     */
+    private LocalVariable getConnection(CodeBuilder b, LocalVariable capVar, boolean forBatch) {
         b.loadLocal(capVar);
-        b.invokeInterface(TypeDesc.forClass(JDBCConnectionCapability.class),
-                          "getConnection", TypeDesc.forClass(Connection.class), null);
+        if (forBatch) {
+            b.invokeInterface(TypeDesc.forClass(JDBCSupport.class),
+                              "getBatchConnection", TypeDesc.forClass(Connection.class), null);
+        } else {
+            b.invokeInterface(TypeDesc.forClass(JDBCConnectionCapability.class),
+                              "getConnection", TypeDesc.forClass(Connection.class), null);
+        }
         LocalVariable conVar = b.createLocalVariable("con", TypeDesc.forClass(Connection.class));
         b.storeLocal(conVar);
         return conVar;
     }
 
+    /**
+     * Generates code which emulates this:
+     *
+     *     ps = support.prepareBatchStatement(con, sql);
+     *     if (!(batched = (ps != null))) {
+     *         ps = support.prepareStatement(con, sql);
+     *     }
+     *
+     * Assumes that the connection and SQL statement String are on the stack.
+     *
+     * @param supportVar reference to JDBCSupport
+     * @param conVar connection returned by getBatchConnection
+     * @param psVar declared local variable which will receive PreparedStatement
+     * @param batchedVar declared boolean local variable which is set to true
+     * if statement is batched
+     */
+    private void prepareBatchableStatement(CodeBuilder b,
+                                           LocalVariable supportVar,
+                                           LocalVariable conVar,
+                                           LocalVariable psVar,
+                                           LocalVariable batchedVar)
+    {
+        final TypeDesc connectionType = TypeDesc.forClass(Connection.class);
+        final TypeDesc preparedStatementType = TypeDesc.forClass(PreparedStatement.class);
+
+        LocalVariable sqlVar = b.createLocalVariable("sql", TypeDesc.STRING);
+        b.storeLocal(sqlVar);
+        // Connection is also in conVar.
+        b.pop();
+
+        b.loadLocal(supportVar);
+        b.loadLocal(conVar);
+        b.loadLocal(sqlVar);
+        b.invokeInterface(TypeDesc.forClass(JDBCSupport.class), "prepareBatchStatement",
+                          preparedStatementType, new TypeDesc[] {connectionType, TypeDesc.STRING});
+        b.storeLocal(psVar);
+
+        b.loadLocal(psVar);
+        Label notBatched = b.createLabel();
+        b.ifNullBranch(notBatched, true);
+        b.loadConstant(true);
+        b.storeLocal(batchedVar);
+        Label prepared = b.createLabel();
+        b.branch(prepared);
+
+        notBatched.setLocation();
+        b.loadConstant(false);
+        b.storeLocal(batchedVar);
+        b.loadLocal(supportVar);
+        b.loadLocal(conVar);
+        b.loadLocal(sqlVar);
+        b.invokeInterface(TypeDesc.forClass(JDBCSupport.class), "prepareStatement",
+                          preparedStatementType, new TypeDesc[] {connectionType, TypeDesc.STRING});
+        b.storeLocal(psVar);
+
+        prepared.setLocation();
+    }
+
+    /**
+     * Generates code which emulates this:
+     *
+     *     ps = support.prepareStatement(con, sql);
+     *
+     * Assumes that the connection and SQL statement String are on the stack.
+     *
+     * @param supportVar reference to JDBCSupport
+     * @param conVar connection which is on the stack
+     * @param psVar declared local variable which will receive PreparedStatement
+     */
+    private void prepareStatement(CodeBuilder b,
+                                  LocalVariable supportVar,
+                                  LocalVariable conVar,
+                                  LocalVariable psVar)
+    {
+        final TypeDesc connectionType = TypeDesc.forClass(Connection.class);
+        final TypeDesc preparedStatementType = TypeDesc.forClass(PreparedStatement.class);
+
+        LocalVariable sqlVar = b.createLocalVariable("sql", TypeDesc.STRING);
+        b.storeLocal(sqlVar);
+        // Connection is also in conVar.
+        b.pop();
+
+        b.loadLocal(supportVar);
+        b.loadLocal(conVar);
+        b.loadLocal(sqlVar);
+        b.invokeInterface(TypeDesc.forClass(JDBCSupport.class), "prepareStatement",
+                          preparedStatementType, new TypeDesc[] {connectionType, TypeDesc.STRING});
+        b.storeLocal(psVar);
+    }
+
+    /**
+     * Generates code which emulates this:
+     *
+     *     if (batched) {
+     *         support.addBatch(con, ps);
+     *         goto target;
+     *     }
+     *
+     * @param supportVar reference to JDBCSupport
+     * @param batchedVar boolean set by prepareBatchableStatement
+     * @param target branch target when batched
+     */
+    private void addBatchIfBatched(CodeBuilder b,
+                                   LocalVariable supportVar,
+                                   LocalVariable conVar,
+                                   LocalVariable psVar,
+                                   LocalVariable batchedVar,
+                                   Label target)
+    {
+        b.loadLocal(batchedVar);
+        Label notBatched = b.createLabel();
+        b.ifZeroComparisonBranch(notBatched, "==");
+        b.loadLocal(supportVar);
+        b.loadLocal(conVar);
+        b.loadLocal(psVar);
+        b.invokeInterface(TypeDesc.forClass(JDBCSupport.class), "addBatch", null,
+                          new TypeDesc[] {TypeDesc.forClass(Connection.class),
+                                          TypeDesc.forClass(PreparedStatement.class)});
+        b.branch(target);
+        notBatched.setLocation();
+    }
+
     /**
      * Generates code which emulates this:
      *
@@ -1359,6 +1548,41 @@ class JDBCStorableGenerator<S extends Storable> {
          LocalVariable capVar,
          LocalVariable instanceVar)
         throws SupportException
+    {
+        return buildWhereClauseAndPreparedStatement
+            (b, sqlBuilder, conVar, psVar, capVar, instanceVar, null, null);
+    }
+
+    /**
+     * Generates code that finishes the given SQL statement by appending a
+     * WHERE clause. Prepared statement is then created and all parameters are
+     * filled in.
+     *
+     * @param sqlBuilder contains SQL statement right before the WHERE clause
+     * @param conVar local variable referencing connection
+     * @param psVar declared local variable which will receive PreparedStatement
+     * @param capVar when non-null, check transaction if SELECT should be FOR UPDATE
+     * @param instanceVar when null, assume properties are contained in
+     * "this". Otherwise, invoke property access methods on storable referenced
+     * in var.
+     * @param supportVar when non-null, statement is prepared and closed by
+     * JDBCSupport, which might cache it
+     * @param batchedVar when non-null, statement can be batched, which
+     * requires supportVar; see prepareBatchableStatement
+     * @return label right after prepared statement was created, which is to be
+     * used as the start of a try block that ensures the prepared statement is
+     * closed.
+     */
+    private Label buildWhereClauseAndPreparedStatement
+        (CodeBuilder b,
+         StringBuilder sqlBuilder,
+         LocalVariable conVar,
+         LocalVariable psVar,
+         LocalVariable capVar,
+         LocalVariable instanceVar,
+         LocalVariable supportVar,
+         LocalVariable batchedVar)
+        throws SupportException
     {
         final TypeDesc superType = TypeDesc.forClass(mClassFile.getSuperClassName());
         final Iterable<? extends JDBCStorableProperty<?>> properties =
@@ -1489,9 +1713,15 @@ class JDBCStorableGenerator<S extends Storable> {
         final TypeDesc connectionType = TypeDesc.forClass(Connection.class);
         final TypeDesc preparedStatementType = TypeDesc.forClass(PreparedStatement.class);
 
-        b.invokeInterface(connectionType, "prepareStatement", preparedStatementType,
-                          new TypeDesc[] {TypeDesc.STRING});
-        b.storeLocal(psVar);
+        if (batchedVar != null) {
+            prepareBatchableStatement(b, supportVar, conVar, psVar, batchedVar);
+        } else if (supportVar != null) {
+            prepareStatement(b, supportVar, conVar, psVar);
+        } else {
+            b.invokeInterface(connectionType, "prepareStatement", preparedStatementType,
+                              new TypeDesc[] {TypeDesc.STRING});
+            b.storeLocal(psVar);
+        }
         Label tryAfterPs = b.createLabel().setLocation();
 
         // Now set where clause parameters. First pass, set non-nullable properties.
@@ -1832,22 +2062,68 @@ class JDBCStorableGenerator<S extends Storable> {
      */
     private void closeStatement
         (CodeBuilder b, LocalVariable statementVar, Label tryAfterStatement)
+    {
+        closeStatement(b, null, null, statementVar, tryAfterStatement, null);
+    }
+
+    /**
+     * Generates code which emulates this:
+     *
+     * ...
+     * } finally {
+     *     if (!batched) {
+     *         support.closeStatement(con, statement);
+     *     }
+     * }
+     *
+     * @param supportVar optional reference to JDBCSupport; if null, statement
+     * is closed directly
+     * @param conVar Connection variable; required if supportVar is not null
+     * @param statementVar PreparedStatement variable
+     * @param tryAfterStatement label right after Statement acquisition
+     * @param batchedVar optional boolean variable; batched statements belong
+     * to the batch, and so they are not closed
+     */
+    private void closeStatement
+        (CodeBuilder b, LocalVariable supportVar, LocalVariable conVar,
+         LocalVariable statementVar, Label tryAfterStatement,
+         LocalVariable batchedVar)
     {
         Label contLabel = b.createLabel();
         Label endFinallyLabel = b.createLabel().setLocation();
 
-        b.loadLocal(statementVar);
-        b.invokeInterface(TypeDesc.forClass(Statement.class), "close", null, null);
+        closeStatement(b, supportVar, conVar, statementVar);
         b.branch(contLabel);
 
         b.exceptionHandler(tryAfterStatement, endFinallyLabel, null);
-        b.loadLocal(statementVar);
-        b.invokeInterface(TypeDesc.forClass(Statement.class), "close", null, null);
+        Label rethrow = b.createLabel();
+        if (batchedVar != null) {
+            b.loadLocal(batchedVar);
+            b.ifZeroComparisonBranch(rethrow, "!=");
+        }
+        closeStatement(b, supportVar, conVar, statementVar);
+        rethrow.setLocation();
         b.throwObject();
 
         contLabel.setLocation();
     }
 
+    private void closeStatement(CodeBuilder b, LocalVariable supportVar,
+                                LocalVariable conVar, LocalVariable statementVar)
+    {
+        if (supportVar == null) {
+            b.loadLocal(statementVar);
+            b.invokeInterface(TypeDesc.forClass(Statement.class), "close", null, null);
+        } else {
+            b.loadLocal(supportVar);
+            b.loadLocal(conVar);
+            b.loadLocal(statementVar);
+            b.invokeInterface(TypeDesc.forClass(JDBCSupport.class), "closeStatement", null,
+                              new TypeDesc[] {TypeDesc.forClass(Connection.class),
+                                              TypeDesc.forClass(PreparedStatement.class)});
+        }
+    }
+
     /**
      * Generates code which emulates this:
      *
@@ -21,16 +21,23 @@ package com.amazon.carbonado.repo.jdbc;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.LogFactory;
 
+import com.amazon.carbonado.Aggregate;
+import com.amazon.carbonado.AggregateResult;
 import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.IsolationLevel;
@@ -44,14 +51,17 @@ import com.amazon.carbonado.SupportException;
 import com.amazon.carbonado.Transaction;
 import com.amazon.carbonado.Trigger;
 import com.amazon.carbonado.capability.IndexInfo;
+import com.amazon.carbonado.cursor.AggregateCursor;
 import com.amazon.carbonado.cursor.ControllerCursor;
 import com.amazon.carbonado.cursor.EmptyCursor;
+import com.amazon.carbonado.cursor.IteratorCursor;
 import com.amazon.carbonado.cursor.LimitCursor;
 import com.amazon.carbonado.filter.AndFilter;
 import com.amazon.carbonado.filter.Filter;
 import com.amazon.carbonado.filter.FilterValues;
 import com.amazon.carbonado.filter.OrFilter;
 import com.amazon.carbonado.filter.PropertyFilter;
+import com.amazon.carbonado.filter.RelOp;
 import com.amazon.carbonado.filter.Visitor;
 import com.amazon.carbonado.info.ChainedProperty;
 import com.amazon.carbonado.info.Direction;
@@ -84,6 +94,10 @@ class JDBCStorage<S extends Storable> extends StandardQueryFactory<S>
 {
     private static final int FIRST_RESULT_INDEX = 1;
 
+    // Maximum amount of bind parameters used by a loadAll statement. Some
+    // databases limit "IN" lists to 1000 elements.
+    private static final int MAX_LOAD_ALL_PARAMETERS = 512;
+
     final JDBCRepository mRepository;
     final JDBCSupportStrategy mSupportStrategy;
     final JDBCStorableInfo<S> mInfo;
@@ -92,6 +106,9 @@ class JDBCStorage<S extends Storable> extends StandardQueryFactory<S>
 
     final TriggerManager<S> mTriggerManager;
 
+    // Cache of loadAll filters, indexed by log2 of the key count.
+    private final Filter<S>[] mLoadAllFilters;
+
     JDBCStorage(JDBCRepository repository, JDBCStorableInfo<S> info,
                 boolean isMaster, boolean autoVersioning, boolean suppressReload)
         throws SupportException, RepositoryException
@@ -111,6 +128,8 @@ class JDBCStorage<S extends Storable> extends StandardQueryFactory<S>
 
         mTriggerManager = new TriggerManager<S>
             (info.getStorableType(), repository.mTriggerFactories);
+
+        mLoadAllFilters = new Filter[32];
     }
 
     @Override
@@ -135,6 +154,104 @@ class JDBCStorage<S extends Storable> extends StandardQueryFactory<S>
         return property != null && property.isSupported();
     }
 
+    /**
+     * Loads keys in batches, using one statement per batch. If the primary
+     * key has one property, the statement selects using an "IN" list.
+     *
+     * @since 1.2.4
+     */
+    public Cursor<S> loadAll(Collection<? extends S> keys) throws FetchException {
+        if (keys == null) {
+            throw new IllegalArgumentException("Keys collection is null");
+        }
+
+        Iterator<? extends S> it = keys.iterator();
+        if (!it.hasNext()) {
+            return EmptyCursor.the();
+        }
+
+        String[] pkNames = mInfo.getPrimaryKeyProperties().keySet().toArray(new String[0]);
+        int pkCount = pkNames.length;
+        int maxBatchSize = Integer.highestOneBit(Math.max(1, MAX_LOAD_ALL_PARAMETERS / pkCount));
+
+        Object[] values = new Object[maxBatchSize * pkCount];
+        List<S> loaded = null;
+
+        while (true) {
+            int batchSize = 0;
+            int pos = 0;
+            do {
+                S key = it.next();
+                for (String name : pkNames) {
+                    if (key.isPropertyUninitialized(name)) {
+                        throw new IllegalStateException("Primary key not fully specified");
+                    }
+                    values[pos++] = key.getPropertyValue(name);
+                }
+                batchSize++;
+            } while (batchSize < maxBatchSize && it.hasNext());
+
+            // Round up to a power of two by repeating the last key. This
+            // limits the amount of distinct statements that need to be
+            // prepared and cached.
+            int paddedSize = Integer.highestOneBit(batchSize);
+            if (paddedSize < batchSize) {
+                paddedSize <<= 1;
+            }
+            Object[] batchValues = new Object[paddedSize * pkCount];
+            System.arraycopy(values, 0, batchValues, 0, pos);
+            for (; pos < batchValues.length; pos++) {
+                batchValues[pos] = batchValues[pos - pkCount];
+            }
+
+            Query<S> query = query(loadAllFilter(paddedSize, pkNames)).withValues(batchValues);
+
+            if (loaded == null && !it.hasNext()) {
+                // Only one batch, so no need to buffer the results.
+                return query.fetch();
+            }
+
+            if (loaded == null) {
+                loaded = new ArrayList<S>();
+            }
+
+            Cursor<S> cursor = query.fetch();
+            try {
+                while (cursor.hasNext()) {
+                    loaded.add(cursor.next());
+                }
+            } finally {
+                cursor.close();
+            }
+
+            if (!it.hasNext()) {
+                return new IteratorCursor<S>(loaded);
+            }
+        }
+    }
+
+    /**
+     * Returns a filter which matches any of the given amount of keys.
+     *
+     * @param count power of two
+     */
+    private Filter<S> loadAllFilter(int count, String[] pkNames) {
+        int index = Integer.numberOfTrailingZeros(count);
+        Filter<S> filter = mLoadAllFilters[index];
+        if (filter == null) {
+            Filter<S> keyFilter = Filter.getOpenFilter(getStorableType());
+            for (String name : pkNames) {
+                keyFilter = keyFilter.and(name, RelOp.EQ);
+            }
+            filter = keyFilter;
+            for (int i=1; i<count; i++) {
+                filter = filter.or(keyFilter);
+            }
+            mLoadAllFilters[index] = filter;
+        }
+        return filter;
+    }
+
     /**
      * @since 1.2
      */
@@ -233,6 +350,37 @@ class JDBCStorage<S extends Storable> extends StandardQueryFactory<S>
         mRepository.yieldConnection(con);
     }
 
+    public Connection getBatchConnection() throws FetchException {
+        return mRepository.getBatchConnection();
+    }
+
+    public PreparedStatement prepareBatchStatement(Connection con, String sql)
+        throws PersistException, SQLException
+    {
+        JDBCBatch batch = mRepository.getBatch(con);
+        return batch == null ? null : batch.prepare(sql);
+    }
+
+    public void addBatch(Connection con, PreparedStatement ps)
+        throws PersistException, SQLException
+    {
+        JDBCBatch batch = mRepository.getBatch(con);
+        if (batch == null) {
+            throw new IllegalStateException("Not batching");
+        }
+        batch.add(ps);
+    }
+
+    public PreparedStatement prepareStatement(Connection con, String sql)
+        throws SQLException
+    {
+        return mRepository.prepareStatement(con, sql);
+    }
+
+    public void closeStatement(Connection con, PreparedStatement ps) throws SQLException {
+        mRepository.closeStatement(con, ps);
+    }
+
     public String getDatabaseProductName() {
         return mRepository.getDatabaseProductName();
     }
@@ -332,11 +480,11 @@ class JDBCStorage<S extends Storable> extends StandardQueryFactory<S>
         return new JDBCQuery(filter, values, ordering, hints);
     }
 
-    static PreparedStatement prepareStatement(Connection con, String sql,
-                                              Query.Controller controller)
+    PreparedStatement prepareStatement(Connection con, String sql,
+                                       Query.Controller controller)
         throws SQLException
     {
-        PreparedStatement ps = con.prepareStatement(sql);
+        PreparedStatement ps = mRepository.prepareStatement(con, sql);
 
         if (controller != null) {
             long timeout = controller.getTimeout();
@@ -448,13 +596,17 @@ class JDBCStorage<S extends Storable> extends StandardQueryFactory<S>
 
             if (filter != null && !filter.isOpen()) {
                 Filter<S> sqlFilter = null;
-                
-                List<Filter<S>> splitList = filter.conjunctiveNormalFormSplit();
-                for (Filter<S> split : splitList) {
-                    if (usesDerivedProperty(split)) {
-                        remainderFilter = and(remainderFilter, split);
-                    } else {
-                        sqlFilter = and(sqlFilter, split);
+
+                if (usesDerivedProperty(filter)) {
+                    // Only split when required, since converting a large
+                    // filter into conjunctive normal form can be expensive.
+                    List<Filter<S>> splitList = filter.conjunctiveNormalFormSplit();
+                    for (Filter<S> split : splitList) {
+                        if (usesDerivedProperty(split)) {
+                            remainderFilter = and(remainderFilter, split);
+                        } else {
+                            sqlFilter = and(sqlFilter, split);
+                        }
                     }
                 }
 
@@ -529,6 +681,7 @@ class JDBCStorage<S extends Storable> extends StandardQueryFactory<S>
 
             QueryExecutor<S> executor = new Executor(filter,
                                                      sqlOrdering,
+                                                     alias,
                                                      selectStatement,
                                                      fromWhere,
                                                      deleteFromWhere,
@@ -594,6 +747,9 @@ class JDBCStorage<S extends Storable> extends StandardQueryFactory<S>
         private final Filter<S> mFilter;
         private final OrderingList<S> mOrdering;
 
+        // Alias of root table, or null if not required.
+        private final String mAlias;
+
         private final SQLStatement<S> mSelectStatement;
         private final int mMaxSelectStatementLength;
         private final SQLStatement<S> mFromWhere;
@@ -616,6 +772,7 @@ class JDBCStorage<S extends Storable> extends StandardQueryFactory<S>
 
         Executor(Filter<S> filter,
                  OrderingList<S> ordering,
+                 String alias,
                  SQLStatement<S> selectStatement,
                  SQLStatement<S> fromWhere,
                  SQLStatement<S> deleteFromWhere,
@@ -625,6 +782,7 @@ class JDBCStorage<S extends Storable> extends StandardQueryFactory<S>
         {
             mFilter = filter;
             mOrdering = ordering;
+            mAlias = alias;
 
             mSelectStatement = selectStatement;
             mMaxSelectStatementLength = selectStatement.maxLength();
@@ -693,6 +851,12 @@ class JDBCStorage<S extends Storable> extends StandardQueryFactory<S>
             }
         }
 
+        @Override
+        public Class<S> getStorableType() {
+            // Filter may be null.
+            return JDBCStorage.this.getStorableType();
+        }
+
         @Override
         public Cursor<S> fetch(FilterValues<S> values) throws FetchException {
             return fetch(values, null);
@@ -720,7 +884,7 @@ class JDBCStorage<S extends Storable> extends StandardQueryFactory<S>
                 } catch (Exception e) {
                     // in case of exception, close statement
                     try {
-                        ps.close();
+                        closeStatement(con, ps);
                     } catch (SQLException e2) {
                         // ignore and allow triggering exception to propagate
                     }
@@ -833,7 +997,7 @@ class JDBCStorage<S extends Storable> extends StandardQueryFactory<S>
                 } catch (Exception e) {
                     // in case of exception, close statement
                     try {
-                        ps.close();
+                        closeStatement(con, ps);
                     } catch (SQLException e2) {
                         // ignore and allow triggering exception to propagate
                     }
@@ -873,13 +1037,218 @@ class JDBCStorage<S extends Storable> extends StandardQueryFactory<S>
                         rs.close();
                     }
                 } finally {
-                    ps.close();
+                    closeStatement(con, ps);
+                }
+            } catch (Exception e) {
+                throw toFetchException(e);
+            } finally {
+                yieldConnection(con);
+            }
+        }
+
+        /**
+         * Computes aggregates with a GROUP BY statement, if all the properties
+         * map to plain columns. Results are loaded eagerly, since each group
+         * produces just one row.
+         */
+        @Override
+        public Cursor<AggregateResult> fetchAggregates(FilterValues<S> values,
+                                                       String[] groupProperties,
+                                                       Aggregate[] aggregates)
+            throws FetchException
+        {
+            Class<?>[] groupTypes = new Class[groupProperties.length];
+            Class<?>[] resultTypes = new Class[aggregates.length];
+
+            StringBuilder b = new StringBuilder("SELECT ");
+            StringBuilder groupBy = new StringBuilder();
+
+            try {
+                for (int i=0; i<groupProperties.length; i++) {
+                    JDBCStorableProperty<S> jProperty = aggregateColumn(groupProperties[i]);
+                    if (jProperty == null) {
+                        return super.fetchAggregates(values, groupProperties, aggregates);
+                    }
+                    groupTypes[i] = AggregateCursor.resultType
+                        (getStorableType(), Aggregate.min(groupProperties[i]));
+                    if (i > 0) {
+                        groupBy.append(',');
+                    }
+                    appendColumn(groupBy, jProperty);
+                }
+
+                if (groupBy.length() > 0) {
+                    b.append(groupBy).append(',');
+                }
+
+                for (int i=0; i<aggregates.length; i++) {
+                    Aggregate aggregate = aggregates[i];
+                    resultTypes[i] = AggregateCursor.resultType(getStorableType(), aggregate);
+
+                    String name = aggregate.getPropertyName();
+                    if (name == null) {
+                        b.append("COUNT(*),");
+                        continue;
+                    }
+
+                    JDBCStorableProperty<S> jProperty = aggregateColumn(name);
+                    if (jProperty == null || (jProperty.getType() == boolean.class ||
+                                              jProperty.getType() == Boolean.class) &&
+                        aggregate.getFunction() != Aggregate.Function.COUNT)
+                    {
+                        return super.fetchAggregates(values, groupProperties, aggregates);
+                    }
+
+                    if (aggregate.getFunction() == Aggregate.Function.AVG) {
+                        // Computed from sum and count, to avoid database
+                        // specific rounding of integer averages.
+                        b.append("SUM(");
+                        appendColumn(b, jProperty);
+                        b.append("),COUNT(");
+                        appendColumn(b, jProperty);
+                        b.append("),");
+                    } else {
+                        b.append(aggregate.getFunction().name()).append('(');
+                        appendColumn(b, jProperty);
+                        b.append("),");
+                    }
+                }
+            } catch (RepositoryException e) {
+                throw toFetchException(e);
+            }
+
+            // Total count is always selected last, to detect an empty ungrouped result.
+            b.append("COUNT(*)");
+
+            mFromWhere.appendTo(b, values);
+
+            if (groupBy.length() > 0) {
+                b.append(" GROUP BY ").append(groupBy);
+                b.append(" ORDER BY ").append(groupBy);
+            }
+
+            List<AggregateResult> results = new ArrayList<AggregateResult>();
+
+            Connection con = getConnection();
+            try {
+                PreparedStatement ps = prepareStatement(con, b.toString(), null);
+
+                try {
+                    setParameters(ps, values);
+                    ResultSet rs = ps.executeQuery();
+                    try {
+                        while (rs.next()) {
+                            int col = 1;
+
+                            Object[] groupValues = new Object[groupTypes.length];
+                            for (int i=0; i<groupValues.length; i++) {
+                                groupValues[i] = convert(rs.getObject(col++), groupTypes[i]);
+                            }
+
+                            Object[] aggregateValues = new Object[resultTypes.length];
+                            for (int i=0; i<aggregateValues.length; i++) {
+                                if (aggregates[i].getFunction() == Aggregate.Function.AVG) {
+                                    Object sum = rs.getObject(col++);
+                                    long count = rs.getLong(col++);
+                                    if (sum != null && count != 0) {
+                                        aggregateValues[i] =
+                                            ((Number) sum).doubleValue() / count;
+                                    }
+                                } else {
+                                    aggregateValues[i] =
+                                        convert(rs.getObject(col++), resultTypes[i]);
+                                }
+                            }
+
+                            if (rs.getLong(col) == 0) {
+                                // Ungrouped aggregates over nothing.
+                                continue;
+                            }
+
+                            results.add(new AggregateResult
+                                        (groupProperties, groupValues,
+                                         aggregates, aggregateValues));
+                        }
+                    } finally {
+                        rs.close();
+                    }
+                } finally {
+                    closeStatement(con, ps);
                 }
             } catch (Exception e) {
                 throw toFetchException(e);
             } finally {
                 yieldConnection(con);
             }
+
+            return new IteratorCursor<AggregateResult>(results);
+        }
+
+        /**
+         * @return null if property cannot be aggregated in SQL
+         */
+        private JDBCStorableProperty<S> aggregateColumn(String name)
+            throws RepositoryException
+        {
+            JDBCStorableProperty<S> jProperty = getStorableInfo().getAllProperties().get(name);
+            if (jProperty == null || !jProperty.isSelectable() || jProperty.isDerived() ||
+                jProperty.isJoin() || jProperty.getAppliedAdapter() != null)
+            {
+                return null;
+            }
+            Class<?> type = jProperty.getType();
+            if (type.isPrimitive() || Number.class.isAssignableFrom(type) ||
+                type == String.class || type == Character.class || type == Boolean.class)
+            {
+                return jProperty;
+            }
+            return null;
+        }
+
+        private void appendColumn(StringBuilder b, JDBCStorableProperty<S> jProperty) {
+            if (mAlias != null) {
+                b.append(mAlias).append('.');
+            }
+            b.append(jProperty.getColumnName());
+        }
+
+        /**
+         * Converts a raw column value into the boxed type of a property or
+         * aggregate result.
+         */
+        private Object convert(Object value, Class<?> type) {
+            if (value == null || type.isInstance(value)) {
+                return value;
+            }
+            if (value instanceof Number) {
+                Number num = (Number) value;
+                if (type == Long.class) {
+                    return num.longValue();
+                } else if (type == Integer.class) {
+                    return num.intValue();
+                } else if (type == Short.class) {
+                    return num.shortValue();
+                } else if (type == Byte.class) {
+                    return num.byteValue();
+                } else if (type == Double.class) {
+                    return num.doubleValue();
+                } else if (type == Float.class) {
+                    return num.floatValue();
+                } else if (type == BigDecimal.class) {
+                    return new BigDecimal(num.toString());
+                } else if (type == BigInteger.class) {
+                    return new BigDecimal(num.toString()).toBigInteger();
+                } else if (type == Boolean.class) {
+                    return num.intValue() != 0;
+                }
+            } else if (value instanceof String) {
+                String str = (String) value;
+                if (type == Character.class && str.length() > 0) {
+                    return str.charAt(0);
+                }
+            }
+            throw new IllegalArgumentException
+                ("Cannot convert to " + type.getName() + ": " + value);
         }
 
         @Override
@@ -936,7 +1305,7 @@ class JDBCStorage<S extends Storable> extends StandardQueryFactory<S>
                     setParameters(ps, filterValues);
                     return ps.executeUpdate();
                 } finally {
-                    ps.close();
+                    closeStatement(con, ps);
                 }
             } catch (Exception e) {
                 throw toPersistException(e);
@@ -1060,6 +1429,11 @@ class JDBCStorage<S extends Storable> extends StandardQueryFactory<S>
             return getRootRepository().enterTransaction(level);
         }
 
+        @Override
+        protected IsolationLevel getTransactionIsolationLevel() {
+            return getRootRepository().getTransactionIsolationLevel();
+        }
+
         @Override
         protected QueryFactory<S> queryFactory() {
             return JDBCStorage.this;
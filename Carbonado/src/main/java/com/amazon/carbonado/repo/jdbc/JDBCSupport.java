@@ -18,6 +18,7 @@
 
 package com.amazon.carbonado.repo.jdbc;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
@@ -71,4 +72,57 @@ public interface JDBCSupport<S extends Storable> extends MasterSupport<S>, JDBCC
     public void updateClob(com.amazon.carbonado.lob.Clob oldClob,
                            com.amazon.carbonado.lob.Clob newClob)
         throws PersistException;
+
+    /**
+     * Returns a connection like {@link #getConnection getConnection}, except
+     * statements batched by the current transaction are not executed
+     * first. Connection must be yielded.
+     *
+     * @since 1.2.4
+     */
+    public Connection getBatchConnection() throws FetchException;
+
+    /**
+     * Returns a statement for the given insert, update or delete SQL if the
+     * current transaction is batching statements, or else returns null. The
+     * statement must be passed to {@link #addBatch addBatch} instead of being
+     * executed or closed.
+     *
+     * @param con connection returned by getBatchConnection
+     * @since 1.2.4
+     * @see JDBCBatchCapability
+     */
+    public PreparedStatement prepareBatchStatement(Connection con, String sql)
+        throws PersistException, SQLException;
+
+    /**
+     * Adds a statement returned by prepareBatchStatement to the batch, which
+     * might then be executed.
+     *
+     * @param con connection returned by getBatchConnection
+     * @since 1.2.4
+     */
+    public void addBatch(Connection con, PreparedStatement ps)
+        throws PersistException, SQLException;
+
+    /**
+     * Prepares a statement, which might be cached for the connection.
+     * Statement must be closed by calling {@link #closeStatement
+     * closeStatement}, with the same connection.
+     *
+     * @param con connection returned by getConnection or getBatchConnection
+     * @since 1.2.4
+     * @see JDBCStatementCacheCapability
+     */
+    public PreparedStatement prepareStatement(Connection con, String sql)
+        throws SQLException;
+
+    /**
+     * Closes a statement returned by prepareStatement, or else returns it to
+     * the cache it came from.
+     *
+     * @param con connection which was passed to prepareStatement
+     * @since 1.2.4
+     */
+    public void closeStatement(Connection con, PreparedStatement ps) throws SQLException;
 }
@@ -26,6 +26,7 @@ import java.sql.Savepoint;
 import java.sql.SQLException;
 
 import com.amazon.carbonado.IsolationLevel;
+import com.amazon.carbonado.PersistException;
 
 /**
  * JDBCTransaction is just a wrapper around a connection and (optionally) a
@@ -43,25 +44,42 @@ class JDBCTransaction {
     private final Connection mConnection;
     private final int mOriginalLevel;
 
+    // Top-level transaction, which owns the batch. Is null if not nested.
+    private final JDBCTransaction mTop;
+
+    private JDBCBatch mBatch;
+
+    // Is null if not caching statements or if nested.
+    private final JDBCStatementCache mStatementCache;
+
     private boolean mReady = true;
 
     private Savepoint mSavepoint;
 
     private List<JDBCLob> mRegisteredLobs;
 
-    JDBCTransaction(Connection con) {
+    /**
+     * @param cache optional statement cache for the connection
+     */
+    JDBCTransaction(Connection con, JDBCStatementCache cache) {
         mIsNested = false;
         mConnection = con;
         // Don't change level upon abort.
         mOriginalLevel = LEVEL_NOT_CHANGED;
+        mTop = null;
+        mStatementCache = cache;
     }
 
     /**
      * Construct a nested transaction.
      */
-    JDBCTransaction(JDBCTransaction parent, IsolationLevel level) throws SQLException {
+    JDBCTransaction(JDBCTransaction parent, IsolationLevel level)
+        throws PersistException, SQLException
+    {
         mIsNested = true;
         mConnection = parent.mConnection;
+        mTop = parent.mTop == null ? parent : parent.mTop;
+        mStatementCache = null;
 
         if (level == null) {
             // Don't change level upon abort.
@@ -82,6 +100,9 @@ class JDBCTransaction {
             }
         }
 
+        // Batched statements must execute before the savepoint, or else they
+        // would be rolled back by this transaction.
+        flushBatch();
         mSavepoint = mConnection.setSavepoint();
     }
 
@@ -89,17 +110,66 @@ class JDBCTransaction {
         return mConnection;
     }
 
-    void reuse() throws SQLException {
+    /**
+     * Returns the statement cache shared by this transaction and all of its
+     * nested transactions, or null if not caching.
+     */
+    JDBCStatementCache getStatementCache() {
+        return mTop == null ? mStatementCache : mTop.mStatementCache;
+    }
+
+    /**
+     * Returns the batch shared by this transaction and all of its nested
+     * transactions, or null if not batching.
+     */
+    JDBCBatch getBatch() {
+        return mTop == null ? mBatch : mTop.mBatch;
+    }
+
+    /**
+     * @param size maximum batch size; batching is disabled if one or less
+     */
+    void setBatchSize(int size) throws PersistException, SQLException {
+        if (mTop != null) {
+            mTop.setBatchSize(size);
+            return;
+        }
+        JDBCBatch batch = mBatch;
+        if (batch != null) {
+            if (batch.getMaxSize() == size) {
+                return;
+            }
+            mBatch = null;
+            batch.flush();
+        }
+        if (size > 1) {
+            mBatch = new JDBCBatch(mConnection, size);
+        }
+    }
+
+    /**
+     * Executes all batched statements.
+     */
+    void flushBatch() throws PersistException, SQLException {
+        JDBCBatch batch = getBatch();
+        if (batch != null) {
+            batch.flush();
+        }
+    }
+
+    void reuse() throws PersistException, SQLException {
         if (mIsNested && mSavepoint == null) {
+            flushBatch();
             mSavepoint = mConnection.setSavepoint();
         }
         mReady = true;
     }
 
-    void commit() throws SQLException {
+    void commit() throws PersistException, SQLException {
         if (mIsNested) {
             mSavepoint = null;
         } else {
+            flushBatch();
             mConnection.commit();
         }
         mReady = false;
@@ -109,7 +179,7 @@ class JDBCTransaction {
      * @return connection to close, or null if not ready to because this was a
      * nested transaction
      */
-    Connection abort() throws SQLException {
+    Connection abort() throws PersistException, SQLException {
         if (mRegisteredLobs != null) {
             for (JDBCLob lob : mRegisteredLobs) {
                 lob.close();
@@ -120,6 +190,12 @@ class JDBCTransaction {
         if (mIsNested) {
             if (mReady) {
                 if (mSavepoint != null) {
+                    // Batch was executed when the savepoint was set, and so
+                    // it only contains statements which are rolled back.
+                    JDBCBatch batch = getBatch();
+                    if (batch != null) {
+                        batch.discard();
+                    }
                     mConnection.rollback(mSavepoint);
                     mSavepoint = null;
                 }
@@ -136,6 +212,13 @@ class JDBCTransaction {
 
             return null;
         } else {
+            if (mBatch != null) {
+                mBatch.discard();
+                mBatch = null;
+            }
+            if (mStatementCache != null) {
+                mStatementCache.closeAll();
+            }
             if (mReady) {
                 mConnection.rollback();
                 mReady = false;
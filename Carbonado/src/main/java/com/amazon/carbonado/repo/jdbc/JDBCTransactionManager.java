@@ -62,7 +62,7 @@ class JDBCTransactionManager extends TransactionManager<JDBCTransaction> {
 
     @Override
     protected JDBCTransaction createTxn(JDBCTransaction parent, IsolationLevel level)
-        throws SQLException, FetchException
+        throws SQLException, FetchException, PersistException
     {
         JDBCRepository repo = mRepositoryRef.get();
         if (repo == null) {
@@ -77,11 +77,16 @@ class JDBCTransactionManager extends TransactionManager<JDBCTransaction> {
             return new JDBCTransaction(parent, level);
         }
 
-        return new JDBCTransaction(repo.getConnectionForTxn(level));
+        Connection con = repo.getConnectionForTxn(level);
+        if (con instanceof PooledConnection) {
+            // Connection has its own statement cache.
+            return new JDBCTransaction(con, null);
+        }
+        return new JDBCTransaction(con, repo.createStatementCache(con));
     }
 
     @Override
-    protected void reuseTxn(JDBCTransaction txn) throws SQLException {
+    protected void reuseTxn(JDBCTransaction txn) throws SQLException, PersistException {
         txn.reuse();
     }
 
@@ -0,0 +1,468 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.jdbc;
+
+import java.sql.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Connection returned by PooledDataSource. Closing it closes any statements
+ * created through it which are still open, and then returns the underlying
+ * connection to the pool.
+ *
+ * @author Brian S O'Neill
+ */
+class PooledConnection implements Connection {
+    private final PooledDataSource mPool;
+    private final long mBorrowTime;
+    private final Throwable mOrigin;
+
+    private Connection mCon;
+
+    // Statement cache of the underlying connection, which is kept by the pool.
+    private JDBCStatementCache mStatementCache;
+
+    // Original settings to restore when returned to the pool.
+    private int mOriginalLevel = -1;
+    private Boolean mOriginalReadOnly;
+
+    private boolean mLeakReported;
+
+    // Statements created through this connection, which might still be open.
+    private List<Statement> mStatements;
+    // Amount of statements at which closed ones are pruned from the list.
+    private int mPruneSize = 16;
+
+    /**
+     * @param cache optional statement cache of the underlying connection
+     * @param origin optional exception which records where the connection
+     * was obtained, for leak detection
+     */
+    PooledConnection(PooledDataSource pool, Connection con, JDBCStatementCache cache,
+                     Throwable origin)
+    {
+        mPool = pool;
+        mCon = con;
+        mStatementCache = cache;
+        mBorrowTime = System.currentTimeMillis();
+        mOrigin = origin;
+    }
+
+    /**
+     * Returns true the first time this connection is found to be held
+     * longer than the given timeout. Caller must hold the pool lock.
+     */
+    boolean checkLeak(long now, long timeoutMillis) {
+        if (!mLeakReported && (now - mBorrowTime) >= timeoutMillis) {
+            mLeakReported = true;
+            return true;
+        }
+        return false;
+    }
+
+    Throwable getOrigin() {
+        return mOrigin;
+    }
+
+    /**
+     * Returns the statement cache of the underlying connection, creating it
+     * if necessary. Cached statements are prepared directly against the
+     * underlying connection, and they aren't closed when this connection is
+     * closed.
+     *
+     * @return null if closed or if repository doesn't cache statements
+     */
+    JDBCStatementCache getStatementCache(JDBCRepository repo) {
+        JDBCStatementCache cache = mStatementCache;
+        if (cache == null) {
+            Connection con = mCon;
+            if (con != null) {
+                mStatementCache = cache = repo.createStatementCache(con);
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Restores the connection to the state it was in when obtained from the
+     * pool, rolling back any transaction in progress.
+     *
+     * @return false if connection cannot be reused
+     */
+    boolean reset(Connection con) {
+        try {
+            if (con.isClosed()) {
+                return false;
+            }
+            if (!con.getAutoCommit()) {
+                con.rollback();
+                con.setAutoCommit(true);
+            }
+            if (mOriginalLevel >= 0) {
+                con.setTransactionIsolation(mOriginalLevel);
+            }
+            if (mOriginalReadOnly != null) {
+                con.setReadOnly(mOriginalReadOnly);
+            }
+            con.clearWarnings();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Closes all tracked statements which are still open.
+     */
+    private void closeStatements() {
+        List<Statement> statements = mStatements;
+        if (statements != null) {
+            mStatements = null;
+            for (Statement st : statements) {
+                try {
+                    st.close();
+                } catch (SQLException e) {
+                    // Don't care.
+                }
+            }
+        }
+    }
+
+    private <T extends Statement> T track(T st) throws SQLException {
+        List<Statement> statements = mStatements;
+        if (statements == null) {
+            mStatements = statements = new ArrayList<Statement>();
+        } else if (statements.size() >= mPruneSize) {
+            Iterator<Statement> it = statements.iterator();
+            while (it.hasNext()) {
+                if (it.next().isClosed()) {
+                    it.remove();
+                }
+            }
+            mPruneSize = Math.max(16, statements.size() * 2);
+        }
+        statements.add(st);
+        return st;
+    }
+
+    private Connection con() throws SQLException {
+        Connection con = mCon;
+        if (con == null) {
+            throw new SQLException("Connection is closed");
+        }
+        return con;
+    }
+
+    public Statement createStatement() throws SQLException {
+        return track(con().createStatement());
+    }
+
+    public Statement createStatement(int resultSetType, int resultSetConcurrency)
+        throws SQLException
+    {
+        return track(con().createStatement(resultSetType, resultSetConcurrency));
+    }
+
+    public Statement createStatement(int resultSetType, int resultSetConcurrency,
+                                     int resultSetHoldability)
+        throws SQLException
+    {
+        return track(con().createStatement(resultSetType, resultSetConcurrency,
+                                           resultSetHoldability));
+    }
+
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return track(con().prepareStatement(sql));
+    }
+
+    public PreparedStatement prepareStatement(String sql, int resultSetType,
+                                              int resultSetConcurrency)
+        throws SQLException
+    {
+        return track(con().prepareStatement(sql, resultSetType, resultSetConcurrency));
+    }
+
+    public PreparedStatement prepareStatement(String sql, int resultSetType,
+                                              int resultSetConcurrency, int resultSetHoldability)
+        throws SQLException
+    {
+        return track(con().prepareStatement(sql, resultSetType,
+                                            resultSetConcurrency, resultSetHoldability));
+    }
+
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys)
+        throws SQLException
+    {
+        return track(con().prepareStatement(sql, autoGeneratedKeys));
+    }
+
+    public PreparedStatement prepareStatement(String sql, int columnIndexes[])
+        throws SQLException
+    {
+        return track(con().prepareStatement(sql, columnIndexes));
+    }
+
+    public PreparedStatement prepareStatement(String sql, String columnNames[])
+        throws SQLException
+    {
+        return track(con().prepareStatement(sql, columnNames));
+    }
+
+    public CallableStatement prepareCall(String sql) throws SQLException {
+        return track(con().prepareCall(sql));
+    }
+
+    public CallableStatement prepareCall(String sql, int resultSetType,
+                                         int resultSetConcurrency)
+        throws SQLException
+    {
+        return track(con().prepareCall(sql, resultSetType, resultSetConcurrency));
+    }
+
+    public CallableStatement prepareCall(String sql, int resultSetType,
+                                         int resultSetConcurrency,
+                                         int resultSetHoldability)
+        throws SQLException
+    {
+        return track(con().prepareCall(sql, resultSetType, resultSetConcurrency,
+                                       resultSetHoldability));
+    }
+
+    public String nativeSQL(String sql) throws SQLException {
+        return con().nativeSQL(sql);
+    }
+
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+        con().setAutoCommit(autoCommit);
+    }
+
+    public boolean getAutoCommit() throws SQLException {
+        return con().getAutoCommit();
+    }
+
+    public void commit() throws SQLException {
+        con().commit();
+    }
+
+    public void rollback() throws SQLException {
+        con().rollback();
+    }
+
+    /**
+     * Closes any open statements created through this connection, and then
+     * returns the connection to the pool. Calling close again does nothing.
+     */
+    public void close() throws SQLException {
+        Connection con = mCon;
+        if (con != null) {
+            mCon = null;
+            closeStatements();
+            JDBCStatementCache cache = mStatementCache;
+            if (cache != null) {
+                mStatementCache = null;
+                cache.closeInUse();
+            }
+            mPool.release(this, con, cache, reset(con));
+        }
+    }
+
+    public boolean isClosed() throws SQLException {
+        Connection con = mCon;
+        return con == null || con.isClosed();
+    }
+
+    public DatabaseMetaData getMetaData() throws SQLException {
+        return con().getMetaData();
+    }
+
+    public void setReadOnly(boolean readOnly) throws SQLException {
+        Connection con = con();
+        if (mOriginalReadOnly == null) {
+            mOriginalReadOnly = con.isReadOnly();
+        }
+        con.setReadOnly(readOnly);
+    }
+
+    public boolean isReadOnly() throws SQLException {
+        return con().isReadOnly();
+    }
+
+    public void setCatalog(String catalog) throws SQLException {
+        con().setCatalog(catalog);
+    }
+
+    public String getCatalog() throws SQLException {
+        return con().getCatalog();
+    }
+
+    public void setTransactionIsolation(int level) throws SQLException {
+        Connection con = con();
+        if (mOriginalLevel < 0) {
+            mOriginalLevel = con.getTransactionIsolation();
+        }
+        con.setTransactionIsolation(level);
+    }
+
+    public int getTransactionIsolation() throws SQLException {
+        return con().getTransactionIsolation();
+    }
+
+    public SQLWarning getWarnings() throws SQLException {
+        return con().getWarnings();
+    }
+
+    public void clearWarnings() throws SQLException {
+        con().clearWarnings();
+    }
+
+    public java.util.Map<String,Class<?>> getTypeMap() throws SQLException {
+        return con().getTypeMap();
+    }
+
+    public void setTypeMap(java.util.Map<String,Class<?>> map) throws SQLException {
+        con().setTypeMap(map);
+    }
+
+    public void setHoldability(int holdability) throws SQLException {
+        con().setHoldability(holdability);
+    }
+
+    public int getHoldability() throws SQLException {
+        return con().getHoldability();
+    }
+
+    public Savepoint setSavepoint() throws SQLException {
+        return con().setSavepoint();
+    }
+
+    public Savepoint setSavepoint(String name) throws SQLException {
+        return con().setSavepoint(name);
+    }
+
+    public void rollback(Savepoint savepoint) throws SQLException {
+        con().rollback(savepoint);
+    }
+
+    public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+        con().releaseSavepoint(savepoint);
+    }
+
+    public Clob createClob() throws SQLException {
+        return con().createClob();
+    }
+
+    public Blob createBlob() throws SQLException {
+        return con().createBlob();
+    }
+
+    public NClob createNClob() throws SQLException {
+        return con().createNClob();
+    }
+
+    public SQLXML createSQLXML() throws SQLException {
+        return con().createSQLXML();
+    }
+
+    public boolean isValid(int timeout) throws SQLException {
+        Connection con = mCon;
+        return con != null && con.isValid(timeout);
+    }
+
+    public void setClientInfo(String name, String value) throws SQLClientInfoException {
+        Connection con = mCon;
+        if (con == null) {
+            throw new SQLClientInfoException();
+        }
+        con.setClientInfo(name, value);
+    }
+
+    public void setClientInfo(java.util.Properties properties) throws SQLClientInfoException {
+        Connection con = mCon;
+        if (con == null) {
+            throw new SQLClientInfoException();
+        }
+        con.setClientInfo(properties);
+    }
+
+    public String getClientInfo(String name) throws SQLException {
+        return con().getClientInfo(name);
+    }
+
+    public java.util.Properties getClientInfo() throws SQLException {
+        return con().getClientInfo();
+    }
+
+    public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+        return con().createArrayOf(typeName, elements);
+    }
+
+    public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+        return con().createStruct(typeName, attributes);
+    }
+
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return con().unwrap(iface);
+    }
+
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || con().isWrapperFor(iface);
+    }
+
+    public void setSchema(String schema) throws SQLException {
+        con().setSchema(schema);
+    }
+
+    public String getSchema() throws SQLException {
+        return con().getSchema();
+    }
+
+    /**
+     * Aborts the underlying connection, which is then removed from the pool.
+     */
+    public void abort(java.util.concurrent.Executor executor) throws SQLException {
+        Connection con = mCon;
+        if (con != null) {
+            mCon = null;
+            mStatements = null;
+            JDBCStatementCache cache = mStatementCache;
+            mStatementCache = null;
+            try {
+                con.abort(executor);
+            } finally {
+                mPool.release(this, con, cache, false);
+            }
+        }
+    }
+
+    public void setNetworkTimeout(java.util.concurrent.Executor executor, int milliseconds)
+        throws SQLException
+    {
+        con().setNetworkTimeout(executor, milliseconds);
+    }
+
+    public int getNetworkTimeout() throws SQLException {
+        return con().getNetworkTimeout();
+    }
+}
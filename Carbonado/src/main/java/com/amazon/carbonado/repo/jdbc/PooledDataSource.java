@@ -0,0 +1,767 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.jdbc;
+
+import java.io.PrintWriter;
+
+import java.lang.ref.WeakReference;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * DataSource which pools the connections provided by another DataSource,
+ * such as {@link SimpleDataSource}. Closing a connection returns it to the
+ * pool, after rolling back any transaction in progress and restoring its
+ * isolation level and read-only state. When used by a {@link
+ * JDBCRepository}, the prepared statements it caches for a connection stay
+ * open while the connection is pooled.
+ *
+ * <p>Idle connections are reused most recently used first, and a background
+ * thread closes those which have been idle too long, while keeping the
+ * minimum amount open. The same thread logs a warning, with the stack trace
+ * of the caller which obtained it, for any connection which isn't closed
+ * within the leak timeout. Leaked connections are not reclaimed.
+ *
+ * @author Brian S O'Neill
+ * @see JDBCRepositoryBuilder#getDataSource
+ * @since 1.2.4
+ */
+public class PooledDataSource implements DataSource {
+    private final DataSource mDataSource;
+
+    private final Lock mLock;
+    private final Condition mAvailable;
+
+    // Idle connections, most recently used first.
+    private final LinkedList<Idle> mIdle;
+    private final Map<PooledConnection, Object> mActive;
+
+    // Amount of idle and active connections, including those being opened.
+    private int mTotal;
+    private boolean mClosed;
+    private Evictor mEvictor;
+
+    private volatile int mMinConnections = 0;
+    private volatile int mMaxConnections = Integer.MAX_VALUE;
+    private volatile long mIdleTimeout = 10 * 60 * 1000;
+    private volatile long mWaitTimeout = 30 * 1000;
+    private volatile long mLeakTimeout = 0;
+    private volatile String mValidationQuery;
+
+    private long mOpenedCount;
+    private long mClosedCount;
+    private long mWaitCount;
+    private long mWaitTimeoutCount;
+    private long mLeakCount;
+
+    /**
+     * @param dataSource source of connections to pool
+     */
+    public PooledDataSource(DataSource dataSource) {
+        if (dataSource == null) {
+            throw new IllegalArgumentException("DataSource cannot be null");
+        }
+        mDataSource = dataSource;
+        mLock = new ReentrantLock();
+        mAvailable = mLock.newCondition();
+        mIdle = new LinkedList<Idle>();
+        mActive = new IdentityHashMap<PooledConnection, Object>();
+    }
+
+    /**
+     * @param driverClass JDBC driver to load; can pass null if already loaded
+     * @param driverURL JDBC driver URL
+     * @param username optional username to connect with
+     * @param password optional password to connect with
+     */
+    public PooledDataSource(String driverClass, String driverURL, String username, String password)
+        throws SQLException
+    {
+        this(new SimpleDataSource(driverClass, driverURL, username, password));
+    }
+
+    /**
+     * Set the minimum amount of connections to keep open, which is zero by
+     * default.
+     */
+    public void setMinConnections(int min) {
+        mMinConnections = min < 0 ? 0 : min;
+        wakeupEvictor();
+    }
+
+    public int getMinConnections() {
+        return mMinConnections;
+    }
+
+    /**
+     * Set the maximum amount of connections open at once, which is unlimited
+     * by default. When all are in use, getConnection waits for one to be
+     * closed, up to the {@link #setWaitTimeout wait timeout}.
+     *
+     * @throws IllegalArgumentException if max is less than one
+     */
+    public void setMaxConnections(int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("Maximum connections must be at least one");
+        }
+        mMaxConnections = max;
+        mLock.lock();
+        try {
+            mAvailable.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public int getMaxConnections() {
+        return mMaxConnections;
+    }
+
+    /**
+     * Set the time after which an idle connection is closed, unless needed
+     * to maintain the minimum amount. Default is ten minutes. Pass zero or
+     * negative to never close idle connections.
+     */
+    public void setIdleTimeout(long timeoutMillis) {
+        mIdleTimeout = timeoutMillis;
+        wakeupEvictor();
+    }
+
+    public long getIdleTimeout() {
+        return mIdleTimeout;
+    }
+
+    /**
+     * Set the maximum time getConnection waits for a connection when the
+     * maximum amount are in use, which is 30 seconds by default. Pass negative
+     * to wait forever.
+     */
+    public void setWaitTimeout(long timeoutMillis) {
+        mWaitTimeout = timeoutMillis;
+    }
+
+    public long getWaitTimeout() {
+        return mWaitTimeout;
+    }
+
+    /**
+     * Set the time after which a connection which hasn't been closed is
+     * reported as leaked. Pass zero or negative to disable leak detection,
+     * which is the default. When enabled, the stack trace of each caller of
+     * getConnection is captured.
+     */
+    public void setLeakTimeout(long timeoutMillis) {
+        mLeakTimeout = timeoutMillis;
+        wakeupEvictor();
+    }
+
+    public long getLeakTimeout() {
+        return mLeakTimeout;
+    }
+
+    /**
+     * Set an optional SQL query which is executed to validate an idle
+     * connection before it is reused. Connections which fail validation are
+     * closed, and another is obtained.
+     */
+    public void setValidationQuery(String sql) {
+        mValidationQuery = sql;
+    }
+
+    public String getValidationQuery() {
+        return mValidationQuery;
+    }
+
+    /**
+     * Returns the amount of connections currently in use.
+     */
+    public int getActiveConnectionCount() {
+        mLock.lock();
+        try {
+            return mActive.size();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the amount of connections currently idle in the pool.
+     */
+    public int getIdleConnectionCount() {
+        mLock.lock();
+        try {
+            return mIdle.size();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the total amount of connections opened by this pool.
+     */
+    public long getOpenedConnectionCount() {
+        mLock.lock();
+        try {
+            return mOpenedCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the total amount of connections closed by this pool, because
+     * they were idle too long, failed validation or the pool was closed.
+     */
+    public long getClosedConnectionCount() {
+        mLock.lock();
+        try {
+            return mClosedCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the amount of times getConnection had to wait because all
+     * connections were in use.
+     */
+    public long getWaitCount() {
+        mLock.lock();
+        try {
+            return mWaitCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the amount of times getConnection gave up waiting.
+     */
+    public long getWaitTimeoutCount() {
+        mLock.lock();
+        try {
+            return mWaitTimeoutCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the amount of connections which were reported as leaked.
+     */
+    public long getLeakCount() {
+        mLock.lock();
+        try {
+            return mLeakCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @throws SQLTimeoutException if wait timeout elapsed
+     */
+    public Connection getConnection() throws SQLException {
+        final long waitTimeout = mWaitTimeout;
+        long waitNanos = waitTimeout < 0 ? 0 : TimeUnit.MILLISECONDS.toNanos(waitTimeout);
+        boolean waited = false;
+
+        while (true) {
+            Idle idle;
+
+            mLock.lock();
+            try {
+                while (true) {
+                    checkClosed();
+                    if (mEvictor == null) {
+                        mEvictor = new Evictor(this);
+                        mEvictor.start();
+                    }
+                    if ((idle = mIdle.poll()) != null) {
+                        break;
+                    }
+                    if (mTotal < mMaxConnections) {
+                        mTotal++;
+                        break;
+                    }
+                    if (!waited) {
+                        waited = true;
+                        mWaitCount++;
+                    }
+                    if (waitTimeout < 0) {
+                        mAvailable.await();
+                    } else {
+                        if (waitNanos <= 0) {
+                            mWaitTimeoutCount++;
+                            throw new SQLTimeoutException
+                                ("Timed out waiting for a connection after " +
+                                 waitTimeout + " milliseconds");
+                        }
+                        waitNanos = mAvailable.awaitNanos(waitNanos);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a connection", e);
+            } finally {
+                mLock.unlock();
+            }
+
+            Connection con;
+            JDBCStatementCache cache;
+            if (idle == null) {
+                con = open();
+                cache = null;
+            } else {
+                con = idle.mConnection;
+                cache = idle.mStatementCache;
+                if (!validate(con)) {
+                    release(null, con, cache, false);
+                    continue;
+                }
+            }
+
+            Throwable origin = null;
+            if (mLeakTimeout > 0) {
+                origin = new Exception("Connection obtained");
+            }
+
+            PooledConnection pc = new PooledConnection(this, con, cache, origin);
+
+            mLock.lock();
+            try {
+                if (!mClosed) {
+                    mActive.put(pc, null);
+                    return pc;
+                }
+            } finally {
+                mLock.unlock();
+            }
+
+            release(null, con, cache, false);
+            checkClosed();
+        }
+    }
+
+    /**
+     * Returns a new connection from the underlying DataSource, which is not
+     * pooled.
+     */
+    public Connection getConnection(String username, String password) throws SQLException {
+        return mDataSource.getConnection(username, password);
+    }
+
+    public PrintWriter getLogWriter() throws SQLException {
+        return mDataSource.getLogWriter();
+    }
+
+    public void setLogWriter(PrintWriter writer) throws SQLException {
+        mDataSource.setLogWriter(writer);
+    }
+
+    public void setLoginTimeout(int seconds) throws SQLException {
+        mDataSource.setLoginTimeout(seconds);
+    }
+
+    public int getLoginTimeout() throws SQLException {
+        return mDataSource.getLoginTimeout();
+    }
+
+    /**
+     * Closes all idle connections, and connections in use are closed when
+     * returned to the pool. The underlying DataSource is not closed.
+     */
+    public void close() throws SQLException {
+        List<Idle> idle;
+        Evictor evictor;
+
+        mLock.lock();
+        try {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            idle = new ArrayList<Idle>(mIdle);
+            mIdle.clear();
+            mTotal -= idle.size();
+            mClosedCount += idle.size();
+            evictor = mEvictor;
+            mEvictor = null;
+            mAvailable.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+
+        if (evictor != null) {
+            evictor.shutdown();
+        }
+
+        for (Idle i : idle) {
+            closeQuietly(i.mConnection, i.mStatementCache);
+        }
+    }
+
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return mDataSource.unwrap(iface);
+    }
+
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || mDataSource.isWrapperFor(iface);
+    }
+
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public String toString() {
+        return "PooledDataSource {dataSource=" + mDataSource +
+            ", maxConnections=" + mMaxConnections + '}';
+    }
+
+    /**
+     * Called by PooledConnection when closed, or when a connection cannot
+     * be used.
+     *
+     * @param pc connection being returned; is null if not active
+     * @param con underlying connection
+     * @param cache optional statement cache of the underlying connection
+     * @param reusable when false, connection is closed instead of pooled
+     */
+    void release(PooledConnection pc, Connection con, JDBCStatementCache cache,
+                 boolean reusable)
+    {
+        mLock.lock();
+        try {
+            if (pc != null) {
+                mActive.remove(pc);
+            }
+            mAvailable.signal();
+            if (reusable && !mClosed) {
+                mIdle.addFirst(new Idle(con, cache));
+                return;
+            }
+            mTotal--;
+            mClosedCount++;
+        } finally {
+            mLock.unlock();
+        }
+
+        closeQuietly(con, cache);
+    }
+
+    /**
+     * Opens a connection, for which space in the pool has already been
+     * reserved.
+     */
+    private Connection open() throws SQLException {
+        Connection con = null;
+        try {
+            con = mDataSource.getConnection();
+        } finally {
+            mLock.lock();
+            try {
+                if (con == null) {
+                    // Give up the reserved space.
+                    mTotal--;
+                    mAvailable.signal();
+                } else {
+                    mOpenedCount++;
+                }
+            } finally {
+                mLock.unlock();
+            }
+        }
+        return con;
+    }
+
+    private boolean validate(Connection con) {
+        String sql = mValidationQuery;
+        try {
+            if (con.isClosed()) {
+                return false;
+            }
+            if (sql != null) {
+                Statement st = con.createStatement();
+                try {
+                    st.execute(sql);
+                } finally {
+                    st.close();
+                }
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void wakeupEvictor() {
+        Evictor evictor;
+        mLock.lock();
+        try {
+            evictor = mEvictor;
+        } finally {
+            mLock.unlock();
+        }
+        if (evictor != null) {
+            evictor.wakeup();
+        }
+    }
+
+    private void checkClosed() throws SQLException {
+        if (mClosed) {
+            throw new SQLException("DataSource is closed");
+        }
+    }
+
+    /**
+     * Closes expired idle connections, reports leaked connections, and opens
+     * connections to maintain the minimum amount. Called periodically by the
+     * evictor thread.
+     *
+     * @return false if closed
+     */
+    boolean evict() {
+        List<Idle> expired = null;
+        List<PooledConnection> leaked = null;
+        int toOpen;
+
+        final long idleTimeout = mIdleTimeout;
+        final long leakTimeout = mLeakTimeout;
+
+        mLock.lock();
+        try {
+            if (mClosed) {
+                return false;
+            }
+
+            long now = System.currentTimeMillis();
+
+            if (idleTimeout > 0) {
+                // Check least recently used first.
+                Iterator<Idle> it = mIdle.descendingIterator();
+                while (it.hasNext() && mTotal > mMinConnections) {
+                    Idle idle = it.next();
+                    if ((now - idle.mIdleSince) >= idleTimeout) {
+                        it.remove();
+                        mTotal--;
+                        mClosedCount++;
+                        if (expired == null) {
+                            expired = new ArrayList<Idle>();
+                        }
+                        expired.add(idle);
+                    }
+                }
+            }
+
+            if (leakTimeout > 0) {
+                for (PooledConnection pc : mActive.keySet()) {
+                    if (pc.checkLeak(now, leakTimeout)) {
+                        mLeakCount++;
+                        if (leaked == null) {
+                            leaked = new ArrayList<PooledConnection>();
+                        }
+                        leaked.add(pc);
+                    }
+                }
+            }
+
+            toOpen = Math.min(mMinConnections, mMaxConnections) - mTotal;
+            if (toOpen > 0) {
+                mTotal += toOpen;
+            }
+        } finally {
+            mLock.unlock();
+        }
+
+        if (expired != null) {
+            for (Idle idle : expired) {
+                closeQuietly(idle.mConnection, idle.mStatementCache);
+            }
+        }
+
+        if (leaked != null) {
+            Log log = LogFactory.getLog(PooledDataSource.class);
+            for (PooledConnection pc : leaked) {
+                log.warn("Connection not closed after " + leakTimeout + " milliseconds",
+                         pc.getOrigin());
+            }
+        }
+
+        for (; toOpen > 0; toOpen--) {
+            Connection con;
+            try {
+                con = open();
+            } catch (SQLException e) {
+                LogFactory.getLog(PooledDataSource.class)
+                    .warn("Unable to open minimum amount of connections", e);
+                mLock.lock();
+                try {
+                    mTotal -= toOpen - 1;
+                } finally {
+                    mLock.unlock();
+                }
+                break;
+            }
+            mLock.lock();
+            try {
+                if (!mClosed) {
+                    mIdle.addLast(new Idle(con, null));
+                    mAvailable.signal();
+                    continue;
+                }
+                mTotal--;
+                mClosedCount++;
+            } finally {
+                mLock.unlock();
+            }
+            closeQuietly(con);
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the amount of time the evictor thread sleeps between runs.
+     */
+    long evictionInterval() {
+        long interval = 60 * 1000;
+        long timeout = mIdleTimeout;
+        if (timeout > 0) {
+            interval = Math.min(interval, timeout / 2);
+        }
+        timeout = mLeakTimeout;
+        if (timeout > 0) {
+            interval = Math.min(interval, timeout / 2);
+        }
+        return Math.max(10, interval);
+    }
+
+    private static void closeQuietly(Connection con, JDBCStatementCache cache) {
+        if (cache != null) {
+            cache.closeAll();
+        }
+        closeQuietly(con);
+    }
+
+    private static void closeQuietly(Connection con) {
+        try {
+            con.close();
+        } catch (SQLException e) {
+            // Don't care.
+        }
+    }
+
+    private static class Idle {
+        final Connection mConnection;
+        // Statements cached for the connection, which remain open while pooled.
+        final JDBCStatementCache mStatementCache;
+        final long mIdleSince;
+
+        Idle(Connection con, JDBCStatementCache cache) {
+            mConnection = con;
+            mStatementCache = cache;
+            mIdleSince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Only weakly references the pool, so that an abandoned pool can be
+     * reclaimed, which stops the thread.
+     */
+    private static class Evictor extends Thread {
+        private final WeakReference<PooledDataSource> mPoolRef;
+
+        private boolean mShutdown;
+
+        Evictor(PooledDataSource pool) {
+            super("PooledDataSource evictor");
+            setDaemon(true);
+            mPoolRef = new WeakReference<PooledDataSource>(pool);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                PooledDataSource pool = mPoolRef.get();
+                if (pool == null) {
+                    return;
+                }
+                long interval = pool.evictionInterval();
+                pool = null;
+
+                synchronized (this) {
+                    if (mShutdown) {
+                        return;
+                    }
+                    try {
+                        wait(interval);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (mShutdown) {
+                        return;
+                    }
+                }
+
+                pool = mPoolRef.get();
+                if (pool == null || !pool.evict()) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Runs eviction now, and then waits according to the new interval.
+         */
+        synchronized void wakeup() {
+            notify();
+        }
+
+        synchronized void shutdown() {
+            mShutdown = true;
+            notify();
+        }
+    }
+}
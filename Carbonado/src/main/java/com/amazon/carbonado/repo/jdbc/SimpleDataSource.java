@@ -31,6 +31,7 @@ import javax.sql.DataSource;
  * SimpleDataSource does not implement any connection pooling.
  *
  * @author Brian S O'Neill
+ * @see PooledDataSource
  */
 public class SimpleDataSource implements DataSource {
     private final String mURL;
@@ -155,6 +155,11 @@ class WhereBuilder<S extends Storable> extends Visitor<S, FetchException, Object
 
     @Override
     public FetchException visit(OrFilter<S> filter, Object param) {
+        List<PropertyFilter<S>> inList = new ArrayList<PropertyFilter<S>>();
+        if (gatherInList(filter, inList)) {
+            return appendIn(inList);
+        }
+
         FetchException e;
         mStatementBuilder.append('(');
         e = filter.getLeftFilter().accept(this, null);
@@ -317,6 +322,66 @@ class WhereBuilder<S extends Storable> extends Visitor<S, FetchException, Object
         return null;
     }
 
+    /**
+     * Gathers the property filters of the given filter, if all of them test
+     * the same non-nullable property for equality against a bind
+     * parameter. Such a filter can be expressed with an "IN" list.
+     *
+     * @return false if filter cannot be expressed with an "IN" list
+     */
+    private boolean gatherInList(Filter<S> filter, List<PropertyFilter<S>> inList) {
+        if (filter instanceof OrFilter) {
+            OrFilter<S> orFilter = (OrFilter<S>) filter;
+            return gatherInList(orFilter.getLeftFilter(), inList)
+                && gatherInList(orFilter.getRightFilter(), inList);
+        }
+
+        if (!(filter instanceof PropertyFilter)) {
+            return false;
+        }
+
+        PropertyFilter<S> propFilter = (PropertyFilter<S>) filter;
+        if (propFilter.getOperator() != RelOp.EQ || propFilter.isConstant()) {
+            return false;
+        }
+
+        ChainedProperty<S> chained = propFilter.getChainedProperty();
+        if (chained.getLastProperty().isNullable()) {
+            return false;
+        }
+
+        if (!inList.isEmpty() && !chained.equals(inList.get(0).getChainedProperty())) {
+            return false;
+        }
+
+        inList.add(propFilter);
+        return true;
+    }
+
+    private FetchException appendIn(List<PropertyFilter<S>> inList) {
+        try {
+            mStatementBuilder.appendColumn(mJoinNode, inList.get(0).getChainedProperty());
+        } catch (FetchException e) {
+            return e;
+        }
+
+        mStatementBuilder.append(" IN (");
+
+        int i = 0;
+        for (PropertyFilter<S> filter : inList) {
+            if (i > 0) {
+                mStatementBuilder.append(',');
+            }
+            mPropertyFilters.add(filter);
+            mPropertyFilterNullable.add(false);
+            mStatementBuilder.append('?');
+            i++;
+        }
+
+        mStatementBuilder.append(')');
+        return null;
+    }
+
     private void addBindParameter(PropertyFilter<S> filter) {
         RelOp op = filter.getOperator();
         StorableProperty<?> property = filter.getChainedProperty().getLastProperty();
@@ -20,6 +20,10 @@ package com.amazon.carbonado.repo.logging;
 
 import java.io.IOException;
 
+import java.util.Arrays;
+
+import com.amazon.carbonado.Aggregate;
+import com.amazon.carbonado.AggregateResult;
 import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.PersistException;
@@ -29,12 +33,15 @@ import com.amazon.carbonado.Storable;
 import com.amazon.carbonado.filter.Filter;
 import com.amazon.carbonado.filter.FilterValues;
 
+import com.amazon.carbonado.qe.HintableQuery;
+import com.amazon.carbonado.qe.QueryHints;
+
 /**
  *
  *
  * @author Brian S O'Neill
  */
-class LoggingQuery<S extends Storable> implements Query<S> {
+class LoggingQuery<S extends Storable> implements HintableQuery<S> {
     private final LoggingStorage<S> mStorage;
     private final Query<S> mQuery;
 
@@ -150,6 +157,14 @@ class LoggingQuery<S extends Storable> implements Query<S> {
         return newInstance(mQuery.orderBy(strings));
     }
 
+    @Override
+    public Query<S> withHints(QueryHints hints) throws FetchException {
+        if (hints == null) {
+            hints = QueryHints.emptyHints();
+        }
+        return newInstance(hints.applyTo(mQuery));
+    }
+
     @Override
     public <T extends S> Query<S> after(T start) throws FetchException {
         return newInstance(mQuery.after(start));
@@ -340,6 +355,30 @@ class LoggingQuery<S extends Storable> implements Query<S> {
         return mQuery.exists(controller);
     }
 
+    @Override
+    public AggregateResult aggregate(Aggregate... aggregates) throws FetchException {
+        Log log = mStorage.mLog;
+        if (log.isEnabled()) {
+            log.write("Query.aggregate(aggregates) on " + this +
+                      ", aggregates: " + Arrays.toString(aggregates));
+        }
+        return mQuery.aggregate(aggregates);
+    }
+
+    @Override
+    public Cursor<AggregateResult> fetchAggregates(String[] groupProperties,
+                                                   Aggregate... aggregates)
+        throws FetchException
+    {
+        Log log = mStorage.mLog;
+        if (log.isEnabled()) {
+            log.write("Query.fetchAggregates(groupProperties, aggregates) on " + this +
+                      ", groupProperties: " + Arrays.toString(groupProperties) +
+                      ", aggregates: " + Arrays.toString(aggregates));
+        }
+        return mQuery.fetchAggregates(groupProperties, aggregates);
+    }
+
     @Override
     public boolean printNative() {
         return mQuery.printNative();
@@ -18,6 +18,9 @@
 
 package com.amazon.carbonado.repo.logging;
 
+import java.util.Collection;
+
+import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.PersistException;
 import com.amazon.carbonado.Query;
@@ -62,6 +65,14 @@ class LoggingStorage<S extends Storable> implements Storage<S> {
         return new LoggingQuery<S>(this, mStorage.query(filter));
     }
 
+    public Cursor<S> loadAll(Collection<? extends S> keys) throws FetchException {
+        if (mLog.isEnabled() && keys != null) {
+            mLog.write("Storage.loadAll() on " + getStorableType().getName() +
+                       " for " + keys.size() + " keys");
+        }
+        return mStorage.loadAll(keys);
+    }
+
     /**
      * @since 1.2
      */
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2008-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.map;
+
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.capability.Capability;
+
+/**
+ * Capability of a MapRepository which has a {@link
+ * MapRepositoryBuilder#setCacheCapacity capacity}, and so it acts as a cache
+ * which evicts storables. Statistics and listeners apply to each storable
+ * type separately.
+ *
+ * @author Brian S O'Neill
+ * @since 1.2.4
+ */
+public interface CacheCapability extends Capability {
+    /**
+     * Returns the current statistics of the given storable type.
+     *
+     * @param storableType required storable type
+     */
+    <S extends Storable> Statistics getCacheStatistics(Class<S> storableType)
+        throws RepositoryException;
+
+    /**
+     * Adds a listener which is notified when storables of the given type are
+     * evicted. Listeners aren't notified of deletes or truncation.
+     *
+     * @param storableType required storable type
+     */
+    <S extends Storable> void addEvictionListener(Class<S> storableType,
+                                                  EvictionListener<? super S> listener)
+        throws RepositoryException;
+
+    /**
+     * Removes a listener which was added earlier.
+     *
+     * @param storableType required storable type
+     */
+    <S extends Storable> void removeEvictionListener(Class<S> storableType,
+                                                     EvictionListener<? super S> listener)
+        throws RepositoryException;
+
+    /**
+     * Cache statistics, as of the time they were requested.
+     */
+    public interface Statistics {
+        /**
+         * Returns the amount of loads which found a storable.
+         */
+        long getHitCount();
+
+        /**
+         * Returns the amount of loads which didn't find a storable.
+         */
+        long getMissCount();
+
+        /**
+         * Returns the amount of storables evicted.
+         */
+        long getEvictionCount();
+
+        /**
+         * Returns the amount of storables currently cached.
+         */
+        long getEntryCount();
+
+        /**
+         * Returns the estimated amount of memory used by the cached storables,
+         * in bytes, or -1 if storables aren't {@link
+         * MapRepositoryBuilder#setCacheCapacityBytes weighed}.
+         */
+        long getEstimatedSize();
+    }
+
+    /**
+     * Receives storables which were evicted. Listeners are called by the
+     * thread which caused the eviction, after all locks are released. The
+     * storables are copies, which can be freely modified.
+     */
+    public interface EvictionListener<S extends Storable> {
+        void evicted(S storable);
+    }
+}
@@ -0,0 +1,587 @@
+/*
+ * Copyright 2008-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.map;
+
+import java.util.List;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.LogFactory;
+
+import com.amazon.carbonado.Storable;
+
+/**
+ * Eviction policy and statistics for a bounded MapStorage. The policy tracks
+ * the keys of all entries in the storage, and it selects which ones to evict
+ * when the storage is over capacity. It doesn't remove entries from the
+ * storage itself.
+ *
+ * <p>The TinyLFU policy keeps new entries in a small LRU window, and the rest
+ * in a main space which is split into probation and protected LRU
+ * segments. Entries leaving the window are only retained in the main space
+ * if they've been accessed more frequently than the probation victim, as
+ * estimated by a compact frequency sketch. The LRU policy only uses the
+ * window, which then spans the entire capacity.
+ *
+ * <p>Loads record accesses without waiting for the policy lock. Accesses
+ * aren't recorded by the policy when the lock is contended, which makes the
+ * policy slightly less accurate, but statistics are always recorded.
+ *
+ * @author Brian S O'Neill
+ */
+class MapCache<S extends Storable> {
+    private static final int WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+
+    private final boolean mTinyLfu;
+    private final long mMaxCount;
+    private final long mMaxWeight;
+    private final long mMaxWindow;
+    private final long mMaxProtected;
+
+    private final ReentrantLock mLock;
+
+    // All guarded by lock.
+    private Node<S>[] mTable;
+    private long mCount;
+    private long mWeight;
+    private long mWindowWeight;
+    private long mProtectedWeight;
+    // Sentinels of circular lists, ordered from least to most recently used.
+    private final Node<S>[] mQueues;
+    private final Sketch mSketch;
+
+    private final AtomicLong mHits;
+    private final AtomicLong mMisses;
+    private final AtomicLong mEvictions;
+
+    private final List<CacheCapability.EvictionListener<? super S>> mListeners;
+
+    /**
+     * @param maxCount maximum amount of entries, or zero if unlimited
+     * @param maxWeight maximum total weight of entries, or zero if unlimited
+     * @param tinyLfu true for TinyLFU policy, false for LRU
+     */
+    MapCache(long maxCount, long maxWeight, boolean tinyLfu) {
+        mTinyLfu = tinyLfu;
+        mMaxCount = maxCount <= 0 ? Long.MAX_VALUE : maxCount;
+        mMaxWeight = maxWeight <= 0 ? Long.MAX_VALUE : maxWeight;
+
+        // Window and protected segments are sized by weight if bounded by
+        // weight, and by count otherwise. A weight of one per entry is
+        // assumed to apply when bounded only by count.
+        long max = maxWeight > 0 ? maxWeight : mMaxCount;
+        if (tinyLfu) {
+            mMaxWindow = Math.max(1, max / 100);
+            mMaxProtected = (max - mMaxWindow) / 5 * 4;
+        } else {
+            mMaxWindow = Long.MAX_VALUE;
+            mMaxProtected = 0;
+        }
+
+        mLock = new ReentrantLock();
+        mTable = new Node[16];
+        mQueues = new Node[3];
+        for (int i=0; i<mQueues.length; i++) {
+            Node<S> sentinel = new Node<S>(null, 0, 0);
+            sentinel.mPrev = sentinel;
+            sentinel.mNext = sentinel;
+            mQueues[i] = sentinel;
+        }
+        mSketch = tinyLfu ? new Sketch() : null;
+
+        mHits = new AtomicLong();
+        mMisses = new AtomicLong();
+        mEvictions = new AtomicLong();
+
+        mListeners = new CopyOnWriteArrayList<CacheCapability.EvictionListener<? super S>>();
+    }
+
+    /**
+     * Returns true if entries are weighed instead of just counted.
+     */
+    boolean isWeighed() {
+        return mMaxWeight != Long.MAX_VALUE;
+    }
+
+    /**
+     * Records a load, which found an entry or not.
+     */
+    void accessed(Key<S> key, int hash, boolean found) {
+        (found ? mHits : mMisses).incrementAndGet();
+        if (!mLock.tryLock()) {
+            return;
+        }
+        try {
+            if (mSketch != null) {
+                mSketch.increment(hash);
+            }
+            if (found) {
+                Node<S> node = find(key, hash);
+                if (node != null) {
+                    touch(node);
+                }
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Adds an entry which was inserted, or updates an existing one.
+     *
+     * @param key key whose storable is retained by the policy
+     * @param weight estimated size of entry, or one if not weighed
+     */
+    void put(Key<S> key, int hash, int weight) {
+        mLock.lock();
+        try {
+            if (mSketch != null) {
+                mSketch.increment(hash);
+            }
+            Node<S> node = find(key, hash);
+            if (node != null) {
+                node.mKey = key;
+                mWeight += weight - node.mWeight;
+                if (node.mQueue == WINDOW) {
+                    mWindowWeight += weight - node.mWeight;
+                } else if (node.mQueue == PROTECTED) {
+                    mProtectedWeight += weight - node.mWeight;
+                }
+                node.mWeight = weight;
+                touch(node);
+                return;
+            }
+            add(new Node<S>(key, hash, weight));
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Removes an entry which was deleted.
+     */
+    void remove(Key<S> key, int hash) {
+        mLock.lock();
+        try {
+            Node<S> node = find(key, hash);
+            if (node != null) {
+                delete(node);
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    boolean contains(Key<S> key, int hash) {
+        mLock.lock();
+        try {
+            return find(key, hash) != null;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Removes all entries, which were truncated.
+     */
+    void clear() {
+        mLock.lock();
+        try {
+            mTable = new Node[16];
+            mCount = 0;
+            mWeight = 0;
+            mWindowWeight = 0;
+            mProtectedWeight = 0;
+            for (Node<S> sentinel : mQueues) {
+                sentinel.mPrev = sentinel;
+                sentinel.mNext = sentinel;
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Selects and removes the next entry to evict, if over capacity. Caller
+     * must then remove it from the storage, or else {@link #restore restore}
+     * it.
+     *
+     * @return null if not over capacity
+     */
+    Node<S> nextVictim() {
+        mLock.lock();
+        try {
+            if (mCount <= mMaxCount && mWeight <= mMaxWeight) {
+                return null;
+            }
+            Node<S> victim = first(PROBATION);
+            if (victim == null) {
+                if ((victim = first(PROTECTED)) == null) {
+                    victim = first(WINDOW);
+                }
+            } else if (mTinyLfu) {
+                // Entry most recently admitted from the window must compete
+                // with the least recently used probation entry.
+                Node<S> candidate = last(PROBATION);
+                if (candidate != victim &&
+                    mSketch.frequency(candidate.mHash) <= mSketch.frequency(victim.mHash))
+                {
+                    victim = candidate;
+                }
+            }
+            delete(victim);
+            return victim;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Restores a victim which couldn't be evicted, unless it was put again.
+     */
+    void restore(Node<S> node) {
+        mLock.lock();
+        try {
+            if (find(node.mKey, node.mHash) == null) {
+                add(new Node<S>(node.mKey, node.mHash, node.mWeight));
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Records that an entry was evicted, and notifies the listeners.
+     *
+     * @param storable evicted storable, which is copied for each listener
+     */
+    void evicted(S storable) {
+        mEvictions.incrementAndGet();
+        for (CacheCapability.EvictionListener<? super S> listener : mListeners) {
+            try {
+                listener.evicted((S) storable.copy());
+            } catch (Throwable e) {
+                LogFactory.getLog(MapCache.class).error("Eviction listener failed", e);
+            }
+        }
+    }
+
+    void addListener(CacheCapability.EvictionListener<? super S> listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException();
+        }
+        mListeners.add(listener);
+    }
+
+    void removeListener(CacheCapability.EvictionListener<? super S> listener) {
+        mListeners.remove(listener);
+    }
+
+    CacheCapability.Statistics getStatistics() {
+        long count, weight;
+        mLock.lock();
+        try {
+            count = mCount;
+            weight = mWeight;
+        } finally {
+            mLock.unlock();
+        }
+        return new Stats(mHits.get(), mMisses.get(), mEvictions.get(), count,
+                         isWeighed() ? weight : -1);
+    }
+
+    // Caller must hold lock.
+    private Node<S> find(Key<S> key, int hash) {
+        Node<S>[] table = mTable;
+        for (Node<S> n = table[hash & (table.length - 1)]; n != null; n = n.mChain) {
+            if (n.mHash == hash && n.mKey.compareTo(key) == 0) {
+                return n;
+            }
+        }
+        return null;
+    }
+
+    // Caller must hold lock.
+    private void add(Node<S> node) {
+        Node<S>[] table = mTable;
+        if (mCount >= table.length) {
+            table = rehash(table);
+        }
+        int index = node.mHash & (table.length - 1);
+        node.mChain = table[index];
+        table[index] = node;
+        mCount++;
+        mWeight += node.mWeight;
+        if (mSketch != null) {
+            mSketch.ensureCapacity(mCount);
+        }
+        link(node, WINDOW);
+        // Admit least recently used window entries into the main space, where
+        // they're evicted if not accessed more frequently than others.
+        Node<S> first;
+        while (mWindowWeight > mMaxWindow && (first = first(WINDOW)) != node) {
+            moveTo(first, PROBATION);
+        }
+    }
+
+    // Caller must hold lock.
+    private void delete(Node<S> node) {
+        Node<S>[] table = mTable;
+        int index = node.mHash & (table.length - 1);
+        Node<S> prev = null;
+        for (Node<S> n = table[index]; n != null; n = n.mChain) {
+            if (n == node) {
+                if (prev == null) {
+                    table[index] = n.mChain;
+                } else {
+                    prev.mChain = n.mChain;
+                }
+                break;
+            }
+            prev = n;
+        }
+        node.mChain = null;
+        mCount--;
+        mWeight -= node.mWeight;
+        unlink(node);
+    }
+
+    private Node<S>[] rehash(Node<S>[] table) {
+        Node<S>[] newTable = new Node[table.length << 1];
+        int mask = newTable.length - 1;
+        for (Node<S> n : table) {
+            while (n != null) {
+                Node<S> next = n.mChain;
+                int index = n.mHash & mask;
+                n.mChain = newTable[index];
+                newTable[index] = n;
+                n = next;
+            }
+        }
+        return mTable = newTable;
+    }
+
+    /**
+     * Moves an entry to the most recently used position of its segment, and
+     * promotes it from probation to protected. Caller must hold lock.
+     */
+    private void touch(Node<S> node) {
+        if (node.mQueue == PROBATION) {
+            moveTo(node, PROTECTED);
+            // Demote least recently used protected entries.
+            while (mProtectedWeight > mMaxProtected) {
+                Node<S> demote = first(PROTECTED);
+                if (demote == null || demote == node) {
+                    break;
+                }
+                moveTo(demote, PROBATION);
+            }
+        } else {
+            moveTo(node, node.mQueue);
+        }
+    }
+
+    // Caller must hold lock.
+    private Node<S> first(int queue) {
+        Node<S> sentinel = mQueues[queue];
+        Node<S> first = sentinel.mNext;
+        return first == sentinel ? null : first;
+    }
+
+    // Caller must hold lock.
+    private Node<S> last(int queue) {
+        Node<S> sentinel = mQueues[queue];
+        Node<S> last = sentinel.mPrev;
+        return last == sentinel ? null : last;
+    }
+
+    // Caller must hold lock.
+    private void moveTo(Node<S> node, int queue) {
+        unlink(node);
+        link(node, queue);
+    }
+
+    // Caller must hold lock.
+    private void link(Node<S> node, int queue) {
+        Node<S> sentinel = mQueues[queue];
+        Node<S> last = sentinel.mPrev;
+        node.mPrev = last;
+        node.mNext = sentinel;
+        last.mNext = node;
+        sentinel.mPrev = node;
+        node.mQueue = queue;
+        if (queue == WINDOW) {
+            mWindowWeight += node.mWeight;
+        } else if (queue == PROTECTED) {
+            mProtectedWeight += node.mWeight;
+        }
+    }
+
+    // Caller must hold lock.
+    private void unlink(Node<S> node) {
+        node.mPrev.mNext = node.mNext;
+        node.mNext.mPrev = node.mPrev;
+        node.mPrev = null;
+        node.mNext = null;
+        if (node.mQueue == WINDOW) {
+            mWindowWeight -= node.mWeight;
+        } else if (node.mQueue == PROTECTED) {
+            mProtectedWeight -= node.mWeight;
+        }
+    }
+
+    static final class Node<S extends Storable> {
+        Key<S> mKey;
+        final int mHash;
+        int mWeight;
+
+        int mQueue;
+        Node<S> mPrev;
+        Node<S> mNext;
+        Node<S> mChain;
+
+        Node(Key<S> key, int hash, int weight) {
+            mKey = key;
+            mHash = hash;
+            mWeight = weight;
+        }
+    }
+
+    /**
+     * Count-min sketch of access frequencies, with four bit counters which are
+     * periodically halved, so that old accesses are forgotten.
+     */
+    private static final class Sketch {
+        private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+        };
+
+        // Each long holds sixteen counters.
+        private long[] mTable;
+        private int mMask;
+        private int mAdditions;
+        private int mSampleSize;
+
+        Sketch() {
+            resize(16);
+        }
+
+        void ensureCapacity(long count) {
+            // Allocate sixteen counters per entry, to limit collisions.
+            if (count > mTable.length && mTable.length < (1 << 22)) {
+                // Counts are lost, but it only happens while the cache grows.
+                resize(mTable.length << 1);
+            }
+        }
+
+        int frequency(int hash) {
+            int frequency = Integer.MAX_VALUE;
+            for (int i=0; i<4; i++) {
+                frequency = Math.min(frequency, counter(indexOf(hash, i)));
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i=0; i<4; i++) {
+                int index = indexOf(hash, i);
+                if (counter(index) < 15) {
+                    mTable[index >>> 4] += 1L << ((index & 15) << 2);
+                    added = true;
+                }
+            }
+            if (added && ++mAdditions >= mSampleSize) {
+                // Age all counters.
+                long[] table = mTable;
+                for (int i=0; i<table.length; i++) {
+                    table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+                }
+                mAdditions >>>= 1;
+            }
+        }
+
+        /**
+         * @param length table length, which must be a power of two
+         */
+        private void resize(int length) {
+            mTable = new long[length];
+            mMask = (length << 4) - 1;
+            mAdditions = 0;
+            mSampleSize = length * 10;
+        }
+
+        private int counter(int index) {
+            return (int) ((mTable[index >>> 4] >>> ((index & 15) << 2)) & 15);
+        }
+
+        private int indexOf(int hash, int depth) {
+            long h = (hash + SEEDS[depth]) * SEEDS[depth];
+            h += h >>> 32;
+            return ((int) h) & mMask;
+        }
+    }
+
+    private static final class Stats implements CacheCapability.Statistics {
+        private final long mHits;
+        private final long mMisses;
+        private final long mEvictions;
+        private final long mCount;
+        private final long mSize;
+
+        Stats(long hits, long misses, long evictions, long count, long size) {
+            mHits = hits;
+            mMisses = misses;
+            mEvictions = evictions;
+            mCount = count;
+            mSize = size;
+        }
+
+        public long getHitCount() {
+            return mHits;
+        }
+
+        public long getMissCount() {
+            return mMisses;
+        }
+
+        public long getEvictionCount() {
+            return mEvictions;
+        }
+
+        public long getEntryCount() {
+            return mCount;
+        }
+
+        public long getEstimatedSize() {
+            return mSize;
+        }
+
+        @Override
+        public String toString() {
+            return "CacheStatistics {hits=" + mHits + ", misses=" + mMisses +
+                ", evictions=" + mEvictions + ", entries=" + mCount +
+                ", estimatedSize=" + mSize + '}';
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2008-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.map;
+
+import com.amazon.carbonado.CorruptEncodingException;
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.SupportException;
+import com.amazon.carbonado.Trigger;
+
+import com.amazon.carbonado.info.StorableIndex;
+import com.amazon.carbonado.info.StorableIntrospector;
+
+import com.amazon.carbonado.layout.Layout;
+import com.amazon.carbonado.layout.Unevolvable;
+
+import com.amazon.carbonado.lob.Blob;
+import com.amazon.carbonado.lob.Clob;
+
+import com.amazon.carbonado.raw.GenericStorableCodec;
+import com.amazon.carbonado.raw.GenericStorableCodecFactory;
+import com.amazon.carbonado.raw.RawSupport;
+
+import com.amazon.carbonado.sequence.SequenceValueProducer;
+
+/**
+ * Encodes storables for {@link MapLog} and {@link OffHeapMap}, using the same
+ * encoding as the raw repositories. Encoded keys sort in the same order as
+ * the primary key properties.
+ *
+ * @author Brian S O'Neill
+ */
+class MapCodec<S extends Storable> {
+    private final MapRepository mRepository;
+    private final GenericStorableCodec<S> mCodec;
+
+    /**
+     * @param evolvable when true, layout generations are recorded, and so
+     * storable types can evolve between the time entries are encoded and
+     * when they're decoded
+     * @throws SupportException if type cannot be encoded
+     */
+    MapCodec(MapRepository repo, Class<S> type, StorableIndex<S> pkIndex, boolean evolvable)
+        throws RepositoryException
+    {
+        mRepository = repo;
+
+        GenericStorableCodecFactory factory = new GenericStorableCodecFactory();
+
+        Layout layout = null;
+        if (evolvable && !Unevolvable.class.isAssignableFrom(type)) {
+            try {
+                layout = repo.getLayoutFactory().layoutFor(type, factory.getLayoutOptions(type));
+            } catch (SupportException e) {
+                // Layout storables aren't supported, and so generations
+                // aren't recorded.
+            }
+        }
+
+        mCodec = factory.createCodec(type, pkIndex, false, layout, new Support());
+    }
+
+    /**
+     * Returns the encoded primary key of the given storable.
+     */
+    byte[] encodeKey(S storable) {
+        // Codec can only encode its own storable instances.
+        S raw = mCodec.instantiate();
+        storable.copyPrimaryKeyProperties(raw);
+        return mCodec.encodePrimaryKey(raw);
+    }
+
+    /**
+     * Returns the encoded data properties of the given storable.
+     */
+    byte[] encodeData(S storable) throws PersistException {
+        Support support = new Support();
+        S raw = mCodec.instantiate(support);
+        storable.copyAllProperties(raw);
+        if (!raw.tryInsert() || support.mData == null) {
+            throw new PersistException("Unable to encode: " + storable);
+        }
+        return support.mData;
+    }
+
+    /**
+     * Decodes just the primary key properties of an encoded key.
+     */
+    S decodeKey(byte[] key) throws FetchException {
+        return mCodec.instantiate(key);
+    }
+
+    /**
+     * Decodes an encoded entry into the given storable, leaving all of its
+     * properties clean.
+     */
+    void decode(S dest, byte[] key, byte[] data) throws FetchException {
+        S raw = mCodec.instantiate(key, data);
+        dest.markAllPropertiesDirty();
+        raw.copyAllProperties(dest);
+        dest.markAllPropertiesClean();
+    }
+
+    /**
+     * Supports decoding, and captures the encoded data when a raw storable
+     * is inserted.
+     */
+    private class Support implements RawSupport<S> {
+        byte[] mData;
+
+        Support() {
+        }
+
+        public Repository getRootRepository() {
+            return mRepository.getRootRepository();
+        }
+
+        public boolean isPropertySupported(String name) {
+            return name != null && StorableIntrospector
+                .examine(mCodec.getStorableType()).getAllProperties().containsKey(name);
+        }
+
+        public byte[] tryLoad(S storable, byte[] key) throws FetchException {
+            throw new UnsupportedOperationException();
+        }
+
+        public boolean tryInsert(S storable, byte[] key, byte[] value) {
+            mData = value;
+            return true;
+        }
+
+        public void store(S storable, byte[] key, byte[] value) {
+            mData = value;
+        }
+
+        public boolean tryDelete(S storable, byte[] key) {
+            throw new UnsupportedOperationException();
+        }
+
+        public Blob getBlob(S storable, String name, long locator) throws FetchException {
+            try {
+                return mRepository.getLobEngine().getBlobValue(locator);
+            } catch (RepositoryException e) {
+                throw e.toFetchException();
+            }
+        }
+
+        public long getLocator(Blob blob) throws PersistException {
+            try {
+                return mRepository.getLobEngine().getLocator(blob);
+            } catch (ClassCastException e) {
+                throw new PersistException(e);
+            } catch (RepositoryException e) {
+                throw e.toPersistException();
+            }
+        }
+
+        public Clob getClob(S storable, String name, long locator) throws FetchException {
+            try {
+                return mRepository.getLobEngine().getClobValue(locator);
+            } catch (RepositoryException e) {
+                throw e.toFetchException();
+            }
+        }
+
+        public long getLocator(Clob clob) throws PersistException {
+            try {
+                return mRepository.getLobEngine().getLocator(clob);
+            } catch (ClassCastException e) {
+                throw new PersistException(e);
+            } catch (RepositoryException e) {
+                throw e.toPersistException();
+            }
+        }
+
+        public void decode(S dest, int generation, byte[] data) throws CorruptEncodingException {
+            mCodec.decode(dest, generation, data);
+        }
+
+        public SequenceValueProducer getSequenceValueProducer(String name)
+            throws PersistException
+        {
+            try {
+                return mRepository.getSequenceValueProducer(name);
+            } catch (RepositoryException e) {
+                throw e.toPersistException();
+            }
+        }
+
+        public Trigger<? super S> getInsertTrigger() {
+            return null;
+        }
+
+        public Trigger<? super S> getUpdateTrigger() {
+            return null;
+        }
+
+        public Trigger<? super S> getDeleteTrigger() {
+            return null;
+        }
+
+        public Trigger<? super S> getLoadTrigger() {
+            return null;
+        }
+
+        public void locallyDisableLoadTrigger() {
+        }
+
+        public void locallyEnableLoadTrigger() {
+        }
+    }
+}
@@ -60,12 +60,17 @@ class MapCursor<S extends Storable> extends AbstractCursor<S> {
         mTxn = txn;
 
         if (txn == null) {
-            mStorage.mLock.lockForRead(scope);
+            for (UpgradableLock<Object> lock : storage.mLocks) {
+                lock.lockForRead(scope);
+            }
+            mIsForUpdate = false;
+        } else if (txn.isSnapshot()) {
+            // Snapshot doesn't lock.
             mIsForUpdate = false;
         } else {
             // Since lock is so coarse, all reads in transaction scope are
             // upgrade to avoid deadlocks.
-            txn.lockForUpgrade(mStorage.mLock, mIsForUpdate = scope.isForUpdate());
+            storage.lockAllForUpgrade(txn, mIsForUpdate = scope.isForUpdate());
         }
 
         scope.register(storage.getStorableType(), this);
@@ -76,11 +81,13 @@ class MapCursor<S extends Storable> extends AbstractCursor<S> {
         Iterator<S> it = mIterator;
         if (it != null) {
             if (cIteratorRef.compareAndSet(this, it, null)) {
-                UpgradableLock lock = mStorage.mLock;
                 if (mTxn == null) {
-                    lock.unlockFromRead(mScope);
-                } else {
-                    mTxn.unlockFromUpgrade(lock, mIsForUpdate);
+                    UpgradableLock<Object>[] locks = mStorage.mLocks;
+                    for (int i=locks.length; --i>=0; ) {
+                        locks[i].unlockFromRead(mScope);
+                    }
+                } else if (!mTxn.isSnapshot()) {
+                    mStorage.unlockAllFromUpgrade(mTxn, mIsForUpdate);
                 }
                 mScope.unregister(mStorage.getStorableType(), this);
             }
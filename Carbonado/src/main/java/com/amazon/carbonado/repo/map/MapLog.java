@@ -0,0 +1,1217 @@
+/*
+ * Copyright 2008-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.map;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.lang.ref.WeakReference;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.commons.logging.LogFactory;
+
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.RepositoryException;
+
+import com.amazon.carbonado.util.Comparators;
+
+/**
+ * Append-only write-ahead log, which makes a {@link MapRepository}
+ * durable. Committed modifications are appended to the log as the encoded
+ * state of each modified key. Checkpoints write a snapshot of every storage,
+ * after which the log segments which the snapshot covers are deleted.
+ *
+ * <p>The data home directory contains these files:
+ *
+ * <ul>
+ * <li>log.<i>n</i> - log segments, which are replayed in order
+ * <li>snapshot.<i>n</i> - directory with a snapshot file for each storage,
+ * which covers all log segments numbered less than <i>n</i>
+ * <li>lock - locked while the repository is open
+ * </ul>
+ *
+ * <p>Checkpoints only briefly block modifications, while the storage contents
+ * are gathered. Modifications which commit after the log segment switch are
+ * appended to the new segment, and so replaying it after loading the snapshot
+ * recovers them.
+ *
+ * @author Brian S O'Neill
+ */
+class MapLog {
+    private static final long SEGMENT_MAGIC = 0x436172624d61704cL;
+    private static final long SNAPSHOT_MAGIC = 0x436172624d617053L;
+
+    private static final byte OP_DEFINE = 1, OP_PUT = 2, OP_DELETE = 3, OP_TRUNCATE = 4;
+
+    private static final String LOG_PREFIX = "log.";
+    private static final String SNAPSHOT_PREFIX = "snapshot.";
+    private static final String TABLE_PREFIX = "table.";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String LOCK_FILE = "lock";
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Comparator<byte[]> KEY_COMPARATOR =
+        Comparators.arrayComparator(byte[].class, true);
+
+    private final File mHome;
+    private final boolean mNoSync;
+    private final boolean mWriteNoSync;
+
+    private final RandomAccessFile mLockFile;
+    private final FileLock mLock;
+
+    // Tables keyed by name. Guarded by itself.
+    private final Map<String, Table> mTables;
+    private int mNextTableId;
+
+    // Current log segment and buffered output. Guarded by this.
+    private long mSegment;
+    private FileOutputStream mOut;
+    private final byte[] mBuffer;
+    private int mBufferPos;
+    // Amount of bytes appended to all segments, and amount actually written.
+    private long mPosition;
+    private long mWrittenPosition;
+    // Is true if log was written to since the last checkpoint.
+    private boolean mDirty;
+    private IOException mFailure;
+    private boolean mClosed;
+
+    // Held while syncing and when switching segments, before this lock.
+    private final Object mSyncLock;
+    private long mSyncedPosition;
+
+    private final Object mCheckpointLock;
+    private Checkpointer mCheckpointer;
+
+    /**
+     * Opens the log, recovering all the tables.
+     *
+     * @param name repository name
+     * @param home data home directory, which is created if it doesn't exist
+     * @param noSync when true, commits aren't immediately written
+     * @param writeNoSync when true, commits are written but not flushed to disk
+     * @param checkpointInterval milliseconds between automatic checkpoints;
+     * zero or negative to disable
+     */
+    MapLog(String name, File home, boolean noSync, boolean writeNoSync, long checkpointInterval)
+        throws RepositoryException
+    {
+        mHome = home;
+        mNoSync = noSync;
+        mWriteNoSync = writeNoSync;
+        mTables = new HashMap<String, Table>();
+        mBuffer = new byte[BUFFER_SIZE];
+        mSyncLock = new Object();
+        mCheckpointLock = new Object();
+
+        if (!home.isDirectory() && !home.mkdirs()) {
+            throw new RepositoryException("Unable to create data home: " + home);
+        }
+
+        try {
+            mLockFile = new RandomAccessFile(new File(home, LOCK_FILE), "rw");
+        } catch (IOException e) {
+            throw new RepositoryException(e);
+        }
+
+        FileLock lock;
+        try {
+            lock = mLockFile.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        } catch (IOException e) {
+            closeQuietly(mLockFile);
+            throw new RepositoryException(e);
+        }
+
+        if (lock == null) {
+            closeQuietly(mLockFile);
+            throw new RepositoryException("Data home is in use: " + home);
+        }
+
+        mLock = lock;
+
+        try {
+            recover();
+        } catch (Throwable e) {
+            closeFiles();
+            if (e instanceof RepositoryException) {
+                throw (RepositoryException) e;
+            }
+            throw new RepositoryException(e);
+        }
+
+        if (checkpointInterval > 0) {
+            mCheckpointer = new Checkpointer(name, this, checkpointInterval);
+            mCheckpointer.start();
+        }
+    }
+
+    /**
+     * Opens the table for the given storage, which is supplied the entries
+     * recovered for it.
+     */
+    Table openTable(String name, MapStorage<?> storage) throws RepositoryException {
+        Table table;
+        synchronized (mTables) {
+            table = mTables.get(name);
+            if (table == null) {
+                table = new Table(name, mNextTableId++);
+                mTables.put(name, table);
+            }
+        }
+        table.open(storage);
+        return table;
+    }
+
+    /**
+     * Appends the batch to the log, which must be synced to be durable. Caller
+     * must hold locks for all keys in the batch, which ensures that the log
+     * is ordered the same as modifications were made.
+     *
+     * @return log position to pass to sync method, or zero if batch is empty
+     */
+    synchronized long write(Batch batch) throws PersistException {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        checkOpen();
+
+        try {
+            for (Table table : batch.mTables) {
+                if (table.mDefinedSegment != mSegment) {
+                    // Table ids are only valid within the segment they're defined in.
+                    Batch define = new Batch();
+                    define.writeByte(OP_DEFINE);
+                    define.writeInt(table.mId);
+                    define.writeBytes(table.mName.getBytes(UTF_8));
+                    append(define.mBytes, define.mSize);
+                    table.mDefinedSegment = mSegment;
+                }
+            }
+
+            append(batch.mBytes, batch.mSize);
+
+            if (!mNoSync) {
+                flush();
+            }
+        } catch (IOException e) {
+            throw failed(e);
+        }
+
+        mDirty = true;
+        return mPosition;
+    }
+
+    /**
+     * Ensures that the log has been flushed to disk up to the given position,
+     * unless the log doesn't sync. Concurrent callers are satisfied by a
+     * single flush.
+     *
+     * @param position log position returned by the write method
+     */
+    void sync(long position) throws PersistException {
+        if (position <= 0 || mNoSync || mWriteNoSync) {
+            return;
+        }
+
+        synchronized (mSyncLock) {
+            if (position <= mSyncedPosition) {
+                return;
+            }
+
+            FileDescriptor fd;
+            long target;
+            synchronized (this) {
+                checkOpen();
+                try {
+                    flush();
+                    fd = mOut.getFD();
+                } catch (IOException e) {
+                    throw failed(e);
+                }
+                target = mWrittenPosition;
+            }
+
+            // Sync without holding the log lock, allowing more writes to be
+            // appended in the meantime. Segment cannot switch while sync lock
+            // is held.
+            try {
+                fd.sync();
+            } catch (IOException e) {
+                synchronized (this) {
+                    throw failed(e);
+                }
+            }
+
+            mSyncedPosition = target;
+        }
+    }
+
+    /**
+     * Switches to a new log segment, writes a snapshot of every table, and
+     * then deletes the log segments and snapshots which the new snapshot
+     * covers. Does nothing if the log hasn't been written to since the last
+     * checkpoint.
+     */
+    void checkpoint() throws IOException, RepositoryException {
+        synchronized (mCheckpointLock) {
+            long segment;
+            synchronized (mSyncLock) {
+                synchronized (this) {
+                    checkOpen();
+                    if (!mDirty) {
+                        return;
+                    }
+                    try {
+                        openSegment(mSegment + 1);
+                    } catch (IOException e) {
+                        throw failed(e);
+                    }
+                    segment = mSegment;
+                    mDirty = false;
+                }
+            }
+
+            boolean success = false;
+            try {
+                writeSnapshot(segment);
+                success = true;
+            } finally {
+                if (!success) {
+                    synchronized (this) {
+                        mDirty = true;
+                    }
+                }
+            }
+
+            // Delete what the new snapshot covers.
+            File[] files = mHome.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    String name = file.getName();
+                    long seq;
+                    if ((seq = sequenceOf(name, SNAPSHOT_PREFIX)) >= 0) {
+                        if (seq < segment) {
+                            delete(file);
+                        }
+                    } else if ((seq = sequenceOf(name, LOG_PREFIX)) >= 0) {
+                        if (seq < segment) {
+                            delete(file);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Flushes the log and closes all files. Modifications made after the log
+     * is closed fail.
+     */
+    void close() {
+        Checkpointer checkpointer;
+        synchronized (this) {
+            checkpointer = mCheckpointer;
+            mCheckpointer = null;
+        }
+
+        if (checkpointer != null) {
+            checkpointer.shutdown();
+            try {
+                checkpointer.join();
+            } catch (InterruptedException e) {
+            }
+        }
+
+        synchronized (mCheckpointLock) {
+            synchronized (mSyncLock) {
+                synchronized (this) {
+                    if (mClosed) {
+                        return;
+                    }
+                    mClosed = true;
+                    if (mFailure == null && mOut != null) {
+                        try {
+                            flush();
+                            mOut.getFD().sync();
+                        } catch (IOException e) {
+                            LogFactory.getLog(MapLog.class).error("Unable to flush log", e);
+                        }
+                    }
+                    closeFiles();
+                }
+            }
+        }
+    }
+
+    // Caller must be synchronized.
+    private void checkOpen() throws PersistException {
+        if (mFailure != null) {
+            throw new PersistException("Log failed", mFailure);
+        }
+        if (mClosed) {
+            throw new PersistException("Repository is closed");
+        }
+    }
+
+    /**
+     * After a failure, the log can no longer be appended to, because it might
+     * end with a partial entry. Caller must be synchronized.
+     */
+    private PersistException failed(IOException e) {
+        if (mFailure == null) {
+            mFailure = e;
+        }
+        return new PersistException(e);
+    }
+
+    private void closeFiles() {
+        if (mOut != null) {
+            closeQuietly(mOut);
+            mOut = null;
+        }
+        try {
+            mLock.release();
+        } catch (IOException e) {
+            // Closing the file releases the lock anyhow.
+        }
+        closeQuietly(mLockFile);
+    }
+
+    // Caller must be synchronized.
+    private void append(byte[] bytes, int length) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        appendInt(length);
+        appendInt((int) crc.getValue());
+        appendBytes(bytes, 0, length);
+    }
+
+    // Caller must be synchronized.
+    private void appendInt(int v) throws IOException {
+        if (mBufferPos + 4 > mBuffer.length) {
+            flush();
+        }
+        byte[] buffer = mBuffer;
+        int pos = mBufferPos;
+        buffer[pos++] = (byte) (v >> 24);
+        buffer[pos++] = (byte) (v >> 16);
+        buffer[pos++] = (byte) (v >> 8);
+        buffer[pos++] = (byte) v;
+        mBufferPos = pos;
+        mPosition += 4;
+    }
+
+    // Caller must be synchronized.
+    private void appendBytes(byte[] bytes, int offset, int length) throws IOException {
+        if (length > mBuffer.length - mBufferPos) {
+            flush();
+            if (length > mBuffer.length) {
+                mOut.write(bytes, offset, length);
+                mPosition += length;
+                mWrittenPosition = mPosition;
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, mBuffer, mBufferPos, length);
+        mBufferPos += length;
+        mPosition += length;
+    }
+
+    // Caller must be synchronized.
+    private void flush() throws IOException {
+        if (mBufferPos > 0) {
+            mOut.write(mBuffer, 0, mBufferPos);
+            mBufferPos = 0;
+            mWrittenPosition = mPosition;
+        }
+    }
+
+    /**
+     * Finishes the current segment, if any, and starts a new one. Caller must
+     * hold sync lock and be synchronized.
+     */
+    private void openSegment(long segment) throws IOException {
+        if (mOut != null) {
+            // Sync the old segment, such that the log never has gaps.
+            flush();
+            mOut.getFD().sync();
+            mSyncedPosition = mWrittenPosition;
+            mOut.close();
+            mOut = null;
+        }
+
+        mOut = new FileOutputStream(new File(mHome, LOG_PREFIX + segment));
+        syncDirectory(mHome);
+        mSegment = segment;
+
+        byte[] header = new byte[8];
+        ByteBuffer.wrap(header).putLong(SEGMENT_MAGIC);
+        appendBytes(header, 0, header.length);
+    }
+
+    private void writeSnapshot(long segment) throws IOException, RepositoryException {
+        List<Table> tables;
+        synchronized (mTables) {
+            tables = new ArrayList<Table>(mTables.values());
+        }
+
+        File temp = new File(mHome, SNAPSHOT_PREFIX + segment + TEMP_SUFFIX);
+        if (temp.exists()) {
+            delete(temp);
+        }
+        if (!temp.mkdir()) {
+            throw new IOException("Unable to create directory: " + temp);
+        }
+
+        int count = 0;
+        for (Table table : tables) {
+            if (table.writeSnapshot(new File(temp, TABLE_PREFIX + count))) {
+                count++;
+            }
+        }
+
+        syncDirectory(temp);
+
+        File dir = new File(mHome, SNAPSHOT_PREFIX + segment);
+        if (!temp.renameTo(dir)) {
+            throw new IOException("Unable to rename directory: " + temp);
+        }
+
+        syncDirectory(mHome);
+    }
+
+    /**
+     * Recovers the tables from the latest snapshot and the log segments which
+     * follow it, and then starts a new segment.
+     */
+    private void recover() throws IOException, RepositoryException {
+        long snapshot = 0;
+        List<Long> segments = new ArrayList<Long>();
+
+        File[] files = mHome.listFiles();
+        if (files == null) {
+            throw new IOException("Unable to list files: " + mHome);
+        }
+
+        for (File file : files) {
+            String name = file.getName();
+            long seq;
+            if (name.endsWith(TEMP_SUFFIX)) {
+                // Incomplete snapshot.
+                delete(file);
+            } else if ((seq = sequenceOf(name, SNAPSHOT_PREFIX)) >= 0) {
+                snapshot = Math.max(snapshot, seq);
+            } else if ((seq = sequenceOf(name, LOG_PREFIX)) >= 0) {
+                segments.add(seq);
+            }
+        }
+
+        // Delete what the latest snapshot covers, in case the process stopped
+        // before the last checkpoint finished.
+        for (File file : files) {
+            long seq = sequenceOf(file.getName(), SNAPSHOT_PREFIX);
+            if (seq >= 0 && seq < snapshot) {
+                delete(file);
+            }
+        }
+
+        Collections.sort(segments);
+        while (!segments.isEmpty() && segments.get(0) < snapshot) {
+            delete(new File(mHome, LOG_PREFIX + segments.remove(0)));
+        }
+
+        // Gather logged operations for each table, in order.
+        Map<String, List<Op>> ops = new HashMap<String, List<Op>>();
+        for (int i=0; i<segments.size(); i++) {
+            readSegment(new File(mHome, LOG_PREFIX + segments.get(i)),
+                        i == segments.size() - 1, ops);
+        }
+
+        File snapshotDir = snapshot == 0 ? null : new File(mHome, SNAPSHOT_PREFIX + snapshot);
+        Map<String, NavigableMap<byte[], byte[]>> recovered = replay(snapshotDir, ops);
+
+        for (Map.Entry<String, NavigableMap<byte[], byte[]>> entry : recovered.entrySet()) {
+            Table table = new Table(entry.getKey(), mNextTableId++);
+            if (!entry.getValue().isEmpty()) {
+                table.mRecovered = entry.getValue();
+            }
+            mTables.put(table.mName, table);
+        }
+
+        long next = snapshot;
+        if (!segments.isEmpty()) {
+            next = Math.max(next, segments.get(segments.size() - 1) + 1);
+            // Replayed segments are deleted by the next checkpoint.
+            mDirty = true;
+        }
+
+        synchronized (mSyncLock) {
+            synchronized (this) {
+                openSegment(Math.max(1, next));
+            }
+        }
+    }
+
+    /**
+     * Reads all complete entries of a log segment. An incomplete entry at the
+     * end of the last segment was being written when the process stopped, and
+     * so it's discarded.
+     */
+    private static void readSegment(File file, boolean last, Map<String, List<Op>> ops)
+        throws IOException, RepositoryException
+    {
+        long length = file.length();
+        long valid = 0;
+
+        // Table names defined by the segment.
+        Map<Integer, String> names = new HashMap<Integer, String>();
+
+        DataInputStream in = new DataInputStream
+            (new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (length >= 8 && in.readLong() == SEGMENT_MAGIC) {
+                valid = 8;
+                while (length - valid >= 8) {
+                    int size = in.readInt();
+                    int crc = in.readInt();
+                    if (size < 0 || size > length - valid - 8) {
+                        break;
+                    }
+                    byte[] entry = new byte[size];
+                    in.readFully(entry);
+                    CRC32 actual = new CRC32();
+                    actual.update(entry);
+                    if ((int) actual.getValue() != crc) {
+                        break;
+                    }
+                    readEntry(file, entry, names, ops);
+                    valid += 8 + size;
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        if (valid < length) {
+            if (!last) {
+                throw new RepositoryException("Log segment is corrupt: " + file);
+            }
+            LogFactory.getLog(MapLog.class).warn
+                ("Discarding incomplete entry at end of log segment: " + file);
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(valid);
+                raf.getFD().sync();
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    private static void readEntry(File file, byte[] entry,
+                                  Map<Integer, String> names, Map<String, List<Op>> ops)
+        throws RepositoryException
+    {
+        ByteBuffer bb = ByteBuffer.wrap(entry);
+        try {
+            while (bb.hasRemaining()) {
+                byte code = bb.get();
+                int id = bb.getInt();
+
+                if (code == OP_DEFINE) {
+                    names.put(id, new String(readBytes(bb), UTF_8));
+                    continue;
+                }
+
+                String name = names.get(id);
+                if (name == null) {
+                    throw new RepositoryException
+                        ("Log segment refers to an undefined table: " + file);
+                }
+
+                List<Op> list = ops.get(name);
+                if (list == null) {
+                    list = new ArrayList<Op>();
+                    ops.put(name, list);
+                }
+
+                switch (code) {
+                case OP_PUT:
+                    byte[] key = readBytes(bb);
+                    list.add(new Op(code, key, readBytes(bb)));
+                    break;
+                case OP_DELETE:
+                    list.add(new Op(code, readBytes(bb), null));
+                    break;
+                case OP_TRUNCATE:
+                    // Prior operations no longer matter.
+                    list.clear();
+                    list.add(new Op(code, null, null));
+                    break;
+                default:
+                    throw new RepositoryException
+                        ("Log segment has an unknown operation: " + code + ", " + file);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Checksum matched, and so the entry isn't torn.
+            throw new RepositoryException("Log segment is corrupt: " + file, e);
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer bb) {
+        byte[] bytes = new byte[bb.getInt()];
+        bb.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Loads each table from the snapshot and applies its logged operations,
+     * using a thread for each table.
+     *
+     * @param snapshotDir optional snapshot directory
+     * @return recovered entries, keyed by table name
+     */
+    private static Map<String, NavigableMap<byte[], byte[]>> replay
+        (File snapshotDir, final Map<String, List<Op>> ops)
+        throws IOException, RepositoryException
+    {
+        final Map<String, NavigableMap<byte[], byte[]>> recovered =
+            new ConcurrentHashMap<String, NavigableMap<byte[], byte[]>>();
+
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+
+        if (snapshotDir != null) {
+            File[] files = snapshotDir.listFiles();
+            if (files == null) {
+                throw new IOException("Unable to list files: " + snapshotDir);
+            }
+            for (final File file : files) {
+                tasks.add(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        NavigableMap<byte[], byte[]> entries =
+                            new TreeMap<byte[], byte[]>(KEY_COMPARATOR);
+                        String name = readSnapshot(file, entries);
+                        apply(entries, ops.get(name));
+                        recovered.put(name, entries);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        invokeAll(tasks);
+        tasks.clear();
+
+        // Replay tables which aren't in the snapshot.
+        for (final Map.Entry<String, List<Op>> entry : ops.entrySet()) {
+            if (!recovered.containsKey(entry.getKey())) {
+                tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        NavigableMap<byte[], byte[]> entries =
+                            new TreeMap<byte[], byte[]>(KEY_COMPARATOR);
+                        apply(entries, entry.getValue());
+                        recovered.put(entry.getKey(), entries);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        invokeAll(tasks);
+
+        return recovered;
+    }
+
+    private static void invokeAll(List<Callable<Object>> tasks)
+        throws IOException, RepositoryException
+    {
+        if (tasks.isEmpty()) {
+            return;
+        }
+
+        int threads = Math.min(tasks.size(), Runtime.getRuntime().availableProcessors());
+
+        if (threads <= 1) {
+            for (Callable<Object> task : tasks) {
+                try {
+                    task.call();
+                } catch (IOException e) {
+                    throw e;
+                } catch (RepositoryException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RepositoryException(e);
+                }
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new TFactory());
+        try {
+            for (Future<Object> result : executor.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted while recovering", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RepositoryException) {
+                throw (RepositoryException) cause;
+            }
+            throw new RepositoryException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void apply(NavigableMap<byte[], byte[]> entries, List<Op> ops) {
+        if (ops != null) {
+            for (Op op : ops) {
+                switch (op.mCode) {
+                case OP_PUT:
+                    entries.put(op.mKey, op.mData);
+                    break;
+                case OP_DELETE:
+                    entries.remove(op.mKey);
+                    break;
+                case OP_TRUNCATE:
+                    entries.clear();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return name of table in the snapshot file
+     */
+    private static String readSnapshot(File file, Map<byte[], byte[]> entries)
+        throws IOException, RepositoryException
+    {
+        CRC32 crc = new CRC32();
+        DataInputStream in = new DataInputStream
+            (new CheckedInputStream(new BufferedInputStream(new FileInputStream(file)), crc));
+        try {
+            if (in.readLong() != SNAPSHOT_MAGIC) {
+                throw new RepositoryException("Unknown snapshot file: " + file);
+            }
+            String name = in.readUTF();
+            int keyLength;
+            while ((keyLength = in.readInt()) >= 0) {
+                byte[] key = new byte[keyLength];
+                in.readFully(key);
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                entries.put(key, data);
+            }
+            long expected = crc.getValue();
+            if (in.readLong() != expected) {
+                throw new RepositoryException("Snapshot file is corrupt: " + file);
+            }
+            return name;
+        } catch (EOFException e) {
+            throw new RepositoryException("Snapshot file is corrupt: " + file, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return sequence number, or -1 if name doesn't match
+     */
+    private static long sequenceOf(String name, String prefix) {
+        if (name.startsWith(prefix)) {
+            try {
+                return Long.parseLong(name.substring(prefix.length()));
+            } catch (NumberFormatException e) {
+            }
+        }
+        return -1;
+    }
+
+    private static void delete(File file) throws IOException {
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    delete(f);
+                }
+            }
+        }
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Unable to delete file: " + file);
+        }
+    }
+
+    /**
+     * Ensures that created and renamed files are durable, if supported.
+     */
+    private static void syncDirectory(File dir) {
+        try {
+            FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            // Not supported on all platforms.
+        }
+    }
+
+    private static void closeQuietly(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException e) {
+            // Ignore.
+        }
+    }
+
+    /**
+     * Log file storage for the entries of a single storable type.
+     */
+    static final class Table {
+        final String mName;
+        final int mId;
+
+        // Segment which defines the table id. Guarded by MapLog.
+        long mDefinedSegment;
+
+        // Recovered entries, until storage is opened. Guarded by this.
+        private NavigableMap<byte[], byte[]> mRecovered;
+        private MapStorage<?> mStorage;
+
+        Table(String name, int id) {
+            mName = name;
+            mId = id;
+        }
+
+        synchronized void open(MapStorage<?> storage) throws RepositoryException {
+            NavigableMap<byte[], byte[]> recovered = mRecovered;
+            if (recovered != null) {
+                storage.recover(recovered);
+                mRecovered = null;
+            }
+            mStorage = storage;
+        }
+
+        /**
+         * @return false if table has no entries to write
+         */
+        synchronized boolean writeSnapshot(File file) throws IOException, RepositoryException {
+            if (mStorage == null && mRecovered == null) {
+                return false;
+            }
+            SnapshotWriter writer = new SnapshotWriter(file, mName);
+            try {
+                if (mStorage != null) {
+                    mStorage.writeSnapshot(writer);
+                } else {
+                    for (Map.Entry<byte[], byte[]> entry : mRecovered.entrySet()) {
+                        writer.write(entry.getKey(), entry.getValue());
+                    }
+                }
+                writer.finish();
+            } finally {
+                writer.close();
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "Table {name=" + mName + ", id=" + mId + '}';
+        }
+    }
+
+    /**
+     * Collects operations which are appended to the log as a single entry,
+     * and so they are recovered atomically.
+     */
+    static final class Batch {
+        byte[] mBytes;
+        int mSize;
+
+        final List<Table> mTables;
+        // Keys which have been written, for each table.
+        private Map<Table, Set<ByteBuffer>> mKeys;
+
+        Batch() {
+            mBytes = new byte[64];
+            mTables = new ArrayList<Table>(2);
+        }
+
+        boolean isEmpty() {
+            return mSize == 0;
+        }
+
+        /**
+         * Returns true if the given key was already written to this batch.
+         */
+        boolean contains(Table table, byte[] key) {
+            Set<ByteBuffer> keys;
+            return mKeys != null && (keys = mKeys.get(table)) != null
+                && keys.contains(ByteBuffer.wrap(key));
+        }
+
+        void put(Table table, byte[] key, byte[] data) {
+            addKey(table, key);
+            writeByte(OP_PUT);
+            writeInt(table.mId);
+            writeBytes(key);
+            writeBytes(data);
+        }
+
+        void delete(Table table, byte[] key) {
+            addKey(table, key);
+            writeByte(OP_DELETE);
+            writeInt(table.mId);
+            writeBytes(key);
+        }
+
+        void truncate(Table table) {
+            addTable(table);
+            writeByte(OP_TRUNCATE);
+            writeInt(table.mId);
+        }
+
+        private void addKey(Table table, byte[] key) {
+            addTable(table);
+            if (mKeys == null) {
+                mKeys = new HashMap<Table, Set<ByteBuffer>>(4);
+            }
+            Set<ByteBuffer> keys = mKeys.get(table);
+            if (keys == null) {
+                keys = new HashSet<ByteBuffer>();
+                mKeys.put(table, keys);
+            }
+            keys.add(ByteBuffer.wrap(key));
+        }
+
+        private void addTable(Table table) {
+            if (!mTables.contains(table)) {
+                mTables.add(table);
+            }
+        }
+
+        void writeByte(int v) {
+            ensureCapacity(1);
+            mBytes[mSize++] = (byte) v;
+        }
+
+        void writeInt(int v) {
+            ensureCapacity(4);
+            byte[] bytes = mBytes;
+            int size = mSize;
+            bytes[size++] = (byte) (v >> 24);
+            bytes[size++] = (byte) (v >> 16);
+            bytes[size++] = (byte) (v >> 8);
+            bytes[size++] = (byte) v;
+            mSize = size;
+        }
+
+        void writeBytes(byte[] v) {
+            writeInt(v.length);
+            ensureCapacity(v.length);
+            System.arraycopy(v, 0, mBytes, mSize, v.length);
+            mSize += v.length;
+        }
+
+        private void ensureCapacity(int amount) {
+            if (mSize + amount > mBytes.length) {
+                byte[] newBytes = new byte[Math.max(mSize + amount, mBytes.length << 1)];
+                System.arraycopy(mBytes, 0, newBytes, 0, mSize);
+                mBytes = newBytes;
+            }
+        }
+    }
+
+    /**
+     * Writes the entries of a table to a snapshot file.
+     */
+    static final class SnapshotWriter {
+        private final FileOutputStream mFileOut;
+        private final CRC32 mCrc;
+        private final DataOutputStream mOut;
+
+        SnapshotWriter(File file, String name) throws IOException {
+            mFileOut = new FileOutputStream(file);
+            mCrc = new CRC32();
+            mOut = new DataOutputStream
+                (new CheckedOutputStream(new BufferedOutputStream(mFileOut), mCrc));
+            mOut.writeLong(SNAPSHOT_MAGIC);
+            mOut.writeUTF(name);
+        }
+
+        void write(byte[] key, byte[] data) throws IOException {
+            mOut.writeInt(key.length);
+            mOut.write(key);
+            mOut.writeInt(data.length);
+            mOut.write(data);
+        }
+
+        void finish() throws IOException {
+            mOut.writeInt(-1);
+            mOut.writeLong(mCrc.getValue());
+            mOut.flush();
+            mFileOut.getFD().sync();
+        }
+
+        void close() throws IOException {
+            mOut.close();
+        }
+    }
+
+    private static final class Op {
+        final byte mCode;
+        final byte[] mKey;
+        final byte[] mData;
+
+        Op(byte code, byte[] key, byte[] data) {
+            mCode = code;
+            mKey = key;
+            mData = data;
+        }
+    }
+
+    /**
+     * Periodically runs checkpoints.
+     */
+    private static class Checkpointer extends Thread {
+        private final WeakReference<MapLog> mLog;
+        private final long mInterval;
+
+        private boolean mShutdown;
+
+        Checkpointer(String name, MapLog log, long interval) {
+            super("MapRepository checkpointer (" + name + ')');
+            setDaemon(true);
+            mLog = new WeakReference<MapLog>(log);
+            mInterval = interval;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                synchronized (this) {
+                    if (!mShutdown) {
+                        try {
+                            wait(mInterval);
+                        } catch (InterruptedException e) {
+                            break;
+                        }
+                    }
+                    if (mShutdown) {
+                        break;
+                    }
+                }
+
+                MapLog log = mLog.get();
+                if (log == null) {
+                    break;
+                }
+
+                try {
+                    log.checkpoint();
+                } catch (ThreadDeath e) {
+                    break;
+                } catch (Throwable e) {
+                    LogFactory.getLog(MapLog.class).error("Checkpoint failed", e);
+                }
+
+                log = null;
+            }
+        }
+
+        /**
+         * Stops the checkpointer without interrupting it, since interrupting
+         * file operations can close the files.
+         */
+        synchronized void shutdown() {
+            mShutdown = true;
+            notify();
+        }
+    }
+
+    private static class TFactory implements ThreadFactory {
+        private static int cCount;
+
+        private static synchronized int nextID() {
+            return ++cCount;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            t.setName("MapLog-recovery-" + nextID());
+            return t;
+        }
+    }
+}
@@ -18,6 +18,8 @@
 
 package com.amazon.carbonado.repo.map;
 
+import java.io.File;
+
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.TimeUnit;
 
@@ -29,17 +31,23 @@ import com.amazon.carbonado.Storable;
 import com.amazon.carbonado.Storage;
 import com.amazon.carbonado.TriggerFactory;
 
+import com.amazon.carbonado.capability.Capability;
 import com.amazon.carbonado.capability.IndexInfo;
 import com.amazon.carbonado.capability.IndexInfoCapability;
 
+import com.amazon.carbonado.layout.LayoutFactory;
+import com.amazon.carbonado.layout.Unevolvable;
+
 import com.amazon.carbonado.sequence.SequenceValueGenerator;
 import com.amazon.carbonado.sequence.SequenceValueProducer;
+import com.amazon.carbonado.sequence.StoredSequence;
 
 import com.amazon.carbonado.qe.RepositoryAccess;
 import com.amazon.carbonado.qe.StorageAccess;
 
 import com.amazon.carbonado.spi.AbstractRepository;
 import com.amazon.carbonado.spi.LobEngine;
+import com.amazon.carbonado.spi.StoredLob;
 
 import com.amazon.carbonado.txn.TransactionManager;
 import com.amazon.carbonado.txn.TransactionScope;
@@ -51,26 +59,58 @@ import com.amazon.carbonado.txn.TransactionScope;
  * @see MapRepositoryBuilder
  */
 class MapRepository extends AbstractRepository<MapTransaction>
-    implements RepositoryAccess, IndexInfoCapability
+    implements RepositoryAccess, IndexInfoCapability, CacheCapability
 {
     private final AtomicReference<Repository> mRootRef;
     private final boolean mIsMaster;
     private final int mLockTimeout;
     private final TimeUnit mLockTimeoutUnit;
+    private final int mLockStripes;
+    private final boolean mOffHeap;
+    private final long mCacheCapacity;
+    private final long mCacheCapacityBytes;
+    private final boolean mTinyLfu;
+
+    // Is null if multiversion concurrency control is not enabled.
+    final MapVersionManager mVersions;
+
+    // Is null if repository isn't durable.
+    final MapLog mLog;
 
     final Iterable<TriggerFactory> mTriggerFactories;
     private final MapTransactionManager mTxnManager;
     private LobEngine mLobEngine;
+    private LayoutFactory mLayoutFactory;
 
-    MapRepository(AtomicReference<Repository> rootRef, MapRepositoryBuilder builder) {
+    MapRepository(AtomicReference<Repository> rootRef, MapRepositoryBuilder builder)
+        throws RepositoryException
+    {
         super(builder.getName());
         mRootRef = rootRef;
         mIsMaster = builder.isMaster();
         mLockTimeout = builder.getLockTimeout();
         mLockTimeoutUnit = builder.getLockTimeoutUnit();
+        mLockStripes = builder.getLockStripes();
+        mOffHeap = builder.isOffHeap();
+        mCacheCapacity = builder.getCacheCapacity();
+        mCacheCapacityBytes = builder.getCacheCapacityBytes();
+        mTinyLfu = builder.getEvictionPolicy() == MapRepositoryBuilder.EvictionPolicy.TINY_LFU;
 
         mTriggerFactories = builder.getTriggerFactories();
-        mTxnManager = new MapTransactionManager(mLockTimeout, mLockTimeoutUnit);
+        mVersions = builder.isMultiversion() ? new MapVersionManager() : null;
+
+        File dataHome = builder.getDataHomeFile();
+        if (dataHome == null) {
+            mLog = null;
+        } else {
+            mLog = new MapLog(getName(), dataHome,
+                              builder.getTransactionNoSync(),
+                              builder.getTransactionWriteNoSync(),
+                              builder.getCheckpointInterval());
+        }
+
+        mTxnManager = new MapTransactionManager
+            (mLockTimeout, mLockTimeoutUnit, mVersions, mLog);
     }
 
     public Repository getRootRepository() {
@@ -89,11 +129,46 @@ class MapRepository extends AbstractRepository<MapTransaction>
         return ((MapStorage) storageFor(storableType)).getIndexInfo();
     }
 
+    @Override
+    public <C extends Capability> C getCapability(Class<C> capabilityType) {
+        if (capabilityType == CacheCapability.class && !isCache()) {
+            return null;
+        }
+        return super.getCapability(capabilityType);
+    }
+
+    public <S extends Storable> Statistics getCacheStatistics(Class<S> storableType)
+        throws RepositoryException
+    {
+        return cacheFor(storableType).getStatistics();
+    }
+
+    public <S extends Storable> void addEvictionListener(Class<S> storableType,
+                                                         EvictionListener<? super S> listener)
+        throws RepositoryException
+    {
+        cacheFor(storableType).addListener(listener);
+    }
+
+    public <S extends Storable> void removeEvictionListener(Class<S> storableType,
+                                                            EvictionListener<? super S> listener)
+        throws RepositoryException
+    {
+        cacheFor(storableType).removeListener(listener);
+    }
+
     @Override
     protected void finalize() {
         close();
     }
 
+    @Override
+    protected void shutdownHook() {
+        if (mLog != null) {
+            mLog.close();
+        }
+    }
+
     @Override
     protected Log getLog() {
         return null;
@@ -113,7 +188,7 @@ class MapRepository extends AbstractRepository<MapTransaction>
     protected <S extends Storable> Storage<S> createStorage(Class<S> type)
         throws RepositoryException
     {
-        return new MapStorage<S>(this, type, mLockTimeout, mLockTimeoutUnit);
+        return new MapStorage<S>(this, type, mLockTimeout, mLockTimeoutUnit, mLockStripes);
     }
 
     @Override
@@ -130,7 +205,53 @@ class MapRepository extends AbstractRepository<MapTransaction>
         return mLobEngine;
     }
 
+    synchronized LayoutFactory getLayoutFactory() throws RepositoryException {
+        if (mLayoutFactory == null) {
+            mLayoutFactory = new LayoutFactory(getRootRepository());
+        }
+        return mLayoutFactory;
+    }
+
     boolean isMaster() {
         return mIsMaster;
     }
+
+    boolean isOffHeap() {
+        return mOffHeap;
+    }
+
+    boolean isCache() {
+        return mCacheCapacity > 0 || mCacheCapacityBytes > 0;
+    }
+
+    /**
+     * Returns a new cache policy for a storage, or null if repository isn't
+     * bounded or if storables of the given type must never be evicted.
+     */
+    <S extends Storable> MapCache<S> newCache(Class<S> type) {
+        if (!isCache()) {
+            return null;
+        }
+        // Evicting internal storables would corrupt layouts, sequences and lobs.
+        if (Unevolvable.class.isAssignableFrom(type)
+            || type == StoredSequence.class
+            || type == com.amazon.carbonado.spi.StoredSequence.class
+            || StoredLob.class.isAssignableFrom(type)
+            || StoredLob.Block.class.isAssignableFrom(type))
+        {
+            return null;
+        }
+        return new MapCache<S>(mCacheCapacity, mCacheCapacityBytes, mTinyLfu);
+    }
+
+    private <S extends Storable> MapCache<S> cacheFor(Class<S> type)
+        throws RepositoryException
+    {
+        MapCache<S> cache = ((MapStorage<S>) storageFor(type)).mCache;
+        if (cache == null) {
+            throw new UnsupportedOperationException
+                ("Storable type isn't cached: " + type.getName());
+        }
+        return cache;
+    }
 }
@@ -18,6 +18,9 @@
 
 package com.amazon.carbonado.repo.map;
 
+import java.io.File;
+import java.io.IOException;
+
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.TimeUnit;
 
@@ -33,12 +36,30 @@ import com.amazon.carbonado.spi.AbstractRepositoryBuilder;
  * repository are coarse, much like <i>table locks</i>. Loads and queries
  * acquire read locks, and modifications acquire write locks. Within
  * transactions, loads and queries always acquire upgradable locks, to reduce
- * the likelihood of deadlock.
+ * the likelihood of deadlock. Locks can be made finer by {@link
+ * #setLockStripes striping} them by primary key.
  *
  * <p>This repository supports transactions, which also may be
  * nested. Supported isolation levels are read committed and serializable. Read
  * uncommitted is promoted to read committed, and repeatable read is promoted
- * to serializable.
+ * to serializable. If {@link #setMultiversion multiversion} concurrency
+ * control is enabled, snapshot isolation is supported too.
+ *
+ * <p>If a {@link #setDataHome data home} is set, the repository is durable.
+ * Commits are appended to a log, and the contents of each storage are
+ * periodically written to a snapshot, which allows older log files to be
+ * deleted. When the repository is opened again, the snapshot and log are
+ * read in parallel, and each storage is restored as it's opened.
+ *
+ * <p>If {@link #setOffHeap off-heap} mode is enabled, storables are stored
+ * encoded in direct memory, and they're only materialized when fetched. This
+ * supports much larger repositories without increasing garbage collection
+ * pauses, at the cost of decoding each fetched storable.
+ *
+ * <p>If a {@link #setCacheCapacity capacity} is set, the repository acts as a
+ * bounded cache. When a storage exceeds its capacity, storables are evicted
+ * as selected by the {@link #setEvictionPolicy eviction policy}. Eviction
+ * statistics and listeners are provided by the {@link CacheCapability}.
  *
  * <p>
  * The following extra capabilities are supported:
@@ -46,6 +67,7 @@ import com.amazon.carbonado.spi.AbstractRepositoryBuilder;
  * <li>{@link com.amazon.carbonado.capability.IndexInfoCapability IndexInfoCapability}
  * <li>{@link com.amazon.carbonado.capability.ShutdownCapability ShutdownCapability}
  * <li>{@link com.amazon.carbonado.sequence.SequenceCapability SequenceCapability}
+ * <li>{@link CacheCapability}, if a capacity is set
  * </ul>
  *
  * <p>Note: This repository uses concurrent navigable map classes, which became
@@ -55,6 +77,28 @@ import com.amazon.carbonado.spi.AbstractRepositoryBuilder;
  * @since 1.2
  */
 public class MapRepositoryBuilder extends AbstractRepositoryBuilder {
+    private static final int DEFAULT_CHECKPOINT_INTERVAL = 5 * 60 * 1000;
+
+    /**
+     * Policy which selects storables to evict when a storage exceeds its
+     * capacity.
+     *
+     * @since 1.2.4
+     */
+    public static enum EvictionPolicy {
+        /** Evicts the least recently used storables. */
+        LRU,
+
+        /**
+         * Admits new storables into the cache only if they're used more
+         * frequently than the storables they would replace, and otherwise
+         * evicts the least recently used. This performs better than LRU when
+         * scans and one-time loads are mixed with frequently loaded
+         * storables.
+         */
+        TINY_LFU
+    }
+
     /**
      * Convenience method to build a new MapRepository.
      */
@@ -73,13 +117,25 @@ public class MapRepositoryBuilder extends AbstractRepositoryBuilder {
     private boolean mIndexSupport = true;
     private int mLockTimeout;
     private TimeUnit mLockTimeoutUnit;
+    private int mLockStripes = 1;
+    private boolean mMultiversion;
+    private boolean mOffHeap;
+    private long mCacheCapacity;
+    private long mCacheCapacityBytes;
+    private EvictionPolicy mEvictionPolicy = EvictionPolicy.TINY_LFU;
+    private File mDataHome;
+    private boolean mTxnNoSync;
+    private boolean mTxnWriteNoSync;
+    private int mCheckpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
 
     public MapRepositoryBuilder() {
         setLockTimeoutMillis(500);
     }
 
     public Repository build(AtomicReference<Repository> rootRef) throws RepositoryException {
-        if (mIndexSupport) {
+        // Evicting storables would leave stale index entries behind, and so
+        // indexes aren't supported by caches.
+        if (mIndexSupport && mCacheCapacity <= 0 && mCacheCapacityBytes <= 0) {
             // Temporarily set to false to avoid infinite recursion.
             mIndexSupport = false;
             try {
@@ -148,4 +204,283 @@ public class MapRepositoryBuilder extends AbstractRepositoryBuilder {
     public TimeUnit getLockTimeoutUnit() {
         return mLockTimeoutUnit;
     }
+
+    /**
+     * Set the number of lock stripes for each storage, which is rounded up to
+     * a power of two. Default value is one, which locks a storage much like a
+     * table lock. With more stripes, loads and modifications only lock the
+     * stripe which the primary key hashes to, and so modifications of
+     * different keys can proceed concurrently. Queries and truncate lock all
+     * stripes, in a consistent order.
+     *
+     * @throws IllegalArgumentException if stripes is less than one
+     * @since 1.2.4
+     */
+    public void setLockStripes(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException();
+        }
+        mLockStripes = stripes;
+    }
+
+    /**
+     * Returns the number of lock stripes for each storage.
+     *
+     * @since 1.2.4
+     */
+    public int getLockStripes() {
+        return mLockStripes;
+    }
+
+    /**
+     * Set true to enable multiversion concurrency control (MVCC), which
+     * supports transactions at the {@link
+     * com.amazon.carbonado.IsolationLevel#SNAPSHOT snapshot} isolation
+     * level. Loads and queries in snapshot transactions observe the
+     * modifications committed before the snapshot began, and they don't
+     * acquire locks. Modifications still acquire locks, and they fail with
+     * an {@link com.amazon.carbonado.OptimisticLockException
+     * OptimisticLockException} if the snapshot cannot observe a more recent
+     * modification of the same key. Replaced objects are retained for as
+     * long as an active snapshot might observe them.
+     *
+     * @since 1.2.4
+     */
+    public void setMultiversion(boolean multiversion) {
+        mMultiversion = multiversion;
+    }
+
+    /**
+     * Returns false by default because multiversion concurrency control (MVCC)
+     * is not enabled.
+     *
+     * @since 1.2.4
+     */
+    public boolean isMultiversion() {
+        return mMultiversion;
+    }
+
+    /**
+     * Set true to store storables in direct memory, outside the Java heap.
+     * Storables are encoded like they are in the raw repositories, and only
+     * the index which orders them by primary key is kept on the heap. Each
+     * load and query decodes new storable instances. Storable types which
+     * cannot be encoded are kept on the heap. Off-heap memory is reused as
+     * storables are deleted, but it's only released by truncate.
+     *
+     * @since 1.2.4
+     */
+    public void setOffHeap(boolean offHeap) {
+        mOffHeap = offHeap;
+    }
+
+    /**
+     * Returns false by default because storables are stored on the heap.
+     *
+     * @since 1.2.4
+     */
+    public boolean isOffHeap() {
+        return mOffHeap;
+    }
+
+    /**
+     * Set the maximum amount of storables to keep in each storage, which makes
+     * the repository act as a bounded cache. Storables are evicted when a
+     * modification exceeds the capacity, or when a transaction which exceeded
+     * it commits. Storables which are locked by other transactions are not
+     * evicted, and so the capacity can be exceeded briefly. By default, the
+     * capacity is zero, which is unlimited. Alternate indexes are not
+     * supported when a capacity is set. Evictions are logged like deletes
+     * when the repository is durable. Internal storables, which define
+     * layouts, sequences and lobs, are never evicted.
+     *
+     * @param maxEntries maximum amount of storables per storable type, or zero
+     * if unlimited
+     * @throws IllegalArgumentException if capacity is negative
+     * @since 1.2.4
+     */
+    public void setCacheCapacity(long maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException();
+        }
+        mCacheCapacity = maxEntries;
+    }
+
+    /**
+     * Returns the maximum amount of storables to keep in each storage, which
+     * is zero by default.
+     *
+     * @since 1.2.4
+     */
+    public long getCacheCapacity() {
+        return mCacheCapacity;
+    }
+
+    /**
+     * Set the maximum amount of memory used by the storables of each
+     * storage, in bytes. The size of each storable is a rough estimate, which
+     * is based on its property values. This capacity can be set together with
+     * the {@link #setCacheCapacity entry capacity}, in which case storables
+     * are evicted when either is exceeded. By default, the capacity is zero,
+     * which is unlimited.
+     *
+     * @param maxBytes maximum estimated bytes per storable type, or zero if
+     * unlimited
+     * @throws IllegalArgumentException if capacity is negative
+     * @since 1.2.4
+     */
+    public void setCacheCapacityBytes(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException();
+        }
+        mCacheCapacityBytes = maxBytes;
+    }
+
+    /**
+     * Returns the maximum estimated bytes to keep in each storage, which is
+     * zero by default.
+     *
+     * @since 1.2.4
+     */
+    public long getCacheCapacityBytes() {
+        return mCacheCapacityBytes;
+    }
+
+    /**
+     * Set the policy which selects storables to evict, which is {@link
+     * EvictionPolicy#TINY_LFU TINY_LFU} by default. This setting is ignored
+     * if no capacity is set.
+     *
+     * @since 1.2.4
+     */
+    public void setEvictionPolicy(EvictionPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException();
+        }
+        mEvictionPolicy = policy;
+    }
+
+    /**
+     * @since 1.2.4
+     */
+    public EvictionPolicy getEvictionPolicy() {
+        return mEvictionPolicy;
+    }
+
+    /**
+     * Set the directory to store the log and snapshot files, which makes the
+     * repository durable. By default, no directory is set and the repository
+     * is volatile. Only one repository can have the directory open at a time.
+     *
+     * @since 1.2.4
+     */
+    public void setDataHomeFile(File dir) {
+        if (dir != null) {
+            try {
+                // Switch to canonical for more detailed error messages.
+                dir = dir.getCanonicalFile();
+            } catch (IOException e) {
+            }
+        }
+        mDataHome = dir;
+    }
+
+    /**
+     * Returns the directory to store the log and snapshot files, or null if
+     * the repository is volatile.
+     *
+     * @since 1.2.4
+     */
+    public File getDataHomeFile() {
+        return mDataHome;
+    }
+
+    /**
+     * Set the directory to store the log and snapshot files, which makes the
+     * repository durable. By default, no directory is set and the repository
+     * is volatile. Only one repository can have the directory open at a time.
+     *
+     * @since 1.2.4
+     */
+    public void setDataHome(String dir) {
+        if (dir == null) {
+            mDataHome = null;
+        } else {
+            setDataHomeFile(new File(dir));
+        }
+    }
+
+    /**
+     * Returns the directory to store the log and snapshot files, or null if
+     * the repository is volatile.
+     *
+     * @since 1.2.4
+     */
+    public String getDataHome() {
+        return mDataHome == null ? null : mDataHome.getPath();
+    }
+
+    /**
+     * When true, commits are not immediately written or flushed to disk. This
+     * improves performance, but there is a chance of losing the most recent
+     * commits if the process is killed or if the machine crashes. This
+     * setting is ignored if no data home is set.
+     *
+     * @since 1.2.4
+     */
+    public void setTransactionNoSync(boolean noSync) {
+        mTxnNoSync = noSync;
+    }
+
+    /**
+     * Returns true if transactions are not written or flushed to disk.
+     *
+     * @since 1.2.4
+     */
+    public boolean getTransactionNoSync() {
+        return mTxnNoSync;
+    }
+
+    /**
+     * When true, commits are written, but they are not flushed to disk. This
+     * improves performance, but there is a chance of losing the most recent
+     * commits if the machine crashes. This setting is ignored if no data home
+     * is set.
+     *
+     * @since 1.2.4
+     */
+    public void setTransactionWriteNoSync(boolean noSync) {
+        mTxnWriteNoSync = noSync;
+    }
+
+    /**
+     * Returns true if transactions are not flushed to disk.
+     *
+     * @since 1.2.4
+     */
+    public boolean getTransactionWriteNoSync() {
+        return mTxnWriteNoSync;
+    }
+
+    /**
+     * Set the interval to run checkpoints, which write a snapshot of every
+     * storage and then delete the log files which the snapshot covers. Default
+     * value is five minutes. Checkpoints are not run automatically if the
+     * interval is zero or negative. This setting is ignored if no data home is
+     * set.
+     *
+     * @param intervalMillis interval between checkpoints, in milliseconds
+     * @since 1.2.4
+     */
+    public void setCheckpointInterval(int intervalMillis) {
+        mCheckpointInterval = intervalMillis;
+    }
+
+    /**
+     * @return interval between checkpoints, in milliseconds
+     * @since 1.2.4
+     */
+    public int getCheckpointInterval() {
+        return mCheckpointInterval;
+    }
 }
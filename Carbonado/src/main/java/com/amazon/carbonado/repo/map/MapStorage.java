@@ -18,21 +18,33 @@
 
 package com.amazon.carbonado.repo.map;
 
+import java.io.IOException;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableMap;
+import java.util.NoSuchElementException;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.logging.LogFactory;
+
 import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.FetchInterruptedException;
 import com.amazon.carbonado.FetchTimeoutException;
+import com.amazon.carbonado.OptimisticLockException;
 import com.amazon.carbonado.PersistException;
 import com.amazon.carbonado.PersistInterruptedException;
 import com.amazon.carbonado.PersistTimeoutException;
@@ -50,6 +62,7 @@ import com.amazon.carbonado.cursor.ArraySortBuffer;
 import com.amazon.carbonado.cursor.ControllerCursor;
 import com.amazon.carbonado.cursor.EmptyCursor;
 import com.amazon.carbonado.cursor.FilteredCursor;
+import com.amazon.carbonado.cursor.KeyLoadCursor;
 import com.amazon.carbonado.cursor.SingletonCursor;
 import com.amazon.carbonado.cursor.SortBuffer;
 import com.amazon.carbonado.cursor.SortedCursor;
@@ -71,6 +84,7 @@ import com.amazon.carbonado.info.OrderedProperty;
 import com.amazon.carbonado.info.StorableIndex;
 import com.amazon.carbonado.info.StorableInfo;
 import com.amazon.carbonado.info.StorableIntrospector;
+import com.amazon.carbonado.info.StorableProperty;
 
 import com.amazon.carbonado.qe.BoundaryType;
 import com.amazon.carbonado.qe.QueryExecutorFactory;
@@ -93,6 +107,11 @@ class MapStorage<S extends Storable>
 {
     private static final int DEFAULT_LOB_BLOCK_SIZE = 1000;
     private static final Object[] NO_VALUES = new Object[0];
+    private static final int MAX_LOCK_STRIPES = 1 << 16;
+    // Maximum amount of locked entries to skip before eviction gives up.
+    private static final int MAX_EVICTION_SKIPS = 100;
+    // Estimated heap size of an entry, excluding its properties.
+    private static final int ENTRY_OVERHEAD = 96;
 
     private final MapRepository mRepo;
     private final StorableInfo<S> mInfo;
@@ -104,27 +123,39 @@ class MapStorage<S extends Storable>
     private final int mLockTimeout;
     private final TimeUnit mLockTimeoutUnit;
 
-    private final ConcurrentNavigableMap<Key<S>, S> mMap;
+    // Is an OffHeapMap if repository is off-heap and type can be encoded.
+    private final NavigableMap<Key<S>, S> mMap;
     private final Comparator<S> mFullComparator;
     private final Comparator<S>[] mSearchComparators;
 
     private final Key.Assigner<S> mKeyAssigner;
 
+    // Only maintained if multiversion concurrency control is enabled.
+    private final MapVersionManager mVersions;
+    final ConcurrentNavigableMap<Key<S>, MapVersionManager.History<S>> mHistory;
+
     /**
-     * Simple lock which is reentrant for transactions, but auto-commit does not
-     * need to support reentrancy. Read lock requests in transactions can starve
-     * write lock requests, but auto-commit cannot cause starvation. In practice
-     * starvation is not possible since transactions always lock for upgrade.
+     * Lock stripes, selected by primary key hash. Loads and modifications
+     * only lock the stripe of the key, and scans lock all the stripes in
+     * order, which acts as a range lock over all keys. With only one stripe,
+     * the lock is much like a table lock.
      */
-    final UpgradableLock<Object> mLock = new UpgradableLock<Object>() {
-        @Override
-        protected boolean isReadLockHeld(Object locker) {
-            return locker instanceof MapTransaction;
-        }
-    };
-
-    MapStorage(MapRepository repo, Class<S> type, int lockTimeout, TimeUnit lockTimeoutUnit)
-        throws SupportException
+    final UpgradableLock<Object>[] mLocks;
+    private final int mLockMask;
+    private final String[] mKeyPropertyNames;
+
+    // Are null if repository isn't durable.
+    private final MapCodec<S> mLogCodec;
+    private final MapLog.Table mTable;
+
+    // Is null if repository isn't a bounded cache.
+    final MapCache<S> mCache;
+    // Names of properties which are weighed, if cache is weighed.
+    private final String[] mDataPropertyNames;
+
+    MapStorage(MapRepository repo, Class<S> type, int lockTimeout, TimeUnit lockTimeoutUnit,
+               int lockStripes)
+        throws RepositoryException
     {
         mRepo = repo;
         mInfo = StorableIntrospector.examine(type);
@@ -155,14 +186,69 @@ class MapStorage<S extends Storable>
         mLockTimeout = lockTimeout;
         mLockTimeoutUnit = lockTimeoutUnit;
 
-        mMap = new ConcurrentSkipListMap<Key<S>, S>();
         List<OrderedProperty<S>> propList = createPkPropList();
         mFullComparator = SortedCursor.createComparator(propList);
+
+        MapCodec<S> codec = null;
+        if (repo.mLog != null) {
+            // Log requires an evolvable encoding, since entries outlive the
+            // current storable definition.
+            codec = new MapCodec<S>(repo, type, mPrimaryKeyIndex, true);
+        } else if (repo.isOffHeap()) {
+            try {
+                codec = new MapCodec<S>(repo, type, mPrimaryKeyIndex, false);
+            } catch (SupportException e) {
+                // Type cannot be encoded, and so keep it on the heap.
+            }
+        }
+
+        if (codec != null && repo.isOffHeap()) {
+            mMap = new OffHeapMap<S>(this, codec, mFullComparator);
+        } else {
+            mMap = new ConcurrentSkipListMap<Key<S>, S>();
+        }
+
         mSearchComparators = new Comparator[propList.size() + 1];
         mSearchComparators[propList.size()] = mFullComparator;
 
         mKeyAssigner = Key.getAssigner(type);
 
+        mVersions = repo.mVersions;
+        if (mVersions == null) {
+            mHistory = null;
+        } else {
+            mHistory = new ConcurrentSkipListMap<Key<S>, MapVersionManager.History<S>>();
+        }
+
+        int stripes = 1;
+        while (stripes < lockStripes && stripes < MAX_LOCK_STRIPES) {
+            stripes <<= 1;
+        }
+        mLocks = new UpgradableLock[stripes];
+        for (int i=0; i<stripes; i++) {
+            mLocks[i] = new StorageLock();
+        }
+        mLockMask = stripes - 1;
+
+        mKeyPropertyNames = new String[propList.size()];
+        for (int i=0; i<mKeyPropertyNames.length; i++) {
+            mKeyPropertyNames[i] =
+                propList.get(i).getChainedProperty().getPrimeProperty().getName();
+        }
+
+        mCache = repo.newCache(type);
+        if (mCache == null || !mCache.isWeighed()) {
+            mDataPropertyNames = null;
+        } else {
+            List<String> names = new ArrayList<String>();
+            for (StorableProperty<S> property : mInfo.getAllProperties().values()) {
+                if (!property.isJoin() && !property.isDerived()) {
+                    names.add(property.getName());
+                }
+            }
+            mDataPropertyNames = names.toArray(new String[names.size()]);
+        }
+
         try {
             if (LobEngine.hasLobs(type)) {
                 Trigger<S> lobTrigger = repo.getLobEngine()
@@ -177,6 +263,22 @@ class MapStorage<S extends Storable>
         } catch (RepositoryException e) {
             throw new SupportException(e);
         }
+
+        if (repo.mLog == null) {
+            mLogCodec = null;
+            mTable = null;
+        } else {
+            mLogCodec = codec;
+            // Open the table last, since it recovers the entries.
+            mTable = repo.mLog.openTable(type.getName(), this);
+            if (mCache != null) {
+                for (S storable : mMap.values()) {
+                    cachePut(storable);
+                }
+                // Capacity might have been reduced since last opened.
+                evict();
+            }
+        }
     }
 
     public Class<S> getStorableType() {
@@ -199,22 +301,33 @@ class MapStorage<S extends Storable>
         return mQueryEngine.query(filter);
     }
 
+    public Cursor<S> loadAll(Collection<? extends S> keys) throws FetchException {
+        // Loading each key is as efficient as it gets for a map.
+        return new KeyLoadCursor<S>(this, keys);
+    }
+
     public void truncate() throws PersistException {
         try {
             TransactionScope<MapTransaction> scope = mRepo.localTransactionScope();
             MapTransaction txn = scope.getTxn();
+            long position;
             if (txn == null) {
-                doLockForWrite(scope);
+                doLockAllForWrite(scope);
                 try {
-                    mMap.clear();
+                    position = logTruncate();
+                    doTruncateNoLock();
                 } finally {
-                    mLock.unlockFromWrite(scope);
+                    unlockAllFromWrite(scope);
                 }
             } else {
-                txn.lockForWrite(mLock);
+                for (UpgradableLock<Object> lock : mLocks) {
+                    txn.lockForWrite(lock);
+                }
                 // Non-transactional truncate. (is not added to undo log)
-                mMap.clear();
+                position = logTruncate();
+                doTruncateNoLock();
             }
+            syncLog(position);
         } catch (PersistException e) {
             throw e;
         } catch (Exception e) {
@@ -222,6 +335,27 @@ class MapStorage<S extends Storable>
         }
     }
 
+    // Caller must hold all write locks.
+    private void doTruncateNoLock() {
+        if (mCache != null) {
+            mCache.clear();
+        }
+        MapVersionManager.Commit commit = autoCommit();
+        if (commit == null) {
+            mMap.clear();
+            return;
+        }
+        // Truncate is non-transactional, and so it commits immediately.
+        try {
+            for (Map.Entry<Key<S>, S> entry : mMap.entrySet()) {
+                mVersions.record(mHistory, entry.getKey(), entry.getValue(), commit);
+            }
+            mMap.clear();
+        } finally {
+            mVersions.commit(commit);
+        }
+    }
+
     public boolean addTrigger(Trigger<? super S> trigger) {
         return mTriggers.addTrigger(trigger);
     }
@@ -254,24 +388,33 @@ class MapStorage<S extends Storable>
         try {
             TransactionScope<MapTransaction> scope = mRepo.localTransactionScope();
             MapTransaction txn = scope.getTxn();
+            UpgradableLock<Object> lock = lockFor(storable);
+            boolean found;
             if (txn == null) {
-                doLockForRead(scope);
+                doLockForRead(lock, scope);
                 try {
-                    return doTryLoadNoLock(storable);
+                    found = doTryLoadNoLock(storable);
                 } finally {
-                    mLock.unlockFromRead(scope);
+                    lock.unlockFromRead(scope);
                 }
+            } else if (txn.isSnapshot()) {
+                found = copyToStorable(snapshotGet(txn, new Key<S>(storable, mFullComparator)),
+                                       storable);
             } else {
                 // Since lock is so coarse, all reads in transaction scope are
                 // upgrade to avoid deadlocks.
                 final boolean isForUpdate = scope.isForUpdate();
-                txn.lockForUpgrade(mLock, isForUpdate);
+                txn.lockForUpgrade(lock, isForUpdate);
                 try {
-                    return doTryLoadNoLock(storable);
+                    found = doTryLoadNoLock(storable);
                 } finally {
-                    txn.unlockFromUpgrade(mLock, isForUpdate);
+                    txn.unlockFromUpgrade(lock, isForUpdate);
                 }
             }
+            if (mCache != null) {
+                mCache.accessed(new Key<S>(storable, mFullComparator), keyHash(storable), found);
+            }
+            return found;
         } catch (FetchException e) {
             throw e;
         } catch (Exception e) {
@@ -281,7 +424,10 @@ class MapStorage<S extends Storable>
 
     // Caller must hold lock.
     boolean doTryLoadNoLock(S storable) {
-        S existing = mMap.get(new Key<S>(storable, mFullComparator));
+        return copyToStorable(mMap.get(new Key<S>(storable, mFullComparator)), storable);
+    }
+
+    private static <S extends Storable> boolean copyToStorable(S existing, S storable) {
         if (existing == null) {
             return false;
         } else {
@@ -296,21 +442,36 @@ class MapStorage<S extends Storable>
         try {
             TransactionScope<MapTransaction> scope = mRepo.localTransactionScope();
             MapTransaction txn = scope.getTxn();
+            UpgradableLock<Object> lock = lockFor(storable);
             if (txn == null) {
                 // No need to acquire full write lock since map is concurrent
                 // and existing storable (if any) is not being
                 // modified. Upgrade lock is required because a concurrent
                 // transaction might be in progress, and so insert should wait.
-                doLockForUpgrade(scope);
+                doLockForUpgrade(lock, scope);
+                long position;
+                MapVersionManager.Commit commit = autoCommit();
                 try {
-                    return doTryInsertNoLock(storable);
+                    if (!doTryInsertNoLock(storable, commit)) {
+                        return false;
+                    }
+                    position = logModified(storable, null);
                 } finally {
-                    mLock.unlockFromUpgrade(scope);
+                    commit(commit);
+                    lock.unlockFromUpgrade(scope);
                 }
+                syncLog(position);
+                evict();
+                return true;
             } else {
-                txn.lockForWrite(mLock);
-                if (doTryInsertNoLock(storable)) {
+                txn.lockForWrite(lock);
+                MapVersionManager.Commit commit =
+                    writeCommit(txn, new Key<S>(storable, mFullComparator));
+                if (doTryInsertNoLock(storable, commit)) {
                     txn.inserted(this, storable);
+                    if (mCache != null) {
+                        txn.evictLater(this);
+                    }
                     return true;
                 } else {
                     return false;
@@ -326,17 +487,20 @@ class MapStorage<S extends Storable>
     }
 
     // Caller must hold upgrade or write lock.
-    private boolean doTryInsertNoLock(S storable) {
+    private boolean doTryInsertNoLock(S storable, MapVersionManager.Commit commit) {
         // Create a fresh copy to ensure that custom fields are not saved.
         S copy = (S) storable.prepare();
         storable.copyAllProperties(copy);
         copy.markAllPropertiesClean();
         Key<S> key = new Key<S>(copy, mFullComparator);
-        S existing = mMap.get(key);
-        if (existing != null) {
+        if (mMap.containsKey(key)) {
             return false;
         }
+        if (commit != null) {
+            mVersions.record(mHistory, key, null, commit);
+        }
         mMap.put(key, copy);
+        cachePut(copy);
         storable.markAllPropertiesClean();
         return true;
     }
@@ -345,36 +509,43 @@ class MapStorage<S extends Storable>
         try {
             TransactionScope<MapTransaction> scope = mRepo.localTransactionScope();
             MapTransaction txn = scope.getTxn();
+            UpgradableLock<Object> lock = lockFor(storable);
             if (txn == null) {
                 // Full write lock is required since existing storable is being
                 // modified. Readers cannot be allowed to see modifications
                 // until they are complete. In addtion, a concurrent
                 // transaction might be in progress, and so update should wait.
-                doLockForWrite(scope);
+                doLockForWrite(lock, scope);
+                long position;
+                MapVersionManager.Commit commit = autoCommit();
                 try {
-                    return doTryUpdateNoLock(storable);
+                    S existing = doTryUpdateNoLock(storable, commit);
+                    if (existing == null) {
+                        return false;
+                    }
+                    position = logModified(storable, existing);
                 } finally {
-                    mLock.unlockFromWrite(scope);
+                    commit(commit);
+                    lock.unlockFromWrite(scope);
                 }
+                syncLog(position);
+                // Update might have increased the estimated size.
+                evict();
+                return true;
             } else {
-                txn.lockForWrite(mLock);
-                S existing = mMap.get(new Key<S>(storable, mFullComparator));
+                txn.lockForWrite(lock);
+                MapVersionManager.Commit commit =
+                    writeCommit(txn, new Key<S>(storable, mFullComparator));
+                S existing = doTryUpdateNoLock(storable, commit);
                 if (existing == null) {
                     return false;
                 } else {
-                    // Copy existing object to undo log.
-                    txn.updated(this, (S) existing.copy());
-
-                    // Copy altered values to existing object.
-                    existing.markAllPropertiesDirty();
-                    storable.copyDirtyProperties(existing);
-                    existing.markAllPropertiesClean();
-
-                    // Copy all values to user object, to simulate a reload.
-                    storable.markAllPropertiesDirty();
-                    existing.copyAllProperties(storable);
-                    storable.markAllPropertiesClean();
-
+                    // Replaced object is never modified, and so it can be
+                    // added to undo log without copying.
+                    txn.updated(this, existing);
+                    if (mCache != null) {
+                        txn.evictLater(this);
+                    }
                     return true;
                 }
             }
@@ -385,44 +556,64 @@ class MapStorage<S extends Storable>
         }
     }
 
-    // Caller must hold write lock.
-    private boolean doTryUpdateNoLock(S storable) {
+    // Caller must hold write lock. Returns replaced object, or null if not found.
+    private S doTryUpdateNoLock(S storable, MapVersionManager.Commit commit) {
         S existing = mMap.get(new Key<S>(storable, mFullComparator));
         if (existing == null) {
-            return false;
-        } else {
-            // Copy altered values to existing object.
-            existing.markAllPropertiesDirty();
-            storable.copyDirtyProperties(existing);
-            existing.markAllPropertiesClean();
+            return null;
+        }
 
-            // Copy all values to user object, to simulate a reload.
-            storable.markAllPropertiesDirty();
-            existing.copyAllProperties(storable);
-            storable.markAllPropertiesClean();
+        // Copy altered values to a new object, leaving the existing object
+        // intact for any concurrent readers.
+        S updated = (S) existing.copy();
+        updated.markAllPropertiesDirty();
+        storable.copyDirtyProperties(updated);
+        updated.markAllPropertiesClean();
 
-            return true;
+        Key<S> key = new Key<S>(existing, mFullComparator);
+        if (commit != null) {
+            mVersions.record(mHistory, key, existing, commit);
         }
+        mMap.put(key, updated);
+        cachePut(updated);
+
+        // Copy all values to user object, to simulate a reload.
+        storable.markAllPropertiesDirty();
+        updated.copyAllProperties(storable);
+        storable.markAllPropertiesClean();
+
+        return existing;
     }
 
     public boolean doTryDelete(S storable) throws PersistException {
         try {
             TransactionScope<MapTransaction> scope = mRepo.localTransactionScope();
             MapTransaction txn = scope.getTxn();
+            UpgradableLock<Object> lock = lockFor(storable);
             if (txn == null) {
                 // No need to acquire full write lock since map is concurrent
                 // and existing storable (if any) is not being
                 // modified. Upgrade lock is required because a concurrent
                 // transaction might be in progress, and so delete should wait.
-                doLockForUpgrade(scope);
+                doLockForUpgrade(lock, scope);
+                long position;
+                MapVersionManager.Commit commit = autoCommit();
                 try {
-                    return doTryDeleteNoLock(storable);
+                    S existing = doTryDeleteNoLock(storable, commit);
+                    if (existing == null) {
+                        return false;
+                    }
+                    position = logModified(storable, existing);
                 } finally {
-                    mLock.unlockFromUpgrade(scope);
+                    commit(commit);
+                    lock.unlockFromUpgrade(scope);
                 }
+                syncLog(position);
+                return true;
             } else {
-                txn.lockForWrite(mLock);
-                S existing = mMap.remove(new Key<S>(storable, mFullComparator));
+                txn.lockForWrite(lock);
+                Key<S> key = new Key<S>(storable, mFullComparator);
+                S existing = doTryDeleteNoLock(storable, writeCommit(txn, key));
                 if (existing == null) {
                     return false;
                 } else {
@@ -439,24 +630,450 @@ class MapStorage<S extends Storable>
         }
     }
 
-    // Caller must hold upgrade or write lock.
-    private boolean doTryDeleteNoLock(S storable) {
-        return mMap.remove(new Key<S>(storable, mFullComparator)) != null;
+    // Caller must hold upgrade or write lock. Returns removed object, or null if not found.
+    private S doTryDeleteNoLock(S storable, MapVersionManager.Commit commit) {
+        Key<S> key = new Key<S>(storable, mFullComparator);
+        S existing;
+        if (commit == null) {
+            existing = mMap.remove(key);
+        } else {
+            existing = mMap.get(key);
+            if (existing != null) {
+                mVersions.record(mHistory, new Key<S>(existing, mFullComparator),
+                                 existing, commit);
+                mMap.remove(key);
+            }
+        }
+        if (existing != null) {
+            cacheRemove(storable);
+        }
+        return existing;
     }
 
     // Called by MapTransaction, which implicitly holds lock.
     void mapPut(S storable) {
         mMap.put(new Key<S>(storable, mFullComparator), storable);
+        cachePut(storable);
     }
 
     // Called by MapTransaction, which implicitly holds lock.
     void mapRemove(S storable) {
         mMap.remove(new Key<S>(storable, mFullComparator));
+        cacheRemove(storable);
+    }
+
+    /**
+     * Adds or updates an entry in the cache policy. Caller must hold lock.
+     */
+    private void cachePut(S storable) {
+        MapCache<S> cache = mCache;
+        if (cache == null) {
+            return;
+        }
+        S key = storable;
+        if (mMap instanceof OffHeapMap) {
+            // Only retain the key on the heap.
+            key = prepare();
+            storable.copyPrimaryKeyProperties(key);
+        }
+        int weight = cache.isWeighed() ? estimateSize(storable) : 1;
+        cache.put(new Key<S>(key, mFullComparator), keyHash(storable), weight);
+    }
+
+    // Caller must hold lock.
+    private void cacheRemove(S storable) {
+        if (mCache != null) {
+            mCache.remove(new Key<S>(storable, mFullComparator), keyHash(storable));
+        }
+    }
+
+    /**
+     * Evicts entries until the cache is within capacity. Entries which are
+     * locked are skipped, and so the caller must not hold any locks which
+     * need to be released for eviction to proceed.
+     */
+    void evict() {
+        MapCache<S> cache = mCache;
+        if (cache == null) {
+            return;
+        }
+
+        Object locker = new Object();
+        List<MapCache.Node<S>> skipped = null;
+
+        MapCache.Node<S> victim;
+        while ((victim = cache.nextVictim()) != null) {
+            S key = victim.mKey.mStorable;
+            UpgradableLock<Object> lock = lockFor(key);
+
+            // Don't wait for the lock, which could deadlock. Entries which are
+            // locked are in use anyhow.
+            if (!lock.tryLockForWrite(locker)) {
+                if (skipped == null) {
+                    skipped = new ArrayList<MapCache.Node<S>>();
+                }
+                skipped.add(victim);
+                if (skipped.size() >= MAX_EVICTION_SKIPS) {
+                    break;
+                }
+                continue;
+            }
+
+            S existing = null;
+            long position = 0;
+            MapVersionManager.Commit commit = autoCommit();
+            try {
+                if (!cache.contains(victim.mKey, victim.mHash)) {
+                    // Eviction is non-transactional, and so it commits
+                    // immediately, like truncate.
+                    existing = doTryDeleteNoLock(key, commit);
+                    if (existing != null) {
+                        position = logModified(key, existing);
+                    }
+                }
+            } catch (PersistException e) {
+                // Entry was restored.
+                existing = null;
+                LogFactory.getLog(MapStorage.class).warn("Unable to log eviction", e);
+            } finally {
+                commit(commit);
+                lock.unlockFromWrite(locker);
+            }
+
+            if (existing != null) {
+                try {
+                    syncLog(position);
+                } catch (PersistException e) {
+                    LogFactory.getLog(MapStorage.class).warn("Unable to sync eviction", e);
+                }
+                cache.evicted(existing);
+            }
+        }
+
+        if (skipped != null) {
+            for (MapCache.Node<S> node : skipped) {
+                cache.restore(node);
+            }
+        }
+    }
+
+    /**
+     * Returns the estimated heap size of a storable, which is only a rough
+     * approximation.
+     */
+    private int estimateSize(S storable) {
+        int size = ENTRY_OVERHEAD;
+        for (String name : mDataPropertyNames) {
+            size += 8;
+            Object value = storable.getPropertyValue(name);
+            if (value instanceof String) {
+                size += 40 + (((String) value).length() << 1);
+            } else if (value instanceof byte[]) {
+                size += 16 + ((byte[]) value).length;
+            } else if (value instanceof BigInteger) {
+                size += 40 + (((BigInteger) value).bitLength() >> 3);
+            } else if (value instanceof BigDecimal) {
+                size += 64 + (((BigDecimal) value).unscaledValue().bitLength() >> 3);
+            } else if (value != null && !(value instanceof Number)
+                       && !(value instanceof Boolean) && !(value instanceof Character))
+            {
+                size += 32;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Adds the current state of the entry with the given key to the batch,
+     * unless already added. Caller must hold lock.
+     */
+    void logCurrent(MapLog.Batch batch, S storable) throws PersistException {
+        byte[] key = mLogCodec.encodeKey(storable);
+        if (!batch.contains(mTable, key)) {
+            S current = mMap.get(new Key<S>(storable, mFullComparator));
+            if (current == null) {
+                batch.delete(mTable, key);
+            } else {
+                batch.put(mTable, key, mLogCodec.encodeData(current));
+            }
+        }
+    }
+
+    /**
+     * Logs an auto-commit modification, reverting it if it cannot be
+     * logged. Caller must hold lock.
+     *
+     * @param existing entry which was replaced or removed; null if inserted
+     * @return log position to sync, or zero if not durable
+     */
+    private long logModified(S storable, S existing) throws PersistException {
+        if (mTable == null) {
+            return 0;
+        }
+        try {
+            MapLog.Batch batch = new MapLog.Batch();
+            logCurrent(batch, storable);
+            return mRepo.mLog.write(batch);
+        } catch (PersistException e) {
+            if (existing == null) {
+                mapRemove(storable);
+            } else {
+                mapPut(existing);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Caller must hold all write locks.
+     *
+     * @return log position to sync, or zero if not durable
+     */
+    private long logTruncate() throws PersistException {
+        if (mTable == null) {
+            return 0;
+        }
+        MapLog.Batch batch = new MapLog.Batch();
+        batch.truncate(mTable);
+        return mRepo.mLog.write(batch);
+    }
+
+    private void syncLog(long position) throws PersistException {
+        if (position != 0) {
+            mRepo.mLog.sync(position);
+        }
+    }
+
+    /**
+     * Called by MapLog when the storage is opened, before it's accessible.
+     */
+    void recover(Map<byte[], byte[]> entries) throws RepositoryException {
+        if (mMap instanceof OffHeapMap) {
+            // Entries are stored with the same encoding, and so they don't
+            // need to be decoded.
+            OffHeapMap<S> map = (OffHeapMap<S>) mMap;
+            for (Map.Entry<byte[], byte[]> entry : entries.entrySet()) {
+                map.putEncoded(entry.getKey(), entry.getValue());
+            }
+            return;
+        }
+        for (Map.Entry<byte[], byte[]> entry : entries.entrySet()) {
+            S storable = prepare();
+            mLogCodec.decode(storable, entry.getKey(), entry.getValue());
+            mMap.put(new Key<S>(storable, mFullComparator), storable);
+        }
+    }
+
+    /**
+     * Called by MapLog to write all entries to a snapshot. Entries are
+     * gathered while holding all read locks, and so the snapshot only
+     * contains committed modifications. Off-heap entries are written while
+     * holding the locks instead, to avoid copying all of them to the heap.
+     */
+    void writeSnapshot(MapLog.SnapshotWriter writer) throws IOException, RepositoryException {
+        Object locker = new Object();
+        List<S> values;
+        doLockAllForRead(locker);
+        if (mMap instanceof OffHeapMap) {
+            try {
+                ((OffHeapMap<S>) mMap).writeSnapshot(writer);
+            } finally {
+                unlockAllFromRead(locker);
+            }
+            return;
+        }
+        try {
+            values = new ArrayList<S>(mMap.values());
+        } finally {
+            unlockAllFromRead(locker);
+        }
+        for (S storable : values) {
+            writer.write(mLogCodec.encodeKey(storable), mLogCodec.encodeData(storable));
+        }
+    }
+
+    /**
+     * Returns a commit for an auto-commit modification, or null if
+     * multiversion concurrency control is not enabled.
+     */
+    private MapVersionManager.Commit autoCommit() {
+        return mVersions == null ? null : mVersions.newCommit();
+    }
+
+    private void commit(MapVersionManager.Commit commit) {
+        if (commit != null) {
+            mVersions.commit(commit);
+        }
+    }
+
+    /**
+     * Returns the commit for a transactional modification, or null if
+     * multiversion concurrency control is not enabled. Caller must hold write
+     * lock for the key.
+     *
+     * @throws OptimisticLockException if a snapshot transaction is modifying a
+     * key which was modified by a commit that the snapshot cannot observe
+     */
+    private MapVersionManager.Commit writeCommit(MapTransaction txn, Key<S> key)
+        throws OptimisticLockException
+    {
+        MapVersionManager.Commit commit = txn.writeCommit();
+        if (commit != null && txn.isSnapshot()) {
+            MapVersionManager.History<S> history = mHistory.get(key);
+            if (history != null &&
+                history.isModifiedAfter(txn.getSnapshotVersion(), commit))
+            {
+                throw new OptimisticLockException
+                    ("Modified after snapshot was taken: " + key);
+            }
+        }
+        return commit;
+    }
+
+    /**
+     * Returns the object observed by a snapshot transaction, or null if none.
+     */
+    private S snapshotGet(MapTransaction txn, Key<S> key) {
+        // Current object must be read before the history.
+        S current = mMap.get(key);
+        MapVersionManager.History<S> history = mHistory.get(key);
+        if (history == null) {
+            return current;
+        }
+        return history.resolve(current, txn.getSnapshotVersion(), txn.ownCommit());
+    }
+
+    /**
+     * Returns the objects observed by a snapshot transaction.
+     */
+    private Iterable<S> snapshotValues(final MapTransaction txn,
+                                       final NavigableMap<Key<S>, S> map,
+                                       final NavigableMap<Key<S>, MapVersionManager.History<S>>
+                                       history)
+    {
+        return new Iterable<S>() {
+            public Iterator<S> iterator() {
+                return new SnapshotIterator<S>(txn, map, history, mMap, mHistory);
+            }
+        };
+    }
+
+    /**
+     * Returns the lock stripe which guards the given primary key.
+     */
+    UpgradableLock<Object> lockFor(S storable) {
+        UpgradableLock<Object>[] locks = mLocks;
+        if (locks.length == 1) {
+            return locks[0];
+        }
+        return locks[keyHash(storable) & mLockMask];
+    }
+
+    /**
+     * Returns a hash code of the primary key properties.
+     */
+    private int keyHash(S storable) {
+        int hash = 0;
+        for (String name : mKeyPropertyNames) {
+            hash = hash * 31 + keyValueHash(storable.getPropertyValue(name));
+        }
+        // Spread the higher bits down, as is done by HashMap.
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return hash;
+    }
+
+    /**
+     * Returns a hash code which is consistent with the key comparator.
+     */
+    private static int keyValueHash(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof BigDecimal) {
+            BigDecimal bd = (BigDecimal) value;
+            return bd.signum() == 0 ? 0 : bd.stripTrailingZeros().hashCode();
+        }
+        if (value.getClass().isArray()) {
+            return Arrays.deepHashCode(new Object[] {value});
+        }
+        return value.hashCode();
+    }
+
+    // Acquires all lock stripes in order, releasing them all upon failure.
+    private void doLockAllForRead(Object locker) throws FetchException {
+        UpgradableLock<Object>[] locks = mLocks;
+        int i = 0;
+        try {
+            for (; i<locks.length; i++) {
+                doLockForRead(locks[i], locker);
+            }
+        } catch (FetchException e) {
+            while (--i >= 0) {
+                locks[i].unlockFromRead(locker);
+            }
+            throw e;
+        }
     }
 
-    private void doLockForRead(Object locker) throws FetchException {
+    private void unlockAllFromRead(Object locker) {
+        UpgradableLock<Object>[] locks = mLocks;
+        for (int i=locks.length; --i>=0; ) {
+            locks[i].unlockFromRead(locker);
+        }
+    }
+
+    // Acquires all lock stripes in order, releasing them all upon failure.
+    void lockAllForUpgrade(MapTransaction txn, boolean isForUpdate) throws FetchException {
+        UpgradableLock<Object>[] locks = mLocks;
+        int i = 0;
         try {
-            if (!mLock.tryLockForRead(locker, mLockTimeout, mLockTimeoutUnit)) {
+            for (; i<locks.length; i++) {
+                txn.lockForUpgrade(locks[i], isForUpdate);
+            }
+        } catch (FetchException e) {
+            while (--i >= 0) {
+                txn.unlockFromUpgrade(locks[i], isForUpdate);
+            }
+            throw e;
+        }
+    }
+
+    void unlockAllFromUpgrade(MapTransaction txn, boolean isForUpdate) {
+        UpgradableLock<Object>[] locks = mLocks;
+        for (int i=locks.length; --i>=0; ) {
+            txn.unlockFromUpgrade(locks[i], isForUpdate);
+        }
+    }
+
+    // Acquires all lock stripes in order, releasing them all upon failure.
+    private void doLockAllForWrite(Object locker) throws PersistException {
+        UpgradableLock<Object>[] locks = mLocks;
+        int i = 0;
+        try {
+            for (; i<locks.length; i++) {
+                doLockForWrite(locks[i], locker);
+            }
+        } catch (PersistException e) {
+            while (--i >= 0) {
+                locks[i].unlockFromWrite(locker);
+            }
+            throw e;
+        }
+    }
+
+    private void unlockAllFromWrite(Object locker) {
+        UpgradableLock<Object>[] locks = mLocks;
+        for (int i=locks.length; --i>=0; ) {
+            locks[i].unlockFromWrite(locker);
+        }
+    }
+
+    private void doLockForRead(UpgradableLock<Object> lock, Object locker)
+        throws FetchException
+    {
+        try {
+            if (!lock.tryLockForRead(locker, mLockTimeout, mLockTimeoutUnit)) {
                 throw new FetchTimeoutException("" + mLockTimeout + ' ' +
                                                 mLockTimeoutUnit.toString().toLowerCase());
             }
@@ -465,9 +1082,11 @@ class MapStorage<S extends Storable>
         }
     }
 
-    private void doLockForUpgrade(Object locker) throws FetchException {
+    private void doLockForUpgrade(UpgradableLock<Object> lock, Object locker)
+        throws FetchException
+    {
         try {
-            if (!mLock.tryLockForUpgrade(locker, mLockTimeout, mLockTimeoutUnit)) {
+            if (!lock.tryLockForUpgrade(locker, mLockTimeout, mLockTimeoutUnit)) {
                 throw new FetchTimeoutException("" + mLockTimeout + ' ' +
                                                 mLockTimeoutUnit.toString().toLowerCase());
             }
@@ -476,9 +1095,11 @@ class MapStorage<S extends Storable>
         }
     }
 
-    private void doLockForWrite(Object locker) throws PersistException {
+    private void doLockForWrite(UpgradableLock<Object> lock, Object locker)
+        throws PersistException
+    {
         try {
-            if (!mLock.tryLockForWrite(locker, mLockTimeout, mLockTimeoutUnit)) {
+            if (!lock.tryLockForWrite(locker, mLockTimeout, mLockTimeoutUnit)) {
                 throw new PersistTimeoutException("" + mLockTimeout + ' ' +
                                                   mLockTimeoutUnit.toString().toLowerCase());
             }
@@ -549,21 +1170,29 @@ class MapStorage<S extends Storable>
             TransactionScope<MapTransaction> scope = mRepo.localTransactionScope();
             MapTransaction txn = scope.getTxn();
             if (txn == null) {
-                doLockForRead(scope);
+                doLockAllForRead(scope);
                 try {
                     return mMap.size();
                 } finally {
-                    mLock.unlockFromRead(scope);
+                    unlockAllFromRead(scope);
+                }
+            } else if (txn.isSnapshot()) {
+                long count = 0;
+                Iterator<S> it = snapshotValues(txn, mMap, mHistory).iterator();
+                while (it.hasNext()) {
+                    it.next();
+                    count++;
                 }
+                return count;
             } else {
                 // Since lock is so coarse, all reads in transaction scope are
                 // upgrade to avoid deadlocks.
                 final boolean isForUpdate = scope.isForUpdate();
-                txn.lockForUpgrade(mLock, isForUpdate);
+                lockAllForUpgrade(txn, isForUpdate);
                 try {
                     return mMap.size();
                 } finally {
-                    txn.unlockFromUpgrade(mLock, isForUpdate);
+                    unlockAllFromUpgrade(txn, isForUpdate);
                 }
             }
         } catch (FetchException e) {
@@ -575,7 +1204,15 @@ class MapStorage<S extends Storable>
 
     public Cursor<S> fetchAll() throws FetchException {
         try {
-            return new MapCursor<S>(this, mRepo.localTransactionScope(), mMap.values());
+            TransactionScope<MapTransaction> scope = mRepo.localTransactionScope();
+            MapTransaction txn = scope.getTxn();
+            Iterable<S> values;
+            if (txn != null && txn.isSnapshot()) {
+                values = snapshotValues(txn, mMap, mHistory);
+            } else {
+                values = mMap.values();
+            }
+            return new MapCursor<S>(this, scope, values);
         } catch (FetchException e) {
             throw e;
         } catch (Exception e) {
@@ -605,8 +1242,9 @@ class MapStorage<S extends Storable>
 
             TransactionScope<MapTransaction> scope = mRepo.localTransactionScope();
             MapTransaction txn = scope.getTxn();
+            UpgradableLock<Object> lock = lockFor(key);
             if (txn == null) {
-                doLockForRead(scope);
+                doLockForRead(lock, scope);
                 try {
                     S value = mMap.get(new Key<S>(key, mFullComparator));
                     if (value == null) {
@@ -615,13 +1253,20 @@ class MapStorage<S extends Storable>
                         return new SingletonCursor<S>(copyAndFireLoadTrigger(value));
                     }
                 } finally {
-                    mLock.unlockFromRead(scope);
+                    lock.unlockFromRead(scope);
+                }
+            } else if (txn.isSnapshot()) {
+                S value = snapshotGet(txn, new Key<S>(key, mFullComparator));
+                if (value == null) {
+                    return EmptyCursor.the();
+                } else {
+                    return new SingletonCursor<S>(copyAndFireLoadTrigger(value));
                 }
             } else {
                 // Since lock is so coarse, all reads in transaction scope are
                 // upgrade to avoid deadlocks.
                 final boolean isForUpdate = scope.isForUpdate();
-                txn.lockForUpgrade(mLock, isForUpdate);
+                txn.lockForUpgrade(lock, isForUpdate);
                 try {
                     S value = mMap.get(new Key<S>(key, mFullComparator));
                     if (value == null) {
@@ -630,7 +1275,7 @@ class MapStorage<S extends Storable>
                         return new SingletonCursor<S>(copyAndFireLoadTrigger(value));
                     }
                 } finally {
-                    txn.unlockFromUpgrade(mLock, isForUpdate);
+                    txn.unlockFromUpgrade(lock, isForUpdate);
                 }
             }
         } catch (FetchException e) {
@@ -679,11 +1324,27 @@ class MapStorage<S extends Storable>
             identityValues = NO_VALUES;
         }
 
+        TransactionScope<MapTransaction> scope = mRepo.localTransactionScope();
+        MapTransaction txn;
+        try {
+            txn = scope.getTxn();
+        } catch (Exception e) {
+            throw new FetchException(e);
+        }
+
         NavigableMap<Key<S>, S> map = mMap;
+        NavigableMap<Key<S>, MapVersionManager.History<S>> history = null;
+        if (txn != null && txn.isSnapshot()) {
+            // Snapshot must also observe objects which are no longer in the map.
+            history = mHistory;
+        }
 
         int tieBreaker = 1;
         if (reverseOrder) {
             map = map.descendingMap();
+            if (history != null) {
+                history = history.descendingMap();
+            }
             reverseRange = !reverseRange;
             tieBreaker = -tieBreaker;
         }
@@ -721,17 +1382,32 @@ class MapStorage<S extends Storable>
                 break;
             }
 
+            if (history != null) {
+                history = history.tailMap(startKey, true);
+            }
+
             Key<S> ceilingKey = map.ceilingKey(startKey);
-            if (ceilingKey == null) {
+            if (ceilingKey != null) {
+                map = map.tailMap(ceilingKey, true);
+                if (mMap instanceof OffHeapMap && identityValues.length > 0) {
+                    identityValues = decodedValues(index, identityValues, startKey, ceilingKey);
+                }
+            } else if (history == null) {
                 return EmptyCursor.the();
+            } else {
+                map = map.tailMap(startKey, true);
             }
-
-            map = map.tailMap(ceilingKey, true);
         }
 
         Cursor<S> cursor;
         try {
-            cursor = new MapCursor<S>(this, mRepo.localTransactionScope(), map.values());
+            Iterable<S> values;
+            if (history == null) {
+                values = map.values();
+            } else {
+                values = snapshotValues(txn, map, history);
+            }
+            cursor = new MapCursor<S>(this, scope, values);
         } catch (FetchException e) {
             throw e;
         } catch (Exception e) {
@@ -832,6 +1508,27 @@ class MapStorage<S extends Storable>
         return new SearchKey<S>(tieBreaker, storable, c);
     }
 
+    /**
+     * Off-heap entries are decoded, and so property adapters can produce
+     * values which compare the same as the search values, but which aren't
+     * equal to them. Returns the identity values of the given match if it
+     * has the same identity, which are then equal to those of all the
+     * remaining matches.
+     */
+    private Object[] decodedValues(StorableIndex<S> index, Object[] identityValues,
+                                   Key<S> startKey, Key<S> match)
+    {
+        Comparator<S> c = getSearchComparator(identityValues.length);
+        if (c.compare(startKey.mStorable, match.mStorable) != 0) {
+            return identityValues;
+        }
+        Object[] values = new Object[identityValues.length];
+        for (int i=0; i<values.length; i++) {
+            values[i] = match.mStorable.getPropertyValue(index.getProperty(i).getName());
+        }
+        return values;
+    }
+
     private Comparator<S> getSearchComparator(int propertyCount) {
         Comparator<S> comparator = mSearchComparators[propertyCount];
         if (comparator == null) {
@@ -855,10 +1552,139 @@ class MapStorage<S extends Storable>
         return new ArraySortBuffer<S>();
     }
 
+    /**
+     * Simple lock which is reentrant for transactions, but auto-commit does not
+     * need to support reentrancy. Read lock requests in transactions can starve
+     * write lock requests, but auto-commit cannot cause starvation. In practice
+     * starvation is not possible since transactions always lock for upgrade.
+     */
+    private static class StorageLock extends UpgradableLock<Object> {
+        @Override
+        protected boolean isReadLockHeld(Object locker) {
+            return locker instanceof MapTransaction;
+        }
+    }
+
     public static interface InstanceFactory {
         Storable instantiate(DelegateSupport support);
     }
 
+    /**
+     * Iterates over the objects observed by a snapshot, in key order. Keys
+     * which are no longer in the map are found by searching the history
+     * between each pair of keys which are in the map. Searching after the
+     * second key is read ensures that no concurrently removed keys are
+     * skipped, since history is recorded before a key is removed.
+     */
+    private static class SnapshotIterator<S extends Storable> implements Iterator<S> {
+        private final long mVersion;
+        private final MapVersionManager.Commit mOwn;
+        private final Iterator<Map.Entry<Key<S>, S>> mEntries;
+        private final NavigableMap<Key<S>, MapVersionManager.History<S>> mHistoryView;
+        private final NavigableMap<Key<S>, S> mMap;
+        private final NavigableMap<Key<S>, MapVersionManager.History<S>> mHistory;
+
+        private Key<S> mLastKey;
+        private Iterator<MapVersionManager.History<S>> mGap;
+        private Key<S> mNextKey;
+        private S mNextCurrent;
+        private boolean mDone;
+
+        private S mNext;
+
+        /**
+         * @param map view of map to iterate over
+         * @param historyView view of history over the same range
+         * @param fullMap full map, for looking up keys found in history
+         * @param fullHistory full history, for looking up keys found in map
+         */
+        SnapshotIterator(MapTransaction txn,
+                         NavigableMap<Key<S>, S> map,
+                         NavigableMap<Key<S>, MapVersionManager.History<S>> historyView,
+                         NavigableMap<Key<S>, S> fullMap,
+                         NavigableMap<Key<S>, MapVersionManager.History<S>> fullHistory)
+        {
+            mVersion = txn.getSnapshotVersion();
+            mOwn = txn.ownCommit();
+            mEntries = map.entrySet().iterator();
+            mHistoryView = historyView;
+            mMap = fullMap;
+            mHistory = fullHistory;
+        }
+
+        public boolean hasNext() {
+            while (mNext == null) {
+                if (mGap != null) {
+                    if (mGap.hasNext()) {
+                        Key<S> key = mGap.next().getKey();
+                        mNext = resolve(key, mMap.get(key));
+                        continue;
+                    }
+                    mGap = null;
+                }
+
+                Key<S> key = mNextKey;
+                if (key != null) {
+                    mNextKey = null;
+                    mLastKey = key;
+                    S current = mNextCurrent;
+                    mNextCurrent = null;
+                    mNext = resolve(key, current);
+                    continue;
+                }
+
+                if (mEntries.hasNext()) {
+                    Map.Entry<Key<S>, S> entry = mEntries.next();
+                    mNextKey = entry.getKey();
+                    mNextCurrent = entry.getValue();
+                    mGap = gap(mLastKey, mNextKey);
+                } else if (!mDone) {
+                    mDone = true;
+                    mGap = gap(mLastKey, null);
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public S next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            S next = mNext;
+            mNext = null;
+            return next;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private S resolve(Key<S> key, S current) {
+            MapVersionManager.History<S> history = mHistory.get(key);
+            return history == null ? current : history.resolve(current, mVersion, mOwn);
+        }
+
+        /**
+         * Returns history between the given keys, exclusive, or null if none.
+         */
+        private Iterator<MapVersionManager.History<S>> gap(Key<S> from, Key<S> to) {
+            if (mHistory.isEmpty()) {
+                return null;
+            }
+            NavigableMap<Key<S>, MapVersionManager.History<S>> gap;
+            if (from == null) {
+                gap = to == null ? mHistoryView : mHistoryView.headMap(to, false);
+            } else if (to == null) {
+                gap = mHistoryView.tailMap(from, false);
+            } else {
+                gap = mHistoryView.subMap(from, false, to, false);
+            }
+            return gap.values().iterator();
+        }
+    }
+
     private static class SearchKey<S extends Storable> extends Key<S> {
         private final int mTieBreaker;
 
@@ -46,19 +46,78 @@ class MapTransaction {
     private final int mLockTimeout;
     private final TimeUnit mLockTimeoutUnit;
 
+    // Is null if multiversion concurrency control is not enabled.
+    private final MapVersionManager mVersions;
+    // Version observed by snapshot isolation level.
+    private final long mSnapshotVersion;
+    // Modifications made by top-level transaction, for multiversion support.
+    private MapVersionManager.Commit mCommit;
+    private boolean mSnapshotEnded;
+
     private Set<UpgradableLock> mUpgradeLocks;
     private Set<UpgradableLock> mWriteLocks;
 
     private List<Undoable> mUndoLog;
 
+    // Bounded storages which might need to evict entries when finished.
+    private Set<MapStorage<?>> mEvictors;
+
+    // Is null if repository isn't durable.
+    private final MapLog mLog;
+
     MapTransaction(MapTransaction parent, IsolationLevel level,
-                   int lockTimeout, TimeUnit lockTimeoutUnit)
+                   int lockTimeout, TimeUnit lockTimeoutUnit,
+                   MapVersionManager versions, MapLog log)
     {
         mParent = parent;
         mLevel = level;
         mLocker = parent == null ? this : parent.mLocker;
         mLockTimeout = lockTimeout;
         mLockTimeoutUnit = lockTimeoutUnit;
+        mVersions = versions;
+        mLog = log;
+        if (level != IsolationLevel.SNAPSHOT) {
+            mSnapshotVersion = 0;
+        } else if (parent == null) {
+            mSnapshotVersion = versions.beginSnapshot();
+        } else {
+            mSnapshotVersion = parent.mSnapshotVersion;
+        }
+    }
+
+    /**
+     * Returns true if reads observe a snapshot instead of acquiring locks.
+     */
+    boolean isSnapshot() {
+        return mLevel == IsolationLevel.SNAPSHOT;
+    }
+
+    long getSnapshotVersion() {
+        return mSnapshotVersion;
+    }
+
+    /**
+     * Returns the commit which tracks modifications made by the top-level
+     * transaction, or null if multiversion concurrency control is not enabled.
+     */
+    MapVersionManager.Commit writeCommit() {
+        if (mVersions == null) {
+            return null;
+        }
+        MapTransaction top = (MapTransaction) mLocker;
+        MapVersionManager.Commit commit = top.mCommit;
+        if (commit == null) {
+            top.mCommit = commit = mVersions.newCommit();
+        }
+        return commit;
+    }
+
+    /**
+     * Returns the commit which tracks modifications made by the top-level
+     * transaction, or null if none made.
+     */
+    MapVersionManager.Commit ownCommit() {
+        return ((MapTransaction) mLocker).mCommit;
     }
 
     void lockForUpgrade(UpgradableLock lock, boolean isForUpdate) throws FetchException {
@@ -126,6 +185,10 @@ class MapTransaction {
                 storage.mapRemove(key);
             }
 
+            public void log(MapLog.Batch batch) throws PersistException {
+                storage.logCurrent(batch, key);
+            }
+
             @Override
             public String toString() {
                 return "undo insert by remove: " + key;
@@ -142,6 +205,10 @@ class MapTransaction {
                 storage.mapPut(old);
             }
 
+            public void log(MapLog.Batch batch) throws PersistException {
+                storage.logCurrent(batch, old);
+            }
+
             @Override
             public String toString() {
                 return "undo update by put: " + old;
@@ -158,6 +225,10 @@ class MapTransaction {
                 storage.mapPut(old);
             }
 
+            public void log(MapLog.Batch batch) throws PersistException {
+                storage.logCurrent(batch, old);
+            }
+
             @Override
             public String toString() {
                 return "undo delete by put: " + old;
@@ -165,14 +236,44 @@ class MapTransaction {
         });
     }
 
-    void commit() {
+    void commit() throws PersistException {
         MapTransaction parent = mParent;
 
         if (parent == null) {
+            long position = 0;
+            if (mLog != null && mUndoLog != null) {
+                // Log the final state of each modified entry while locks are
+                // still held, and so the log is ordered like the modifications.
+                MapLog.Batch batch = new MapLog.Batch();
+                for (Undoable entry : mUndoLog) {
+                    entry.log(batch);
+                }
+                position = mLog.write(batch);
+            }
+            mUndoLog = null;
+
+            MapVersionManager.Commit commit = mCommit;
+            if (commit != null) {
+                // Assign version before releasing locks, to ensure that
+                // subsequent writers can detect conflicts.
+                mVersions.commit(commit);
+                mCommit = null;
+            }
             releaseLocks();
+            endSnapshot();
+
+            if (position != 0) {
+                // Sync after releasing locks, allowing other transactions to
+                // share the sync.
+                mLog.sync(position);
+            }
+
+            evict();
             return;
         }
 
+        passEvictorsToParent();
+
         // Pass undo log to parent.
         if (parent.mUndoLog == null) {
             parent.mUndoLog = mUndoLog;
@@ -212,7 +313,62 @@ class MapTransaction {
         }
         mUndoLog = null;
 
-        releaseLocks();
+        if (mParent == null) {
+            MapVersionManager.Commit commit = mCommit;
+            if (commit != null) {
+                mVersions.abort(commit);
+                mCommit = null;
+            }
+            releaseLocks();
+            endSnapshot();
+            // Undo might have restored evicted entries.
+            evict();
+        } else {
+            releaseLocks();
+            passEvictorsToParent();
+        }
+    }
+
+    /**
+     * Called by a bounded storage after an insert or update, to evict entries
+     * once all locks are released.
+     */
+    void evictLater(MapStorage<?> storage) {
+        Set<MapStorage<?>> evictors = mEvictors;
+        if (evictors == null) {
+            mEvictors = evictors = new HashSet<MapStorage<?>>();
+        }
+        evictors.add(storage);
+    }
+
+    private void evict() {
+        Set<MapStorage<?>> evictors = mEvictors;
+        if (evictors != null) {
+            mEvictors = null;
+            for (MapStorage<?> storage : evictors) {
+                storage.evict();
+            }
+        }
+    }
+
+    private void passEvictorsToParent() {
+        Set<MapStorage<?>> evictors = mEvictors;
+        if (evictors != null) {
+            MapTransaction parent = mParent;
+            if (parent.mEvictors == null) {
+                parent.mEvictors = evictors;
+            } else {
+                parent.mEvictors.addAll(evictors);
+            }
+            mEvictors = null;
+        }
+    }
+
+    private void endSnapshot() {
+        if (isSnapshot() && !mSnapshotEnded) {
+            mSnapshotEnded = true;
+            mVersions.endSnapshot(mSnapshotVersion);
+        }
     }
 
     private void addToUndoLog(Undoable entry) {
@@ -250,5 +406,10 @@ class MapTransaction {
 
     private static interface Undoable {
         void undo();
+
+        /**
+         * Adds the current state of the modified entry to the batch.
+         */
+        void log(MapLog.Batch batch) throws PersistException;
     }
 }
@@ -34,10 +34,20 @@ import com.amazon.carbonado.txn.TransactionManager;
 class MapTransactionManager extends TransactionManager<MapTransaction> {
     private final int mLockTimeout;
     private final TimeUnit mLockTimeoutUnit;
+    private final MapVersionManager mVersions;
+    private final MapLog mLog;
 
-    MapTransactionManager(int lockTimeout, TimeUnit lockTimeoutUnit) {
+    /**
+     * @param versions optional version manager, which enables snapshot isolation
+     * @param log optional log, which makes transactions durable
+     */
+    MapTransactionManager(int lockTimeout, TimeUnit lockTimeoutUnit,
+                          MapVersionManager versions, MapLog log)
+    {
         mLockTimeout = lockTimeout;
         mLockTimeoutUnit = lockTimeoutUnit;
+        mVersions = versions;
+        mLog = log;
     }
 
     @Override
@@ -49,6 +59,19 @@ class MapTransactionManager extends TransactionManager<MapTransaction> {
             return parent.getIsolationLevel();
         }
 
+        if (parent != null && parent.getIsolationLevel() == IsolationLevel.SNAPSHOT) {
+            // Nested transactions must observe the same snapshot.
+            switch (level) {
+            case NONE:
+                return IsolationLevel.NONE;
+            case SERIALIZABLE:
+                // Not supported.
+                return null;
+            default:
+                return IsolationLevel.SNAPSHOT;
+            }
+        }
+
         switch (level) {
         case NONE:
             return IsolationLevel.NONE;
@@ -58,6 +81,16 @@ class MapTransactionManager extends TransactionManager<MapTransaction> {
         case REPEATABLE_READ:
         case SERIALIZABLE:
             return IsolationLevel.SERIALIZABLE;
+        case SNAPSHOT:
+            if (mVersions == null) {
+                // Not supported.
+                return null;
+            }
+            if (parent != null) {
+                // Snapshot cannot be nested in a transaction which locks.
+                return IsolationLevel.SERIALIZABLE;
+            }
+            return IsolationLevel.SNAPSHOT;
         default:
             // Not supported.
             return null;
@@ -76,7 +109,8 @@ class MapTransactionManager extends TransactionManager<MapTransaction> {
         if (level == IsolationLevel.NONE) {
             return null;
         }
-        return new MapTransaction(parent, level, mLockTimeout, mLockTimeoutUnit);
+        return new MapTransaction(parent, level, mLockTimeout, mLockTimeoutUnit,
+                                  mVersions, mLog);
     }
 
     @Override
@@ -87,7 +121,7 @@ class MapTransactionManager extends TransactionManager<MapTransaction> {
         if (level == IsolationLevel.NONE) {
             return null;
         }
-        return new MapTransaction(parent, level, timeout, unit);
+        return new MapTransaction(parent, level, timeout, unit, mVersions, mLog);
     }
 
     @Override
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2008-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.map;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeMap;
+
+import java.util.concurrent.ConcurrentMap;
+
+import com.amazon.carbonado.Storable;
+
+/**
+ * Tracks committed versions for multiversion concurrency control. Each
+ * committing transaction which made modifications is assigned the next
+ * version. Storages keep the images which modifications replaced, tagged with
+ * the commit which replaced them. A snapshot observes the version which was
+ * current when it began, and it resolves each key to the image which was
+ * current at that version.
+ *
+ * <p>Images are reclaimed when no active snapshot is older than the commit
+ * which replaced them.
+ *
+ * @author Brian S O'Neill
+ */
+class MapVersionManager {
+    /** Version of commits which are still in progress */
+    static final long PENDING = Long.MAX_VALUE;
+    /** Version of aborted commits, which is older than any snapshot */
+    static final long ABORTED = -1;
+
+    private volatile long mVersion;
+
+    // Counts of active snapshots, keyed by version. Guarded by this.
+    private final TreeMap<Long, int[]> mSnapshots;
+
+    // Commits with images which might still be observed, in version order.
+    // Guarded by this.
+    private final LinkedList<Commit> mRetained;
+
+    MapVersionManager() {
+        mSnapshots = new TreeMap<Long, int[]>();
+        mRetained = new LinkedList<Commit>();
+    }
+
+    /**
+     * Begins a snapshot of the current version, which must be ended later.
+     */
+    synchronized long beginSnapshot() {
+        long version = mVersion;
+        int[] count = mSnapshots.get(version);
+        if (count == null) {
+            mSnapshots.put(version, new int[] {1});
+        } else {
+            count[0]++;
+        }
+        return version;
+    }
+
+    void endSnapshot(long version) {
+        synchronized (this) {
+            int[] count = mSnapshots.get(version);
+            if (count != null && --count[0] <= 0) {
+                mSnapshots.remove(version);
+            }
+            reclaim();
+        }
+    }
+
+    Commit newCommit() {
+        return new Commit();
+    }
+
+    /**
+     * Assigns the next version to the commit, which must be called while
+     * the committing transaction still holds its locks.
+     */
+    void commit(Commit commit) {
+        synchronized (this) {
+            if (commit.mHistories == null) {
+                // Nothing was modified, so no need for a new version.
+                return;
+            }
+            long version = mVersion + 1;
+            // Assign version before publishing it, to ensure that snapshots
+            // of the new version don't observe the replaced images.
+            commit.mVersion = version;
+            mVersion = version;
+            mRetained.add(commit);
+            reclaim();
+        }
+    }
+
+    /**
+     * Discards the images of an aborted commit, which must be called after
+     * the modifications have been undone.
+     */
+    void abort(Commit commit) {
+        commit.mVersion = ABORTED;
+        commit.discard();
+    }
+
+    /**
+     * Records the image which is about to be replaced by a modification. If
+     * the commit has already replaced an image for the key, the original
+     * image is kept. Caller must hold upgrade or write lock for the key.
+     *
+     * @param image replaced image, or null if the key is being inserted
+     */
+    <S extends Storable> void record(ConcurrentMap<Key<S>, History<S>> histories,
+                                     Key<S> key, S image, Commit commit)
+    {
+        while (true) {
+            History<S> history = histories.get(key);
+            if (history == null) {
+                history = new History<S>(histories, key);
+                History<S> existing = histories.putIfAbsent(key, history);
+                if (existing != null) {
+                    history = existing;
+                }
+            }
+            if (history.add(commit, image)) {
+                return;
+            }
+            // History was concurrently reclaimed, so try again.
+        }
+    }
+
+    // Caller must be synchronized on this.
+    private void reclaim() {
+        long oldest = mSnapshots.isEmpty() ? mVersion : mSnapshots.firstKey();
+        Commit commit;
+        while ((commit = mRetained.peek()) != null && commit.mVersion <= oldest) {
+            mRetained.poll();
+            commit.discard();
+        }
+    }
+
+    /**
+     * Modifications made by a top-level transaction or auto-commit operation.
+     */
+    static final class Commit {
+        volatile long mVersion = PENDING;
+
+        // Histories which have an image for this commit.
+        private List<History<?>> mHistories;
+
+        /**
+         * Returns true if this commit might be observed by a snapshot of the
+         * given version.
+         */
+        boolean isAfter(long version) {
+            return mVersion > version;
+        }
+
+        private void discard() {
+            List<History<?>> histories = mHistories;
+            if (histories != null) {
+                for (History<?> history : histories) {
+                    history.remove(this);
+                }
+                mHistories = null;
+            }
+        }
+    }
+
+    /**
+     * Replaced images of a key, in modification order.
+     */
+    static final class History<S extends Storable> {
+        private static final Entry[] NO_ENTRIES = new Entry[0];
+
+        private final ConcurrentMap<Key<S>, History<S>> mHistories;
+        private final Key<S> mKey;
+
+        // Copied on write, allowing snapshots to read without locking.
+        private volatile Entry[] mEntries;
+
+        // Guarded by this.
+        private boolean mReclaimed;
+
+        History(ConcurrentMap<Key<S>, History<S>> histories, Key<S> key) {
+            mHistories = histories;
+            mKey = key;
+            mEntries = NO_ENTRIES;
+        }
+
+        Key<S> getKey() {
+            return mKey;
+        }
+
+        /**
+         * Returns the image which is observed by a snapshot.
+         *
+         * @param current image currently in the map, which must have been
+         * read before the history was obtained
+         * @param version snapshot version
+         * @param own commit of snapshot transaction, which may be null
+         * @return observed image, or null if none
+         */
+        S resolve(S current, long version, Commit own) {
+            for (Entry entry : mEntries) {
+                Commit commit = entry.mCommit;
+                if (commit == own) {
+                    // Snapshot observes its own modifications.
+                    return current;
+                }
+                if (commit.isAfter(version)) {
+                    return (S) entry.mImage;
+                }
+            }
+            return current;
+        }
+
+        /**
+         * Returns true if the key was modified by a commit which a snapshot
+         * of the given version cannot observe.
+         */
+        boolean isModifiedAfter(long version, Commit own) {
+            for (Entry entry : mEntries) {
+                Commit commit = entry.mCommit;
+                if (commit != own && commit.isAfter(version)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return false if history was reclaimed and cannot be added to
+         */
+        synchronized boolean add(Commit commit, S image) {
+            if (mReclaimed) {
+                return false;
+            }
+            Entry[] entries = mEntries;
+            for (Entry entry : entries) {
+                if (entry.mCommit == commit) {
+                    // Keep the original image.
+                    return true;
+                }
+            }
+
+            int length = entries.length;
+            Entry[] newEntries = new Entry[length + 1];
+            System.arraycopy(entries, 0, newEntries, 0, length);
+            newEntries[length] = new Entry(commit, image);
+            mEntries = newEntries;
+
+            if (commit.mHistories == null) {
+                commit.mHistories = new ArrayList<History<?>>();
+            }
+            commit.mHistories.add(this);
+
+            return true;
+        }
+
+        synchronized void remove(Commit commit) {
+            Entry[] entries = mEntries;
+            int length = entries.length;
+            for (int i=0; i<length; i++) {
+                if (entries[i].mCommit == commit) {
+                    if (length == 1) {
+                        mReclaimed = true;
+                        mHistories.remove(mKey, this);
+                        mEntries = NO_ENTRIES;
+                    } else {
+                        Entry[] newEntries = new Entry[length - 1];
+                        System.arraycopy(entries, 0, newEntries, 0, i);
+                        System.arraycopy(entries, i + 1, newEntries, i, length - i - 1);
+                        mEntries = newEntries;
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+        final Commit mCommit;
+        final Object mImage;
+
+        Entry(Commit commit, Object image) {
+            mCommit = commit;
+            mImage = image;
+        }
+    }
+}
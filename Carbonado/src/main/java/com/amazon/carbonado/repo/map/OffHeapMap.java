@@ -0,0 +1,716 @@
+/*
+ * Copyright 2008-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.map;
+
+import java.io.IOException;
+
+import java.lang.reflect.UndeclaredThrowableException;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Storable;
+
+/**
+ * Navigable map of storables which are stored encoded in an {@link
+ * OffHeapTree}. Storables are only materialized when they're fetched, and so
+ * each fetch returns a new instance. Returned keys and values must not be
+ * modified, although they're never observed by the map again.
+ *
+ * <p>Unlike a standard map, the put method doesn't return the previous
+ * value, since decoding it would be wasted effort for MapStorage.
+ *
+ * @author Brian S O'Neill
+ */
+class OffHeapMap<S extends Storable> extends AbstractMap<Key<S>, S>
+    implements NavigableMap<Key<S>, S>
+{
+    private final OffHeapTree mTree;
+    private final MapStorage<S> mStorage;
+    private final MapCodec<S> mCodec;
+    private final Comparator<S> mFullComparator;
+
+    // Bounds are in ascending order, and are null if unbounded.
+    private final Key<S> mLo;
+    private final boolean mLoInclusive;
+    private final Key<S> mHi;
+    private final boolean mHiInclusive;
+    private final boolean mDescending;
+
+    OffHeapMap(MapStorage<S> storage, MapCodec<S> codec, Comparator<S> fullComparator) {
+        this(new OffHeapTree(), storage, codec, fullComparator, null, false, null, false, false);
+    }
+
+    private OffHeapMap(OffHeapTree tree, MapStorage<S> storage, MapCodec<S> codec,
+                       Comparator<S> fullComparator,
+                       Key<S> lo, boolean loInclusive, Key<S> hi, boolean hiInclusive,
+                       boolean descending)
+    {
+        mTree = tree;
+        mStorage = storage;
+        mCodec = codec;
+        mFullComparator = fullComparator;
+        mLo = lo;
+        mLoInclusive = loInclusive;
+        mHi = hi;
+        mHiInclusive = hiInclusive;
+        mDescending = descending;
+    }
+
+    /**
+     * Returns the amount of direct memory allocated for all entries.
+     */
+    long allocated() {
+        return mTree.allocated();
+    }
+
+    /**
+     * Puts an already encoded entry into the map, bypassing any bounds.
+     */
+    void putEncoded(byte[] key, byte[] value) {
+        mTree.put(key, value);
+    }
+
+    /**
+     * Writes all encoded entries, in key order, bypassing any bounds.
+     */
+    void writeSnapshot(MapLog.SnapshotWriter writer) throws IOException {
+        OffHeapTree.Cursor cursor = new OffHeapTree.Cursor(false);
+        OffHeapTree.Entry e = mTree.seek(cursor, null, OffHeapTree.FIRST);
+        while (e != null) {
+            writer.write(e.mKey, e.mValue);
+            e = mTree.step(cursor);
+        }
+    }
+
+    @Override
+    public int size() {
+        if (mLo == null && mHi == null) {
+            return (int) Math.min(mTree.size(), Integer.MAX_VALUE);
+        }
+        int count = 0;
+        OffHeapTree.Cursor cursor = new OffHeapTree.Cursor(false);
+        OffHeapTree.Entry e = absLowest(cursor);
+        while (e != null && !tooHigh(e)) {
+            count++;
+            e = mTree.step(cursor);
+        }
+        return count;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        if (mLo == null && mHi == null) {
+            return mTree.size() == 0;
+        }
+        return absLowest(null) == null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != null;
+    }
+
+    @Override
+    public S get(Object key) {
+        OffHeapTree.Entry e = find(key);
+        return e == null ? null : decode(e);
+    }
+
+    @Override
+    public S put(Key<S> key, S value) {
+        if (!inRange(key)) {
+            throw new IllegalArgumentException("Key out of range");
+        }
+        try {
+            mTree.put(mCodec.encodeKey(value), mCodec.encodeData(value));
+        } catch (PersistException e) {
+            throw new UndeclaredThrowableException(e);
+        }
+        return null;
+    }
+
+    @Override
+    public S remove(Object key) {
+        if (!(key instanceof Key) || !inRange((Key<S>) key)) {
+            return null;
+        }
+        OffHeapTree.Entry e = mTree.remove(probe((Key<S>) key));
+        return e == null ? null : decode(e);
+    }
+
+    @Override
+    public void clear() {
+        if (mLo == null && mHi == null) {
+            mTree.clear();
+        } else {
+            super.clear();
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<Key<S>, S>> entrySet() {
+        return new AbstractSet<Map.Entry<Key<S>, S>>() {
+            @Override
+            public Iterator<Map.Entry<Key<S>, S>> iterator() {
+                return new EntryIterator(mDescending);
+            }
+
+            @Override
+            public int size() {
+                return OffHeapMap.this.size();
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return OffHeapMap.this.isEmpty();
+            }
+
+            @Override
+            public void clear() {
+                OffHeapMap.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Collection<S> values() {
+        return new AbstractCollection<S>() {
+            @Override
+            public Iterator<S> iterator() {
+                final Iterator<Map.Entry<Key<S>, S>> it = new EntryIterator(mDescending);
+                return new Iterator<S>() {
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    public S next() {
+                        return it.next().getValue();
+                    }
+
+                    public void remove() {
+                        it.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return OffHeapMap.this.size();
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return OffHeapMap.this.isEmpty();
+            }
+
+            @Override
+            public void clear() {
+                OffHeapMap.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Set<Key<S>> keySet() {
+        return navigableKeySet();
+    }
+
+    public Comparator<? super Key<S>> comparator() {
+        return mDescending ? Collections.<Key<S>>reverseOrder() : null;
+    }
+
+    public Key<S> firstKey() {
+        return key(firstEntry());
+    }
+
+    public Key<S> lastKey() {
+        return key(lastEntry());
+    }
+
+    public Map.Entry<Key<S>, S> firstEntry() {
+        return toEntry(mDescending ? absHighest(null) : absLowest(null));
+    }
+
+    public Map.Entry<Key<S>, S> lastEntry() {
+        return toEntry(mDescending ? absLowest(null) : absHighest(null));
+    }
+
+    public Map.Entry<Key<S>, S> pollFirstEntry() {
+        return poll(firstEntry());
+    }
+
+    public Map.Entry<Key<S>, S> pollLastEntry() {
+        return poll(lastEntry());
+    }
+
+    public Map.Entry<Key<S>, S> lowerEntry(Key<S> key) {
+        return toEntry(mDescending ? absHigher(key) : absLower(key));
+    }
+
+    public Key<S> lowerKey(Key<S> key) {
+        return keyOrNull(lowerEntry(key));
+    }
+
+    public Map.Entry<Key<S>, S> floorEntry(Key<S> key) {
+        return toEntry(mDescending ? absCeiling(key) : absFloor(key));
+    }
+
+    public Key<S> floorKey(Key<S> key) {
+        return keyOrNull(floorEntry(key));
+    }
+
+    public Map.Entry<Key<S>, S> ceilingEntry(Key<S> key) {
+        return toEntry(mDescending ? absFloor(key) : absCeiling(key));
+    }
+
+    public Key<S> ceilingKey(Key<S> key) {
+        return keyOrNull(ceilingEntry(key));
+    }
+
+    public Map.Entry<Key<S>, S> higherEntry(Key<S> key) {
+        return toEntry(mDescending ? absLower(key) : absHigher(key));
+    }
+
+    public Key<S> higherKey(Key<S> key) {
+        return keyOrNull(higherEntry(key));
+    }
+
+    public NavigableMap<Key<S>, S> descendingMap() {
+        return new OffHeapMap<S>(mTree, mStorage, mCodec, mFullComparator,
+                                 mLo, mLoInclusive, mHi, mHiInclusive, !mDescending);
+    }
+
+    public NavigableSet<Key<S>> navigableKeySet() {
+        return new KeySet<S>(this);
+    }
+
+    public NavigableSet<Key<S>> descendingKeySet() {
+        return new KeySet<S>(descendingMap());
+    }
+
+    public NavigableMap<Key<S>, S> subMap(Key<S> fromKey, boolean fromInclusive,
+                                          Key<S> toKey, boolean toInclusive)
+    {
+        if (mDescending) {
+            return view(toKey, toInclusive, fromKey, fromInclusive);
+        } else {
+            return view(fromKey, fromInclusive, toKey, toInclusive);
+        }
+    }
+
+    public NavigableMap<Key<S>, S> headMap(Key<S> toKey, boolean inclusive) {
+        if (mDescending) {
+            return view(toKey, inclusive, mHi, mHiInclusive);
+        } else {
+            return view(mLo, mLoInclusive, toKey, inclusive);
+        }
+    }
+
+    public NavigableMap<Key<S>, S> tailMap(Key<S> fromKey, boolean inclusive) {
+        if (mDescending) {
+            return view(mLo, mLoInclusive, fromKey, inclusive);
+        } else {
+            return view(fromKey, inclusive, mHi, mHiInclusive);
+        }
+    }
+
+    public SortedMap<Key<S>, S> subMap(Key<S> fromKey, Key<S> toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    public SortedMap<Key<S>, S> headMap(Key<S> toKey) {
+        return headMap(toKey, false);
+    }
+
+    public SortedMap<Key<S>, S> tailMap(Key<S> fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    private OffHeapMap<S> view(Key<S> lo, boolean loInclusive, Key<S> hi, boolean hiInclusive) {
+        if (lo != mLo && lo != null && !inRange(lo, loInclusive)) {
+            throw new IllegalArgumentException("Key out of range");
+        }
+        if (hi != mHi && hi != null && !inRange(hi, hiInclusive)) {
+            throw new IllegalArgumentException("Key out of range");
+        }
+        if (lo != null && hi != null && lo.compareTo(hi) > 0) {
+            throw new IllegalArgumentException("Inconsistent range");
+        }
+        return new OffHeapMap<S>(mTree, mStorage, mCodec, mFullComparator,
+                                 lo, loInclusive, hi, hiInclusive, mDescending);
+    }
+
+    private OffHeapTree.Entry find(Object key) {
+        if (!(key instanceof Key) || !inRange((Key<S>) key)) {
+            return null;
+        }
+        return mTree.find(probe((Key<S>) key), OffHeapTree.EXACT);
+    }
+
+    private OffHeapTree.Entry absLowest(OffHeapTree.Cursor cursor) {
+        OffHeapTree.Entry e;
+        if (mLo == null) {
+            e = mTree.seek(cursor, null, OffHeapTree.FIRST);
+        } else {
+            e = mTree.seek(cursor, probe(mLo),
+                           mLoInclusive ? OffHeapTree.CEILING : OffHeapTree.HIGHER);
+        }
+        return e == null || tooHigh(e) ? null : e;
+    }
+
+    private OffHeapTree.Entry absHighest(OffHeapTree.Cursor cursor) {
+        OffHeapTree.Entry e;
+        if (mHi == null) {
+            e = mTree.seek(cursor, null, OffHeapTree.LAST);
+        } else {
+            e = mTree.seek(cursor, probe(mHi),
+                           mHiInclusive ? OffHeapTree.FLOOR : OffHeapTree.LOWER);
+        }
+        return e == null || tooLow(e) ? null : e;
+    }
+
+    private OffHeapTree.Entry absCeiling(Key<S> key) {
+        if (tooLow(key)) {
+            return absLowest(null);
+        }
+        OffHeapTree.Entry e = mTree.find(probe(key), OffHeapTree.CEILING);
+        return e == null || tooHigh(e) ? null : e;
+    }
+
+    private OffHeapTree.Entry absHigher(Key<S> key) {
+        if (tooLow(key)) {
+            return absLowest(null);
+        }
+        OffHeapTree.Entry e = mTree.find(probe(key), OffHeapTree.HIGHER);
+        return e == null || tooHigh(e) ? null : e;
+    }
+
+    private OffHeapTree.Entry absFloor(Key<S> key) {
+        if (tooHigh(key)) {
+            return absHighest(null);
+        }
+        OffHeapTree.Entry e = mTree.find(probe(key), OffHeapTree.FLOOR);
+        return e == null || tooLow(e) ? null : e;
+    }
+
+    private OffHeapTree.Entry absLower(Key<S> key) {
+        if (tooHigh(key)) {
+            return absHighest(null);
+        }
+        OffHeapTree.Entry e = mTree.find(probe(key), OffHeapTree.LOWER);
+        return e == null || tooLow(e) ? null : e;
+    }
+
+    private boolean tooLow(Key<S> key) {
+        if (mLo != null) {
+            int c = -mLo.compareTo(key);
+            return c < 0 || (c == 0 && !mLoInclusive);
+        }
+        return false;
+    }
+
+    private boolean tooHigh(Key<S> key) {
+        if (mHi != null) {
+            int c = -mHi.compareTo(key);
+            return c > 0 || (c == 0 && !mHiInclusive);
+        }
+        return false;
+    }
+
+    private boolean tooLow(OffHeapTree.Entry e) {
+        return mLo != null && tooLow(decodeKey(e));
+    }
+
+    private boolean tooHigh(OffHeapTree.Entry e) {
+        return mHi != null && tooHigh(decodeKey(e));
+    }
+
+    private boolean inRange(Key<S> key) {
+        return !tooLow(key) && !tooHigh(key);
+    }
+
+    private boolean inRange(Key<S> key, boolean inclusive) {
+        if (inclusive) {
+            return inRange(key);
+        }
+        // Exclusive bound can be equal to an inclusive bound.
+        return (mLo == null || mLo.compareTo(key) <= 0) && (mHi == null || mHi.compareTo(key) >= 0);
+    }
+
+    /**
+     * Returns a probe which orders the search key against encoded keys.
+     */
+    private OffHeapTree.Probe probe(Key<S> key) {
+        if (key.mComparator == mFullComparator) {
+            // All primary key properties are examined, and so the encoded
+            // keys can be compared directly.
+            return new OffHeapTree.KeyProbe(mCodec.encodeKey(key.mStorable), key.tieBreaker());
+        }
+        return new SearchProbe<S>(key, mCodec);
+    }
+
+    private Key<S> decodeKey(OffHeapTree.Entry e) {
+        try {
+            return new Key<S>(mCodec.decodeKey(e.mKey), mFullComparator);
+        } catch (FetchException ex) {
+            throw new UndeclaredThrowableException(ex);
+        }
+    }
+
+    private S decode(OffHeapTree.Entry e) {
+        S storable = mStorage.prepare();
+        try {
+            mCodec.decode(storable, e.mKey, e.mValue);
+        } catch (FetchException ex) {
+            throw new UndeclaredThrowableException(ex);
+        }
+        return storable;
+    }
+
+    private Map.Entry<Key<S>, S> toEntry(OffHeapTree.Entry e) {
+        if (e == null) {
+            return null;
+        }
+        S storable = decode(e);
+        return new SimpleImmutableEntry<Key<S>, S>(new Key<S>(storable, mFullComparator),
+                                                   storable);
+    }
+
+    private Map.Entry<Key<S>, S> poll(Map.Entry<Key<S>, S> entry) {
+        if (entry != null) {
+            mTree.remove(probe(entry.getKey()));
+        }
+        return entry;
+    }
+
+    private static <K> K key(Map.Entry<K, ?> entry) {
+        if (entry == null) {
+            throw new NoSuchElementException();
+        }
+        return entry.getKey();
+    }
+
+    private static <K> K keyOrNull(Map.Entry<K, ?> entry) {
+        return entry == null ? null : entry.getKey();
+    }
+
+    /**
+     * Weakly consistent iterator over the entries in the view.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<Key<S>, S>> {
+        private final OffHeapTree.Cursor mCursor;
+        private OffHeapTree.Entry mNext;
+        private byte[] mLastKey;
+
+        EntryIterator(boolean descending) {
+            mCursor = new OffHeapTree.Cursor(descending);
+            mNext = descending ? absHighest(mCursor) : absLowest(mCursor);
+        }
+
+        public boolean hasNext() {
+            return mNext != null;
+        }
+
+        public Map.Entry<Key<S>, S> next() {
+            OffHeapTree.Entry e = mNext;
+            if (e == null) {
+                throw new NoSuchElementException();
+            }
+            mLastKey = e.mKey;
+            OffHeapTree.Entry next = mTree.step(mCursor);
+            if (next != null && (mDescending ? tooLow(next) : tooHigh(next))) {
+                next = null;
+            }
+            mNext = next;
+            return toEntry(e);
+        }
+
+        public void remove() {
+            if (mLastKey == null) {
+                throw new IllegalStateException();
+            }
+            mTree.remove(new OffHeapTree.KeyProbe(mLastKey, 0));
+            mLastKey = null;
+        }
+    }
+
+    /**
+     * Compares a key which only examines some of the primary key properties,
+     * by decoding the keys in the tree.
+     */
+    private static class SearchProbe<S extends Storable> extends OffHeapTree.Probe {
+        private final Key<S> mKey;
+        private final MapCodec<S> mCodec;
+
+        SearchProbe(Key<S> key, MapCodec<S> codec) {
+            mKey = key;
+            mCodec = codec;
+        }
+
+        int compareTo(byte[] key) {
+            S storable;
+            try {
+                storable = mCodec.decodeKey(key);
+            } catch (FetchException e) {
+                throw new UndeclaredThrowableException(e);
+            }
+            int result = mKey.mComparator.compare(mKey.mStorable, storable);
+            return result == 0 ? mKey.tieBreaker() : result;
+        }
+    }
+
+    private static class KeySet<S extends Storable> extends AbstractSet<Key<S>>
+        implements NavigableSet<Key<S>>
+    {
+        private final NavigableMap<Key<S>, S> mMap;
+
+        KeySet(NavigableMap<Key<S>, S> map) {
+            mMap = map;
+        }
+
+        @Override
+        public Iterator<Key<S>> iterator() {
+            final Iterator<Map.Entry<Key<S>, S>> it = mMap.entrySet().iterator();
+            return new Iterator<Key<S>>() {
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                public Key<S> next() {
+                    return it.next().getKey();
+                }
+
+                public void remove() {
+                    it.remove();
+                }
+            };
+        }
+
+        public Iterator<Key<S>> descendingIterator() {
+            return descendingSet().iterator();
+        }
+
+        @Override
+        public int size() {
+            return mMap.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return mMap.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return mMap.containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return mMap.remove(o) != null;
+        }
+
+        @Override
+        public void clear() {
+            mMap.clear();
+        }
+
+        public Comparator<? super Key<S>> comparator() {
+            return mMap.comparator();
+        }
+
+        public Key<S> first() {
+            return mMap.firstKey();
+        }
+
+        public Key<S> last() {
+            return mMap.lastKey();
+        }
+
+        public Key<S> lower(Key<S> e) {
+            return mMap.lowerKey(e);
+        }
+
+        public Key<S> floor(Key<S> e) {
+            return mMap.floorKey(e);
+        }
+
+        public Key<S> ceiling(Key<S> e) {
+            return mMap.ceilingKey(e);
+        }
+
+        public Key<S> higher(Key<S> e) {
+            return mMap.higherKey(e);
+        }
+
+        public Key<S> pollFirst() {
+            return keyOrNull(mMap.pollFirstEntry());
+        }
+
+        public Key<S> pollLast() {
+            return keyOrNull(mMap.pollLastEntry());
+        }
+
+        public NavigableSet<Key<S>> descendingSet() {
+            return new KeySet<S>(mMap.descendingMap());
+        }
+
+        public NavigableSet<Key<S>> subSet(Key<S> fromElement, boolean fromInclusive,
+                                           Key<S> toElement, boolean toInclusive)
+        {
+            return new KeySet<S>(mMap.subMap(fromElement, fromInclusive,
+                                             toElement, toInclusive));
+        }
+
+        public NavigableSet<Key<S>> headSet(Key<S> toElement, boolean inclusive) {
+            return new KeySet<S>(mMap.headMap(toElement, inclusive));
+        }
+
+        public NavigableSet<Key<S>> tailSet(Key<S> fromElement, boolean inclusive) {
+            return new KeySet<S>(mMap.tailMap(fromElement, inclusive));
+        }
+
+        public SortedSet<Key<S>> subSet(Key<S> fromElement, Key<S> toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+
+        public SortedSet<Key<S>> headSet(Key<S> toElement) {
+            return headSet(toElement, false);
+        }
+
+        public SortedSet<Key<S>> tailSet(Key<S> fromElement) {
+            return tailSet(fromElement, true);
+        }
+    }
+}
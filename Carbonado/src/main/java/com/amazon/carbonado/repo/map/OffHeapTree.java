@@ -0,0 +1,898 @@
+/*
+ * Copyright 2008-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.map;
+
+import java.nio.ByteBuffer;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Ordered map of encoded keys to encoded values, whose entries are stored in
+ * direct memory instead of the heap. Keys are ordered by unsigned byte
+ * comparison. The index is a B+tree whose leaves are arrays of entry
+ * addresses, and so the garbage collector only observes a small amount of
+ * objects, regardless of how many entries are stored.
+ *
+ * <p>All operations are thread-safe. Reads share a lock, and modifications
+ * are serialized by an exclusive lock, which is only held while the tree is
+ * being changed. Cursors are weakly consistent, like the iterators of the
+ * concurrent collections.
+ *
+ * @author Brian S O'Neill
+ */
+final class OffHeapTree {
+    static final int FIRST = 0, LAST = 1, EXACT = 2, CEILING = 3, HIGHER = 4, FLOOR = 5, LOWER = 6;
+
+    private static final int LEAF_CAPACITY = 128;
+    private static final int BRANCH_CAPACITY = 128;
+
+    private final Lock mReadLock;
+    private final Lock mWriteLock;
+    private final Arena mArena;
+
+    // All guarded by lock.
+    private Node mRoot;
+    private long mVersion;
+
+    private volatile long mSize;
+
+    OffHeapTree() {
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        mReadLock = lock.readLock();
+        mWriteLock = lock.writeLock();
+        mArena = new Arena();
+        mRoot = new Leaf();
+    }
+
+    long size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the amount of direct memory allocated.
+     */
+    long allocated() {
+        mReadLock.lock();
+        try {
+            return mArena.allocated();
+        } finally {
+            mReadLock.unlock();
+        }
+    }
+
+    /**
+     * Finds an entry relative to the probe.
+     *
+     * @param probe ignored if mode is FIRST or LAST
+     * @param mode FIRST, LAST, EXACT, CEILING, HIGHER, FLOOR or LOWER
+     * @return null if not found
+     */
+    Entry find(Probe probe, int mode) {
+        return seek(null, probe, mode);
+    }
+
+    /**
+     * Positions the cursor at an entry relative to the probe.
+     *
+     * @param cursor optional cursor to position
+     * @param probe ignored if mode is FIRST or LAST
+     * @param mode FIRST, LAST, EXACT, CEILING, HIGHER, FLOOR or LOWER
+     * @return null if not found
+     */
+    Entry seek(Cursor cursor, Probe probe, int mode) {
+        mReadLock.lock();
+        try {
+            return doSeek(cursor, probe, mode);
+        } finally {
+            mReadLock.unlock();
+        }
+    }
+
+    /**
+     * Moves the cursor to the next entry, in the cursor's direction.
+     *
+     * @return null if no more entries
+     */
+    Entry step(Cursor cursor) {
+        mReadLock.lock();
+        try {
+            if (cursor.mLastKey == null) {
+                return null;
+            }
+            if (cursor.mVersion != mVersion) {
+                // Tree structure changed, and so search again.
+                return doSeek(cursor, new KeyProbe(cursor.mLastKey, 0),
+                              cursor.mReverse ? LOWER : HIGHER);
+            }
+            Leaf leaf = cursor.mLeaf;
+            int index = cursor.mIndex;
+            if (cursor.mReverse) {
+                index--;
+                while (index < 0) {
+                    if ((leaf = leaf.mPrev) == null) {
+                        return cursor.reset();
+                    }
+                    index = leaf.mSize - 1;
+                }
+            } else {
+                index++;
+                while (index >= leaf.mSize) {
+                    if ((leaf = leaf.mNext) == null) {
+                        return cursor.reset();
+                    }
+                    index = 0;
+                }
+            }
+            return position(cursor, leaf, index);
+        } finally {
+            mReadLock.unlock();
+        }
+    }
+
+    /**
+     * Inserts or replaces an entry.
+     *
+     * @return true if an entry was replaced
+     */
+    boolean put(byte[] key, byte[] value) {
+        KeyProbe probe = new KeyProbe(key, 0);
+        mWriteLock.lock();
+        try {
+            long entry = mArena.allocate(key, value);
+
+            // Path of branches to the leaf, for splitting.
+            Branch[] path = new Branch[8];
+            int[] childIndexes = new int[8];
+            int depth = 0;
+
+            Node node = mRoot;
+            while (node instanceof Branch) {
+                Branch branch = (Branch) node;
+                int childIndex = branch.childIndex(probe);
+                if (depth >= path.length) {
+                    path = grow(path);
+                    childIndexes = grow(childIndexes);
+                }
+                path[depth] = branch;
+                childIndexes[depth] = childIndex;
+                depth++;
+                node = branch.mChildren[childIndex];
+            }
+
+            Leaf leaf = (Leaf) node;
+            int index = leaf.search(mArena, probe);
+            if (index >= 0) {
+                mArena.free(leaf.mEntries[index]);
+                leaf.mEntries[index] = entry;
+                return true;
+            }
+
+            index = ~index;
+
+            if (leaf.mSize >= LEAF_CAPACITY) {
+                Leaf right = leaf.split();
+                mVersion++;
+                byte[] separator = mArena.readKey(right.mEntries[0]);
+                if (index > leaf.mSize) {
+                    index -= leaf.mSize;
+                    leaf = right;
+                }
+                insertSplit(path, childIndexes, depth, separator, right);
+            }
+
+            leaf.insert(index, entry);
+            mVersion++;
+            mSize++;
+            return false;
+        } finally {
+            mWriteLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the entry which exactly matches the probe.
+     *
+     * @return removed entry, or null if not found
+     */
+    Entry remove(Probe probe) {
+        mWriteLock.lock();
+        try {
+            Branch[] path = new Branch[8];
+            int[] childIndexes = new int[8];
+            int depth = 0;
+
+            Node node = mRoot;
+            while (node instanceof Branch) {
+                Branch branch = (Branch) node;
+                int childIndex = branch.childIndex(probe);
+                if (depth >= path.length) {
+                    path = grow(path);
+                    childIndexes = grow(childIndexes);
+                }
+                path[depth] = branch;
+                childIndexes[depth] = childIndex;
+                depth++;
+                node = branch.mChildren[childIndex];
+            }
+
+            Leaf leaf = (Leaf) node;
+            int index = leaf.search(mArena, probe);
+            if (index < 0) {
+                return null;
+            }
+
+            long address = leaf.mEntries[index];
+            Entry entry = mArena.readEntry(address);
+            mArena.free(address);
+            leaf.delete(index);
+            mVersion++;
+            mSize--;
+
+            if (leaf.mSize == 0 && depth > 0) {
+                removeEmpty(path, childIndexes, depth, leaf);
+            }
+
+            return entry;
+        } finally {
+            mWriteLock.unlock();
+        }
+    }
+
+    /**
+     * Removes all entries and releases the direct memory.
+     */
+    void clear() {
+        mWriteLock.lock();
+        try {
+            mRoot = new Leaf();
+            mArena.clear();
+            mVersion++;
+            mSize = 0;
+        } finally {
+            mWriteLock.unlock();
+        }
+    }
+
+    // Caller must hold read or write lock.
+    private Entry doSeek(Cursor cursor, Probe probe, int mode) {
+        Node node = mRoot;
+
+        if (mode == FIRST || mode == LAST) {
+            while (node instanceof Branch) {
+                Branch branch = (Branch) node;
+                node = branch.mChildren[mode == FIRST ? 0 : branch.mSize - 1];
+            }
+            Leaf leaf = (Leaf) node;
+            if (leaf.mSize == 0) {
+                return cursor == null ? null : cursor.reset();
+            }
+            return position(cursor, leaf, mode == FIRST ? 0 : leaf.mSize - 1);
+        }
+
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            node = branch.mChildren[branch.childIndex(probe)];
+        }
+
+        Leaf leaf = (Leaf) node;
+        int index = leaf.search(mArena, probe);
+
+        switch (mode) {
+        case EXACT:
+            if (index < 0) {
+                return cursor == null ? null : cursor.reset();
+            }
+            break;
+        case CEILING:
+            if (index < 0) {
+                index = ~index;
+            }
+            break;
+        case HIGHER:
+            index = index < 0 ? ~index : index + 1;
+            break;
+        case FLOOR:
+            if (index < 0) {
+                index = ~index - 1;
+            }
+            break;
+        case LOWER:
+            index = (index < 0 ? ~index : index) - 1;
+            break;
+        default:
+            throw new IllegalArgumentException();
+        }
+
+        if (mode == FLOOR || mode == LOWER) {
+            while (index < 0) {
+                if ((leaf = leaf.mPrev) == null) {
+                    return cursor == null ? null : cursor.reset();
+                }
+                index = leaf.mSize - 1;
+            }
+        } else {
+            while (index >= leaf.mSize) {
+                if ((leaf = leaf.mNext) == null) {
+                    return cursor == null ? null : cursor.reset();
+                }
+                index = 0;
+            }
+        }
+
+        return position(cursor, leaf, index);
+    }
+
+    // Caller must hold read or write lock.
+    private Entry position(Cursor cursor, Leaf leaf, int index) {
+        Entry entry = mArena.readEntry(leaf.mEntries[index]);
+        if (cursor != null) {
+            cursor.mLeaf = leaf;
+            cursor.mIndex = index;
+            cursor.mVersion = mVersion;
+            cursor.mLastKey = entry.mKey;
+        }
+        return entry;
+    }
+
+    /**
+     * Inserts a split node into its parent, splitting branches up the path
+     * as necessary. Caller must hold write lock.
+     */
+    private void insertSplit(Branch[] path, int[] childIndexes, int depth,
+                             byte[] separator, Node right)
+    {
+        while (--depth >= 0) {
+            Branch branch = path[depth];
+            int childIndex = childIndexes[depth];
+            if (branch.mSize < BRANCH_CAPACITY) {
+                branch.insert(childIndex, separator, right);
+                return;
+            }
+
+            // Split the branch, and the middle separator moves up.
+            Branch newRight = new Branch();
+            int half = branch.mSize >> 1;
+            byte[] middle = branch.mKeys[half - 1];
+            newRight.mSize = branch.mSize - half;
+            System.arraycopy(branch.mChildren, half, newRight.mChildren, 0, newRight.mSize);
+            System.arraycopy(branch.mKeys, half, newRight.mKeys, 0, newRight.mSize - 1);
+            for (int i=half; i<branch.mSize; i++) {
+                branch.mChildren[i] = null;
+                branch.mKeys[i - 1] = null;
+            }
+            branch.mSize = half;
+
+            if (childIndex < half) {
+                branch.insert(childIndex, separator, right);
+            } else {
+                newRight.insert(childIndex - half, separator, right);
+            }
+
+            separator = middle;
+            right = newRight;
+        }
+
+        // Root split.
+        Branch root = new Branch();
+        root.mChildren[0] = mRoot;
+        root.mChildren[1] = right;
+        root.mKeys[0] = separator;
+        root.mSize = 2;
+        mRoot = root;
+    }
+
+    /**
+     * Removes an empty leaf, and any branches which become empty. Caller must
+     * hold write lock.
+     */
+    private void removeEmpty(Branch[] path, int[] childIndexes, int depth, Leaf leaf) {
+        // Unlink leaf from the chain.
+        if (leaf.mPrev != null) {
+            leaf.mPrev.mNext = leaf.mNext;
+        }
+        if (leaf.mNext != null) {
+            leaf.mNext.mPrev = leaf.mPrev;
+        }
+
+        while (--depth >= 0) {
+            Branch branch = path[depth];
+            branch.delete(childIndexes[depth]);
+            if (branch.mSize > 0) {
+                break;
+            }
+            if (depth == 0) {
+                // Tree is empty.
+                mRoot = new Leaf();
+                return;
+            }
+        }
+
+        // Collapse the root while it has only one child.
+        while (mRoot instanceof Branch && ((Branch) mRoot).mSize == 1) {
+            mRoot = ((Branch) mRoot).mChildren[0];
+        }
+    }
+
+    private static Branch[] grow(Branch[] array) {
+        Branch[] newArray = new Branch[array.length << 1];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    private static int[] grow(int[] array) {
+        int[] newArray = new int[array.length << 1];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    /**
+     * Encoded entry, copied from direct memory.
+     */
+    static final class Entry {
+        final byte[] mKey;
+        final byte[] mValue;
+
+        Entry(byte[] key, byte[] value) {
+            mKey = key;
+            mValue = value;
+        }
+    }
+
+    /**
+     * Search position within the tree.
+     */
+    static final class Cursor {
+        final boolean mReverse;
+
+        Leaf mLeaf;
+        int mIndex;
+        long mVersion;
+        // Is null if cursor isn't positioned.
+        byte[] mLastKey;
+
+        Cursor(boolean reverse) {
+            mReverse = reverse;
+        }
+
+        Entry reset() {
+            mLeaf = null;
+            mLastKey = null;
+            return null;
+        }
+    }
+
+    /**
+     * Compares a search key to the encoded keys in the tree.
+     */
+    static abstract class Probe {
+        /**
+         * Returns negative if search key is less than the given key, zero if
+         * equal, and positive if greater.
+         */
+        abstract int compareTo(byte[] key);
+
+        /**
+         * Compares to the key of an entry in the arena.
+         */
+        int compareTo(Arena arena, long entry) {
+            return compareTo(arena.readKey(entry));
+        }
+    }
+
+    /**
+     * Probe for a complete encoded key, which can be compared without copying
+     * keys from direct memory.
+     */
+    static final class KeyProbe extends Probe {
+        private final byte[] mKey;
+        private final int mTieBreaker;
+
+        /**
+         * @param tieBreaker returned when keys are equal
+         */
+        KeyProbe(byte[] key, int tieBreaker) {
+            mKey = key;
+            mTieBreaker = tieBreaker;
+        }
+
+        int compareTo(byte[] key) {
+            byte[] a = mKey;
+            int length = Math.min(a.length, key.length);
+            for (int i=0; i<length; i++) {
+                int result = (a[i] & 0xff) - (key[i] & 0xff);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            int result = a.length - key.length;
+            return result == 0 ? mTieBreaker : result;
+        }
+
+        @Override
+        int compareTo(Arena arena, long entry) {
+            int result = arena.compareKey(entry, mKey);
+            return result == 0 ? mTieBreaker : result;
+        }
+    }
+
+    private static abstract class Node {
+    }
+
+    private static final class Leaf extends Node {
+        // Addresses of entries, in key order.
+        final long[] mEntries;
+        int mSize;
+
+        Leaf mPrev;
+        Leaf mNext;
+
+        Leaf() {
+            mEntries = new long[LEAF_CAPACITY];
+        }
+
+        /**
+         * @return index of match, or complement of insertion point
+         */
+        int search(Arena arena, Probe probe) {
+            long[] entries = mEntries;
+            int low = 0;
+            int high = mSize - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int result = probe.compareTo(arena, entries[mid]);
+                if (result > 0) {
+                    low = mid + 1;
+                } else if (result < 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return ~low;
+        }
+
+        void insert(int index, long entry) {
+            System.arraycopy(mEntries, index, mEntries, index + 1, mSize - index);
+            mEntries[index] = entry;
+            mSize++;
+        }
+
+        void delete(int index) {
+            System.arraycopy(mEntries, index + 1, mEntries, index, mSize - index - 1);
+            mSize--;
+        }
+
+        /**
+         * Moves the upper half of the entries to a new leaf, which is linked
+         * in after this one.
+         */
+        Leaf split() {
+            Leaf right = new Leaf();
+            int half = mSize >> 1;
+            right.mSize = mSize - half;
+            System.arraycopy(mEntries, half, right.mEntries, 0, right.mSize);
+            mSize = half;
+
+            right.mPrev = this;
+            right.mNext = mNext;
+            if (mNext != null) {
+                mNext.mPrev = right;
+            }
+            mNext = right;
+
+            return right;
+        }
+    }
+
+    private static final class Branch extends Node {
+        // Key at index i is the lowest key of child i + 1.
+        final byte[][] mKeys;
+        final Node[] mChildren;
+        // Amount of children.
+        int mSize;
+
+        Branch() {
+            mKeys = new byte[BRANCH_CAPACITY - 1][];
+            mChildren = new Node[BRANCH_CAPACITY];
+        }
+
+        /**
+         * Returns the index of the child which can contain the probe.
+         */
+        int childIndex(Probe probe) {
+            byte[][] keys = mKeys;
+            int low = 0;
+            int high = mSize - 2;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (probe.compareTo(keys[mid]) < 0) {
+                    high = mid - 1;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Inserts a new child after the given child index.
+         */
+        void insert(int childIndex, byte[] key, Node child) {
+            int size = mSize;
+            System.arraycopy(mChildren, childIndex + 1, mChildren, childIndex + 2,
+                             size - childIndex - 1);
+            System.arraycopy(mKeys, childIndex, mKeys, childIndex + 1, size - childIndex - 1);
+            mChildren[childIndex + 1] = child;
+            mKeys[childIndex] = key;
+            mSize = size + 1;
+        }
+
+        /**
+         * Deletes a child and the key which separates it from its neighbor.
+         */
+        void delete(int childIndex) {
+            int size = mSize;
+            System.arraycopy(mChildren, childIndex + 1, mChildren, childIndex,
+                             size - childIndex - 1);
+            mChildren[size - 1] = null;
+            if (size > 1) {
+                // Delete the key before the child, or the first key if the
+                // first child is being deleted.
+                int keyIndex = childIndex == 0 ? 0 : childIndex - 1;
+                System.arraycopy(mKeys, keyIndex + 1, mKeys, keyIndex, size - keyIndex - 2);
+                mKeys[size - 2] = null;
+            }
+            mSize = size - 1;
+        }
+    }
+
+    /**
+     * Allocates entries in large direct buffers. Freed space is reused by
+     * entries which round up to the same size class. All methods must be
+     * called while holding the tree lock.
+     */
+    static final class Arena {
+        private static final int SLAB_SIZE = 1 << 22;
+        // Entries larger than this are allocated in their own buffer.
+        private static final int MAX_SLAB_ENTRY = SLAB_SIZE >> 2;
+        private static final int ENTRY_HEADER = 8;
+
+        private ByteBuffer[] mSlabs;
+        private int mSlabCount;
+        // Current slab, which space is allocated from.
+        private int mSlab;
+        private int mSlabPos;
+
+        // Stacks of free addresses, for each size class.
+        private long[][] mFree;
+        private int[] mFreeCounts;
+
+        // Indexes of slabs which were released, for reuse.
+        private int[] mFreeSlabs;
+        private int mFreeSlabCount;
+
+        private long mAllocated;
+
+        Arena() {
+            clear();
+        }
+
+        void clear() {
+            mSlabs = new ByteBuffer[16];
+            mSlabCount = 0;
+            mSlab = -1;
+            mSlabPos = SLAB_SIZE;
+            mFree = new long[sizeClass(MAX_SLAB_ENTRY) + 1][];
+            mFreeCounts = new int[mFree.length];
+            mFreeSlabs = new int[4];
+            mFreeSlabCount = 0;
+            mAllocated = 0;
+        }
+
+        long allocated() {
+            return mAllocated;
+        }
+
+        /**
+         * @return address of new entry
+         */
+        long allocate(byte[] key, byte[] value) {
+            int size = ENTRY_HEADER + key.length + value.length;
+
+            long address;
+            ByteBuffer slab;
+            if (size > MAX_SLAB_ENTRY) {
+                slab = ByteBuffer.allocateDirect(size);
+                address = ((long) addSlab(slab)) << 32;
+                mAllocated += size;
+            } else {
+                int sizeClass = sizeClass(size);
+                int count = mFreeCounts[sizeClass];
+                if (count > 0) {
+                    address = mFree[sizeClass][--count];
+                    mFreeCounts[sizeClass] = count;
+                } else {
+                    int classSize = classSize(sizeClass);
+                    if (mSlabPos + classSize > SLAB_SIZE) {
+                        mSlab = addSlab(ByteBuffer.allocateDirect(SLAB_SIZE));
+                        mSlabPos = 0;
+                    }
+                    address = (((long) mSlab) << 32) | mSlabPos;
+                    mSlabPos += classSize;
+                }
+                slab = mSlabs[mSlab(address)];
+                mAllocated += classSize(sizeClass);
+            }
+
+            int offset = (int) address;
+            slab.putInt(offset, key.length);
+            slab.putInt(offset + 4, value.length);
+            ByteBuffer dup = slab.duplicate();
+            dup.position(offset + ENTRY_HEADER);
+            dup.put(key);
+            dup.put(value);
+
+            return address;
+        }
+
+        void free(long address) {
+            ByteBuffer slab = mSlabs[mSlab(address)];
+            int offset = (int) address;
+            int size = ENTRY_HEADER + slab.getInt(offset) + slab.getInt(offset + 4);
+
+            if (size > MAX_SLAB_ENTRY) {
+                // Release the buffer.
+                int index = mSlab(address);
+                mSlabs[index] = null;
+                if (mFreeSlabCount >= mFreeSlabs.length) {
+                    int[] newFreeSlabs = new int[mFreeSlabs.length << 1];
+                    System.arraycopy(mFreeSlabs, 0, newFreeSlabs, 0, mFreeSlabCount);
+                    mFreeSlabs = newFreeSlabs;
+                }
+                mFreeSlabs[mFreeSlabCount++] = index;
+                mAllocated -= size;
+                return;
+            }
+
+            int sizeClass = sizeClass(size);
+            long[] free = mFree[sizeClass];
+            int count = mFreeCounts[sizeClass];
+            if (free == null) {
+                mFree[sizeClass] = free = new long[16];
+            } else if (count >= free.length) {
+                long[] newFree = new long[free.length << 1];
+                System.arraycopy(free, 0, newFree, 0, count);
+                mFree[sizeClass] = free = newFree;
+            }
+            free[count] = address;
+            mFreeCounts[sizeClass] = count + 1;
+            mAllocated -= classSize(sizeClass);
+        }
+
+        byte[] readKey(long address) {
+            ByteBuffer slab = mSlabs[mSlab(address)];
+            int offset = (int) address;
+            byte[] key = new byte[slab.getInt(offset)];
+            ByteBuffer dup = slab.duplicate();
+            dup.position(offset + ENTRY_HEADER);
+            dup.get(key);
+            return key;
+        }
+
+        Entry readEntry(long address) {
+            ByteBuffer slab = mSlabs[mSlab(address)];
+            int offset = (int) address;
+            byte[] key = new byte[slab.getInt(offset)];
+            byte[] value = new byte[slab.getInt(offset + 4)];
+            ByteBuffer dup = slab.duplicate();
+            dup.position(offset + ENTRY_HEADER);
+            dup.get(key);
+            dup.get(value);
+            return new Entry(key, value);
+        }
+
+        /**
+         * Compares the given key to the key of an entry, using unsigned byte
+         * comparison.
+         */
+        int compareKey(long address, byte[] key) {
+            ByteBuffer slab = mSlabs[mSlab(address)];
+            int offset = (int) address;
+            int entryLength = slab.getInt(offset);
+            offset += ENTRY_HEADER;
+
+            int length = Math.min(entryLength, key.length);
+            int i = 0;
+
+            // Compare eight bytes at a time, as unsigned big-endian longs.
+            for (; i + 8 <= length; i += 8) {
+                long a = readLong(key, i);
+                long b = slab.getLong(offset + i);
+                if (a != b) {
+                    return (a ^ Long.MIN_VALUE) < (b ^ Long.MIN_VALUE) ? -1 : 1;
+                }
+            }
+
+            for (; i < length; i++) {
+                int result = (key[i] & 0xff) - (slab.get(offset + i) & 0xff);
+                if (result != 0) {
+                    return result;
+                }
+            }
+
+            return key.length - entryLength;
+        }
+
+        private int addSlab(ByteBuffer slab) {
+            int index;
+            if (mFreeSlabCount > 0) {
+                index = mFreeSlabs[--mFreeSlabCount];
+            } else {
+                if (mSlabCount >= mSlabs.length) {
+                    ByteBuffer[] newSlabs = new ByteBuffer[mSlabs.length << 1];
+                    System.arraycopy(mSlabs, 0, newSlabs, 0, mSlabCount);
+                    mSlabs = newSlabs;
+                }
+                index = mSlabCount++;
+            }
+            mSlabs[index] = slab;
+            return index;
+        }
+
+        private static int mSlab(long address) {
+            return (int) (address >>> 32);
+        }
+
+        private static long readLong(byte[] b, int offset) {
+            return ((long) (b[offset    ] & 0xff) << 56) |
+                   ((long) (b[offset + 1] & 0xff) << 48) |
+                   ((long) (b[offset + 2] & 0xff) << 40) |
+                   ((long) (b[offset + 3] & 0xff) << 32) |
+                   ((long) (b[offset + 4] & 0xff) << 24) |
+                   ((long) (b[offset + 5] & 0xff) << 16) |
+                   ((long) (b[offset + 6] & 0xff) << 8 ) |
+                   ((long) (b[offset + 7] & 0xff)      );
+        }
+
+        /**
+         * Size classes are 8 byte multiples up to 1024 bytes, 128 byte
+         * multiples up to 16384 bytes, and powers of two beyond that.
+         */
+        private static int sizeClass(int size) {
+            if (size <= 1024) {
+                return (size + 7) >> 3;
+            }
+            if (size <= 16384) {
+                return 128 + ((size - 1024 + 127) >> 7);
+            }
+            return 248 + (32 - Integer.numberOfLeadingZeros(size - 1)) - 14;
+        }
+
+        private static int classSize(int sizeClass) {
+            if (sizeClass <= 128) {
+                return sizeClass << 3;
+            }
+            if (sizeClass <= 248) {
+                return 1024 + ((sizeClass - 128) << 7);
+            }
+            return 1 << (sizeClass - 248 + 14);
+        }
+    }
+}
@@ -20,6 +20,9 @@ package com.amazon.carbonado.repo.replicated;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.util.Collection;
+
+import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.PersistException;
 import com.amazon.carbonado.Query;
@@ -106,6 +109,10 @@ class ReplicatedStorage<S extends Storable> implements Storage<S> {
         return mReplicaStorage.query(filter);
     }
 
+    public Cursor<S> loadAll(Collection<? extends S> keys) throws FetchException {
+        return mReplicaStorage.loadAll(keys);
+    }
+
     /**
      * @since 1.2
      */
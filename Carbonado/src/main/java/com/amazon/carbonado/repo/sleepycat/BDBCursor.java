@@ -18,10 +18,14 @@
 
 package com.amazon.carbonado.repo.sleepycat;
 
+import com.amazon.carbonado.CorruptEncodingException;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.IsolationLevel;
 import com.amazon.carbonado.Storable;
 
+import com.amazon.carbonado.filter.Filter;
+
+import com.amazon.carbonado.raw.GenericStorableCodec;
 import com.amazon.carbonado.raw.RawCursor;
 import com.amazon.carbonado.raw.RawUtil;
 
@@ -35,8 +39,25 @@ import com.amazon.carbonado.txn.TransactionScope;
 abstract class BDBCursor<Txn, S extends Storable> extends RawCursor<S> {
     private static final byte[] NO_DATA = new byte[0];
 
+    /**
+     * Size of the buffer which subclasses use for reading multiple records
+     * at once, in bytes. Zero disables bulk reads.
+     */
+    protected static final int BULK_BUFFER_SIZE =
+        Integer.getInteger(BDBCursor.class.getName() + ".bulkBufferSize", 65536);
+
     private final TransactionScope<Txn> mScope;
     private final BDBStorage<Txn, S> mStorage;
+    private final boolean mBulk;
+
+    // Is true after moving past the last entry.
+    private boolean mAtEnd;
+
+    // Is true after the native cursor has been closed.
+    private boolean mReleased;
+
+    private GenericStorableCodec.PartialDecoder<S> mPartialDecoder;
+
     /**
      * @param scope
      * @param startBound specify the starting key for the cursor, or null if first
@@ -65,9 +86,27 @@ abstract class BDBCursor<Txn, S extends Storable> extends RawCursor<S> {
 
         mScope = scope;
         mStorage = storage;
+        mBulk = BULK_BUFFER_SIZE > 0 && !reverse && !scope.isForUpdate();
         scope.register(storage.getStorableType(), this);
     }
 
+    /**
+     * Returns true if this cursor is for a forward scan which doesn't acquire
+     * update locks. Such cursors may read ahead in bulk, and the native
+     * cursor position needn't be preserved after moving past the last entry.
+     */
+    protected boolean isBulk() {
+        return mBulk;
+    }
+
+    /**
+     * Returns true if this cursor has been closed, possibly by its
+     * transaction exiting.
+     */
+    boolean isReleased() {
+        return mReleased;
+    }
+
     void open() throws FetchException {
         try {
             cursor_open(mScope.getTxn(), mScope.getIsolationLevel());
@@ -87,6 +126,7 @@ abstract class BDBCursor<Txn, S extends Storable> extends RawCursor<S> {
 
     @Override
     protected void release() throws FetchException {
+        mReleased = true;
         try {
             cursor_close();
         } catch (Exception e) {
@@ -99,7 +139,9 @@ abstract class BDBCursor<Txn, S extends Storable> extends RawCursor<S> {
         if (searchKey_getPartial()) {
             throw new IllegalStateException();
         }
-        return searchKey_getDataCopy();
+        // Bulk scans check every key against the bounds, and the key isn't
+        // retained or modified, so don't copy it.
+        return mBulk ? searchKey_getData() : searchKey_getDataCopy();
     }
 
     @Override
@@ -125,6 +167,10 @@ abstract class BDBCursor<Txn, S extends Storable> extends RawCursor<S> {
     protected void enableKeyAndValue() throws FetchException {
         searchKey_setPartial(false);
         data_setPartial(false);
+        if (mBulk && mAtEnd) {
+            // Nothing to re-acquire.
+            return;
+        }
         if (!hasCurrent()) {
             throw new FetchException("Current key and value missing");
         }
@@ -143,8 +189,29 @@ abstract class BDBCursor<Txn, S extends Storable> extends RawCursor<S> {
         return mStorage.instantiate(primaryKey_getData(), data_getData());
     }
 
+    @Override
+    protected S prepareFilterInstance(Filter<?> filter) throws FetchException {
+        GenericStorableCodec.PartialDecoder<S> decoder = mStorage.getPartialDecoder(filter);
+        if (decoder == null) {
+            return null;
+        }
+        mPartialDecoder = decoder;
+        return mStorage.prepare();
+    }
+
+    @Override
+    protected boolean decodeCurrent(S instance) throws FetchException {
+        try {
+            return mPartialDecoder.decode(instance, primaryKey_getData(), data_getData());
+        } catch (CorruptEncodingException e) {
+            // Let full decoding report the problem.
+            return false;
+        }
+    }
+
     @Override
     protected boolean toFirst() throws FetchException {
+        mAtEnd = false;
         try {
             return cursor_getFirst();
         } catch (Exception e) {
@@ -154,6 +221,7 @@ abstract class BDBCursor<Txn, S extends Storable> extends RawCursor<S> {
 
     @Override
     protected boolean toFirst(byte[] key) throws FetchException {
+        mAtEnd = false;
         try {
             searchKey_setData(key);
             return cursor_getSearchKeyRange();
@@ -224,7 +292,9 @@ abstract class BDBCursor<Txn, S extends Storable> extends RawCursor<S> {
     @Override
     protected boolean toNext() throws FetchException {
         try {
-            return cursor_getNext();
+            boolean result = cursor_getNext();
+            mAtEnd = !result;
+            return result;
         } catch (Exception e) {
             throw mStorage.toFetchException(e);
         }
@@ -256,15 +326,33 @@ abstract class BDBCursor<Txn, S extends Storable> extends RawCursor<S> {
         return newData;
     }
 
+    /**
+     * If the given byte array range covers the whole array, it is simply
+     * returned. Otherwise, a new array is allocated and the data is copied.
+     */
+    protected static byte[] getData(byte[] data, int offset, int size) {
+        if (offset == 0) {
+            return getData(data, size);
+        }
+        return getDataCopy(data, offset, size);
+    }
+
     /**
      * Returns a copy of the data array.
      */
     protected static byte[] getDataCopy(byte[] data, int size) {
+        return getDataCopy(data, 0, size);
+    }
+
+    /**
+     * Returns a copy of the data array range.
+     */
+    protected static byte[] getDataCopy(byte[] data, int offset, int size) {
         if (data == null) {
             return NO_DATA;
         }
         byte[] newData = new byte[size];
-        System.arraycopy(data, 0, newData, 0, size);
+        System.arraycopy(data, offset, newData, 0, size);
         return newData;
     }
 
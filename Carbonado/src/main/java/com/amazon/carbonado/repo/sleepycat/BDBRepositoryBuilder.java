@@ -26,7 +26,9 @@ import java.io.PrintStream;
 
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -103,6 +105,7 @@ public final class BDBRepositoryBuilder extends AbstractRepositoryBuilder {
     private Integer mTxnMaxActive = 1000;
     private Boolean mDatabasesTransactional = null;
     private boolean mReverseSplitOff;
+    private boolean mKeyPrefixing;
     private Map<Class<?>, Integer> mDatabasePageSizes;
     private boolean mPrivate;
     private boolean mMultiversion;
@@ -125,6 +128,9 @@ public final class BDBRepositoryBuilder extends AbstractRepositoryBuilder {
     private Runnable mPostShutdownHook;
     private DatabaseHook mDatabaseHook;
     private Map<String, CompressionType> mCompressionMap;
+    private Map<String, byte[]> mDictionaryMap;
+    private Set<String> mLazyDecodingTypes;
+    private Set<String> mCompactKeyTypes;
 
     private BDBPanicHandler mPanicHandler;
     
@@ -150,7 +156,9 @@ public final class BDBRepositoryBuilder extends AbstractRepositoryBuilder {
         }
 
         if (mStorableCodecFactory == null) {
-            mStorableCodecFactory = new CompressedStorableCodecFactory(mCompressionMap);
+            mStorableCodecFactory =
+                new CompressedStorableCodecFactory
+                (mCompressionMap, mDictionaryMap, mLazyDecodingTypes, mCompactKeyTypes);
         }
 
         assertReady();
@@ -201,7 +209,9 @@ public final class BDBRepositoryBuilder extends AbstractRepositoryBuilder {
         }
 
         if (mStorableCodecFactory == null) {
-            mStorableCodecFactory = new CompressedStorableCodecFactory(mCompressionMap);
+            mStorableCodecFactory =
+                new CompressedStorableCodecFactory
+                (mCompressionMap, mDictionaryMap, mLazyDecodingTypes, mCompactKeyTypes);
         }
 
         mReadOnly = true;
@@ -706,6 +716,24 @@ public final class BDBRepositoryBuilder extends AbstractRepositoryBuilder {
         return mReverseSplitOff;
     }
 
+    /**
+     * Pass true to store the common prefix of keys in B-tree nodes just
+     * once, which reduces the size of nodes with long composite keys. This
+     * setting has no effect for BDB-C.
+     *
+     * @since 1.2.4
+     */
+    public void setKeyPrefixing(boolean prefixing) {
+        mKeyPrefixing = prefixing;
+    }
+
+    /**
+     * @since 1.2.4
+     */
+    public boolean isKeyPrefixing() {
+        return mKeyPrefixing;
+    }
+
     /**
      * Sets the desired page size for a given type. If not specified, the page
      * size applies to all types.
@@ -1055,8 +1083,8 @@ public final class BDBRepositoryBuilder extends AbstractRepositoryBuilder {
 
      * @param type Storable to compress. 
      * @param compressionType String representation of type of
-     * compression. Available options are "NONE" for no compression or "GZIP"
-     * for gzip compression
+     * compression. Available options are "NONE" for no compression, "GZIP"
+     * for gzip compression, or "LZ" for fast LZ compression
      */
     public void setCompressor(String type, String compressionType) {
         mStorableCodecFactory = null;
@@ -1074,7 +1102,7 @@ public final class BDBRepositoryBuilder extends AbstractRepositoryBuilder {
      * Return the compressor used for the given storable.
      * @param type Storable to compress
      * @return String representation of the type of compression used. Available options are "NONE"
-     * for no compression and "GZIP" for gzip compression.
+     * for no compression, "GZIP" for gzip compression, and "LZ" for fast LZ compression.
      */
     public String getCompressor(String type) {
         if (mCompressionMap == null) {
@@ -1083,6 +1111,114 @@ public final class BDBRepositoryBuilder extends AbstractRepositoryBuilder {
 
         return mCompressionMap.get(type).toString();
     }
+
+    /**
+     * Set a shared dictionary for LZ compression of the given class,
+     * overriding a custom StorableCodecFactory. The dictionary is recorded
+     * with the storable layout, and so changing it later doesn't affect the
+     * readability of existing data.
+     *
+     * @param type Storable to compress
+     * @param dictionary dictionary to prime compression with, or null for none
+     * @see com.amazon.carbonado.raw.LZCompressor#trainDictionary
+     * @since 1.2.4
+     */
+    public void setCompressionDictionary(String type, byte[] dictionary) {
+        mStorableCodecFactory = null;
+        if (mDictionaryMap == null) {
+            mDictionaryMap = new HashMap<String, byte[]>();
+        }
+        if (dictionary == null) {
+            mDictionaryMap.remove(type);
+        } else {
+            mDictionaryMap.put(type, dictionary.clone());
+        }
+    }
+
+    /**
+     * Return the LZ compression dictionary used for the given storable, or
+     * null if none.
+     *
+     * @since 1.2.4
+     */
+    public byte[] getCompressionDictionary(String type) {
+        if (mDictionaryMap == null) {
+            return null;
+        }
+        byte[] dictionary = mDictionaryMap.get(type);
+        return dictionary == null ? null : dictionary.clone();
+    }
+
+    /**
+     * Set whether data properties of the given class are decoded lazily,
+     * overriding a custom StorableCodecFactory. Lazily decoded storables
+     * retain their encoded data, and properties are decoded when first
+     * accessed. This benefits filtered scans of storables with many
+     * properties, since rejected storables are never fully decoded. Decoding
+     * errors are deferred until the affected property is accessed.
+     *
+     * @param type Storable to decode lazily
+     * @param lazy true to decode lazily, false to decode when loaded (default)
+     * @since 1.2.4
+     */
+    public void setLazyDecoding(String type, boolean lazy) {
+        mStorableCodecFactory = null;
+        if (mLazyDecodingTypes == null) {
+            mLazyDecodingTypes = new HashSet<String>();
+        }
+        if (lazy) {
+            mLazyDecodingTypes.add(type);
+        } else {
+            mLazyDecodingTypes.remove(type);
+        }
+    }
+
+    /**
+     * Returns true if data properties of the given class are decoded lazily.
+     *
+     * @since 1.2.4
+     */
+    public boolean isLazyDecoding(String type) {
+        return mLazyDecodingTypes != null && mLazyDecodingTypes.contains(type);
+    }
+
+    /**
+     * Set whether int and long key properties of the given class are encoded
+     * in a compact variable length form, overriding a custom
+     * StorableCodecFactory. Compact keys of small values are shorter, which
+     * improves B-tree fan-out and cache efficiency. Indexes of the class use
+     * the same key encoding.
+     *
+     * <p>The key encoding of a non-empty database cannot change, and so the
+     * existing encoding remains in effect until the database is emptied, by
+     * deleting all storables and reloading them.
+     *
+     * @param type Storable to encode keys of
+     * @param compact true for compact keys, false for standard fixed length
+     * keys (default)
+     * @since 1.2.4
+     */
+    public void setCompactKeys(String type, boolean compact) {
+        mStorableCodecFactory = null;
+        if (mCompactKeyTypes == null) {
+            mCompactKeyTypes = new HashSet<String>();
+        }
+        if (compact) {
+            mCompactKeyTypes.add(type);
+        } else {
+            mCompactKeyTypes.remove(type);
+        }
+    }
+
+    /**
+     * Returns true if int and long key properties of the given class are
+     * encoded in a compact form.
+     *
+     * @since 1.2.4
+     */
+    public boolean isCompactKeys(String type) {
+        return mCompactKeyTypes != null && mCompactKeyTypes.contains(type);
+    }
     
     /**
      * Set the handler to call if the database panics.
@@ -18,9 +18,15 @@
 
 package com.amazon.carbonado.repo.sleepycat;
 
+import java.io.IOException;
+
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.cojen.classfile.TypeDesc;
 
@@ -45,6 +51,7 @@ import com.amazon.carbonado.UniqueConstraintException;
 
 import com.amazon.carbonado.capability.IndexInfo;
 
+import com.amazon.carbonado.cursor.AbstractCursor;
 import com.amazon.carbonado.cursor.ControllerCursor;
 import com.amazon.carbonado.cursor.EmptyCursor;
 import com.amazon.carbonado.cursor.MergeSortBuffer;
@@ -73,8 +80,11 @@ import com.amazon.carbonado.qe.QueryExecutorFactory;
 import com.amazon.carbonado.qe.StorableIndexSet;
 import com.amazon.carbonado.qe.StorageAccess;
 
+import com.amazon.carbonado.raw.GenericStorableCodec;
+import com.amazon.carbonado.raw.GenericStorableCodecFactory;
 import com.amazon.carbonado.raw.StorableCodec;
 import com.amazon.carbonado.raw.StorableCodecFactory;
+import com.amazon.carbonado.raw.RawSliceSupport;
 import com.amazon.carbonado.raw.RawSupport;
 import com.amazon.carbonado.raw.RawUtil;
 
@@ -86,6 +96,8 @@ import com.amazon.carbonado.spi.TriggerManager;
 
 import com.amazon.carbonado.txn.TransactionScope;
 
+import com.amazon.carbonado.util.Comparators;
+
 /**
  *
  * @author Brian S O'Neill
@@ -121,6 +133,9 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
     /** Reference to primary database. */
     private Object mPrimaryDatabase;
 
+    /** Key encoding in use, which is null if standard. */
+    private String mKeyEncoding;
+
     /** Reference to query engine, defined later in this class */
     private QueryEngine<S> mQueryEngine;
 
@@ -176,6 +191,76 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
         return mQueryEngine.query(filter);
     }
 
+    /**
+     * Keys are sorted and then loaded by moving a single cursor forward. When
+     * the next key is close to the current cursor position, the cursor steps
+     * to it, which is cheaper than searching from the root. Otherwise, the
+     * cursor searches for the key. Instances are loaded as the returned
+     * cursor is iterated.
+     *
+     * @since 1.2.4
+     */
+    public Cursor<S> loadAll(Collection<? extends S> keys) throws FetchException {
+        if (keys == null) {
+            throw new IllegalArgumentException("Keys collection is null");
+        }
+
+        StorableIndex<S> pkIndex = mPrimaryKeyIndex;
+        StorableCodec<S> codec = mStorableCodec;
+
+        List<byte[]> encodedKeys = new ArrayList<byte[]>(keys.size());
+        for (S key : keys) {
+            for (int i=pkIndex.getPropertyCount(); --i>=0; ) {
+                if (key.isPropertyUninitialized(pkIndex.getProperty(i).getName())) {
+                    throw new IllegalStateException("Primary key not fully specified");
+                }
+            }
+            encodedKeys.add(codec.encodePrimaryKey(key));
+        }
+
+        if (encodedKeys.isEmpty()) {
+            return EmptyCursor.the();
+        }
+
+        Comparator<byte[]> comparator = Comparators.arrayComparator(byte[].class, true);
+        Collections.sort(encodedKeys, comparator);
+
+        // Remove duplicate keys.
+        int size = 1;
+        for (int i=1; i<encodedKeys.size(); i++) {
+            byte[] key = encodedKeys.get(i);
+            if (comparator.compare(encodedKeys.get(size - 1), key) != 0) {
+                encodedKeys.set(size++, key);
+            }
+        }
+        encodedKeys = encodedKeys.subList(0, size);
+
+        TransactionScope<Txn> scope = localTransactionScope();
+
+        // Lock out shutdown task.
+        scope.getLock().lock();
+        try {
+            BDBCursor<Txn, S> cursor;
+            try {
+                cursor = openCursor
+                    (scope,
+                     encodedKeys.get(0), true,
+                     encodedKeys.get(encodedKeys.size() - 1), true,
+                     codec.getPrimaryKeyPrefixLength(),
+                     false,
+                     getPrimaryDatabase());
+
+                cursor.open();
+            } catch (Exception e) {
+                throw toFetchException(e);
+            }
+
+            return new LoadAllCursor(scope, cursor, encodedKeys, comparator);
+        } finally {
+            scope.getLock().unlock();
+        }
+    }
+
     /**
      * @since 1.2
      */
@@ -473,7 +558,9 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
     {
         StorableInfo<S> info = StorableIntrospector.examine(getStorableType());
         StorableCodecFactory codecFactory = mRepository.getStorableCodecFactory();
-        final Layout layout = getLayout(readOnly, codecFactory);
+        LayoutFactory layoutFactory = getLayoutFactory();
+        LayoutOptions desiredOptions = codecFactory.getLayoutOptions(getStorableType());
+        String keyEncoding = desiredOptions == null ? null : desiredOptions.getKeyEncoding();
 
         // Open primary database.
         Object primaryDatabase;
@@ -493,7 +580,7 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
             scope.getLock().lock();
             try {
                 primaryDatabase = env_openPrimaryDatabase(openTxn, databaseName);
-                primaryInfo = registerPrimaryDatabase(readOnly, layout);
+                primaryInfo = registerPrimaryDatabase(readOnly, layoutFactory != null);
                 isPrimaryEmpty = db_isEmpty(null, primaryDatabase, scope.isForUpdate());
             } finally {
                 scope.getLock().unlock();
@@ -516,6 +603,21 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
             desiredPkIndex = indexSet.findPrimaryKeyIndex(info);
         }
 
+        if (!isPrimaryEmpty && primaryInfo != null) {
+            // Key encoding of existing entries is kept, and so a new encoding
+            // is applied only after the database is emptied.
+            try {
+                keyEncoding = getKeyEncoding(primaryInfo);
+            } catch (CorruptEncodingException e) {
+                try {
+                    db_close(primaryDatabase);
+                } catch (Exception e2) {
+                    // Don't care.
+                }
+                throw e;
+            }
+        }
+
         StorableIndex<S> pkIndex;
 
         if (!isPrimaryEmpty && primaryInfo != null
@@ -539,10 +641,12 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
 
             if (primaryInfo != null) {
                 if (!pkIndex.getNameDescriptor().equals(primaryInfo.getIndexNameDescriptor()) ||
-                    !pkIndex.getTypeDescriptor().equals(primaryInfo.getIndexTypeDescriptor())) {
+                    !pkIndex.getTypeDescriptor().equals(primaryInfo.getIndexTypeDescriptor()) ||
+                    !keyEncodingsEqual(keyEncoding, getKeyEncoding(primaryInfo))) {
 
                     primaryInfo.setIndexNameDescriptor(pkIndex.getNameDescriptor());
                     primaryInfo.setIndexTypeDescriptor(pkIndex.getTypeDescriptor());
+                    setKeyEncoding(primaryInfo, keyEncoding);
 
                     if (!readOnly) {
                         Repository repo = mRepository.getRootRepository();
@@ -581,10 +685,36 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
         // Indicate that primary key is clustered, which can affect query analysis.
         pkIndex = pkIndex.clustered(true);
 
+        mKeyEncoding = keyEncoding;
+        LayoutOptions options = withKeyEncoding(desiredOptions, keyEncoding);
+
+        Layout layout = null;
+        if (layoutFactory != null) {
+            try {
+                layout = layoutFactory.layoutFor(readOnly, getStorableType(), options);
+            } catch (RepositoryException e) {
+                try {
+                    db_close(primaryDatabase);
+                } catch (Exception e2) {
+                    // Don't care.
+                }
+                throw e;
+            }
+        }
+
         try {
-            mStorableCodec = codecFactory
-                .createCodec(getStorableType(), pkIndex, mRepository.isMaster(), layout,
-                             mRawSupport);
+            if (layout == null && options != desiredOptions
+                && codecFactory instanceof GenericStorableCodecFactory)
+            {
+                // Without a layout, options must be supplied explicitly.
+                mStorableCodec = ((GenericStorableCodecFactory) codecFactory)
+                    .createCodec(getStorableType(), pkIndex, mRepository.isMaster(), layout,
+                                 mRawSupport, options);
+            } else {
+                mStorableCodec = codecFactory
+                    .createCodec(getStorableType(), pkIndex, mRepository.isMaster(), layout,
+                                 mRawSupport);
+            }
         } catch (SupportException e) {
             // We've opened the database prematurely, since type isn't
             // supported by encoding strategy. Close it down and unregister.
@@ -616,6 +746,19 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
         return mStorableCodec.instantiate(key, value);
     }
 
+    /**
+     * Returns a decoder for evaluating the given filter against encoded
+     * records, or null if not supported.
+     */
+    @SuppressWarnings("unchecked")
+    GenericStorableCodec.PartialDecoder<S> getPartialDecoder(Filter<?> filter) {
+        StorableCodec<S> codec = mStorableCodec;
+        if (codec instanceof GenericStorableCodec && filter.getStorableType() == mType) {
+            return ((GenericStorableCodec<S>) codec).getPartialDecoder((Filter<S>) filter);
+        }
+        return null;
+    }
+
     protected CompactionCapability.Result<S> compact() throws RepositoryException {
         byte[] start = mStorableCodec.encodePrimaryKeyPrefix();
         if (start != null && start.length == 0) {
@@ -646,26 +789,35 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
     protected abstract boolean db_exists(Txn txn, byte[] key, boolean rmw) throws Exception;
 
     /**
+     * Key and value arrays passed to the db methods might be reused after the
+     * method returns, and so they must be copied if retained.
+     *
      * @return NOT_FOUND, any byte[], or null (if empty result)
      */
-    protected abstract byte[] db_get(Txn txn, byte[] key, boolean rmw) throws Exception;
+    protected abstract byte[] db_get(Txn txn, byte[] key, int keyOffset, int keyLength,
+                                     boolean rmw)
+        throws Exception;
 
     /**
      * @return SUCCESS, KEY_EXIST, or NOT_FOUND otherwise
      */
-    protected abstract Object db_putNoOverwrite(Txn txn, byte[] key, byte[] value)
+    protected abstract Object db_putNoOverwrite(Txn txn,
+                                                byte[] key, int keyOffset, int keyLength,
+                                                byte[] value, int valueOffset, int valueLength)
         throws Exception;
 
     /**
      * @return true if successful
      */
-    protected abstract boolean db_put(Txn txn, byte[] key, byte[] value)
+    protected abstract boolean db_put(Txn txn,
+                                      byte[] key, int keyOffset, int keyLength,
+                                      byte[] value, int valueOffset, int valueLength)
         throws Exception;
 
     /**
      * @return true if successful
      */
-    protected abstract boolean db_delete(Txn txn, byte[] key)
+    protected abstract boolean db_delete(Txn txn, byte[] key, int keyOffset, int keyLength)
         throws Exception;
 
     protected abstract void db_truncate(Txn txn) throws Exception;
@@ -820,25 +972,104 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
         }
     }
 
+    /**
+     * Must only be called after storage is opened.
+     */
     Layout getLayout(boolean readOnly, StorableCodecFactory codecFactory)
         throws RepositoryException
     {
+        LayoutFactory factory = getLayoutFactory();
+        if (factory == null) {
+            return null;
+        }
+        Class<S> type = getStorableType();
+        LayoutOptions options = withKeyEncoding(codecFactory.getLayoutOptions(type), mKeyEncoding);
+        return factory.layoutFor(readOnly, type, options);
+    }
+
+    /**
+     * @return null if generations aren't supported
+     */
+    private LayoutFactory getLayoutFactory() throws RepositoryException {
         if (Unevolvable.class.isAssignableFrom(getStorableType())) {
             // Don't record generation for storables marked as unevolvable.
             return null;
         }
 
-        LayoutFactory factory;
         try {
-            factory = mRepository.getLayoutFactory();
+            return mRepository.getLayoutFactory();
         } catch (SupportException e) {
             // Metadata repository does not support layout storables, so it
             // cannot support generations.
             return null;
         }
+    }
 
-        Class<S> type = getStorableType();
-        return factory.layoutFor(readOnly, type, codecFactory.getLayoutOptions(type));
+    /**
+     * Returns the given options, or a copy with a different key encoding.
+     *
+     * @param options optional layout options
+     * @param keyEncoding null if standard
+     */
+    private static LayoutOptions withKeyEncoding(LayoutOptions options, String keyEncoding) {
+        if (keyEncodingsEqual(keyEncoding, options == null ? null : options.getKeyEncoding())) {
+            return options;
+        }
+        LayoutOptions copy = new LayoutOptions();
+        if (options != null) {
+            try {
+                copy.decode(options.encode());
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+        copy.setKeyEncoding(keyEncoding);
+        return copy;
+    }
+
+    /**
+     * Returns the key encoding of existing entries, which is recorded in the
+     * extra data of the database info.
+     *
+     * @return null if standard
+     */
+    private static String getKeyEncoding(StoredDatabaseInfo info)
+        throws CorruptEncodingException
+    {
+        byte[] extra = info.getExtraData();
+        if (extra == null) {
+            return null;
+        }
+        LayoutOptions options = new LayoutOptions();
+        try {
+            options.decode(extra);
+        } catch (IOException e) {
+            throw new CorruptEncodingException(e);
+        }
+        return options.getKeyEncoding();
+    }
+
+    /**
+     * @param keyEncoding null if standard
+     */
+    private static void setKeyEncoding(StoredDatabaseInfo info, String keyEncoding)
+        throws CorruptEncodingException
+    {
+        LayoutOptions options = new LayoutOptions();
+        byte[] extra = info.getExtraData();
+        if (extra != null) {
+            try {
+                options.decode(extra);
+            } catch (IOException e) {
+                throw new CorruptEncodingException(e);
+            }
+        }
+        options.setKeyEncoding(keyEncoding);
+        info.setExtraData(options.encode());
+    }
+
+    private static boolean keyEncodingsEqual(String a, String b) {
+        return a == null ? b == null : a.equals(b);
     }
 
     /**
@@ -847,7 +1078,7 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
      *
      * @return null if type cannot be registered
      */
-    private StoredDatabaseInfo registerPrimaryDatabase(boolean readOnly, Layout layout)
+    private StoredDatabaseInfo registerPrimaryDatabase(boolean readOnly, boolean evolvable)
         throws Exception
     {
         if (getStorableType() == StoredDatabaseInfo.class) {
@@ -879,7 +1110,7 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
                 txn.setForUpdate(true);
                 try {
                     if (!info.tryLoad()) {
-                        if (layout == null) {
+                        if (!evolvable) {
                             info.setEvolutionStrategy(StoredDatabaseInfo.EVOLUTION_NONE);
                         } else {
                             info.setEvolutionStrategy(StoredDatabaseInfo.EVOLUTION_STANDARD);
@@ -1061,10 +1292,139 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
         buf.append(']');
     }
 
+    /**
+     * Loads a sorted list of keys with one cursor, stepping forward when the
+     * next key is near the current position and searching otherwise.
+     */
+    private class LoadAllCursor extends AbstractCursor<S> {
+        // Maximum entries to step over before searching from the root instead.
+        private static final int MAX_STEPS = 8;
+
+        private final TransactionScope<Txn> mScope;
+        private final Comparator<byte[]> mComparator;
+
+        private BDBCursor<Txn, S> mCursor;
+        private List<byte[]> mKeys;
+        private int mPos;
+
+        // Key at the cursor position, or null if not positioned.
+        private byte[] mCurrentKey;
+
+        private S mNext;
+
+        LoadAllCursor(TransactionScope<Txn> scope, BDBCursor<Txn, S> cursor,
+                      List<byte[]> sortedKeys, Comparator<byte[]> comparator)
+        {
+            mScope = scope;
+            mCursor = cursor;
+            mKeys = sortedKeys;
+            mComparator = comparator;
+        }
+
+        public boolean hasNext() throws FetchException {
+            if (mNext != null) {
+                return true;
+            }
+            if (mCursor == null) {
+                return false;
+            }
+
+            mScope.getLock().lock();
+            try {
+                if (mCursor.isReleased()) {
+                    // Closed by transaction exit.
+                    close();
+                    return false;
+                }
+
+                try {
+                    while (mPos < mKeys.size()) {
+                        byte[] key = mKeys.get(mPos++);
+                        int result = seek(key);
+                        if (result < 0) {
+                            break;
+                        }
+                        if (result == 0) {
+                            mNext = mCursor.instantiateCurrent();
+                            return true;
+                        }
+                    }
+                } catch (FetchException e) {
+                    try {
+                        close();
+                    } catch (FetchException e2) {
+                        // Ignore.
+                    }
+                    throw e;
+                }
+
+                close();
+                return false;
+            } finally {
+                mScope.getLock().unlock();
+            }
+        }
+
+        public S next() throws FetchException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            S next = mNext;
+            mNext = null;
+            return next;
+        }
+
+        public void close() throws FetchException {
+            mNext = null;
+            mKeys = null;
+            BDBCursor<Txn, S> cursor = mCursor;
+            if (cursor != null) {
+                mCursor = null;
+                cursor.close();
+            }
+        }
+
+        /**
+         * Moves the cursor to the given key or the first entry after it.
+         *
+         * @return 0 if key was found, 1 if not found, or -1 if no entries
+         * remain
+         */
+        private int seek(byte[] key) throws FetchException {
+            byte[] current = mCurrentKey;
+
+            if (current != null) {
+                int c = mComparator.compare(current, key);
+                for (int i = 0; c < 0 && i < MAX_STEPS; i++) {
+                    if (!mCursor.toNext()) {
+                        mCurrentKey = null;
+                        return -1;
+                    }
+                    current = mCursor.getCurrentKey();
+                    c = mComparator.compare(current, key);
+                }
+                if (c >= 0) {
+                    mCurrentKey = current.clone();
+                    return c == 0 ? 0 : 1;
+                }
+            }
+
+            // Too far ahead or not positioned, so search from the root.
+            if (!mCursor.toFirst(key.clone())) {
+                mCurrentKey = null;
+                return -1;
+            }
+
+            current = mCursor.getCurrentKey();
+            mCurrentKey = current.clone();
+            return mComparator.compare(current, key) == 0 ? 0 : 1;
+        }
+    }
+
     // Note: BDBStorage could just implement the RawSupport interface, but
     // then these hidden methods would be public. A simple cast of Storage to
     // RawSupport would expose them.
-    private class Support implements RawSupport<S> {
+    private class Support implements RawSliceSupport<S> {
         private final BDBRepository<Txn> mRepository;
         private final BDBStorage<Txn, S> mStorage;
         private Map<String, ? extends StorableProperty<S>> mProperties;
@@ -1090,13 +1450,20 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
         }
 
         public byte[] tryLoad(S storable, byte[] key) throws FetchException {
+            return tryLoad(storable, key, 0, key.length);
+        }
+
+        public byte[] tryLoad(S storable, byte[] key, int keyOffset, int keyLength)
+            throws FetchException
+        {
             TransactionScope<Txn> scope = mStorage.localTransactionScope();
             byte[] result;
             // Lock out shutdown task.
             scope.getLock().lock();
             try {
                 try {
-                    result = mStorage.db_get(scope.getTxn(), key, scope.isForUpdate());
+                    result = mStorage.db_get(scope.getTxn(), key, keyOffset, keyLength,
+                                             scope.isForUpdate());
                 } catch (Throwable e) {
                     throw mStorage.toFetchException(e);
                 }
@@ -1113,13 +1480,23 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
         }
 
         public boolean tryInsert(S storable, byte[] key, byte[] value) throws PersistException {
+            return tryInsert(storable, key, 0, key.length, value, 0, value.length);
+        }
+
+        public boolean tryInsert(S storable,
+                                 byte[] key, int keyOffset, int keyLength,
+                                 byte[] value, int valueOffset, int valueLength)
+            throws PersistException
+        {
             TransactionScope<Txn> scope = mStorage.localTransactionScope();
             Object result;
             // Lock out shutdown task.
             scope.getLock().lock();
             try {
                 try {
-                    result = mStorage.db_putNoOverwrite(scope.getTxn(), key, value);
+                    result = mStorage.db_putNoOverwrite(scope.getTxn(),
+                                                        key, keyOffset, keyLength,
+                                                        value, valueOffset, valueLength);
                 } catch (Throwable e) {
                     throw mStorage.toPersistException(e);
                 }
@@ -1136,12 +1513,23 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
         }
 
         public void store(S storable, byte[] key, byte[] value) throws PersistException {
+            store(storable, key, 0, key.length, value, 0, value.length);
+        }
+
+        public void store(S storable,
+                          byte[] key, int keyOffset, int keyLength,
+                          byte[] value, int valueOffset, int valueLength)
+            throws PersistException
+        {
             TransactionScope<Txn> scope = mStorage.localTransactionScope();
             // Lock out shutdown task.
             scope.getLock().lock();
             try {
                 try {
-                    if (!mStorage.db_put(scope.getTxn(), key, value)) {
+                    if (!mStorage.db_put(scope.getTxn(),
+                                         key, keyOffset, keyLength,
+                                         value, valueOffset, valueLength))
+                    {
                         throw new PersistException("Failed");
                     }
                 } catch (Throwable e) {
@@ -1153,12 +1541,18 @@ abstract class BDBStorage<Txn, S extends Storable> implements Storage<S>, Storag
         }
 
         public boolean tryDelete(S storable, byte[] key) throws PersistException {
+            return tryDelete(storable, key, 0, key.length);
+        }
+
+        public boolean tryDelete(S storable, byte[] key, int keyOffset, int keyLength)
+            throws PersistException
+        {
             TransactionScope<Txn> scope = mStorage.localTransactionScope();
             // Lock out shutdown task.
             scope.getLock().lock();
             try {
                 try {
-                    return mStorage.db_delete(scope.getTxn(), key);
+                    return mStorage.db_delete(scope.getTxn(), key, keyOffset, keyLength);
                 } catch (Throwable e) {
                     throw mStorage.toPersistException(e);
                 }
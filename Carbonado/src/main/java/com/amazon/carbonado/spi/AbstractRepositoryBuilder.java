@@ -29,6 +29,7 @@ import com.amazon.carbonado.ConfigurationException;
 import com.amazon.carbonado.Repository;
 import com.amazon.carbonado.RepositoryBuilder;
 import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
 import com.amazon.carbonado.TriggerFactory;
 
 /**
@@ -40,12 +41,118 @@ import com.amazon.carbonado.TriggerFactory;
 public abstract class AbstractRepositoryBuilder implements RepositoryBuilder {
     private final Set<TriggerFactory> mTriggerFactories;
 
+    private final Set<Class<? extends Storable>> mWarmUpTypes;
+    private final Set<String> mWarmUpPackages;
+    private int mWarmUpThreads;
+
     protected AbstractRepositoryBuilder() {
         mTriggerFactories = new LinkedHashSet<TriggerFactory>(2);
+        mWarmUpTypes = new LinkedHashSet<Class<? extends Storable>>();
+        mWarmUpPackages = new LinkedHashSet<String>();
     }
 
+    /**
+     * Builds the repository, and then prepares the storages for all warm up
+     * types before returning it. Failure to prepare a storage is logged, and
+     * it doesn't cause the build to fail.
+     */
     public Repository build() throws ConfigurationException, RepositoryException {
-        return build(new AtomicReference<Repository>());
+        Repository repo = build(new AtomicReference<Repository>());
+
+        Collection<Class<? extends Storable>> types;
+        Collection<String> packages;
+        synchronized (mWarmUpTypes) {
+            types = new ArrayList<Class<? extends Storable>>(mWarmUpTypes);
+            packages = new ArrayList<String>(mWarmUpPackages);
+        }
+
+        if (!types.isEmpty() || !packages.isEmpty()) {
+            StorageWarmUp.warmUp(repo, types, packages, getWarmUpThreads());
+        }
+
+        return repo;
+    }
+
+    /**
+     * Adds a storable type whose storage is prepared when the repository is
+     * built. Storages are otherwise prepared when first requested, which can
+     * take a while because of layout lookups, class generation and index
+     * checks.
+     *
+     * @return true if type was added, false if already added
+     * @since 1.2.4
+     */
+    public boolean addWarmUpType(Class<? extends Storable> type) {
+        if (type == null) {
+            throw new IllegalArgumentException();
+        }
+        synchronized (mWarmUpTypes) {
+            return mWarmUpTypes.add(type);
+        }
+    }
+
+    /**
+     * Adds a package which is scanned for storable types when the repository
+     * is built, and whose storages are then prepared. Subpackages are not
+     * scanned. Storable types found which cannot be stored, like common
+     * super-interfaces, are skipped.
+     *
+     * @param packageName fully qualified package name
+     * @return true if package was added, false if already added
+     * @since 1.2.4
+     */
+    public boolean addWarmUpPackage(String packageName) {
+        if (packageName == null) {
+            throw new IllegalArgumentException();
+        }
+        synchronized (mWarmUpTypes) {
+            return mWarmUpPackages.add(packageName);
+        }
+    }
+
+    /**
+     * Returns the storable types whose storages are prepared when the
+     * repository is built.
+     *
+     * @since 1.2.4
+     */
+    public Set<Class<? extends Storable>> getWarmUpTypes() {
+        synchronized (mWarmUpTypes) {
+            return new LinkedHashSet<Class<? extends Storable>>(mWarmUpTypes);
+        }
+    }
+
+    /**
+     * Returns the packages which are scanned for storable types when the
+     * repository is built.
+     *
+     * @since 1.2.4
+     */
+    public Set<String> getWarmUpPackages() {
+        synchronized (mWarmUpTypes) {
+            return new LinkedHashSet<String>(mWarmUpPackages);
+        }
+    }
+
+    /**
+     * Set the maximum amount of threads which prepare storages in parallel
+     * when the repository is built. By default, one thread per available
+     * processor is used.
+     *
+     * @since 1.2.4
+     */
+    public void setWarmUpThreads(int threads) {
+        mWarmUpThreads = threads;
+    }
+
+    /**
+     * Returns the maximum amount of threads which prepare storages in
+     * parallel, which is zero if the default is used.
+     *
+     * @since 1.2.4
+     */
+    public int getWarmUpThreads() {
+        return mWarmUpThreads;
     }
 
     public boolean addTriggerFactory(TriggerFactory factory) {
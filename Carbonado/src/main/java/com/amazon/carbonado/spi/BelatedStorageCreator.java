@@ -18,8 +18,11 @@
 
 package com.amazon.carbonado.spi;
 
+import java.util.Collection;
+
 import org.apache.commons.logging.Log;
 
+import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.Query;
 import com.amazon.carbonado.Repository;
 import com.amazon.carbonado.RepositoryException;
@@ -119,6 +122,10 @@ public class BelatedStorageCreator<S extends Storable>
             throw error();
         }
 
+        public Cursor<S> loadAll(Collection<? extends S> keys) {
+            throw error();
+        }
+
         public Repository getRepository() {
             return mRepo;
         }
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.spi;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.net.JarURLConnection;
+import java.net.URL;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazon.carbonado.MalformedTypeException;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+
+/**
+ * Prepares storages of a newly built repository in parallel, such that the
+ * first request for each storage doesn't pay for layout lookup, class
+ * generation and index checks.
+ *
+ * @author Brian S O'Neill
+ * @see AbstractRepositoryBuilder#addWarmUpType
+ */
+class StorageWarmUp {
+    private static final Log cLog = LogFactory.getLog(StorageWarmUp.class);
+
+    /**
+     * @param repo repository to warm up
+     * @param types storable types to prepare
+     * @param packages names of packages to scan for storable types
+     * @param threads maximum amount of threads to use
+     */
+    static void warmUp(Repository repo,
+                       Collection<Class<? extends Storable>> types,
+                       Collection<String> packages,
+                       int threads)
+    {
+        final long start = System.nanoTime();
+
+        Set<Class<? extends Storable>> explicit =
+            new LinkedHashSet<Class<? extends Storable>>(types);
+        Set<Class<? extends Storable>> scanned =
+            new LinkedHashSet<Class<? extends Storable>>();
+
+        if (!packages.isEmpty()) {
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            if (loader == null) {
+                loader = StorageWarmUp.class.getClassLoader();
+            }
+            for (String packageName : packages) {
+                try {
+                    scan(loader, packageName, scanned);
+                } catch (IOException e) {
+                    cLog.warn("Unable to scan package for storable types: " + packageName, e);
+                }
+            }
+            scanned.removeAll(explicit);
+        }
+
+        int total = explicit.size() + scanned.size();
+        if (total == 0) {
+            return;
+        }
+
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(total);
+        for (Class<? extends Storable> type : explicit) {
+            tasks.add(new Task(repo, type, false));
+        }
+        for (Class<? extends Storable> type : scanned) {
+            tasks.add(new Task(repo, type, true));
+        }
+
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        threads = Math.min(threads, total);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new TFactory());
+        try {
+            executor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cLog.warn("Interrupted while warming up repository: " + repo.getName());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (cLog.isInfoEnabled()) {
+            cLog.info("Warmed up " + total + " storages of repository \"" + repo.getName() +
+                      "\" in " + millis(start) + " ms using " + threads + " threads");
+        }
+    }
+
+    /**
+     * Adds the storable types found in the given package, excluding
+     * subpackages.
+     */
+    static void scan(ClassLoader loader, String packageName,
+                     Collection<Class<? extends Storable>> types)
+        throws IOException
+    {
+        String path = packageName.replace('.', '/');
+        Set<String> classNames = new LinkedHashSet<String>();
+
+        Enumeration<URL> urls = loader.getResources(path);
+        while (urls.hasMoreElements()) {
+            URL url = urls.nextElement();
+            String protocol = url.getProtocol();
+            if ("file".equals(protocol)) {
+                File dir;
+                try {
+                    dir = new File(url.toURI());
+                } catch (Exception e) {
+                    dir = new File(url.getPath());
+                }
+                String[] names = dir.list();
+                if (names != null) {
+                    for (String name : names) {
+                        if (name.endsWith(".class")) {
+                            classNames.add(packageName + '.' +
+                                           name.substring(0, name.length() - 6));
+                        }
+                    }
+                }
+            } else if ("jar".equals(protocol)) {
+                JarURLConnection conn = (JarURLConnection) url.openConnection();
+                conn.setUseCaches(false);
+                JarFile jar = conn.getJarFile();
+                try {
+                    String prefix = path + '/';
+                    Enumeration<JarEntry> entries = jar.entries();
+                    while (entries.hasMoreElements()) {
+                        String name = entries.nextElement().getName();
+                        if (name.startsWith(prefix) && name.endsWith(".class")
+                            && name.indexOf('/', prefix.length()) < 0)
+                        {
+                            classNames.add(name.substring(0, name.length() - 6)
+                                           .replace('/', '.'));
+                        }
+                    }
+                } finally {
+                    jar.close();
+                }
+            }
+        }
+
+        for (String className : classNames) {
+            Class<?> clazz;
+            try {
+                clazz = Class.forName(className, false, loader);
+            } catch (ClassNotFoundException e) {
+                continue;
+            } catch (LinkageError e) {
+                continue;
+            }
+            if (clazz != Storable.class && Storable.class.isAssignableFrom(clazz)) {
+                types.add(clazz.asSubclass(Storable.class));
+            }
+        }
+    }
+
+    static long millis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    private static class Task implements Callable<Object> {
+        private final Repository mRepo;
+        private final Class<? extends Storable> mType;
+        private final boolean mScanned;
+
+        Task(Repository repo, Class<? extends Storable> type, boolean scanned) {
+            mRepo = repo;
+            mType = type;
+            mScanned = scanned;
+        }
+
+        public Object call() {
+            long start = System.nanoTime();
+            try {
+                Storage<? extends Storable> storage = mRepo.storageFor(mType);
+                // Instantiate once, to ensure that generated classes are fully linked.
+                storage.prepare();
+            } catch (MalformedTypeException e) {
+                if (mScanned) {
+                    // Scanned type isn't meant to be stored, like a common
+                    // super-interface without a primary key.
+                    cLog.debug("Skipping warm up of " + mType.getName(), e);
+                } else {
+                    cLog.warn("Unable to warm up storage for " + mType.getName(), e);
+                }
+                return null;
+            } catch (Throwable e) {
+                cLog.warn("Unable to warm up storage for " + mType.getName(), e);
+                return null;
+            }
+            if (cLog.isInfoEnabled()) {
+                cLog.info("Warmed up storage for " + mType.getName() +
+                          " in " + millis(start) + " ms");
+            }
+            return null;
+        }
+    }
+
+    private static class TFactory implements ThreadFactory {
+        private static int cCount;
+
+        private static synchronized int nextID() {
+            return ++cCount;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            t.setName("StorageWarmUp-" + nextID());
+            return t;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+
+import java.util.Iterator;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent cache which strongly references a bounded amount of recently
+ * used values, and softly references the rest. When the capacity is
+ * exceeded, values are selected for demotion by a CLOCK sweep, which
+ * approximates LRU order. Demoted values remain available until reclaimed by
+ * the garbage collector, and they are promoted again when accessed.
+ *
+ * <p>Unlike the caches provided by Cojen, lookups never acquire a lock, and so
+ * the cache is suitable for use by many threads at once. Cache doesn't permit
+ * null keys or values.
+ *
+ * @author Brian S O'Neill
+ * @since 1.2.4
+ */
+public class ClockCache<K, V> {
+    // Amount of longs which fill a cache line, to prevent false sharing.
+    private static final int STRIDE = 8;
+    private static final int MAX_STRIPES = 32;
+
+    private static final int HITS = 0, MISSES = 1;
+
+    private final int mCapacity;
+    private final ConcurrentMap<K, Entry<K, V>> mEntries;
+    private final ReferenceQueue<V> mQueue;
+
+    // Amount of entries which are strongly referenced.
+    private final AtomicInteger mStrongCount;
+
+    private final ReentrantLock mSweepLock;
+    // Clock hand, guarded by sweep lock.
+    private Iterator<Entry<K, V>> mHand;
+
+    // Hit and miss counts, striped by thread.
+    private final AtomicLongArray mCounts;
+    private final int mStripeMask;
+
+    /**
+     * @param capacity maximum amount of values to strongly reference; when
+     * zero, all values are softly referenced
+     * @throws IllegalArgumentException if capacity is negative
+     */
+    public ClockCache(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity: " + capacity);
+        }
+        mCapacity = capacity;
+        mEntries = new ConcurrentHashMap<K, Entry<K, V>>();
+        mQueue = new ReferenceQueue<V>();
+        mStrongCount = new AtomicInteger();
+        mSweepLock = new ReentrantLock();
+
+        int stripes = 1;
+        int procs = Runtime.getRuntime().availableProcessors();
+        while (stripes < procs && stripes < MAX_STRIPES) {
+            stripes <<= 1;
+        }
+        mCounts = new AtomicLongArray(stripes * STRIDE);
+        mStripeMask = stripes - 1;
+    }
+
+    /**
+     * Returns the maximum amount of values which are strongly referenced.
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Returns the amount of entries in the cache, including those which are
+     * only softly referenced.
+     */
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Returns the cached value for the given key, or null if none.
+     */
+    public V get(K key) {
+        Entry<K, V> entry = mEntries.get(key);
+        if (entry != null) {
+            V value = entry.get();
+            if (value != null) {
+                touch(entry, value);
+                count(HITS);
+                return value;
+            }
+            mEntries.remove(key, entry);
+        }
+        count(MISSES);
+        return null;
+    }
+
+    /**
+     * Puts a value into the cache, replacing any existing value.
+     *
+     * @return old value, or null if none
+     */
+    public V put(K key, V value) {
+        clean();
+        Entry<K, V> entry = newEntry(key, value);
+        Entry<K, V> old = mEntries.put(key, entry);
+        pin(entry, value);
+        return old == null ? null : release(old);
+    }
+
+    /**
+     * Puts a value into the cache, unless a value already exists for the
+     * given key.
+     *
+     * @return existing value, or null if given value was put
+     */
+    public V putIfAbsent(K key, V value) {
+        clean();
+        Entry<K, V> entry = newEntry(key, value);
+        while (true) {
+            Entry<K, V> existing = mEntries.putIfAbsent(key, entry);
+            if (existing == null) {
+                pin(entry, value);
+                return null;
+            }
+            V existingValue = existing.get();
+            if (existingValue != null) {
+                touch(existing, existingValue);
+                return existingValue;
+            }
+            if (mEntries.replace(key, existing, entry)) {
+                release(existing);
+                pin(entry, value);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Removes the value for the given key.
+     *
+     * @return old value, or null if none
+     */
+    public V remove(K key) {
+        clean();
+        Entry<K, V> old = mEntries.remove(key);
+        return old == null ? null : release(old);
+    }
+
+    /**
+     * Removes all entries from the cache. Hit and miss counts are not reset.
+     */
+    public void clear() {
+        Iterator<Entry<K, V>> it = mEntries.values().iterator();
+        while (it.hasNext()) {
+            Entry<K, V> entry = it.next();
+            it.remove();
+            release(entry);
+        }
+        clean();
+    }
+
+    /**
+     * Returns the amount of times that {@link #get get} found a value.
+     */
+    public long getHitCount() {
+        return sum(HITS);
+    }
+
+    /**
+     * Returns the amount of times that {@link #get get} didn't find a value.
+     */
+    public long getMissCount() {
+        return sum(MISSES);
+    }
+
+    @Override
+    public String toString() {
+        return "ClockCache {size=" + size() + ", capacity=" + mCapacity +
+            ", hits=" + getHitCount() + ", misses=" + getMissCount() + '}';
+    }
+
+    private Entry<K, V> newEntry(K key, V value) {
+        if (key == null || value == null) {
+            throw new IllegalArgumentException();
+        }
+        return new Entry<K, V>(key, value, mQueue);
+    }
+
+    /**
+     * Marks the entry as recently used, promoting it to be strongly
+     * referenced if necessary.
+     */
+    private void touch(Entry<K, V> entry, V value) {
+        if (entry.mStrong == null) {
+            pin(entry, value);
+        } else if (!entry.mReferenced) {
+            entry.mReferenced = true;
+        }
+    }
+
+    private void pin(Entry<K, V> entry, V value) {
+        if (mCapacity == 0) {
+            return;
+        }
+        entry.mReferenced = true;
+        if (entry.pin(value)) {
+            int count = mStrongCount.incrementAndGet();
+            if (mEntries.get(entry.mKey) != entry) {
+                // Entry was concurrently removed, and so it must not count.
+                if (entry.unpin()) {
+                    mStrongCount.decrementAndGet();
+                }
+            } else if (count > mCapacity) {
+                sweep();
+            }
+        }
+    }
+
+    /**
+     * Releases an entry which is no longer in the cache.
+     */
+    private V release(Entry<K, V> entry) {
+        V value = entry.get();
+        if (entry.unpin()) {
+            mStrongCount.decrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Demotes entries to be softly referenced until the strong count is
+     * within capacity. If another thread is already sweeping, it's left to
+     * finish the job.
+     */
+    private void sweep() {
+        if (!mSweepLock.tryLock()) {
+            return;
+        }
+        try {
+            Iterator<Entry<K, V>> hand = mHand;
+            // Each entry is visited at most twice: once to clear the
+            // referenced bit and again to demote it.
+            int remaining = (mEntries.size() + 1) * 2;
+            while (mStrongCount.get() > mCapacity && --remaining >= 0) {
+                if (hand == null || !hand.hasNext()) {
+                    hand = mEntries.values().iterator();
+                    if (!hand.hasNext()) {
+                        break;
+                    }
+                }
+                Entry<K, V> entry = hand.next();
+                if (entry.mStrong == null) {
+                    continue;
+                }
+                if (entry.mReferenced) {
+                    entry.mReferenced = false;
+                } else if (entry.unpin()) {
+                    mStrongCount.decrementAndGet();
+                }
+            }
+            mHand = hand;
+        } finally {
+            mSweepLock.unlock();
+        }
+    }
+
+    private void clean() {
+        // Clean out cleared values.
+        Reference<? extends V> ref;
+        while ((ref = mQueue.poll()) != null) {
+            // Note that the two argument remove method is called to ensure
+            // that what is being removed is not a new value.
+            Entry<K, V> entry = (Entry<K, V>) ref;
+            mEntries.remove(entry.mKey, entry);
+        }
+    }
+
+    private void count(int which) {
+        int stripe = ((int) Thread.currentThread().getId()) & mStripeMask;
+        mCounts.incrementAndGet(stripe * STRIDE + which);
+    }
+
+    private long sum(int which) {
+        AtomicLongArray counts = mCounts;
+        long sum = 0;
+        for (int i=which; i<counts.length(); i+=STRIDE) {
+            sum += counts.get(i);
+        }
+        return sum;
+    }
+
+    private static class Entry<K, V> extends SoftReference<V> {
+        private static final AtomicReferenceFieldUpdater<Entry, Object> cStrongUpdater =
+            AtomicReferenceFieldUpdater.newUpdater(Entry.class, Object.class, "mStrong");
+
+        final K mKey;
+
+        // Is null when value is only softly referenced.
+        volatile V mStrong;
+        volatile boolean mReferenced;
+
+        Entry(K key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            mKey = key;
+        }
+
+        /**
+         * @return true if entry was not already strongly referenced
+         */
+        boolean pin(V value) {
+            return cStrongUpdater.compareAndSet(this, null, value);
+        }
+
+        /**
+         * @return true if entry was strongly referenced
+         */
+        boolean unpin() {
+            Object strong = mStrong;
+            return strong != null && cStrongUpdater.compareAndSet(this, strong, null);
+        }
+    }
+}
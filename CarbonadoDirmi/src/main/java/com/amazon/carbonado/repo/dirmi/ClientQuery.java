@@ -20,6 +20,8 @@ package com.amazon.carbonado.repo.dirmi;
 
 import java.io.IOException;
 
+import com.amazon.carbonado.Aggregate;
+import com.amazon.carbonado.AggregateResult;
 import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.IsolationLevel;
@@ -29,6 +31,8 @@ import com.amazon.carbonado.RepositoryException;
 import com.amazon.carbonado.Storable;
 import com.amazon.carbonado.Transaction;
 
+import com.amazon.carbonado.cursor.AggregateCursor;
+
 import com.amazon.carbonado.filter.Filter;
 import com.amazon.carbonado.filter.FilterValues;
 
@@ -193,6 +197,16 @@ class ClientQuery<S extends Storable> extends StandardQuery<S> implements QueryE
             return mQueryFactory.clientStorage().queryCount(values, controller);
         }
 
+        @Override
+        public Cursor<AggregateResult> fetchAggregates(FilterValues<S> values,
+                                                       String[] groupProperties,
+                                                       Aggregate[] aggregates)
+            throws FetchException
+        {
+            return new AggregateCursor<S>
+                (fetch(values), getStorableType(), groupProperties, aggregates);
+        }
+
         @Override
         public Filter<S> getFilter() {
             return mFilter;
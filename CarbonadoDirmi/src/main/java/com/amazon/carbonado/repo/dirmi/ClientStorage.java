@@ -22,6 +22,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
@@ -30,6 +31,7 @@ import java.util.Set;
 
 import org.cojen.dirmi.Pipe;
 
+import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.PersistException;
 import com.amazon.carbonado.Query;
@@ -40,6 +42,8 @@ import com.amazon.carbonado.Storage;
 import com.amazon.carbonado.SupportException;
 import com.amazon.carbonado.Trigger;
 
+import com.amazon.carbonado.cursor.EmptyCursor;
+
 import com.amazon.carbonado.filter.Filter;
 import com.amazon.carbonado.filter.FilterValues;
 
@@ -125,6 +129,44 @@ class ClientStorage<S extends Storable> implements Storage<S>, DelegateSupport<S
         return mQueryFactory.query(filter);
     }
 
+    public Cursor<S> loadAll(Collection<? extends S> keys) throws FetchException {
+        if (keys == null) {
+            throw new IllegalArgumentException("Keys collection is null");
+        }
+
+        List<S> keyList = new ArrayList<S>(keys);
+        if (keyList.isEmpty()) {
+            return EmptyCursor.the();
+        }
+
+        try {
+            RemoteTransaction txn = mRepository.localTransactionScope().getTxn();
+            if (txn instanceof FailedTransaction) {
+                throw new FetchException(TXN_INVALID_MSG);
+            }
+
+            StorageProxy<S> proxy = mStorageProxy;
+
+            // All keys are sent with one remote call, and the loaded storables
+            // are streamed back like a query result.
+            Pipe pipe = proxy.mStorage.loadAll(txn, null);
+            try {
+                pipe.writeInt(keyList.size());
+                for (S key : keyList) {
+                    proxy.mWriter.writeForLoad(key, pipe.getOutputStream());
+                }
+                pipe.flush();
+            } catch (Exception e) {
+                pipe.close();
+                throw e;
+            }
+
+            return new ClientCursor<S>(this, pipe);
+        } catch (Exception e) {
+            throw toFetchException(e);
+        }
+    }
+
     public void truncate() throws PersistException {
         try {
             mStorageProxy.mStorage.truncate(mRepository.localTransactionScope().getTxn());
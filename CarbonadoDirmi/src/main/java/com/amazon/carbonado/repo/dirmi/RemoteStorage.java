@@ -59,6 +59,17 @@ public interface RemoteStorage extends Remote {
     @RemoteFailure(exception=FetchException.class)
     Pipe tryLoad(RemoteTransaction txn, Pipe pipe) throws FetchException;
 
+    /**
+     * Loads storables using serialized keys, writing back the loaded
+     * storables in the same format as queryFetch.
+     *
+     * @param txn optional
+     * @param pipe send key count, followed by serialized key properties
+     */
+    @Asynchronous(CallMode.REQUEST_REPLY)
+    @RemoteFailure(exception=FetchException.class)
+    Pipe loadAll(RemoteTransaction txn, Pipe pipe) throws FetchException;
+
     /**
      * Inserts the given serialized storable, returing the deserialized
      * properties. Returns false if storable did not change after insert.
@@ -23,7 +23,9 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.cojen.dirmi.Pipe;
@@ -142,6 +144,62 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
         return null;
     }
 
+    @Override
+    public Pipe loadAll(RemoteTransaction txn, Pipe pipe) {
+        try {
+            OutputStream out = pipe.getOutputStream();
+            try {
+                int count = pipe.readInt();
+                List<Storable> keys = new ArrayList<Storable>(count);
+                for (int i=0; i<count; i++) {
+                    Storable s = mStorage.prepare();
+                    s.readFrom(pipe.getInputStream());
+                    keys.add(s);
+                }
+
+                List<Storable> loaded = new ArrayList<Storable>(count);
+
+                attachFetch(txn);
+                try {
+                    Cursor cursor = mStorage.loadAll(keys);
+                    try {
+                        while (cursor.hasNext()) {
+                            loaded.add((Storable) cursor.next());
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                } finally {
+                    detach(txn);
+                }
+
+                // Write while detached, since writing over the pipe is a
+                // blocking operation.
+                for (Storable s : loaded) {
+                    out.write(CURSOR_STORABLE);
+                    mWriter.writeLoadResponse(s, out);
+                }
+
+                out.write(CURSOR_END);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                out.write(CURSOR_EXCEPTION);
+                pipe.writeThrowable(e);
+            }
+        } catch (IOException e) {
+            // Ignore.
+        } finally {
+            try {
+                pipe.close();
+            } catch (IOException e) {
+                // Don't care.
+            }
+        }
+
+        return null;
+    }
+
     @Override
     public Pipe tryInsert(RemoteTransaction txn, Pipe pipe) {
         try {
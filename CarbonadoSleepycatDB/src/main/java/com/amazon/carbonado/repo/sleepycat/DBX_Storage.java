@@ -58,11 +58,14 @@ class DBX_Storage<S extends Storable> extends DB_Storage<S> {
     }
 
     @Override
-    protected byte[] db_get(Transaction txn, byte[] key, boolean rmw) throws Exception {
+    protected byte[] db_get(Transaction txn, byte[] key, int keyOffset, int keyLength,
+                            boolean rmw)
+        throws Exception
+    {
         Lock lock = mRWLock.readLock();
         lock.lock();
         try {
-            return super.db_get(txn, key, rmw);
+            return super.db_get(txn, key, keyOffset, keyLength, rmw);
         } finally {
             lock.unlock();
         }
@@ -79,46 +82,54 @@ class DBX_Storage<S extends Storable> extends DB_Storage<S> {
     */
 
     @Override
-    protected Object db_putNoOverwrite(Transaction txn, byte[] key, byte[] value)
+    protected Object db_putNoOverwrite(Transaction txn,
+                                       byte[] key, int keyOffset, int keyLength,
+                                       byte[] value, int valueOffset, int valueLength)
         throws Exception
     {
         if (txn != null) {
-            return super.db_putNoOverwrite(txn, key, value);
+            return super.db_putNoOverwrite(txn, key, keyOffset, keyLength,
+                                           value, valueOffset, valueLength);
         }
         Lock lock = mRWLock.writeLock();
         lock.lock();
         try {
-            return super.db_putNoOverwrite(txn, key, value);
+            return super.db_putNoOverwrite(txn, key, keyOffset, keyLength,
+                                           value, valueOffset, valueLength);
         } finally {
             lock.unlock();
         }
     }
 
     @Override
-    protected boolean db_put(Transaction txn, byte[] key, byte[] value)
+    protected boolean db_put(Transaction txn,
+                             byte[] key, int keyOffset, int keyLength,
+                             byte[] value, int valueOffset, int valueLength)
         throws Exception
     {
         if (txn != null) {
-            return super.db_put(txn, key, value);
+            return super.db_put(txn, key, keyOffset, keyLength, value, valueOffset, valueLength);
         }
         Lock lock = mRWLock.writeLock();
         lock.lock();
         try {
-            return super.db_put(txn, key, value);
+            return super.db_put(txn, key, keyOffset, keyLength, value, valueOffset, valueLength);
         } finally {
             lock.unlock();
         }
     }
 
     @Override
-    protected boolean db_delete(Transaction txn, byte[] key) throws Exception {
+    protected boolean db_delete(Transaction txn, byte[] key, int keyOffset, int keyLength)
+        throws Exception
+    {
         if (txn != null) {
-            return super.db_delete(txn, key);
+            return super.db_delete(txn, key, keyOffset, keyLength);
         }
         Lock lock = mRWLock.writeLock();
         lock.lock();
         try {
-            return super.db_delete(txn, key);
+            return super.db_delete(txn, key, keyOffset, keyLength);
         } finally {
             lock.unlock();
         }
@@ -24,6 +24,8 @@ import com.sleepycat.db.Database;
 import com.sleepycat.db.DatabaseEntry;
 import com.sleepycat.db.DatabaseException;
 import com.sleepycat.db.LockMode;
+import com.sleepycat.db.MemoryException;
+import com.sleepycat.db.MultipleKeyDataEntry;
 import com.sleepycat.db.Transaction;
 import static com.sleepycat.db.OperationStatus.*;
 
@@ -46,6 +48,13 @@ class DB_Cursor<S extends Storable> extends BDBCursor<Transaction, S> {
 
     protected Cursor mCursor;
 
+    // Buffer for bulk reads, which is reused for each batch.
+    private byte[] mBulkBuffer;
+    private MultipleKeyDataEntry mBulkData;
+    // Is true when current entry came from bulk buffer, in which case the
+    // native cursor is positioned at the last entry of the batch.
+    private boolean mBulkActive;
+
     /**
      * @param scope
      * @param startBound specify the starting key for the cursor, or null if first
@@ -79,12 +88,12 @@ class DB_Cursor<S extends Storable> extends BDBCursor<Transaction, S> {
 
     @Override
     protected byte[] searchKey_getData() {
-        return getData(mSearchKey.getData(), mSearchKey.getSize());
+        return getData(mSearchKey.getData(), mSearchKey.getOffset(), mSearchKey.getSize());
     }
 
     @Override
     protected byte[] searchKey_getDataCopy() {
-        return getDataCopy(mSearchKey.getData(), mSearchKey.getSize());
+        return getDataCopy(mSearchKey.getData(), mSearchKey.getOffset(), mSearchKey.getSize());
     }
 
     @Override
@@ -104,12 +113,12 @@ class DB_Cursor<S extends Storable> extends BDBCursor<Transaction, S> {
 
     @Override
     protected byte[] data_getData() {
-        return getData(mData.getData(), mData.getSize());
+        return getData(mData.getData(), mData.getOffset(), mData.getSize());
     }
 
     @Override
     protected byte[] data_getDataCopy() {
-        return getDataCopy(mData.getData(), mData.getSize());
+        return getDataCopy(mData.getData(), mData.getOffset(), mData.getSize());
     }
 
     @Override
@@ -125,7 +134,7 @@ class DB_Cursor<S extends Storable> extends BDBCursor<Transaction, S> {
     @Override
     protected byte[] primaryKey_getData() {
         // Search key is primary key.
-        return getData(mSearchKey.getData(), mSearchKey.getSize());
+        return getData(mSearchKey.getData(), mSearchKey.getOffset(), mSearchKey.getSize());
     }
 
     @Override
@@ -143,6 +152,9 @@ class DB_Cursor<S extends Storable> extends BDBCursor<Transaction, S> {
 
     @Override
     protected void cursor_close() throws Exception {
+        mBulkBuffer = null;
+        mBulkData = null;
+        mBulkActive = false;
         Cursor cursor = mCursor;
         if (cursor != null) {
             mCursor = null;
@@ -152,44 +164,106 @@ class DB_Cursor<S extends Storable> extends BDBCursor<Transaction, S> {
 
     @Override
     protected boolean cursor_getCurrent() throws Exception {
+        if (mBulkActive) {
+            // Current entry is still in the buffer, and it's never partial.
+            return true;
+        }
         return cursor().getCurrent(mSearchKey, mData, mLockMode) == SUCCESS;
     }
 
     @Override
     protected boolean cursor_getFirst() throws Exception {
+        mBulkActive = false;
         return cursor().getFirst(mSearchKey, mData, mLockMode) == SUCCESS;
     }
 
     @Override
     protected boolean cursor_getLast() throws Exception {
+        mBulkActive = false;
         return cursor().getLast(mSearchKey, mData, mLockMode) == SUCCESS;
     }
 
     @Override
     protected boolean cursor_getSearchKeyRange() throws Exception {
+        mBulkActive = false;
         return cursor().getSearchKeyRange(mSearchKey, mData, mLockMode) == SUCCESS;
     }
 
     @Override
     protected boolean cursor_getNext() throws Exception {
+        if (isBulk()) {
+            return bulkNext();
+        }
         return cursor().getNext(mSearchKey, mData, mLockMode) == SUCCESS;
     }
 
     @Override
     protected boolean cursor_getNextDup() throws Exception {
+        endBulk();
         return cursor().getNextDup(mSearchKey, mData, mLockMode) == SUCCESS;
     }
 
     @Override
     protected boolean cursor_getPrev() throws Exception {
+        endBulk();
         return cursor().getPrev(mSearchKey, mData, mLockMode) == SUCCESS;
     }
 
     @Override
     protected boolean cursor_getPrevNoDup() throws Exception {
+        endBulk();
         return cursor().getPrevNoDup(mSearchKey, mData, mLockMode) == SUCCESS;
     }
 
+    /**
+     * Moves to the next entry in the bulk buffer, reading the next batch of
+     * entries with a single call when the buffer is exhausted.
+     */
+    private boolean bulkNext() throws Exception {
+        if (mBulkActive && mBulkData.next(mSearchKey, mData)) {
+            return true;
+        }
+
+        mBulkActive = false;
+
+        byte[] buffer = mBulkBuffer;
+        if (buffer == null) {
+            mBulkBuffer = buffer = new byte[BULK_BUFFER_SIZE];
+        }
+        MultipleKeyDataEntry bulkData = new MultipleKeyDataEntry(buffer);
+        bulkData.setUserBuffer(buffer.length, true);
+
+        try {
+            if (cursor().getNext(new DatabaseEntry(), bulkData, mLockMode) != SUCCESS) {
+                return false;
+            }
+        } catch (MemoryException e) {
+            // Entry doesn't fit in the buffer, so read it alone.
+            return cursor().getNext(mSearchKey, mData, mLockMode) == SUCCESS;
+        }
+
+        if (!bulkData.next(mSearchKey, mData)) {
+            return false;
+        }
+
+        mBulkData = bulkData;
+        mBulkActive = true;
+        return true;
+    }
+
+    /**
+     * Moves the native cursor back to the current entry, if it came from
+     * the bulk buffer.
+     */
+    private void endBulk() throws Exception {
+        if (mBulkActive) {
+            mBulkActive = false;
+            mSearchKey.setData(getDataCopy(mSearchKey.getData(),
+                                           mSearchKey.getOffset(), mSearchKey.getSize()));
+            cursor().getSearchKeyRange(mSearchKey, mData, mLockMode);
+        }
+    }
+
     private Cursor cursor() throws FetchException {
         Cursor cursor = mCursor;
         if (cursor == null) {
@@ -77,8 +77,11 @@ class DB_Storage<S extends Storable> extends BDBStorage<Transaction, S> {
     }
 
     @Override
-    protected byte[] db_get(Transaction txn, byte[] key, boolean rmw) throws Exception {
-        DatabaseEntry keyEntry = new DatabaseEntry(key);
+    protected byte[] db_get(Transaction txn, byte[] key, int keyOffset, int keyLength,
+                            boolean rmw)
+        throws Exception
+    {
+        DatabaseEntry keyEntry = new DatabaseEntry(key, keyOffset, keyLength);
         DatabaseEntry dataEntry = new DatabaseEntry();
         OperationStatus status = mDatabase.get
             (txn, keyEntry, dataEntry, rmw ? LockMode.RMW : null);
@@ -89,11 +92,13 @@ class DB_Storage<S extends Storable> extends BDBStorage<Transaction, S> {
     }
 
     @Override
-    protected Object db_putNoOverwrite(Transaction txn, byte[] key, byte[] value)
+    protected Object db_putNoOverwrite(Transaction txn,
+                                       byte[] key, int keyOffset, int keyLength,
+                                       byte[] value, int valueOffset, int valueLength)
         throws Exception
     {
-        DatabaseEntry keyEntry = new DatabaseEntry(key);
-        DatabaseEntry dataEntry = new DatabaseEntry(value);
+        DatabaseEntry keyEntry = new DatabaseEntry(key, keyOffset, keyLength);
+        DatabaseEntry dataEntry = new DatabaseEntry(value, valueOffset, valueLength);
         OperationStatus status = mDatabase.putNoOverwrite(txn, keyEntry, dataEntry);
         if (status == OperationStatus.SUCCESS) {
             return SUCCESS;
@@ -105,17 +110,21 @@ class DB_Storage<S extends Storable> extends BDBStorage<Transaction, S> {
     }
 
     @Override
-    protected boolean db_put(Transaction txn, byte[] key, byte[] value)
+    protected boolean db_put(Transaction txn,
+                             byte[] key, int keyOffset, int keyLength,
+                             byte[] value, int valueOffset, int valueLength)
         throws Exception
     {
-        DatabaseEntry keyEntry = new DatabaseEntry(key);
-        DatabaseEntry dataEntry = new DatabaseEntry(value);
+        DatabaseEntry keyEntry = new DatabaseEntry(key, keyOffset, keyLength);
+        DatabaseEntry dataEntry = new DatabaseEntry(value, valueOffset, valueLength);
         return mDatabase.put(txn, keyEntry, dataEntry) == OperationStatus.SUCCESS;
     }
 
     @Override
-    protected boolean db_delete(Transaction txn, byte[] key) throws Exception {
-        DatabaseEntry keyEntry = new DatabaseEntry(key);
+    protected boolean db_delete(Transaction txn, byte[] key, int keyOffset, int keyLength)
+        throws Exception
+    {
+        DatabaseEntry keyEntry = new DatabaseEntry(key, keyOffset, keyLength);
         return mDatabase.delete(txn, keyEntry) == OperationStatus.SUCCESS;
     }
 
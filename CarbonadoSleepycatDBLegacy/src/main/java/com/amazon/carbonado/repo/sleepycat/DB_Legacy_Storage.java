@@ -76,8 +76,10 @@ class DB_Legacy_Storage<S extends Storable> extends BDBStorage<DbTxn, S> {
         }
     }
 
-    protected byte[] db_get(DbTxn txn, byte[] key, boolean rmw) throws Exception {
-        Dbt keyEntry = DB_Legacy_DbtPool.createDbt(key);
+    protected byte[] db_get(DbTxn txn, byte[] key, int keyOffset, int keyLength, boolean rmw)
+        throws Exception
+    {
+        Dbt keyEntry = DB_Legacy_DbtPool.createDbt(key, keyOffset, keyLength);
         Dbt dataEntry = DB_Legacy_DbtPool.createDbt();
         try {
             int status = mDatabase.get(txn, keyEntry, dataEntry, rmw ? Db.DB_RMW : 0);
@@ -91,11 +93,13 @@ class DB_Legacy_Storage<S extends Storable> extends BDBStorage<DbTxn, S> {
         }
     }
 
-    protected Object db_putNoOverwrite(DbTxn txn, byte[] key, byte[] value)
+    protected Object db_putNoOverwrite(DbTxn txn,
+                                       byte[] key, int keyOffset, int keyLength,
+                                       byte[] value, int valueOffset, int valueLength)
         throws Exception
     {
-        Dbt keyEntry = DB_Legacy_DbtPool.createDbt(key);
-        Dbt dataEntry = DB_Legacy_DbtPool.createDbt(value);
+        Dbt keyEntry = DB_Legacy_DbtPool.createDbt(key, keyOffset, keyLength);
+        Dbt dataEntry = DB_Legacy_DbtPool.createDbt(value, valueOffset, valueLength);
         int flags = Db.DB_NOOVERWRITE;
         if (txn == null) {
             flags |= Db.DB_AUTO_COMMIT;
@@ -115,11 +119,13 @@ class DB_Legacy_Storage<S extends Storable> extends BDBStorage<DbTxn, S> {
         }
     }
 
-    protected boolean db_put(DbTxn txn, byte[] key, byte[] value)
+    protected boolean db_put(DbTxn txn,
+                             byte[] key, int keyOffset, int keyLength,
+                             byte[] value, int valueOffset, int valueLength)
         throws Exception
     {
-        Dbt keyEntry = DB_Legacy_DbtPool.createDbt(key);
-        Dbt dataEntry = DB_Legacy_DbtPool.createDbt(value);
+        Dbt keyEntry = DB_Legacy_DbtPool.createDbt(key, keyOffset, keyLength);
+        Dbt dataEntry = DB_Legacy_DbtPool.createDbt(value, valueOffset, valueLength);
         int flags = 0;
         if (txn == null) {
             flags |= Db.DB_AUTO_COMMIT;
@@ -132,8 +138,10 @@ class DB_Legacy_Storage<S extends Storable> extends BDBStorage<DbTxn, S> {
         }
     }
 
-    protected boolean db_delete(DbTxn txn, byte[] key) throws Exception {
-        Dbt keyEntry = DB_Legacy_DbtPool.createDbt(key);
+    protected boolean db_delete(DbTxn txn, byte[] key, int keyOffset, int keyLength)
+        throws Exception
+    {
+        Dbt keyEntry = DB_Legacy_DbtPool.createDbt(key, keyOffset, keyLength);
         int flags = 0;
         if (txn == null) {
             flags |= Db.DB_AUTO_COMMIT;
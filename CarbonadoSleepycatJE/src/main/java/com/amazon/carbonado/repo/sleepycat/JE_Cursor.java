@@ -138,6 +138,12 @@ class JE_Cursor<S extends Storable> extends BDBCursor<JE_Transaction, S> {
         } else {
             config = CursorConfig.DEFAULT;
         }
+        if (isBulk()) {
+            // JE has no multi-record read, but a non-sticky cursor doesn't
+            // clone its position on every move, which is the main per-record
+            // cost of a scan.
+            config = config.clone().setNonSticky(true);
+        }
         mCursor = mDatabase.openCursor(jetxn == null ? null : jetxn.mTxn, config);
     }
 
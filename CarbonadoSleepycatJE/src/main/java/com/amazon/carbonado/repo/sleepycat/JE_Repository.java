@@ -134,6 +134,7 @@ class JE_Repository extends BDBRepository<JE_Transaction> {
 
     final Environment mEnv;
     final boolean mDatabasesTransactional;
+    final boolean mKeyPrefixing;
 
     private DbBackup mBackup;
 
@@ -244,6 +245,7 @@ class JE_Repository extends BDBRepository<JE_Transaction> {
         }
 
         mDatabasesTransactional = databasesTransactional;
+        mKeyPrefixing = builder.isKeyPrefixing();
 
         start(0, 0, builder);
     }
@@ -100,8 +100,11 @@ class JE_Storage<S extends Storable> extends BDBStorage<JE_Transaction, S> {
     }
 
     @Override
-    protected byte[] db_get(JE_Transaction jetxn, byte[] key, boolean rmw) throws Exception {
-        DatabaseEntry keyEntry = new DatabaseEntry(key);
+    protected byte[] db_get(JE_Transaction jetxn, byte[] key, int keyOffset, int keyLength,
+                            boolean rmw)
+        throws Exception
+    {
+        DatabaseEntry keyEntry = new DatabaseEntry(key, keyOffset, keyLength);
         DatabaseEntry dataEntry = new DatabaseEntry();
         OperationStatus status = mDatabase.get
             (jetxn == null ? null : jetxn.mTxn, keyEntry, dataEntry, rmw ? LockMode.RMW : null);
@@ -112,18 +115,20 @@ class JE_Storage<S extends Storable> extends BDBStorage<JE_Transaction, S> {
     }
 
     @Override
-    protected Object db_putNoOverwrite(JE_Transaction jetxn, byte[] key, byte[] value)
+    protected Object db_putNoOverwrite(JE_Transaction jetxn,
+                                       byte[] key, int keyOffset, int keyLength,
+                                       byte[] value, int valueOffset, int valueLength)
         throws Exception
     {
         Transaction txn = jetxn == null ? null : jetxn.mTxn;
 
-        DatabaseEntry keyEntry = new DatabaseEntry(key);
-        DatabaseEntry dataEntry = new DatabaseEntry(value);
+        DatabaseEntry keyEntry = new DatabaseEntry(key, keyOffset, keyLength);
+        DatabaseEntry dataEntry = new DatabaseEntry(value, valueOffset, valueLength);
         OperationStatus status = mDatabase.putNoOverwrite(txn, keyEntry, dataEntry);
 
         if (status == OperationStatus.SUCCESS) {
             if (jetxn != null) {
-                jetxn.addUndo(new UndoByDelete(mDatabase, txn, key));
+                jetxn.addUndo(new UndoByDelete(mDatabase, txn, copy(keyEntry)));
             }
             return SUCCESS;
         } else if (status == OperationStatus.KEYEXIST) {
@@ -134,11 +139,13 @@ class JE_Storage<S extends Storable> extends BDBStorage<JE_Transaction, S> {
     }
 
     @Override
-    protected boolean db_put(JE_Transaction jetxn, byte[] key, byte[] value)
+    protected boolean db_put(JE_Transaction jetxn,
+                             byte[] key, int keyOffset, int keyLength,
+                             byte[] value, int valueOffset, int valueLength)
         throws Exception
     {
-        DatabaseEntry keyEntry = new DatabaseEntry(key);
-        DatabaseEntry dataEntry = new DatabaseEntry(value);
+        DatabaseEntry keyEntry = new DatabaseEntry(key, keyOffset, keyLength);
+        DatabaseEntry dataEntry = new DatabaseEntry(value, valueOffset, valueLength);
 
         if (jetxn == null) {
             return mDatabase.put(null, keyEntry, dataEntry) == OperationStatus.SUCCESS;
@@ -151,9 +158,9 @@ class JE_Storage<S extends Storable> extends BDBStorage<JE_Transaction, S> {
 
         if (mDatabase.put(txn, keyEntry, dataEntry) == OperationStatus.SUCCESS) {
             if (getResult == OperationStatus.NOTFOUND) {
-                jetxn.addUndo(new UndoByDelete(mDatabase, txn, key));
+                jetxn.addUndo(new UndoByDelete(mDatabase, txn, copy(keyEntry)));
             } else {
-                jetxn.addUndo(new UndoByPut(mDatabase, txn, key, oldEntry));
+                jetxn.addUndo(new UndoByPut(mDatabase, txn, copy(keyEntry), oldEntry));
             }
             return true;
         }
@@ -162,8 +169,10 @@ class JE_Storage<S extends Storable> extends BDBStorage<JE_Transaction, S> {
     }
 
     @Override
-    protected boolean db_delete(JE_Transaction jetxn, byte[] key) throws Exception {
-        DatabaseEntry keyEntry = new DatabaseEntry(key);
+    protected boolean db_delete(JE_Transaction jetxn, byte[] key, int keyOffset, int keyLength)
+        throws Exception
+    {
+        DatabaseEntry keyEntry = new DatabaseEntry(key, keyOffset, keyLength);
 
         if (jetxn == null) {
             return mDatabase.delete(null, keyEntry) == OperationStatus.SUCCESS;
@@ -177,7 +186,7 @@ class JE_Storage<S extends Storable> extends BDBStorage<JE_Transaction, S> {
         }
 
         if (mDatabase.delete(txn, keyEntry) == OperationStatus.SUCCESS) {
-            jetxn.addUndo(new UndoByPut(mDatabase, txn, key, oldEntry));
+            jetxn.addUndo(new UndoByPut(mDatabase, txn, copy(keyEntry), oldEntry));
             return true;
         }
 
@@ -238,6 +247,11 @@ class JE_Storage<S extends Storable> extends BDBStorage<JE_Transaction, S> {
         setBooleanParam(config, "setReadOnly", readOnly);
         setBooleanParam(config, "setAllowCreate", !readOnly);
 
+        if (repository.mKeyPrefixing) {
+            // Setting can be changed when database is opened.
+            setBooleanParam(config, "setKeyPrefixing", true);
+        }
+
         runDatabasePrepareForOpeningHook(config);
 
         mName = name;
@@ -269,6 +283,15 @@ class JE_Storage<S extends Storable> extends BDBStorage<JE_Transaction, S> {
              (Database) database);
     }
 
+    /**
+     * Returns a copy of the entry's data, for undo actions to retain.
+     */
+    private static byte[] copy(DatabaseEntry entry) {
+        byte[] copy = new byte[entry.getSize()];
+        System.arraycopy(entry.getData(), entry.getOffset(), copy, 0, copy.length);
+        return copy;
+    }
+
     private class UndoByDelete implements JE_Transaction.UndoAction {
         // Save ref to support truncate.
         private final Database mDb;
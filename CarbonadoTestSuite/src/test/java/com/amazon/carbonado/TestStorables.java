@@ -25,10 +25,13 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Writer;
 
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
@@ -38,6 +41,8 @@ import junit.framework.TestSuite;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 
+import com.amazon.carbonado.Aggregate;
+import com.amazon.carbonado.AggregateResult;
 import com.amazon.carbonado.ConstraintException;
 import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
@@ -55,6 +60,7 @@ import com.amazon.carbonado.Storage;
 import com.amazon.carbonado.Trigger;
 import com.amazon.carbonado.UniqueConstraintException;
 
+import com.amazon.carbonado.cursor.AsyncFetchAheadCursor;
 import com.amazon.carbonado.cursor.SortedCursor;
 
 import com.amazon.carbonado.lob.Blob;
@@ -62,6 +68,9 @@ import com.amazon.carbonado.lob.ByteArrayBlob;
 import com.amazon.carbonado.lob.Clob;
 import com.amazon.carbonado.lob.StringClob;
 
+import com.amazon.carbonado.qe.QueryHint;
+import com.amazon.carbonado.qe.QueryHints;
+
 import com.amazon.carbonado.spi.RepairExecutor;
 
 import com.amazon.carbonado.stored.*;
@@ -2666,6 +2675,177 @@ public class TestStorables extends TestCase {
         assertEquals(88, results.get(1).getId());
     }
 
+    public void test_fetchAheadHint() throws Exception {
+        Storage<StorableTestBasic> storage = getRepository().storageFor(StorableTestBasic.class);
+
+        for (int i=0; i<100; i++) {
+            StorableTestBasic sb = storage.prepare();
+            sb.setId(i);
+            sb.setIntProp(99 - i);
+            sb.setLongProp(i);
+            sb.setDoubleProp(i);
+            sb.setStringProp(String.valueOf(i));
+            sb.insert();
+        }
+
+        QueryHints hints = QueryHints.emptyHints().with(QueryHint.FETCH_AHEAD, 10);
+
+        List<StorableTestBasic> results;
+        results = hints.applyTo(storage.query().orderBy("id")).fetch().toList();
+        assertEquals(100, results.size());
+        for (int i=0; i<100; i++) {
+            assertEquals(i, results.get(i).getId());
+        }
+
+        Query<StorableTestBasic> query = QueryHints.emptyHints().with(QueryHint.FETCH_AHEAD)
+            .applyTo(storage.query("doubleProp >= ?")).with(30.0);
+        results = query.orderBy("intProp").fetchSlice(10, 20L).toList();
+        assertEquals(10, results.size());
+        assertEquals(89, results.get(0).getId());
+
+        // Close before consuming everything.
+        Cursor<StorableTestBasic> cursor = hints.applyTo(storage.query()).fetch();
+        assertTrue(cursor.hasNext());
+        cursor.next();
+        cursor.close();
+        assertFalse(cursor.hasNext());
+
+        // Fetch-ahead is ignored within a transaction, which observes its own
+        // uncommitted changes.
+        Transaction txn = getRepository().enterTransaction();
+        try {
+            StorableTestBasic sb = storage.prepare();
+            sb.setId(100);
+            sb.setIntProp(-1);
+            sb.setLongProp(100);
+            sb.setDoubleProp(100);
+            sb.setStringProp("100");
+            sb.insert();
+            cursor = hints.applyTo(storage.query()).fetch();
+            assertFalse(cursor instanceof AsyncFetchAheadCursor);
+            assertEquals(101, cursor.toList().size());
+        } finally {
+            txn.exit();
+        }
+    }
+
+    public void test_loadAll() throws Exception {
+        Storage<StorableTestBasic> storage = getRepository().storageFor(StorableTestBasic.class);
+
+        assertFalse(storage.loadAll(new ArrayList<StorableTestBasic>()).hasNext());
+
+        for (int i=0; i<1000; i++) {
+            StorableTestBasic sb = storage.prepare();
+            sb.setId(i * 2);
+            sb.setIntProp(i);
+            sb.setLongProp(i);
+            sb.setDoubleProp(i);
+            sb.setStringProp(String.valueOf(i));
+            sb.insert();
+        }
+
+        // Request every key from 0 to 1999, of which half exist, in an order
+        // which doesn't match the natural order. Some are requested twice.
+        List<StorableTestBasic> keys = new ArrayList<StorableTestBasic>();
+        for (int i=1999; i>=0; i--) {
+            StorableTestBasic key = storage.prepare();
+            key.setId(i);
+            keys.add(key);
+            if (i % 100 == 0) {
+                key = storage.prepare();
+                key.setId(i);
+                keys.add(key);
+            }
+        }
+
+        Set<Integer> found = new HashSet<Integer>();
+        Cursor<StorableTestBasic> cursor = storage.loadAll(keys);
+        while (cursor.hasNext()) {
+            StorableTestBasic sb = cursor.next();
+            assertEquals(0, sb.getId() % 2);
+            assertEquals(sb.getId() / 2, sb.getIntProp());
+            assertEquals(String.valueOf(sb.getId() / 2), sb.getStringProp());
+            found.add(sb.getId());
+        }
+        assertEquals(1000, found.size());
+
+        // Keys aren't modified.
+        assertTrue(keys.get(0).isPropertyUninitialized("stringProp"));
+
+        // Small batch.
+        keys = new ArrayList<StorableTestBasic>();
+        for (int id : new int[] {5, 4, 10, 1}) {
+            StorableTestBasic key = storage.prepare();
+            key.setId(id);
+            keys.add(key);
+        }
+        found.clear();
+        for (StorableTestBasic sb : storage.loadAll(keys).toList()) {
+            found.add(sb.getId());
+        }
+        assertEquals(2, found.size());
+        assertTrue(found.contains(4));
+        assertTrue(found.contains(10));
+
+        // Keys far apart.
+        keys = new ArrayList<StorableTestBasic>();
+        for (int id : new int[] {3000, 1998, 0, 1001, 100}) {
+            StorableTestBasic key = storage.prepare();
+            key.setId(id);
+            keys.add(key);
+        }
+        found.clear();
+        for (StorableTestBasic sb : storage.loadAll(keys).toList()) {
+            found.add(sb.getId());
+        }
+        assertEquals(3, found.size());
+        assertTrue(found.contains(0));
+        assertTrue(found.contains(100));
+        assertTrue(found.contains(1998));
+
+        keys.add(storage.prepare());
+        try {
+            storage.loadAll(keys).toList();
+            fail();
+        } catch (IllegalStateException e) {
+        }
+
+        try {
+            storage.loadAll(null);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void test_loadAllMultiPK() throws Exception {
+        Storage<StorableTestMultiPK> storage =
+            getRepository().storageFor(StorableTestMultiPK.class);
+
+        for (int i=0; i<10; i++) {
+            StorableTestMultiPK s = storage.prepare();
+            s.setIdPK(i);
+            s.setStringPK("key-" + i);
+            s.setStringData("data-" + i);
+            s.insert();
+        }
+
+        List<StorableTestMultiPK> keys = new ArrayList<StorableTestMultiPK>();
+        for (int i=0; i<10; i++) {
+            StorableTestMultiPK key = storage.prepare();
+            key.setIdPK(i);
+            // Only even keys match.
+            key.setStringPK(i % 2 == 0 ? ("key-" + i) : ("other-" + i));
+            keys.add(key);
+        }
+
+        List<StorableTestMultiPK> loaded = storage.loadAll(keys).toList();
+        assertEquals(5, loaded.size());
+        for (StorableTestMultiPK s : loaded) {
+            assertEquals(0, s.getIdPK() % 2);
+            assertEquals("data-" + s.getIdPK(), s.getStringData());
+        }
+    }
+
     public void test_lobInsert() throws Exception {
         Storage<StorableWithLobs> storage = getRepository().storageFor(StorableWithLobs.class);
 
@@ -3452,6 +3632,147 @@ public class TestStorables extends TestCase {
         assertNull(order);
     }
 
+    public void test_aggregates() throws Exception {
+        Storage<StorableTestBasic> storage =
+            getRepository().storageFor(StorableTestBasic.class);
+
+        for (int i=0; i<20; i++) {
+            StorableTestBasic stb = storage.prepare();
+            stb.setId(i);
+            stb.setStringProp("s" + (i % 4));
+            stb.setIntProp(i % 3);
+            stb.setLongProp(i);
+            stb.setDoubleProp(i / 2.0);
+            if ((i & 1) == 0) {
+                stb.setDate(new DateTime(2000, 1, 1, 0, 0, 0, 0).plusDays(i));
+            }
+            stb.insert();
+        }
+
+        AggregateResult result = storage.query().aggregate
+            (Aggregate.count(), Aggregate.sum("longProp"), Aggregate.min("longProp"),
+             Aggregate.max("longProp"), Aggregate.avg("longProp"),
+             Aggregate.sum("doubleProp"), Aggregate.count("date"),
+             Aggregate.max("stringProp"));
+
+        assertEquals(0, result.getGroupPropertyCount());
+        assertEquals(20L, result.getValue(0));
+        assertEquals(190L, result.getValue(Aggregate.sum("longProp")));
+        assertEquals(0L, result.getValue(2));
+        assertEquals(19L, result.getValue(3));
+        assertEquals(9.5, result.getValue(4));
+        assertEquals(95.0, result.getValue(5));
+        assertEquals(10L, result.getValue(6));
+        assertEquals("s3", result.getValue(7));
+
+        result = storage.query("id >= ?").with(10)
+            .aggregate(Aggregate.count(), Aggregate.sum("intProp"), Aggregate.min("longProp"));
+        assertEquals(10L, result.getValue(0));
+        assertEquals(10L, result.getValue(1));
+        assertEquals(10L, result.getValue(2));
+
+        // Nothing matches.
+        result = storage.query("id > ?").with(100)
+            .aggregate(Aggregate.count(), Aggregate.sum("longProp"), Aggregate.max("longProp"));
+        assertEquals(0L, result.getValue(0));
+        assertNull(result.getValue(1));
+        assertNull(result.getValue(2));
+
+        Cursor<AggregateResult> cursor = storage.query("id > ?").with(100)
+            .fetchAggregates(new String[0], Aggregate.count());
+        assertFalse(cursor.hasNext());
+
+        cursor = storage.query("id < ?").with(100).orderBy("-id")
+            .fetchAggregates(new String[] {"intProp"},
+                             Aggregate.count(), Aggregate.sum("longProp"));
+
+        long[][] expected = {{0, 7, 63}, {1, 7, 70}, {2, 6, 57}};
+        for (long[] e : expected) {
+            assertTrue(cursor.hasNext());
+            result = cursor.next();
+            assertEquals(1, result.getGroupPropertyCount());
+            assertEquals("intProp", result.getGroupProperty(0));
+            assertEquals((int) e[0], result.getGroupValue("intProp"));
+            assertEquals(e[1], result.getValue(0));
+            assertEquals(e[2], result.getValue(1));
+        }
+        assertFalse(cursor.hasNext());
+
+        cursor = storage.query("longProp >= ?").with(8)
+            .fetchAggregates(new String[] {"stringProp", "intProp"},
+                             Aggregate.min("longProp"), Aggregate.avg("doubleProp"));
+
+        int count = 0;
+        String lastString = null;
+        while (cursor.hasNext()) {
+            result = cursor.next();
+            String str = (String) result.getGroupValue(0);
+            if (lastString != null) {
+                assertTrue(lastString.compareTo(str) <= 0);
+            }
+            lastString = str;
+            long min = (Long) result.getValue(0);
+            assertTrue(min >= 8);
+            assertEquals(str, "s" + (min % 4));
+            assertEquals(result.getGroupValue("intProp"), (int) (min % 3));
+            count++;
+        }
+        // Twelve rows, each with a distinct combination.
+        assertEquals(12, count);
+
+        try {
+            storage.query().aggregate(Aggregate.sum("stringProp"));
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+
+        try {
+            storage.query().fetchAggregates(new String[] {"bogus"}, Aggregate.count());
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void test_aggregatesIndexed() throws Exception {
+        Storage<StorableTestBasicIndexed> storage =
+            getRepository().storageFor(StorableTestBasicIndexed.class);
+
+        for (int i=0; i<100; i++) {
+            StorableTestBasicIndexed stbi = storage.prepare();
+            stbi.setId(i);
+            stbi.setStringProp("s" + (i % 10));
+            stbi.setIntProp(i % 2);
+            stbi.setLongProp(1000 - i);
+            stbi.setDoubleProp(i);
+            stbi.insert();
+        }
+
+        AggregateResult result = storage.query()
+            .aggregate(Aggregate.min("longProp"), Aggregate.max("longProp"));
+        assertEquals(901L, result.getValue(0));
+        assertEquals(1000L, result.getValue(1));
+
+        result = storage.query("longProp > ? & longProp <= ?").with(910L).with(950L)
+            .aggregate(Aggregate.max("longProp"), Aggregate.min("longProp"));
+        assertEquals(950L, result.getValue(0));
+        assertEquals(911L, result.getValue(1));
+
+        result = storage.query("intProp = ?").with(1)
+            .aggregate(Aggregate.min("id"), Aggregate.max("id"));
+        assertEquals(1, result.getValue(0));
+        assertEquals(99, result.getValue(1));
+
+        result = storage.query("stringProp = ? & doubleProp > ?").with("s3").with(50.0)
+            .aggregate(Aggregate.min("doubleProp"), Aggregate.max("doubleProp"));
+        assertEquals(53.0, result.getValue(0));
+        assertEquals(93.0, result.getValue(1));
+
+        result = storage.query("longProp > ?").with(2000L)
+            .aggregate(Aggregate.count(), Aggregate.min("longProp"));
+        assertEquals(0L, result.getValue(0));
+        assertNull(result.getValue(1));
+    }
+
     public void test_countTimeout() throws Exception {
         Storage<StorableTestMinimal> storage =
             getRepository().storageFor(StorableTestMinimal.class);
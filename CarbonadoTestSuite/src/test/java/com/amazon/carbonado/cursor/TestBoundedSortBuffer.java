@@ -0,0 +1,157 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.cursor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test case for {@link BoundedSortBuffer}.
+ *
+ * @author Brian S O'Neill
+ */
+public class TestBoundedSortBuffer extends TestCase {
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static TestSuite suite() {
+        return new TestSuite(TestBoundedSortBuffer.class);
+    }
+
+    public TestBoundedSortBuffer(String name) {
+        super(name);
+    }
+
+    public void testEmpty() throws Exception {
+        BoundedSortBuffer<Integer> buffer = new BoundedSortBuffer<Integer>(10);
+        buffer.prepare(new IntComparator());
+        buffer.sort();
+        assertEquals(0, buffer.size());
+        assertFalse(buffer.iterator().hasNext());
+        buffer.close();
+    }
+
+    public void testZeroSize() throws Exception {
+        BoundedSortBuffer<Integer> buffer = new BoundedSortBuffer<Integer>(0);
+        buffer.prepare(new IntComparator());
+        for (int i=0; i<100; i++) {
+            buffer.add(i);
+        }
+        buffer.sort();
+        assertEquals(0, buffer.size());
+    }
+
+    public void testNotPrepared() throws Exception {
+        BoundedSortBuffer<Integer> buffer = new BoundedSortBuffer<Integer>(10);
+        try {
+            buffer.add(1);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    public void testRandom() throws Exception {
+        Random rnd = new Random(3892482);
+        for (int maxSize : new int[] {1, 2, 10, 100, 1000}) {
+            for (int count : new int[] {0, 1, 5, 50, 5000}) {
+                List<Integer> all = new ArrayList<Integer>(count);
+                BoundedSortBuffer<Integer> buffer = new BoundedSortBuffer<Integer>(maxSize);
+                buffer.prepare(new IntComparator());
+                for (int i=0; i<count; i++) {
+                    Integer value = rnd.nextInt(count + 1);
+                    all.add(value);
+                    buffer.add(value);
+                }
+                Collections.sort(all);
+                buffer.sort();
+
+                int expectedSize = Math.min(maxSize, count);
+                assertEquals(expectedSize, buffer.size());
+
+                Iterator<Integer> it = buffer.iterator();
+                for (int i=0; i<expectedSize; i++) {
+                    assertEquals(all.get(i), it.next());
+                }
+                assertFalse(it.hasNext());
+
+                buffer.close();
+            }
+        }
+    }
+
+    public void testStable() throws Exception {
+        // Compare only on the tens digit, to produce many ties.
+        Comparator<Integer> c = new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return (a / 10) - (b / 10);
+            }
+        };
+
+        Random rnd = new Random(2198732);
+        List<Integer> all = new ArrayList<Integer>();
+        BoundedSortBuffer<Integer> buffer = new BoundedSortBuffer<Integer>(25);
+        buffer.prepare(c);
+        for (int i=0; i<1000; i++) {
+            Integer value = rnd.nextInt(100);
+            all.add(value);
+            buffer.add(value);
+        }
+        Collections.sort(all, c);
+        buffer.sort();
+
+        assertEquals(all.subList(0, 25), new ArrayList<Integer>(buffer));
+    }
+
+    public void testReuse() throws Exception {
+        BoundedSortBuffer<Integer> buffer = new BoundedSortBuffer<Integer>(3);
+        buffer.prepare(new IntComparator());
+        buffer.add(5);
+        buffer.add(1);
+        buffer.add(4);
+        buffer.add(2);
+        buffer.sort();
+        assertEquals("[1, 2, 4]", new ArrayList<Integer>(buffer).toString());
+
+        buffer.prepare(new IntComparator());
+        buffer.add(9);
+        buffer.add(8);
+        buffer.sort();
+        assertEquals("[8, 9]", new ArrayList<Integer>(buffer).toString());
+
+        // Adding after sort is allowed.
+        buffer.add(7);
+        buffer.add(10);
+        buffer.sort();
+        assertEquals("[7, 8, 9]", new ArrayList<Integer>(buffer).toString());
+    }
+
+    private static class IntComparator implements Comparator<Integer> {
+        public int compare(Integer a, Integer b) {
+            return a.compareTo(b);
+        }
+    }
+}
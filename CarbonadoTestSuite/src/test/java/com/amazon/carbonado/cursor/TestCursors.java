@@ -465,6 +465,78 @@ public class TestCursors extends TestCase {
         }
     }
 
+    public void testAsyncFetchAhead() throws Exception {
+        Cursor<Element> c;
+
+        c = new AsyncFetchAheadCursor<Element>(createElements(), 1);
+        compareElements(c);
+
+        c = new AsyncFetchAheadCursor<Element>(createElements(1, 2, 3, 4, 5), 1);
+        compareElements(c, 1, 2, 3, 4, 5);
+
+        c = new AsyncFetchAheadCursor<Element>(createElements(1, 2, 3, 4, 5), 100);
+        compareElements(c, 1, 2, 3, 4, 5);
+
+        c = new AsyncFetchAheadCursor<Element>(createElements(1, 2, 3, 4, 5), 2);
+        assertEquals(2, c.skipNext(2));
+        compareElements(c, 3, 4, 5);
+
+        // Closing early stops the background fetch and closes the source.
+        Infinite inf = new Infinite();
+        c = new AsyncFetchAheadCursor<Element>(inf, 10);
+        assertTrue(c.hasNext());
+        assertEquals(1, c.next().getId());
+        c.close();
+        assertTrue(inf.mClosed);
+        assertFalse(c.hasNext());
+    }
+
+    public void testAsyncFetchAheadException() throws Exception {
+        Cursor<Element> source = new AbstractCursor<Element>() {
+            private int mID;
+
+            public boolean hasNext() {
+                return true;
+            }
+
+            public Element next() throws FetchException {
+                if (mID >= 3) {
+                    throw new FetchException("failed");
+                }
+                return new Element(++mID);
+            }
+
+            public void close() {
+            }
+        };
+
+        Cursor<Element> c = new AsyncFetchAheadCursor<Element>(source, 10);
+        assertEquals(1, c.next().getId());
+        assertEquals(2, c.next().getId());
+        assertEquals(3, c.next().getId());
+        try {
+            c.hasNext();
+            fail();
+        } catch (FetchException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertFalse(c.hasNext());
+    }
+
+    public void testAsyncFetchAheadTimeout() throws Exception {
+        Infinite inf = new Infinite();
+        Cursor<Element> cursor = new AsyncFetchAheadCursor<Element>
+            (inf, 10, null, Query.Timeout.seconds(1));
+        try {
+            while (cursor.hasNext()) {
+                cursor.next();
+            }
+            fail();
+        } catch (FetchTimeoutException e) {
+            assertTrue(inf.mClosed);
+        }
+    }
+
     private Cursor<Element> createElements(int... ids) {
         Arrays.sort(ids);
         Element[] elements = new Element[ids.length];
@@ -533,7 +605,7 @@ public class TestCursors extends TestCase {
 
     private static class Infinite extends AbstractCursor<Element> {
         private int mID;
-        boolean mClosed;
+        volatile boolean mClosed;
 
         public boolean hasNext() {
             return true;
@@ -194,21 +194,216 @@ public class TestJoinedQueryExecutor extends TestQueryExecutor {
         assertEquals(1L, userExecutor.count(values));
     }
 
+    public void testHashJoin() throws Exception {
+        StorableInfo<UserInfo> info = StorableIntrospector.examine(UserInfo.class);
+        RepositoryAccess repoAccess = new RepoAccess();
+
+        // No indexes are available for joining to UserInfo, and so a hash
+        // join is performed instead of a full scan per address.
+        Filter<UserInfo> filter =
+            Filter.filterFor(UserInfo.class, "address.state = ? & firstName != ?");
+        QueryExecutor<UserInfo> userExecutor = JoinedQueryExecutor.build
+            (repoAccess, ChainedProperty.parse(info, "address"), filter.bind(), null, null);
+
+        StringBuffer buf = new StringBuffer();
+        userExecutor.printPlan(buf, 0, null);
+        String plan = buf.toString();
+        assertTrue(plan, plan.startsWith("hash join: " + UserInfo.class.getName() + '\n'));
+        assertTrue(plan, plan.contains("...probe: address\n"));
+        assertTrue(plan, plan.contains("...build\n"));
+
+        Storage<UserAddress> addressStorage = mRepository.storageFor(UserAddress.class);
+        for (int i=1; i<=20; i++) {
+            UserAddress addr = addressStorage.prepare();
+            addr.setAddressID(i);
+            addr.setLine1("line");
+            addr.setCity("city");
+            addr.setState((i & 1) == 1 ? "WA" : "OR");
+            addr.setCountry("USA");
+            addr.insert();
+        }
+
+        Storage<UserInfo> userStorage = mRepository.storageFor(UserInfo.class);
+        for (int i=1; i<=100; i++) {
+            UserInfo user = userStorage.prepare();
+            user.setUserID(i);
+            user.setStateID(1);
+            user.setFirstName(i % 10 == 0 ? "Skip" : "User");
+            user.setLastName("Last");
+            user.setAddressID((i % 20) + 1);
+            user.insert();
+        }
+
+        FilterValues<UserInfo> values = filter.initialFilterValues().with("WA").with("Skip");
+
+        List<UserInfo> list = userExecutor.fetch(values).toList();
+        assertEquals(40, list.size());
+        for (UserInfo user : list) {
+            assertEquals("User", user.getFirstName());
+            assertEquals(1, user.getAddressID() & 1);
+            UserAddress addr = user.getAddress();
+            assertEquals(user.getAddressID(), addr.getAddressID());
+            assertEquals("WA", addr.getState());
+        }
+
+        assertEquals(40L, userExecutor.count(values));
+    }
+
+    public void testMergeJoin() throws Exception {
+        StorableInfo<UserInfo> info = StorableIntrospector.examine(UserInfo.class);
+        RepositoryAccess repoAccess = new IndexedRepoAccess();
+
+        // Addresses can be fetched in addressID order by primary key, and
+        // users can be fetched in addressID order by index.
+        Filter<UserInfo> filter =
+            Filter.filterFor(UserInfo.class, "address.line1 != ? & firstName != ?");
+        QueryExecutor<UserInfo> userExecutor = JoinedQueryExecutor.build
+            (repoAccess, ChainedProperty.parse(info, "address"), filter.bind(), null, null);
+
+        StringBuffer buf = new StringBuffer();
+        userExecutor.printPlan(buf, 0, null);
+        String plan = buf.toString();
+        assertTrue(plan, plan.startsWith("merge join: " + UserInfo.class.getName() + '\n'));
+        assertTrue(plan, plan.contains("...inner scan: address\n"));
+        assertTrue(plan, plan.contains("...outer scan\n"));
+
+        assertEquals(OrderingList.get(UserInfo.class, "+address.addressID"),
+                     userExecutor.getOrdering());
+
+        Storage<UserAddress> addressStorage = mRepository.storageFor(UserAddress.class);
+        for (int i=20; i>=1; i--) {
+            UserAddress addr = addressStorage.prepare();
+            addr.setAddressID(i);
+            addr.setLine1(i % 3 == 0 ? "skip" : "line");
+            addr.setCity("city");
+            addr.setState("WA");
+            addr.setCountry("USA");
+            addr.insert();
+        }
+
+        Storage<UserInfo> userStorage = mRepository.storageFor(UserInfo.class);
+        for (int i=1; i<=100; i++) {
+            UserInfo user = userStorage.prepare();
+            user.setUserID(i);
+            user.setStateID(1);
+            user.setFirstName(i % 10 == 0 ? "Skip" : "User");
+            user.setLastName("Last");
+            // Some users refer to addresses which don't exist.
+            user.setAddressID((i * 7) % 23);
+            user.insert();
+        }
+
+        FilterValues<UserInfo> values = filter.initialFilterValues().with("skip").with("Skip");
+
+        List<UserInfo> expected = new ArrayList<UserInfo>();
+        for (UserInfo user : userStorage.query().fetch().toList()) {
+            int addressID = user.getAddressID();
+            if (addressID >= 1 && addressID <= 20 && addressID % 3 != 0
+                && !"Skip".equals(user.getFirstName()))
+            {
+                expected.add(user);
+            }
+        }
+
+        List<UserInfo> list = userExecutor.fetch(values).toList();
+        assertEquals(expected.size(), list.size());
+        int lastAddressID = 0;
+        for (UserInfo user : list) {
+            assertTrue(expected.contains(user));
+            assertTrue(user.getAddressID() >= lastAddressID);
+            lastAddressID = user.getAddressID();
+            UserAddress addr = user.getAddress();
+            assertEquals(user.getAddressID(), addr.getAddressID());
+            assertEquals("line", addr.getLine1());
+        }
+
+        assertEquals((long) expected.size(), userExecutor.count(values));
+    }
+
+    public void testSelectiveMergeJoin() throws Exception {
+        StorableInfo<UserInfo> info = StorableIntrospector.examine(UserInfo.class);
+
+        // Uniquified indexes on city and addressID can provide addressID
+        // order for free, but a lookup per matching address is still
+        // cheaper than scanning all users.
+        Filter<UserInfo> filter =
+            Filter.filterFor(UserInfo.class, "address.city = ? & firstName != ?");
+        QueryExecutor<UserInfo> userExecutor = JoinedQueryExecutor.build
+            (new UniquifiedRepoAccess(false),
+             ChainedProperty.parse(info, "address"), filter.bind(), null, null);
+
+        StringBuffer buf = new StringBuffer();
+        userExecutor.printPlan(buf, 0, null);
+        String plan = buf.toString();
+        assertTrue(plan, plan.startsWith("join: " + UserInfo.class.getName() + '\n'));
+
+        // Statistics report that all addresses are in the same city.
+        userExecutor = JoinedQueryExecutor.build
+            (new UniquifiedRepoAccess(true),
+             ChainedProperty.parse(info, "address"), filter.bind(), null, null);
+
+        buf = new StringBuffer();
+        userExecutor.printPlan(buf, 0, null);
+        plan = buf.toString();
+        assertTrue(plan, plan.startsWith("merge join: " + UserInfo.class.getName() + '\n'));
+    }
+
     class RepoAccess implements RepositoryAccess {
         public Repository getRootRepository() {
             return mRepository;
         }
 
         public <S extends Storable> StorageAccess<S> storageAccessFor(Class<S> type) {
-            return new StoreAccess<S>(type);
+            return new StoreAccess<S>(type, false);
+        }
+    }
+
+    /**
+     * Reports the declared indexes of each type, although queries are
+     * still performed with full scans and sorts.
+     */
+    class IndexedRepoAccess extends RepoAccess {
+        public <S extends Storable> StorageAccess<S> storageAccessFor(Class<S> type) {
+            return new StoreAccess<S>(type, true);
+        }
+    }
+
+    /**
+     * Reports the declared indexes of each type with the primary key
+     * appended, like most repositories do.
+     */
+    class UniquifiedRepoAccess extends RepoAccess {
+        private final boolean mStats;
+
+        /**
+         * @param stats when true, also report statistics which claim that
+         * every index property has only one distinct value
+         */
+        UniquifiedRepoAccess(boolean stats) {
+            mStats = stats;
+        }
+
+        public <S extends Storable> StorageAccess<S> storageAccessFor(Class<S> type) {
+            if (mStats) {
+                return new StatsStoreAccess<S>(type);
+            }
+            return new StoreAccess<S>(type, true, true);
         }
     }
 
     class StoreAccess<S extends Storable> implements StorageAccess<S>, QueryExecutorFactory<S> {
         private final Class<S> mType;
+        private final boolean mIndexed;
+        private final boolean mUniquified;
 
-        StoreAccess(Class<S> type) {
+        StoreAccess(Class<S> type, boolean indexed) {
+            this(type, indexed, false);
+        }
+
+        StoreAccess(Class<S> type, boolean indexed, boolean uniquified) {
             mType = type;
+            mIndexed = indexed;
+            mUniquified = uniquified;
         }
 
         public Class<S> getStorableType() {
@@ -240,6 +435,15 @@ public class TestJoinedQueryExecutor extends TestQueryExecutor {
         }
 
         public Collection<StorableIndex<S>> getAllIndexes() {
+            if (mIndexed) {
+                StorableInfo<S> info = StorableIntrospector.examine(mType);
+                List<StorableIndex<S>> indexes = new ArrayList<StorableIndex<S>>();
+                indexes.add(new StorableIndex<S>(info.getPrimaryKey(), Direction.ASCENDING));
+                for (StorableIndex<S> index : info.getIndexes()) {
+                    indexes.add(mUniquified ? index.uniquify(info.getPrimaryKey()) : index);
+                }
+                return indexes;
+            }
             StorableIndex<S>[] indexes = new StorableIndex[0];
             return Arrays.asList(indexes);
         }
@@ -323,6 +527,20 @@ public class TestJoinedQueryExecutor extends TestQueryExecutor {
         }
     }
 
+    class StatsStoreAccess<S extends Storable> extends StoreAccess<S>
+        implements IndexStatisticsAccess<S>
+    {
+        StatsStoreAccess(Class<S> type) {
+            super(type, true, true);
+        }
+
+        public IndexStatistics<S> getIndexStatistics(StorableIndex<S> index) {
+            long[] distinctCounts = new long[index.getPropertyCount()];
+            Arrays.fill(distinctCounts, 1);
+            return new IndexStatistics<S>(index, 1000, distinctCounts, null, 0);
+        }
+    }
+
     static class ScanQuerySupport<S extends Storable> implements FullScanQueryExecutor.Support<S> {
         private final Query<S> mQuery;
 
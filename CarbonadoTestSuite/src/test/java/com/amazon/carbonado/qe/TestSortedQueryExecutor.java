@@ -81,4 +81,33 @@ public class TestSortedQueryExecutor extends TestQueryExecutor {
 
         compareElements(executor.fetch(values), 1, 2, 3, 4);
     }
+
+    public void testBoundedSlice() throws Exception {
+        QueryExecutor<Address> unsorted = createExecutor(7, 3, 9, 1, 5, 8, 2, 6, 4);
+        Filter<Address> filter = Filter.getOpenFilter(Address.class);
+        FilterValues<Address> values = filter.initialFilterValues();
+        OrderingList<Address> ordered = createOrdering("addressCountry");
+
+        QueryExecutor<Address> executor =
+            new SortedQueryExecutor<Address>(null, unsorted, null, ordered);
+
+        compareElements(executor.fetchSlice(values, 0, 3L), 1, 2, 3);
+        compareElements(executor.fetchSlice(values, 2, 5L), 3, 4, 5);
+        compareElements(executor.fetchSlice(values, 7, 20L), 8, 9);
+        compareElements(executor.fetchSlice(values, 4, 4L));
+        compareElements(executor.fetchSlice(values, 6, null), 7, 8, 9);
+    }
+
+    public void testBoundedFinisherSlice() throws Exception {
+        QueryExecutor<Address> unsorted = createExecutor(1, 2, 3, 4);
+        Filter<Address> filter = Filter.getOpenFilter(Address.class);
+        FilterValues<Address> values = filter.initialFilterValues();
+        OrderingList<Address> handled = createOrdering("addressCountry");
+        OrderingList<Address> finisher = createOrdering("addressState");
+
+        QueryExecutor<Address> executor =
+            new SortedQueryExecutor<Address>(null, unsorted, handled, finisher);
+
+        compareElements(executor.fetchSlice(values, 1, 3L), 2, 3);
+    }
 }
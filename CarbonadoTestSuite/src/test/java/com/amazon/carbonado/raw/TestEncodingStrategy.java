@@ -324,9 +324,26 @@ public class TestEncodingStrategy extends TestCase {
         test_keyEncoding_multipleProperties(5, 7);
     }
 
+    public void test_keyEncoding_multipleProperties_compact() throws Exception {
+        test_keyEncoding_multipleProperties(0, 0, KeyEncodingType.COMPACT);
+    }
+
+    public void test_keyEncoding_multipleProperties_compact_prefixAndSuffix()
+        throws Exception
+    {
+        test_keyEncoding_multipleProperties(5, 7, KeyEncodingType.COMPACT);
+    }
+
     private void test_keyEncoding_multipleProperties(int prefix, int suffix) throws Exception {
+        test_keyEncoding_multipleProperties(prefix, suffix, null);
+    }
+
+    private void test_keyEncoding_multipleProperties(int prefix, int suffix,
+                                                     KeyEncodingType keyEncodingType)
+        throws Exception
+    {
         GenericEncodingStrategy strategy = new GenericEncodingStrategy
-            (TestStorable.class, null, prefix, suffix, 0, 0);
+            (TestStorable.class, null, prefix, suffix, 0, 0, keyEncodingType);
 
         for (int i=0; i<MEDIUM_TEST; i++) {
             StorableProperty<TestStorable>[] properties = selectProperties(1, 50);
@@ -430,8 +447,16 @@ public class TestEncodingStrategy extends TestCase {
     }
 
     public void test_keyEncoding_ordering() throws Exception {
-        GenericEncodingStrategy strategy =
-            new GenericEncodingStrategy(TestStorable.class, null, 0, 0, 0, 0);
+        test_keyEncoding_ordering(null);
+    }
+
+    public void test_keyEncoding_ordering_compact() throws Exception {
+        test_keyEncoding_ordering(KeyEncodingType.COMPACT);
+    }
+
+    private void test_keyEncoding_ordering(KeyEncodingType keyEncodingType) throws Exception {
+        GenericEncodingStrategy strategy = new GenericEncodingStrategy
+            (TestStorable.class, null, 0, 0, 0, 0, keyEncodingType);
 
         for (int i=0; i<MEDIUM_TEST; i++) {
             StorableProperty<TestStorable>[] properties = selectProperties(1, 50);
@@ -530,6 +555,101 @@ public class TestEncodingStrategy extends TestCase {
         return -1;
     }
 
+    public void test_bufferedEncoding() throws Exception {
+        test_bufferedEncoding(0, 0);
+    }
+
+    public void test_bufferedEncoding_prefixAndSuffix() throws Exception {
+        test_bufferedEncoding(5, 7);
+    }
+
+    private void test_bufferedEncoding(int prefix, int suffix) throws Exception {
+        GenericEncodingStrategy strategy = new GenericEncodingStrategy
+            (TestStorable.class, null, prefix, suffix, prefix, suffix);
+
+        // Reuse the buffer, to verify that stale contents are overwritten.
+        EncodingBuffer buffer = EncodingBuffer.acquire();
+
+        for (int i=0; i<SHORT_TEST; i++) {
+            StorableProperty<TestStorable>[] properties = selectProperties(1, 50);
+            Direction[] directions = selectDirections(properties.length);
+            Method[] methods = generateBufferedMethods(strategy, properties, directions, 1);
+            Object[] values = selectPropertyValues(properties);
+
+            byte[] key = (byte[]) methods[0].invoke(null, new Object[] {values});
+            byte[] data = (byte[]) methods[1].invoke(null, new Object[] {values});
+            methods[2].invoke(null, values, buffer);
+            methods[3].invoke(null, values, buffer);
+
+            assertEquals(key.length, buffer.getKeyLength());
+            assertTrue(Arrays.equals(key, Arrays.copyOf(buffer.getKey(), key.length)));
+            assertEquals(data.length, buffer.getDataLength());
+            assertTrue(Arrays.equals(data, Arrays.copyOf(buffer.getData(), data.length)));
+        }
+
+        buffer.release();
+    }
+
+    /**
+     * Returns static key and data encoders, followed by key and data encoders
+     * which accept an EncodingBuffer.
+     */
+    private Method[] generateBufferedMethods(GenericEncodingStrategy strategy,
+                                             StorableProperty<TestStorable>[] properties,
+                                             Direction[] directions,
+                                             int generation)
+        throws Exception
+    {
+        ClassInjector ci = ClassInjector.create(TestStorable.class.getName(), null);
+        ClassFile cf = new ClassFile(ci.getClassName());
+        cf.markSynthetic();
+        cf.setTarget("1.5");
+
+        cf.addDefaultConstructor();
+
+        TypeDesc byteArrayType = TypeDesc.forClass(byte[].class);
+        TypeDesc objectArrayType = TypeDesc.forClass(Object[].class);
+        TypeDesc bufferType = TypeDesc.forClass(EncodingBuffer.class);
+
+        OrderedProperty<TestStorable>[] ordered = makeOrderedProperties(properties, directions);
+
+        MethodInfo mi = cf.addMethod(Modifiers.PUBLIC_STATIC, "encodeKey", byteArrayType,
+                                     new TypeDesc[] {objectArrayType});
+        CodeBuilder b = new CodeBuilder(mi);
+        b.loadLocal(strategy.buildKeyEncoding
+                    (b, ordered, b.getParameter(0), null, false, null, null));
+        b.returnValue(byteArrayType);
+
+        mi = cf.addMethod(Modifiers.PUBLIC_STATIC, "encodeData", byteArrayType,
+                          new TypeDesc[] {objectArrayType});
+        b = new CodeBuilder(mi);
+        b.loadLocal(strategy.buildDataEncoding
+                    (b, properties, b.getParameter(0), null, false, generation));
+        b.returnValue(byteArrayType);
+
+        mi = cf.addMethod(Modifiers.PUBLIC_STATIC, "encodeKey", null,
+                          new TypeDesc[] {objectArrayType, bufferType});
+        b = new CodeBuilder(mi);
+        strategy.buildKeyEncoding(b, ordered, b.getParameter(0), null, false, b.getParameter(1));
+        b.returnVoid();
+
+        mi = cf.addMethod(Modifiers.PUBLIC_STATIC, "encodeData", null,
+                          new TypeDesc[] {objectArrayType, bufferType});
+        b = new CodeBuilder(mi);
+        strategy.buildDataEncoding
+            (b, properties, b.getParameter(0), null, false, generation, b.getParameter(1));
+        b.returnVoid();
+
+        Class<?> clazz = ci.defineClass(cf);
+
+        return new Method[] {
+            clazz.getMethod("encodeKey", Object[].class),
+            clazz.getMethod("encodeData", Object[].class),
+            clazz.getMethod("encodeKey", Object[].class, EncodingBuffer.class),
+            clazz.getMethod("encodeData", Object[].class, EncodingBuffer.class),
+        };
+    }
+
     /**
      * First method is the encoder, second is the decoder. Both methods are
      * static. Encoder accepts an object array of property values, and it
@@ -26,6 +26,8 @@ import java.util.Random;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
+import com.amazon.carbonado.CorruptEncodingException;
+
 /**
  * Test case for {@link KeyEncoder} and {@link KeyDecoder}. 
  * <p>
@@ -304,6 +306,138 @@ public class TestKeyEncoding extends TestCase {
         }
     }
 
+    public void test_compactLong() throws Exception {
+        test_compactLong(false);
+    }
+
+    public void test_compactLongDesc() throws Exception {
+        test_compactLong(true);
+    }
+
+    private void test_compactLong(boolean desc) throws Exception {
+        byte[] bytes = new byte[10];
+        Long lastValue = 0L;
+        byte[] lastBytes = null;
+        for (int i=0; i<LONG_TEST; i++) {
+            Long value;
+            int amt;
+            if (mRandom.nextInt(10) == 1) {
+                value = null;
+                amt = desc ? KeyEncoder.encodeCompactDesc(value, bytes, 1)
+                    : KeyEncoder.encodeCompact(value, bytes, 1);
+                assertEquals(1, amt);
+            } else {
+                // Vary the magnitude, to exercise all encoded lengths.
+                value = mRandom.nextLong() >> mRandom.nextInt(64);
+                amt = desc ? KeyEncoder.encodeCompactDesc(value, bytes, 1)
+                    : KeyEncoder.encodeCompact(value, bytes, 1);
+                if (mRandom.nextBoolean()) {
+                    long v = value.longValue();
+                    assertEquals(amt, desc ? KeyEncoder.encodeCompactDesc(v, bytes, 1)
+                                 : KeyEncoder.encodeCompact(v, bytes, 1));
+                }
+                assertEquals(value.longValue(), desc ? KeyDecoder.decodeCompactLongDesc(bytes, 1)
+                             : KeyDecoder.decodeCompactLong(bytes, 1));
+            }
+            assertEquals(amt, KeyEncoder.calculateCompactEncodedLength(value));
+            assertEquals(amt, KeyDecoder.decodeCompactLength(bytes, 1));
+            assertEquals(value, desc ? KeyDecoder.decodeCompactLongObjDesc(bytes, 1)
+                         : KeyDecoder.decodeCompactLongObj(bytes, 1));
+
+            byte[] encoded = new byte[amt];
+            System.arraycopy(bytes, 1, encoded, 0, amt);
+            if (lastBytes != null) {
+                int sgn = TestDataEncoding.compare(value, lastValue);
+                if (desc) {
+                    sgn = -sgn;
+                }
+                assertEquals(sgn, TestDataEncoding.byteArrayCompare(encoded, lastBytes));
+            }
+            lastValue = value;
+            lastBytes = encoded;
+        }
+    }
+
+    public void test_compactInt() throws Exception {
+        test_compactInt(false);
+    }
+
+    public void test_compactIntDesc() throws Exception {
+        test_compactInt(true);
+    }
+
+    private void test_compactInt(boolean desc) throws Exception {
+        byte[] bytes = new byte[5];
+        Integer lastValue = 0;
+        byte[] lastBytes = null;
+        for (int i=0; i<LONG_TEST; i++) {
+            Integer value;
+            int amt;
+            if (mRandom.nextInt(10) == 1) {
+                value = null;
+                amt = desc ? KeyEncoder.encodeCompactDesc(value, bytes, 0)
+                    : KeyEncoder.encodeCompact(value, bytes, 0);
+                assertEquals(1, amt);
+            } else {
+                value = mRandom.nextInt() >> mRandom.nextInt(32);
+                amt = desc ? KeyEncoder.encodeCompactDesc(value.intValue(), bytes, 0)
+                    : KeyEncoder.encodeCompact(value.intValue(), bytes, 0);
+                assertTrue(amt <= 5);
+                assertEquals(value.intValue(), desc ? KeyDecoder.decodeCompactIntDesc(bytes, 0)
+                             : KeyDecoder.decodeCompactInt(bytes, 0));
+                // Same encoding as a long of the same value.
+                assertEquals(value.longValue(), desc ? KeyDecoder.decodeCompactLongDesc(bytes, 0)
+                             : KeyDecoder.decodeCompactLong(bytes, 0));
+            }
+            assertEquals(amt, KeyEncoder.calculateCompactEncodedLength(value));
+            assertEquals(amt, KeyDecoder.decodeCompactLength(bytes, 0));
+            assertEquals(value, desc ? KeyDecoder.decodeCompactIntegerObjDesc(bytes, 0)
+                         : KeyDecoder.decodeCompactIntegerObj(bytes, 0));
+
+            byte[] encoded = new byte[amt];
+            System.arraycopy(bytes, 0, encoded, 0, amt);
+            if (lastBytes != null) {
+                int sgn = TestDataEncoding.compare(value, lastValue);
+                if (desc) {
+                    sgn = -sgn;
+                }
+                assertEquals(sgn, TestDataEncoding.byteArrayCompare(encoded, lastBytes));
+            }
+            lastValue = value;
+            lastBytes = encoded;
+        }
+    }
+
+    public void test_compactBoundaries() throws Exception {
+        long[] values = {
+            0, 1, -1, 127, 128, -128, -129, 255, 256, -256, -257,
+            Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE
+        };
+        byte[] bytes = new byte[9];
+        for (long value : values) {
+            int amt = KeyEncoder.encodeCompact(value, bytes, 0);
+            assertEquals(value, KeyDecoder.decodeCompactLong(bytes, 0));
+            assertEquals(amt, KeyDecoder.decodeCompactLength(bytes, 0));
+            amt = KeyEncoder.encodeCompactDesc(value, bytes, 0);
+            assertEquals(value, KeyDecoder.decodeCompactLongDesc(bytes, 0));
+            assertEquals(amt, KeyDecoder.decodeCompactLength(bytes, 0));
+        }
+
+        assertEquals(1, KeyEncoder.calculateCompactEncodedLength(0));
+        assertEquals(2, KeyEncoder.calculateCompactEncodedLength(255));
+        assertEquals(2, KeyEncoder.calculateCompactEncodedLength(-256));
+        assertEquals(5, KeyEncoder.calculateCompactEncodedLength(Integer.MIN_VALUE));
+        assertEquals(9, KeyEncoder.calculateCompactEncodedLength(Long.MAX_VALUE));
+
+        // Long value cannot be decoded as an int.
+        KeyEncoder.encodeCompact(1L << 40, bytes, 0);
+        try {
+            KeyDecoder.decodeCompactInt(bytes, 0);
+            fail();
+        } catch (CorruptEncodingException e) {
+        }
+    }
+
     public void test_floatDesc() throws Exception {
         byte[] bytes = new byte[4];
         float lastValue = 0;
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.raw;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.amazon.carbonado.CorruptEncodingException;
+
+/**
+ * Test case for {@link LZCompressor}.
+ *
+ * @author Brian S O'Neill
+ */
+public class TestLZCompressor extends TestCase {
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static TestSuite suite() {
+        return new TestSuite(TestLZCompressor.class);
+    }
+
+    public TestLZCompressor(String name) {
+        super(name);
+    }
+
+    public void testRoundTrip() throws Exception {
+        Random rnd = new Random(3984574);
+        for (int i=0; i<2000; i++) {
+            byte[] value = randomRecord(rnd, rnd.nextInt(3000));
+            int prefix = rnd.nextInt(Math.min(value.length, 8) + 1);
+            byte[] compressed = LZCompressor.compress(value, prefix);
+            for (int j=0; j<prefix; j++) {
+                assertEquals(value[j], compressed[j]);
+            }
+            assertTrue(Arrays.equals(value, LZCompressor.decompress(compressed, prefix)));
+        }
+    }
+
+    public void testCompressible() throws Exception {
+        byte[] value = new byte[10000];
+        for (int i=0; i<value.length; i++) {
+            value[i] = (byte) ("WORD".charAt(i & 3));
+        }
+        byte[] compressed = LZCompressor.compress(value, 2);
+        assertTrue(compressed.length < 100);
+        assertTrue(Arrays.equals(value, LZCompressor.decompress(compressed, 2)));
+
+        // Random data cannot be compressed, and it only grows by one byte.
+        Random rnd = new Random(2123);
+        rnd.nextBytes(value);
+        compressed = LZCompressor.compress(value, 0);
+        assertEquals(value.length + 1, compressed.length);
+        assertTrue(Arrays.equals(value, LZCompressor.decompress(compressed, 0)));
+    }
+
+    public void testDictionary() throws Exception {
+        Random rnd = new Random(90210);
+
+        List<byte[]> samples = new ArrayList<byte[]>();
+        for (int i=0; i<500; i++) {
+            samples.add(randomRecord(rnd, 200));
+        }
+
+        byte[] dictionary = LZCompressor.trainDictionary(samples, 4096);
+        assertTrue(dictionary.length > 0);
+        assertTrue(dictionary.length <= 4096);
+
+        String id = LZCompressor.registerDictionary(dictionary);
+        assertEquals(id, LZCompressor.registerDictionary(dictionary.clone()));
+
+        long plain = 0, primed = 0;
+        for (int i=0; i<500; i++) {
+            byte[] value = randomRecord(rnd, 200);
+            byte[] c1 = LZCompressor.compress(value, 1);
+            byte[] c2 = LZCompressor.compress(value, 1, id);
+            plain += c1.length;
+            primed += c2.length;
+            assertTrue(Arrays.equals(value, LZCompressor.decompress(c2, 1, id)));
+        }
+
+        // Small records benefit from a dictionary, even when fields are
+        // arranged randomly.
+        assertTrue(primed * 5 < plain * 4);
+
+        try {
+            LZCompressor.compress(new byte[10], 0, "bogus");
+            fail();
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    public void testCorrupt() throws Exception {
+        byte[] value = randomRecord(new Random(1), 1000);
+        byte[] compressed = LZCompressor.compress(value, 0);
+
+        byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+        try {
+            LZCompressor.decompress(truncated, 0);
+            fail();
+        } catch (CorruptEncodingException e) {
+        }
+
+        byte[] bad = compressed.clone();
+        bad[0] = 99;
+        try {
+            LZCompressor.decompress(bad, 0);
+            fail();
+        } catch (CorruptEncodingException e) {
+        }
+    }
+
+    /**
+     * Generates something which resembles an encoded record, with fields
+     * drawn from a small vocabulary.
+     */
+    private static byte[] randomRecord(Random rnd, int length) {
+        String[] words = {
+            "customer", "order", "shipped", "pending", "address", "Seattle",
+            "\u0001\u0000\u0000", "\u00ff\u00fe", "2012-01-01", "status:",
+        };
+        byte[] value = new byte[length];
+        int i = 0;
+        while (i < length) {
+            if (rnd.nextInt(4) == 0) {
+                value[i++] = (byte) rnd.nextInt();
+            } else {
+                String word = words[rnd.nextInt(words.length)];
+                for (int j=0; j<word.length() && i<length; j++) {
+                    value[i++] = (byte) word.charAt(j);
+                }
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2007-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazon.carbonado.repo.indexed;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.Storage;
+import com.amazon.carbonado.Transaction;
+
+import com.amazon.carbonado.capability.StorableInfoCapability;
+
+import com.amazon.carbonado.info.StorableIndex;
+
+import com.amazon.carbonado.qe.IndexStatistics;
+
+import com.amazon.carbonado.TestUtilities;
+import com.amazon.carbonado.stored.StorableTestBasicIndexed;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestIndexStatistics extends TestCase {
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static TestSuite suite() {
+        return new TestSuite(TestIndexStatistics.class);
+    }
+
+    private Repository mRepository;
+
+    public TestIndexStatistics(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRepository = TestUtilities.buildTempRepository("indexed");
+    }
+
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        mRepository.close();
+        mRepository = null;
+    }
+
+    public void testGather() throws Exception {
+        populate(1000);
+
+        IndexStatisticsCapability cap =
+            mRepository.getCapability(IndexStatisticsCapability.class);
+        assertNotNull(cap);
+
+        assertEquals(0, cap.getIndexStatistics(StorableTestBasicIndexed.class).length);
+
+        IndexStatistics<StorableTestBasicIndexed>[] stats =
+            cap.gatherIndexStatistics(StorableTestBasicIndexed.class, 1);
+        // Four declared indexes and the primary key.
+        assertEquals(5, stats.length);
+        assertEquals(5, cap.getIndexStatistics(StorableTestBasicIndexed.class).length);
+
+        IndexStatistics<StorableTestBasicIndexed> intStats = find(stats, "intProp");
+        assertEquals(1000, intStats.getRowCount());
+        assertEquals(2, intStats.getDistinctCount(1));
+        assertEquals(1000, intStats.getDistinctCount(2));
+        assertNotNull(intStats.getHistogram());
+
+        IndexStatistics<StorableTestBasicIndexed> stringStats = find(stats, "stringProp");
+        assertEquals(10, stringStats.getDistinctCount(1));
+
+        IndexStatistics<StorableTestBasicIndexed> longStats = find(stats, "longProp");
+        assertEquals(1000, longStats.getDistinctCount(1));
+        Comparable[] histogram = longStats.getHistogram();
+        assertEquals(0L, histogram[0]);
+        assertEquals(999L, histogram[histogram.length - 1]);
+
+        // Sampled statistics are estimates.
+        stats = cap.gatherIndexStatistics(StorableTestBasicIndexed.class, 10);
+        stringStats = find(stats, "stringProp");
+        assertEquals(1000, stringStats.getRowCount());
+        long distinct = stringStats.getDistinctCount(1);
+        assertTrue(distinct >= 5 && distinct <= 20);
+
+        try {
+            cap.gatherIndexStatistics(StorableTestBasicIndexed.class, 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testPersisted() throws Exception {
+        populate(100);
+
+        IndexStatisticsCapability cap =
+            mRepository.getCapability(IndexStatisticsCapability.class);
+        cap.gatherIndexStatistics(StorableTestBasicIndexed.class, 1);
+
+        Repository wrapped = ((IndexedRepository) mRepository).getWrappedRepository();
+        Storage<StoredIndexStatistics> storage = wrapped.storageFor(StoredIndexStatistics.class);
+        assertEquals(5, storage.query().count());
+
+        StoredIndexStatistics stored = storage.query("distinctCounts = ?").with("2,100").loadOne();
+        assertEquals(100, stored.getRowCount());
+        assertEquals(1, stored.getSampleInterval());
+        assertNotNull(stored.getHistogram());
+
+        IndexStatistics<StorableTestBasicIndexed> stats = find
+            (cap.getIndexStatistics(StorableTestBasicIndexed.class), "intProp");
+        assertEquals(stats.getIndex().getNameDescriptor(), stored.getIndexName());
+
+        IndexStatistics<StorableTestBasicIndexed> decoded =
+            IndexStatisticsGatherer.fromStored(stats.getIndex(), stored);
+        assertEquals(stats.getRowCount(), decoded.getRowCount());
+        assertEquals(stats.getDistinctCount(1), decoded.getDistinctCount(1));
+        assertEquals(stats.getTimestamp(), decoded.getTimestamp());
+        assertTrue(Arrays.equals(stats.getHistogram(), decoded.getHistogram()));
+
+        // Metadata type is not a user type.
+        String[] names = mRepository.getCapability(StorableInfoCapability.class)
+            .getUserStorableTypeNames();
+        assertEquals(1, names.length);
+        assertEquals(StorableTestBasicIndexed.class.getName(), names[0]);
+    }
+
+    public void testPlan() throws Exception {
+        Storage<StorableTestBasicIndexed> storage = populate(1000);
+
+        Query<StorableTestBasicIndexed> query = storage.query("intProp = ? & longProp = ?");
+
+        // Without statistics, both indexes appear to be equally good.
+        StringBuffer buf = new StringBuffer();
+        query.printPlan(buf);
+        String plan = buf.toString();
+
+        String expected =
+            "filter: longProp = ?\n" +
+            "  index scan: com.amazon.carbonado.stored.StorableTestBasicIndexed\n" +
+            "  ...index: {properties=[+intProp, ~id], unique=true}\n" +
+            "  ...identity filter: intProp = ?\n";
+
+        assertEquals(expected, plan);
+
+        mRepository.getCapability(IndexStatisticsCapability.class)
+            .gatherIndexStatistics(StorableTestBasicIndexed.class, 1);
+
+        // Statistics show that longProp is far more selective.
+        query = storage.query("intProp = ? & longProp = ?");
+
+        buf = new StringBuffer();
+        query.printPlan(buf);
+        plan = buf.toString();
+
+        expected =
+            "filter: intProp = ?\n" +
+            "  index scan: com.amazon.carbonado.stored.StorableTestBasicIndexed\n" +
+            "  ...index: {properties=[+longProp, ~id], unique=true}\n" +
+            "  ...identity filter: longProp = ?\n";
+
+        assertEquals(expected, plan);
+
+        assertEquals(1, query.with(1).with(501L).count());
+        assertEquals(0, query.with(0).with(501L).count());
+    }
+
+    private static IndexStatistics<StorableTestBasicIndexed>
+        find(IndexStatistics<StorableTestBasicIndexed>[] stats, String firstProperty)
+    {
+        for (IndexStatistics<StorableTestBasicIndexed> s : stats) {
+            StorableIndex<StorableTestBasicIndexed> index = s.getIndex();
+            if (index.getProperty(0).getName().equals(firstProperty)) {
+                return s;
+            }
+        }
+        fail("No statistics for " + firstProperty);
+        return null;
+    }
+
+    private Storage<StorableTestBasicIndexed> populate(int count) throws Exception {
+        Storage<StorableTestBasicIndexed> storage =
+            mRepository.storageFor(StorableTestBasicIndexed.class);
+
+        Transaction txn = mRepository.enterTransaction();
+        try {
+            for (int i=0; i<count; i++) {
+                StorableTestBasicIndexed obj = storage.prepare();
+                obj.setId(i);
+                obj.setStringProp("str" + (i % 10));
+                obj.setIntProp(i % 2);
+                obj.setLongProp(i);
+                obj.setDoubleProp(i / 100);
+                obj.insert();
+            }
+            txn.commit();
+        } finally {
+            txn.exit();
+        }
+
+        return storage;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.indexed;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.Storage;
+import com.amazon.carbonado.Transaction;
+
+import com.amazon.carbonado.TestUtilities;
+import com.amazon.carbonado.stored.StorableTestBasicIndexed;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+public class TestIndexedCursor extends TestCase {
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static TestSuite suite() {
+        return new TestSuite(TestIndexedCursor.class);
+    }
+
+    private Repository mRepository;
+
+    public TestIndexedCursor(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRepository = TestUtilities.buildTempRepository("indexed");
+    }
+
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        mRepository.close();
+        mRepository = null;
+    }
+
+    public void testIndexOrder() throws Exception {
+        Storage<StorableTestBasicIndexed> storage = populate(1000);
+
+        // Masters are loaded in primary key order, but must be produced in
+        // index order.
+        Cursor<StorableTestBasicIndexed> cursor =
+            storage.query("longProp >= ?").with(0L).orderBy("longProp").fetch();
+
+        long last = Long.MIN_VALUE;
+        int count = 0;
+        while (cursor.hasNext()) {
+            StorableTestBasicIndexed obj = cursor.next();
+            assertTrue(obj.getLongProp() > last);
+            assertEquals(obj.getId() * 7919L % 1000, obj.getLongProp());
+            last = obj.getLongProp();
+            count++;
+        }
+        assertEquals(1000, count);
+
+        cursor = storage.query("longProp >= ?").with(0L).orderBy("-longProp").fetch();
+        last = Long.MAX_VALUE;
+        count = 0;
+        while (cursor.hasNext()) {
+            StorableTestBasicIndexed obj = cursor.next();
+            assertTrue(obj.getLongProp() < last);
+            last = obj.getLongProp();
+            count++;
+        }
+        assertEquals(1000, count);
+    }
+
+    public void testSkip() throws Exception {
+        Storage<StorableTestBasicIndexed> storage = populate(1000);
+
+        Random rnd = new Random(5123);
+
+        for (int i=0; i<20; i++) {
+            Cursor<StorableTestBasicIndexed> cursor =
+                storage.query("longProp >= ?").with(0L).orderBy("longProp").fetch();
+
+            long expected = 0;
+            while (true) {
+                int amount = rnd.nextInt(300);
+                int skipped = cursor.skipNext(amount);
+                expected += skipped;
+                if (skipped < amount) {
+                    assertEquals(1000, expected);
+                    assertFalse(cursor.hasNext());
+                    break;
+                }
+                if (!cursor.hasNext()) {
+                    assertEquals(1000, expected);
+                    break;
+                }
+                assertEquals(expected, cursor.next().getLongProp());
+                expected++;
+            }
+
+            cursor.close();
+        }
+    }
+
+    public void testSlice() throws Exception {
+        Storage<StorableTestBasicIndexed> storage = populate(1000);
+
+        Cursor<StorableTestBasicIndexed> cursor = storage.query("longProp >= ?")
+            .with(100L).orderBy("longProp").fetchSlice(10, 15L);
+
+        for (long i=110; i<115; i++) {
+            assertTrue(cursor.hasNext());
+            assertEquals(i, cursor.next().getLongProp());
+        }
+        assertFalse(cursor.hasNext());
+    }
+
+    private Storage<StorableTestBasicIndexed> populate(int count) throws Exception {
+        Storage<StorableTestBasicIndexed> storage =
+            mRepository.storageFor(StorableTestBasicIndexed.class);
+
+        Transaction txn = mRepository.enterTransaction();
+        try {
+            for (int i=0; i<count; i++) {
+                StorableTestBasicIndexed obj = storage.prepare();
+                obj.setId(i);
+                obj.setStringProp("str" + (i % 10));
+                obj.setIntProp(i % 2);
+                // Scatter the index order relative to the primary key order.
+                obj.setLongProp(i * 7919L % count);
+                obj.setDoubleProp(i / 100);
+                obj.insert();
+            }
+            txn.commit();
+        } finally {
+            txn.exit();
+        }
+
+        return storage;
+    }
+}
@@ -23,7 +23,9 @@ import java.math.BigInteger;
 
 import java.io.*;
 
+import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.SQLTimeoutException;
 
 import junit.framework.TestSuite;
 
@@ -39,6 +41,7 @@ import com.amazon.carbonado.repo.indexed.IndexedRepositoryBuilder;
 
 import com.amazon.carbonado.TestUtilities;
 
+import com.amazon.carbonado.stored.StorableTestBasic;
 import com.amazon.carbonado.stored.StorableWithLobs;
 import com.amazon.carbonado.stored.WithPropertyOther;
 
@@ -88,6 +91,318 @@ public class TestH2 extends com.amazon.carbonado.TestStorables {
         assertEquals("hello", other.getObject());
     }
 
+    public void test_inList() throws Exception {
+        Storage<StorableTestBasic> storage = getRepository().storageFor(StorableTestBasic.class);
+        for (int i=0; i<10; i++) {
+            StorableTestBasic sb = storage.prepare();
+            sb.setId(i);
+            sb.setIntProp(i);
+            sb.setLongProp(i);
+            sb.setDoubleProp(i);
+            sb.setStringProp(String.valueOf(i));
+            sb.insert();
+        }
+
+        Query<StorableTestBasic> query = storage.query("id = ? | id = ? | id = ?")
+            .with(3).with(5).with(20);
+        StringBuilder b = new StringBuilder();
+        query.printNative(b);
+        assertTrue(b.toString(), b.toString().contains(" IN (?,?,?)"));
+        assertEquals(2, query.count());
+
+        // Mixed properties cannot use an IN list.
+        query = storage.query("id = ? | intProp = ?").with(3).with(5);
+        b = new StringBuilder();
+        query.printNative(b);
+        assertFalse(b.toString(), b.toString().contains(" IN "));
+        assertEquals(2, query.count());
+    }
+
+    public void test_batch() throws Exception {
+        Repository repo = getRepository();
+        JDBCBatchCapability cap = repo.getCapability(JDBCBatchCapability.class);
+        Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+
+        try {
+            cap.setBatchSize(100);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+
+        // Batched inserts are discarded if transaction exits without commit.
+        Transaction txn = repo.enterTransaction();
+        try {
+            cap.setBatchSize(100);
+            assertEquals(100, cap.getBatchSize());
+            for (int i=0; i<250; i++) {
+                insertBasic(storage, i);
+            }
+        } finally {
+            txn.exit();
+        }
+        assertEquals(0, cap.getBatchSize());
+        assertEquals(0, storage.query().count());
+
+        txn = repo.enterTransaction();
+        try {
+            cap.setBatchSize(100);
+            for (int i=0; i<250; i++) {
+                insertBasic(storage, i);
+            }
+            // Query executes batched statements first.
+            assertEquals(250, storage.query().count());
+
+            for (int i=0; i<250; i+=2) {
+                StorableTestBasic sb = storage.prepare();
+                sb.setId(i);
+                sb.setStringProp("updated");
+                assertTrue(sb.tryUpdate());
+            }
+            for (int i=1; i<250; i+=10) {
+                StorableTestBasic sb = storage.prepare();
+                sb.setId(i);
+                assertTrue(sb.tryDelete());
+            }
+
+            // Nested transaction executes the batch, and its own batched
+            // statements are rolled back when it exits.
+            Transaction nested = repo.enterTransaction();
+            try {
+                insertBasic(storage, 1000);
+                StorableTestBasic sb = storage.prepare();
+                sb.setId(0);
+                assertTrue(sb.tryDelete());
+            } finally {
+                nested.exit();
+            }
+
+            txn.commit();
+        } finally {
+            txn.exit();
+        }
+
+        assertEquals(225, storage.query().count());
+        assertEquals(125, storage.query("stringProp = ?").with("updated").count());
+        StorableTestBasic sb = storage.prepare();
+        sb.setId(11);
+        assertFalse(sb.tryLoad());
+        sb.setId(0);
+        assertTrue(sb.tryLoad());
+
+        // Batched delete cannot detect that record doesn't exist until the
+        // batch executes.
+        txn = repo.enterTransaction();
+        try {
+            cap.setBatchSize(10);
+            sb = storage.prepare();
+            sb.setId(1000);
+            assertTrue(sb.tryDelete());
+            try {
+                txn.commit();
+                fail();
+            } catch (PersistNoneException e) {
+            }
+        } finally {
+            txn.exit();
+        }
+
+        txn = repo.enterTransaction();
+        try {
+            cap.setBatchSize(10);
+            sb = storage.prepare();
+            sb.setId(1000);
+            sb.setStringProp("updated");
+            assertTrue(sb.tryUpdate());
+            try {
+                storage.query().count();
+                fail();
+            } catch (FetchException e) {
+                assertTrue(e.getCause() instanceof PersistNoneException);
+            }
+        } finally {
+            txn.exit();
+        }
+
+        // Unique constraint violation is reported by commit.
+        txn = repo.enterTransaction();
+        try {
+            cap.setBatchSize(10);
+            insertBasic(storage, 1000);
+            insertBasic(storage, 0);
+            try {
+                txn.commit();
+                fail();
+            } catch (PersistException e) {
+            }
+        } finally {
+            txn.exit();
+        }
+        assertEquals(225, storage.query().count());
+    }
+
+    public void test_statementCache() throws Exception {
+        Repository repo = getRepository();
+        JDBCStatementCacheCapability cap =
+            repo.getCapability(JDBCStatementCacheCapability.class);
+        assertTrue(cap.getStatementCacheSize() > 0);
+        Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+
+        for (int i=0; i<10; i++) {
+            insertBasic(storage, i);
+        }
+
+        long hits = cap.getStatementCacheHits();
+
+        Transaction txn = repo.enterTransaction();
+        try {
+            for (int i=0; i<10; i++) {
+                StorableTestBasic sb = storage.prepare();
+                sb.setId(i);
+                sb.load();
+                sb.setStringProp("updated");
+                sb.update();
+            }
+            Query<StorableTestBasic> query = storage.query("intProp >= ?");
+            for (int i=0; i<10; i++) {
+                assertEquals(10 - i, query.with(i).count());
+                assertEquals(10 - i, query.with(i).fetch().toList().size());
+            }
+            txn.commit();
+        } finally {
+            txn.exit();
+        }
+
+        // Each statement is prepared only once per transaction.
+        assertTrue(cap.getStatementCacheHits() - hits >= 9 * 4);
+        assertEquals(10, storage.query("stringProp = ?").with("updated").count());
+    }
+
+    public void test_pooledDataSource() throws Exception {
+        JDBCRepositoryBuilder builder = new JDBCRepositoryBuilder();
+        builder.setName("jdbc-pool");
+        builder.setSchemaResolver(new H2SchemaResolver());
+        File dir = new File(TestUtilities.makeTestDirectory("jdbc-pool"), "/h2");
+        builder.setDriverClassName("org.h2.Driver");
+        builder.setDriverURL("jdbc:h2:" + dir.getPath());
+        builder.setUserName("sa");
+        builder.setPassword("");
+        builder.setMaxConnections(2);
+        builder.setMinConnections(1);
+        builder.setConnectionWaitTimeout(100);
+
+        PooledDataSource pool = (PooledDataSource) builder.getDataSource();
+        assertEquals(2, pool.getMaxConnections());
+        assertEquals(1, pool.getMinConnections());
+        assertEquals(100, pool.getWaitTimeout());
+        pool.setValidationQuery("SELECT 1");
+
+        Repository repo = builder.build();
+        try {
+            Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+            storage.query().deleteAll();
+
+            long opened = pool.getOpenedConnectionCount();
+
+            JDBCStatementCacheCapability cacheCap =
+                repo.getCapability(JDBCStatementCacheCapability.class);
+            long hits = cacheCap.getStatementCacheHits();
+
+            for (int i=0; i<20; i++) {
+                insertBasic(storage, i);
+            }
+            for (int i=0; i<20; i++) {
+                StorableTestBasic sb = storage.prepare();
+                sb.setId(i);
+                sb.load();
+            }
+            assertEquals(20, storage.query().count());
+
+            // Pooled connections keep cached statements outside of transactions.
+            assertTrue(cacheCap.getStatementCacheHits() - hits >= 19 * 2);
+
+            // Connections are reused instead of opened for each operation.
+            assertTrue(pool.getOpenedConnectionCount() - opened <= 1);
+            assertEquals(0, pool.getActiveConnectionCount());
+
+            Connection c1 = pool.getConnection();
+            Connection c2 = pool.getConnection();
+            assertEquals(2, pool.getActiveConnectionCount());
+            try {
+                pool.getConnection();
+                fail();
+            } catch (SQLTimeoutException e) {
+            }
+            assertEquals(1, pool.getWaitTimeoutCount());
+
+            // Statements left open are closed with the connection.
+            java.sql.Statement st = c1.createStatement();
+            java.sql.PreparedStatement ps = c1.prepareStatement("SELECT 1");
+            ps.close();
+            c1.setAutoCommit(false);
+            c1.close();
+            assertTrue(st.isClosed());
+            c1.close();
+            try {
+                c1.createStatement();
+                fail();
+            } catch (java.sql.SQLException e) {
+            }
+
+            c1 = pool.getConnection();
+            assertTrue(c1.getAutoCommit());
+            c1.close();
+
+            pool.setLeakTimeout(50);
+            pool.setIdleTimeout(50);
+            Thread.sleep(1000);
+            assertEquals(1, pool.getLeakCount());
+            c2.close();
+
+            // Idle connections are closed, except for the minimum.
+            Thread.sleep(1000);
+            assertEquals(1, pool.getIdleConnectionCount());
+            assertTrue(pool.getClosedConnectionCount() > 0);
+        } finally {
+            repo.close();
+        }
+
+        assertEquals(0, pool.getIdleConnectionCount());
+        try {
+            pool.getConnection();
+            fail();
+        } catch (java.sql.SQLException e) {
+        }
+    }
+
+    public void test_pooledDataSourceDefaults() throws Exception {
+        JDBCRepositoryBuilder builder = new JDBCRepositoryBuilder();
+        builder.setDriverClassName("org.h2.Driver");
+        builder.setDriverURL("jdbc:h2:mem:");
+
+        // Amount of connections isn't limited by default.
+        PooledDataSource pool = (PooledDataSource) builder.getDataSource();
+        assertEquals(Integer.MAX_VALUE, pool.getMaxConnections());
+        pool.close();
+
+        builder = new JDBCRepositoryBuilder();
+        builder.setDriverClassName("org.h2.Driver");
+        builder.setDriverURL("jdbc:h2:mem:");
+        builder.setConnectionPooling(false);
+        assertTrue(builder.getDataSource() instanceof SimpleDataSource);
+    }
+
+    private static void insertBasic(Storage<StorableTestBasic> storage, int id)
+        throws Exception
+    {
+        StorableTestBasic sb = storage.prepare();
+        sb.setId(id);
+        sb.setIntProp(id);
+        sb.setLongProp(id);
+        sb.setDoubleProp(id);
+        sb.setStringProp(String.valueOf(id));
+        sb.insert();
+    }
+
     @Override
     public void test_derivedJoinIndex() throws Exception {
         // Needs to use custom indexing for this test to work.
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2008-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amazon.carbonado.repo.map;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestSuite;
+
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storage;
+import com.amazon.carbonado.Transaction;
+
+import com.amazon.carbonado.stored.StorableTestBasic;
+
+import com.amazon.carbonado.TestUtilities;
+
+/**
+ * Runs map repository tests with a bounded cache, and verifies eviction.
+ *
+ * @author Brian S O'Neill
+ */
+public class TestCache extends TestStorables {
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static TestSuite suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestCache.class);
+        return suite;
+    }
+
+    public TestCache(String name) {
+        super(name);
+    }
+
+    @Override
+    public void test_sequenceRollback() throws Exception {
+        // Alternate keys aren't enforced without indexes, so override with nothing.
+    }
+
+    @Override
+    public void test_derivedJoinIndex() throws Exception {
+        // Derived indexes aren't supported by caches, so override with nothing.
+    }
+
+    public void test_capability() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+        assertNull(repo.getCapability(CacheCapability.class));
+        repo.close();
+
+        repo = buildRepository(true);
+        assertNotNull(repo.getCapability(CacheCapability.class));
+    }
+
+    public void test_lru() throws Exception {
+        Repository repo = build(10, 0, MapRepositoryBuilder.EvictionPolicy.LRU);
+        Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+
+        for (int i=1; i<=10; i++) {
+            newInstance(storage, i).insert();
+        }
+        assertEquals(10, storage.query().count());
+
+        assertTrue(load(storage, 1));
+        newInstance(storage, 11).insert();
+
+        assertEquals(10, storage.query().count());
+        assertTrue(load(storage, 1));
+        assertFalse(load(storage, 2));
+        assertTrue(load(storage, 11));
+
+        // Updates count as use too.
+        StorableTestBasic s = storage.prepare();
+        s.setId(3);
+        s.load();
+        s.setIntProp(-3);
+        s.update();
+        newInstance(storage, 12).insert();
+        assertTrue(load(storage, 3));
+        assertFalse(load(storage, 4));
+
+        repo.close();
+    }
+
+    public void test_tinyLfu() throws Exception {
+        Repository repo = build(100, 0, MapRepositoryBuilder.EvictionPolicy.TINY_LFU);
+        Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+
+        for (int i=1; i<=100; i++) {
+            newInstance(storage, i).insert();
+        }
+        for (int n=0; n<10; n++) {
+            for (int i=1; i<=10; i++) {
+                assertTrue(load(storage, i));
+            }
+        }
+
+        // Scan through many storables which are only used once.
+        for (int i=1000; i<2000; i++) {
+            newInstance(storage, i).insert();
+        }
+
+        assertEquals(100, storage.query().count());
+        for (int i=1; i<=10; i++) {
+            assertTrue(load(storage, i));
+        }
+
+        repo.close();
+    }
+
+    public void test_byteCapacity() throws Exception {
+        Repository repo = build(0, 20000, MapRepositoryBuilder.EvictionPolicy.TINY_LFU);
+        Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+        CacheCapability cap = repo.getCapability(CacheCapability.class);
+
+        for (int i=0; i<1000; i++) {
+            newInstance(storage, i).insert();
+        }
+
+        CacheCapability.Statistics stats = cap.getCacheStatistics(StorableTestBasic.class);
+        long count = storage.query().count();
+        assertTrue(count > 10);
+        assertTrue(count < 1000);
+        assertEquals(count, stats.getEntryCount());
+        assertTrue(stats.getEstimatedSize() > 0);
+        assertTrue(stats.getEstimatedSize() <= 20000);
+        assertEquals(1000 - count, stats.getEvictionCount());
+
+        repo.close();
+    }
+
+    public void test_listenersAndStatistics() throws Exception {
+        Repository repo = build(5, 0, MapRepositoryBuilder.EvictionPolicy.LRU);
+        Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+        CacheCapability cap = repo.getCapability(CacheCapability.class);
+
+        final List<Integer> evicted = new ArrayList<Integer>();
+        CacheCapability.EvictionListener<StorableTestBasic> listener =
+            new CacheCapability.EvictionListener<StorableTestBasic>()
+        {
+            public void evicted(StorableTestBasic storable) {
+                evicted.add(storable.getId());
+                // Listener is given a copy.
+                storable.setIntProp(-1);
+            }
+        };
+
+        cap.addEvictionListener(StorableTestBasic.class, listener);
+
+        for (int i=1; i<=8; i++) {
+            newInstance(storage, i).insert();
+        }
+
+        assertEquals(3, evicted.size());
+        assertEquals(1, (int) evicted.get(0));
+        assertEquals(2, (int) evicted.get(1));
+        assertEquals(3, (int) evicted.get(2));
+
+        assertTrue(load(storage, 8));
+        assertTrue(load(storage, 7));
+        assertFalse(load(storage, 1));
+
+        CacheCapability.Statistics stats = cap.getCacheStatistics(StorableTestBasic.class);
+        assertEquals(2, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+        assertEquals(3, stats.getEvictionCount());
+        assertEquals(5, stats.getEntryCount());
+        assertEquals(-1, stats.getEstimatedSize());
+
+        // Deletes aren't evictions.
+        StorableTestBasic s = storage.prepare();
+        s.setId(8);
+        s.delete();
+        assertEquals(3, evicted.size());
+        assertEquals(4, cap.getCacheStatistics(StorableTestBasic.class).getEntryCount());
+
+        cap.removeEvictionListener(StorableTestBasic.class, listener);
+        newInstance(storage, 9).insert();
+        newInstance(storage, 10).insert();
+        assertEquals(3, evicted.size());
+        assertEquals(4, cap.getCacheStatistics(StorableTestBasic.class).getEvictionCount());
+
+        repo.close();
+    }
+
+    public void test_transaction() throws Exception {
+        Repository repo = build(5, 0, MapRepositoryBuilder.EvictionPolicy.LRU);
+        Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+
+        Transaction txn = repo.enterTransaction();
+        try {
+            for (int i=1; i<=10; i++) {
+                newInstance(storage, i).insert();
+            }
+            Transaction nested = repo.enterTransaction();
+            try {
+                newInstance(storage, 11).insert();
+                nested.commit();
+            } finally {
+                nested.exit();
+            }
+            // Eviction is deferred until commit.
+            assertEquals(11, storage.query().count());
+            txn.commit();
+        } finally {
+            txn.exit();
+        }
+
+        assertEquals(5, storage.query().count());
+        for (int i=7; i<=11; i++) {
+            assertTrue(load(storage, i));
+        }
+
+        txn = repo.enterTransaction();
+        try {
+            for (int i=20; i<30; i++) {
+                newInstance(storage, i).insert();
+            }
+        } finally {
+            txn.exit();
+        }
+
+        assertEquals(5, storage.query().count());
+        assertEquals(5, repo.getCapability(CacheCapability.class)
+                     .getCacheStatistics(StorableTestBasic.class).getEntryCount());
+
+        repo.close();
+    }
+
+    public void test_lockedSkipped() throws Exception {
+        MapRepositoryBuilder builder = new MapRepositoryBuilder();
+        builder.setName("map");
+        builder.setLockStripes(64);
+        builder.setCacheCapacity(3);
+        builder.setEvictionPolicy(MapRepositoryBuilder.EvictionPolicy.LRU);
+        final Repository repo = builder.build();
+        final Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+        CacheCapability cap = repo.getCapability(CacheCapability.class);
+
+        final CountDownLatch inserted = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final Throwable[] error = new Throwable[1];
+
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    Transaction txn = repo.enterTransaction();
+                    try {
+                        newInstance(storage, 1).insert();
+                        inserted.countDown();
+                        done.await();
+                        txn.commit();
+                    } finally {
+                        txn.exit();
+                    }
+                } catch (Throwable e) {
+                    error[0] = e;
+                    inserted.countDown();
+                }
+            }
+        };
+
+        t.start();
+        inserted.await();
+
+        for (int i=2; i<=4; i++) {
+            newInstance(storage, i).insert();
+        }
+
+        // Least recently used entry is locked, and so capacity is exceeded.
+        assertEquals(4, cap.getCacheStatistics(StorableTestBasic.class).getEntryCount());
+        for (int i=2; i<=4; i++) {
+            assertTrue(load(storage, i));
+        }
+
+        done.countDown();
+        t.join();
+        assertNull(error[0]);
+
+        assertEquals(3, storage.query().count());
+        assertEquals(3, cap.getCacheStatistics(StorableTestBasic.class).getEntryCount());
+
+        repo.close();
+    }
+
+    public void test_durable() throws Exception {
+        File dir = TestUtilities.makeTempDir("mapcache");
+        try {
+            Repository repo = open(dir, 5);
+            Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+            for (int i=1; i<=10; i++) {
+                newInstance(storage, i).insert();
+            }
+            assertEquals(5, storage.query().count());
+            repo.close();
+
+            // Evictions are logged.
+            repo = open(dir, 0);
+            storage = repo.storageFor(StorableTestBasic.class);
+            assertEquals(5, storage.query().count());
+            repo.close();
+
+            // Storables are evicted when opened with a smaller capacity.
+            repo = open(dir, 3);
+            storage = repo.storageFor(StorableTestBasic.class);
+            assertEquals(3, storage.query().count());
+            repo.close();
+        } finally {
+            TestUtilities.deleteTempDir(dir);
+        }
+    }
+
+    @Override
+    protected Repository buildRepository(boolean isMaster) throws RepositoryException {
+        MapRepositoryBuilder builder = new MapRepositoryBuilder();
+        builder.setName("map");
+        builder.setMaster(isMaster);
+        builder.setCacheCapacity(1000000);
+        return builder.build();
+    }
+
+    private static Repository build(long maxEntries, long maxBytes,
+                                    MapRepositoryBuilder.EvictionPolicy policy)
+        throws RepositoryException
+    {
+        MapRepositoryBuilder builder = new MapRepositoryBuilder();
+        builder.setName("map");
+        builder.setCacheCapacity(maxEntries);
+        builder.setCacheCapacityBytes(maxBytes);
+        builder.setEvictionPolicy(policy);
+        return builder.build();
+    }
+
+    private static Repository open(File dir, long maxEntries) throws RepositoryException {
+        MapRepositoryBuilder builder = new MapRepositoryBuilder();
+        builder.setName("map");
+        builder.setDataHomeFile(dir);
+        builder.setTransactionWriteNoSync(true);
+        builder.setCheckpointInterval(0);
+        builder.setCacheCapacity(maxEntries);
+        return builder.build();
+    }
+
+    private static boolean load(Storage<StorableTestBasic> storage, int id) throws Exception {
+        StorableTestBasic s = storage.prepare();
+        s.setId(id);
+        return s.tryLoad();
+    }
+}
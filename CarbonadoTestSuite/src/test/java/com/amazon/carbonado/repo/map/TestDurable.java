@@ -0,0 +1,329 @@
+/*
+ * Copyright 2008-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.map;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestSuite;
+
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storage;
+import com.amazon.carbonado.Transaction;
+
+import com.amazon.carbonado.stored.StorableTestBasic;
+import com.amazon.carbonado.stored.StorableTestMinimal;
+
+import com.amazon.carbonado.TestUtilities;
+
+/**
+ * Runs map repository tests with a data home, and verifies recovery.
+ *
+ * @author Brian S O'Neill
+ */
+public class TestDurable extends TestStorables {
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static TestSuite suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestDurable.class);
+        return suite;
+    }
+
+    private final List<File> mDirs = new ArrayList<File>();
+
+    public TestDurable(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        for (File dir : mDirs) {
+            TestUtilities.deleteTempDir(dir);
+        }
+        mDirs.clear();
+    }
+
+    public void test_reopen() throws Exception {
+        File dir = newDataHome();
+
+        MapRepository repo = open(dir);
+        Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+        for (int i=1; i<=10; i++) {
+            newInstance(storage, i).insert();
+        }
+
+        StorableTestBasic s = load(storage, 2);
+        s.setStringProp("updated");
+        s.update();
+
+        load(storage, 3).delete();
+
+        Transaction txn = repo.enterTransaction();
+        try {
+            newInstance(storage, 11).insert();
+            load(storage, 4).delete();
+            s = load(storage, 5);
+            s.setStringProp("txn");
+            s.update();
+            txn.commit();
+        } finally {
+            txn.exit();
+        }
+
+        txn = repo.enterTransaction();
+        try {
+            newInstance(storage, 12).insert();
+            load(storage, 6).delete();
+            s = load(storage, 7);
+            s.setStringProp("aborted");
+            s.update();
+        } finally {
+            txn.exit();
+        }
+
+        txn = repo.enterTransaction();
+        try {
+            newInstance(storage, 13).insert();
+            Transaction child = repo.enterTransaction();
+            try {
+                newInstance(storage, 14).insert();
+            } finally {
+                child.exit();
+            }
+            txn.commit();
+        } finally {
+            txn.exit();
+        }
+
+        repo.close();
+
+        repo = open(dir);
+        storage = repo.storageFor(StorableTestBasic.class);
+
+        assertEquals(10, storage.query().count());
+        assertEquals("updated", load(storage, 2).getStringProp());
+        assertFalse(exists(storage, 3));
+        assertFalse(exists(storage, 4));
+        assertEquals("txn", load(storage, 5).getStringProp());
+        assertTrue(exists(storage, 6));
+        assertEquals("str_7", load(storage, 7).getStringProp());
+        assertTrue(exists(storage, 11));
+        assertFalse(exists(storage, 12));
+        assertTrue(exists(storage, 13));
+        assertFalse(exists(storage, 14));
+
+        s = load(storage, 1);
+        assertEquals(1, s.getIntProp());
+        assertEquals(1L, s.getLongProp());
+        assertEquals(1.0, s.getDoubleProp());
+
+        repo.close();
+    }
+
+    public void test_checkpoint() throws Exception {
+        File dir = newDataHome();
+
+        MapRepository repo = open(dir);
+        Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+        for (int i=1; i<=100; i++) {
+            newInstance(storage, i).insert();
+        }
+
+        repo.mLog.checkpoint();
+
+        // Old log segment is deleted, leaving the snapshot and new segment.
+        assertFalse(new File(dir, "log.1").exists());
+        assertTrue(new File(dir, "snapshot.2").isDirectory());
+        assertTrue(new File(dir, "log.2").exists());
+
+        for (int i=1; i<=10; i++) {
+            load(storage, i).delete();
+        }
+
+        repo.close();
+
+        repo = open(dir);
+        storage = repo.storageFor(StorableTestBasic.class);
+        assertEquals(90, storage.query().count());
+        assertEquals("str_50", load(storage, 50).getStringProp());
+
+        // Recovered segment is deleted by the next checkpoint.
+        repo.mLog.checkpoint();
+        assertFalse(new File(dir, "snapshot.2").exists());
+        assertFalse(new File(dir, "log.2").exists());
+        assertFalse(new File(dir, "log.3").exists());
+        assertTrue(new File(dir, "snapshot.4").isDirectory());
+
+        repo.close();
+
+        repo = open(dir);
+        storage = repo.storageFor(StorableTestBasic.class);
+        assertEquals(90, storage.query().count());
+        repo.close();
+    }
+
+    public void test_unopenedStorage() throws Exception {
+        File dir = newDataHome();
+
+        MapRepository repo = open(dir);
+        Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+        newInstance(storage, 1).insert();
+        Storage<StorableTestMinimal> minimal = repo.storageFor(StorableTestMinimal.class);
+        StorableTestMinimal m = minimal.prepare();
+        m.setId(1);
+        m.insert();
+        repo.close();
+
+        // Only open one storage, and the other must survive the checkpoint.
+        repo = open(dir);
+        storage = repo.storageFor(StorableTestBasic.class);
+        newInstance(storage, 2).insert();
+        repo.mLog.checkpoint();
+        repo.close();
+
+        repo = open(dir);
+        assertEquals(2, repo.storageFor(StorableTestBasic.class).query().count());
+        assertEquals(1, repo.storageFor(StorableTestMinimal.class).query().count());
+        repo.close();
+    }
+
+    public void test_truncate() throws Exception {
+        File dir = newDataHome();
+
+        MapRepository repo = open(dir);
+        Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+        for (int i=1; i<=10; i++) {
+            newInstance(storage, i).insert();
+        }
+        storage.truncate();
+        newInstance(storage, 20).insert();
+        repo.close();
+
+        repo = open(dir);
+        storage = repo.storageFor(StorableTestBasic.class);
+        assertEquals(1, storage.query().count());
+        assertTrue(exists(storage, 20));
+        repo.close();
+    }
+
+    public void test_tornLog() throws Exception {
+        File dir = newDataHome();
+
+        MapRepository repo = open(dir);
+        Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+        for (int i=1; i<=10; i++) {
+            newInstance(storage, i).insert();
+        }
+        repo.close();
+
+        // Simulate a partially written entry.
+        File log = new File(dir, "log.1");
+        RandomAccessFile raf = new RandomAccessFile(log, "rw");
+        try {
+            raf.setLength(raf.length() - 3);
+        } finally {
+            raf.close();
+        }
+
+        repo = open(dir);
+        storage = repo.storageFor(StorableTestBasic.class);
+        assertEquals(9, storage.query().count());
+        assertFalse(exists(storage, 10));
+
+        // Log can be appended to after recovery.
+        newInstance(storage, 10).insert();
+        repo.close();
+
+        repo = open(dir);
+        storage = repo.storageFor(StorableTestBasic.class);
+        assertEquals(10, storage.query().count());
+        repo.close();
+    }
+
+    public void test_inUse() throws Exception {
+        File dir = newDataHome();
+
+        MapRepository repo = open(dir);
+        try {
+            open(dir);
+            fail();
+        } catch (RepositoryException e) {
+        }
+        repo.close();
+
+        open(dir).close();
+    }
+
+    @Override
+    protected Repository buildRepository(boolean isMaster) throws RepositoryException {
+        MapRepositoryBuilder builder = new MapRepositoryBuilder();
+        builder.setName("map");
+        builder.setMaster(isMaster);
+        builder.setDataHomeFile(newDataHome());
+        builder.setTransactionWriteNoSync(true);
+        return builder.build();
+    }
+
+    private File newDataHome() throws RepositoryException {
+        try {
+            File dir = TestUtilities.makeTempDir("map");
+            mDirs.add(dir);
+            return dir;
+        } catch (java.io.IOException e) {
+            throw new RepositoryException(e);
+        }
+    }
+
+    private static MapRepository open(File dir) throws RepositoryException {
+        MapRepositoryBuilder builder = new MapRepositoryBuilder();
+        builder.setName("map");
+        builder.setDataHomeFile(dir);
+        builder.setTransactionWriteNoSync(true);
+        builder.setCheckpointInterval(0);
+        AtomicReference<Repository> rootRef = new AtomicReference<Repository>();
+        MapRepository repo = new MapRepository(rootRef, builder);
+        rootRef.set(repo);
+        return repo;
+    }
+
+    private static StorableTestBasic load(Storage<StorableTestBasic> storage, int id)
+        throws Exception
+    {
+        StorableTestBasic s = storage.prepare();
+        s.setId(id);
+        s.load();
+        return s;
+    }
+
+    private static boolean exists(Storage<StorableTestBasic> storage, int id) throws Exception {
+        StorableTestBasic s = storage.prepare();
+        s.setId(id);
+        return s.tryLoad();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2008-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.map;
+
+import junit.framework.TestSuite;
+
+import com.amazon.carbonado.FetchTimeoutException;
+import com.amazon.carbonado.PersistTimeoutException;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storage;
+import com.amazon.carbonado.Transaction;
+
+import com.amazon.carbonado.stored.StorableTestBasic;
+
+/**
+ * Runs map repository tests with striped locks.
+ *
+ * @author Brian S O'Neill
+ */
+public class TestLockStripes extends TestStorables {
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static TestSuite suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestLockStripes.class);
+        return suite;
+    }
+
+    public TestLockStripes(String name) {
+        super(name);
+    }
+
+    public void test_concurrentWrites() throws Exception {
+        Repository repo = buildRepository(true);
+        final Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+
+        for (int i=1; i<=20; i++) {
+            newInstance(storage, i).insert();
+        }
+
+        int id;
+
+        Transaction txn = repo.enterTransaction();
+        try {
+            StorableTestBasic s = storage.prepare();
+            s.setId(1);
+            s.load();
+            s.setStringProp("txn");
+            s.update();
+
+            // Other keys can be modified while transaction holds a lock,
+            // unless they happen to share the stripe.
+            Object result = runInThread(new Op() {
+                public Object run() throws Exception {
+                    for (int id=2; id<=20; id++) {
+                        StorableTestBasic s = storage.prepare();
+                        s.setId(id);
+                        s.setStringProp("auto");
+                        try {
+                            s.update();
+                            return id;
+                        } catch (PersistTimeoutException e) {
+                            // Same stripe, so try another.
+                        }
+                    }
+                    return null;
+                }
+            });
+            assertTrue(result instanceof Integer);
+            id = (Integer) result;
+
+            // Same key cannot be modified.
+            result = runInThread(new Op() {
+                public Object run() throws Exception {
+                    StorableTestBasic s = storage.prepare();
+                    s.setId(1);
+                    s.setStringProp("auto");
+                    s.update();
+                    return null;
+                }
+            });
+            assertTrue(result instanceof PersistTimeoutException);
+
+            // Scan requires all stripes.
+            result = runInThread(new Op() {
+                public Object run() throws Exception {
+                    return storage.query().count();
+                }
+            });
+            assertTrue(result instanceof FetchTimeoutException);
+        } finally {
+            txn.exit();
+        }
+
+        // Transaction was rolled back.
+        StorableTestBasic s = storage.prepare();
+        s.setId(1);
+        s.load();
+        assertEquals("str_1", s.getStringProp());
+
+        s = storage.prepare();
+        s.setId(id);
+        s.load();
+        assertEquals("auto", s.getStringProp());
+
+        assertEquals(20, storage.query().count());
+    }
+
+    public void test_truncate() throws Exception {
+        Repository repo = buildRepository(true);
+        final Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+
+        for (int i=0; i<100; i++) {
+            newInstance(storage, i).insert();
+        }
+
+        Transaction txn = repo.enterTransaction();
+        try {
+            StorableTestBasic s = storage.prepare();
+            s.setId(5);
+            s.delete();
+
+            Object result = runInThread(new Op() {
+                public Object run() throws Exception {
+                    storage.truncate();
+                    return null;
+                }
+            });
+            assertTrue(result instanceof PersistTimeoutException);
+        } finally {
+            txn.exit();
+        }
+
+        assertEquals(100, storage.query().count());
+        storage.truncate();
+        assertEquals(0, storage.query().count());
+    }
+
+    @Override
+    protected Repository buildRepository(boolean isMaster) throws RepositoryException {
+        MapRepositoryBuilder builder = new MapRepositoryBuilder();
+        builder.setName("map");
+        builder.setMaster(isMaster);
+        builder.setLockTimeoutMillis(100);
+        builder.setLockStripes(16);
+        return builder.build();
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2008-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.map;
+
+import java.util.List;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestSuite;
+
+import com.amazon.carbonado.IsolationLevel;
+import com.amazon.carbonado.OptimisticLockException;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storage;
+import com.amazon.carbonado.Transaction;
+
+import com.amazon.carbonado.stored.StorableTestBasic;
+
+/**
+ * Runs map repository tests with multiversion concurrency control enabled.
+ *
+ * @author Brian S O'Neill
+ */
+public class TestMultiversion extends TestStorables {
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static TestSuite suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestMultiversion.class);
+        return suite;
+    }
+
+    public TestMultiversion(String name) {
+        super(name);
+    }
+
+    public void test_snapshotLevel() throws Exception {
+        Repository repo = buildRepository(true);
+
+        Transaction txn = repo.enterTransaction(IsolationLevel.SNAPSHOT);
+        try {
+            assertEquals(IsolationLevel.SNAPSHOT, txn.getIsolationLevel());
+            Transaction txn2 = repo.enterTransaction();
+            try {
+                assertEquals(IsolationLevel.SNAPSHOT, txn2.getIsolationLevel());
+            } finally {
+                txn2.exit();
+            }
+        } finally {
+            txn.exit();
+        }
+
+        txn = repo.enterTransaction();
+        try {
+            Transaction txn2 = repo.enterTransaction(IsolationLevel.SNAPSHOT);
+            try {
+                assertEquals(IsolationLevel.SERIALIZABLE, txn2.getIsolationLevel());
+            } finally {
+                txn2.exit();
+            }
+        } finally {
+            txn.exit();
+        }
+
+        Repository plain = MapRepositoryBuilder.newRepository();
+        try {
+            plain.enterTransaction(IsolationLevel.SNAPSHOT);
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+    }
+
+    public void test_snapshotReads() throws Exception {
+        Repository repo = buildRepository(true);
+        final Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+
+        for (int i=1; i<=10; i++) {
+            newInstance(storage, i).insert();
+        }
+
+        Transaction txn = repo.enterTransaction(IsolationLevel.SNAPSHOT);
+        try {
+            assertEquals("str_1", load(storage, 1).getStringProp());
+
+            assertNull(runInThread(new Op() {
+                public Object run() throws Exception {
+                    StorableTestBasic s = storage.prepare();
+                    s.setId(1);
+                    s.setStringProp("updated");
+                    s.update();
+                    s = storage.prepare();
+                    s.setId(2);
+                    s.delete();
+                    newInstance(storage, 11).insert();
+                    return null;
+                }
+            }));
+
+            // Snapshot doesn't observe later commits.
+            assertEquals("str_1", load(storage, 1).getStringProp());
+            assertEquals("str_2", load(storage, 2).getStringProp());
+            StorableTestBasic s = storage.prepare();
+            s.setId(11);
+            assertFalse(s.tryLoad());
+
+            assertEquals(10, storage.query().count());
+            List<StorableTestBasic> list = storage.query().orderBy("id").fetch().toList();
+            assertEquals(10, list.size());
+            for (int i=0; i<10; i++) {
+                assertEquals(i + 1, list.get(i).getId());
+            }
+            assertEquals("str_1", list.get(0).getStringProp());
+
+            list = storage.query("id >= ?").with(2).orderBy("-id").fetch().toList();
+            assertEquals(9, list.size());
+            assertEquals(10, list.get(0).getId());
+            assertEquals(2, list.get(8).getId());
+
+            list = storage.query("stringProp = ?").with("str_2").fetch().toList();
+            assertEquals(1, list.size());
+        } finally {
+            txn.exit();
+        }
+
+        // New snapshot observes the commits.
+        txn = repo.enterTransaction(IsolationLevel.SNAPSHOT);
+        try {
+            assertEquals("updated", load(storage, 1).getStringProp());
+            StorableTestBasic s = storage.prepare();
+            s.setId(2);
+            assertFalse(s.tryLoad());
+            assertEquals(10, storage.query().count());
+        } finally {
+            txn.exit();
+        }
+    }
+
+    public void test_snapshotDoesNotLock() throws Exception {
+        final Repository repo = buildRepository(true);
+        final Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+
+        newInstance(storage, 1).insert();
+
+        Transaction txn = repo.enterTransaction();
+        try {
+            StorableTestBasic s = storage.prepare();
+            s.setId(1);
+            s.setStringProp("uncommitted");
+            s.update();
+            newInstance(storage, 2).insert();
+
+            Object result = runInThread(new Op() {
+                public Object run() throws Exception {
+                    Transaction txn = repo.enterTransaction(IsolationLevel.SNAPSHOT);
+                    try {
+                        StorableTestBasic s = load(storage, 1);
+                        return s.getStringProp() + ',' + storage.query().count();
+                    } finally {
+                        txn.exit();
+                    }
+                }
+            });
+
+            assertEquals("str_1,1", result);
+
+            txn.commit();
+        } finally {
+            txn.exit();
+        }
+
+        assertEquals("uncommitted", load(storage, 1).getStringProp());
+    }
+
+    public void test_ownWrites() throws Exception {
+        Repository repo = buildRepository(true);
+        Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+
+        newInstance(storage, 1).insert();
+        newInstance(storage, 2).insert();
+
+        Transaction txn = repo.enterTransaction(IsolationLevel.SNAPSHOT);
+        try {
+            StorableTestBasic s = load(storage, 1);
+            s.setStringProp("mine");
+            s.update();
+            s = storage.prepare();
+            s.setId(2);
+            s.delete();
+            newInstance(storage, 3).insert();
+
+            assertEquals("mine", load(storage, 1).getStringProp());
+            s = storage.prepare();
+            s.setId(2);
+            assertFalse(s.tryLoad());
+            assertEquals(2, storage.query().count());
+
+            Transaction txn2 = repo.enterTransaction();
+            try {
+                s = load(storage, 1);
+                s.setStringProp("nested");
+                s.update();
+            } finally {
+                txn2.exit();
+            }
+
+            assertEquals("mine", load(storage, 1).getStringProp());
+        } finally {
+            txn.exit();
+        }
+
+        // Rolled back.
+        assertEquals("str_1", load(storage, 1).getStringProp());
+        assertEquals(2, storage.query().count());
+    }
+
+    public void test_writeConflict() throws Exception {
+        Repository repo = buildRepository(true);
+        final Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+
+        newInstance(storage, 1).insert();
+        newInstance(storage, 2).insert();
+
+        Transaction txn = repo.enterTransaction(IsolationLevel.SNAPSHOT);
+        try {
+            assertEquals("str_1", load(storage, 1).getStringProp());
+
+            assertNull(runInThread(new Op() {
+                public Object run() throws Exception {
+                    StorableTestBasic s = storage.prepare();
+                    s.setId(1);
+                    s.setStringProp("other");
+                    s.update();
+                    return null;
+                }
+            }));
+
+            // Unrelated key can still be modified.
+            StorableTestBasic s = load(storage, 2);
+            s.setStringProp("mine");
+            s.update();
+
+            s = load(storage, 1);
+            s.setStringProp("mine");
+            try {
+                s.update();
+                fail();
+            } catch (OptimisticLockException e) {
+            }
+        } finally {
+            txn.exit();
+        }
+
+        assertEquals("other", load(storage, 1).getStringProp());
+        assertEquals("str_2", load(storage, 2).getStringProp());
+    }
+
+    public void test_reclaim() throws Exception {
+        MapRepositoryBuilder builder = new MapRepositoryBuilder();
+        builder.setMultiversion(true);
+        AtomicReference<Repository> rootRef = new AtomicReference<Repository>();
+        MapRepository repo = new MapRepository(rootRef, builder);
+        rootRef.set(repo);
+
+        final MapStorage<StorableTestBasic> storage =
+            (MapStorage<StorableTestBasic>) repo.storageFor(StorableTestBasic.class);
+
+        for (int i=1; i<=10; i++) {
+            newInstance(storage, i).insert();
+        }
+
+        // Nothing retained without snapshots.
+        assertTrue(storage.mHistory.isEmpty());
+
+        Transaction txn = repo.enterTransaction(IsolationLevel.SNAPSHOT);
+        try {
+            assertEquals(10, storage.query().count());
+
+            assertNull(runInThread(new Op() {
+                public Object run() throws Exception {
+                    for (int i=1; i<=5; i++) {
+                        StorableTestBasic s = storage.prepare();
+                        s.setId(i);
+                        s.delete();
+                    }
+                    return null;
+                }
+            }));
+
+            assertEquals(5, storage.mHistory.size());
+            assertEquals(10, storage.query().count());
+        } finally {
+            txn.exit();
+        }
+
+        assertTrue(storage.mHistory.isEmpty());
+        assertEquals(5, storage.query().count());
+
+        // Aborted modifications are discarded.
+        txn = repo.enterTransaction();
+        try {
+            StorableTestBasic s = storage.prepare();
+            s.setId(6);
+            s.delete();
+            assertEquals(1, storage.mHistory.size());
+        } finally {
+            txn.exit();
+        }
+
+        assertTrue(storage.mHistory.isEmpty());
+        assertEquals(5, storage.query().count());
+    }
+
+    @Override
+    protected Repository buildRepository(boolean isMaster) throws RepositoryException {
+        MapRepositoryBuilder builder = new MapRepositoryBuilder();
+        builder.setName("map");
+        builder.setMaster(isMaster);
+        builder.setMultiversion(true);
+        return builder.build();
+    }
+
+    private static StorableTestBasic load(Storage<StorableTestBasic> storage, int id)
+        throws Exception
+    {
+        StorableTestBasic s = storage.prepare();
+        s.setId(id);
+        s.load();
+        return s;
+    }
+}
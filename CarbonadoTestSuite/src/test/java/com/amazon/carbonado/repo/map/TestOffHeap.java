@@ -0,0 +1,362 @@
+/*
+ * Copyright 2008-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.map;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestSuite;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storage;
+
+import com.amazon.carbonado.stored.StorableDateIndex;
+import com.amazon.carbonado.stored.StorableTestBasic;
+import com.amazon.carbonado.stored.StorableTestMultiPK;
+
+import com.amazon.carbonado.TestUtilities;
+
+/**
+ * Runs map repository tests with off-heap storage, and verifies the off-heap
+ * tree directly.
+ *
+ * @author Brian S O'Neill
+ */
+public class TestOffHeap extends TestStorables {
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static TestSuite suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(TestOffHeap.class);
+        return suite;
+    }
+
+    public TestOffHeap(String name) {
+        super(name);
+    }
+
+    @Override
+    public void test_dateTimeIndex() throws Exception {
+        // Off-heap storables are encoded, and so DateTimeAdapter is applied.
+
+        Storage<StorableDateIndex> storage = getRepository().storageFor(StorableDateIndex.class);
+
+        DateTimeZone original = DateTimeZone.getDefault();
+        // Set time zone different than defined in storable.
+        DateTimeZone.setDefault(DateTimeZone.forID("America/Los_Angeles"));
+        try {
+            DateTime now = new DateTime();
+
+            StorableDateIndex sdi = storage.prepare();
+            sdi.setID(1);
+            sdi.setOrderDate(now);
+            sdi.insert();
+
+            sdi.load();
+
+            assertEquals(now.getMillis(), sdi.getOrderDate().getMillis());
+            // Time zones will differ, since adapter is applied upon load.
+            assertFalse(now.equals(sdi.getOrderDate()));
+
+            Query<StorableDateIndex> query = storage.query("orderDate=?").with(now);
+            StorableDateIndex sdi2 = query.tryLoadOne();
+            assertNotNull(sdi2);
+        } finally {
+            DateTimeZone.setDefault(original);
+        }
+    }
+
+    public void test_manyRecords() throws Exception {
+        Repository repo = buildRepository(true);
+        Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+
+        final int count = 20000;
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int i=0; i<count; i++) {
+            ids.add(i);
+        }
+        Collections.shuffle(ids, new Random(5123));
+
+        for (int id : ids) {
+            newInstance(storage, id).insert();
+        }
+
+        assertEquals(count, storage.query().count());
+
+        Cursor<StorableTestBasic> c = storage.query().orderBy("id").fetch();
+        for (int i=0; i<count; i++) {
+            assertEquals(i, c.next().getId());
+        }
+        assertFalse(c.hasNext());
+
+        c = storage.query("id >= ? & id < ?").with(1000).with(1100)
+            .orderBy("-id").fetch();
+        for (int i=1099; i>=1000; i--) {
+            StorableTestBasic s = c.next();
+            assertEquals(i, s.getId());
+            assertEquals("str_" + i, s.getStringProp());
+        }
+        assertFalse(c.hasNext());
+
+        // Delete every other record, in random order.
+        for (int id : ids) {
+            if ((id & 1) != 0) {
+                StorableTestBasic s = storage.prepare();
+                s.setId(id);
+                assertTrue(s.tryDelete());
+            }
+        }
+
+        assertEquals(count / 2, storage.query().count());
+
+        c = storage.query("id > ?").with(count - 11).orderBy("id").fetch();
+        for (int i=count-10; i<count; i+=2) {
+            assertEquals(i, c.next().getId());
+        }
+        assertFalse(c.hasNext());
+
+        StorableTestBasic s = storage.prepare();
+        s.setId(4000);
+        s.load();
+        s.setStringProp("updated");
+        s.update();
+
+        s = storage.prepare();
+        s.setId(4000);
+        s.load();
+        assertEquals("updated", s.getStringProp());
+
+        storage.truncate();
+        assertEquals(0, storage.query().count());
+    }
+
+    public void test_partialKey() throws Exception {
+        Repository repo = buildRepository(true);
+        Storage<StorableTestMultiPK> storage = repo.storageFor(StorableTestMultiPK.class);
+
+        for (int i=0; i<50; i++) {
+            for (int j=0; j<20; j++) {
+                StorableTestMultiPK s = storage.prepare();
+                s.setIdPK(i);
+                s.setStringPK("s" + (char) ('a' + j));
+                s.setStringData("data_" + i + '_' + j);
+                s.insert();
+            }
+        }
+
+        Cursor<StorableTestMultiPK> c = storage.query("idPK = ?").with(7)
+            .orderBy("stringPK").fetch();
+        for (int j=0; j<20; j++) {
+            StorableTestMultiPK s = c.next();
+            assertEquals(7, s.getIdPK());
+            assertEquals("data_7_" + j, s.getStringData());
+        }
+        assertFalse(c.hasNext());
+
+        c = storage.query("idPK = ? & stringPK > ?").with(49).with("sp")
+            .orderBy("-stringPK").fetch();
+        for (int j=19; j>15; j--) {
+            assertEquals("s" + (char) ('a' + j), c.next().getStringPK());
+        }
+        assertFalse(c.hasNext());
+
+        assertEquals(0, storage.query("idPK = ?").with(50).count());
+    }
+
+    public void test_durable() throws Exception {
+        File dir = TestUtilities.makeTempDir("map");
+        try {
+            MapRepository repo = open(dir);
+            Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+            for (int i=1; i<=100; i++) {
+                newInstance(storage, i).insert();
+            }
+            repo.mLog.checkpoint();
+            for (int i=101; i<=110; i++) {
+                newInstance(storage, i).insert();
+            }
+            repo.close();
+
+            repo = open(dir);
+            storage = repo.storageFor(StorableTestBasic.class);
+            assertEquals(110, storage.query().count());
+            StorableTestBasic s = storage.prepare();
+            s.setId(105);
+            s.load();
+            assertEquals("str_105", s.getStringProp());
+            repo.close();
+        } finally {
+            TestUtilities.deleteTempDir(dir);
+        }
+    }
+
+    public void test_treeOrder() throws Exception {
+        OffHeapTree tree = new OffHeapTree();
+        Random rnd = new Random(8383);
+
+        List<byte[]> keys = new ArrayList<byte[]>();
+        for (int i=0; i<10000; i++) {
+            byte[] key = new byte[1 + rnd.nextInt(20)];
+            rnd.nextBytes(key);
+            if (!tree.put(key, key)) {
+                keys.add(key);
+            }
+        }
+
+        assertEquals(keys.size(), tree.size());
+
+        Collections.sort(keys, new Comparator<byte[]>() {
+            public int compare(byte[] a, byte[] b) {
+                return new OffHeapTree.KeyProbe(a, 0).compareTo(b);
+            }
+        });
+
+        OffHeapTree.Cursor cursor = new OffHeapTree.Cursor(false);
+        OffHeapTree.Entry e = tree.seek(cursor, null, OffHeapTree.FIRST);
+        for (byte[] key : keys) {
+            assertTrue(Arrays.equals(key, e.mKey));
+            assertTrue(Arrays.equals(key, e.mValue));
+            e = tree.step(cursor);
+        }
+        assertNull(e);
+
+        cursor = new OffHeapTree.Cursor(true);
+        e = tree.seek(cursor, null, OffHeapTree.LAST);
+        for (int i=keys.size(); --i>=0; ) {
+            assertTrue(Arrays.equals(keys.get(i), e.mKey));
+            e = tree.step(cursor);
+        }
+        assertNull(e);
+
+        byte[] key = keys.get(100);
+        assertTrue(Arrays.equals(keys.get(101), tree.find(probe(key), OffHeapTree.HIGHER).mKey));
+        assertTrue(Arrays.equals(keys.get(99), tree.find(probe(key), OffHeapTree.LOWER).mKey));
+        assertTrue(Arrays.equals(key, tree.find(probe(key), OffHeapTree.FLOOR).mKey));
+
+        for (byte[] k : keys) {
+            assertNotNull(tree.remove(probe(k)));
+        }
+        assertEquals(0, tree.size());
+        assertNull(tree.find(null, OffHeapTree.FIRST));
+        assertEquals(0, tree.allocated());
+    }
+
+    public void test_treeConcurrentModification() throws Exception {
+        OffHeapTree tree = new OffHeapTree();
+        TreeSet<Integer> expected = new TreeSet<Integer>();
+        for (int i=0; i<10000; i+=2) {
+            tree.put(key(i), new byte[0]);
+            expected.add(i);
+        }
+
+        Random rnd = new Random(2919);
+
+        // Cursor must continue in order while the tree splits and shrinks
+        // around it, even if the current entry is removed.
+        OffHeapTree.Cursor cursor = new OffHeapTree.Cursor(false);
+        OffHeapTree.Entry e = tree.seek(cursor, null, OffHeapTree.FIRST);
+        Integer expect = expected.first();
+        while (e != null) {
+            int i = readKey(e.mKey);
+            assertEquals(expect.intValue(), i);
+            for (int j=0; j<3; j++) {
+                int k = Math.max(0, i + rnd.nextInt(40) - 10);
+                if (rnd.nextBoolean()) {
+                    tree.put(key(k), new byte[0]);
+                    expected.add(k);
+                } else {
+                    tree.remove(probe(key(k)));
+                    expected.remove(k);
+                }
+            }
+            expect = expected.higher(i);
+            e = tree.step(cursor);
+        }
+        assertNull(expect);
+        assertEquals(expected.size(), tree.size());
+    }
+
+    public void test_treeLargeValues() throws Exception {
+        OffHeapTree tree = new OffHeapTree();
+        byte[] value = new byte[3 << 20];
+        value[value.length - 1] = 55;
+        for (int i=0; i<4; i++) {
+            tree.put(key(i), value);
+        }
+        assertEquals(55, tree.find(probe(key(2)), OffHeapTree.EXACT).mValue[value.length - 1]);
+        tree.remove(probe(key(1)));
+        tree.put(key(1), new byte[100]);
+        assertEquals(4, tree.size());
+        assertEquals(100, tree.find(probe(key(1)), OffHeapTree.EXACT).mValue.length);
+        tree.clear();
+        assertEquals(0, tree.size());
+        assertEquals(0, tree.allocated());
+    }
+
+    @Override
+    protected Repository buildRepository(boolean isMaster) throws RepositoryException {
+        MapRepositoryBuilder builder = new MapRepositoryBuilder();
+        builder.setName("map");
+        builder.setMaster(isMaster);
+        builder.setOffHeap(true);
+        return builder.build();
+    }
+
+    private static MapRepository open(File dir) throws RepositoryException {
+        MapRepositoryBuilder builder = new MapRepositoryBuilder();
+        builder.setName("map");
+        builder.setOffHeap(true);
+        builder.setDataHomeFile(dir);
+        builder.setTransactionWriteNoSync(true);
+        builder.setCheckpointInterval(0);
+        AtomicReference<Repository> rootRef = new AtomicReference<Repository>();
+        MapRepository repo = new MapRepository(rootRef, builder);
+        rootRef.set(repo);
+        return repo;
+    }
+
+    private static OffHeapTree.Probe probe(byte[] key) {
+        return new OffHeapTree.KeyProbe(key, 0);
+    }
+
+    private static byte[] key(int i) {
+        return new byte[] {(byte) (i >> 24), (byte) (i >> 16), (byte) (i >> 8), (byte) i};
+    }
+
+    private static int readKey(byte[] key) {
+        return (key[0] << 24) | ((key[1] & 0xff) << 16) | ((key[2] & 0xff) << 8) | (key[3] & 0xff);
+    }
+}
@@ -18,6 +18,8 @@
 
 package com.amazon.carbonado.repo.map;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 import junit.framework.TestSuite;
 
 import org.joda.time.DateTime;
@@ -115,4 +117,39 @@ public class TestStorables extends com.amazon.carbonado.TestStorables {
         builder.setMaster(isMaster);
         return builder.build();
     }
+
+    static StorableTestBasic newInstance(Storage<StorableTestBasic> storage, int id) {
+        StorableTestBasic s = storage.prepare();
+        s.setId(id);
+        s.setStringProp("str_" + id);
+        s.setIntProp(id);
+        s.setLongProp(id);
+        s.setDoubleProp(id);
+        return s;
+    }
+
+    /**
+     * Runs the operation in a separate thread and waits for it to finish.
+     *
+     * @return operation result, or the exception it threw
+     */
+    static Object runInThread(final Op op) throws InterruptedException {
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    result.set(op.run());
+                } catch (Exception e) {
+                    result.set(e);
+                }
+            }
+        };
+        t.start();
+        t.join();
+        return result.get();
+    }
+
+    static interface Op {
+        Object run() throws Exception;
+    }
 }
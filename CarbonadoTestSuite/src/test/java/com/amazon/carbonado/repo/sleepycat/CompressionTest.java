@@ -235,6 +235,100 @@ public class CompressionTest extends TestCase {
         assertEquals(0, layout.getGeneration());
     }
 
+    public void test_layoutLZ() throws Exception {
+        // Verify that records remain readable as LZ compression and its
+        // dictionary are changed.
+
+        mDir = TestUtilities.makeTempDir("comp-lz");
+
+        BDBRepositoryBuilder bdb = new BDBRepositoryBuilder();
+        bdb.setName("comp-lz");
+        bdb.setEnvironmentHomeFile(mDir);
+        bdb.setCacheSize(200000);
+        bdb.setTransactionWriteNoSync(true);
+        mRepository = bdb.build();
+
+        insertMessages(0, 100);
+        mRepository.close();
+
+        bdb.setCompressor(StorableMessage1.class.getName(), "LZ");
+        mRepository = bdb.build();
+
+        insertMessages(100, 200);
+        verifyMessages(200);
+        LayoutCapability cap = mRepository.getCapability(LayoutCapability.class);
+        assertEquals(1, cap.layoutFor(StorableMessage1.class).getGeneration());
+        mRepository.close();
+
+        bdb.setCompressionDictionary(StorableMessage1.class.getName(),
+                                     "lemon-lemon-message-value-".getBytes("UTF-8"));
+        mRepository = bdb.build();
+
+        insertMessages(200, 300);
+        verifyMessages(300);
+        cap = mRepository.getCapability(LayoutCapability.class);
+        assertEquals(2, cap.layoutFor(StorableMessage1.class).getGeneration());
+        mRepository.close();
+
+        bdb.setCompressor(StorableMessage1.class.getName(), "NONE");
+        mRepository = bdb.build();
+
+        verifyMessages(300);
+    }
+
+    public void test_lazyLayoutLZ() throws Exception {
+        // Verify that lazily decoded records can be read across layout
+        // generations and compression changes.
+
+        mDir = TestUtilities.makeTempDir("comp-lazy");
+
+        BDBRepositoryBuilder bdb = new BDBRepositoryBuilder();
+        bdb.setName("comp-lazy");
+        bdb.setEnvironmentHomeFile(mDir);
+        bdb.setCacheSize(200000);
+        bdb.setTransactionWriteNoSync(true);
+        bdb.setLazyDecoding(StorableMessage1.class.getName(), true);
+        mRepository = bdb.build();
+
+        insertMessages(0, 100);
+        verifyMessages(100);
+        mRepository.close();
+
+        bdb.setCompressor(StorableMessage1.class.getName(), "LZ");
+        mRepository = bdb.build();
+
+        insertMessages(100, 200);
+        verifyMessages(200);
+        mRepository.close();
+
+        bdb.setLazyDecoding(StorableMessage1.class.getName(), false);
+        mRepository = bdb.build();
+
+        verifyMessages(200);
+    }
+
+    private void insertMessages(int start, int end) throws Exception {
+        Storage<StorableMessage1> storage = mRepository.storageFor(StorableMessage1.class);
+        for (int i=start; i<end; i++) {
+            StorableMessage1 message = storage.prepare();
+            message.setKey("key-" + i);
+            message.setValue("lemon-lemon-message-value-" + i + "-lemon-lemon-lemon");
+            message.insert();
+        }
+    }
+
+    private void verifyMessages(int count) throws Exception {
+        Storage<StorableMessage1> storage = mRepository.storageFor(StorableMessage1.class);
+        for (int i=0; i<count; i++) {
+            StorableMessage1 message = storage.prepare();
+            message.setKey("key-" + i);
+            message.load();
+            assertEquals("lemon-lemon-message-value-" + i + "-lemon-lemon-lemon",
+                         message.getValue());
+        }
+        assertEquals(count, storage.query().count());
+    }
+
     public void test_unevolvable() throws Exception {
         // Demonstrate that unevolvable storables cannot switch compression mode.
 
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.sleepycat;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.IsolationLevel;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.Storage;
+import com.amazon.carbonado.TestUtilities;
+import com.amazon.carbonado.Transaction;
+
+import com.amazon.carbonado.stored.StorableTestBasic;
+
+/**
+ * Tests scans by BDB cursors which read in bulk.
+ *
+ * @author Brian S O'Neill
+ */
+public class TestBulkRead extends TestCase {
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static TestSuite suite() {
+        return new TestSuite(TestBulkRead.class);
+    }
+
+    private Repository mRepository;
+
+    public TestBulkRead(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        mRepository = TestUtilities.buildTempRepository("bulkread");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mRepository != null) {
+            mRepository.close();
+            mRepository = null;
+        }
+    }
+
+    public void test_scans() throws Exception {
+        Storage<StorableTestBasic> storage = mRepository.storageFor(StorableTestBasic.class);
+
+        final int count = 2000;
+        for (int i=0; i<count; i++) {
+            StorableTestBasic s = storage.prepare();
+            s.initPropertiesPredictably(i);
+            s.insert();
+        }
+
+        // Full scan.
+        Cursor<StorableTestBasic> cursor = storage.query().fetch();
+        for (int i=0; i<count; i++) {
+            assertTrue(cursor.hasNext());
+            StorableTestBasic s = cursor.next();
+            assertEquals(i, s.getId());
+            assertEquals("string-" + (i % 100), s.getStringProp());
+        }
+        assertFalse(cursor.hasNext());
+
+        // Range scans.
+        List<StorableTestBasic> list = storage.query("id >= ? & id < ?")
+            .with(100).with(1500).fetch().toList();
+        assertEquals(1400, list.size());
+        assertEquals(100, list.get(0).getId());
+        assertEquals(1499, list.get(1399).getId());
+
+        list = storage.query("id > ?").with(1990).orderBy("-id").fetch().toList();
+        assertEquals(9, list.size());
+        assertEquals(1999, list.get(0).getId());
+
+        // Skip within and past the end.
+        cursor = storage.query("id >= ?").with(10).fetch();
+        assertEquals(100, cursor.skipNext(100));
+        assertEquals(110, cursor.next().getId());
+        assertEquals(count - 111, cursor.skipNext(count));
+        assertFalse(cursor.hasNext());
+
+        cursor = storage.query().fetch();
+        assertEquals(count, cursor.skipNext(count * 2));
+        assertFalse(cursor.hasNext());
+
+        assertEquals(count, storage.query().count());
+        assertEquals(1000, storage.query("id < ?").with(1000).count());
+
+        // Scan and update without bulk read.
+        Transaction txn = mRepository.enterTransaction(IsolationLevel.READ_COMMITTED);
+        try {
+            txn.setForUpdate(true);
+            cursor = storage.query("id < ?").with(50).fetch();
+            while (cursor.hasNext()) {
+                StorableTestBasic s = cursor.next();
+                s.setIntProp(-s.getId());
+                s.update();
+            }
+            txn.commit();
+        } finally {
+            txn.exit();
+        }
+
+        list = storage.query("intProp <= ?").with(0).fetch().toList();
+        assertEquals(50, list.size());
+    }
+}
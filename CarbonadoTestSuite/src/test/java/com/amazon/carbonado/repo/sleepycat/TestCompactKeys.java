@@ -0,0 +1,152 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.sleepycat;
+
+import java.util.List;
+
+import junit.framework.TestSuite;
+
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+import com.amazon.carbonado.TestUtilities;
+
+import com.amazon.carbonado.layout.LayoutCapability;
+import com.amazon.carbonado.layout.LayoutOptions;
+
+import com.amazon.carbonado.raw.GenericStorableCodecFactory;
+import com.amazon.carbonado.raw.KeyEncodingType;
+
+import com.amazon.carbonado.stored.StorableTestBasic;
+
+/**
+ * Runs the standard storable tests against a BDB repository which uses
+ * compact key encoding for all storables.
+ *
+ * @author Brian S O'Neill
+ */
+public class TestCompactKeys extends com.amazon.carbonado.TestStorables {
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static TestSuite suite() {
+        return new TestSuite(TestCompactKeys.class);
+    }
+
+    public TestCompactKeys(String name) {
+        super(name);
+    }
+
+    @Override
+    protected Repository buildRepository(boolean isMaster) throws RepositoryException {
+        BDBRepositoryBuilder builder = (BDBRepositoryBuilder)
+            TestUtilities.newTempRepositoryBuilder("compact", isMaster);
+        builder.setKeyPrefixing(true);
+        builder.setStorableCodecFactory(new GenericStorableCodecFactory() {
+            @Override
+            protected KeyEncodingType getKeyEncodingType(Class<? extends Storable> type) {
+                return KeyEncodingType.COMPACT;
+            }
+        });
+        return builder.build();
+    }
+
+    public void test_compactRanges() throws Exception {
+        Storage<StorableTestBasic> storage =
+            getRepository().storageFor(StorableTestBasic.class);
+
+        int[] ids = {-100000, -300, -1, 0, 1, 255, 256, 70000, Integer.MAX_VALUE};
+        for (int id : ids) {
+            StorableTestBasic s = storage.prepare();
+            s.initPropertiesPredictably(id);
+            s.setId(id);
+            s.insert();
+        }
+
+        List<StorableTestBasic> list = storage.query().orderBy("id").fetch().toList();
+        assertEquals(ids.length, list.size());
+        for (int i=0; i<ids.length; i++) {
+            assertEquals(ids[i], list.get(i).getId());
+        }
+
+        list = storage.query("id >= ? & id < ?").with(-300).with(256)
+            .orderBy("-id").fetch().toList();
+        assertEquals(5, list.size());
+        assertEquals(255, list.get(0).getId());
+        assertEquals(-300, list.get(4).getId());
+    }
+
+    public void test_lockIn() throws Exception {
+        BDBRepositoryBuilder builder = (BDBRepositoryBuilder)
+            TestUtilities.newTempRepositoryBuilder("compact-lock");
+        builder.setLogInMemory(false);
+
+        Repository repo = builder.build();
+        Storage<StorableTestBasic> storage = repo.storageFor(StorableTestBasic.class);
+        for (int i=0; i<10; i++) {
+            StorableTestBasic s = storage.prepare();
+            s.initPropertiesPredictably(i);
+            s.insert();
+        }
+        assertEquals(null, keyEncoding(repo));
+        repo.close();
+
+        // Requesting compact keys has no effect while records exist.
+        builder.setCompactKeys(StorableTestBasic.class.getName(), true);
+        repo = builder.build();
+        storage = repo.storageFor(StorableTestBasic.class);
+        assertEquals(null, keyEncoding(repo));
+        assertEquals(10, storage.query().count());
+        StorableTestBasic s = storage.prepare();
+        s.setId(5);
+        assertTrue(s.tryLoad());
+        storage.query().deleteAll();
+        repo.close();
+
+        // Once empty, the requested encoding takes effect.
+        repo = builder.build();
+        storage = repo.storageFor(StorableTestBasic.class);
+        assertEquals(KeyEncodingType.COMPACT.name(), keyEncoding(repo));
+        for (int i=0; i<10; i++) {
+            s = storage.prepare();
+            s.initPropertiesPredictably(i);
+            s.insert();
+        }
+        repo.close();
+
+        // Standard encoding is no longer desired, but compact remains in use.
+        builder.setCompactKeys(StorableTestBasic.class.getName(), false);
+        repo = builder.build();
+        storage = repo.storageFor(StorableTestBasic.class);
+        assertEquals(KeyEncodingType.COMPACT.name(), keyEncoding(repo));
+        s = storage.prepare();
+        s.setId(7);
+        assertTrue(s.tryLoad());
+        assertEquals("string-7", s.getStringProp());
+        repo.close();
+    }
+
+    private static String keyEncoding(Repository repo) throws Exception {
+        LayoutOptions options = repo.getCapability(LayoutCapability.class)
+            .layoutFor(StorableTestBasic.class).getOptions();
+        return options == null ? null : options.getKeyEncoding();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.sleepycat;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+
+import java.util.List;
+
+import junit.framework.TestSuite;
+
+import com.amazon.carbonado.CorruptEncodingException;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+import com.amazon.carbonado.TestUtilities;
+
+import com.amazon.carbonado.raw.GenericStorableCodec;
+import com.amazon.carbonado.raw.GenericStorableCodecFactory;
+import com.amazon.carbonado.raw.RawSupport;
+
+import com.amazon.carbonado.stored.StorableTestBasic;
+
+/**
+ * Runs the standard storable tests against a BDB repository which decodes all
+ * storables lazily.
+ *
+ * @author Brian S O'Neill
+ */
+public class TestLazyDecoding extends com.amazon.carbonado.TestStorables {
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static TestSuite suite() {
+        return new TestSuite(TestLazyDecoding.class);
+    }
+
+    public TestLazyDecoding(String name) {
+        super(name);
+    }
+
+    @Override
+    protected Repository buildRepository(boolean isMaster) throws RepositoryException {
+        BDBRepositoryBuilder builder = (BDBRepositoryBuilder)
+            TestUtilities.newTempRepositoryBuilder("lazy", isMaster);
+        builder.setStorableCodecFactory(new LazyCodecFactory());
+        return builder.build();
+    }
+
+    public void test_corruptData() throws Exception {
+        GenericStorableCodec<StorableTestBasic> codec = new LazyCodecFactory()
+            .createCodec(StorableTestBasic.class, null, true, null);
+
+        // Support which has no triggers, and decoding doesn't use it.
+        RawSupport<StorableTestBasic> support = (RawSupport<StorableTestBasic>)
+            Proxy.newProxyInstance(getClass().getClassLoader(),
+                                   new Class[] {RawSupport.class},
+                                   new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (method.getName().endsWith("Trigger")) {
+                        return null;
+                    }
+                    throw new UnsupportedOperationException();
+                }
+            });
+
+        byte[] key = codec.encodePrimaryKey(new Object[] {1});
+
+        // Data is too short, but it isn't decoded until accessed.
+        StorableTestBasic s = codec.instantiate(support, key, new byte[1]);
+        assertEquals(1, s.getId());
+
+        try {
+            s.getIntProp();
+            fail();
+        } catch (UndeclaredThrowableException e) {
+            assertTrue(e.getCause() instanceof CorruptEncodingException);
+        }
+
+        s = codec.instantiate(support, key, new byte[1]);
+        try {
+            s.toString();
+            fail();
+        } catch (UndeclaredThrowableException e) {
+            assertTrue(e.getCause() instanceof CorruptEncodingException);
+        }
+    }
+
+    public void test_lazyAccess() throws Exception {
+        Storage<StorableTestBasic> storage =
+            getRepository().storageFor(StorableTestBasic.class);
+
+        for (int i=0; i<10; i++) {
+            StorableTestBasic s = storage.prepare();
+            s.initPropertiesPredictably(i);
+            s.insert();
+        }
+
+        // Access properties out of order.
+        StorableTestBasic s = storage.prepare();
+        s.setId(3);
+        s.load();
+        assertEquals(15.0 / 10, s.getDoubleProp());
+        assertEquals("string-3", s.getStringProp());
+        assertEquals(30, s.getLongProp());
+        assertEquals(30, s.getIntProp());
+        assertEquals(null, s.getDate());
+
+        // Set a property before any are decoded.
+        s = storage.prepare();
+        s.setId(4);
+        s.load();
+        s.setIntProp(-1);
+        assertEquals("string-4", s.getStringProp());
+        assertEquals(-1, s.getIntProp());
+        assertTrue(s.isPropertyDirty("intProp"));
+        assertTrue(s.isPropertyClean("longProp"));
+        s.update();
+
+        // Compare and copy before any are decoded.
+        StorableTestBasic a = storage.prepare();
+        a.setId(4);
+        a.load();
+        StorableTestBasic b = storage.prepare();
+        b.setId(4);
+        b.load();
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertEquals(a.toString(), b.toString());
+        StorableTestBasic c = (StorableTestBasic) a.copy();
+        assertEquals(-1, c.getIntProp());
+        assertEquals(b, c);
+
+        // Filter decodes only as far as needed.
+        List<StorableTestBasic> list = storage.query("intProp > ? & stringProp = ?")
+            .with(0).with("string-7").fetch().toList();
+        assertEquals(1, list.size());
+        assertEquals(7, list.get(0).getId());
+        assertEquals(35.0 / 10, list.get(0).getDoubleProp());
+
+        // Update without decoding.
+        s = storage.prepare();
+        s.setId(5);
+        s.load();
+        s.setStringProp("hello");
+        s.update();
+        s = storage.prepare();
+        s.setId(5);
+        s.load();
+        assertEquals(50, s.getLongProp());
+        assertEquals("hello", s.getStringProp());
+    }
+
+    private static class LazyCodecFactory extends GenericStorableCodecFactory {
+        @Override
+        protected boolean isLazyDecoding(Class<? extends Storable> type) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.sleepycat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.Storage;
+import com.amazon.carbonado.TestUtilities;
+
+import com.amazon.carbonado.cursor.FilteredCursor;
+import com.amazon.carbonado.cursor.IteratorCursor;
+
+import com.amazon.carbonado.raw.RawCursor;
+
+import com.amazon.carbonado.stored.StorableTestBasic;
+
+/**
+ * Tests filters which are pushed down into BDB cursors, and evaluated against
+ * encoded records.
+ *
+ * @author Brian S O'Neill
+ */
+public class TestRawFilter extends TestCase {
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static TestSuite suite() {
+        return new TestSuite(TestRawFilter.class);
+    }
+
+    private Repository mRepository;
+
+    public TestRawFilter(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        mRepository = TestUtilities.buildTempRepository("rawfilter");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mRepository != null) {
+            mRepository.close();
+            mRepository = null;
+        }
+    }
+
+    public void test_pushDown() throws Exception {
+        Storage<StorableTestBasic> storage = mRepository.storageFor(StorableTestBasic.class);
+
+        for (int i=0; i<200; i++) {
+            StorableTestBasic s = storage.prepare();
+            s.initPropertiesPredictably(i);
+            s.insert();
+        }
+
+        // Data properties only.
+        Query<StorableTestBasic> query = storage.query("stringProp = ? & intProp > ?")
+            .with("string-42").with(0);
+        assertPushedDown(query);
+        List<StorableTestBasic> list = query.fetch().toList();
+        assertEquals(2, list.size());
+        assertEquals(42, list.get(0).getId());
+        assertEquals(142, list.get(1).getId());
+        assertEquals(142 / 2.0, list.get(1).getDoubleProp());
+
+        // Key and data properties.
+        query = storage.query("id != ? & longProp < ?").with(3).with(50L);
+        assertPushedDown(query);
+        list = query.fetch().toList();
+        assertEquals(4, list.size());
+        for (StorableTestBasic s : list) {
+            assertTrue(s.getId() != 3 && s.getLongProp() < 50);
+        }
+
+        // Disjunction and nulls.
+        query = storage.query("doubleProp >= ? | date = ?").with(99.0).with(null);
+        assertPushedDown(query);
+        assertEquals(200, query.count());
+        query = storage.query("doubleProp >= ? & date = ?").with(99.0).with(null);
+        assertEquals(2, query.count());
+
+        // Skipping only counts allowed entries.
+        query = storage.query("intProp < ? & stringProp > ?").with(1000).with("string-5");
+        Cursor<StorableTestBasic> cursor = query.fetch();
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i=0; i<100; i++) {
+            if (("string-" + i).compareTo("string-5") > 0) {
+                expected.add(i);
+            }
+        }
+        assertEquals(2, cursor.skipNext(2));
+        assertEquals((int) expected.get(2), cursor.next().getId());
+        assertEquals(expected.size() - 3, cursor.skipNext(1000));
+        assertFalse(cursor.hasNext());
+
+        // Results are the same as when the filter is applied by a wrapper.
+        query = storage.query("stringProp = ? | (id > ? & longProp < ?)")
+            .with("string-7").with(190).with(1950L);
+        assertPushedDown(query);
+        list = query.fetch().toList();
+        List<StorableTestBasic> all = storage.query().fetch().toList();
+        Cursor<StorableTestBasic> filtered = FilteredCursor.applyFilter
+            (new IteratorCursor<StorableTestBasic>(all), StorableTestBasic.class,
+             "stringProp = ? | (id > ? & longProp < ?)", "string-7", 190, 1950L);
+        assertEquals(filtered.toList(), list);
+    }
+
+    private static void assertPushedDown(Query<StorableTestBasic> query) throws Exception {
+        Cursor<StorableTestBasic> cursor = query.fetch();
+        try {
+            assertTrue(cursor instanceof RawCursor);
+        } finally {
+            cursor.close();
+        }
+    }
+}
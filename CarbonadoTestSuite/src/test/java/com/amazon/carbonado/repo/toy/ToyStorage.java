@@ -26,6 +26,7 @@ import java.util.LinkedList;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import com.amazon.carbonado.Cursor;
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.IsolationLevel;
 import com.amazon.carbonado.PersistException;
@@ -38,6 +39,8 @@ import com.amazon.carbonado.SupportException;
 import com.amazon.carbonado.Transaction;
 import com.amazon.carbonado.Trigger;
 
+import com.amazon.carbonado.cursor.KeyLoadCursor;
+
 import com.amazon.carbonado.sequence.SequenceValueProducer;
 
 import com.amazon.carbonado.gen.DelegateStorableGenerator;
@@ -115,6 +118,10 @@ public class ToyStorage<S extends Storable>
         return new ToyQuery(filter, null, null);
     }
 
+    public Cursor<S> loadAll(Collection<? extends S> keys) {
+        return new KeyLoadCursor<S>(this, keys);
+    }
+
     public Query<S> query(Filter<S> filter, FilterValues<S> values, OrderingList<S> ordering,
                           QueryHints hints)
     {
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.spi;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Trigger;
+import com.amazon.carbonado.TriggerFactory;
+
+import com.amazon.carbonado.repo.map.MapRepositoryBuilder;
+
+import com.amazon.carbonado.stored.BigIntegerAdapter;
+import com.amazon.carbonado.stored.Dummy;
+import com.amazon.carbonado.stored.Order;
+import com.amazon.carbonado.stored.StorableTestBasic;
+import com.amazon.carbonado.stored.StorableTestInvalid;
+
+/**
+ * Tests for storage warm up when a repository is built.
+ *
+ * @author Brian S O'Neill
+ */
+public class TestStorageWarmUp extends TestCase {
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static TestSuite suite() {
+        return new TestSuite(TestStorageWarmUp.class);
+    }
+
+    public TestStorageWarmUp(String name) {
+        super(name);
+    }
+
+    public void test_scan() throws Exception {
+        List<Class<? extends Storable>> types = new ArrayList<Class<? extends Storable>>();
+        StorageWarmUp.scan(getClass().getClassLoader(), "com.amazon.carbonado.stored", types);
+
+        assertTrue(types.contains(StorableTestBasic.class));
+        assertTrue(types.contains(Dummy.class));
+        assertFalse(types.contains(BigIntegerAdapter.class));
+        assertFalse(types.contains(Storable.class));
+
+        types.clear();
+        StorageWarmUp.scan(getClass().getClassLoader(), "com.amazon.carbonado.nothing", types);
+        assertTrue(types.isEmpty());
+    }
+
+    public void test_warmUpTypes() throws Exception {
+        MapRepositoryBuilder builder = new MapRepositoryBuilder();
+        Recorder recorder = new Recorder();
+        builder.addTriggerFactory(recorder);
+
+        assertTrue(builder.addWarmUpType(StorableTestBasic.class));
+        assertFalse(builder.addWarmUpType(StorableTestBasic.class));
+        // Malformed type doesn't cause build to fail.
+        assertTrue(builder.addWarmUpType(StorableTestInvalid.class));
+        builder.setWarmUpThreads(2);
+
+        Repository repo = builder.build();
+        try {
+            assertTrue(recorder.getTypes().contains(StorableTestBasic.class));
+        } finally {
+            repo.close();
+        }
+    }
+
+    public void test_warmUpPackage() throws Exception {
+        MapRepositoryBuilder builder = new MapRepositoryBuilder();
+        Recorder recorder = new Recorder();
+        builder.addTriggerFactory(recorder);
+        builder.addWarmUpPackage("com.amazon.carbonado.stored");
+
+        Repository repo = builder.build();
+        try {
+            Set<Class<?>> types = recorder.getTypes();
+            assertTrue(types.contains(StorableTestBasic.class));
+            assertTrue(types.contains(Order.class));
+        } finally {
+            repo.close();
+        }
+    }
+
+    private static class Recorder implements TriggerFactory {
+        private final Set<Class<?>> mTypes = new HashSet<Class<?>>();
+
+        public synchronized <S extends Storable> Trigger<? super S> triggerFor(Class<S> type) {
+            mTypes.add(type);
+            return null;
+        }
+
+        synchronized Set<Class<?>> getTypes() {
+            return new HashSet<Class<?>>(mTypes);
+        }
+    }
+}
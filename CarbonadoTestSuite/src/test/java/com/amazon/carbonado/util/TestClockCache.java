@@ -0,0 +1,135 @@
+/*
+ * Copyright 2006-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.util;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ *
+ *
+ * @author Brian S O'Neill
+ */
+public class TestClockCache extends TestCase {
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static TestSuite suite() {
+        return new TestSuite(TestClockCache.class);
+    }
+
+    public TestClockCache(String name) {
+        super(name);
+    }
+
+    public void test_basic() {
+        ClockCache<String, String> cache = new ClockCache<String, String>(2);
+
+        assertNull(cache.get("a"));
+        assertNull(cache.put("a", "1"));
+        assertNull(cache.putIfAbsent("b", "2"));
+        assertEquals("2", cache.putIfAbsent("b", "3"));
+        assertEquals("1", cache.put("a", "4"));
+        assertEquals("4", cache.get("a"));
+        assertEquals("2", cache.get("b"));
+
+        // Exceeding the capacity demotes values, but they remain available.
+        for (int i=0; i<100; i++) {
+            cache.put("k" + i, "v" + i);
+        }
+        assertEquals(102, cache.size());
+        assertEquals("v7", cache.get("k7"));
+
+        assertEquals("4", cache.remove("a"));
+        assertNull(cache.get("a"));
+        assertNull(cache.remove("a"));
+
+        assertEquals(3, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals(3, cache.getMissCount());
+    }
+
+    public void test_illegal() {
+        try {
+            new ClockCache<String, String>(-1);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+
+        ClockCache<String, String> cache = new ClockCache<String, String>(0);
+        try {
+            cache.put(null, "a");
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            cache.putIfAbsent("a", null);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void test_concurrent() throws Exception {
+        final ClockCache<Integer, Integer> cache = new ClockCache<Integer, Integer>(10);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        Thread[] threads = new Thread[8];
+        for (int t=0; t<threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i=0; i<100000; i++) {
+                            Integer key = i % 50;
+                            Integer value = cache.get(key);
+                            if (value == null) {
+                                value = cache.putIfAbsent(key, key);
+                            }
+                            if (value != null && !value.equals(key)) {
+                                throw new AssertionError(key + " != " + value);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        if (failure.get() != null) {
+            throw new Exception(failure.get());
+        }
+
+        assertEquals(threads.length * 100000L, cache.getHitCount() + cache.getMissCount());
+        for (int i=0; i<50; i++) {
+            assertEquals(Integer.valueOf(i), cache.get(i));
+        }
+    }
+}